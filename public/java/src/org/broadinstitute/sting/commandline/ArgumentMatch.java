@@ -246,6 +246,8 @@ public class ArgumentMatch implements Iterable<ArgumentMatch> {
      * @param other The other match to merge into.
      */
     public void mergeInto( ArgumentMatch other ) {
+        if( other == this )
+            return;
         sites.putAll(other.sites);
     }
 
@@ -102,7 +102,11 @@ public class ArgumentMatches implements Iterable<ArgumentMatch> {
      * @return True if a match exists; false otherwise.
      */
     boolean hasMatch( ArgumentDefinition definition ) {
-        return findMatches( definition ).size() > 0;
+        for( ArgumentMatch argumentMatch: argumentMatches.values() ) {
+            if( argumentMatch.definition == definition )
+                return true;
+        }
+        return false;
     }
 
     /**
@@ -130,7 +134,7 @@ public class ArgumentMatches implements Iterable<ArgumentMatch> {
      */
     ArgumentMatches findMatches( ArgumentDefinition definition ) {
         ArgumentMatches matches = new ArgumentMatches();
-        for( ArgumentMatch argumentMatch: argumentMatches.values() ) {
+        for( ArgumentMatch argumentMatch: getUniqueMatches() ) {
             if( argumentMatch.definition == definition )
                 matches.mergeInto( argumentMatch );
         }
@@ -143,7 +147,7 @@ public class ArgumentMatches implements Iterable<ArgumentMatch> {
      */
     ArgumentMatches findSuccessfulMatches() {
         ArgumentMatches matches = new ArgumentMatches();
-        for( ArgumentMatch argumentMatch: argumentMatches.values() ) {
+        for( ArgumentMatch argumentMatch: getUniqueMatches() ) {
             if( argumentMatch.definition != null )
                 matches.mergeInto( argumentMatch );
         }
@@ -156,7 +160,7 @@ public class ArgumentMatches implements Iterable<ArgumentMatch> {
      */
     ArgumentMatches findUnmatched() {
         ArgumentMatches matches = new ArgumentMatches();
-        for( ArgumentMatch argumentMatch: argumentMatches.values() ) {
+        for( ArgumentMatch argumentMatch: getUniqueMatches() ) {
             if( argumentMatch.definition == null )
                 matches.mergeInto( argumentMatch );
         }
@@ -172,7 +176,7 @@ public class ArgumentMatches implements Iterable<ArgumentMatch> {
      */
     ArgumentMatches transform(Multiplexer multiplexer, Object key) {
         ArgumentMatches newArgumentMatches = new ArgumentMatches();
-        for(ArgumentMatch match: argumentMatches.values())
+        for(ArgumentMatch match: getUniqueMatches())
             newArgumentMatches.mergeInto(match.transform(multiplexer,key));
         return newArgumentMatches;
     }
@@ -203,6 +207,8 @@ public class ArgumentMatches implements Iterable<ArgumentMatch> {
 
     /**
      * Determines, of the argument matches by position, which are unique and returns that list.
+     * An argument given at many sites (say, thousands of -V bindings) is one match stored under each of its
+     * sites, so anything walking the matches should walk this list rather than the values by position.
      * @return A unique set of matches.
      */
     private Set<ArgumentMatch> getUniqueMatches() {
@@ -30,14 +30,18 @@ import org.broad.tribble.AbstractFeatureReader;
 import org.broad.tribble.Feature;
 import org.broad.tribble.FeatureCodec;
 import org.broad.tribble.FeatureReader;
+import org.broad.tribble.bed.BEDCodec;
 import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 import org.broadinstitute.sting.gatk.refdata.ReferenceDependentFeatureCodec;
 import org.broadinstitute.sting.gatk.refdata.tracks.FeatureManager;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.interval.BulkIntervalLoader;
 import org.broadinstitute.sting.utils.interval.IntervalUtils;
+import org.broadinstitute.sting.utils.interval.PackedIntervals;
 
+import java.io.File;
 import java.util.*;
 
 /**
@@ -102,6 +106,26 @@ public final class IntervalBinding<T extends Feature> {
         return intervals;
     }
 
+    /**
+     * Gets the intervals of this binding as packed intervals, which is much cheaper than getIntervals() for large
+     * interval files.  Bindings that can't be bulk loaded are read with getIntervals().
+     *
+     * @param genomeLocParser the parser for the reference the intervals are on
+     * @return the intervals of this binding, in no particular order
+     */
+    public PackedIntervals getPackedIntervals(final GenomeLocParser genomeLocParser) {
+        if ( featureIntervals == null )
+            return IntervalUtils.parsePackedIntervalArgument(genomeLocParser, stringIntervals);
+
+        if ( new FeatureManager().getByName(featureIntervals.getTribbleType()).getCodecClass() == BEDCodec.class ) {
+            final PackedIntervals intervals = BulkIntervalLoader.loadBEDFile(genomeLocParser, new File(featureIntervals.getSource()));
+            if ( intervals != null )
+                return intervals;
+        }
+
+        return PackedIntervals.fromGenomeLocs(getIntervals(genomeLocParser));
+    }
+
     public String toString() {
         return getSource();
     }
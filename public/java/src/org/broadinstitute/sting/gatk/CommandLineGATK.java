@@ -89,7 +89,6 @@ public class CommandLineGATK extends CommandLineExecutable {
         try {
             CommandLineGATK instance = new CommandLineGATK();
             start(instance, argv);
-            System.exit(CommandLineProgram.result); // todo -- this is a painful hack
         } catch (UserException e) {
             exitSystemWithUserError(e);
         } catch (TribbleException e) {
@@ -108,6 +107,8 @@ public class CommandLineGATK extends CommandLineExecutable {
             checkForMaskedUserErrors(t);
             exitSystemWithError(t);
         }
+        // outside of the try, so that a JvmWorker trapping the exit doesn't report it as an error
+        System.exit(CommandLineProgram.result); // todo -- this is a painful hack
     }
 
     public static final String PICARD_TEXT_SAM_FILE_ERROR_1 = "Cannot use index file with textual SAM file";
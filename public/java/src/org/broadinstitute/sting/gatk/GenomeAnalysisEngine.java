@@ -267,8 +267,11 @@ public class GenomeAnalysisEngine {
         if (this.walker == null)
             throw new ReviewedStingException("The walker passed to GenomeAnalysisEngine can not be null.");
 
+        // the generator is static, so reset it even when deterministic: a JVM may run several GATKs in turn (see JvmWorker)
         if (args.nonDeterministicRandomSeed)
             resetRandomGenerator(System.currentTimeMillis());
+        else
+            resetRandomGenerator();
 
         // if the use specified an input BQSR recalibration table then enable on the fly recalibration
         if (args.BQSR_RECAL_FILE != null)
@@ -90,6 +90,36 @@ public class GATKBAMIndexData {
         return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
     }
 
+    /**
+     * Estimates how many bytes of reads start in each of the 16kb windows of the linear index, from the sizes
+     * of the chunks in the bins.  The chunks of bins larger than a window are spread evenly over the windows the
+     * bin covers.
+     *
+     * @param contigLength the length of the reference sequence, beyond which no reads are counted
+     * @return the estimated bytes of reads in each window of the reference sequence
+     */
+    public double[] estimateBytesPerLinearBin(final int contigLength) {
+        final int nWindows = ((contigLength - 1) >> LinearIndex.BAM_LIDX_SHIFT) + 1;
+        final double[] bytes = new double[nWindows];
+        for ( final GATKBin bin : bins ) {
+            if ( bin == null || bin.getBinNumber() >= GATKBAMIndex.MAX_BINS )
+                continue; // the pseudo-bin holding the index metadata
+
+            long binBytes = 0;
+            for ( final GATKChunk chunk : bin.getChunkList() )
+                binBytes += chunk.size();
+
+            final int firstWindow = (index.getFirstLocusInBin(bin.toBin()) - 1) >> LinearIndex.BAM_LIDX_SHIFT;
+            final int lastWindow = Math.min(nWindows - 1, (index.getLastLocusInBin(bin.toBin()) - 1) >> LinearIndex.BAM_LIDX_SHIFT);
+            if ( firstWindow > lastWindow )
+                continue;
+            final double bytesPerWindow = binBytes / (double)(lastWindow - firstWindow + 1);
+            for ( int window = firstWindow; window <= lastWindow; window++ )
+                bytes[window] += bytesPerWindow;
+        }
+        return bytes;
+    }
+
     private List<GATKChunk> optimizeChunkList(final List<GATKChunk> chunks, final long minimumOffset) {
         GATKChunk lastChunk = null;
         Collections.sort(chunks);
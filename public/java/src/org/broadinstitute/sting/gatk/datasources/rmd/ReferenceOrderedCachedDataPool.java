@@ -0,0 +1,83 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.gatk.datasources.rmd;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import org.broadinstitute.sting.gatk.refdata.CachedRODIterator;
+import org.broadinstitute.sting.gatk.refdata.tracks.ColumnarFeatureCache;
+import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrackBuilder;
+import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODIterator;
+import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.List;
+
+/**
+ * a data pool for tracks loaded into a columnar feature cache.  Every iterator shares the one cache, so
+ * the pool never creates another resource; it just hands out cheap cursors over the cache.
+ */
+class ReferenceOrderedCachedDataPool extends ResourcePool<ColumnarFeatureCache,LocationAwareSeekableRODIterator> {
+    /**
+     * The cache shared by all the iterators of this pool.
+     */
+    private final ColumnarFeatureCache cache;
+
+    public ReferenceOrderedCachedDataPool(RMDTriplet fileDescriptor, RMDTrackBuilder builder, SAMSequenceDictionary referenceSequenceDictionary, GenomeLocParser genomeLocParser) {
+        super(referenceSequenceDictionary,genomeLocParser);
+        this.cache = builder.createFeatureCache(fileDescriptor);
+        this.addNewResource(cache);
+    }
+
+    public Object getHeader() {
+        return cache.getHeader();
+    }
+
+    @Override
+    protected ColumnarFeatureCache createNewResource() {
+        throw new ReviewedStingException("The feature cache is shared by every iterator and should never be recreated");
+    }
+
+    /**
+     * The cache supports any number of concurrent cursors, so it is the best resource even while other
+     * iterators are still using it.
+     */
+    @Override
+    protected ColumnarFeatureCache selectBestExistingResource(DataStreamSegment segment, List<ColumnarFeatureCache> availableResources) {
+        return cache;
+    }
+
+    @Override
+    protected LocationAwareSeekableRODIterator createIteratorFromResource(DataStreamSegment position, ColumnarFeatureCache resource) {
+        final GenomeLoc bounds = position instanceof MappedStreamSegment ? ((MappedStreamSegment)position).locus : null;
+        return new CachedRODIterator(resource, bounds);
+    }
+
+    @Override
+    protected void closeResource(ColumnarFeatureCache resource) {
+        resource.close();
+    }
+}
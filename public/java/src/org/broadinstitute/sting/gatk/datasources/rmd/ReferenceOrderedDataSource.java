@@ -84,7 +84,15 @@ public class ReferenceOrderedDataSource {
         this.builder = builder;
 
         // TODO: Unify the two blocks of code below by creating a ReferenceOrderedDataPool base class of a coherent type (not RMDTrack for one and SeekableIterator for the other).
-        if (fileDescriptor.getStorageType() != RMDTriplet.RMDStorageType.STREAM) {
+        if (fileDescriptor.getStorageType() == RMDTriplet.RMDStorageType.CACHE) {
+            iteratorPool = new ReferenceOrderedCachedDataPool(fileDescriptor,
+                                                              builder,
+                                                              referenceSequenceDictionary,
+                                                              genomeLocParser);
+            this.header = ((ReferenceOrderedCachedDataPool)iteratorPool).getHeader();
+            this.sequenceDictionary = null;
+        }
+        else if (fileDescriptor.getStorageType() != RMDTriplet.RMDStorageType.STREAM) {
             iteratorPool = new ReferenceOrderedQueryDataPool(fileDescriptor,
                                                              builder,
                                                              referenceSequenceDictionary,
@@ -127,6 +135,10 @@ public class ReferenceOrderedDataSource {
         return header;
     }
 
+    public RMDTriplet.RMDStorageType getStorageType() {
+        return fileDescriptor.getStorageType();
+    }
+
     public Tags getTags() {
         return fileDescriptor.getTags();
     }
@@ -144,6 +156,14 @@ public class ReferenceOrderedDataSource {
         return sequenceDictionary;
     }
 
+    /**
+     * Gets the usage statistics of the pool of iterators over this ROD.
+     * @return A snapshot of the pool's metrics.
+     */
+    public ResourcePoolMetrics getPoolMetrics() {
+        return iteratorPool.getMetrics();
+    }
+
     /**
      * helper function for determining if we are the same track based on name and record type
      *
@@ -61,6 +61,14 @@ abstract class ResourcePool <T,I extends CloseableIterator> {
      */
     private Map<I,T> resourceAssignments = new HashMap<I,T>();
 
+    /**
+     * Operating stats: how many resources were added to the pool, how many iterator requests were served
+     * by an existing resource, and how many iterators were handed out.
+     */
+    private long nResourcesCreated = 0;
+    private long nResourcesReused = 0;
+    private long nIteratorsCreated = 0;
+
     protected ResourcePool(SAMSequenceDictionary referenceSequenceDictionary,GenomeLocParser genomeLocParser) {
         this.referenceSequenceDictionary = referenceSequenceDictionary;
         this.genomeLocParser = genomeLocParser;
@@ -84,6 +92,9 @@ abstract class ResourcePool <T,I extends CloseableIterator> {
                 selectedResource = createNewResource();
                 addNewResource(selectedResource);
             }
+            else
+                nResourcesReused++;
+            nIteratorsCreated++;
 
             // Remove the iterator from the list of available iterators.
             availableResources.remove(selectedResource);
@@ -117,10 +128,11 @@ abstract class ResourcePool <T,I extends CloseableIterator> {
             // make sure we actually removed the assignment
             if (obj == null)
                     throw new ReviewedStingException("Failed to remove resource assignment; target key had no associated value in the resource assignment map");
-            // Return the resource to the pool.
+            // Return the resource to the pool.  A resource shared by concurrent iterators may already be there.
             if( !allResources.contains(resource) )
                 throw new ReviewedStingException("Iterator does not belong to the given pool.");
-            availableResources.add(resource);
+            if( !availableResources.contains(resource) )
+                availableResources.add(resource);
         }
     }
 
@@ -133,6 +145,20 @@ abstract class ResourcePool <T,I extends CloseableIterator> {
         synchronized(this) {
             allResources.add(resource);
             availableResources.add(resource);
+            nResourcesCreated++;
+        }
+    }
+
+    /**
+     * Retire every resource in the pool, closing each one exactly once.  Iterators still out
+     * should be released before the pool is closed.
+     */
+    void close() {
+        synchronized(this) {
+            for( T resource: allResources )
+                closeResource(resource);
+            allResources.clear();
+            availableResources.clear();
         }
     }
 
@@ -184,5 +210,13 @@ abstract class ResourcePool <T,I extends CloseableIterator> {
         return availableResources.size();
     }
 
+    /**
+     * Operating stats...get a snapshot of the usage of this pool.
+     * @return The number of resources created and reused, and iterators handed out, so far.
+     */
+    public synchronized ResourcePoolMetrics getMetrics() {
+        return new ResourcePoolMetrics(nResourcesCreated, nResourcesReused, nIteratorsCreated);
+    }
+
 }
 
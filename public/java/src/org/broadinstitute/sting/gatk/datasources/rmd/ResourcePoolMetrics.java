@@ -0,0 +1,67 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.rmd;
+
+/**
+ * An immutable snapshot of the usage of a ResourcePool.
+ */
+public class ResourcePoolMetrics {
+    private final long nResourcesCreated;
+    private final long nResourcesReused;
+    private final long nIteratorsCreated;
+
+    public ResourcePoolMetrics(final long nResourcesCreated, final long nResourcesReused, final long nIteratorsCreated) {
+        this.nResourcesCreated = nResourcesCreated;
+        this.nResourcesReused = nResourcesReused;
+        this.nIteratorsCreated = nIteratorsCreated;
+    }
+
+    /**
+     * @return the number of resources (open files, streams, caches) added to the pool
+     */
+    public long getNumResourcesCreated() {
+        return nResourcesCreated;
+    }
+
+    /**
+     * @return the number of iterator requests served by a resource already in the pool
+     */
+    public long getNumResourcesReused() {
+        return nResourcesReused;
+    }
+
+    /**
+     * @return the number of iterators handed out, whether over a new or an existing resource
+     */
+    public long getNumIteratorsCreated() {
+        return nIteratorsCreated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("created=%d reused=%d iterators=%d", nResourcesCreated, nResourcesReused, nIteratorsCreated);
+    }
+}
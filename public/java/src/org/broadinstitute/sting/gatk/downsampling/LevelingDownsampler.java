@@ -25,7 +25,7 @@
 
 package org.broadinstitute.sting.gatk.downsampling;
 
-import org.broadinstitute.sting.utils.MathUtils;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 
 import java.util.*;
 
@@ -34,8 +34,11 @@ import java.util.*;
  * the Lists in an even fashion until the total size of all Lists is <= the target size. Leveling
  * does not occur until all Lists have been submitted and signalEndOfInput() is called.
  *
- * The Lists should be LinkedLists for maximum efficiency during item removal, however other
- * kinds of Lists are also accepted (albeit at a slight performance penalty).
+ * The Lists should be LinkedLists or ArrayLists (or any other RandomAccess List) for maximum efficiency
+ * during item removal, however other kinds of Lists are also accepted (albeit at a slight performance penalty).
+ *
+ * Leveling takes time proportional to the number of items in all the Lists, plus n log k for n Lists
+ * of at most k items each, no matter how many items have to be removed.
  *
  * Since this downsampler extends the Downsampler interface rather than the ReadsDownsampler interface,
  * the Lists need not contain reads. However this downsampler may not be wrapped within one of the
@@ -55,6 +58,12 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
 
     private boolean groupsAreFinalized;
 
+    /**
+     * Scratch space for choosing which items of a group to keep, reused from group to group
+     */
+    private int[] indices = new int[0];
+    private final BitSet itemsToKeep = new BitSet();
+
     /**
      * Construct a LevelingDownsampler
      *
@@ -152,7 +161,8 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
     }
 
     private void levelGroups() {
-        final int[] groupSizes = new int[groups.size()];
+        final int numGroups = groups.size();
+        final int[] groupSizes = new int[numGroups];
         int totalSize = 0;
         int currentGroupIndex = 0;
 
@@ -167,26 +177,41 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
         }
 
         // We will try to remove exactly this many items, however we will refuse to allow any
-        // one group to fall below size 1, and so might end up removing fewer items than this
-        int numItemsToRemove = totalSize - targetSize;
+        // one group to fall below minElementsPerStack, and so might end up removing fewer items than this
+        final int numItemsToRemove = totalSize - targetSize;
+
+        // Conceptually we remove items one at a time, cycling through the groups in order and skipping any
+        // group already down to minElementsPerStack, until we've removed enough.  Rather than simulate that
+        // (which costs a pass over every group for each item removed from the deepest one) we work out how
+        // many complete passes the cycle makes by binary search, and then finish off the last partial pass.
+        // A group's "excess" is the number of items we could remove from it.
+        int maxExcess = 0;
+        for ( int i = 0; i < numGroups; i++ ) {
+            maxExcess = Math.max(maxExcess, excess(groupSizes[i]));
+        }
 
-        currentGroupIndex = 0;
-        int numConsecutiveUmodifiableGroups = 0;
-
-        // Continue until we've either removed all the items we wanted to, or we can't
-        // remove any more items without violating the constraint that all groups must
-        // be left with at least one item
-        while ( numItemsToRemove > 0 && numConsecutiveUmodifiableGroups < groupSizes.length ) {
-            if ( groupSizes[currentGroupIndex] > minElementsPerStack ) {
-                groupSizes[currentGroupIndex]--;
-                numItemsToRemove--;
-                numConsecutiveUmodifiableGroups = 0;
-            }
-            else {
-                numConsecutiveUmodifiableGroups++;
-            }
+        // find the largest number of complete passes that removes no more than numItemsToRemove items
+        int completePasses = 0;
+        int high = maxExcess;
+        while ( completePasses < high ) {
+            final int mid = completePasses + (high - completePasses + 1) / 2;
+            if ( numItemsRemovedAfterPasses(groupSizes, mid) <= numItemsToRemove )
+                completePasses = mid;
+            else
+                high = mid - 1;
+        }
+
+        int numItemsLeftToRemove = (int)(numItemsToRemove - numItemsRemovedAfterPasses(groupSizes, completePasses));
 
-            currentGroupIndex = (currentGroupIndex + 1) % groupSizes.length;
+        // the final, partial pass removes one more item from each of the first numItemsLeftToRemove groups
+        // that still have items to spare.  There are always enough such groups, or we'd have made another pass.
+        for ( int i = 0; i < numGroups; i++ ) {
+            final int excess = excess(groupSizes[i]);
+            groupSizes[i] -= Math.min(completePasses, excess);
+            if ( numItemsLeftToRemove > 0 && excess > completePasses ) {
+                groupSizes[i]--;
+                numItemsLeftToRemove--;
+            }
         }
 
         // Now we actually go through and reduce each group to its new count as specified in groupSizes
@@ -197,15 +222,34 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
         }
     }
 
+    /**
+     * @param groupSize the size of a group
+     * @return the number of items we may remove from a group of that size without taking it below minElementsPerStack
+     */
+    private int excess( final int groupSize ) {
+        return Math.max(0, groupSize - minElementsPerStack);
+    }
+
+    /**
+     * @param groupSizes the sizes of all the groups
+     * @param numPasses a number of complete passes through the groups
+     * @return the number of items removed by that many passes, each removing one item from every group with any to spare
+     */
+    private long numItemsRemovedAfterPasses( final int[] groupSizes, final int numPasses ) {
+        long numRemoved = 0;
+        for ( final int groupSize : groupSizes ) {
+            numRemoved += Math.min(numPasses, excess(groupSize));
+        }
+        return numRemoved;
+    }
+
     private void downsampleOneGroup( final T group, final int numItemsToKeep ) {
-        if ( numItemsToKeep >= group.size() ) {
+        final int groupSize = group.size();
+        if ( numItemsToKeep >= groupSize ) {
             return;
         }
 
-        final BitSet itemsToKeep = new BitSet(group.size());
-        for ( Integer selectedIndex : MathUtils.sampleIndicesWithoutReplacement(group.size(), numItemsToKeep) ) {
-            itemsToKeep.set(selectedIndex);
-        }
+        selectItemsToKeep(groupSize, numItemsToKeep);
 
         int currentIndex = 0;
 
@@ -223,10 +267,24 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
                 currentIndex++;
             }
         }
-        // If it's not a linked list, it's more efficient to copy the desired items into a new list and back rather
+        // If it supports fast random access, we can shift the desired items down over the discarded ones
+        // in place, and then chop off the end of the list all at once
+        else if ( group instanceof RandomAccess ) {
+            int numKeptItems = 0;
+            for ( ; currentIndex < groupSize; currentIndex++ ) {
+                final E item = group.get(currentIndex);
+                if ( itemsToKeep.get(currentIndex) || doNotDiscardItem(item) ) {
+                    if ( numKeptItems != currentIndex ) group.set(numKeptItems, item);
+                    numKeptItems++;
+                }
+            }
+            numDiscardedItems += groupSize - numKeptItems;
+            group.subList(numKeptItems, groupSize).clear();
+        }
+        // Otherwise, it's more efficient to copy the desired items into a new list and back rather
         // than suffer O(n^2) of item shifting
         else {
-            final List<E> keptItems = new ArrayList<E>(group.size());
+            final List<E> keptItems = new ArrayList<E>(groupSize);
 
             for ( final E item : group ) {
                 if ( itemsToKeep.get(currentIndex) || doNotDiscardItem(item) ) {
@@ -234,9 +292,42 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
                 }
                 currentIndex++;
             }
-            numDiscardedItems += group.size() - keptItems.size();
+            numDiscardedItems += groupSize - keptItems.size();
             group.clear();
             group.addAll(keptItems);
         }
     }
+
+    /**
+     * Sets itemsToKeep to a random choice of numItemsToKeep of the indices 0 .. groupSize - 1
+     *
+     * This makes exactly the same choice, with the same calls to the random generator, as
+     * MathUtils.sampleIndicesWithoutReplacement(), but shuffles a reusable array of primitive ints
+     * rather than a freshly boxed list of them.
+     *
+     * @param groupSize the number of items to choose from
+     * @param numItemsToKeep the number of items to choose
+     */
+    private void selectItemsToKeep( final int groupSize, final int numItemsToKeep ) {
+        if ( indices.length < groupSize ) {
+            indices = new int[Math.max(groupSize, indices.length * 2)];
+        }
+        for ( int i = 0; i < groupSize; i++ ) {
+            indices[i] = i;
+        }
+
+        // the same Fisher-Yates shuffle as Collections.shuffle()
+        final Random random = GenomeAnalysisEngine.getRandomGenerator();
+        for ( int i = groupSize; i > 1; i-- ) {
+            final int j = random.nextInt(i);
+            final int swap = indices[i - 1];
+            indices[i - 1] = indices[j];
+            indices[j] = swap;
+        }
+
+        itemsToKeep.clear();
+        for ( int i = 0; i < numItemsToKeep; i++ ) {
+            itemsToKeep.set(indices[i]);
+        }
+    }
 }
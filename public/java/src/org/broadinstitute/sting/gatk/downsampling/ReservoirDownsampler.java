@@ -58,10 +58,10 @@ public class ReservoirDownsampler<T extends SAMRecord> extends ReadsDownsampler<
     private final boolean expectFewOverflows;
 
     /**
-     * At times this can be a linked list or an array list, depending on how we're accessing the
-     * data and whether or not we're expecting few overflows
+     * The reservoir itself.  This is always an ArrayList, so that replacing a randomly chosen item once the
+     * reservoir is full is O(1); when we expect few overflows it simply starts out small and grows as needed.
      */
-    private List<T> reservoir;
+    private ArrayList<T> reservoir;
 
     /**
      * Certain items (eg., reduced reads) cannot be discarded at all during downsampling. We store
@@ -69,12 +69,7 @@ public class ReservoirDownsampler<T extends SAMRecord> extends ReadsDownsampler<
      * reservoir. These items are returned (and cleared) along with any items in the reservoir in
      * calls to consumeFinalizedItems().
      */
-    private List<T> undiscardableItems;
-
-    /**
-     * Are we currently using a linked list for the reservoir?
-     */
-    private boolean isLinkedList;
+    private List<T> undiscardableItems = Collections.emptyList();
 
     /**
      * Count of the number of reads seen that were actually eligible for discarding. Used by the reservoir downsampling
@@ -121,6 +116,8 @@ public class ReservoirDownsampler<T extends SAMRecord> extends ReadsDownsampler<
     @Override
     public void submit ( final T newRead ) {
         if ( doNotDiscardItem(newRead) ) {
+            // undiscardable items are rare, so only allocate a list for them once we see one
+            if ( undiscardableItems.isEmpty() ) undiscardableItems = new ArrayList<T>();
             undiscardableItems.add(newRead);
             return;
         }
@@ -132,11 +129,6 @@ public class ReservoirDownsampler<T extends SAMRecord> extends ReadsDownsampler<
             reservoir.add(newRead);
         }
         else {
-            if ( isLinkedList ) {
-                reservoir = new ArrayList<T>(reservoir);
-                isLinkedList = false;
-            }
-
             final int randomSlot = GenomeAnalysisEngine.getRandomGenerator().nextInt(totalDiscardableReadsSeen);
             if ( randomSlot < targetSampleSize ) {
                 reservoir.set(randomSlot, newRead);
@@ -158,7 +150,7 @@ public class ReservoirDownsampler<T extends SAMRecord> extends ReadsDownsampler<
         } else {
             // pass reservoir by reference rather than make a copy, for speed
             final List<T> downsampledItems = reservoir;
-            downsampledItems.addAll(undiscardableItems);
+            if ( ! undiscardableItems.isEmpty() ) downsampledItems.addAll(undiscardableItems);
             clearItems();
             return downsampledItems;
         }
@@ -194,14 +186,11 @@ public class ReservoirDownsampler<T extends SAMRecord> extends ReadsDownsampler<
      */
     @Override
     public void clearItems() {
-        // if we aren't expecting many overflows, allocate a linked list not an arraylist
-        reservoir = expectFewOverflows ? new LinkedList<T>() : new ArrayList<T>(targetSampleSize);
-
-        // there's no possibility of overflow with the undiscardable items, so we always use a linked list for them
-        undiscardableItems = new LinkedList<>();
+        // if we aren't expecting many overflows, start with a small list rather than one of targetSampleSize
+        reservoir = expectFewOverflows ? new ArrayList<T>() : new ArrayList<T>(targetSampleSize);
 
-        // it's a linked list if we allocate one
-        isLinkedList = expectFewOverflows;
+        // allocated on demand in submit()
+        undiscardableItems = Collections.emptyList();
 
         // an internal stat used by the downsampling process, so not cleared by resetStats() below
         totalDiscardableReadsSeen = 0;
@@ -25,7 +25,6 @@
 
 package org.broadinstitute.sting.gatk.filters;
 
-import net.sf.picard.filter.SamRecordFilter;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.util.CloseableIterator;
 import net.sf.samtools.util.CloserUtil;
@@ -36,30 +35,100 @@ import java.util.*;
 /**
  * Filtering Iterator which takes a filter and an iterator and iterates
  * through only those records which are not rejected by the filter.
+ *
+ * The filters are compiled into a pipeline when the iterator is created: each run of adjacent
+ * FlagOrMappingQualityFilters of the known classes is fused into a single test of the read's flags against a combined bitmask
+ * and of its mapping quality against a lookup table, so that the common engine filters cost two field
+ * reads per read rather than one virtual call each.  Filters keep their order, and a filtered read is
+ * counted against the first filter that rejects it, exactly as if the filters were applied one by one.
  * @author Mark DePristo
  */
 public class CountingFilteringIterator implements CloseableIterator<SAMRecord> {
+    /**
+     * The largest mapping quality representable in a BAM file
+     */
+    private final static int MAX_MAPPING_QUALITY = 255;
+
+    /**
+     * The FlagOrMappingQualityFilters that are fused.  Only these exact classes qualify, not their subclasses,
+     * as a subclass may override filterOut() and must then be run as an ordinary filter.
+     */
+    private final static Set<Class<? extends ReadFilter>> FUSABLE_FILTERS = new HashSet<Class<? extends ReadFilter>>(Arrays.asList(
+            DuplicateReadFilter.class, FailsVendorQualityCheckFilter.class, NotPrimaryAlignmentFilter.class,
+            MappingQualityFilter.class, MappingQualityUnavailableFilter.class, MappingQualityZeroFilter.class));
+
     private final ReadMetrics globalRuntimeMetrics;
     private final ReadMetrics privateRuntimeMetrics;
     private final Iterator<SAMRecord> iterator;
-    private final List<CountingReadFilter> filters = new ArrayList<>();
+    private final List<ReadFilter> filters = new ArrayList<>();
+    private final long[] counters;  // the number of reads filtered out by each filter
+    private final List<FilterStage> stages = new ArrayList<>();
     private SAMRecord next = null;
 
-    // wrapper around ReadFilters to count the number of filtered reads
-    private final class CountingReadFilter extends ReadFilter {
-        protected final ReadFilter readFilter;
-        protected long counter = 0L;
+    /**
+     * One step of the compiled pipeline, covering filters [firstFilter, lastFilter]
+     */
+    private final class FilterStage {
+        private final int firstFilter;
+        private final int lastFilter;
+
+        /**
+         * For stages of fused FlagOrMappingQualityFilters, the union of the flags the filters reject and a table of
+         * the mapping qualities they reject; both are null/0 if this stage is a single ordinary filter
+         */
+        private final int filteredFlags;
+        private final boolean[] filteredMappingQualities;
+        private final int[] filteredFlagsOfFilter;  // the flags rejected by each filter of the stage, to blame one
+
+        private FilterStage(final int filter) {
+            firstFilter = lastFilter = filter;
+            filteredFlags = 0;
+            filteredMappingQualities = null;
+            filteredFlagsOfFilter = null;
+        }
+
+        private FilterStage(final int firstFilter, final int lastFilter) {
+            this.firstFilter = firstFilter;
+            this.lastFilter = lastFilter;
 
-        public CountingReadFilter(final ReadFilter readFilter) {
-            this.readFilter = readFilter;
+            int flags = 0;
+            filteredMappingQualities = new boolean[MAX_MAPPING_QUALITY + 1];
+            filteredFlagsOfFilter = new int[lastFilter - firstFilter + 1];
+            for ( int i = firstFilter; i <= lastFilter; i++ ) {
+                final FlagOrMappingQualityFilter filter = (FlagOrMappingQualityFilter)filters.get(i);
+
+                // let samtools tell us which bits the filter's flags are
+                final SAMRecord flagsOfFilter = new SAMRecord(null);
+                filter.setFilteredFlags(flagsOfFilter);
+                filteredFlagsOfFilter[i - firstFilter] = flagsOfFilter.getFlags();
+
+                flags |= filteredFlagsOfFilter[i - firstFilter];
+                for ( int mappingQuality = 0; mappingQuality <= MAX_MAPPING_QUALITY; mappingQuality++ )
+                    filteredMappingQualities[mappingQuality] |= filter.filtersOutMappingQuality(mappingQuality);
+            }
+            filteredFlags = flags;
         }
 
-        @Override
-        public boolean filterOut(final SAMRecord record) {
-            final boolean result = readFilter.filterOut(record);
-            if ( result )
-                counter++;
-            return result;
+        /**
+         * @return the index of the first filter of this stage that rejects record, or -1 if none do
+         */
+        private int findRejectingFilter(final SAMRecord record) {
+            if ( filteredMappingQualities == null )
+                return filters.get(firstFilter).filterOut(record) ? firstFilter : -1;
+
+            final int flags = record.getFlags();
+            final int mappingQuality = record.getMappingQuality();
+            final boolean inTable = mappingQuality >= 0 && mappingQuality <= MAX_MAPPING_QUALITY;
+            if ( inTable && (flags & filteredFlags) == 0 && ! filteredMappingQualities[mappingQuality] )
+                return -1;
+
+            // rejected (or outside of the table): find the filter to blame, as if we had run them one by one
+            for ( int i = firstFilter; i <= lastFilter; i++ ) {
+                final FlagOrMappingQualityFilter filter = (FlagOrMappingQualityFilter)filters.get(i);
+                if ( (flags & filteredFlagsOfFilter[i - firstFilter]) != 0 || filter.filtersOutMappingQuality(mappingQuality) )
+                    return i;
+            }
+            return -1;
         }
     }
 
@@ -74,11 +143,32 @@ public class CountingFilteringIterator implements CloseableIterator<SAMRecord> {
         this.globalRuntimeMetrics = metrics;
         privateRuntimeMetrics = new ReadMetrics();
         this.iterator = iterator;
-        for ( final ReadFilter filter : filters )
-            this.filters.add(new CountingReadFilter(filter));
+        this.filters.addAll(filters);
+        counters = new long[this.filters.size()];
+        compileStages();
         next = getNextRecord();
     }
 
+    /**
+     * Group the filters into stages, fusing each run of adjacent FUSABLE_FILTERS.  Only adjacent filters are
+     * fused, as an ordinary filter between them could modify the read (see ReassignMappingQualityFilter).
+     */
+    private void compileStages() {
+        int i = 0;
+        while ( i < filters.size() ) {
+            if ( FUSABLE_FILTERS.contains(filters.get(i).getClass()) ) {
+                int last = i;
+                while ( last + 1 < filters.size() && FUSABLE_FILTERS.contains(filters.get(last + 1).getClass()) )
+                    last++;
+                stages.add(new FilterStage(i, last));
+                i = last + 1;
+            } else {
+                stages.add(new FilterStage(i));
+                i++;
+            }
+        }
+    }
+
     /**
      * Returns true if the iteration has more elements.
      *
@@ -115,8 +205,8 @@ public class CountingFilteringIterator implements CloseableIterator<SAMRecord> {
     public void close() {
         CloserUtil.close(iterator);
 
-        for ( final CountingReadFilter filter : filters )
-            privateRuntimeMetrics.setFilterCount(filter.readFilter.getClass().getSimpleName(), filter.counter);
+        for ( int i = 0; i < filters.size(); i++ )
+            privateRuntimeMetrics.setFilterCount(filters.get(i).getClass().getSimpleName(), counters[i]);
         // update the global metrics with all the data we collected here
         globalRuntimeMetrics.incrementMetrics(privateRuntimeMetrics);
     }
@@ -135,8 +225,10 @@ public class CountingFilteringIterator implements CloseableIterator<SAMRecord> {
             privateRuntimeMetrics.incrementNumReadsSeen();
 
             boolean filtered = false;
-            for(SamRecordFilter filter: filters) {
-                if(filter.filterOut(record)) {
+            for ( final FilterStage stage : stages ) {
+                final int rejectingFilter = stage.findRejectingFilter(record);
+                if ( rejectingFilter != -1 ) {
+                    counters[rejectingFilter]++;
                     filtered = true;
                     break;
                 }
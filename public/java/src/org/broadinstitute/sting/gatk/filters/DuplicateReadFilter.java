@@ -59,8 +59,16 @@ import net.sf.samtools.SAMRecord;
  * @since Dec 9, 2009
  */
 
-public class DuplicateReadFilter extends ReadFilter {
+public class DuplicateReadFilter extends ReadFilter implements FlagOrMappingQualityFilter {
     public boolean filterOut( final SAMRecord read ) {
         return read.getDuplicateReadFlag();
     }
+
+    public void setFilteredFlags(final SAMRecord read) {
+        read.setDuplicateReadFlag(true);
+    }
+
+    public boolean filtersOutMappingQuality(final int mappingQuality) {
+        return false;
+    }
 }
\ No newline at end of file
@@ -34,8 +34,16 @@ import net.sf.samtools.SAMRecord;
  * @since Jul 19, 2010
  */
 
-public class FailsVendorQualityCheckFilter extends ReadFilter {
+public class FailsVendorQualityCheckFilter extends ReadFilter implements FlagOrMappingQualityFilter {
     public boolean filterOut( final SAMRecord read ) {
         return read.getReadFailsVendorQualityCheckFlag();
     }
+
+    public void setFilteredFlags(final SAMRecord read) {
+        read.setReadFailsVendorQualityCheckFlag(true);
+    }
+
+    public boolean filtersOutMappingQuality(final int mappingQuality) {
+        return false;
+    }
 }
\ No newline at end of file
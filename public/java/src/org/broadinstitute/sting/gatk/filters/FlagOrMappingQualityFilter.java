@@ -0,0 +1,51 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.filters;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Implemented by read filters whose decision depends only on the flag field and the mapping quality of the read.
+ *
+ * A filter implementing this interface must filter out a read exactly when it carries any of the flags that
+ * setFilteredFlags() sets, or when filtersOutMappingQuality(read.getMappingQuality()) is true.  This lets
+ * CountingFilteringIterator fuse adjacent filters of this kind into a single test on the two fields.
+ */
+public interface FlagOrMappingQualityFilter {
+    /**
+     * Sets on read, through the SAMRecord flag setters, each flag that causes a read to be filtered out.
+     * Filters that don't look at the flags leave read untouched.
+     *
+     * @param read a read with no flags set
+     */
+    public void setFilteredFlags(final SAMRecord read);
+
+    /**
+     * @param mappingQuality a read mapping quality
+     * @return true if reads with this mapping quality are filtered out
+     */
+    public boolean filtersOutMappingQuality(final int mappingQuality);
+}
@@ -35,7 +35,7 @@ import org.broadinstitute.sting.commandline.Argument;
  * @version 0.1
  */
 
-public class MappingQualityFilter extends ReadFilter {
+public class MappingQualityFilter extends ReadFilter implements FlagOrMappingQualityFilter {
 
     @Argument(fullName = "min_mapping_quality_score", shortName = "mmq", doc = "Minimum read mapping quality required to consider a read for calling", required = false)
     public int MIN_MAPPING_QUALTY_SCORE = 10;
@@ -43,4 +43,12 @@ public class MappingQualityFilter extends ReadFilter {
     public boolean filterOut(SAMRecord rec) {
         return (rec.getMappingQuality() < MIN_MAPPING_QUALTY_SCORE);
     }
+
+    public void setFilteredFlags(final SAMRecord read) {
+        // mapping quality only
+    }
+
+    public boolean filtersOutMappingQuality(final int mappingQuality) {
+        return mappingQuality < MIN_MAPPING_QUALTY_SCORE;
+    }
 }
\ No newline at end of file
@@ -35,9 +35,16 @@ import org.broadinstitute.sting.utils.QualityUtils;
  * @version 0.1
  */
 
-public class MappingQualityUnavailableFilter extends ReadFilter {
+public class MappingQualityUnavailableFilter extends ReadFilter implements FlagOrMappingQualityFilter {
     public boolean filterOut(SAMRecord rec) {
         return (rec.getMappingQuality() == QualityUtils.MAPPING_QUALITY_UNAVAILABLE);
     }
-}
 
+    public void setFilteredFlags(final SAMRecord read) {
+        // mapping quality only
+    }
+
+    public boolean filtersOutMappingQuality(final int mappingQuality) {
+        return mappingQuality == QualityUtils.MAPPING_QUALITY_UNAVAILABLE;
+    }
+}
@@ -34,9 +34,16 @@ import net.sf.samtools.SAMRecord;
  * @version 0.1
  */
 
-public class MappingQualityZeroFilter extends ReadFilter {
+public class MappingQualityZeroFilter extends ReadFilter implements FlagOrMappingQualityFilter {
     public boolean filterOut(SAMRecord rec) {
         return (rec.getMappingQuality() == 0);
     }
-}
 
+    public void setFilteredFlags(final SAMRecord read) {
+        // mapping quality only
+    }
+
+    public boolean filtersOutMappingQuality(final int mappingQuality) {
+        return mappingQuality == 0;
+    }
+}
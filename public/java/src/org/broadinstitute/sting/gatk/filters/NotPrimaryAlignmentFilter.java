@@ -34,8 +34,16 @@ import net.sf.samtools.SAMRecord;
  * @since Dec 9, 2009
  */
 
-public class NotPrimaryAlignmentFilter extends ReadFilter {
+public class NotPrimaryAlignmentFilter extends ReadFilter implements FlagOrMappingQualityFilter {
     public boolean filterOut( final SAMRecord read ) {
         return read.getNotPrimaryAlignmentFlag();
     }
+
+    public void setFilteredFlags(final SAMRecord read) {
+        read.setNotPrimaryAlignmentFlag(true);
+    }
+
+    public boolean filtersOutMappingQuality(final int mappingQuality) {
+        return false;
+    }
 }
\ No newline at end of file
@@ -25,9 +25,11 @@
 
 package org.broadinstitute.sting.gatk.iterators;
 
+import net.sf.samtools.Cigar;
 import net.sf.samtools.SAMRecord;
 import org.apache.log4j.Logger;
 import org.broadinstitute.sting.utils.sam.AlignmentUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 /**
  * An iterator which does post-processing of a read, including potentially wrapping
@@ -107,7 +109,16 @@ public class ReadFormattingIterator implements StingSAMIterator {
 
         // Always consolidate the cigar string into canonical form, collapsing zero-length / repeated cigar elements.
         // Downstream code (like LocusIteratorByState) cannot necessarily handle non-consolidated cigar strings.
-        rec.setCigar(AlignmentUtils.consolidateCigar(rec.getCigar()));
+        // GATKSAMRecords do this on first access, so that reads which are never examined aren't decoded and reads
+        // with already-canonical cigars aren't marked as modified, and so can be written back out without re-encoding.
+        if ( rec instanceof GATKSAMRecord ) {
+            ((GATKSAMRecord)rec).deferCigarConsolidation();
+        } else {
+            final Cigar cigar = rec.getCigar();
+            final Cigar consolidated = AlignmentUtils.consolidateCigar(cigar);
+            if ( consolidated != cigar )
+                rec.setCigar(consolidated);
+        }
 
         // if we are using default quals, check if we need them, and add if necessary.
         // 1. we need if reads are lacking or have incomplete quality scores
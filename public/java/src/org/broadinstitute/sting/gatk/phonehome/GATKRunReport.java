@@ -31,6 +31,7 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.broadinstitute.sting.gatk.CommandLineGATK;
 import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.datasources.rmd.ReferenceOrderedDataSource;
 import org.broadinstitute.sting.gatk.walkers.Walker;
 import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.crypt.CryptUtils;
@@ -44,6 +45,7 @@ import org.jets3t.service.impl.rest.httpclient.RestS3Service;
 import org.jets3t.service.model.S3Object;
 import org.jets3t.service.security.AWSCredentials;
 import org.simpleframework.xml.Element;
+import org.simpleframework.xml.ElementList;
 import org.simpleframework.xml.Serializer;
 import org.simpleframework.xml.core.Persister;
 
@@ -52,8 +54,10 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -154,6 +158,9 @@ public class GATKRunReport {
     @Element(required = true, name = "percent-time-waiting-for-io")
     private String percentTimeWaitingForIO;
 
+    @ElementList(required = false, name = "rod-pools")
+    private List<GATKRunReportRODPool> rodPools = new ArrayList<GATKRunReportRODPool>();
+
     /** The error message, if one occurred, or null if none did */
     public String errorMessage = null;
     /** The error that occurred, if one did, or null if none did */
@@ -289,6 +296,12 @@ public class GATKRunReport {
         percentTimeBlocking = getThreadEfficiencyPercent(engine, ThreadEfficiencyMonitor.State.BLOCKING);
         percentTimeWaiting = getThreadEfficiencyPercent(engine, ThreadEfficiencyMonitor.State.WAITING);
         percentTimeWaitingForIO = getThreadEfficiencyPercent(engine, ThreadEfficiencyMonitor.State.WAITING_FOR_IO);
+
+        // how hard did we work the reference-ordered data iterator pools?
+        if ( engine.getRodDataSources() != null ) {
+            for ( final ReferenceOrderedDataSource dataSource : engine.getRodDataSources() )
+                rodPools.add(new GATKRunReportRODPool(dataSource));
+        }
     }
 
     /**
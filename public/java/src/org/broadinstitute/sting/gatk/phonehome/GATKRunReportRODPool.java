@@ -0,0 +1,64 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.phonehome;
+
+import org.broadinstitute.sting.gatk.datasources.rmd.ReferenceOrderedDataSource;
+import org.broadinstitute.sting.gatk.datasources.rmd.ResourcePoolMetrics;
+import org.simpleframework.xml.Element;
+
+/**
+ * Usage statistics of the iterator pool of one reference-ordered data source, for the run report
+ */
+class GATKRunReportRODPool {
+    @Element(required = true, name = "name")
+    String name;
+
+    @Element(required = true, name = "storage")
+    String storage;
+
+    @Element(required = true, name = "resources-created")
+    long nResourcesCreated;
+
+    @Element(required = true, name = "resources-reused")
+    long nResourcesReused;
+
+    @Element(required = true, name = "iterators-created")
+    long nIteratorsCreated;
+
+    /**
+     * Allow us to deserialize from XML
+     */
+    public GATKRunReportRODPool() { }
+
+    public GATKRunReportRODPool(final ReferenceOrderedDataSource dataSource) {
+        final ResourcePoolMetrics metrics = dataSource.getPoolMetrics();
+        name = dataSource.getName();
+        storage = dataSource.getStorageType().toString();
+        nResourcesCreated = metrics.getNumResourcesCreated();
+        nResourcesReused = metrics.getNumResourcesReused();
+        nIteratorsCreated = metrics.getNumIteratorsCreated();
+    }
+}
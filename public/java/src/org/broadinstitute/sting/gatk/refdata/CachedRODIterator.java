@@ -0,0 +1,236 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.refdata;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import org.broadinstitute.sting.gatk.refdata.tracks.ColumnarFeatureCache;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
+import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODIterator;
+import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A LocationAwareSeekableRODIterator over the records of a ColumnarFeatureCache.
+ *
+ * This iterator has exactly the semantics of SeekableRODIterator (see the discussion there of the restrictions
+ * on mixing next() and seekForward()), but as the cache supports random access, seekForward() jumps to the
+ * query interval by binary search instead of reading through every intervening record, and records are only
+ * decoded if the client asks for their underlying object.
+ *
+ * Iterators are cheap, and any number of them can share one cache.
+ */
+public class CachedRODIterator implements LocationAwareSeekableRODIterator {
+    private final ColumnarFeatureCache cache;
+    private final GenomeLocParser parser;
+
+    /**
+     * The records we may visit are [nextRecord, endRecord), skipping any that stop before minStop
+     */
+    private int nextRecord;
+    private final int endRecord;
+    private final int minStop;
+
+    private final List<GATKFeature> records = new LinkedList<GATKFeature>(); // records overlapping the current position
+
+    private int curr_contig = 0;    // contig index of the current position
+    private int curr_position = 0;  // where the iterator is currently positioned on the genome
+    private int max_position = 0;   // the rightmost stop position of currently loaded records
+    private int curr_query_end = -1;    // the stop position of the last query
+    private boolean next_is_allowed = true; // next() is illegal after seek-forward queries of length > 1
+
+    /**
+     * Create an iterator over the records of cache overlapping bounds
+     *
+     * @param cache the cache to iterate over
+     * @param bounds the records to visit, or null to visit them all
+     */
+    public CachedRODIterator(final ColumnarFeatureCache cache, final GenomeLoc bounds) {
+        if ( cache == null ) throw new IllegalArgumentException("cache cannot be null");
+
+        this.cache = cache;
+        this.parser = cache.getGenomeLocParser();
+
+        if ( bounds == null ) {
+            nextRecord = 0;
+            endRecord = cache.getNumberOfRecords();
+            minStop = 0;
+        } else {
+            nextRecord = cache.findFirstRecordPossiblyOverlapping(bounds.getContigIndex(), bounds.getStart());
+            endRecord = cache.findFirstRecordStartingAtOrAfter(bounds.getContigIndex(), bounds.getStop() + 1);
+            minStop = bounds.getStart();
+        }
+    }
+
+    @Override
+    public Object getHeader() {
+        return cache.getHeader();
+    }
+
+    /**
+     * Cached tracks don't carry a sequence dictionary; the cache is built against the reference's
+     * @return null
+     */
+    @Override
+    public SAMSequenceDictionary getSequenceDictionary() {
+        return null;
+    }
+
+    /**
+     * @return the index of the next record we haven't loaded or skipped, or -1 if there are none
+     */
+    private int peekRecord() {
+        while ( nextRecord < endRecord && cache.getStop(nextRecord) < minStop )
+            nextRecord++;
+        return nextRecord < endRecord ? nextRecord : -1;
+    }
+
+    private GATKFeature loadRecord(final int contig, final int record) {
+        nextRecord = record + 1;
+        if ( cache.getStop(record) > max_position ) max_position = cache.getStop(record);
+        final GATKFeature feature = new ColumnarFeatureCache.CachedFeature(cache, contig, record);
+        records.add(feature);
+        return feature;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return curr_position < max_position || peekRecord() != -1;
+    }
+
+    @Override
+    public GenomeLoc peekNextLocation() {
+        if ( curr_position + 1 <= max_position ) return parser.createGenomeLoc(cache.getContigName(curr_contig), curr_contig, curr_position + 1, curr_position + 1);
+
+        final int record = peekRecord();
+        if ( record == -1 ) return null;
+        final int contig = cache.getContigIndexOfRecord(record);
+        return parser.createGenomeLoc(cache.getContigName(contig), contig, cache.getStart(record), cache.getStart(record));
+    }
+
+    @Override
+    public RODRecordList next() {
+        if ( ! next_is_allowed )
+            throw new ReviewedStingException("Illegal use of iterator: Can not advance iterator with next() after seek-forward query of length > 1");
+
+        curr_position++;
+
+        if ( curr_position <= max_position ) {
+            purgeOutOfScopeRecords();
+        } else {
+            // past the end of all loaded records, so fast forward to the start of the next record
+            records.clear();
+            final int record = peekRecord(); // if hasNext() previously returned true this exists
+            curr_contig = cache.getContigIndexOfRecord(record);
+            curr_position = cache.getStart(record);
+            max_position = cache.getStop(record);
+            loadRecord(curr_contig, record);
+        }
+
+        // load any further records starting at the current position
+        final int contigEnd = cache.getEndRecordOfContig(curr_contig);
+        int record;
+        while ( (record = peekRecord()) != -1 && record < contigEnd && cache.getStart(record) <= curr_position )
+            loadRecord(curr_contig, record);
+
+        return new RODRecordListImpl(cache.getName(), records, parser.createGenomeLoc(cache.getContigName(curr_contig), curr_contig, curr_position, curr_position));
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("LocationAwareSeekableRODIterator does not implement remove() operation");
+    }
+
+    @Override
+    public GenomeLoc position() {
+        final int position = Math.max(curr_query_end, curr_position);
+        return parser.createGenomeLoc(cache.getContigName(curr_contig), curr_contig, position, position);
+    }
+
+    @Override
+    public RODRecordList seekForward(final GenomeLoc interval) {
+        final int contig = interval.getContigIndex();
+        if ( contig < curr_contig )
+            throw new ReviewedStingException("Out of order query: query contig "+interval.getContig()+" is located before "+
+                    "the iterator's current contig");
+        if ( contig == curr_contig ) {
+            if ( interval.getStart() < curr_position )
+                throw new ReviewedStingException("Out of order query: query position "+interval +" is located before "+
+                        "the iterator's current position "+cache.getContigName(curr_contig) + ":" + curr_position);
+            if ( interval.getStop() < curr_query_end )
+                throw new ReviewedStingException("Unsupported querying sequence: current query interval " +
+                        interval+" ends before the end of previous query interval ("+curr_query_end+")");
+        }
+
+        curr_position = interval.getStart();
+        curr_query_end = interval.getStop();
+        next_is_allowed = ( curr_position == curr_query_end ); // we can call next() later only if interval length is 1
+
+        if ( contig == curr_contig && curr_position <= max_position ) {
+            purgeOutOfScopeRecords();
+        } else {
+            records.clear();
+            max_position = -1;
+            curr_contig = contig;
+        }
+
+        // jump over every record that can't overlap the query.  Anything before the jump target ends before
+        // curr_position, so this skips exactly the records the streaming iterator would read and discard
+        nextRecord = Math.max(nextRecord, cache.findFirstRecordPossiblyOverlapping(contig, curr_position));
+
+        final int contigEnd = cache.getEndRecordOfContig(contig);
+        int record;
+        while ( (record = peekRecord()) != -1 && record < contigEnd && cache.getStart(record) <= curr_query_end ) {
+            if ( cache.getStop(record) < curr_position )
+                nextRecord++;
+            else
+                loadRecord(contig, record);
+        }
+
+        return records.isEmpty() ? null : new RODRecordListImpl(cache.getName(), records, interval);
+    }
+
+    /**
+     * Removes records that end before curr_position from the list of currently kept records
+     */
+    private void purgeOutOfScopeRecords() {
+        final Iterator<GATKFeature> i = records.iterator();
+        while ( i.hasNext() ) {
+            if ( i.next().getEnd() < curr_position )
+                i.remove();
+        }
+    }
+
+    @Override
+    public void close() {
+        // the cache is shared, so there is nothing of ours to close
+    }
+}
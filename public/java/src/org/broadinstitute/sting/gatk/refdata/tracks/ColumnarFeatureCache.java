@@ -0,0 +1,633 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.refdata.tracks;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import org.apache.log4j.Logger;
+import org.broad.tribble.AsciiFeatureCodec;
+import org.broad.tribble.Feature;
+import org.broad.tribble.TribbleException;
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broad.tribble.readers.LineIterator;
+import org.broad.tribble.readers.PositionalBufferedStream;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only, columnar cache of the records in a text feature file (dbSNP, interval lists, masks, ...).
+ *
+ * The input is parsed once into parallel start, stop, offset and length columns, sorted in reference order
+ * with the records of each contig stored as one contiguous block.  Positional queries are answered by binary
+ * search over the columns; the feature itself is only decoded from the original file the first time a
+ * client asks for it.  The columns are written to a sidecar file next to the input so that later runs can
+ * memory map them instead of parsing the input again.
+ *
+ * A single cache is meant to be shared by all threads: the columns never change after construction, and
+ * decoding is serialized because tribble codecs are stateful.
+ */
+public class ColumnarFeatureCache {
+    private final static Logger logger = Logger.getLogger(ColumnarFeatureCache.class);
+
+    /**
+     * Extension appended to the input file name to make the sidecar file name
+     */
+    public final static String CACHE_EXTENSION = ".gatkcache";
+
+    private final static long MAGIC = 0x4741544B46434143L; // "GATKFCAC"
+    private final static int VERSION = 1;
+
+    /**
+     * Tribble reads text one byte per character, so this is the charset that reproduces its lines exactly
+     */
+    private final static Charset LINE_CHARSET = Charset.forName("ISO-8859-1");
+
+    private final String name;
+    private final File inputFile;
+    private final AsciiFeatureCodec<? extends Feature> codec;
+    private final GenomeLocParser genomeLocParser;
+    private final Object header;
+
+    /**
+     * Names of the reference contigs, indexed by contig index
+     */
+    private final String[] contigNames;
+
+    /**
+     * The records of contig i are [contigFirstRecord[i], contigFirstRecord[i+1]); the array has one entry per
+     * reference contig plus a final entry holding the number of records
+     */
+    private final int[] contigFirstRecord;
+
+    /**
+     * The length of the longest record on each contig, which bounds how far back a query has to look for
+     * records overlapping a position
+     */
+    private final int[] contigMaxRecordLength;
+
+    private final int nRecords;
+    private final IntBuffer starts;
+    private final IntBuffer stops;
+    private final LongBuffer offsets;
+    private final IntBuffer lengths;
+
+    private final RandomAccessFile input;
+    private byte[] lineBuffer = new byte[1024];
+
+    /**
+     * Load the cache for inputFile, from its sidecar file if one is present and up to date, and otherwise by
+     * parsing inputFile.
+     *
+     * @param name the name of the track, given to every feature we produce
+     * @param inputFile the text feature file to cache
+     * @param codec the codec that parses inputFile.  It is owned by this cache from now on
+     * @param genomeLocParser parser whose sequence dictionary defines the order of the contigs
+     * @param writeSidecar if true, (re)write the sidecar file when we had to parse the input
+     */
+    public ColumnarFeatureCache(final String name,
+                                final File inputFile,
+                                final AsciiFeatureCodec<? extends Feature> codec,
+                                final GenomeLocParser genomeLocParser,
+                                final boolean writeSidecar) {
+        if ( name == null ) throw new IllegalArgumentException("name cannot be null");
+        if ( inputFile == null ) throw new IllegalArgumentException("inputFile cannot be null");
+        if ( codec == null ) throw new IllegalArgumentException("codec cannot be null");
+        if ( genomeLocParser == null ) throw new IllegalArgumentException("genomeLocParser cannot be null");
+
+        this.name = name;
+        this.inputFile = inputFile;
+        this.codec = codec;
+        this.genomeLocParser = genomeLocParser;
+
+        final SAMSequenceDictionary dictionary = genomeLocParser.getContigs();
+        contigNames = new String[dictionary.size()];
+        for ( int i = 0; i < contigNames.length; i++ )
+            contigNames[i] = dictionary.getSequence(i).getSequenceName();
+
+        try {
+            input = new RandomAccessFile(inputFile, "r");
+            header = readHeader();
+
+            final File sidecar = getSidecarFile(inputFile);
+            Columns columns = loadSidecar(sidecar);
+            if ( columns == null ) {
+                logger.info("Building columnar feature cache for file " + inputFile);
+                columns = parseInput();
+                if ( writeSidecar )
+                    writeSidecar(sidecar, columns);
+            }
+
+            contigFirstRecord = columns.contigFirstRecord;
+            contigMaxRecordLength = columns.contigMaxRecordLength;
+            nRecords = columns.nRecords;
+            starts = columns.starts;
+            stops = columns.stops;
+            offsets = columns.offsets;
+            lengths = columns.lengths;
+        } catch ( FileNotFoundException e ) {
+            throw new UserException.CouldNotReadInputFile(inputFile, e);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(inputFile, "could not build the feature cache", e);
+        } catch ( TribbleException e ) {
+            throw new UserException.MalformedFile(inputFile, e.getMessage(), e);
+        }
+
+        logger.info(String.format("Columnar feature cache for %s holds %d records", inputFile, nRecords));
+    }
+
+    /**
+     * @param inputFile a feature file
+     * @return the sidecar file in which we store the columns for inputFile
+     */
+    public static File getSidecarFile(final File inputFile) {
+        return new File(inputFile.getAbsolutePath() + CACHE_EXTENSION);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public Object getHeader() {
+        return header;
+    }
+
+    public GenomeLocParser getGenomeLocParser() {
+        return genomeLocParser;
+    }
+
+    public int getNumberOfRecords() {
+        return nRecords;
+    }
+
+    public int getNumberOfContigs() {
+        return contigNames.length;
+    }
+
+    public String getContigName(final int contigIndex) {
+        return contigNames[contigIndex];
+    }
+
+    public int getStart(final int record) {
+        return starts.get(record);
+    }
+
+    public int getStop(final int record) {
+        return stops.get(record);
+    }
+
+    /**
+     * @return the index of the first record on contig contigIndex, or of the first record on a later
+     *         contig if there are none on contigIndex
+     */
+    public int getFirstRecordOfContig(final int contigIndex) {
+        return contigFirstRecord[contigIndex];
+    }
+
+    /**
+     * @return the index one past the last record on contig contigIndex
+     */
+    public int getEndRecordOfContig(final int contigIndex) {
+        return contigFirstRecord[contigIndex + 1];
+    }
+
+    public int getMaxRecordLength(final int contigIndex) {
+        return contigMaxRecordLength[contigIndex];
+    }
+
+    /**
+     * @param record a record index in [0, getNumberOfRecords())
+     * @return the index of the contig holding record
+     */
+    public int getContigIndexOfRecord(final int record) {
+        if ( record < 0 || record >= nRecords ) throw new IllegalArgumentException("record " + record + " is out of bounds");
+
+        // find the last contig whose block starts at or before record
+        int lo = 0, hi = contigNames.length - 1;
+        while ( lo < hi ) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if ( contigFirstRecord[mid] <= record ) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Binary search for the first record on contigIndex that starts at or after position
+     *
+     * @return a record index in [getFirstRecordOfContig(contigIndex), getEndRecordOfContig(contigIndex)]
+     */
+    public int findFirstRecordStartingAtOrAfter(final int contigIndex, final int position) {
+        int lo = contigFirstRecord[contigIndex], hi = contigFirstRecord[contigIndex + 1];
+        while ( lo < hi ) {
+            final int mid = (lo + hi) >>> 1;
+            if ( starts.get(mid) < position ) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the first record on contigIndex that could overlap position, given the longest
+     *         record on the contig.  Records between here and position may still end before position.
+     */
+    public int findFirstRecordPossiblyOverlapping(final int contigIndex, final int position) {
+        return findFirstRecordStartingAtOrAfter(contigIndex, position - contigMaxRecordLength[contigIndex] + 1);
+    }
+
+    /**
+     * Decode the feature stored as record from the input file
+     *
+     * @param record a record index in [0, getNumberOfRecords())
+     * @return the decoded feature
+     */
+    public synchronized Feature decode(final int record) {
+        final int length = lengths.get(record);
+        if ( lineBuffer.length < length )
+            lineBuffer = new byte[Math.max(length, lineBuffer.length * 2)];
+
+        try {
+            input.seek(offsets.get(record));
+            input.readFully(lineBuffer, 0, length);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(inputFile, "could not read record " + record, e);
+        }
+
+        int lineLength = length;
+        while ( lineLength > 0 && (lineBuffer[lineLength - 1] == '\n' || lineBuffer[lineLength - 1] == '\r') )
+            lineLength--;
+
+        final Feature feature = codec.decode(new String(lineBuffer, 0, lineLength, LINE_CHARSET));
+        if ( feature == null )
+            throw new ReviewedStingException("Record " + record + " of " + inputFile + " decoded to null; was the input modified after the cache was built?");
+        return feature;
+    }
+
+    public synchronized void close() {
+        try {
+            input.close();
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(inputFile, "could not close the file", e);
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // building the columns
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * The columns of the cache, as either heap arrays or mapped buffers
+     */
+    private static class Columns {
+        int[] contigFirstRecord;
+        int[] contigMaxRecordLength;
+        int nRecords;
+        IntBuffer starts;
+        IntBuffer stops;
+        LongBuffer offsets;
+        IntBuffer lengths;
+    }
+
+    private Object readHeader() throws IOException {
+        final PositionalBufferedStream stream = new PositionalBufferedStream(new FileInputStream(inputFile));
+        try {
+            return codec.readHeader(new PositionTrackingLineIterator(new AsciiLineReader(stream))).getHeaderValue();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Parse the whole input, recording the position and byte span of each record
+     */
+    private Columns parseInput() throws IOException {
+        final int nContigs = contigNames.length;
+        final int[] contigFirst = new int[nContigs + 1];
+        final int[] contigMaxLength = new int[nContigs];
+        int[] recordStarts = new int[1024];
+        int[] recordStops = new int[1024];
+        long[] recordOffsets = new long[1024];
+        int[] recordLengths = new int[1024];
+        int n = 0;
+
+        final PositionalBufferedStream stream = new PositionalBufferedStream(new FileInputStream(inputFile));
+        try {
+            final PositionTrackingLineIterator lines = new PositionTrackingLineIterator(new AsciiLineReader(stream));
+            codec.readHeader(lines);
+
+            int currentContig = -1;
+            while ( lines.hasNext() ) {
+                final Feature feature = codec.decodeLoc(lines);
+                if ( feature == null ) continue; // comments, track lines, and so on
+
+                final int contig = genomeLocParser.getContigIndex(feature.getChr());
+                final int start = feature.getStart();
+                final int stop = feature.getEnd();
+                if ( contig < currentContig || (contig == currentContig && start < recordStarts[n - 1]) )
+                    throw new UserException.MalformedFile(inputFile, String.format("records are not sorted in reference order: %s:%d occurs after %s:%d",
+                            feature.getChr(), start, contigNames[currentContig], recordStarts[n - 1]));
+
+                // every contig we passed over, including this one, starts its block here
+                while ( currentContig < contig )
+                    contigFirst[++currentContig] = n;
+
+                if ( n == recordStarts.length ) {
+                    final int newLength = n * 2;
+                    recordStarts = Arrays.copyOf(recordStarts, newLength);
+                    recordStops = Arrays.copyOf(recordStops, newLength);
+                    recordOffsets = Arrays.copyOf(recordOffsets, newLength);
+                    recordLengths = Arrays.copyOf(recordLengths, newLength);
+                }
+
+                recordStarts[n] = start;
+                recordStops[n] = stop;
+                recordOffsets[n] = lines.getLastLineStart();
+                recordLengths[n] = (int)(lines.getLastLineEnd() - lines.getLastLineStart());
+                contigMaxLength[contig] = Math.max(contigMaxLength[contig], stop - start + 1);
+                n++;
+            }
+
+            while ( currentContig < nContigs )
+                contigFirst[++currentContig] = n;
+        } finally {
+            stream.close();
+        }
+
+        final Columns columns = new Columns();
+        columns.contigFirstRecord = contigFirst;
+        columns.contigMaxRecordLength = contigMaxLength;
+        columns.nRecords = n;
+        columns.starts = IntBuffer.wrap(recordStarts, 0, n);
+        columns.stops = IntBuffer.wrap(recordStops, 0, n);
+        columns.offsets = LongBuffer.wrap(recordOffsets, 0, n);
+        columns.lengths = IntBuffer.wrap(recordLengths, 0, n);
+        return columns;
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // the sidecar file
+    //
+    // The sidecar holds a small header (magic, version, the size and modification time of the input,
+    // and the contig table) followed by the starts, stops, offsets and lengths columns, all big endian.
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * Memory map the columns stored in sidecar
+     *
+     * @return the columns, or null if sidecar doesn't exist or doesn't describe the current input file
+     */
+    private Columns loadSidecar(final File sidecar) throws IOException {
+        if ( ! sidecar.canRead() )
+            return null;
+
+        final RandomAccessFile file = new RandomAccessFile(sidecar, "r");
+        try {
+            if ( file.length() < 8 || file.readLong() != MAGIC || file.readInt() != VERSION ) {
+                logger.warn("Feature cache " + sidecar + " is not a version " + VERSION + " cache file, rebuilding it");
+                return null;
+            }
+            if ( file.readLong() != inputFile.length() || file.readLong() != inputFile.lastModified() ) {
+                logger.warn("Feature cache " + sidecar + " is out of date, rebuilding it");
+                return null;
+            }
+
+            final int nContigs = file.readInt();
+            if ( nContigs != contigNames.length ) {
+                logger.warn("Feature cache " + sidecar + " was built against a different reference, rebuilding it");
+                return null;
+            }
+
+            final Columns columns = new Columns();
+            columns.contigFirstRecord = new int[nContigs + 1];
+            columns.contigMaxRecordLength = new int[nContigs];
+            for ( int i = 0; i < nContigs; i++ ) {
+                if ( ! file.readUTF().equals(contigNames[i]) ) {
+                    logger.warn("Feature cache " + sidecar + " was built against a different reference, rebuilding it");
+                    return null;
+                }
+                columns.contigFirstRecord[i] = file.readInt();
+                columns.contigMaxRecordLength[i] = file.readInt();
+            }
+            columns.nRecords = file.readInt();
+            columns.contigFirstRecord[nContigs] = columns.nRecords;
+
+            final long n = columns.nRecords;
+            if ( file.length() != file.getFilePointer() + n * (4 + 4 + 8 + 4) ) {
+                logger.warn("Feature cache " + sidecar + " is truncated, rebuilding it");
+                return null;
+            }
+
+            logger.info("Loading columnar feature cache from disk for file " + inputFile);
+            final FileChannel channel = file.getChannel();
+            long position = file.getFilePointer();
+            columns.starts = channel.map(FileChannel.MapMode.READ_ONLY, position, n * 4).asIntBuffer();
+            position += n * 4;
+            columns.stops = channel.map(FileChannel.MapMode.READ_ONLY, position, n * 4).asIntBuffer();
+            position += n * 4;
+            columns.offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, n * 8).asLongBuffer();
+            position += n * 8;
+            columns.lengths = channel.map(FileChannel.MapMode.READ_ONLY, position, n * 4).asIntBuffer();
+            return columns;
+        } catch ( EOFException e ) {
+            logger.warn("Feature cache " + sidecar + " is truncated, rebuilding it");
+            return null;
+        } finally {
+            // mappings remain valid after the channel is closed
+            file.close();
+        }
+    }
+
+    /**
+     * Write columns to sidecar.  Failure to write the sidecar isn't fatal: we just parse the input again next time.
+     */
+    private void writeSidecar(final File sidecar, final Columns columns) {
+        final File tmp = new File(sidecar.getAbsolutePath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20));
+            try {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(inputFile.length());
+                out.writeLong(inputFile.lastModified());
+                out.writeInt(contigNames.length);
+                for ( int i = 0; i < contigNames.length; i++ ) {
+                    out.writeUTF(contigNames[i]);
+                    out.writeInt(columns.contigFirstRecord[i]);
+                    out.writeInt(columns.contigMaxRecordLength[i]);
+                }
+                out.writeInt(columns.nRecords);
+                for ( int i = 0; i < columns.nRecords; i++ ) out.writeInt(columns.starts.get(i));
+                for ( int i = 0; i < columns.nRecords; i++ ) out.writeInt(columns.stops.get(i));
+                for ( int i = 0; i < columns.nRecords; i++ ) out.writeLong(columns.offsets.get(i));
+                for ( int i = 0; i < columns.nRecords; i++ ) out.writeInt(columns.lengths.get(i));
+            } finally {
+                out.close();
+            }
+
+            // rename into place, so that concurrent runs never see a partially written cache
+            if ( ! tmp.renameTo(sidecar) && ! (sidecar.delete() && tmp.renameTo(sidecar)) )
+                throw new IOException("could not rename " + tmp + " to " + sidecar);
+            logger.info("Wrote columnar feature cache to disk for file " + inputFile);
+        } catch ( IOException e ) {
+            logger.warn("Unable to write the feature cache " + sidecar + "; this will not affect your run of the GATK", e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * A line iterator that remembers the byte span of the last line it returned, so we can find the line again
+     * when we need to decode it.  Like tribble's own line iterators, it reads one line ahead when peeked.
+     */
+    private static class PositionTrackingLineIterator implements LineIterator {
+        private final AsciiLineReader reader;
+        private String nextLine = null;
+        private boolean peeked = false;
+        private long nextLineStart, nextLineEnd;
+        private long lastLineStart, lastLineEnd;
+
+        private PositionTrackingLineIterator(final AsciiLineReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public String peek() {
+            if ( ! peeked ) {
+                try {
+                    nextLineStart = reader.getPosition();
+                    nextLine = reader.readLine();
+                    nextLineEnd = reader.getPosition();
+                } catch ( IOException e ) {
+                    throw new TribbleException("Unable to read line", e);
+                }
+                peeked = true;
+            }
+            return nextLine;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return peek() != null;
+        }
+
+        @Override
+        public String next() {
+            if ( ! hasNext() ) throw new NoSuchElementException();
+            peeked = false;
+            lastLineStart = nextLineStart;
+            lastLineEnd = nextLineEnd;
+            return nextLine;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public long getLastLineStart() {
+            return lastLineStart;
+        }
+
+        public long getLastLineEnd() {
+            return lastLineEnd;
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // features
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * A GATKFeature backed by a record of the cache.  The location comes straight from the columns, and the
+     * underlying feature is only decoded when a client asks for it.
+     */
+    public static class CachedFeature extends GATKFeature {
+        private final ColumnarFeatureCache cache;
+        private final int contigIndex;
+        private final int record;
+        private GenomeLoc location = null;
+        private Feature feature = null;
+
+        public CachedFeature(final ColumnarFeatureCache cache, final int contigIndex, final int record) {
+            super(cache.getName());
+            this.cache = cache;
+            this.contigIndex = contigIndex;
+            this.record = record;
+        }
+
+        public int getRecord() {
+            return record;
+        }
+
+        @Override
+        public GenomeLoc getLocation() {
+            if ( location == null )
+                location = cache.getGenomeLocParser().createGenomeLoc(getChr(), contigIndex, getStart(), getEnd());
+            return location;
+        }
+
+        @Override
+        public String getChr() {
+            return cache.getContigName(contigIndex);
+        }
+
+        @Override
+        public int getStart() {
+            return cache.getStart(record);
+        }
+
+        @Override
+        public int getEnd() {
+            return cache.getStop(record);
+        }
+
+        @Override
+        public Object getUnderlyingObject() {
+            if ( feature == null )
+                feature = cache.decode(record);
+            return feature;
+        }
+    }
+}
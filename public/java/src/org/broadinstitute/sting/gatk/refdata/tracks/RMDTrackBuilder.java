@@ -28,6 +28,7 @@ package org.broadinstitute.sting.gatk.refdata.tracks;
 import net.sf.samtools.SAMSequenceDictionary;
 import org.apache.log4j.Logger;
 import org.broad.tribble.AbstractFeatureReader;
+import org.broad.tribble.AsciiFeatureCodec;
 import org.broad.tribble.FeatureCodec;
 import org.broad.tribble.Tribble;
 import org.broad.tribble.TribbleException;
@@ -49,6 +50,8 @@ import org.broadinstitute.sting.utils.instrumentation.Sizeof;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -86,6 +89,9 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
     // make any file lock acquisition calls on the index files.
     private final boolean disableAutoIndexCreation;
 
+    // Indices already loaded by this builder, keyed by the absolute path of the indexed file
+    private final Map<File, Index> sharedIndices = new HashMap<File, Index>();
+
     /**
      * Construct an RMDTrackerBuilder, allowing the user to define tracks to build after-the-fact.  This is generally
      * used when walkers want to directly manage the ROD system for whatever reason.  Before using this constructor,
@@ -157,6 +163,29 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
         return createInstanceOfTrack(new RMDTriplet("anonymous",descriptor.getName(),inputFile.getAbsolutePath(),RMDStorageType.FILE,new Tags()));
     }
 
+    /**
+     * create a columnar, in-memory cache of the features in a track, loading it from the cache's sidecar file
+     * when possible.  Only uncompressed text formats can be cached.
+     *
+     * @param fileDescriptor a description of the type of track to build.
+     *
+     * @return a cache of the track's features
+     */
+    public ColumnarFeatureCache createFeatureCache(RMDTriplet fileDescriptor) {
+        String name = fileDescriptor.getName();
+        File inputFile = new File(fileDescriptor.getFile());
+
+        FeatureManager.FeatureDescriptor descriptor = getFeatureManager().getByTriplet(fileDescriptor);
+        if (descriptor == null)
+            throw new UserException.BadArgumentValue("-B",fileDescriptor.getType());
+
+        FeatureCodec<?, ?> codec = createCodec(descriptor, name);
+        if (!(codec instanceof AsciiFeatureCodec) || inputFile.getAbsolutePath().endsWith(".gz"))
+            throw new UserException.BadArgumentValue("storage", "Only uncompressed text feature files can be loaded with storage=" + RMDStorageType.CACHE + ", but " + inputFile + " is not one");
+
+        return new ColumnarFeatureCache(name, inputFile, (AsciiFeatureCodec<?>)codec, genomeLocParser, ! disableAutoIndexCreation);
+    }
+
     /**
      * create a feature reader, without assuming there exists an index.  This code assumes the feature
      * reader of the appropriate type will figure out what the right index type is, and determine if it
@@ -208,28 +237,9 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
 
         if(canBeIndexed) {
             try {
-                Index index = loadIndex(inputFile, createCodec(descriptor, name));
-                try { logger.info(String.format("  Index for %s has size in bytes %d", inputFile, Sizeof.getObjectGraphSize(index))); }
-                catch (ReviewedStingException e) { }
-
+                Index index = getSharedIndex(inputFile, createCodec(descriptor, name));
                 sequenceDictionary = IndexDictionaryUtils.getSequenceDictionaryFromProperties(index);
 
-                // if we don't have a dictionary in the Tribble file, and we've set a dictionary for this builder, set it in the file if they match
-                if (sequenceDictionary.size() == 0 && dict != null) {
-                    validateAndUpdateIndexSequenceDictionary(inputFile, index, dict);
-
-                    if ( ! disableAutoIndexCreation ) {
-                        File indexFile = Tribble.indexFile(inputFile);
-                        try { // re-write the index
-                            writeIndexToDisk(index,indexFile,new FSLockWithShared(indexFile));
-                        } catch (IOException e) {
-                            logger.warn("Unable to update index with the sequence dictionary for file " + indexFile + "; this will not affect your run of the GATK");
-                        }
-                    }
-
-                    sequenceDictionary = IndexDictionaryUtils.getSequenceDictionaryFromProperties(index);
-                }
-
                 featureSource = AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name), index);
             }
             catch (TribbleException e) {
@@ -246,6 +256,43 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
         return new Pair<AbstractFeatureReader,SAMSequenceDictionary>(featureSource,sequenceDictionary);
     }
 
+    /**
+     * get the index for the input file, loading it (and giving it our sequence dictionary) only the first time a
+     * reader is opened on the file.  Indices aren't modified once they're loaded, so every reader, and every
+     * thread, can share the same one.
+     * @param inputFile the input file
+     * @param codec the codec to use
+     * @return the index for the input file
+     * @throws IOException if we cannot write the index file
+     */
+    private synchronized Index getSharedIndex( final File inputFile, final FeatureCodec codec ) throws IOException {
+        final File key = inputFile.getAbsoluteFile();
+        Index index = sharedIndices.get(key);
+        if ( index != null )
+            return index;
+
+        index = loadIndex(inputFile, codec);
+        try { logger.info(String.format("  Index for %s has size in bytes %d", inputFile, Sizeof.getObjectGraphSize(index))); }
+        catch (ReviewedStingException e) { }
+
+        // if we don't have a dictionary in the Tribble file, and we've set a dictionary for this builder, set it in the file if they match
+        if (IndexDictionaryUtils.getSequenceDictionaryFromProperties(index).size() == 0 && dict != null) {
+            validateAndUpdateIndexSequenceDictionary(inputFile, index, dict);
+
+            if ( ! disableAutoIndexCreation ) {
+                File indexFile = Tribble.indexFile(inputFile);
+                try { // re-write the index
+                    writeIndexToDisk(index,indexFile,new FSLockWithShared(indexFile));
+                } catch (IOException e) {
+                    logger.warn("Unable to update index with the sequence dictionary for file " + indexFile + "; this will not affect your run of the GATK");
+                }
+            }
+        }
+
+        sharedIndices.put(key, index);
+        return index;
+    }
+
     /**
      * create an index for the input file
      * @param inputFile the input file
@@ -33,7 +33,11 @@ import org.broadinstitute.sting.commandline.Tags;
  * TODO: The presence of four datapoints here suggests that this class' name isn't sufficient to describe its function.  Rename.
  */
 public class RMDTriplet {
-    public enum RMDStorageType { FILE, STREAM };
+    /**
+     * FILE tracks are queried through a tribble index, STREAM tracks are read once from start to finish,
+     * and CACHE tracks are loaded into a columnar cache shared by all threads (see ColumnarFeatureCache).
+     */
+    public enum RMDStorageType { FILE, STREAM, CACHE };
 
     private final String name;
     private final String type;
@@ -87,7 +87,7 @@ public class GATKReport {
         BufferedReader reader;
         String reportHeader;
         try {
-            reader = new BufferedReader(new FileReader(file));
+            reader = new BufferedReader(new FileReader(file), 1 << 16);
             reportHeader = reader.readLine();
         } catch (FileNotFoundException e) {
             throw new UserException.CouldNotReadInputFile(file, "it does not exist");
@@ -29,6 +29,7 @@ import org.apache.commons.lang.math.NumberUtils;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Formattable;
 
 /**
  * column information within a GATK report table
@@ -42,6 +43,22 @@ public class GATKReportColumn {
     private GATKReportColumnFormat.Alignment alignment = GATKReportColumnFormat.Alignment.RIGHT;  // default alignment is to the right unless values added ask for a left alignment
     private int maxWidth = 0;
 
+    /**
+     * Values formatted with %d, and with %.Nf in a locale that uses a '.' decimal point, always come out as plain
+     * numbers, so we can format integers without going through String.format and know the formatting of any number
+     * is right aligned without parsing it again.  This checks that the default locale doesn't do anything surprising
+     * with them.
+     */
+    private static final boolean PLAIN_NUMBER_FORMATTING =
+            String.format("%d", -1234567890L).equals("-1234567890") && String.format("%.2f", -12.5).equals("-12.50");
+
+    private final boolean isFixedPointFormat;
+
+    // the last immutable value formatted, as streaming tables write out each value just after updating the formatting with it
+    private Object lastValue = null;
+    private String lastValueFormat = null;
+    private String lastFormattedValue = null;
+
     /**
      * Construct the column object, specifying the column name, default value, whether or not the column should be
      * displayed, and the format string. This cannot be null.
@@ -60,6 +77,7 @@ public class GATKReportColumn {
             this.format = format;
             this.dataType = GATKReportDataType.fromFormatString(format);
         }
+        this.isFixedPointFormat = this.format.matches("%(\\.\\d+)?f");
     }
 
     /**
@@ -101,6 +119,23 @@ public class GATKReportColumn {
      * @return The string representation of the column
      */
     private String formatValue(final Object obj) {
+        return formatValue(obj, format);
+    }
+
+    /**
+     * Returns the string version of a value as it is written out in the table
+     *
+     * @param obj The object to convert to a string
+     * @return The string representation of the value
+     */
+    String formatOutputValue(final Object obj) {
+        return formatValue(obj, getFormat());
+    }
+
+    private String formatValue(final Object obj, final String format) {
+        if ( obj == lastValue && format.equals(lastValueFormat) )
+            return lastFormattedValue;
+
         String value;
         if (obj == null) {
             value = "null";
@@ -108,12 +143,41 @@ public class GATKReportColumn {
         else if ( dataType.equals(GATKReportDataType.Unknown) && (obj instanceof Double || obj instanceof Float) ) {
             value = String.format("%.8f", obj);
         }
+        else if ( format.equals("%s") && !(obj instanceof Formattable) )
+            value = obj.toString();
+        else if ( PLAIN_NUMBER_FORMATTING && format.equals("%d") && isIntegral(obj) )
+            value = Long.toString(((Number)obj).longValue());
         else
             value = String.format(format, obj);
 
+        if ( isImmutable(obj) ) {
+            lastValue = obj;
+            lastValueFormat = format;
+            lastFormattedValue = value;
+        }
         return value;
     }
 
+    private static boolean isImmutable(final Object obj) {
+        return obj instanceof String || obj instanceof Double || obj instanceof Float || obj instanceof Boolean || obj instanceof Character || isIntegral(obj);
+    }
+
+    private static boolean isIntegral(final Object obj) {
+        return obj instanceof Long || obj instanceof Integer || obj instanceof Short || obj instanceof Byte;
+    }
+
+    /**
+     * @param obj a value in this column
+     * @return true if obj is always formatted as a plain number, which is always right aligned
+     */
+    private boolean isFormattedAsNumber(final Object obj) {
+        if ( ! PLAIN_NUMBER_FORMATTING )
+            return false;
+        if ( obj instanceof Double || obj instanceof Float )
+            return dataType.equals(GATKReportDataType.Unknown) || isFixedPointFormat;
+        return isIntegral(obj) && (format.equals("%d") || format.equals("%s"));
+    }
+
     public GATKReportDataType getDataType() {
         return dataType;
     }
@@ -131,7 +195,8 @@ public class GATKReportColumn {
             final String formatted = formatValue(value);
             if ( formatted.length() > 0 ) {
                 updateMaxWidth(formatted);
-                updateFormat(formatted);
+                if ( ! isFormattedAsNumber(value) )
+                    updateFormat(formatted);
             }
         }
     }
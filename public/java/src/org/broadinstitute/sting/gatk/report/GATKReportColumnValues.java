@@ -0,0 +1,263 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.report;
+
+import java.util.*;
+
+/**
+ * The values of one column of a GATKReportTable, stored by type.
+ *
+ * Integral and floating point values are kept in primitive arrays, and strings are dictionary encoded, so a table of
+ * millions of rows doesn't hold millions of boxed values.  A column remembers the class of its values, so get()
+ * returns values of the same class as were set; a column whose values don't all have the same class is stored as
+ * plain objects.  Cells that have never been set are null.
+ */
+abstract class GATKReportColumnValues {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Make storage suitable for value, which must not be null
+     *
+     * @param value    the first value to store
+     * @param capacity the number of rows expected
+     * @return the new, empty storage
+     */
+    static GATKReportColumnValues forValue(final Object value, final int capacity) {
+        final Class<?> type = value.getClass();
+        if ( type == Long.class || type == Integer.class || type == Short.class || type == Byte.class )
+            return new IntegralValues(type, capacity);
+        if ( type == Double.class || type == Float.class )
+            return new DecimalValues(type, capacity);
+        if ( type == String.class )
+            return new StringValues(capacity);
+        return new ObjectValues(capacity);
+    }
+
+    /**
+     * Copy the values of other into plain object storage
+     *
+     * @param other    the storage to copy
+     * @param capacity the number of rows expected
+     * @return the new storage
+     */
+    static GATKReportColumnValues asObjects(final GATKReportColumnValues other, final int capacity) {
+        final ObjectValues objects = new ObjectValues(Math.max(capacity, other.size()));
+        for ( int row = 0; row < other.size(); row++ )
+            objects.set(row, other.get(row));
+        return objects;
+    }
+
+    /**
+     * @return the number of rows up to and including the last one set
+     */
+    abstract int size();
+
+    /**
+     * @param row the row
+     * @return the value in row, or null if it has never been set
+     */
+    abstract Object get(int row);
+
+    /**
+     * Store value in row if this storage can hold it
+     *
+     * @param row   the row
+     * @param value the value, which must not be null
+     * @return false if this storage can't hold value, in which case nothing was stored
+     */
+    abstract boolean set(int row, Object value);
+
+    /**
+     * Rearrange the rows, so that row i holds what was in row order[i]
+     *
+     * @param order the old row for each new row; rows past the end of order are left alone
+     */
+    void reorder(final int[] order) {
+        final Object[] values = new Object[order.length];
+        for ( int i = 0; i < order.length; i++ )
+            values[i] = get(order[i]);
+        for ( int i = 0; i < order.length; i++ ) {
+            if ( values[i] == null )
+                clear(i);
+            else
+                set(i, values[i]);
+        }
+    }
+
+    /**
+     * Make row unset
+     */
+    abstract void clear(int row);
+
+    protected static int grow(final int length, final int row) {
+        return Math.max(row + 1, Math.max(INITIAL_CAPACITY, length + (length >> 1)));
+    }
+
+    /**
+     * Longs, ints, shorts or bytes, all of the same class
+     */
+    private static final class IntegralValues extends GATKReportColumnValues {
+        private final Class<?> type;
+        private long[] values;
+        private final BitSet isSet = new BitSet();
+
+        private IntegralValues(final Class<?> type, final int capacity) {
+            this.type = type;
+            values = new long[capacity];
+        }
+
+        int size() { return isSet.length(); }
+
+        Object get(final int row) {
+            if ( ! isSet.get(row) )
+                return null;
+            final long value = values[row];
+            if ( type == Long.class ) return value;
+            if ( type == Integer.class ) return (int)value;
+            if ( type == Short.class ) return (short)value;
+            return (byte)value;
+        }
+
+        boolean set(final int row, final Object value) {
+            if ( value.getClass() != type )
+                return false;
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = ((Number)value).longValue();
+            isSet.set(row);
+            return true;
+        }
+
+        void clear(final int row) { isSet.clear(row); }
+    }
+
+    /**
+     * Doubles or floats, all of the same class
+     */
+    private static final class DecimalValues extends GATKReportColumnValues {
+        private final boolean isFloat;
+        private double[] values;
+        private final BitSet isSet = new BitSet();
+
+        private DecimalValues(final Class<?> type, final int capacity) {
+            isFloat = type == Float.class;
+            values = new double[capacity];
+        }
+
+        int size() { return isSet.length(); }
+
+        Object get(final int row) {
+            if ( ! isSet.get(row) )
+                return null;
+            return isFloat ? (Object)(float)values[row] : (Object)values[row];
+        }
+
+        boolean set(final int row, final Object value) {
+            if ( value.getClass() != (isFloat ? Float.class : Double.class) )
+                return false;
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = ((Number)value).doubleValue();
+            isSet.set(row);
+            return true;
+        }
+
+        void clear(final int row) { isSet.clear(row); }
+    }
+
+    /**
+     * Strings, each stored as its index (plus one, so that zero is an unset cell) in a dictionary of the distinct
+     * strings in the column
+     */
+    private static final class StringValues extends GATKReportColumnValues {
+        private int[] codes;
+        private int size = 0;
+        private final List<String> dictionary = new ArrayList<String>();
+        private final Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+
+        private StringValues(final int capacity) {
+            codes = new int[capacity];
+        }
+
+        int size() { return size; }
+
+        Object get(final int row) {
+            return row < size && codes[row] != 0 ? dictionary.get(codes[row] - 1) : null;
+        }
+
+        boolean set(final int row, final Object value) {
+            if ( value.getClass() != String.class )
+                return false;
+
+            Integer code = dictionaryCodes.get(value);
+            if ( code == null ) {
+                dictionary.add((String)value);
+                code = dictionary.size();
+                dictionaryCodes.put((String)value, code);
+            }
+
+            if ( row >= codes.length )
+                codes = Arrays.copyOf(codes, grow(codes.length, row));
+            codes[row] = code;
+            size = Math.max(size, row + 1);
+            return true;
+        }
+
+        void clear(final int row) {
+            if ( row < size ) codes[row] = 0;
+        }
+    }
+
+    /**
+     * Anything else
+     */
+    private static final class ObjectValues extends GATKReportColumnValues {
+        private Object[] values;
+        private int size = 0;
+
+        private ObjectValues(final int capacity) {
+            values = new Object[capacity];
+        }
+
+        int size() { return size; }
+
+        Object get(final int row) {
+            return row < size ? values[row] : null;
+        }
+
+        boolean set(final int row, final Object value) {
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = value;
+            size = Math.max(size, row + 1);
+            return true;
+        }
+
+        void clear(final int row) {
+            if ( row < size ) values[row] = null;
+        }
+    }
+}
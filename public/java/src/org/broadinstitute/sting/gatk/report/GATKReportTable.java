@@ -28,9 +28,7 @@ package org.broadinstitute.sting.gatk.report;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.text.TextFormattingUtils;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.PrintStream;
+import java.io.*;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -49,18 +47,37 @@ public class GATKReportTable {
 
     private final TableSortingWay sortingWay;
 
-    private List<Object[]> underlyingData;
+    private int nRows = 0;
+    private int expectedRows = 0;
     private final List<GATKReportColumn> columnInfo;
+    private final List<GATKReportColumnValues> columnValues; // null for a column until its first value is set
     private final Map<Object, Integer> columnNameToIndex;
+
+    /**
+     * Row IDs.  Tables are very often filled in by row index, where each row's ID is just its index, so instead of
+     * mapping every index to itself the Integers 0 through identityRowIDs - 1 are implicitly the IDs of the rows with
+     * those indices, and rowIdToIndex holds only the other IDs.  rowIdToIndex never holds an implicit ID.
+     */
+    private int identityRowIDs = 0;
     private final HashMap<Object, Integer> rowIdToIndex;
 
+    /**
+     * Streaming tables hold only their last row in memory: rows before it are formatted and spooled to a temporary
+     * file as soon as a later row is filled in, and copied from there when the table is written.  The file is
+     * deleted, and spool set to null, once the table has been written or closed.
+     */
+    private boolean streaming = false;
+    private File spoolFile = null;
+    private DataOutputStream spool = null;
+    private int nSpooledRows = 0;
+    private Object[] pendingRow = null;
+
     private static final String COULD_NOT_READ_HEADER = "Could not read the header of this file -- ";
     private static final String COULD_NOT_READ_COLUMN_NAMES = "Could not read the column names of this file -- ";
     private static final String COULD_NOT_READ_DATA_LINE = "Could not read a data line of this table -- ";
     private static final String COULD_NOT_READ_EMPTY_LINE = "Could not read the last empty line of this table -- ";
     private static final String OLD_GATK_TABLE_VERSION = "We no longer support older versions of the GATK Tables";
 
-    private static final int INITITAL_ARRAY_SIZE = 10000;
     private static final String NUMBER_CONVERSION_EXCEPTION = "String is a number but is not a long or a double: ";
 
     protected enum TableDataHeaderFields {
@@ -118,14 +135,13 @@ public class GATKReportTable {
                 // initialize the data
                 final int nColumns = Integer.parseInt(tableData[TableDataHeaderFields.COLS.index()]);
                 final int nRows = Integer.parseInt(tableData[TableDataHeaderFields.ROWS.index()]);
-                underlyingData = new ArrayList<Object[]>(nRows);
+                expectedRows = nRows;
                 columnInfo = new ArrayList<GATKReportColumn>(nColumns);
+                columnValues = new ArrayList<GATKReportColumnValues>(nColumns);
                 columnNameToIndex = new HashMap<Object, Integer>(nColumns);
 
-                // when reading from a file, the row ID mapping is just the index
+                // when reading from a file, the row ID mapping is just the index, which set() takes care of
                 rowIdToIndex = new HashMap<Object, Integer>();
-                for ( int i = 0; i < nRows; i++ )
-                    rowIdToIndex.put(i, i);
 
                 // read the column names
                 final String columnLine;
@@ -144,21 +160,27 @@ public class GATKReportTable {
                     addColumn(columnNames[i], format);
                 }
 
+                // work out where each value goes once, rather than for every line
+                final int[] starts = new int[columnStarts.size()];
+                for ( int i = 0; i < starts.length; i++ )
+                    starts[i] = columnStarts.get(i);
+                final int[] columnIndices = new int[nColumns];
+                final GATKReportDataType[] types = new GATKReportDataType[nColumns];
+                for ( int columnIndex = 0; columnIndex < nColumns; columnIndex++ ) {
+                    columnIndices[columnIndex] = columnNameToIndex.get(columnNames[columnIndex]);
+                    types[columnIndex] = columnInfo.get(columnIndex).getDataType();
+                }
+
                 // fill in the table
                 try {
                     for ( int i = 0; i < nRows; i++ ) {
                         // read a data line
                         final String dataLine = reader.readLine();
-                        final List<String> lineSplits = Arrays.asList(TextFormattingUtils.splitFixedWidth(dataLine, columnStarts));
-
-                        underlyingData.add(new Object[nColumns]);
-                        for ( int columnIndex = 0; columnIndex < nColumns; columnIndex++ ) {
-
-                            final GATKReportDataType type = columnInfo.get(columnIndex).getDataType();
-                            final String columnName = columnNames[columnIndex];
-                            set(i, columnName, type.Parse(lineSplits.get(columnIndex)));
+                        if ( dataLine == null )
+                            throw new ReviewedStingException(COULD_NOT_READ_DATA_LINE + "the table has fewer than " + nRows + " rows");
 
-                        }
+                        for ( int columnIndex = 0; columnIndex < nColumns; columnIndex++ )
+                            set(i, columnIndices[columnIndex], types[columnIndex].Parse(getFixedWidthValue(dataLine, starts, columnIndex)));
                     }
                 } catch (IOException e) {
                     throw new ReviewedStingException(COULD_NOT_READ_DATA_LINE + e.getMessage());
@@ -208,8 +230,8 @@ public class GATKReportTable {
         this.tableDescription = tableDescription;
         this.sortingWay = sortingWay;
 
-        underlyingData = new ArrayList<Object[]>(INITITAL_ARRAY_SIZE);
         columnInfo = new ArrayList<GATKReportColumn>(numColumns);
+        columnValues = new ArrayList<GATKReportColumnValues>(numColumns);
         columnNameToIndex = new HashMap<Object, Integer>(numColumns);
         rowIdToIndex = new HashMap<Object, Integer>();
     }
@@ -226,6 +248,108 @@ public class GATKReportTable {
             throw new IllegalArgumentException("sorry, copying data in GATKReportTable isn't supported");
     }
 
+    /**
+     * Returns a value from a line of fixed width text, as TextFormattingUtils.splitFixedWidth would
+     *
+     * @param line         the line
+     * @param columnStarts the column starting positions within line, excluding the first position 0
+     * @param columnIndex  the column of the value
+     * @return the trimmed value
+     */
+    private static String getFixedWidthValue(final String line, final int[] columnStarts, final int columnIndex) {
+        final int start = columnIndex == 0 ? 0 : columnStarts[columnIndex - 1];
+        final int stop = columnIndex == columnStarts.length ? line.length() : columnStarts[columnIndex];
+        return line.substring(start, stop).trim();
+    }
+
+    /**
+     * Put this table in streaming mode, so that it holds only its last row in memory.
+     *
+     * Rows of a streaming table must be filled in by index, in order: once a later row has been set the earlier
+     * ones are formatted and moved to a temporary file, from which they are copied when the table is written, and
+     * can no longer be read or changed.  Row IDs, sorting by column, and concatenation aren't supported.  Only a
+     * new table that isn't sorted by column can be made to stream.
+     *
+     * A streaming table can be written only once, which deletes its temporary file.  A streaming table that won't be
+     * written should be closed with close() instead.
+     */
+    public void enableStreaming() {
+        if ( sortingWay == TableSortingWay.SORT_BY_COLUMN )
+            throw new ReviewedStingException("GATKReportTable '" + tableName + "' is sorted by column, so it can't stream its rows");
+        if ( nRows > 0 || identityRowIDs > 0 || ! rowIdToIndex.isEmpty() )
+            throw new ReviewedStingException("GATKReportTable '" + tableName + "' already has rows, so it can't stream them");
+        if ( isStreaming() )
+            return;
+
+        try {
+            spoolFile = File.createTempFile("GATKReportTable.", ".tmp");
+            spool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile)));
+            streaming = true;
+        } catch (IOException e) {
+            if ( spoolFile != null )
+                spoolFile.delete();
+            spoolFile = null;
+            throw new ReviewedStingException("Unable to create a temporary file for the rows of GATKReportTable '" + tableName + "'", e);
+        }
+    }
+
+    /**
+     * @return true if this table streams its rows
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Release the temporary file of a streaming table without writing it.  The table can't be changed or written
+     * afterwards.  Does nothing for tables that don't stream, or have already been written or closed.
+     */
+    public void close() {
+        if ( spool == null )
+            return;
+
+        try {
+            spool.close();
+        } catch (IOException e) {
+            throw new ReviewedStingException("Unable to close the temporary file for the rows of GATKReportTable '" + tableName + "'", e);
+        } finally {
+            spool = null;
+            spoolFile.delete();
+            spoolFile = null;
+        }
+    }
+
+    private void verifyNotStreaming(final String operation) {
+        if ( isStreaming() )
+            throw new ReviewedStingException("GATKReportTable '" + tableName + "' streams its rows, which doesn't support " + operation);
+    }
+
+    private void verifyStreamOpen() {
+        if ( spool == null )
+            throw new ReviewedStingException("GATKReportTable '" + tableName + "' streams its rows and has already been written or closed");
+    }
+
+    /**
+     * Format and spool the rows of a streaming table up to, but not including, rowIndex
+     *
+     * @param rowIndex the first row to keep in memory
+     */
+    private void spoolRowsBefore(final int rowIndex) {
+        try {
+            while ( nSpooledRows < rowIndex ) {
+                for ( int i = 0; i < pendingRow.length; i++ ) {
+                    final byte[] value = columnInfo.get(i).formatOutputValue(pendingRow[i]).getBytes("UTF-8");
+                    spool.writeInt(value.length);
+                    spool.write(value);
+                }
+                Arrays.fill(pendingRow, null);
+                nSpooledRows++;
+            }
+        } catch (IOException e) {
+            throw new ReviewedStingException("Unable to write the rows of GATKReportTable '" + tableName + "' to " + spoolFile, e);
+        }
+    }
+
         /**
         * Verifies that a table or column name has only alphanumeric characters - no spaces or special characters allowed
         *
@@ -268,7 +392,7 @@ public class GATKReportTable {
      * @param populateFirstColumn   should we automatically populate the first column with the row's ID?
      */
     public void addRowID(final String ID, final boolean populateFirstColumn) {
-        addRowIDMapping(ID, underlyingData.size(), populateFirstColumn);
+        addRowIDMapping(ID, nRows, populateFirstColumn);
     }
 
     /**
@@ -289,8 +413,9 @@ public class GATKReportTable {
      * @param populateFirstColumn   should we automatically populate the first column with the row's ID?
      */
     public void addRowIDMapping(final Object ID, final int index, final boolean populateFirstColumn) {
+        verifyNotStreaming("row IDs");
         expandTo(index, false);
-        rowIdToIndex.put(ID, index);
+        putRowID(ID, index);
 
         if ( populateFirstColumn )
             set(index, 0, ID);
@@ -302,9 +427,48 @@ public class GATKReportTable {
      * @param ID   the row ID
      */
     public void removeRowIDMapping(final Object ID) {
+        if ( isIdentityRowID(ID) )
+            materializeIdentityRowIDs();
         rowIdToIndex.remove(ID);
     }
 
+    private boolean isIdentityRowID(final Object ID) {
+        return ID instanceof Integer && (Integer)ID >= 0 && (Integer)ID < identityRowIDs;
+    }
+
+    /**
+     * @param ID the row ID
+     * @return the index of the row with this ID, or null if there isn't one
+     */
+    private Integer getRowIndex(final Object ID) {
+        return isIdentityRowID(ID) ? (Integer)ID : rowIdToIndex.get(ID);
+    }
+
+    private void putRowID(final Object ID, final int index) {
+        if ( isIdentityRowID(ID) ) {
+            if ( (Integer)ID == index )
+                return;
+            materializeIdentityRowIDs();
+        } else if ( ID instanceof Integer && (Integer)ID == identityRowIDs && index == identityRowIDs && ! rowIdToIndex.containsKey(ID) ) {
+            identityRowIDs++;
+            return;
+        }
+        rowIdToIndex.put(ID, index);
+    }
+
+    /**
+     * Move the implicit row IDs into rowIdToIndex, for changes that don't map an index to itself
+     */
+    private void materializeIdentityRowIDs() {
+        for ( int i = 0; i < identityRowIDs; i++ )
+            rowIdToIndex.put(i, i);
+        identityRowIDs = 0;
+    }
+
+    private int getNumRowIDs() {
+        return identityRowIDs + rowIdToIndex.size();
+    }
+
     /**
      * Add a column to the report
      *
@@ -321,8 +485,11 @@ public class GATKReportTable {
      * @param format       the format string used to display data
      */
     public void addColumn(String columnName, String format) {
+        if ( isStreaming() && nRows > 0 )
+            throw new ReviewedStingException("GATKReportTable '" + tableName + "' streams its rows, so columns can't be added once it has rows");
         columnNameToIndex.put(columnName, columnInfo.size());
         columnInfo.add(new GATKReportColumn(columnName, format));
+        columnValues.add(null);
     }
 
     /**
@@ -343,15 +510,14 @@ public class GATKReportTable {
      * @param updateRowIdMap  should we update the row ID map?
      */
     private void expandTo(final int rowIndex, final boolean updateRowIdMap) {
-        int currentSize = underlyingData.size();
-        if ( rowIndex >= currentSize ) {
-            final int numNewRows = rowIndex - currentSize + 1;
-            for ( int i = 0; i < numNewRows; i++ ) {
-                if ( updateRowIdMap )
-                    rowIdToIndex.put(currentSize, currentSize);
-                underlyingData.add(new Object[getNumColumns()]);
-                currentSize++;
+        if ( rowIndex >= nRows ) {
+            if ( updateRowIdMap ) {
+                for ( int i = nRows; i <= rowIndex; i++ )
+                    putRowID(i, i);
             }
+            nRows = rowIndex + 1;
+            if ( isStreaming() && pendingRow == null )
+                pendingRow = new Object[getNumColumns()];
         }
     }
 
@@ -364,11 +530,14 @@ public class GATKReportTable {
      * @param value        the value to set
      */
     public void set(final Object rowID, final String columnName, final Object value) {
-        if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            expandTo(underlyingData.size(), false);
+        verifyNotStreaming("row IDs");
+        Integer rowIndex = getRowIndex(rowID);
+        if ( rowIndex == null ) {
+            rowIndex = nRows;
+            putRowID(rowID, rowIndex);
+            expandTo(rowIndex, false);
         }
-        set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), value);
+        set(rowIndex, columnNameToIndex.get(columnName), value);
     }
 
     /**
@@ -380,8 +549,14 @@ public class GATKReportTable {
      * @param value        the value to set
      */
     public void set(final int rowIndex, final int colIndex, Object value) {
+        if ( isStreaming() )
+            verifyStreamOpen();
+        if ( isStreaming() && rowIndex >= 0 && rowIndex < nSpooledRows )
+            throw new ReviewedStingException("GATKReportTable '" + tableName + "' streams its rows, and row " + rowIndex + " has already been written");
         expandTo(rowIndex, true);
         verifyEntry(rowIndex, colIndex);
+        if ( isStreaming() )
+            spoolRowsBefore(rowIndex);
         GATKReportColumn column = columnInfo.get(colIndex);
 
         // We do not accept internal null values
@@ -391,7 +566,7 @@ public class GATKReportTable {
             value = fixType(value, column);
 
         if ( column.getDataType().equals(GATKReportDataType.fromObject(value)) || column.getDataType().equals(GATKReportDataType.Unknown) ) {
-            underlyingData.get(rowIndex)[colIndex] = value;
+            setValue(rowIndex, colIndex, value);
             column.updateFormatting(value);
         } else {
             throw new ReviewedStingException(String.format("Tried to add an object of type: %s to a column of type: %s", GATKReportDataType.fromObject(value).name(), column.getDataType().name()));
@@ -404,7 +579,7 @@ public class GATKReportTable {
      * @param rowID        the row ID
      */
     public boolean containsRowID(final Object rowID) {
-        return rowIdToIndex.containsKey(rowID);
+        return isIdentityRowID(rowID) || rowIdToIndex.containsKey(rowID);
     }
 
     /**
@@ -412,7 +587,44 @@ public class GATKReportTable {
      *
      */
     public Collection<Object> getRowIDs() {
-        return rowIdToIndex.keySet();
+        // a read-only view, so that the implicit IDs needn't be stored to list them
+        return new AbstractCollection<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                final int nIdentityRowIDs = identityRowIDs;
+                final Iterator<Object> explicitIDs = rowIdToIndex.keySet().iterator();
+                return new Iterator<Object>() {
+                    private int nextIdentityRowID = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return nextIdentityRowID < nIdentityRowIDs || explicitIDs.hasNext();
+                    }
+
+                    @Override
+                    public Object next() {
+                        if ( nextIdentityRowID < nIdentityRowIDs )
+                            return nextIdentityRowID++;
+                        return explicitIDs.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("The row IDs of a GATKReportTable can't be changed through getRowIDs()");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return getNumRowIDs();
+            }
+
+            @Override
+            public boolean contains(final Object ID) {
+                return containsRowID(ID);
+            }
+        };
     }
 
     /**
@@ -423,10 +635,11 @@ public class GATKReportTable {
     * @param columnName   the name of the column
     */
     public void increment(final Object rowID, final String columnName) {
+        verifyNotStreaming("row IDs");
         int prevValue;
-        if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            underlyingData.add(new Object[getNumColumns()]);
+        if ( !containsRowID(rowID) ) {
+            putRowID(rowID, nRows);
+            nRows++;
             prevValue = 0;
         } else {
             Object obj = get(rowID, columnName);
@@ -435,7 +648,7 @@ public class GATKReportTable {
             prevValue = (Integer)obj;
         }
 
-        set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), prevValue + 1);
+        set(getRowIndex(rowID), columnNameToIndex.get(columnName), prevValue + 1);
     }
 
     /**
@@ -448,14 +661,13 @@ public class GATKReportTable {
     public int findRowByData(final Object... columnValues) {
         if ( columnValues == null || columnValues.length == 0 || columnValues.length > getNumColumns() )
             return -1;
+        verifyNotStreaming("finding rows");
 
-        for ( int rowIndex = 0; rowIndex < underlyingData.size(); rowIndex++ ) {
-
-            final Object[] row = underlyingData.get(rowIndex);
+        for ( int rowIndex = 0; rowIndex < nRows; rowIndex++ ) {
 
             boolean matches = true;
             for ( int colIndex = 0; colIndex < columnValues.length; colIndex++ ) {
-                if ( !columnValues[colIndex].equals(row[colIndex]) ) {
+                if ( !columnValues[colIndex].equals(getValue(rowIndex, colIndex)) ) {
                     matches = false;
                     break;
                 }
@@ -506,7 +718,7 @@ public class GATKReportTable {
      * @return the value stored at the specified position in the table
      */
     public Object get(final Object rowID, final String columnName) {
-        return get(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName));
+        return get(getRowIndex(rowID), columnNameToIndex.get(columnName));
     }
 
     /**
@@ -529,7 +741,37 @@ public class GATKReportTable {
      */
     public Object get(int rowIndex, int columnIndex) {
         verifyEntry(rowIndex, columnIndex);
-        return underlyingData.get(rowIndex)[columnIndex];
+        if ( rowIndex >= nRows )
+            throw new IndexOutOfBoundsException("Index: " + rowIndex + ", Size: " + nRows);
+        if ( isStreaming() && rowIndex < nSpooledRows )
+            throw new ReviewedStingException("GATKReportTable '" + tableName + "' streams its rows, so only its last row can be read");
+        return getValue(rowIndex, columnIndex);
+    }
+
+    private Object getValue(final int rowIndex, final int columnIndex) {
+        if ( isStreaming() )
+            return pendingRow[columnIndex];
+        final GATKReportColumnValues values = columnValues.get(columnIndex);
+        return values == null ? null : values.get(rowIndex);
+    }
+
+    private void setValue(final int rowIndex, final int columnIndex, final Object value) {
+        if ( isStreaming() ) {
+            pendingRow[columnIndex] = value;
+            return;
+        }
+
+        GATKReportColumnValues values = columnValues.get(columnIndex);
+        if ( values == null ) {
+            values = GATKReportColumnValues.forValue(value, Math.max(expectedRows, rowIndex + 1));
+            columnValues.set(columnIndex, values);
+        }
+        if ( ! values.set(rowIndex, value) ) {
+            // the column holds values of more than one class
+            values = GATKReportColumnValues.asObjects(values, Math.max(expectedRows, rowIndex + 1));
+            values.set(rowIndex, value);
+            columnValues.set(columnIndex, values);
+        }
     }
 
     /**
@@ -547,6 +789,11 @@ public class GATKReportTable {
           * row1  xxxx  xxxxx
          */
 
+         if ( isStreaming() ) {
+             verifyStreamOpen();
+             spoolRowsBefore(nRows);
+         }
+
          // write the table definition
          out.printf(GATKTABLE_HEADER_PREFIX + ":%d:%d", getNumColumns(), getNumRows());
 
@@ -559,94 +806,182 @@ public class GATKReportTable {
          out.printf(GATKTABLE_HEADER_PREFIX + ":%s:%s\n", tableName, tableDescription);
 
          // write the column names
+         final StringBuilder line = new StringBuilder();
          boolean needsPadding = false;
          for ( final GATKReportColumn column : columnInfo ) {
              if ( needsPadding )
-                 out.printf("  ");
+                 line.append("  ");
              needsPadding = true;
 
-             out.printf(column.getColumnFormat().getNameFormat(), column.getColumnName());
+             appendPadded(line, column.getColumnName(), column.getColumnFormat().getWidth(), GATKReportColumnFormat.Alignment.LEFT);
          }
-         out.println();
+         out.println(line);
 
          // write the table body
-         switch (sortingWay) {
-             case SORT_BY_COLUMN:
-                 Collections.sort(underlyingData, new Comparator<Object[]>() {
-                     //INVARIANT the two arrays are of the same length and corresponding elements are of the same type
-                     @Override
-                     public int compare(Object[] objectArr1, Object[] objectArr2) {
-                         final int EQUAL = 0;
-
-                         int result = EQUAL;
-
-                         int l = objectArr1.length;
-                         for (int x = 0; x < l; x++) {
-                             if (objectArr1[x] instanceof Integer) {
-                                 result = ((Integer)objectArr1[x]).compareTo((Integer)objectArr2[x]);
-                             } else if (objectArr1[x] instanceof Double) {
-                                 result = ((Double)objectArr1[x]).compareTo((Double)objectArr2[x]);
-                             } else { // default uses String comparison
-                                 result = objectArr1[x].toString().compareTo(objectArr2[x].toString());
-                             }
-                             if( result  != EQUAL) {
-                                 return result;
-                             }
-                         }
-                         return result;
-                     }
-                 });
-                 for ( final Object[] row : underlyingData )
-                     writeRow(out, row);
-                 break;
-             case SORT_BY_ROW:
-                 // make sure that there are exactly the correct number of ID mappings
-                 if ( rowIdToIndex.size() != underlyingData.size() )
-                     throw new ReviewedStingException("There isn't a 1-to-1 mapping from row ID to index; this can happen when rows are not created consistently");
-
-                 final TreeMap<Object, Integer> sortedMap;
-                 try {
-                     sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
-                 } catch (ClassCastException e) {
-                     throw new ReviewedStingException("Unable to sort the rows based on the row IDs because the ID Objects are of different types");
-                 }
-                 for ( final Map.Entry<Object, Integer> rowKey : sortedMap.entrySet() )
-                     writeRow(out, underlyingData.get(rowKey.getValue()));
-                 break;
-             case DO_NOT_SORT:
-                 for ( final Object[] row : underlyingData )
-                     writeRow(out, row);
+         if ( isStreaming() ) {
+             // rows are streamed in the order they were added, which is also their order by row ID
+             writeSpooledRows(out, line);
+         } else {
+             final int[] orderedRows = getOrderedRows(true);
+             for ( int i = 0; i < nRows; i++ )
+                 writeRow(out, line, orderedRows == null ? i : orderedRows[i]);
          }
          out.println();
      }
 
-    private void writeRow(final PrintStream out, final Object[] row) {
-        boolean needsPadding = false;
-        for ( int i = 0; i < row.length; i++ ) {
-            if ( needsPadding )
-                out.printf("  ");
-            needsPadding = true;
-
-            final Object obj = row[i];
-            final String value;
+    private void writeRow(final PrintStream out, final StringBuilder line, final int rowIndex) {
+        line.setLength(0);
+        for ( int i = 0; i < columnInfo.size(); i++ ) {
+            if ( i > 0 )
+                line.append("  ");
 
             final GATKReportColumn info = columnInfo.get(i);
+            appendValue(line, info, info.formatOutputValue(getValue(rowIndex, i)));
+        }
 
-            if ( obj == null )
-                value = "null";
-            else if ( info.getDataType().equals(GATKReportDataType.Unknown) && (obj instanceof Double || obj instanceof Float) )
-                value = String.format("%.8f", obj);
-            else
-                value = String.format(info.getFormat(), obj);
+        out.println(line);
+    }
 
-            out.printf(info.getColumnFormat().getValueFormat(), value);
+    /**
+     * Copy the spooled rows of a streaming table to out, then close the table, as its rows can't be written again
+     */
+    private void writeSpooledRows(final PrintStream out, final StringBuilder line) {
+        try {
+            spool.close();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile)));
+            try {
+                byte[] buffer = new byte[256];
+                for ( int row = 0; row < nRows; row++ ) {
+                    line.setLength(0);
+                    for ( int i = 0; i < columnInfo.size(); i++ ) {
+                        if ( i > 0 )
+                            line.append("  ");
+
+                        final int length = in.readInt();
+                        if ( length > buffer.length )
+                            buffer = new byte[Math.max(length, 2 * buffer.length)];
+                        in.readFully(buffer, 0, length);
+                        appendValue(line, columnInfo.get(i), new String(buffer, 0, length, "UTF-8"));
+                    }
+                    out.println(line);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new ReviewedStingException("Unable to read back the rows of GATKReportTable '" + tableName + "' from " + spoolFile, e);
+        } finally {
+            close();
         }
+    }
 
-        out.println();
+    private static void appendValue(final StringBuilder line, final GATKReportColumn column, final String value) {
+        final GATKReportColumnFormat format = column.getColumnFormat();
+        appendPadded(line, value, format.getWidth(), format.getAlignment());
+    }
+
+    /**
+     * Append value to line padded to width, as the format %-{width}s or %{width}s would
+     */
+    private static void appendPadded(final StringBuilder line, final String value, final int width, final GATKReportColumnFormat.Alignment alignment) {
+        if ( alignment == GATKReportColumnFormat.Alignment.LEFT )
+            line.append(value);
+        for ( int i = value.length(); i < width; i++ )
+            line.append(' ');
+        if ( alignment == GATKReportColumnFormat.Alignment.RIGHT )
+            line.append(value);
+    }
+
+    /**
+     * Works out the order in which the rows are written.  Note that sorting by column rearranges the rows themselves
+     * (without updating the row IDs).
+     *
+     * @param verifyRowIDs for tables sorted by row, should we check that every row has exactly one ID?
+     * @return the index of each row in order, or null if they're in index order
+     */
+    private int[] getOrderedRows(final boolean verifyRowIDs) {
+        verifyNotStreaming("ordering rows");
+
+        switch (sortingWay) {
+            case SORT_BY_COLUMN:
+                sortRowsByColumns();
+                return null;
+            case SORT_BY_ROW:
+                // make sure that there are exactly the correct number of ID mappings
+                if ( verifyRowIDs && getNumRowIDs() != nRows )
+                    throw new ReviewedStingException("There isn't a 1-to-1 mapping from row ID to index; this can happen when rows are not created consistently");
+
+                // implicit IDs are their own indices, so they're already in order
+                if ( rowIdToIndex.isEmpty() )
+                    return null;
+
+                final TreeMap<Object, Integer> sortedMap;
+                try {
+                    sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
+                    for ( int i = 0; i < identityRowIDs; i++ )
+                        sortedMap.put(i, i);
+                } catch (ClassCastException e) {
+                    if ( verifyRowIDs )
+                        throw new ReviewedStingException("Unable to sort the rows based on the row IDs because the ID Objects are of different types");
+                    return null;
+                }
+
+                final int[] orderedRows = new int[sortedMap.size()];
+                int i = 0;
+                for ( final int rowIndex : sortedMap.values() )
+                    orderedRows[i++] = rowIndex;
+                return orderedRows;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sorts the rows by the values in each column in turn
+     */
+    private void sortRowsByColumns() {
+        final Integer[] order = new Integer[nRows];
+        for ( int i = 0; i < nRows; i++ )
+            order[i] = i;
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            //INVARIANT corresponding elements of the two rows are of the same type
+            @Override
+            public int compare(Integer row1, Integer row2) {
+                final int EQUAL = 0;
+
+                int result = EQUAL;
+
+                int l = getNumColumns();
+                for (int x = 0; x < l; x++) {
+                    final Object value1 = getValue(row1, x);
+                    final Object value2 = getValue(row2, x);
+                    if (value1 instanceof Integer) {
+                        result = ((Integer)value1).compareTo((Integer)value2);
+                    } else if (value1 instanceof Double) {
+                        result = ((Double)value1).compareTo((Double)value2);
+                    } else { // default uses String comparison
+                        result = value1.toString().compareTo(value2.toString());
+                    }
+                    if( result  != EQUAL) {
+                        return result;
+                    }
+                }
+                return result;
+            }
+        });
+
+        final int[] newOrder = new int[nRows];
+        for ( int i = 0; i < nRows; i++ )
+            newOrder[i] = order[i];
+        for ( final GATKReportColumnValues values : columnValues ) {
+            if ( values != null )
+                values.reorder(newOrder);
+        }
     }
 
     public int getNumRows() {
-        return underlyingData.size();
+        return nRows;
     }
 
     public int getNumColumns() {
@@ -673,14 +1008,26 @@ public class GATKReportTable {
     public void concat(final GATKReportTable table) {
         if ( !isSameFormat(table) )
             throw new ReviewedStingException("Error trying to concatenate tables with different formats");
+        verifyNotStreaming("concatenation");
+        table.verifyNotStreaming("concatenation");
 
         // add the data
-        underlyingData.addAll(table.underlyingData);
+        final int firstNewRow = nRows;
+        nRows += table.nRows;
+        for ( int row = 0; row < table.nRows; row++ ) {
+            for ( int col = 0; col < getNumColumns(); col++ ) {
+                final Object value = table.getValue(row, col);
+                if ( value != null )
+                    setValue(firstNewRow + row, col, value);
+            }
+        }
 
         // update the row index map
         final int currentNumRows = getNumRows();
+        for ( int i = 0; i < table.identityRowIDs; i++ )
+            putRowID(i, i + currentNumRows);
         for ( Map.Entry<Object, Integer> entry : table.rowIdToIndex.entrySet() )
-            rowIdToIndex.put(entry.getKey(), entry.getValue() + currentNumRows);
+            putRowID(entry.getKey(), entry.getValue() + currentNumRows);
     }
 
     /**
@@ -714,66 +1061,21 @@ public class GATKReportTable {
      */
     public boolean equals(final GATKReportTable table) {
         if ( !isSameFormat(table) ||
-                underlyingData.size() != table.underlyingData.size() )
+                nRows != table.nRows )
             return false;
 
-        final List<Object[]> myOrderedRows = getOrderedRows();
-        final List<Object[]> otherOrderedRows = table.getOrderedRows();
+        final int[] myOrderedRows = getOrderedRows(false);
+        final int[] otherOrderedRows = table.getOrderedRows(false);
 
-        for ( int i = 0; i < underlyingData.size(); i++ ) {
-            final Object[] myData = myOrderedRows.get(i);
-            final Object[] otherData = otherOrderedRows.get(i);
-            for ( int j = 0; j < myData.length; j++ ) {
-                if ( !myData[j].toString().equals(otherData[j].toString()) )       // need to deal with different typing (e.g. Long vs. Integer)
+        for ( int i = 0; i < nRows; i++ ) {
+            final int myRow = myOrderedRows == null ? i : myOrderedRows[i];
+            final int otherRow = otherOrderedRows == null ? i : otherOrderedRows[i];
+            for ( int j = 0; j < getNumColumns(); j++ ) {
+                if ( !getValue(myRow, j).toString().equals(table.getValue(otherRow, j).toString()) )       // need to deal with different typing (e.g. Long vs. Integer)
                     return false;
             }
         }
 
         return true;
     }
-
-    private List<Object[]> getOrderedRows() {
-
-        switch (sortingWay) {
-            case SORT_BY_COLUMN:
-                Collections.sort(underlyingData, new Comparator<Object[]>() {
-                    //INVARIANT the two arrays are of the same length and corresponding elements are of the same type
-                    @Override
-                    public int compare(Object[] objectArr1, Object[] objectArr2) {
-                        final int EQUAL = 0;
-                        int result = EQUAL;
-                        int l = objectArr1.length;
-                            for (int x = 0; x < l; x++) {
-                                if (objectArr1[x] instanceof Integer) {
-                                    result = ((Integer)objectArr1[x]).compareTo((Integer)objectArr2[x]);
-                                } else if (objectArr1[x] instanceof Double) {
-                                    result = ((Double)objectArr1[x]).compareTo((Double)objectArr2[x]);
-                                } else  { // default uses String comparison
-                                    result = objectArr1[x].toString().compareTo(objectArr2[x].toString());
-                                }
-                                if( result != EQUAL) {
-                                    return result;
-                                }
-                            }
-                            return result;
-                    }
-                });
-                return underlyingData;
-            case SORT_BY_ROW:
-                final TreeMap<Object, Integer> sortedMap;
-                try {
-                    sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
-                } catch (ClassCastException e) {
-                    return underlyingData;
-                }
-
-                final List<Object[]> orderedData = new ArrayList<Object[]>(underlyingData.size());
-                for ( final int rowKey : sortedMap.values() )
-                    orderedData.add(underlyingData.get(rowKey));
-
-                return orderedData;
-            default:
-                return underlyingData;
-        }
-    }
 }
@@ -0,0 +1,206 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.samples;
+
+import org.broadinstitute.variant.variantcontext.Genotype;
+import org.broadinstitute.variant.variantcontext.GenotypesContext;
+
+import java.util.*;
+
+/**
+ * An immutable index of the trios among a set of families, for tools that examine every trio at every site.
+ *
+ * The samples are numbered densely from 0, and each child with at least one parent in the database makes a trio of
+ * sample indices, listed in the order of SampleDB.getFamilies() and its family members.  A parent whose ID isn't
+ * given has the index -1.  The genotypes of all of the samples at a site are looked up together by a GenotypeColumns,
+ * which remembers which column of the genotypes holds each sample, so that sites with the same samples in the same
+ * order need no lookups by name.
+ */
+public final class PedigreeIndex {
+    private final String[] sampleNames;
+    private final Map<String, Integer> sampleIndices;
+
+    private final String[] familyIDs;
+    private final int[] motherIndices;
+    private final int[] fatherIndices;
+    private final int[] childIndices;
+
+    /**
+     * Create an index of the trios in families
+     *
+     * @param families the families, as SampleDB.getFamilies() returns them
+     */
+    public PedigreeIndex(final Map<String, Set<Sample>> families) {
+        if ( families == null ) throw new IllegalArgumentException("families cannot be null");
+
+        final List<String> names = new ArrayList<String>();
+        final Map<String, Integer> indices = new HashMap<String, Integer>();
+        final List<String> trioFamilies = new ArrayList<String>();
+        final List<int[]> trios = new ArrayList<int[]>();
+
+        for ( final Set<Sample> family : families.values() ) {
+            for ( final Sample sample : family ) {
+                if ( sample.getParents().size() > 0 ) {
+                    trioFamilies.add(sample.getFamilyID());
+                    trios.add(new int[]{
+                            addSample(sample.getMaternalID(), names, indices),
+                            addSample(sample.getPaternalID(), names, indices),
+                            addSample(sample.getID(), names, indices)});
+                }
+            }
+        }
+
+        sampleNames = names.toArray(new String[names.size()]);
+        sampleIndices = indices;
+        familyIDs = trioFamilies.toArray(new String[trioFamilies.size()]);
+        motherIndices = new int[trios.size()];
+        fatherIndices = new int[trios.size()];
+        childIndices = new int[trios.size()];
+        for ( int i = 0; i < trios.size(); i++ ) {
+            motherIndices[i] = trios.get(i)[0];
+            fatherIndices[i] = trios.get(i)[1];
+            childIndices[i] = trios.get(i)[2];
+        }
+    }
+
+    private static int addSample(final String name, final List<String> names, final Map<String, Integer> indices) {
+        if ( name == null )
+            return -1;
+
+        Integer index = indices.get(name);
+        if ( index == null ) {
+            index = names.size();
+            names.add(name);
+            indices.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the number of samples in any of the trios
+     */
+    public int getNumberOfSamples() {
+        return sampleNames.length;
+    }
+
+    public String getSampleName(final int sampleIndex) {
+        return sampleNames[sampleIndex];
+    }
+
+    /**
+     * @param sampleName
+     * @return the index of sampleName, or -1 if it isn't in any of the trios
+     */
+    public int getSampleIndex(final String sampleName) {
+        final Integer index = sampleIndices.get(sampleName);
+        return index == null ? -1 : index;
+    }
+
+    public int getNumberOfTrios() {
+        return childIndices.length;
+    }
+
+    public String getFamilyID(final int trio) {
+        return familyIDs[trio];
+    }
+
+    /**
+     * @param trio
+     * @return the sample index of the mother in trio, or -1 if the child's mother isn't known
+     */
+    public int getMotherIndex(final int trio) {
+        return motherIndices[trio];
+    }
+
+    /**
+     * @param trio
+     * @return the sample index of the father in trio, or -1 if the child's father isn't known
+     */
+    public int getFatherIndex(final int trio) {
+        return fatherIndices[trio];
+    }
+
+    public int getChildIndex(final int trio) {
+        return childIndices[trio];
+    }
+
+    /**
+     * @return a new lookup of the genotypes of this index's samples.  Lookups aren't thread safe, so each thread
+     *         needs its own
+     */
+    public GenotypeColumns newGenotypeColumns() {
+        return new GenotypeColumns();
+    }
+
+    /**
+     * Looks up the genotypes of all of the samples of a PedigreeIndex, by remembering the column each was found in
+     */
+    public final class GenotypeColumns {
+        private final int[] columns = new int[sampleNames.length];
+        private final Genotype[] genotypes = new Genotype[sampleNames.length];
+
+        private GenotypeColumns() {
+            Arrays.fill(columns, -1);
+        }
+
+        /**
+         * Get the genotypes of the index's samples in genotypesContext
+         *
+         * @param genotypesContext the genotypes to look in
+         * @return the genotype of each sample by sample index, or null for samples without one.  The array is
+         *         reused by the next call
+         */
+        public Genotype[] getGenotypes(final GenotypesContext genotypesContext) {
+            final int nColumns = genotypesContext.size();
+            boolean relocated = false;
+
+            for ( int i = 0; i < sampleNames.length; i++ ) {
+                final int column = columns[i];
+                Genotype g = column == -1 || column >= nColumns ? null : genotypesContext.get(column);
+                if ( g == null || ! g.getSampleName().equals(sampleNames[i]) ) {
+                    // the samples have moved or this one is missing, so look it up by name
+                    g = genotypesContext.get(sampleNames[i]);
+                    if ( g != null && ! relocated ) {
+                        findColumns(genotypesContext);
+                        relocated = true;
+                    }
+                }
+                genotypes[i] = g;
+            }
+
+            return genotypes;
+        }
+
+        private void findColumns(final GenotypesContext genotypesContext) {
+            Arrays.fill(columns, -1);
+            for ( int column = 0; column < genotypesContext.size(); column++ ) {
+                final int sampleIndex = getSampleIndex(genotypesContext.get(column).getSampleName());
+                if ( sampleIndex != -1 )
+                    columns[sampleIndex] = column;
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ package org.broadinstitute.sting.gatk.samples;
 
 import net.sf.samtools.SAMReadGroupRecord;
 import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.exceptions.StingException;
 import org.broadinstitute.variant.variantcontext.Genotype;
 
@@ -42,6 +43,13 @@ public class SampleDB {
      */
     private final HashMap<String, Sample> samples = new HashMap<String, Sample>();
 
+    /**
+     * The pedigree of all of the samples, worked out when first needed and forgotten when a sample is added
+     */
+    private Map<String, Set<Sample>> familiesByID = null;
+    private Set<Trio> allTrios = null;
+    private PedigreeIndex pedigreeIndex = null;
+
     /**
      * Constructor takes both a SAM header and sample files because the two must be integrated.
      */
@@ -59,6 +67,9 @@ public class SampleDB {
         if ( prev != null )
             sample = Sample.mergeSamples(prev, sample);
         samples.put(sample.getID(), sample);
+        familiesByID = null;
+        allTrios = null;
+        pedigreeIndex = null;
         return this;
     }
 
@@ -180,6 +191,12 @@ public class SampleDB {
     public final Map<String, Set<Sample>> getFamilies(Collection<String> sampleIds) {
         final Map<String, Set<Sample>> families = new TreeMap<String, Set<Sample>>();
 
+        if ( sampleIds == null ) {
+            for ( final Map.Entry<String, Set<Sample>> family : getFamiliesByID().entrySet() )
+                families.put(family.getKey(), new TreeSet<Sample>(family.getValue()));
+            return families;
+        }
+
         for ( final Sample sample : samples.values() ) {
             if(sampleIds == null || sampleIds.contains(sample.getID())){
                 final String famID = sample.getFamilyID();
@@ -193,6 +210,45 @@ public class SampleDB {
         return families;
     }
 
+    /**
+     * @return the families of all of the samples, which mustn't be modified
+     */
+    private Map<String, Set<Sample>> getFamiliesByID() {
+        if ( familiesByID == null ) {
+            final Map<String, Set<Sample>> families = new TreeMap<String, Set<Sample>>();
+            for ( final Sample sample : samples.values() ) {
+                final String famID = sample.getFamilyID();
+                if ( famID != null ) {
+                    if ( ! families.containsKey(famID) )
+                        families.put(famID, new TreeSet<Sample>());
+                    families.get(famID).add(sample);
+                }
+            }
+            familiesByID = families;
+        }
+        return familiesByID;
+    }
+
+    /**
+     * Returns an index of the trios of all of the samples, as MendelianViolation.countViolations() examines them
+     * @return the index, which is shared until the next sample is added
+     */
+    public final PedigreeIndex getPedigreeIndex() {
+        if ( pedigreeIndex == null )
+            pedigreeIndex = new PedigreeIndex(getFamiliesByID());
+        return pedigreeIndex;
+    }
+
+    /**
+     * Returns an index of the trios among the families of getFamilies(sampleIds)
+     *
+     * @param sampleIds - all samples to include. If null is passed then all samples are included.
+     * @return a new index
+     */
+    public final PedigreeIndex getPedigreeIndex(Collection<String> sampleIds) {
+        return sampleIds == null ? getPedigreeIndex() : new PedigreeIndex(getFamilies(sampleIds));
+    }
+
     /**
      * Returns all the trios present in the sample database. The strictOneChild parameter determines
      * whether multiple children of the same parents resolve to multiple trios, or are excluded
@@ -200,17 +256,21 @@ public class SampleDB {
      * @return - all of the mother+father=child triplets, subject to strictOneChild
      */
     public final Set<Trio> getTrios(boolean strictOneChild) {
-        Set<Trio> trioSet = new HashSet<Trio>();
-        for ( String familyString : getFamilyIDs() ) {
-            Set<Sample> family = getFamily(familyString);
-            for ( Sample sample : family) {
-                if ( sample.getParents().size() == 2 ) {
-                    Trio trio = new Trio(sample.getMother(),sample.getFather(),sample);
-                    trioSet.add(trio);
+        if ( allTrios == null ) {
+            final Set<Trio> trios = new HashSet<Trio>();
+            for ( Set<Sample> family : getFamiliesByID().values() ) {
+                for ( Sample sample : family) {
+                    if ( sample.getParents().size() == 2 ) {
+                        Trio trio = new Trio(sample.getMother(),sample.getFather(),sample);
+                        trios.add(trio);
+                    }
                 }
             }
+            allTrios = trios;
         }
 
+        Set<Trio> trioSet = new HashSet<Trio>(allTrios);
+
         if ( strictOneChild )
             trioSet = removeTriosWithSameParents(trioSet);
 
@@ -232,20 +292,18 @@ public class SampleDB {
      * @return those subset of Trio objects in the input set with nonmatching founders
      */
     private Set<Trio> removeTriosWithSameParents(final Set<Trio> trios) {
+        final Map<Pair<Sample, Sample>, Integer> nTriosWithParents = new HashMap<Pair<Sample, Sample>, Integer>();
+        for ( Trio trio : trios ) {
+            final Pair<Sample, Sample> parents = new Pair<Sample, Sample>(trio.getMother(), trio.getFather());
+            final Integer count = nTriosWithParents.get(parents);
+            nTriosWithParents.put(parents, count == null ? 1 : count + 1);
+        }
+
         Set<Trio> filteredTrios = new HashSet<Trio>();
-        filteredTrios.addAll(trios);
-        Set<Trio> triosWithSameParents = new HashSet<Trio>();
-        for ( Trio referenceTrio : filteredTrios ) {
-            for ( Trio compareTrio : filteredTrios ) {
-                if ( referenceTrio != compareTrio &&
-                     referenceTrio.getFather().equals(compareTrio.getFather()) &&
-                     referenceTrio.getMother().equals(compareTrio.getMother()) ) {
-                    triosWithSameParents.add(referenceTrio);
-                    triosWithSameParents.add(compareTrio);
-                }
-            }
+        for ( Trio trio : trios ) {
+            if ( nTriosWithParents.get(new Pair<Sample, Sample>(trio.getMother(), trio.getFather())) == 1 )
+                filteredTrios.add(trio);
         }
-        filteredTrios.removeAll(triosWithSameParents);
         return filteredTrios;
     }
 
@@ -281,7 +339,7 @@ public class SampleDB {
     @Deprecated
     public final Set<Sample> getChildrenWithParents(boolean triosOnly) {
 
-        Map<String, Set<Sample>> families = getFamilies();
+        Map<String, Set<Sample>> families = getFamiliesByID();
         final Set<Sample> childrenWithParents = new HashSet<Sample>();
         Iterator<Sample> sampleIterator;
 
@@ -307,18 +365,18 @@ public class SampleDB {
      * @return
      */
     public Set<Sample> getFamily(String familyId) {
-        return getFamilies().get(familyId);
+        final Set<Sample> family = getFamiliesByID().get(familyId);
+        return family == null ? null : new TreeSet<Sample>(family);
     }
 
     /**
      * Returns all children of a given sample
-     * See note on the efficiency of getFamily() - since this depends on getFamily() it's also not efficient
      * @param sample
      * @return
      */
     public Set<Sample> getChildren(Sample sample) {
         final HashSet<Sample> children = new HashSet<Sample>();
-        for ( final Sample familyMember : getFamily(sample.getFamilyID())) {
+        for ( final Sample familyMember : getFamiliesByID().get(sample.getFamilyID())) {
             if ( familyMember.getMother() == sample || familyMember.getFather() == sample ) {
                 children.add(familyMember);
             }
@@ -42,6 +42,7 @@ import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.activeregion.ActiveRegion;
 import org.broadinstitute.sting.utils.activeregion.ActivityProfile;
 import org.broadinstitute.sting.utils.activeregion.ActivityProfileState;
+import org.broadinstitute.sting.utils.activeregion.ArrayBandPassActivityProfile;
 import org.broadinstitute.sting.utils.activeregion.BandPassActivityProfile;
 import org.broadinstitute.sting.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NSProgressFunction;
@@ -159,7 +160,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         final double bandPassSigma = this.walker.bandPassSigma == null ? annotation.bandPassSigma() : this.walker.bandPassSigma;
         walkerHasPresetRegions = this.walker.hasPresetActiveRegions();
 
-        activityProfile = new BandPassActivityProfile(engine.getGenomeLocParser(), engine.getIntervals(), BandPassActivityProfile.MAX_FILTER_SIZE, bandPassSigma);
+        activityProfile = new ArrayBandPassActivityProfile(engine.getGenomeLocParser(), engine.getIntervals(), BandPassActivityProfile.MAX_FILTER_SIZE, bandPassSigma);
 
         final int maxReadsAcrossSamples = annotation.maxReadsToHoldInMemoryPerSample() * SampleUtils.getSAMFileSamples(engine).size();
         final int maxReadsToHoldInMemory = Math.min(maxReadsAcrossSamples, annotation.maxReadsToHoldTotal());
@@ -25,8 +25,7 @@
 
 package org.broadinstitute.sting.gatk.walkers.coverage;
 
-import org.broadinstitute.sting.commandline.Advanced;
-import org.broadinstitute.sting.commandline.Argument;
+import org.broadinstitute.sting.commandline.ArgumentCollection;
 import org.broadinstitute.sting.commandline.Output;
 import org.broadinstitute.sting.gatk.CommandLineGATK;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
@@ -120,6 +119,8 @@ import java.io.PrintStream;
  *           EXCESSIVE_COVERAGE 0
  *         POOR_MAPPING_QUALITY 2906
  * </pre>
+ * <p/>
+ * FastCallableLoci computes the same states without building a pileup at each locus.
  *
  * @author Mark DePristo
  * @since May 7, 2010
@@ -136,65 +137,8 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
     @Output(fullName = "summary", shortName = "summary", doc = "Name of file for output summary", required = true)
     File summaryFile;
 
-    /**
-     * The gap between this value and mmq are reads that are not sufficiently well mapped for calling but
-     * aren't indicative of mapping problems.  For example, if maxLowMAPQ = 1 and mmq = 20, then reads with
-     * MAPQ == 0 are poorly mapped, MAPQ >= 20 are considered as contributing to calling, where
-     * reads with MAPQ >= 1 and < 20 are not bad in and of themselves but aren't sufficiently good to contribute to
-     * calling.  In effect this reads are invisible, driving the base to the NO_ or LOW_COVERAGE states
-     */
-    @Argument(fullName = "maxLowMAPQ", shortName = "mlmq", doc = "Maximum value for MAPQ to be considered a problematic mapped read.", required = false)
-    byte maxLowMAPQ = 1;
-
-    /**
-     * Reads with MAPQ > minMappingQuality are treated as usable for variation detection, contributing to the PASS
-     * state.
-     */
-    @Argument(fullName = "minMappingQuality", shortName = "mmq", doc = "Minimum mapping quality of reads to count towards depth.", required = false)
-    byte minMappingQuality = 10;
-
-    /**
-     * Bases with less than minBaseQuality are viewed as not sufficiently high quality to contribute to the PASS state
-     */
-    @Argument(fullName = "minBaseQuality", shortName = "mbq", doc = "Minimum quality of bases to count towards depth.", required = false)
-    byte minBaseQuality = 20;
-
-    /**
-     * If the number of QC+ bases (on reads with MAPQ > minMappingQuality and with base quality > minBaseQuality) exceeds this
-     * value and is less than maxDepth the site is considered PASS.
-     */
-    @Advanced
-    @Argument(fullName = "minDepth", shortName = "minDepth", doc = "Minimum QC+ read depth before a locus is considered callable", required = false)
-    int minDepth = 4;
-
-    /**
-     * If the QC+ depth exceeds this value the site is considered to have EXCESSIVE_DEPTH
-     */
-    @Argument(fullName = "maxDepth", shortName = "maxDepth", doc = "Maximum read depth before a locus is considered poorly mapped", required = false)
-    int maxDepth = -1;
-
-    /**
-     * We don't want to consider a site as POOR_MAPPING_QUALITY just because it has two reads, and one is MAPQ.  We
-     * won't assign a site to the POOR_MAPPING_QUALITY state unless there are at least minDepthForLowMAPQ reads
-     * covering the site.
-     */
-    @Advanced
-    @Argument(fullName = "minDepthForLowMAPQ", shortName = "mdflmq", doc = "Minimum read depth before a locus is considered a potential candidate for poorly mapped", required = false)
-    int minDepthLowMAPQ = 10;
-
-    /**
-     * If the number of reads at this site is greater than minDepthForLowMAPQ and the fraction of reads with low mapping quality
-     * exceeds this fraction then the site has POOR_MAPPING_QUALITY.
-     */
-    @Argument(fullName = "maxFractionOfReadsWithLowMAPQ", shortName = "frlmq", doc = "If the fraction of reads at a base with low mapping quality exceeds this value, the site may be poorly mapped", required = false)
-    double maxLowMAPQFraction = 0.1;
-
-    /**
-     * The output of this walker will be written in this format.  The recommended option is BED.
-     */
-    @Advanced
-    @Argument(fullName = "format", shortName = "format", doc = "Output format", required = false)
-    OutputFormat outputFormat = OutputFormat.BED;
+    @ArgumentCollection
+    CallableLociArgumentCollection args = new CallableLociArgumentCollection();
 
     public enum OutputFormat {
         /**
@@ -317,26 +261,16 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
                 final int depth = e.getRepresentativeCount();
                 rawDepth += depth;
 
-                if (e.getMappingQual() <= maxLowMAPQ)
+                if (e.getMappingQual() <= args.maxLowMAPQ)
                     lowMAPQDepth += depth;
 
-                if (e.getMappingQual() >= minMappingQuality && (e.getQual() >= minBaseQuality || e.isDeletion())) {
+                if (e.getMappingQual() >= args.minMappingQuality && (e.getQual() >= args.minBaseQuality || e.isDeletion())) {
                     QCDepth += depth;
                 }
             }
 
             //System.out.printf("%s rawdepth = %d QCDepth = %d lowMAPQ = %d%n", context.getLocation(), rawDepth, QCDepth, lowMAPQDepth);
-            if (rawDepth == 0) {
-                state = CalledState.NO_COVERAGE;
-            } else if (rawDepth >= minDepthLowMAPQ && MathUtils.ratio(lowMAPQDepth, rawDepth) >= maxLowMAPQFraction) {
-                state = CalledState.POOR_MAPPING_QUALITY;
-            } else if (QCDepth < minDepth) {
-                state = CalledState.LOW_COVERAGE;
-            } else if (rawDepth >= maxDepth && maxDepth != -1) {
-                state = CalledState.EXCESSIVE_COVERAGE;
-            } else {
-                state = CalledState.CALLABLE;
-            }
+            state = args.callState(rawDepth, QCDepth, lowMAPQDepth);
         }
 
         return new CallableBaseState(getToolkit().getGenomeLocParser(), context.getLocation(), state);
@@ -352,7 +286,7 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
         // update counts
         integrator.counts[state.getState().ordinal()]++;
 
-        if (outputFormat == OutputFormat.STATE_PER_BASE) {
+        if (args.outputFormat == OutputFormat.STATE_PER_BASE) {
             out.println(state.toString());
         }
 
@@ -379,19 +313,29 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
     public void onTraversalDone(Integrator result) {
         // print out the last state
         if (result != null) {
-            if (outputFormat == OutputFormat.BED)  // get the last interval
+            if (args.outputFormat == OutputFormat.BED)  // get the last interval
                 out.println(result.state.toString());
 
-            try {
-                PrintStream summaryOut = new PrintStream(summaryFile);
-                summaryOut.printf("%30s %s%n", "state", "nBases");
-                for (CalledState state : CalledState.values()) {
-                    summaryOut.printf("%30s %d%n", state, result.counts[state.ordinal()]);
-                }
-                summaryOut.close();
-            } catch (FileNotFoundException e) {
-                throw new UserException.CouldNotCreateOutputFile(summaryFile, e);
+            printSummary(summaryFile, result.counts);
+        }
+    }
+
+    /**
+     * Writes the table of the number of bases in each callable state
+     *
+     * @param summaryFile the file to write the table to
+     * @param counts the number of bases in each state, indexed by ordinal
+     */
+    protected static void printSummary(final File summaryFile, final long[] counts) {
+        try {
+            PrintStream summaryOut = new PrintStream(summaryFile);
+            summaryOut.printf("%30s %s%n", "state", "nBases");
+            for (CalledState state : CalledState.values()) {
+                summaryOut.printf("%30s %d%n", state, counts[state.ordinal()]);
             }
+            summaryOut.close();
+        } catch (FileNotFoundException e) {
+            throw new UserException.CouldNotCreateOutputFile(summaryFile, e);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+import org.broadinstitute.sting.utils.MathUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.broadinstitute.sting.utils.sam.ReadUtils;
+
+/**
+ * Computes the depths CallableLoci needs at each locus directly from the alignments of the reads covering it.
+ *
+ * The depths are exactly those CallableLoci counts over the pileup of each locus (reads with deletions at the
+ * locus are included, reference skips and bases inside adaptors are not, and reduced reads count as many reads
+ * as they represent), but instead of building a pileup for each locus every read is added once, as the ranges it
+ * covers.  The depths are held as difference arrays in a ring buffer covering the loci from the first not yet
+ * popped to the end of the furthest read added, so the work done per read is proportional to its number of
+ * cigar elements plus, as the base quality threshold must be applied to each base, its length.
+ *
+ * Reads must be added in coordinate order, and the depths of a locus can only be popped once no more reads
+ * starting at or before it will be added.
+ */
+public class CallableLociDepthWindow {
+    private final static int INITIAL_CAPACITY = 1024;
+
+    private final byte maxLowMAPQ;
+    private final byte minMappingQuality;
+    private final byte minBaseQuality;
+
+    private int contigIndex = -1;
+    private int start = 1;          // the first locus whose depths haven't been popped
+    private int end = 1;            // one past the last locus holding a non-zero difference
+
+    // differences between the depths at each locus and the previous one, indexed by position & mask
+    private int[] rawDepthDiffs = new int[INITIAL_CAPACITY];
+    private int[] QCDepthDiffs = new int[INITIAL_CAPACITY];
+    private int[] lowMAPQDepthDiffs = new int[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+
+    // the depths at start - 1
+    private int rawDepth = 0, QCDepth = 0, lowMAPQDepth = 0;
+
+    public CallableLociDepthWindow(final byte maxLowMAPQ, final byte minMappingQuality, final byte minBaseQuality) {
+        this.maxLowMAPQ = maxLowMAPQ;
+        this.minMappingQuality = minMappingQuality;
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Adds the depths contributed by read
+     *
+     * @param read a mapped read, starting at or after every read added before it
+     */
+    public void addRead(final GATKSAMRecord read) {
+        final int readStart = read.getAlignmentStart();
+        if ( read.getReferenceIndex() != contigIndex ) {
+            if ( read.getReferenceIndex() < contigIndex )
+                throw new ReviewedStingException("Reads must be added in coordinate order, but " + read.getReadName() + " is on an earlier contig than the last read");
+            // anything left from the previous contig can never be popped, so just drop it
+            clear();
+            contigIndex = read.getReferenceIndex();
+            start = end = readStart;
+        } else if ( readStart < start ) {
+            throw new ReviewedStingException("Reads must be added in coordinate order, and before the depths of the loci they cover are popped, but " + read.getReadName() + " starts at " + readStart + " before " + start);
+        }
+
+        ensureCapacity(read.getAlignmentEnd() + 2);
+
+        // the loci of the read outside any adaptor, as in LocusIteratorByState
+        int firstLocus = readStart, lastLocus = read.getAlignmentEnd();
+        final int adaptorBoundary = read.getAdaptorBoundary();
+        if ( adaptorBoundary != ReadUtils.CANNOT_COMPUTE_ADAPTOR_BOUNDARY && ReadUtils.isBaseInsideAdaptor(read, adaptorBoundary) ) {
+            if ( read.getReadNegativeStrandFlag() )
+                firstLocus = Math.max(firstLocus, adaptorBoundary + 1);
+            else
+                lastLocus = Math.min(lastLocus, adaptorBoundary - 1);
+        }
+
+        final int mappingQuality = read.getMappingQuality();
+        final boolean isLowMAPQ = mappingQuality <= maxLowMAPQ;
+        final boolean isQCMAPQ = mappingQuality >= minMappingQuality;
+        final boolean isReduced = read.isReducedRead();
+        final byte[] quals = read.getBaseQualities();
+
+        int locus = readStart;
+        int readOffset = 0;
+        final int nElements = read.getCigar().numCigarElements();
+        for ( int i = 0; i < nElements; i++ ) {
+            final CigarElement element = read.getCigar().getCigarElement(i);
+            final int length = element.getLength();
+            switch ( element.getOperator() ) {
+                case H:
+                case P:
+                    break;
+                case I:
+                case S:
+                    readOffset += length;
+                    break;
+                case N:
+                    locus += length;
+                    break;
+                case D:
+                    if ( readOffset == 0 )
+                        throw new UserException.MalformedBAM(read, "read starts with deletion. Cigar: " + read.getCigarString() + ". Although the SAM spec technically permits such reads, this is often indicative of malformed files. If you are sure you want to use this file, re-run your analysis with the extra option: -rf BadCigar");
+                    if ( i == nElements - 1 )
+                        throw new UserException.MalformedBAM(read, "read ends with deletion. Cigar: " + read.getCigarString() + ". Although the SAM spec technically permits such reads, this is often indicative of malformed files. If you are sure you want to use this file, re-run your analysis with the extra option: -rf BadCigar");
+                    addDeletion(read, isReduced, readOffset, Math.max(locus, firstLocus), Math.min(locus + length - 1, lastLocus), isLowMAPQ, isQCMAPQ);
+                    locus += length;
+                    break;
+                case M:
+                case EQ:
+                case X:
+                    addAlignedBases(read, isReduced, quals, readOffset, locus, length, firstLocus, lastLocus, isLowMAPQ, isQCMAPQ);
+                    readOffset += length;
+                    locus += length;
+                    break;
+                default:
+                    throw new IllegalStateException("Case statement didn't deal with cigar op: " + element.getOperator());
+            }
+        }
+    }
+
+    private void addAlignedBases(final GATKSAMRecord read, final boolean isReduced, final byte[] quals, final int readOffset,
+                                 final int firstElementLocus, final int length, final int firstLocus, final int lastLocus,
+                                 final boolean isLowMAPQ, final boolean isQCMAPQ) {
+        final int from = Math.max(firstElementLocus, firstLocus);
+        final int to = Math.min(firstElementLocus + length - 1, lastLocus);
+        if ( from > to )
+            return;
+
+        if ( ! isReduced ) {
+            addToRange(rawDepthDiffs, from, to, 1);
+            if ( isLowMAPQ ) addToRange(lowMAPQDepthDiffs, from, to, 1);
+        }
+
+        if ( isReduced || isQCMAPQ ) {
+            for ( int locus = from; locus <= to; locus++ ) {
+                final int offset = readOffset + locus - firstElementLocus;
+                final int count = isReduced ? read.getReducedCount(offset) : 1;
+                if ( isReduced ) {
+                    addToRange(rawDepthDiffs, locus, locus, count);
+                    if ( isLowMAPQ ) addToRange(lowMAPQDepthDiffs, locus, locus, count);
+                }
+                if ( isQCMAPQ && quals[offset] >= minBaseQuality )
+                    addToRange(QCDepthDiffs, locus, locus, count);
+            }
+        }
+    }
+
+    private void addDeletion(final GATKSAMRecord read, final boolean isReduced, final int readOffset, final int from, final int to,
+                             final boolean isLowMAPQ, final boolean isQCMAPQ) {
+        if ( from > to )
+            return;
+
+        // the pileup counts a deleted base of a reduced read as the mean of the counts of the bases either side of it
+        final int count = isReduced ? MathUtils.fastRound((read.getReducedCount(readOffset - 1) + read.getReducedCount(readOffset)) / 2.0) : 1;
+        addToRange(rawDepthDiffs, from, to, count);
+        if ( isLowMAPQ ) addToRange(lowMAPQDepthDiffs, from, to, count);
+        if ( isQCMAPQ ) addToRange(QCDepthDiffs, from, to, count); // deletions pass the base quality threshold
+    }
+
+    private void addToRange(final int[] diffs, final int from, final int to, final int count) {
+        diffs[from & mask] += count;
+        diffs[(to + 1) & mask] -= count;
+        if ( to + 2 > end ) end = to + 2;
+    }
+
+    /**
+     * Computes the depths of the loci [firstLocus, firstLocus + nLoci) of contig, and forgets those of every locus
+     * before firstLocus + nLoci.  Loci must be popped in increasing order.
+     *
+     * @param contigIndex the contig of the loci
+     * @param firstLocus the first locus to pop
+     * @param nLoci the number of loci to pop
+     * @param rawDepths will hold the number of bases (and deletions) at each locus, of at least nLoci elements
+     * @param QCDepths will hold the number of those passing the mapping and base quality thresholds
+     * @param lowMAPQDepths will hold the number of those on reads with problematically low mapping quality
+     */
+    public void popDepths(final int contigIndex, final int firstLocus, final int nLoci, final int[] rawDepths, final int[] QCDepths, final int[] lowMAPQDepths) {
+        if ( contigIndex != this.contigIndex ) {
+            // we haven't seen any reads on contigIndex yet
+            if ( contigIndex < this.contigIndex )
+                throw new ReviewedStingException("Loci must be popped in coordinate order, but contig " + contigIndex + " is before " + this.contigIndex);
+            fillZeros(rawDepths, QCDepths, lowMAPQDepths, 0, nLoci);
+            return;
+        }
+        if ( firstLocus < start )
+            throw new ReviewedStingException("Loci must be popped in coordinate order, but " + firstLocus + " is before " + start);
+
+        skipTo(firstLocus);
+
+        final int n = Math.max(0, Math.min(nLoci, end - start));
+        for ( int i = 0; i < n; i++ ) {
+            final int index = (start + i) & mask;
+            rawDepth += rawDepthDiffs[index];
+            QCDepth += QCDepthDiffs[index];
+            lowMAPQDepth += lowMAPQDepthDiffs[index];
+            rawDepthDiffs[index] = QCDepthDiffs[index] = lowMAPQDepthDiffs[index] = 0;
+            rawDepths[i] = rawDepth;
+            QCDepths[i] = QCDepth;
+            lowMAPQDepths[i] = lowMAPQDepth;
+        }
+        fillZeros(rawDepths, QCDepths, lowMAPQDepths, n, nLoci); // beyond the end of every read
+
+        start += n;
+        skipTo(firstLocus + nLoci);
+    }
+
+    /**
+     * Forgets the depths of every locus before locus
+     */
+    private void skipTo(final int locus) {
+        if ( locus >= end ) {
+            clear();
+            start = end = locus;
+        } else {
+            for ( ; start < locus; start++ ) {
+                final int index = start & mask;
+                rawDepth += rawDepthDiffs[index];
+                QCDepth += QCDepthDiffs[index];
+                lowMAPQDepth += lowMAPQDepthDiffs[index];
+                rawDepthDiffs[index] = QCDepthDiffs[index] = lowMAPQDepthDiffs[index] = 0;
+            }
+        }
+    }
+
+    private static void fillZeros(final int[] rawDepths, final int[] QCDepths, final int[] lowMAPQDepths, final int from, final int to) {
+        for ( int i = from; i < to; i++ )
+            rawDepths[i] = QCDepths[i] = lowMAPQDepths[i] = 0;
+    }
+
+    /**
+     * Zeroes all of the differences and depths, leaving the window empty
+     */
+    private void clear() {
+        for ( int locus = start; locus < end; locus++ ) {
+            final int index = locus & mask;
+            rawDepthDiffs[index] = QCDepthDiffs[index] = lowMAPQDepthDiffs[index] = 0;
+        }
+        rawDepth = QCDepth = lowMAPQDepth = 0;
+    }
+
+    /**
+     * Grows the ring buffer, if needed, so it can hold differences for every locus in [start, newEnd)
+     */
+    private void ensureCapacity(final int newEnd) {
+        final int capacity = mask + 1;
+        if ( newEnd - start <= capacity )
+            return;
+
+        int newCapacity = capacity;
+        while ( newEnd - start > newCapacity ) newCapacity *= 2;
+        final int newMask = newCapacity - 1;
+        rawDepthDiffs = relayout(rawDepthDiffs, newCapacity, newMask);
+        QCDepthDiffs = relayout(QCDepthDiffs, newCapacity, newMask);
+        lowMAPQDepthDiffs = relayout(lowMAPQDepthDiffs, newCapacity, newMask);
+        mask = newMask;
+    }
+
+    private int[] relayout(final int[] diffs, final int newCapacity, final int newMask) {
+        final int[] newDiffs = new int[newCapacity];
+        for ( int locus = start; locus < end; locus++ )
+            newDiffs[locus & newMask] = diffs[locus & mask];
+        return newDiffs;
+    }
+}
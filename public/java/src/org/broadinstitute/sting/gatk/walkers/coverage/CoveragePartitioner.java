@@ -0,0 +1,172 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.SAMReadGroupRecord;
+
+import java.util.*;
+
+/**
+ * Accumulates coverage statistics for each of the partitions of the reads (by sample, by read group, etc)
+ *
+ * The identifiers of each partition are given dense indices by its DepthOfCoverageStats, and the read groups
+ * are mapped to those indices up front, so the counts of each locus are added up by partition in reusable
+ * arrays, without building maps keyed by the identifiers.
+ */
+class CoveragePartitioner {
+    private Collection<DoCOutputType.Partition> types;
+    private Map<DoCOutputType.Partition,DepthOfCoverageStats> coverageProfiles;
+    private Map<DoCOutputType.Partition,List<String>> identifiersByType;
+    private Set<String> allIdentifiers;
+
+    // for each partition type, the index of the identifier of each read group in its DepthOfCoverageStats, or -1 if there is none
+    private Map<DoCOutputType.Partition,int[]> identifierIndexByReadGroup;
+    // for each partition type, the indices of its identifiers in the sorted order of identifiersByType
+    private Map<DoCOutputType.Partition,int[]> sortedIdentifierIndices;
+    // for each partition type, the base counts of each identifier at the last locus, by index
+    private Map<DoCOutputType.Partition,int[][]> locusCountsByType;
+
+    public CoveragePartitioner(Collection<DoCOutputType.Partition> typesToUse, int start, int stop, int nBins) {
+        coverageProfiles = new HashMap<DoCOutputType.Partition,DepthOfCoverageStats>();
+        identifiersByType = new HashMap<DoCOutputType.Partition,List<String>>();
+        types = typesToUse;
+        for ( DoCOutputType.Partition type : types ) {
+            coverageProfiles.put(type,new DepthOfCoverageStats(DepthOfCoverageStats.calculateBinEndpoints(start,stop,nBins)));
+            identifiersByType.put(type,new ArrayList<String>());
+        }
+        allIdentifiers = new HashSet<String>();
+    }
+
+    public void merge(CoveragePartitioner otherAggregator) {
+        for ( DoCOutputType.Partition type : types ) {
+            this.coverageProfiles.get(type).merge(otherAggregator.coverageProfiles.get(type));
+        }
+    }
+
+    /**
+     * Forget all of the loci seen so far, so this partitioner can be reused
+     */
+    public void reset() {
+        for ( DoCOutputType.Partition type : types ) {
+            this.coverageProfiles.get(type).reset();
+        }
+    }
+
+    public DepthOfCoverageStats getCoverageByAggregationType(DoCOutputType.Partition t) {
+        return coverageProfiles.get(t);
+    }
+
+    public void addIdentifiers(DoCOutputType.Partition t, Set<String> ids) {
+        for ( String s : ids ) {
+            coverageProfiles.get(t).addSample(s);
+            identifiersByType.get(t).add(s);
+            allIdentifiers.add(s);
+        }
+        Collections.sort(identifiersByType.get(t));
+    }
+
+    public void initialize(boolean useDels, boolean omitLocusTable) {
+        for ( DoCOutputType.Partition t : types ) {
+            if ( useDels ) {
+                coverageProfiles.get(t).initializeDeletions();
+            }
+            if ( ! omitLocusTable ) {
+                coverageProfiles.get(t).initializeLocusCounts();
+            }
+        }
+    }
+
+    /**
+     * Prepares this partitioner to accept ReadGroupBaseCounts; must be called after all of the identifiers are added
+     *
+     * @param readGroups the read groups being counted, in order of their indices
+     */
+    public void initializeReadGroups(List<SAMReadGroupRecord> readGroups) {
+        identifierIndexByReadGroup = new HashMap<DoCOutputType.Partition,int[]>();
+        sortedIdentifierIndices = new HashMap<DoCOutputType.Partition,int[]>();
+        locusCountsByType = new HashMap<DoCOutputType.Partition,int[][]>();
+
+        for ( DoCOutputType.Partition t : types ) {
+            DepthOfCoverageStats stats = coverageProfiles.get(t);
+
+            int[] indexByReadGroup = new int[readGroups.size()];
+            for ( int rg = 0; rg < readGroups.size(); rg++ ) {
+                indexByReadGroup[rg] = stats.getSampleIndex(CoverageUtils.getTypeID(readGroups.get(rg),t));
+            }
+            identifierIndexByReadGroup.put(t,indexByReadGroup);
+
+            List<String> identifiers = identifiersByType.get(t);
+            int[] sortedIndices = new int[identifiers.size()];
+            for ( int i = 0; i < identifiers.size(); i++ ) {
+                sortedIndices[i] = stats.getSampleIndex(identifiers.get(i));
+            }
+            sortedIdentifierIndices.put(t,sortedIndices);
+
+            locusCountsByType.put(t,new int[stats.getNumberOfSamples()][6]);
+        }
+    }
+
+    public void update(ReadGroupBaseCounts countsByReadGroup) {
+        for ( DoCOutputType.Partition t : types ) {
+            int[][] countsByIndex = locusCountsByType.get(t);
+            for ( int[] counts : countsByIndex ) {
+                Arrays.fill(counts,0);
+            }
+
+            int[] indexByReadGroup = identifierIndexByReadGroup.get(t);
+            for ( int i = 0; i < countsByReadGroup.size(); i++ ) {
+                int index = indexByReadGroup[countsByReadGroup.getReadGroupIndex(i)];
+                if ( index != -1 ) {
+                    CoverageUtils.addCounts(countsByIndex[index],countsByReadGroup.getCounts(i));
+                }
+            }
+
+            coverageProfiles.get(t).update(countsByIndex);
+        }
+    }
+
+    /**
+     * @return the base counts of each identifier of type t at the last locus passed to update(), by the identifier's index
+     */
+    public int[][] getLocusCountsByType(DoCOutputType.Partition t) {
+        return locusCountsByType.get(t);
+    }
+
+    /**
+     * @return the indices of the identifiers of type t, in the (sorted) order of getIdentifiersByType()
+     */
+    public int[] getSortedIdentifierIndices(DoCOutputType.Partition t) {
+        return sortedIdentifierIndices.get(t);
+    }
+
+    public Set<String> getAllIdentifiers() {
+        return allIdentifiers;
+    }
+
+    public Map<DoCOutputType.Partition,List<String>> getIdentifiersByType() {
+        return identifiersByType;
+    }
+}
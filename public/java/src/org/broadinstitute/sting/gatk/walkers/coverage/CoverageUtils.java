@@ -137,6 +137,22 @@ public class CoverageUtils {
     public static Map<SAMReadGroupRecord,int[]> getBaseCountsByReadGroup(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType) {
         Map<SAMReadGroupRecord, int[]> countsByRG = new HashMap<SAMReadGroupRecord,int[]>();
 
+        for (PileupElement e : getCountedPileup(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType)) {
+            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
+            if (!countsByRG.keySet().contains(readGroup))
+                countsByRG.put(readGroup, new int[6]);
+
+            updateCounts(countsByRG.get(readGroup), e);
+        }
+
+        return countsByRG;
+    }
+
+    /**
+     * Returns the elements of the pileup in context that should be counted towards coverage, given the filters
+     * and the treatment of overlapping fragments in countType
+     */
+    static List<PileupElement> getCountedPileup(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType) {
         List<PileupElement> countPileup = new LinkedList<PileupElement>();
         FragmentCollection<PileupElement> fpile;
 
@@ -200,22 +216,14 @@ public class CoverageUtils {
                 throw new UserException("Must use valid CountPileupType");
         }
 
-        for (PileupElement e : countPileup) {
-            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
-            if (!countsByRG.keySet().contains(readGroup))
-                countsByRG.put(readGroup, new int[6]);
-
-            updateCounts(countsByRG.get(readGroup), e);
-        }
-
-        return countsByRG;
+        return countPileup;
     }
 
-    private static boolean countElement(PileupElement e, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ) {
+    static boolean countElement(PileupElement e, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ) {
         return (e.getMappingQual() >= minMapQ && e.getMappingQual() <= maxMapQ && ( e.getQual() >= minBaseQ && e.getQual() <= maxBaseQ || e.isDeletion() ));
     }
 
-    private static void updateCounts(int[] counts, PileupElement e) {
+    static void updateCounts(int[] counts, PileupElement e) {
         if ( e.isDeletion() ) {
             counts[BaseUtils.Base.D.ordinal()] += e.getRepresentativeCount();
         } else if ( BaseUtils.basesAreEqual(BaseUtils.Base.N.base, e.getBase()) ) {
@@ -229,7 +237,7 @@ public class CoverageUtils {
         }
     }
 
-    private static SAMReadGroupRecord getReadGroup(SAMRecord r) {
+    static SAMReadGroupRecord getReadGroup(SAMRecord r) {
         SAMReadGroupRecord rg = r.getReadGroup();
         if ( rg == null ) {
             String msg = "Read "+r.getReadName()+" lacks read group information; Please associate all reads with read groups";
@@ -121,7 +121,7 @@ import java.util.*;
 @By(DataSource.REFERENCE)
 @PartitionBy(PartitionType.NONE)
 @Downsample(by= DownsampleType.NONE, toCoverage=Integer.MAX_VALUE)
-public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map<String,int[]>>, CoveragePartitioner> implements TreeReducible<CoveragePartitioner> {
+public class DepthOfCoverage extends LocusWalker<ReadGroupBaseCounts, CoveragePartitioner> implements TreeReducible<CoveragePartitioner> {
     @Output
     @Multiplex(value=DoCOutputMultiplexer.class,arguments={"partitionTypes","refSeqGeneList","omitDepthOutput","omitIntervals","omitSampleSummary","omitLocusTable"})
     Map<DoCOutputType,PrintStream> out;
@@ -228,6 +228,17 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     @Advanced
     @Argument(fullName = "ignoreDeletionSites", doc = "Ignore sites consisting only of deletions", required = false)
     boolean ignoreDeletionSites = false;
+
+    /**
+     * Write out the statistics of each interval as soon as the traversal has passed its end, rather than holding the
+     * coverage of every interval in memory until the end of the run, so that memory use no longer grows with the
+     * number of intervals.  The interval outputs are unchanged.  When summarizing coverage over genes, each run of
+     * consecutive targets in the same gene is summarized as soon as it ends, and all targets in no gene are
+     * summarized together at the end.  Cannot be used with multiple data threads.
+     */
+    @Advanced
+    @Argument(fullName = "streamIntervalSummaries", shortName = "streamIntervals", doc = "Write the statistics of each interval as soon as it has been traversed, using memory independent of the number of intervals", required = false)
+    boolean streamIntervalSummaries = false;
     
     /**
      * A coverage threshold for summarizing (e.g. % bases >= CT for each sample)
@@ -239,6 +250,17 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     String[] OUTPUT_FORMATS = {"table","rtable","csv"};
     String separator = "\t";
     Map<DoCOutputType.Partition,List<String>> orderCheck = new HashMap<DoCOutputType.Partition,List<String>>();
+    ReadGroupCoverageCounter coverageCounter;
+
+    // state of the interval statistics when streaming them (see streamIntervalSummaries)
+    private Iterator<GenomeLoc> intervalsToStream = null;
+    private GenomeLoc currentInterval = null;
+    private CoveragePartitioner currentIntervalCoverage = null;
+    private Map<DoCOutputType.Partition,int[][]> nTargetsByAvgCvgBySampleByType = null;
+    private LocationAwareSeekableRODIterator streamingRefseqIterator = null;
+    private String currentGene = null;
+    private DepthOfCoverageStats currentGeneStats = null;
+    private DepthOfCoverageStats unknownGeneStats = null;
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STANDARD WALKER METHODS
@@ -300,6 +322,8 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             logger.info("Per-Locus Depth of Coverage output was omitted");
         }
 
+        coverageCounter = new ReadGroupCoverageCounter(getToolkit().getSAMFileHeader().getReadGroups(),minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType);
+
         for (DoCOutputType.Partition type : partitionTypes ) {
             orderCheck.put(type,new ArrayList<String>());
             for ( String id : getSamplesFromToolKit(type) ) {
@@ -307,6 +331,23 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             }
             Collections.sort(orderCheck.get(type));
         }
+
+        if ( streamIntervalSummaries && ! omitIntervals ) {
+            initializeIntervalStreaming();
+        }
+    }
+
+    private void initializeIntervalStreaming() {
+        if ( getToolkit().getArguments().numberOfDataThreads > 1 ) {
+            throw new UserException.BadArgumentValue("streamIntervalSummaries", "interval summaries can only be streamed with a single data thread");
+        }
+        if ( getToolkit().getIntervals() == null ) {
+            throw new UserException.CommandLineException("Cannot reduce by interval without interval list provided. Please provide a -L argument.");
+        }
+
+        intervalsToStream = getToolkit().getIntervals().iterator();
+        currentInterval = intervalsToStream.hasNext() ? intervalsToStream.next() : null;
+        currentIntervalCoverage = reduceInit();
     }
 
     private HashSet<String> getSamplesFromToolKit( Collection<DoCOutputType.Partition> types ) {
@@ -358,7 +399,7 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     }
 
     public boolean isReduceByInterval() {
-        return ( ! omitIntervals );
+        return ( ! omitIntervals && ! streamIntervalSummaries );
     }
 
     public CoveragePartitioner reduceInit() {
@@ -367,33 +408,36 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             aggro.addIdentifiers(t,getSamplesFromToolKit(t));
         }
         aggro.initialize(includeDeletions,omitLocusTable);
+        aggro.initializeReadGroups(coverageCounter.getReadGroups());
         checkOrder(aggro);
         return aggro;
     }
 
-    public Map<DoCOutputType.Partition,Map<String,int[]>> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public ReadGroupBaseCounts map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if (includeRefNBases || BaseUtils.isRegularBase(ref.getBase())) {
             if ( ! omitDepthOutput ) {
                 getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary).printf("%s",ref.getLocus()); // yes: print locus in map, and the rest of the info in reduce (for eventual cumulatives)
                 //System.out.printf("\t[log]\t%s",ref.getLocus());
             }
 
-            return CoverageUtils.getBaseCountsByPartition(context,minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType,partitionTypes);
+            return coverageCounter.countBases(context);
         } else {
             return null;
         }
     }
 
-    public CoveragePartitioner reduce(Map<DoCOutputType.Partition,Map<String,int[]>> thisMap, CoveragePartitioner prevReduce) {
+    public CoveragePartitioner reduce(ReadGroupBaseCounts thisMap, CoveragePartitioner prevReduce) {
         if ( thisMap != null ) { // skip sites we didn't want to include in the calculation (ref Ns)
+            // when streaming, loci accumulate in their interval, which is merged into prevReduce once it has been written out
+            CoveragePartitioner locusCoverage = intervalsToStream == null ? prevReduce : getStreamingIntervalCoverage(thisMap.getLocation(),prevReduce);
+            locusCoverage.update(thisMap); // tabulates the counts of this locus by partition, which printDepths() reads back
+
             if ( ! omitDepthOutput ) {
                 //checkOrder(prevReduce); // tests prevReduce.getIdentifiersByType().get(t) against the initialized header order
-                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),thisMap,prevReduce.getIdentifiersByType());
-                // this is an additional iteration through thisMap, plus dealing with IO, so should be much slower without
+                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),locusCoverage);
+                // this is an additional iteration through the counts, plus dealing with IO, so should be much slower without
                 // turning on omit
             }
-
-            prevReduce.update(thisMap); // note that in "useBoth" cases, this method alters the thisMap object
         }
 
         return prevReduce;
@@ -446,14 +490,32 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         CoveragePartitioner firstAggregator = firstPair.second;
         DepthOfCoverageStats firstStats = firstAggregator.getCoverageByAggregationType(type);
 
+        summaryOut.printf("%s%n",getSummaryHeader("Target",firstStats));
+
+        int[][] nTargetsByAvgCvgBySample = new int[firstStats.getHistograms().size()][firstStats.getEndpoints().length+1];
+
+        for ( Pair<GenomeLoc, CoveragePartitioner> targetAggregator : statsByInterval ) {
+
+            Pair<GenomeLoc,DepthOfCoverageStats> targetStats = new Pair<GenomeLoc,DepthOfCoverageStats>(
+                    targetAggregator.first, targetAggregator.second.getCoverageByAggregationType(type));
+            printTargetSummary(summaryOut,targetStats);
+            updateTargetTable(nTargetsByAvgCvgBySample,targetStats.second);
+        }
+
+        printIntervalTable(statsOut,nTargetsByAvgCvgBySample,firstStats.getEndpoints());
+
+        return firstStats;
+    }
+
+    private String getSummaryHeader(String targetColumn, DepthOfCoverageStats stats) {
         StringBuilder summaryHeader = new StringBuilder();
-        summaryHeader.append("Target");
+        summaryHeader.append(targetColumn);
         summaryHeader.append(separator);
         summaryHeader.append("total_coverage");
         summaryHeader.append(separator);
         summaryHeader.append("average_coverage");
 
-        for ( String s : firstStats.getAllSamples() ) {
+        for ( String s : stats.getAllSamples() ) {
             summaryHeader.append(separator);
             summaryHeader.append(s);
             summaryHeader.append("_total_cvg");
@@ -477,21 +539,7 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             }
         }
 
-        summaryOut.printf("%s%n",summaryHeader);
-
-        int[][] nTargetsByAvgCvgBySample = new int[firstStats.getHistograms().size()][firstStats.getEndpoints().length+1];
-
-        for ( Pair<GenomeLoc, CoveragePartitioner> targetAggregator : statsByInterval ) {
-
-            Pair<GenomeLoc,DepthOfCoverageStats> targetStats = new Pair<GenomeLoc,DepthOfCoverageStats>(
-                    targetAggregator.first, targetAggregator.second.getCoverageByAggregationType(type));
-            printTargetSummary(summaryOut,targetStats);
-            updateTargetTable(nTargetsByAvgCvgBySample,targetStats.second);
-        }
-
-        printIntervalTable(statsOut,nTargetsByAvgCvgBySample,firstStats.getEndpoints());
-
-        return firstStats;
+        return summaryHeader.toString();
     }
 
     private void printGeneStats(List<Pair<GenomeLoc, CoveragePartitioner>> statsByTarget) {
@@ -515,38 +563,7 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         }
 
         PrintStream geneSummaryOut = getCorrectStream(DoCOutputType.Partition.sample, DoCOutputType.Aggregation.gene, DoCOutputType.FileType.summary);
-        StringBuilder summaryHeader = new StringBuilder();
-        summaryHeader.append("Gene");
-        summaryHeader.append(separator);
-        summaryHeader.append("total_coverage");
-        summaryHeader.append(separator);
-        summaryHeader.append("average_coverage");
-
-        for ( String s : statsByTarget.get(0).second.getCoverageByAggregationType(DoCOutputType.Partition.sample).getAllSamples() ) {
-            summaryHeader.append(separator);
-            summaryHeader.append(s);
-            summaryHeader.append("_total_cvg");
-            summaryHeader.append(separator);
-            summaryHeader.append(s);
-            summaryHeader.append("_mean_cvg");
-            summaryHeader.append(separator);
-            summaryHeader.append(s);
-            summaryHeader.append("_granular_Q1");
-            summaryHeader.append(separator);
-            summaryHeader.append(s);
-            summaryHeader.append("_granular_median");
-            summaryHeader.append(separator);
-            summaryHeader.append(s);
-            summaryHeader.append("_granular_Q3");
-            for ( int thresh : coverageThresholds ) {
-                summaryHeader.append(separator);
-                summaryHeader.append(s);
-                summaryHeader.append("_%_above_");
-                summaryHeader.append(thresh);
-            }
-        }
-
-        geneSummaryOut.printf("%s%n",summaryHeader);
+        geneSummaryOut.printf("%s%n",getSummaryHeader("Gene",statsByTarget.get(0).second.getCoverageByAggregationType(DoCOutputType.Partition.sample)));
 
         for ( Pair<String,DepthOfCoverageStats> geneStats : statsByGene ) {
             printTargetSummary(geneSummaryOut,geneStats);
@@ -678,11 +695,119 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         }
     }
 
+    ////////////////////////////////////////////////////////////////////////////////////
+    // STREAMING INTERVAL STATISTICS
+    ////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes out the statistics of every interval ending before locus, and returns the coverage of the interval
+     * containing it.  Loci arrive in order, so no later locus can fall in an interval we've written out.
+     *
+     * @param locus the next locus to be counted
+     * @param totalCoverage the coverage over all intervals, into which each interval is merged once it's written
+     * @return the coverage of the interval containing locus
+     */
+    private CoveragePartitioner getStreamingIntervalCoverage(GenomeLoc locus, CoveragePartitioner totalCoverage) {
+        while ( currentInterval != null && currentInterval.isBefore(locus) ) {
+            finishStreamingInterval(totalCoverage);
+        }
+
+        if ( currentInterval == null || ! currentInterval.containsP(locus) ) {
+            throw new ReviewedStingException("Locus "+locus+" is not in the interval being traversed, "+currentInterval);
+        }
+
+        return currentIntervalCoverage;
+    }
+
+    private void finishStreamingInterval(CoveragePartitioner totalCoverage) {
+        if ( nTargetsByAvgCvgBySampleByType == null ) {
+            nTargetsByAvgCvgBySampleByType = new HashMap<DoCOutputType.Partition,int[][]>();
+            for ( DoCOutputType.Partition partition : partitionTypes ) {
+                DepthOfCoverageStats firstStats = currentIntervalCoverage.getCoverageByAggregationType(partition);
+                if ( ! checkType(firstStats,partition) ) {
+                    throw new ReviewedStingException("Partition type "+partition.toString()+" had no entries. Please check that your .bam header has all appropriate partition types.");
+                }
+                getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.summary).printf("%s%n",getSummaryHeader("Target",firstStats));
+                nTargetsByAvgCvgBySampleByType.put(partition,new int[firstStats.getHistograms().size()][firstStats.getEndpoints().length+1]);
+            }
+        }
+
+        if ( refSeqGeneList != null && partitionTypes.contains(DoCOutputType.Partition.sample) ) {
+            addToStreamingGeneStats(currentInterval,currentIntervalCoverage.getCoverageByAggregationType(DoCOutputType.Partition.sample));
+        }
+
+        for ( DoCOutputType.Partition partition : partitionTypes ) {
+            DepthOfCoverageStats stats = currentIntervalCoverage.getCoverageByAggregationType(partition);
+            printTargetSummary(getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.summary),new Pair<GenomeLoc,DepthOfCoverageStats>(currentInterval,stats));
+            updateTargetTable(nTargetsByAvgCvgBySampleByType.get(partition),stats);
+        }
+
+        totalCoverage.merge(currentIntervalCoverage);
+        currentIntervalCoverage.reset();
+        currentInterval = intervalsToStream.hasNext() ? intervalsToStream.next() : null;
+    }
+
+    private void addToStreamingGeneStats(GenomeLoc target, DepthOfCoverageStats targetStats) {
+        PrintStream geneSummaryOut = getCorrectStream(DoCOutputType.Partition.sample, DoCOutputType.Aggregation.gene, DoCOutputType.FileType.summary);
+        if ( streamingRefseqIterator == null ) {
+            streamingRefseqIterator = initializeRefSeq();
+            geneSummaryOut.printf("%s%n",getSummaryHeader("Gene",targetStats));
+        }
+
+        String gene = getGeneName(target,streamingRefseqIterator);
+        if ( gene.equals("UNKNOWN") ) {
+            // targets in no gene are summarized together, at the end
+            if ( unknownGeneStats == null ) {
+                unknownGeneStats = new DepthOfCoverageStats(targetStats);
+            } else {
+                unknownGeneStats.merge(targetStats);
+            }
+        } else if ( gene.equals(currentGene) ) {
+            currentGeneStats.merge(targetStats);
+        } else {
+            if ( currentGene != null ) {
+                printTargetSummary(geneSummaryOut,new Pair<String,DepthOfCoverageStats>(currentGene,currentGeneStats));
+            }
+            currentGene = gene;
+            currentGeneStats = new DepthOfCoverageStats(targetStats);
+        }
+    }
+
+    private void finishIntervalStreaming(CoveragePartitioner totalCoverage) {
+        while ( currentInterval != null ) {
+            finishStreamingInterval(totalCoverage); // including any intervals after the last locus we counted
+        }
+
+        if ( nTargetsByAvgCvgBySampleByType == null ) {
+            throw new UserException.CommandLineException("Cannot reduce by interval without interval list provided. Please provide a -L argument.");
+        }
+
+        if ( streamingRefseqIterator != null ) {
+            PrintStream geneSummaryOut = getCorrectStream(DoCOutputType.Partition.sample, DoCOutputType.Aggregation.gene, DoCOutputType.FileType.summary);
+            if ( currentGene != null ) {
+                printTargetSummary(geneSummaryOut,new Pair<String,DepthOfCoverageStats>(currentGene,currentGeneStats));
+            }
+            if ( unknownGeneStats != null ) {
+                printTargetSummary(geneSummaryOut,new Pair<String,DepthOfCoverageStats>("UNKNOWN",unknownGeneStats));
+            }
+        }
+
+        for ( DoCOutputType.Partition partition : partitionTypes ) {
+            printIntervalTable(getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.statistics),
+                    nTargetsByAvgCvgBySampleByType.get(partition),
+                    currentIntervalCoverage.getCoverageByAggregationType(partition).getEndpoints());
+        }
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////
     // FINAL ON TRAVERSAL DONE
     ////////////////////////////////////////////////////////////////////////////////////
 
     public void onTraversalDone(CoveragePartitioner coverageProfiles) {
+        if ( intervalsToStream != null ) {
+            finishIntervalStreaming(coverageProfiles);
+        }
+
         ///////////////////
         // OPTIONAL OUTPUTS
         //////////////////
@@ -873,20 +998,21 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         return 100*( (double) above )/( above + below );
     }
 
-    private void printDepths(PrintStream stream, Map<DoCOutputType.Partition,Map<String,int[]>> countsBySampleByType, Map<DoCOutputType.Partition,List<String>> identifiersByType) {
+    private void printDepths(PrintStream stream, CoveragePartitioner partitioner) {
         // get the depths per sample and build up the output string while tabulating total and average coverage
+        Map<DoCOutputType.Partition,List<String>> identifiersByType = partitioner.getIdentifiersByType();
         StringBuilder perSampleOutput = new StringBuilder();
         int tDepth = 0;
         boolean depthCounted = false;
         for (DoCOutputType.Partition type : partitionTypes ) {
-            Map<String,int[]> countsByID = countsBySampleByType.get(type);
-            for ( String s : identifiersByType.get(type) ) {
+            int[][] countsByIndex = partitioner.getLocusCountsByType(type);
+            for ( int index : partitioner.getSortedIdentifierIndices(type) ) {
                 perSampleOutput.append(separator);
-                long dp = (countsByID != null && countsByID.keySet().contains(s)) ? sumArray(countsByID.get(s)) : 0 ;
+                long dp = sumArray(countsByIndex[index]);
                 perSampleOutput.append(dp);
                 if ( printBaseCounts ) {
                     perSampleOutput.append(separator);
-                    perSampleOutput.append(baseCounts(countsByID != null ? countsByID.get(s) : null ));
+                    perSampleOutput.append(baseCounts(countsByIndex[index]));
                 }
                 if ( ! depthCounted ) {
                     tDepth += dp;
@@ -1031,64 +1157,3 @@ class DoCOutputMultiplexer implements Multiplexer<DoCOutputType> {
     }
 
 }
-
-class CoveragePartitioner {
-    private Collection<DoCOutputType.Partition> types;
-    private Map<DoCOutputType.Partition,DepthOfCoverageStats> coverageProfiles;
-    private Map<DoCOutputType.Partition,List<String>> identifiersByType;
-    private Set<String> allIdentifiers;
-    public CoveragePartitioner(Collection<DoCOutputType.Partition> typesToUse, int start, int stop, int nBins) {
-        coverageProfiles = new HashMap<DoCOutputType.Partition,DepthOfCoverageStats>();
-        identifiersByType = new HashMap<DoCOutputType.Partition,List<String>>();
-        types = typesToUse;
-        for ( DoCOutputType.Partition type : types ) {
-            coverageProfiles.put(type,new DepthOfCoverageStats(DepthOfCoverageStats.calculateBinEndpoints(start,stop,nBins)));
-            identifiersByType.put(type,new ArrayList<String>());
-        }
-        allIdentifiers = new HashSet<String>();
-    }
-
-    public void merge(CoveragePartitioner otherAggregator) {
-        for ( DoCOutputType.Partition type : types ) {
-            this.coverageProfiles.get(type).merge(otherAggregator.coverageProfiles.get(type));
-        }
-    }
-
-    public DepthOfCoverageStats getCoverageByAggregationType(DoCOutputType.Partition t) {
-        return coverageProfiles.get(t);
-    }
-
-    public void addIdentifiers(DoCOutputType.Partition t, Set<String> ids) {
-        for ( String s : ids ) {
-            coverageProfiles.get(t).addSample(s);
-            identifiersByType.get(t).add(s);
-            allIdentifiers.add(s);
-        }
-        Collections.sort(identifiersByType.get(t));
-    }
-
-    public void initialize(boolean useDels, boolean omitLocusTable) {
-        for ( DoCOutputType.Partition t : types ) {
-            if ( useDels ) {
-                coverageProfiles.get(t).initializeDeletions();
-            }
-            if ( ! omitLocusTable ) {
-                coverageProfiles.get(t).initializeLocusCounts();
-            }
-        }
-    }
-
-    public void update(Map<DoCOutputType.Partition,Map<String,int[]>> countsByIdentifierByType) {
-        for ( DoCOutputType.Partition t : types ) {
-            coverageProfiles.get(t).update(countsByIdentifierByType.get(t));
-        }
-    }
-
-    public Set<String> getAllIdentifiers() {
-        return allIdentifiers;
-    }
-
-    public Map<DoCOutputType.Partition,List<String>> getIdentifiersByType() {
-        return identifiersByType;
-    }
-}
@@ -28,13 +28,15 @@ package org.broadinstitute.sting.gatk.walkers.coverage;
 import org.broadinstitute.sting.utils.BaseUtils;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * IF THERE IS NO JAVADOC RIGHT HERE, YELL AT chartl
  *
+ * Internally, each sample is assigned a dense index as it is added, and the statistics are held in arrays by that
+ * index, so that updating them for a locus doesn't require any hashing or boxing.  The per-locus update methods
+ * taking arrays expect them to be indexed this way (see getSampleIndex()).
+ *
  * @Author chartl
  * @Date Feb 26, 2010
  */
@@ -43,16 +45,22 @@ public class DepthOfCoverageStats {
     // STATIC DATA
     ////////////////////////////////////////////////////////////////////////////////////
 
-    /* none so far */
+    // depths below this are binned by table lookup rather than by searching the bin endpoints
+    private static final int MAX_DEPTH_LOOKUP = 1 << 16;
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STANDARD DATA
     ////////////////////////////////////////////////////////////////////////////////////
 
     private Map<String,long[]> granularHistogramBySample; // holds the counts per each bin
-    private Map<String,Long> totalCoverages; // holds total coverage per sample
+    private Map<String,Integer> sampleIndices; // holds the index of each sample
+    private List<long[]> granularHistogramByIndex; // the histograms of granularHistogramBySample, by sample index
+    private long[] totalCoverages; // holds total coverage per sample, by sample index
     private int[] binLeftEndpoints; // describes the left endpoint for each bin
+    private int[] binByDepth; // the bin of each depth below MAX_DEPTH_LOOKUP and the largest left endpoint
     private long[][] locusCoverageCounts; // holds counts of number of bases with >=X samples at >=Y coverage
+    private long[][] lociBySamplesAtBin; // holds counts of number of bases with exactly X samples at >=Y coverage
+    private boolean locusCoverageCountsAreStale = false; // true if locusCoverageCounts must be recomputed from lociBySamplesAtBin
     private boolean tabulateLocusCounts = false;
     private long nLoci; // number of loci seen
     private long totalDepthOfCoverage;
@@ -62,7 +70,8 @@ public class DepthOfCoverageStats {
     // TEMPORARY DATA ( not worth re-instantiating )
     ////////////////////////////////////////////////////////////////////////////////////
 
-    private int[] locusHistogram; // holds a histogram for each locus; reset after each update() call
+    private int[] locusHistogram; // holds the number of samples in each bin at a locus; reset after each update() call
+    private int[] locusDepths = new int[0]; // holds the depth of each sample at a locus
     private int totalLocusDepth; // holds the total depth of coverage for each locus; reset after each update() call
 
     ////////////////////////////////////////////////////////////////////////////////////
@@ -102,28 +111,29 @@ public class DepthOfCoverageStats {
 
     public DepthOfCoverageStats(int[] leftEndpoints) {
         this.binLeftEndpoints = leftEndpoints;
+        this.binByDepth = calculateBinByDepth(leftEndpoints);
         granularHistogramBySample = new HashMap<String,long[]>();
-        totalCoverages = new HashMap<String,Long>();
+        sampleIndices = new HashMap<String,Integer>();
+        granularHistogramByIndex = new ArrayList<long[]>();
+        totalCoverages = new long[0];
         nLoci = 0;
         totalLocusDepth = 0;
         totalDepthOfCoverage = 0;
     }
 
     public DepthOfCoverageStats(DepthOfCoverageStats cloneMe) {
-        this.binLeftEndpoints = cloneMe.binLeftEndpoints;
-        granularHistogramBySample = new HashMap<String,long[]>();
-        totalCoverages = new HashMap<String,Long>();
+        this(cloneMe.binLeftEndpoints);
         for ( String s : cloneMe.getAllSamples() ) {
-            granularHistogramBySample.put(s,new long[cloneMe.getHistograms().get(s).length]);
-            for ( int i = 0; i < granularHistogramBySample.get(s).length; i++ ) {
-                granularHistogramBySample.get(s)[i] = cloneMe.getHistograms().get(s)[i];
-            }
-            totalCoverages.put(s,cloneMe.totalCoverages.get(s));
+            addSample(s);
+            System.arraycopy(cloneMe.getHistograms().get(s), 0, granularHistogramBySample.get(s), 0, granularHistogramBySample.get(s).length);
+            totalCoverages[sampleIndices.get(s)] = cloneMe.totalCoverages[cloneMe.sampleIndices.get(s)];
         }
 
         this.includeDeletions = cloneMe.includeDeletions;
         if ( cloneMe.tabulateLocusCounts ) {
             this.locusCoverageCounts = new long[cloneMe.locusCoverageCounts.length][cloneMe.locusCoverageCounts[0].length];
+            this.lociBySamplesAtBin = new long[cloneMe.lociBySamplesAtBin.length][cloneMe.lociBySamplesAtBin[0].length];
+            this.locusHistogram = new int[cloneMe.locusHistogram.length];
         }
         //this.granularHistogramBySample = cloneMe.granularHistogramBySample;
         //this.totalCoverages = cloneMe.totalCoverages;
@@ -138,23 +148,18 @@ public class DepthOfCoverageStats {
         }
 
         long[] binCounts = new long[this.binLeftEndpoints.length+1];
-        for ( int b = 0; b < binCounts.length; b ++ ) {
-            binCounts[b] = 0;
-        }
 
+        sampleIndices.put(sample,granularHistogramByIndex.size());
+        granularHistogramByIndex.add(binCounts);
         granularHistogramBySample.put(sample,binCounts);
-        totalCoverages.put(sample,0l);
+        totalCoverages = Arrays.copyOf(totalCoverages,granularHistogramByIndex.size());
+        locusDepths = new int[granularHistogramByIndex.size()];
     }
 
     public void initializeLocusCounts() {
         locusCoverageCounts = new long[granularHistogramBySample.size()][binLeftEndpoints.length+1];
+        lociBySamplesAtBin = new long[granularHistogramBySample.size()+1][binLeftEndpoints.length+1];
         locusHistogram = new int[binLeftEndpoints.length+1];
-        for ( int b = 0; b < binLeftEndpoints.length+1; b ++ ) {
-            for ( int a = 0; a < granularHistogramBySample.size(); a ++ ) {
-                locusCoverageCounts[a][b] = 0;
-            }
-            locusHistogram[b] = 0;
-        }
 
         tabulateLocusCounts = true;
     }
@@ -163,24 +168,77 @@ public class DepthOfCoverageStats {
         includeDeletions = true;
     }
 
+    /**
+     * Forget all of the loci seen so far, keeping the samples and settings, so this object can be reused
+     */
+    public void reset() {
+        for ( long[] histogram : granularHistogramByIndex ) {
+            Arrays.fill(histogram,0);
+        }
+        Arrays.fill(totalCoverages,0);
+        if ( tabulateLocusCounts ) {
+            for ( long[] counts : lociBySamplesAtBin ) {
+                Arrays.fill(counts,0);
+            }
+            locusCoverageCountsAreStale = true;
+        }
+        nLoci = 0;
+        totalDepthOfCoverage = 0;
+    }
+
+    private static int[] calculateBinByDepth(int[] leftEndpoints) {
+        int maxEndpoint = 0;
+        for ( int e : leftEndpoints ) {
+            maxEndpoint = Math.max(maxEndpoint, e);
+        }
+
+        int[] binByDepth = new int[Math.min(maxEndpoint, MAX_DEPTH_LOOKUP)];
+        for ( int depth = 0; depth < binByDepth.length; depth++ ) {
+            binByDepth[depth] = searchBin(leftEndpoints, depth);
+        }
+
+        return binByDepth;
+    }
+
+    private static int searchBin(int[] leftEndpoints, int depth) {
+        for ( int b = 0; b < leftEndpoints.length; b ++ ) {
+            if ( depth < leftEndpoints[b] ) {
+                return b;
+            }
+        }
+
+        return leftEndpoints.length; // greater than all left-endpoints
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////
     // UPDATE METHODS
     ////////////////////////////////////////////////////////////////////////////////////
 
     public void updateDepths(Map<String,Integer> depthBySample) {
-        int b;
-        for ( String sample : granularHistogramBySample.keySet() ) {
-            if ( depthBySample.containsKey(sample) ) {
-                b = updateSample(sample,depthBySample.get(sample));
-                totalLocusDepth += depthBySample.get(sample);
-            } else {
-                b = updateSample(sample,0);
+        Arrays.fill(locusDepths,0);
+        for ( Map.Entry<String,Integer> sampleDepth : depthBySample.entrySet() ) {
+            Integer index = sampleIndices.get(sampleDepth.getKey());
+            if ( index != null ) {
+                locusDepths[index] = sampleDepth.getValue();
             }
+        }
+
+        updateDepths(locusDepths);
+    }
+
+    /**
+     * Update the statistics with the depths of all samples at a locus
+     *
+     * @param depthBySampleIndex the depth of each sample, by sample index
+     */
+    public void updateDepths(int[] depthBySampleIndex) {
+        for ( int s = 0; s < granularHistogramByIndex.size(); s++ ) {
+            int depth = depthBySampleIndex[s];
+            int b = updateSample(s,depth);
+            totalLocusDepth += depth;
 
             if ( tabulateLocusCounts ) {
-                for ( int i = 0; i <= b; i ++ ) {
-                    locusHistogram[i]++;
-                }
+                locusHistogram[b]++;
             }
         }
         updateLocusCounts(locusHistogram);
@@ -195,42 +253,55 @@ public class DepthOfCoverageStats {
             this.updateDepths(new HashMap<String,Integer>(1));
             return;
         }
-        // todo -- do we want to do anything special regarding base count or deletion statistics?
-        HashMap<String,Integer> depthBySample = new HashMap<String,Integer>();
-        // todo -- needs fixing with advent of new baseutils functionality using ENUMS and handling N,D
-        for ( String s : countsBySample.keySet() ) {
-            int total = 0;
-            int[] counts = countsBySample.get(s);
-            for ( byte base : BaseUtils.EXTENDED_BASES ) {
-                if ( includeDeletions || ! ( base == BaseUtils.Base.D.base) ) { // note basesAreEqual assigns TRUE to (N,D) as both have simple index -1
-                    total += counts[BaseUtils.extendedBaseToBaseIndex(base)];
-                }
+
+        Arrays.fill(locusDepths,0);
+        for ( Map.Entry<String,int[]> sampleCounts : countsBySample.entrySet() ) {
+            Integer index = sampleIndices.get(sampleCounts.getKey());
+            if ( index != null ) {
+                locusDepths[index] = getDepth(sampleCounts.getValue());
             }
-            depthBySample.put(s,total);
         }
-        
-        this.updateDepths(depthBySample);
+
+        this.updateDepths(locusDepths);
     }
 
-    private int updateSample(String sample, int depth) {
-        totalCoverages.put(sample,totalCoverages.get(sample)+depth);
+    /**
+     * Update the statistics with the base counts of all samples at a locus
+     *
+     * @param countsBySampleIndex the base counts of each sample, by sample index, as returned by CoverageUtils
+     */
+    public void update(int[][] countsBySampleIndex) {
+        for ( int s = 0; s < locusDepths.length; s++ ) {
+            locusDepths[s] = getDepth(countsBySampleIndex[s]);
+        }
+
+        this.updateDepths(locusDepths);
+    }
 
-        long[] granularBins = granularHistogramBySample.get(sample);
-        for ( int b = 0; b < binLeftEndpoints.length; b ++ ) {
-            if ( depth < binLeftEndpoints[b] ) {
-                granularBins[b]++;
-                return b;
+    private int getDepth(int[] counts) {
+        // todo -- do we want to do anything special regarding base count or deletion statistics?
+        // todo -- needs fixing with advent of new baseutils functionality using ENUMS and handling N,D
+        int total = 0;
+        for ( byte base : BaseUtils.EXTENDED_BASES ) {
+            if ( includeDeletions || ! ( base == BaseUtils.Base.D.base) ) { // note basesAreEqual assigns TRUE to (N,D) as both have simple index -1
+                total += counts[BaseUtils.extendedBaseToBaseIndex(base)];
             }
         }
+        return total;
+    }
 
-        granularBins[binLeftEndpoints.length]++; // greater than all left-endpoints
-        return binLeftEndpoints.length;
+    private int updateSample(int sampleIndex, int depth) {
+        totalCoverages[sampleIndex] += depth;
+
+        int b = depth < binByDepth.length ? binByDepth[depth] : searchBin(binLeftEndpoints,depth);
+        granularHistogramByIndex.get(sampleIndex)[b]++;
+        return b;
     }
 
     public void merge(DepthOfCoverageStats newStats) {
         this.mergeSamples(newStats);
         if ( this.tabulateLocusCounts && newStats.tabulateLocusCounts ) {
-            this.mergeLocusCounts(newStats.getLocusCounts());
+            this.mergeLocusCounts(newStats.lociBySamplesAtBin);
         }
         nLoci += newStats.getTotalLoci();
         totalDepthOfCoverage += newStats.getTotalCoverage();
@@ -238,7 +309,6 @@ public class DepthOfCoverageStats {
 
     private void mergeSamples(DepthOfCoverageStats otherStats) {
         Map<String,long[]> otherHistogram = otherStats.getHistograms();
-        Map<String,Double> otherMeans = otherStats.getMeans();
         for ( String s : this.getAllSamples() ) {
             long[] internalCounts = granularHistogramBySample.get(s);
             long[] externalCounts = otherHistogram.get(s);
@@ -246,38 +316,43 @@ public class DepthOfCoverageStats {
                 internalCounts[b] += externalCounts[b];
             }
 
-            this.totalCoverages.put(s, this.totalCoverages.get(s) + otherStats.totalCoverages.get(s));
+            this.totalCoverages[sampleIndices.get(s)] += otherStats.totalCoverages[otherStats.sampleIndices.get(s)];
         }
     }
 
     private void mergeLocusCounts( long[][] otherCounts ) {
-        for ( int a = 0; a < locusCoverageCounts.length; a ++ ) {
-            for ( int b = 0; b < locusCoverageCounts[0].length; b ++ ) {
-                locusCoverageCounts[a][b] += otherCounts[a][b];
+        for ( int a = 0; a < lociBySamplesAtBin.length; a ++ ) {
+            for ( int b = 0; b < lociBySamplesAtBin[0].length; b ++ ) {
+                lociBySamplesAtBin[a][b] += otherCounts[a][b];
             }
         }
+        locusCoverageCountsAreStale = true;
     }
 
     /*
      * Update locus counts -- takes an array in which the number of samples
-     * with depth ABOVE [i] is held. So if the bin left endpoints were 2, 5, 10
+     * with depth in bin [i] is held. So if the bin left endpoints were 2, 5, 10
      * then we'd have an array that represented:
-     * [# samples with depth 0 - inf], [# samples with depth 2 - inf],
-     * [# samples with depth 5 - inf], [# samples with depth 10-inf];
+     * [# samples with depth 0 - 1], [# samples with depth 2 - 4],
+     * [# samples with depth 5 - 9], [# samples with depth 10-inf];
+     *
+     * Rather than incrementing the count of every (>= X samples, >= Y depth) pair, which takes time proportional to
+     * the number of samples times the number of bins, we record the locus against the exact number of samples
+     * at or above each bin, and sum these up into locusCoverageCounts when it is asked for.
      *
      * this is
-     * @argument cumulativeSamplesByDepthBin - see above
+     * @argument samplesByDepthBin - see above
      */
-    private void updateLocusCounts(int[] cumulativeSamplesByDepthBin) {
+    private void updateLocusCounts(int[] samplesByDepthBin) {
         if ( tabulateLocusCounts ) {
-            for ( int bin = 0; bin < cumulativeSamplesByDepthBin.length; bin ++ ) {
-                int numSamples = cumulativeSamplesByDepthBin[bin];
-                for ( int i = 0; i < numSamples; i ++ ) {
-                    locusCoverageCounts[i][bin]++;
-                }
+            int numSamples = 0;
+            for ( int bin = samplesByDepthBin.length - 1; bin >= 0; bin -- ) {
+                numSamples += samplesByDepthBin[bin]; // the number of samples at or above this bin
+                lociBySamplesAtBin[numSamples][bin]++;
 
-                cumulativeSamplesByDepthBin[bin] = 0; // reset counts in advance of next update()
+                samplesByDepthBin[bin] = 0; // reset counts in advance of next update()
             }
+            locusCoverageCountsAreStale = true;
         }
     }
 
@@ -290,6 +365,17 @@ public class DepthOfCoverageStats {
     }
 
     public long[][] getLocusCounts() {
+        if ( locusCoverageCountsAreStale ) {
+            for ( int bin = 0; bin < lociBySamplesAtBin[0].length; bin ++ ) {
+                long loci = 0;
+                for ( int a = locusCoverageCounts.length - 1; a >= 0; a -- ) {
+                    loci += lociBySamplesAtBin[a+1][bin];
+                    locusCoverageCounts[a][bin] = loci;
+                }
+            }
+            locusCoverageCountsAreStale = false;
+        }
+
         return locusCoverageCounts;
     }
 
@@ -300,14 +386,35 @@ public class DepthOfCoverageStats {
     public Map<String,Double> getMeans() {
         HashMap<String,Double> means = new HashMap<String,Double>();
         for ( String s : getAllSamples() ) {
-            means.put(s,( (double)totalCoverages.get(s))/( (double) nLoci ));
+            means.put(s,( (double)totalCoverages[sampleIndices.get(s)])/( (double) nLoci ));
         }
 
         return means;
     }
 
     public Map<String,Long> getTotals() {
-        return totalCoverages;
+        HashMap<String,Long> totals = new HashMap<String,Long>();
+        for ( String s : getAllSamples() ) {
+            totals.put(s,totalCoverages[sampleIndices.get(s)]);
+        }
+
+        return totals;
+    }
+
+    /**
+     * @param sample the name of a sample
+     * @return the index of sample in the arrays accepted by the update methods, or -1 if it isn't one of our samples
+     */
+    public int getSampleIndex(String sample) {
+        Integer index = sampleIndices.get(sample);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the number of samples, which is also the size of the arrays accepted by the update methods
+     */
+    public int getNumberOfSamples() {
+        return granularHistogramByIndex.size();
     }
 
     public long getTotalLoci() {
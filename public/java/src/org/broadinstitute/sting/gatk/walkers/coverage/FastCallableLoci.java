@@ -0,0 +1,258 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.picard.reference.IndexedFastaSequenceFile;
+import org.broadinstitute.sting.commandline.ArgumentCollection;
+import org.broadinstitute.sting.commandline.Output;
+import org.broadinstitute.sting.gatk.CommandLineGATK;
+import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
+import org.broadinstitute.sting.gatk.filters.DuplicateReadFilter;
+import org.broadinstitute.sting.gatk.filters.FailsVendorQualityCheckFilter;
+import org.broadinstitute.sting.gatk.filters.NotPrimaryAlignmentFilter;
+import org.broadinstitute.sting.gatk.filters.UnmappedReadFilter;
+import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.walkers.DataSource;
+import org.broadinstitute.sting.gatk.walkers.ReadFilters;
+import org.broadinstitute.sting.gatk.walkers.ReadWalker;
+import org.broadinstitute.sting.gatk.walkers.Requires;
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocSortedSet;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
+import org.broadinstitute.sting.utils.help.HelpConstants;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Iterator;
+
+/**
+ * Emits the same callable state data as CallableLoci, without building a pileup at each locus
+ *
+ * <p>
+ * CallableLoci builds the full pileup of every locus only to count a few depths there.  This walker instead adds the
+ * depths each read contributes to a window of loci as it streams by (see CallableLociDepthWindow), and emits the
+ * states of the loci behind the start of each read as runs.  It takes exactly the same arguments and writes exactly
+ * the same BED or per-base states and summary as CallableLoci, with one exception: a locus walker downsamples its
+ * pileups to 1000 reads per sample by default, whereas this walker always counts every read.  So the two agree
+ * everywhere if CallableLoci is run with -dt NONE, and otherwise everywhere the coverage is below 1000x.
+ * </p>
+ *
+ * <h3>Input</h3>
+ * <p>
+ * A BAM file containing <b>exactly one sample</b>.
+ * </p>
+ *
+ * <h3>Output</h3>
+ * <p>
+ * <ul>
+ * <li>-o: a OutputFormatted (recommended BED) file with the callable status covering each base</li>
+ * <li>-summary: a table of callable status x count of all examined bases</li>
+ * </ul>
+ * </p>
+ *
+ * <h3>Examples</h3>
+ * <pre>
+ *  java -jar GenomeAnalysisTK.jar \
+ *     -T FastCallableLoci \
+ *     -I my.bam \
+ *     -summary my.summary \
+ *     -o my.bed
+ * </pre>
+ */
+@DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_QC, extraDocs = {CommandLineGATK.class} )
+@Requires({DataSource.READS, DataSource.REFERENCE})
+@ReadFilters({UnmappedReadFilter.class,NotPrimaryAlignmentFilter.class,DuplicateReadFilter.class,FailsVendorQualityCheckFilter.class})
+public class FastCallableLoci extends ReadWalker<Integer, Long> {
+    @Output
+    PrintStream out;
+
+    /**
+     * Callable loci summary counts (see outputs) will be written to this file.
+     */
+    @Output(fullName = "summary", shortName = "summary", doc = "Name of file for output summary", required = true)
+    File summaryFile;
+
+    @ArgumentCollection
+    CallableLociArgumentCollection args = new CallableLociArgumentCollection();
+
+    /**
+     * The number of loci whose states we compute at once
+     */
+    private final static int CHUNK_SIZE = 1 << 16;
+
+    private IndexedFastaSequenceFile reference;
+    private CallableLociDepthWindow window;
+    private final int[] rawDepths = new int[CHUNK_SIZE];
+    private final int[] QCDepths = new int[CHUNK_SIZE];
+    private final int[] lowMAPQDepths = new int[CHUNK_SIZE];
+
+    // the loci whose states we haven't emitted yet are those of currentInterval from nextLocus, and all later intervals
+    private Iterator<GenomeLoc> intervals;
+    private GenomeLoc currentInterval;
+    private int nextLocus;
+
+    // the run of loci in the same state we're building
+    private final long counts[] = new long[CallableLoci.CalledState.values().length];
+    private String runContig = null;
+    private int runStart, runStop;
+    private CallableLoci.CalledState runState = null;
+
+    ////////////////////////////////////////////////////////////////////////////////////
+    // STANDARD WALKER METHODS
+    ////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void initialize() {
+        if (getSampleDB().getSamples().size() != 1) {
+            throw new UserException.BadArgumentValue("-I", "FastCallableLoci only works for a single sample, but multiple samples were found in the provided BAM files: " + getSampleDB().getSamples());
+        }
+
+        try {
+            PrintStream summaryOut = new PrintStream(summaryFile);
+            summaryOut.close();
+        } catch (FileNotFoundException e) {
+            throw new UserException.CouldNotCreateOutputFile(summaryFile, e);
+        }
+
+        reference = getToolkit().getReferenceDataSource().getReference();
+        window = new CallableLociDepthWindow(args.maxLowMAPQ, args.minMappingQuality, args.minBaseQuality);
+
+        final GenomeLocSortedSet traversalIntervals = getToolkit().getIntervals() != null
+                ? getToolkit().getIntervals()
+                : GenomeLocSortedSet.createSetFromSequenceDictionary(getToolkit().getMasterSequenceDictionary());
+        intervals = traversalIntervals.iterator();
+        nextInterval();
+    }
+
+    @Override
+    public Integer map(ReferenceContext ref, GATKSAMRecord read, RefMetaDataTracker metaDataTracker) {
+        // no read after this one can cover the loci before its start, so we know everything about them
+        emitLociBefore(read.getReferenceIndex(), read.getAlignmentStart());
+        window.addRead(read);
+        return 1;
+    }
+
+    @Override
+    public Long reduceInit() {
+        return 0L;
+    }
+
+    @Override
+    public Long reduce(Integer value, Long sum) {
+        return sum + value;
+    }
+
+    @Override
+    public void onTraversalDone(Long result) {
+        emitLociBefore(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        if (args.outputFormat == CallableLoci.OutputFormat.BED && runState != null)  // get the last interval
+            printRun();
+
+        CallableLoci.printSummary(summaryFile, counts);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////
+    // EMITTING STATES
+    ////////////////////////////////////////////////////////////////////////////////////
+
+    private void nextInterval() {
+        currentInterval = intervals.hasNext() ? intervals.next() : null;
+        if ( currentInterval != null )
+            nextLocus = currentInterval.getStart();
+    }
+
+    /**
+     * Emits the states of all of the loci we're traversing before locus on contigIndex
+     */
+    private void emitLociBefore(final int contigIndex, final int locus) {
+        while ( currentInterval != null ) {
+            if ( currentInterval.getContigIndex() > contigIndex || (currentInterval.getContigIndex() == contigIndex && nextLocus >= locus) )
+                return;
+
+            final int stop = currentInterval.getContigIndex() < contigIndex ? currentInterval.getStop() : Math.min(currentInterval.getStop(), locus - 1);
+            emitLoci(currentInterval, nextLocus, stop);
+
+            if ( stop < currentInterval.getStop() ) {
+                nextLocus = stop + 1;
+                return;
+            }
+            nextInterval();
+        }
+    }
+
+    /**
+     * Emits the states of the loci [start, stop] of interval
+     */
+    private void emitLoci(final GenomeLoc interval, final int start, final int stop) {
+        for ( int chunkStart = start; chunkStart <= stop; chunkStart += CHUNK_SIZE ) {
+            final int chunkStop = Math.min(stop, chunkStart + CHUNK_SIZE - 1);
+            final int nLoci = chunkStop - chunkStart + 1;
+
+            final byte[] refBases = reference.getSubsequenceAt(interval.getContig(), chunkStart, chunkStop).getBases();
+            window.popDepths(interval.getContigIndex(), chunkStart, nLoci, rawDepths, QCDepths, lowMAPQDepths);
+
+            for ( int i = 0; i < nLoci; i++ ) {
+                final CallableLoci.CalledState state = BaseUtils.isNBase(refBases[i])
+                        ? CallableLoci.CalledState.REF_N
+                        : args.callState(rawDepths[i], QCDepths[i], lowMAPQDepths[i]);
+                addState(interval.getContig(), chunkStart + i, state);
+            }
+        }
+    }
+
+    private void addState(final String contig, final int locus, final CallableLoci.CalledState state) {
+        counts[state.ordinal()]++;
+
+        if (args.outputFormat == CallableLoci.OutputFormat.STATE_PER_BASE) {
+            out.println(String.format("%s\t%d\t%d\t%s", contig, locus - 1, locus, state));
+        }
+
+        // format is integrating
+        if ( runState == null ) {
+            startRun(contig, locus, state);
+        } else if ( locus != runStop + 1 || state != runState || ! contig.equals(runContig) ) {
+            printRun();
+            startRun(contig, locus, state);
+        } else {
+            runStop = locus;
+        }
+    }
+
+    private void startRun(final String contig, final int locus, final CallableLoci.CalledState state) {
+        runContig = contig;
+        runStart = runStop = locus;
+        runState = state;
+    }
+
+    private void printRun() {
+        out.println(String.format("%s\t%d\t%d\t%s", runContig, runStart - 1, runStop, runState));
+    }
+}
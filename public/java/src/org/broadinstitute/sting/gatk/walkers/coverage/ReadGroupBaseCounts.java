@@ -0,0 +1,79 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import org.broadinstitute.sting.utils.GenomeLoc;
+
+/**
+ * The base counts at a single locus of every read group with coverage there.
+ *
+ * Read groups are identified by their index in the list given to the ReadGroupCoverageCounter that made these
+ * counts, and read groups without coverage are simply absent, so the size of this object scales with the
+ * depth of the pileup rather than with the number of read groups (or samples) in the run.
+ */
+public class ReadGroupBaseCounts {
+    private final GenomeLoc location;
+    private final int[] readGroupIndices;
+    private final int[][] counts;
+
+    protected ReadGroupBaseCounts(final GenomeLoc location, final int[] readGroupIndices, final int[][] counts) {
+        if ( readGroupIndices.length != counts.length )
+            throw new IllegalArgumentException("Must have one set of counts per read group");
+        this.location = location;
+        this.readGroupIndices = readGroupIndices;
+        this.counts = counts;
+    }
+
+    /**
+     * @return the locus these are the counts of
+     */
+    public GenomeLoc getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the number of read groups with coverage at this locus
+     */
+    public int size() {
+        return readGroupIndices.length;
+    }
+
+    /**
+     * @param i which covered read group, from 0 to size() - 1
+     * @return the index of the ith covered read group
+     */
+    public int getReadGroupIndex(final int i) {
+        return readGroupIndices[i];
+    }
+
+    /**
+     * @param i which covered read group, from 0 to size() - 1
+     * @return the counts of the ith covered read group, indexed by the ordinals of BaseUtils.Base
+     */
+    public int[] getCounts(final int i) {
+        return counts[i];
+    }
+}
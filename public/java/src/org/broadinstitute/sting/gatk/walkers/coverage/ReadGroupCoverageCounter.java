@@ -0,0 +1,180 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.SAMReadGroupRecord;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the bases at each locus by read group, identifying read groups by a dense index assigned up front.
+ *
+ * This computes exactly what CoverageUtils.getBaseCountsByReadGroup does, but instead of hashing every
+ * SAMReadGroupRecord (which compares all of their attributes) into a fresh map at every locus, each read group ID
+ * is looked up once per pileup element in a fixed table, and the counts are accumulated through a per-thread
+ * scratch array.  Each locus still allocates a small Accumulator, the counts of each read group covering it, and
+ * the ReadGroupBaseCounts holding the result; the fragment-based count types also build the list of the elements
+ * to count, as CoverageUtils.getCountedPileup does.
+ *
+ * Counters are immutable apart from their per-thread scratch space, so one counter can be shared by all of the
+ * threads of a traversal.
+ */
+public class ReadGroupCoverageCounter {
+    private final List<SAMReadGroupRecord> readGroups;
+    private final Map<String, Integer> readGroupIndices;
+
+    private final int minMapQ, maxMapQ;
+    private final byte minBaseQ, maxBaseQ;
+    private final CoverageUtils.CountPileupType countType;
+
+    /**
+     * For each read group, its position in the counts we're currently building, or -1 if it hasn't been seen yet
+     * at this locus.  Entries are reset to -1 once each locus is counted.
+     */
+    private final ThreadLocal<int[]> slotByReadGroup = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            final int[] slots = new int[readGroups.size()];
+            Arrays.fill(slots, -1);
+            return slots;
+        }
+    };
+
+    /**
+     * @param readGroups all of the read groups that can occur in the reads; the index of each read group in this list is its ID
+     * @param minMapQ the minimum mapping quality of reads to count
+     * @param maxMapQ the maximum mapping quality of reads to count
+     * @param minBaseQ the minimum quality of (non-deletion) bases to count
+     * @param maxBaseQ the maximum quality of (non-deletion) bases to count
+     * @param countType how to count overlapping reads from the same fragment
+     */
+    public ReadGroupCoverageCounter(final List<SAMReadGroupRecord> readGroups, final int minMapQ, final int maxMapQ,
+                                    final byte minBaseQ, final byte maxBaseQ, final CoverageUtils.CountPileupType countType) {
+        if ( readGroups == null ) throw new IllegalArgumentException("readGroups cannot be null");
+        if ( countType == null ) throw new IllegalArgumentException("countType cannot be null");
+
+        this.readGroups = readGroups;
+        this.readGroupIndices = new HashMap<String, Integer>(readGroups.size() * 2);
+        for ( int i = 0; i < readGroups.size(); i++ )
+            readGroupIndices.put(readGroups.get(i).getReadGroupId(), i);
+
+        this.minMapQ = minMapQ;
+        this.maxMapQ = maxMapQ;
+        this.minBaseQ = minBaseQ;
+        this.maxBaseQ = maxBaseQ;
+        this.countType = countType;
+    }
+
+    /**
+     * @return the read groups being counted, in order of their indices
+     */
+    public List<SAMReadGroupRecord> getReadGroups() {
+        return readGroups;
+    }
+
+    /**
+     * Count the bases passing our filters in context by read group
+     *
+     * @param context the locus to count
+     * @return a non-null ReadGroupBaseCounts
+     */
+    public ReadGroupBaseCounts countBases(final AlignmentContext context) {
+        final int[] slots = slotByReadGroup.get();
+        final Accumulator accumulator = new Accumulator(context.getLocation(), slots);
+
+        try {
+            if ( countType == CoverageUtils.CountPileupType.COUNT_READS ) {
+                // don't bother building a list of the elements to count, as the fragment-based count types must
+                for ( final PileupElement e : context.getBasePileup() )
+                    if ( CoverageUtils.countElement(e, minMapQ, maxMapQ, minBaseQ, maxBaseQ) )
+                        accumulator.add(e);
+            } else {
+                for ( final PileupElement e : CoverageUtils.getCountedPileup(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType) )
+                    accumulator.add(e);
+            }
+
+            return accumulator.getCounts();
+        } finally {
+            accumulator.releaseSlots();
+        }
+    }
+
+    private int getReadGroupIndex(final PileupElement e) {
+        final SAMReadGroupRecord readGroup = CoverageUtils.getReadGroup(e.getRead());
+        final Integer index = readGroupIndices.get(readGroup.getReadGroupId());
+        if ( index == null )
+            throw new UserException.MalformedBAM(e.getRead(), "Read " + e.getRead().getReadName() + " has read group " + readGroup.getReadGroupId() + " which is not present in the merged header");
+        return index;
+    }
+
+    /**
+     * Builds up the counts of a single locus
+     */
+    private final class Accumulator {
+        private final GenomeLoc location;
+        private final int[] slots;
+        private int nCovered = 0;
+        private int[] coveredReadGroups = new int[4];
+        private int[][] counts = new int[4][];
+
+        private Accumulator(final GenomeLoc location, final int[] slots) {
+            this.location = location;
+            this.slots = slots;
+        }
+
+        private void add(final PileupElement e) {
+            final int readGroup = getReadGroupIndex(e);
+            int slot = slots[readGroup];
+            if ( slot == -1 ) {
+                if ( nCovered == coveredReadGroups.length ) {
+                    coveredReadGroups = Arrays.copyOf(coveredReadGroups, nCovered * 2);
+                    counts = Arrays.copyOf(counts, nCovered * 2);
+                }
+                slot = nCovered++;
+                slots[readGroup] = slot;
+                coveredReadGroups[slot] = readGroup;
+                counts[slot] = new int[6];
+            }
+            CoverageUtils.updateCounts(counts[slot], e);
+        }
+
+        private ReadGroupBaseCounts getCounts() {
+            return new ReadGroupBaseCounts(location, Arrays.copyOf(coveredReadGroups, nCovered), Arrays.copyOf(counts, nCovered));
+        }
+
+        private void releaseSlots() {
+            for ( int i = 0; i < nCovered; i++ )
+                slots[coveredReadGroups[i]] = -1;
+        }
+    }
+}
@@ -29,6 +29,8 @@ import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMRecordIterator;
 import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.CloseableIterator;
+import org.broadinstitute.sting.utils.collections.Pair;
 
 import java.io.*;
 import java.util.Arrays;
@@ -42,46 +44,21 @@ import java.util.Arrays;
  *
  * Class implementing diffnode reader for VCF
  */
-public class BAMDiffableReader implements DiffableReader {
+public class BAMDiffableReader implements StreamingDiffableReader<SAMRecord> {
     @Override
     public String getName() { return "BAM"; }
 
     @Override
     public DiffElement readFromFile(File file, int maxElementsToRead) {
-        final SAMFileReader reader = new SAMFileReader(file, null); // null because we don't want it to look for the index
-        reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
-
-        DiffNode root = DiffNode.rooted(file.getName());
-        SAMRecordIterator iterator = reader.iterator();
+        DiffNode root = readHeader(file);
+        CloseableIterator<Pair<String, SAMRecord>> iterator = iterateRecords(file);
 
         int count = 0;
         while ( iterator.hasNext() ) {
-            final SAMRecord record = iterator.next();
-
-            // name is the read name + first of pair
-            String name = record.getReadName().replace('.', '_');
-            if ( record.getReadPairedFlag() ) {
-                name += record.getFirstOfPairFlag() ? "_1" : "_2";
-            }
+            final Pair<String, SAMRecord> record = iterator.next();
+            final String name = record.getFirst();
 
-            DiffNode readRoot = DiffNode.empty(name, root);
-
-            // add fields
-            readRoot.add("NAME", record.getReadName());
-            readRoot.add("FLAGS", record.getFlags());
-            readRoot.add("RNAME", record.getReferenceName());
-            readRoot.add("POS", record.getAlignmentStart());
-            readRoot.add("MAPQ", record.getMappingQuality());
-            readRoot.add("CIGAR", record.getCigarString());
-            readRoot.add("RNEXT", record.getMateReferenceName());
-            readRoot.add("PNEXT", record.getMateAlignmentStart());
-            readRoot.add("TLEN", record.getInferredInsertSize());
-            readRoot.add("SEQ", record.getReadString());
-            readRoot.add("QUAL", record.getBaseQualityString());
-
-            for ( SAMRecord.SAMTagAndValue xt : record.getAttributes() ) {
-                readRoot.add(xt.tag, xt.value);
-            }
+            DiffNode readRoot = createRecordNode(name, record.getSecond(), root.getBinding());
 
             // add record to root
             if ( ! root.hasElement(name) )
@@ -92,11 +69,85 @@ public class BAMDiffableReader implements DiffableReader {
                 break;
         }
 
-        reader.close();
+        iterator.close();
 
         return root.getBinding();
     }
 
+    /**
+     * None of the header is compared, so this is just the empty root
+     */
+    @Override
+    public DiffNode readHeader(File file) {
+        return DiffNode.rooted(file.getName());
+    }
+
+    @Override
+    public CloseableIterator<Pair<String, SAMRecord>> iterateRecords(File file) {
+        final SAMFileReader reader = new SAMFileReader(file, null); // null because we don't want it to look for the index
+        reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+        final SAMRecordIterator iterator = reader.iterator();
+
+        return new CloseableIterator<Pair<String, SAMRecord>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Pair<String, SAMRecord> next() {
+                final SAMRecord record = iterator.next();
+
+                // name is the read name + first of pair
+                String name = record.getReadName().replace('.', '_');
+                if ( record.getReadPairedFlag() ) {
+                    name += record.getFirstOfPairFlag() ? "_1" : "_2";
+                }
+
+                return new Pair<String, SAMRecord>(name, record);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove records from a BAM");
+            }
+
+            @Override
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    @Override
+    public int getRecordSize(SAMRecord record) {
+        return 1;
+    }
+
+    @Override
+    public DiffNode createRecordNode(String name, SAMRecord record, DiffElement parent) {
+        DiffNode readRoot = DiffNode.empty(name, parent);
+
+        // add fields
+        readRoot.add("NAME", record.getReadName());
+        readRoot.add("FLAGS", record.getFlags());
+        readRoot.add("RNAME", record.getReferenceName());
+        readRoot.add("POS", record.getAlignmentStart());
+        readRoot.add("MAPQ", record.getMappingQuality());
+        readRoot.add("CIGAR", record.getCigarString());
+        readRoot.add("RNEXT", record.getMateReferenceName());
+        readRoot.add("PNEXT", record.getMateAlignmentStart());
+        readRoot.add("TLEN", record.getInferredInsertSize());
+        readRoot.add("SEQ", record.getReadString());
+        readRoot.add("QUAL", record.getBaseQualityString());
+
+        for ( SAMRecord.SAMTagAndValue xt : record.getAttributes() ) {
+            readRoot.add(xt.tag, xt.value);
+        }
+
+        return readRoot;
+    }
+
     @Override
     public boolean canRead(File file) {
         final byte[] BAM_MAGIC = "BAM\1".getBytes();
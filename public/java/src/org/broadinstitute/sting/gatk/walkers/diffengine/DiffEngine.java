@@ -28,14 +28,19 @@ package org.broadinstitute.sting.gatk.walkers.diffengine;
 import org.apache.log4j.Logger;
 import org.broadinstitute.sting.gatk.report.GATKReport;
 import org.broadinstitute.sting.gatk.report.GATKReportTable;
+import net.sf.samtools.util.CloseableIterator;
 import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.classloader.PluginManager;
+import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.threading.NamedThreadFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by IntelliJ IDEA.
@@ -151,6 +156,17 @@ public class DiffEngine {
         printSummaryReport(summarizedDifferencesOfPaths(diffs, params.doPairwise, params.maxRawDiffsToSummarize), params );
     }
 
+    /**
+     * Emits the summary of differences that have already been summarized by leaf, as streamingDiffFiles does.
+     * params.doPairwise and params.maxRawDiffsToSummarize are ignored, as they applied when summarizing.
+     *
+     * @param summary the summarized differences
+     * @param params determines how we display the items
+     */
+    public void reportSummarizedDifferences(LeafDifferenceSummary summary, SummaryReportParams params ) {
+        printSummaryReport(summary.getSortedSummaries(), params );
+    }
+
     final protected static String[] diffNameToPath(String diffName) {
         return diffName.split("\\.");
     }
@@ -200,41 +216,18 @@ public class DiffEngine {
         return summaries;
     }
 
-    /**
-     * Computes the possible leaf differences among the singleton diffs.
-     *
-     * The leaf differences are all of the form *.*...*.X where all internal
-     * differences are wildcards and the only summarized difference considered
-     * interesting to compute is
-     *
-     * @param singletonDiffs
-     * @param maxRawDiffsToSummarize
-     * @return
-     */
-    private Map<String, Difference> initialLeafSummaries(final List<? extends Difference> singletonDiffs,
-                                                         final int maxRawDiffsToSummarize) {
-        Map<String, Difference> summaries = new HashMap<String, Difference>();
-
-        // create the initial set of differences
-        for ( final Difference d : singletonDiffs ) {
-            final String path = summarizedPath(d.getParts(), 1);
-            Difference sumDiff = new Difference(path, d.getMaster(), d.getTest());
-            sumDiff.setCount(0);
-            addSummaryIfMissing(summaries, sumDiff);
-
-            if ( maxRawDiffsToSummarize != -1 && summaries.size() > maxRawDiffsToSummarize)
-                return summaries;
-        }
-
-        return summaries;
-    }
-
     protected List<Difference> summarizedDifferencesOfPaths(final List<? extends Difference> singletonDiffs,
                                                             final boolean doPairwise,
                                                             final int maxRawDiffsToSummarize) {
-        final Map<String, Difference> summaries = doPairwise
-                ? initialPairwiseSummaries(singletonDiffs, maxRawDiffsToSummarize)
-                : initialLeafSummaries(singletonDiffs, maxRawDiffsToSummarize);
+        if ( ! doPairwise ) {
+            // each difference matches just the one leaf summary, so we can count them as we go
+            final LeafDifferenceSummary summary = new LeafDifferenceSummary(maxRawDiffsToSummarize);
+            for ( Difference diffPath : singletonDiffs )
+                summary.add(diffPath);
+            return summary.getSortedSummaries();
+        }
+
+        final Map<String, Difference> summaries = initialPairwiseSummaries(singletonDiffs, maxRawDiffsToSummarize);
 
         // count differences
         for ( Difference diffPath : singletonDiffs ) {
@@ -288,11 +281,16 @@ public class DiffEngine {
         table.addColumn("Difference");
         table.addColumn("NumberOfOccurrences");
         table.addColumn("ExampleDifference");
+
+        // there's a row for every summary shown, which for large files can be one per record, so rather than keep
+        // them all formatted in memory we stream them, filling in the (already unique) paths by row index
+        table.enableStreaming();
+        int row = 0;
         for ( final Difference diff : toShow ) {
-            final String key = diff.getPath();
-            table.addRowID(key, true);
-            table.set(key, "NumberOfOccurrences", diff.getCount());
-            table.set(key, "ExampleDifference", diff.valueDiffString());
+            table.set(row, 0, diff.getPath());
+            table.set(row, 1, diff.getCount());
+            table.set(row, 2, diff.valueDiffString());
+            row++;
         }
         GATKReport output = new GATKReport(table);
         output.print(params.out);
@@ -407,6 +405,221 @@ public class DiffEngine {
         }
     }
 
+    // --------------------------------------------------------------------------------
+    //
+    // streaming comparison
+    //
+    // --------------------------------------------------------------------------------
+
+    // records are compared in chunks of this many, or of fewer but larger records holding about this many values
+    private static final int RECORDS_PER_CHUNK = 1000;
+    private static final int RECORD_SIZE_PER_CHUNK = 10000;
+
+    /**
+     * Returns true if file can be compared record by record with streamingDiffFiles
+     * @param file
+     * @return
+     */
+    public boolean canStream(File file) {
+        return findReaderForFile(file) instanceof StreamingDiffableReader;
+    }
+
+    /**
+     * Compares masterFile and testFile record by record, summarizing the differences by leaf as
+     * reportSummarizedDifferences does without doPairwise.
+     *
+     * Both files are read in lockstep, and records are paired up by name as soon as both have been read, so only
+     * records still waiting for their partner are held in memory: when the files list the same records in the same
+     * order that's almost none, and at worst it's the records that appear in just one file.  Pairs of records are
+     * compared in chunks, on nThreads threads, and nothing but the summary outlives its chunk.
+     *
+     * The differences found are those diff() finds between the whole files' trees, except that a record whose name
+     * repeats a record already paired up isn't ignored: it's paired with a duplicate of that name in the other file,
+     * or reported as missing from the other file if there's no duplicate there.  As the records are taken in file
+     * order, the example of each summarized difference is the first in the files.
+     *
+     * @param masterFile the master file
+     * @param testFile the test file
+     * @param nThreads the number of threads to compare records on
+     * @param maxRawDiffsToSummarize the maximum number of differences to summarize, or -1 for all of them
+     * @param itemizedOut if not null, each difference is written here as it is found
+     * @return the summarized differences
+     */
+    public LeafDifferenceSummary streamingDiffFiles(final File masterFile, final File testFile, final int nThreads,
+                                                    final int maxRawDiffsToSummarize, final PrintStream itemizedOut) {
+        final LeafDifferenceSummary summary = new LeafDifferenceSummary(maxRawDiffsToSummarize);
+        final StreamedFile<?> master = openStreamedFile(masterFile);
+        final StreamedFile<?> test = openStreamedFile(testFile);
+        final ExecutorService executor = nThreads > 1 ? Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("DiffEngine-thread-%d")) : null;
+        final LinkedList<Future<ComparedChunk>> running = new LinkedList<Future<ComparedChunk>>();
+
+        try {
+            final ComparedChunk header = new ComparedChunk(master, test, itemizedOut != null);
+            header.add(diff(master.root.getBinding(), test.root.getBinding()));
+            mergeChunk(summary, header, itemizedOut);
+
+            ComparedChunk chunk = new ComparedChunk(master, test, itemizedOut != null);
+            while ( master.records.hasNext() || test.records.hasNext() ) {
+                if ( master.records.hasNext() )
+                    readRecord(master, test, true, chunk);
+                if ( test.records.hasNext() )
+                    readRecord(test, master, false, chunk);
+
+                if ( chunk.size() >= RECORDS_PER_CHUNK || chunk.recordSize >= RECORD_SIZE_PER_CHUNK ) {
+                    submitChunk(summary, chunk, executor, nThreads, running, itemizedOut);
+                    chunk = new ComparedChunk(master, test, itemizedOut != null);
+                }
+            }
+
+            // whatever is still waiting for a partner is missing from the other file
+            for ( final Map.Entry<String, Object> record : master.pending.entrySet() )
+                chunk.addPair(record.getKey(), record.getValue(), null);
+            for ( final Map.Entry<String, Object> record : test.pending.entrySet() )
+                chunk.addPair(record.getKey(), null, record.getValue());
+            submitChunk(summary, chunk, executor, nThreads, running, itemizedOut);
+
+            while ( ! running.isEmpty() )
+                mergeChunk(summary, running.removeFirst().get(), itemizedOut);
+        } catch ( InterruptedException e ) {
+            throw new ReviewedStingException("Interrupted while comparing " + masterFile + " and " + testFile, e);
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedStingException("Failed to compare " + masterFile + " and " + testFile, e.getCause());
+        } finally {
+            if ( executor != null )
+                executor.shutdownNow();
+            master.records.close();
+            test.records.close();
+        }
+
+        return summary;
+    }
+
+    /**
+     * Reads the next record of from, and pairs it with the record of the same name from other if that's been read
+     */
+    private static void readRecord(final StreamedFile<?> from, final StreamedFile<?> other, final boolean fromIsMaster, final ComparedChunk chunk) {
+        final Pair<String, ?> record = from.records.next();
+        final String name = record.getFirst();
+        final Object partner = other.pending.remove(name);
+        if ( partner != null ) {
+            chunk.addPair(name, fromIsMaster ? record.getSecond() : partner, fromIsMaster ? partner : record.getSecond());
+            chunk.recordSize += from.getRecordSize(record.getSecond()) + other.getRecordSize(partner);
+        }
+        else if ( ! from.pending.containsKey(name) ) // as with the trees, the first record of a name wins
+            from.pending.put(name, record.getSecond());
+    }
+
+    private void submitChunk(final LeafDifferenceSummary summary, final ComparedChunk chunk, final ExecutorService executor, final int nThreads,
+                             final LinkedList<Future<ComparedChunk>> running, final PrintStream itemizedOut) throws InterruptedException, ExecutionException {
+        if ( executor == null ) {
+            mergeChunk(summary, chunk.call(), itemizedOut);
+        } else {
+            running.add(executor.submit(chunk));
+
+            // merge chunks in order as they finish, keeping a couple per thread in hand
+            while ( running.size() > 2 * nThreads || (! running.isEmpty() && running.getFirst().isDone()) )
+                mergeChunk(summary, running.removeFirst().get(), itemizedOut);
+        }
+    }
+
+    private static void mergeChunk(final LeafDifferenceSummary summary, final ComparedChunk chunk, final PrintStream itemizedOut) {
+        summary.merge(chunk.summary);
+        if ( itemizedOut != null ) {
+            for ( final String diff : chunk.itemized )
+                itemizedOut.printf("DIFF: %s%n", diff);
+        }
+    }
+
+    private <T> StreamedFile<T> openStreamedFile(final File file, final StreamingDiffableReader<T> reader) {
+        try {
+            return new StreamedFile<T>(reader, reader.readHeader(file), reader.iterateRecords(file));
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, e);
+        }
+    }
+
+    private StreamedFile<?> openStreamedFile(final File file) {
+        final DiffableReader reader = findReaderForFile(file);
+        if ( ! (reader instanceof StreamingDiffableReader) )
+            throw new UserException("Unsupported file type for streaming comparison: " + file);
+        return openStreamedFile(file, (StreamingDiffableReader<?>)reader);
+    }
+
+    /**
+     * One of the files being streamed, and its records that haven't been paired up yet
+     */
+    private static class StreamedFile<T> {
+        final StreamingDiffableReader<T> reader;
+        final DiffNode root;
+        final CloseableIterator<Pair<String, T>> records;
+        final Map<String, Object> pending = new LinkedHashMap<String, Object>();
+
+        private StreamedFile(final StreamingDiffableReader<T> reader, final DiffNode root, final CloseableIterator<Pair<String, T>> records) {
+            this.reader = reader;
+            this.root = root;
+            this.records = records;
+        }
+
+        @SuppressWarnings("unchecked")
+        int getRecordSize(final Object record) {
+            return reader.getRecordSize((T)record);
+        }
+
+        @SuppressWarnings("unchecked")
+        DiffElement createElement(final String name, final Object record) {
+            return record == null ? null : reader.createRecordNode(name, (T)record, root.getBinding()).getBinding();
+        }
+    }
+
+    /**
+     * Pairs of records, either of which may be missing, and the summary of their differences once compared
+     */
+    private class ComparedChunk implements Callable<ComparedChunk> {
+        private final StreamedFile<?> master, test;
+        private final List<Object[]> pairs = new ArrayList<Object[]>(RECORDS_PER_CHUNK);
+        private final LeafDifferenceSummary summary = new LeafDifferenceSummary(-1);
+        private final List<String> itemized;
+        private int recordSize = 0;
+
+        private ComparedChunk(final StreamedFile<?> master, final StreamedFile<?> test, final boolean itemize) {
+            this.master = master;
+            this.test = test;
+            this.itemized = itemize ? new ArrayList<String>() : null;
+        }
+
+        private void addPair(final String name, final Object masterRecord, final Object testRecord) {
+            pairs.add(new Object[]{name, masterRecord, testRecord});
+        }
+
+        private int size() {
+            return pairs.size();
+        }
+
+        private void add(final List<Difference> diffs) {
+            for ( final Difference diff : diffs ) {
+                summary.add(diff);
+                if ( itemized != null )
+                    itemized.add(diff.toString());
+            }
+        }
+
+        @Override
+        public ComparedChunk call() {
+            for ( final Object[] pair : pairs ) {
+                final DiffElement masterElt = master.createElement((String)pair[0], pair[1]);
+                final DiffElement testElt = test.createElement((String)pair[0], pair[2]);
+                if ( masterElt == null || testElt == null )
+                    add(Collections.singletonList(new Difference(masterElt, testElt)));
+                else
+                    add(diff(masterElt, testElt));
+            }
+            pairs.clear();
+            return this;
+        }
+    }
+
     public static class SummaryReportParams {
         final PrintStream out;
         final int maxItemsToDisplay;
@@ -33,6 +33,7 @@ import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.walkers.RodWalker;
+import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.sting.utils.help.HelpConstants;
 
@@ -214,11 +215,36 @@ public class DiffObjects extends RodWalker<Integer, Integer> {
     @Argument(fullName="iterations", doc="Number of iterations to perform, should be 1 unless you are doing memory testing", required=false)
     int iterations = 1;
 
+    /**
+     * If provided, the files are compared record by record as they are read, instead of being read into memory
+     * whole and then compared, so that files of any size can be compared.  The summary is the same, except that
+     * its example differences are the first in the files, and that a record named the same as an earlier record of
+     * its file isn't ignored once that earlier record has been paired up: it's paired with and compared to a
+     * duplicate of that name in the other file, or reported as missing from the other file if there's no duplicate
+     * there.  Itemized differences are written in file order.  Can't be combined with doPairwise, and
+     * maxObjectsToRead is ignored.
+     */
+    @Argument(fullName="streaming", shortName="streaming", doc="If provided, we will compare the files record by record without reading them into memory", required=false)
+    boolean streaming = false;
+
+    /**
+     * With streaming, the number of threads to compare records on.  Reading the files always takes one more.
+     */
+    @Argument(fullName="numDiffThreads", shortName="ndt", doc="Number of threads to compare records on when streaming", required=false)
+    int numDiffThreads = 1;
+
     DiffEngine diffEngine;
 
     @Override
     public void initialize() {
         this.diffEngine = new DiffEngine();
+
+        if ( streaming && doPairwise )
+            throw new UserException.BadArgumentValue("doPairwise", "pairwise summaries can't be computed when streaming");
+        if ( numDiffThreads < 1 )
+            throw new UserException.BadArgumentValue("numDiffThreads", "must be at least 1");
+        if ( streaming && MAX_OBJECTS_TO_READ != -1 )
+            logger.warn("maxObjectsToRead is ignored when streaming");
     }
 
     @Override
@@ -244,6 +270,19 @@ public class DiffObjects extends RodWalker<Integer, Integer> {
                 boolean success = DiffEngine.simpleDiffFiles(masterFile, testFile, MAX_OBJECTS_TO_READ, params);
                 logger.info("Iteration " + i + " success " + success);
             }
+        } else if ( streaming ) {
+            if ( showItemizedDifferences )
+                out.printf("Itemized results%n");
+            LeafDifferenceSummary summary = diffEngine.streamingDiffFiles(masterFile, testFile, numDiffThreads,
+                    maxRawDiffsToSummary, showItemizedDifferences ? out : null);
+            logger.info(String.format("Done computing diff with %d differences found", summary.getNumberOfDifferences()));
+
+            DiffEngine.SummaryReportParams params = new DiffEngine.SummaryReportParams(out,
+                    MAX_DIFFS, MAX_COUNT1_DIFFS, minCountForDiff,
+                    maxRawDiffsToSummary, doPairwise);
+            params.setDescending(false);
+            diffEngine.reportSummarizedDifferences(summary, params);
+            logger.info(String.format("Done summarizing differences"));
         } else {
             //out.printf("Reading master file %s%n", masterFile);
             DiffElement master = diffEngine.createDiffableFromFile(masterFile, MAX_OBJECTS_TO_READ);
@@ -0,0 +1,109 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.diffengine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The summary DiffEngine makes of differences when it isn't doing pairwise summaries: for each leaf *.*...*.X, the
+ * number of differences of that length ending in X, and the first of them as an example.
+ *
+ * Differences are counted as they arrive, so the differences themselves needn't be kept, and summaries of
+ * consecutive runs of differences can be merged in order to give the summary of them all.
+ */
+public class LeafDifferenceSummary {
+    private final int maxSummaries;
+    private final Map<String, Difference> summaries = new LinkedHashMap<String, Difference>();
+    private long nDifferences = 0;
+
+    /**
+     * @param maxRawDiffsToSummarize summarize only the leaves of the first differences up to the one which makes
+     *                               the number of leaves exceed this, or -1 to summarize them all
+     */
+    public LeafDifferenceSummary(final int maxRawDiffsToSummarize) {
+        this.maxSummaries = maxRawDiffsToSummarize == -1 ? Integer.MAX_VALUE : maxRawDiffsToSummarize + 1;
+    }
+
+    /**
+     * Count a difference
+     *
+     * @param diff the difference
+     */
+    public void add(final Difference diff) {
+        nDifferences++;
+        final String path = DiffEngine.summarizedPath(diff.getParts(), 1);
+        final Difference summary = summaries.get(path);
+        if ( summary != null ) {
+            summary.incCount();
+        } else if ( summaries.size() < maxSummaries ) {
+            final Difference sumDiff = new Difference(path, diff.getMaster(), diff.getTest());
+            summaries.put(path, sumDiff);
+        }
+    }
+
+    /**
+     * Count all of the differences counted by other, as if they were added after the ones already here
+     *
+     * other must summarize all of its leaves: one that stopped at maxRawDiffsToSummarize would have dropped later
+     * differences whose leaves are summarized here, and so couldn't add them to their counts.
+     *
+     * @param other the summary of later differences, made with maxRawDiffsToSummarize -1
+     */
+    public void merge(final LeafDifferenceSummary other) {
+        if ( other.maxSummaries != Integer.MAX_VALUE )
+            throw new IllegalArgumentException("Only summaries of all of their leaves can be merged into another summary");
+
+        nDifferences += other.nDifferences;
+        for ( final Difference otherSummary : other.summaries.values() ) {
+            final Difference summary = summaries.get(otherSummary.getPath());
+            if ( summary != null ) {
+                summary.setCount(summary.getCount() + otherSummary.getCount());
+            } else if ( summaries.size() < maxSummaries ) {
+                summaries.put(otherSummary.getPath(), otherSummary);
+            }
+        }
+    }
+
+    /**
+     * @return the number of differences counted, including any whose leaves aren't summarized
+     */
+    public long getNumberOfDifferences() {
+        return nDifferences;
+    }
+
+    /**
+     * @return the summarized differences, sorted as DiffEngine reports them
+     */
+    public List<Difference> getSortedSummaries() {
+        final List<Difference> sortedSummaries = new ArrayList<Difference>(summaries.values());
+        Collections.sort(sortedSummaries);
+        return sortedSummaries;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.diffengine;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+import net.sf.samtools.util.CloseableIterator;
+import org.broadinstitute.sting.utils.collections.Pair;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A DiffableReader for files made of a header and a series of independent records, which can read one record's
+ * DiffElements at a time instead of the whole file's.
+ *
+ * The tree readFromFile() builds should be exactly the header node with every named record node added to it, so
+ * that comparing files record by record finds the same differences as comparing the whole trees.
+ *
+ * @param <T> the type of the records
+ */
+public interface StreamingDiffableReader<T> extends DiffableReader {
+    @Ensures("result != null")
+    @Requires("file != null")
+    /**
+     * Read the file-level elements of file, such as its header lines, into a root node named for the file
+     */
+    public DiffNode readHeader(File file) throws IOException;
+
+    @Ensures("result != null")
+    @Requires("file != null")
+    /**
+     * Iterate over the records of file in order, each paired with the name of its node.  Any decoding of a record
+     * that isn't thread safe must be done by the iterator, as the nodes may be created on other threads.
+     */
+    public CloseableIterator<Pair<String, T>> iterateRecords(File file) throws IOException;
+
+    @Ensures("result != null")
+    @Requires({"name != null", "record != null", "parent != null"})
+    /**
+     * Create the node for record, with parent as its parent, without adding it to parent
+     */
+    public DiffNode createRecordNode(String name, T record, DiffElement parent);
+
+    @Ensures("result > 0")
+    @Requires("record != null")
+    /**
+     * Roughly how many values the node of record will hold, such as 1 plus the number of samples of a VCF record, so
+     * that records can be compared in batches of about the same size
+     */
+    public int getRecordSize(T record);
+}
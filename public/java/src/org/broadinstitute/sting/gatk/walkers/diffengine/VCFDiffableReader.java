@@ -25,12 +25,15 @@
 
 package org.broadinstitute.sting.gatk.walkers.diffengine;
 
+import net.sf.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broad.tribble.AbstractFeatureReader;
 import org.broad.tribble.FeatureReader;
 import org.broadinstitute.sting.utils.Utils;
+import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.variant.vcf.*;
 import org.broadinstitute.variant.variantcontext.Genotype;
+import org.broadinstitute.variant.variantcontext.LazyGenotypesContext;
 import org.broadinstitute.variant.variantcontext.VariantContext;
 
 import java.io.*;
@@ -46,7 +49,7 @@ import java.util.Map;
  *
  * Class implementing diffnode reader for VCF
  */
-public class VCFDiffableReader implements DiffableReader {
+public class VCFDiffableReader implements StreamingDiffableReader<VariantContext> {
     private static Logger logger = Logger.getLogger(VCFDiffableReader.class);
 
     @Override
@@ -54,75 +57,15 @@ public class VCFDiffableReader implements DiffableReader {
 
     @Override
     public DiffElement readFromFile(File file, int maxElementsToRead) {
-        DiffNode root = DiffNode.rooted(file.getName());
+        DiffNode root;
         try {
-            // read the version line from the file
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            final String version = br.readLine();
-            root.add("VERSION", version);
-            br.close();
-
-            final VCFCodec vcfCodec = new VCFCodec();
-            vcfCodec.disableOnTheFlyModifications(); // must be read as state is stored in reader itself
-
-            FeatureReader<VariantContext> reader = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), vcfCodec, false);
-            VCFHeader header = (VCFHeader)reader.getHeader();
-            for ( VCFHeaderLine headerLine : header.getMetaDataInInputOrder() ) {
-                String key = headerLine.getKey();
-                if ( headerLine instanceof VCFIDHeaderLine)
-                    key += "_" + ((VCFIDHeaderLine) headerLine).getID();
-                if ( root.hasElement(key) )
-                    logger.warn("Skipping duplicate header line: file=" + file + " line=" + headerLine.toString());
-                else
-                    root.add(key, headerLine.toString());
-            }
+            root = readHeader(file);
 
-            int count = 0, nRecordsAtPos = 1;
-            String prevName = "";
-            Iterator<VariantContext> it = reader.iterator();
+            int count = 0;
+            CloseableIterator<Pair<String, VariantContext>> it = iterateRecords(file);
             while ( it.hasNext() ) {
-                VariantContext vc = it.next();
-                String name = vc.getChr() + ":" + vc.getStart();
-                if ( name.equals(prevName) ) {
-                    name += "_" + ++nRecordsAtPos;
-                } else {
-                    prevName = name;
-                }
-                DiffNode vcRoot = DiffNode.empty(name, root);
-
-                // add fields
-                vcRoot.add("CHROM", vc.getChr());
-                vcRoot.add("POS", vc.getStart());
-                vcRoot.add("ID", vc.getID());
-                vcRoot.add("REF", vc.getReference());
-                vcRoot.add("ALT", vc.getAlternateAlleles());
-                vcRoot.add("QUAL", vc.hasLog10PError() ? vc.getLog10PError() * -10 : VCFConstants.MISSING_VALUE_v4);
-                vcRoot.add("FILTER", ! vc.filtersWereApplied() // needs null to differentiate between PASS and .
-                        ? VCFConstants.MISSING_VALUE_v4
-                        : ( vc.getFilters().isEmpty() ? VCFConstants.PASSES_FILTERS_v4 : vc.getFilters()) );
-
-                // add info fields
-                for (Map.Entry<String, Object> attribute : vc.getAttributes().entrySet()) {
-                    if ( ! attribute.getKey().startsWith("_") )
-                        vcRoot.add(attribute.getKey(), attribute.getValue());
-                }
-
-                for (Genotype g : vc.getGenotypes() ) {
-                    DiffNode gRoot = DiffNode.empty(g.getSampleName(), vcRoot);
-                    gRoot.add("GT", g.getGenotypeString());
-                    if ( g.hasGQ() ) gRoot.add("GQ", g.getGQ() );
-                    if ( g.hasDP() ) gRoot.add("DP", g.getDP() );
-                    if ( g.hasAD() ) gRoot.add("AD", Utils.join(",", g.getAD()));
-                    if ( g.hasPL() ) gRoot.add("PL", Utils.join(",", g.getPL()));
-                    if ( g.getFilters() != null ) gRoot.add("FT", g.getFilters());
-
-                    for (Map.Entry<String, Object> attribute : g.getExtendedAttributes().entrySet()) {
-                        if ( ! attribute.getKey().startsWith("_") )
-                            gRoot.add(attribute.getKey(), attribute.getValue());
-                    }
-
-                    vcRoot.add(gRoot);
-                }
+                Pair<String, VariantContext> record = it.next();
+                DiffNode vcRoot = createRecordNode(record.getFirst(), record.getSecond(), root.getBinding());
 
                 root.add(vcRoot);
                 count += vcRoot.size();
@@ -130,7 +73,7 @@ public class VCFDiffableReader implements DiffableReader {
                     break;
             }
 
-            reader.close();
+            it.close();
         } catch ( IOException e ) {
             return null;
         }
@@ -138,6 +81,141 @@ public class VCFDiffableReader implements DiffableReader {
         return root.getBinding();
     }
 
+    @Override
+    public DiffNode readHeader(File file) throws IOException {
+        DiffNode root = DiffNode.rooted(file.getName());
+
+        // read the version line from the file
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        final String version = br.readLine();
+        root.add("VERSION", version);
+        br.close();
+
+        FeatureReader<VariantContext> reader = openFeatureReader(file);
+        VCFHeader header = (VCFHeader)reader.getHeader();
+        for ( VCFHeaderLine headerLine : header.getMetaDataInInputOrder() ) {
+            String key = headerLine.getKey();
+            if ( headerLine instanceof VCFIDHeaderLine)
+                key += "_" + ((VCFIDHeaderLine) headerLine).getID();
+            if ( root.hasElement(key) )
+                logger.warn("Skipping duplicate header line: file=" + file + " line=" + headerLine.toString());
+            else
+                root.add(key, headerLine.toString());
+        }
+        reader.close();
+
+        return root;
+    }
+
+    private static FeatureReader<VariantContext> openFeatureReader(File file) {
+        final VCFCodec vcfCodec = new VCFCodec();
+        vcfCodec.disableOnTheFlyModifications(); // must be read as state is stored in reader itself
+
+        return AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), vcfCodec, false);
+    }
+
+    @Override
+    public CloseableIterator<Pair<String, VariantContext>> iterateRecords(File file) throws IOException {
+        return new RecordIterator(openFeatureReader(file));
+    }
+
+    @Override
+    public int getRecordSize(VariantContext vc) {
+        return 1 + vc.getNSamples();
+    }
+
+    @Override
+    public DiffNode createRecordNode(String name, VariantContext vc, DiffElement parent) {
+        DiffNode vcRoot = DiffNode.empty(name, parent);
+
+        // add fields
+        vcRoot.add("CHROM", vc.getChr());
+        vcRoot.add("POS", vc.getStart());
+        vcRoot.add("ID", vc.getID());
+        vcRoot.add("REF", vc.getReference());
+        vcRoot.add("ALT", vc.getAlternateAlleles());
+        vcRoot.add("QUAL", vc.hasLog10PError() ? vc.getLog10PError() * -10 : VCFConstants.MISSING_VALUE_v4);
+        vcRoot.add("FILTER", ! vc.filtersWereApplied() // needs null to differentiate between PASS and .
+                ? VCFConstants.MISSING_VALUE_v4
+                : ( vc.getFilters().isEmpty() ? VCFConstants.PASSES_FILTERS_v4 : vc.getFilters()) );
+
+        // add info fields
+        for (Map.Entry<String, Object> attribute : vc.getAttributes().entrySet()) {
+            if ( ! attribute.getKey().startsWith("_") )
+                vcRoot.add(attribute.getKey(), attribute.getValue());
+        }
+
+        for (Genotype g : vc.getGenotypes() ) {
+            DiffNode gRoot = DiffNode.empty(g.getSampleName(), vcRoot);
+            gRoot.add("GT", g.getGenotypeString());
+            if ( g.hasGQ() ) gRoot.add("GQ", g.getGQ() );
+            if ( g.hasDP() ) gRoot.add("DP", g.getDP() );
+            if ( g.hasAD() ) gRoot.add("AD", Utils.join(",", g.getAD()));
+            if ( g.hasPL() ) gRoot.add("PL", Utils.join(",", g.getPL()));
+            if ( g.getFilters() != null ) gRoot.add("FT", g.getFilters());
+
+            for (Map.Entry<String, Object> attribute : g.getExtendedAttributes().entrySet()) {
+                if ( ! attribute.getKey().startsWith("_") )
+                    gRoot.add(attribute.getKey(), attribute.getValue());
+            }
+
+            vcRoot.add(gRoot);
+        }
+
+        return vcRoot;
+    }
+
+    /**
+     * Names each record by its position, with a suffix for records after the first at the same position
+     */
+    private static class RecordIterator implements CloseableIterator<Pair<String, VariantContext>> {
+        private final FeatureReader<VariantContext> reader;
+        private final Iterator<VariantContext> it;
+        private int nRecordsAtPos = 1;
+        private String prevName = "";
+
+        private RecordIterator(FeatureReader<VariantContext> reader) throws IOException {
+            this.reader = reader;
+            this.it = reader.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public Pair<String, VariantContext> next() {
+            VariantContext vc = it.next();
+            String name = vc.getChr() + ":" + vc.getStart();
+            if ( name.equals(prevName) ) {
+                name += "_" + ++nRecordsAtPos;
+            } else {
+                prevName = name;
+            }
+
+            // the codec decodes genotypes with shared buffers, so that can't be left for whichever thread looks first
+            if ( vc.getGenotypes() instanceof LazyGenotypesContext )
+                ((LazyGenotypesContext)vc.getGenotypes()).decode();
+
+            return new Pair<String, VariantContext>(name, vc);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Cannot remove records from a VCF");
+        }
+
+        @Override
+        public void close() {
+            try {
+                reader.close();
+            } catch ( IOException e ) {
+                // nothing more to read, so nothing lost
+            }
+        }
+    }
+
     @Override
     public boolean canRead(File file) {
         return AbstractVCFCodec.canDecodeFile(file.getPath(), VCFCodec.VCF4_MAGIC_HEADER);
@@ -38,6 +38,7 @@ import org.broadinstitute.sting.gatk.walkers.Window;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.SampleUtils;
 import org.broadinstitute.sting.utils.help.HelpConstants;
+import org.broadinstitute.sting.utils.variant.CompiledJexlVCMatchExp;
 import org.broadinstitute.sting.utils.variant.GATKVCFUtils;
 import org.broadinstitute.variant.vcf.*;
 import org.broadinstitute.sting.utils.exceptions.UserException;
@@ -173,9 +174,9 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
     @Argument(fullName="invalidatePreviousFilters",doc="Remove previous filters applied to the VCF",required=false)
     boolean invalidatePrevious = false;
 
-    // JEXL expressions for the filters
-    List<VariantContextUtils.JexlVCMatchExp> filterExps;
-    List<VariantContextUtils.JexlVCMatchExp> genotypeFilterExps;
+    // JEXL expressions for the filters, compiled where possible
+    List<CompiledJexlVCMatchExp> filterExps;
+    List<CompiledJexlVCMatchExp> genotypeFilterExps;
 
     public static final String CLUSTERED_SNP_FILTER_NAME = "SnpCluster";
     private ClusteredSnps clusteredSNPs = null;
@@ -227,8 +228,8 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
 
         if (filterRecordsNotInMask && !mask.isBound())
             throw new UserException.BadArgumentValue("filterNotInMask","argument not allowed if mask argument is not provided");
-        filterExps = VariantContextUtils.initializeMatchExps(FILTER_NAMES, FILTER_EXPS);
-        genotypeFilterExps = VariantContextUtils.initializeMatchExps(GENOTYPE_FILTER_NAMES, GENOTYPE_FILTER_EXPS);
+        filterExps = CompiledJexlVCMatchExp.compile(VariantContextUtils.initializeMatchExps(FILTER_NAMES, FILTER_EXPS));
+        genotypeFilterExps = CompiledJexlVCMatchExp.compile(VariantContextUtils.initializeMatchExps(GENOTYPE_FILTER_NAMES, GENOTYPE_FILTER_EXPS));
 
         VariantContextUtils.engine.get().setSilent(true);
 
@@ -335,8 +336,8 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
                     final List<String> filters = new ArrayList<String>();
                     if ( g.isFiltered() ) filters.add(g.getFilters());
 
-                    for ( VariantContextUtils.JexlVCMatchExp exp : genotypeFilterExps ) {
-                        if ( VariantContextUtils.match(vc, g, exp) )
+                    for ( CompiledJexlVCMatchExp exp : genotypeFilterExps ) {
+                        if ( exp.match(vc, g) )
                             filters.add(exp.name);
                     }
 
@@ -356,9 +357,9 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
         if ( clusteredSNPs != null && clusteredSNPs.filter(variantContextWindow) )
             filters.add(CLUSTERED_SNP_FILTER_NAME);
 
-        for ( VariantContextUtils.JexlVCMatchExp exp : filterExps ) {
+        for ( CompiledJexlVCMatchExp exp : filterExps ) {
             try {
-                if ( VariantContextUtils.match(vc, exp) )
+                if ( exp.match(vc) )
                     filters.add(exp.name);
             } catch (Exception e) {
                 // do nothing unless specifically asked to; it just means that the expression isn't defined for this context
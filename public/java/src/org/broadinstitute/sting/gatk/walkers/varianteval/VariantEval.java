@@ -64,6 +64,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * General-purpose tool for variant evaluation (% in dbSNP, genotype concordance, Ti/Tv ratios, and a lot more)
@@ -255,7 +256,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     private static String ALL_SAMPLE_NAME = "all";
 
     // the number of processed bp for this walker
-    long nProcessedLoci = 0;
+    private final AtomicLong nProcessedLoci = new AtomicLong(0);
 
     // Utility class
     private final VariantEvalUtils variantEvalUtils = new VariantEvalUtils(this);
@@ -265,6 +266,35 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
 
     // The set of all possible evaluation contexts
     StratificationManager<VariantStratifier, EvaluationContext> stratManager;
+
+    // The evaluators in each evaluation context
+    private Set<Class<? extends VariantEvaluator>> evaluationClasses;
+
+    // If true, each thread evaluates into its own copy of stratManager (see getThreadStratManager())
+    private boolean evaluateOnEachThread = false;
+
+    // The per-thread copies of stratManager, which are combined into it in onTraversalDone()
+    private final List<StratificationManager<VariantStratifier, EvaluationContext>> threadStratManagers =
+            Collections.synchronizedList(new ArrayList<StratificationManager<VariantStratifier, EvaluationContext>>());
+
+    private final ThreadLocal<StratificationManager<VariantStratifier, EvaluationContext>> threadStratManager =
+            new ThreadLocal<StratificationManager<VariantStratifier, EvaluationContext>>() {
+                @Override
+                protected StratificationManager<VariantStratifier, EvaluationContext> initialValue() {
+                    final StratificationManager<VariantStratifier, EvaluationContext> manager = stratManager.createEmptyCopy();
+                    threadStratManagers.add(manager);
+                    return manager;
+                }
+            };
+
+    // Each thread looks up the keys of its evaluation contexts in its own reusable buffer
+    private final ThreadLocal<StratificationManager.KeyBuffer> keyBuffer =
+            new ThreadLocal<StratificationManager.KeyBuffer>() {
+                @Override
+                protected StratificationManager.KeyBuffer initialValue() {
+                    return new StratificationManager.KeyBuffer();
+                }
+            };
     //Set<DynamicStratification> dynamicStratifications = Collections.emptySet();
 
     /**
@@ -314,7 +344,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
         // Initialize the set of stratifications and evaluations to use
         // The list of stratifiers and evaluators to use
         final List<VariantStratifier> stratificationObjects = variantEvalUtils.initializeStratificationObjects(NO_STANDARD_STRATIFICATIONS, STRATIFICATIONS_TO_USE);
-        final Set<Class<? extends VariantEvaluator>> evaluationClasses = variantEvalUtils.initializeEvaluationObjects(NO_STANDARD_MODULES, MODULES_TO_USE);
+        evaluationClasses = variantEvalUtils.initializeEvaluationObjects(NO_STANDARD_MODULES, MODULES_TO_USE);
 
         checkForIncompatibleEvaluatorsAndStratifiers(stratificationObjects, evaluationClasses);
 
@@ -338,6 +368,13 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
         // Initialize the evaluation contexts
         createStratificationStates(stratificationObjects, evaluationClasses);
 
+        // With more than one thread, evaluating into a single set of contexts means every thread contends for
+        // the same few (eg., all / known / novel) contexts at every site.  If the results of our evaluators can
+        // be combined we instead give each thread its own contexts, and combine them all at the end.
+        evaluateOnEachThread = getToolkit().getTotalNumberOfThreads() > 1 && allEvaluatorsSupportCombine();
+        if ( evaluateOnEachThread )
+            logger.info("Evaluating into separate stratification states on each thread");
+
         // Load ancestral alignments
         if (ancestralAlignmentsFile != null) {
             try {
@@ -377,6 +414,46 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
         }
     }    
     
+    /**
+     * @return true if every evaluator in our evaluation contexts can combine its results with another's
+     */
+    private boolean allEvaluatorsSupportCombine() {
+        for ( final VariantEvaluator evaluator : stratManager.get(0).getVariantEvaluators() ) {
+            if ( ! evaluator.supportsCombine() )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get this thread's private copy of stratManager
+     *
+     * The copy starts out with no evaluation contexts at all, and contexts are only created as the
+     * thread needs them, so that per-thread copies of rarely visited states cost nothing.
+     *
+     * @return the StratificationManager into which this thread should evaluate
+     */
+    private StratificationManager<VariantStratifier, EvaluationContext> getThreadStratManager() {
+        return threadStratManager.get();
+    }
+
+    /**
+     * Combine each thread's evaluation contexts into those of stratManager, leaving the per-thread copies empty
+     */
+    private void combineThreadStratManagers() {
+        synchronized (threadStratManagers) {
+            for ( final StratificationManager<VariantStratifier, EvaluationContext> threadManager : threadStratManagers ) {
+                for ( int key = 0; key < threadManager.size(); key++ ) {
+                    final EvaluationContext threadContext = threadManager.get(key);
+                    if ( threadContext != null ) {
+                        stratManager.get(key).combine(threadContext);
+                        threadManager.set(key, null);
+                    }
+                }
+            }
+        }
+    }
+
     public final Map<String, IntervalTree<GenomeLoc>> createIntervalTreeByContig(final IntervalBinding<Feature> intervals) {
         final Map<String, IntervalTree<GenomeLoc>> byContig = new HashMap<String, IntervalTree<GenomeLoc>>();
 
@@ -400,9 +477,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         // we track the processed bp and expose this for modules instead of wasting CPU power on calculating
         // the same thing over and over in evals that want the processed bp
-        synchronized (this) {
-            nProcessedLoci += context.getSkippedBases() + (ref == null ? 0 : 1);
-        }
+        nProcessedLoci.addAndGet(context.getSkippedBases() + (ref == null ? 0 : 1));
 
         if (tracker != null) {
             String aastr = (ancestralAlignments == null) ? null : new String(ancestralAlignments.getSubsequenceAt(ref.getLocus().getContig(), ref.getLocus().getStart(), ref.getLocus().getStop()).getBases());
@@ -450,7 +525,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
 
                             for ( EvaluationContext nec : getEvaluationContexts(tracker, ref, eval, evalRod.getName(), comp, compRod.getName(), sampleName) ) {
 
-                                // eval against the comp
+                                // eval against the comp.  These locks are uncontended if evaluateOnEachThread
                                 synchronized (nec) {
                                     nec.apply(tracker, ref, context, comp, eval);
                                 }
@@ -479,8 +554,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
      * Given specific eval and comp VCs and the sample name, return an iterable
      * over all of the applicable state keys.
      *
-     * this code isn't structured yet for efficiency.  Here we currently are
-     * doing the following inefficient algorithm:
+     * Here we are doing the following algorithm:
      *
      * for each strat:
      *   get list of relevant states that eval and comp according to strat
@@ -494,14 +568,11 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
      *
      *   L = [[Eval], [Comp], [All, Novel]]
      *
-     * We then go through the strat manager tree to produce the keys associated with these states:
+     * We then ask the strat manager to compute the keys associated with these states, into
+     * this thread's reusable key buffer:
      *
      *   K = [0, 1] where EVAL x COMP x ALL = 0 and EVAL x COMP x NOVEL = 1
      *
-     * It's clear that a better
-     *
-     * TODO -- create an inline version that doesn't create the intermediate list of list
-     *
      * @param tracker
      * @param ref
      * @param eval
@@ -518,11 +589,25 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
                                                                   final VariantContext comp,
                                                                   final String compName,
                                                                   final String sampleName ) {
-        final List<List<Object>> states = new LinkedList<List<Object>>();
-        for ( final VariantStratifier vs : stratManager.getStratifiers() ) {
+        final List<VariantStratifier> stratifiers = stratManager.getStratifiers();
+        final List<List<Object>> states = new ArrayList<List<Object>>(stratifiers.size());
+        for ( final VariantStratifier vs : stratifiers ) {
             states.add(vs.getRelevantStates(ref, tracker, comp, compName, eval, evalName, sampleName));
         }
-        return stratManager.values(states);
+
+        final StratificationManager<VariantStratifier, EvaluationContext> manager = evaluateOnEachThread ? getThreadStratManager() : stratManager;
+        final StratificationManager.KeyBuffer keys = manager.getKeys(states, keyBuffer.get());
+        final List<EvaluationContext> contexts = new ArrayList<EvaluationContext>(keys.size());
+        for ( int i = 0; i < keys.size(); i++ ) {
+            // only the per-thread managers are filled in lazily; the shared one has every context from the start
+            EvaluationContext context = manager.get(keys.get(i));
+            if ( context == null ) {
+                context = new EvaluationContext(this, evaluationClasses);
+                manager.set(keys.get(i), context);
+            }
+            contexts.add(context);
+        }
+        return contexts;
     }
 
 
@@ -600,7 +685,10 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
      */
     public void onTraversalDone(Integer result) {
         logger.info("Finalizing variant report");
-        
+
+        if ( evaluateOnEachThread )
+            combineThreadStratManagers();
+
         // go through the evaluations and finalize them
         for ( final EvaluationContext nec : stratManager.values() )
             for ( final VariantEvaluator ve : nec.getVariantEvaluators() )
@@ -641,7 +729,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     public Set<SortableJexlVCMatchExp> getJexlExpressions() { return jexlExpressions; }
 
     public long getnProcessedLoci() {
-        return nProcessedLoci;
+        return nProcessedLoci.get();
     }
 
     public Set<String> getContigNames() {
@@ -28,16 +28,13 @@ package org.broadinstitute.sting.gatk.walkers.varianteval.evaluators;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
-import org.broadinstitute.sting.gatk.samples.Sample;
+import org.broadinstitute.sting.gatk.samples.PedigreeIndex;
 import org.broadinstitute.sting.gatk.walkers.varianteval.VariantEval;
 import org.broadinstitute.sting.gatk.walkers.varianteval.util.Analysis;
 import org.broadinstitute.sting.gatk.walkers.varianteval.util.DataPoint;
 import org.broadinstitute.sting.utils.MendelianViolation;
 import org.broadinstitute.variant.variantcontext.VariantContext;
 
-import java.util.Map;
-import java.util.Set;
-
 /**
  * Mendelian violation detection and counting
  * <p/>
@@ -127,12 +124,12 @@ public class MendelianViolationEvaluator extends VariantEvaluator {
     public long HomVarHet_inheritedVar;
 
     MendelianViolation mv;
-    Map<String,Set<Sample>> families;
+    PedigreeIndex pedigree;
 
     public void initialize(VariantEval walker) {
         super.initialize(walker);
         mv = new MendelianViolation(walker.getMendelianViolationQualThreshold(),false);
-        families = walker.getSampleDB().getFamilies();
+        pedigree = walker.getSampleDB().getPedigreeIndex();
     }
 
     public String getName() {
@@ -146,7 +143,7 @@ public class MendelianViolationEvaluator extends VariantEvaluator {
     public void update1(VariantContext vc, RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if (vc.isBiallelic() && vc.hasGenotypes()) { // todo -- currently limited to biallelic loci
 
-            if(mv.countViolations(families,vc)>0){
+            if(mv.countViolations(pedigree,vc)>0){
                 nLociViolations++;
                 nViolations += mv.getViolationsCount();
                 mvRefRef_Var += mv.getParentsRefRefChildVar();
@@ -184,4 +181,42 @@ public class MendelianViolationEvaluator extends VariantEvaluator {
             }
         }
     }
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final MendelianViolationEvaluator that = (MendelianViolationEvaluator)other;
+        nVariants += that.nVariants;
+        nSkipped += that.nSkipped;
+        nFamCalled += that.nFamCalled;
+        nVarFamCalled += that.nVarFamCalled;
+        nLowQual += that.nLowQual;
+        nNoCall += that.nNoCall;
+        nLociViolations += that.nLociViolations;
+        nViolations += that.nViolations;
+        mvRefRef_Var += that.mvRefRef_Var;
+        mvRefRef_Het += that.mvRefRef_Het;
+        mvRefHet_Var += that.mvRefHet_Var;
+        mvRefVar_Var += that.mvRefVar_Var;
+        mvRefVar_Ref += that.mvRefVar_Ref;
+        mvVarHet_Ref += that.mvVarHet_Ref;
+        mvVarVar_Ref += that.mvVarVar_Ref;
+        mvVarVar_Het += that.mvVarVar_Het;
+        HomRefHomRef_HomRef += that.HomRefHomRef_HomRef;
+        HetHet_Het += that.HetHet_Het;
+        HetHet_HomRef += that.HetHet_HomRef;
+        HetHet_HomVar += that.HetHet_HomVar;
+        HomVarHomVar_HomVar += that.HomVarHomVar_HomVar;
+        HomRefHomVAR_Het += that.HomRefHomVAR_Het;
+        HetHet_inheritedRef += that.HetHet_inheritedRef;
+        HetHet_inheritedVar += that.HetHet_inheritedVar;
+        HomRefHet_inheritedRef += that.HomRefHet_inheritedRef;
+        HomRefHet_inheritedVar += that.HomRefHet_inheritedVar;
+        HomVarHet_inheritedRef += that.HomVarHet_inheritedRef;
+        HomVarHet_inheritedVar += that.HomVarHet_inheritedVar;
+    }
 }
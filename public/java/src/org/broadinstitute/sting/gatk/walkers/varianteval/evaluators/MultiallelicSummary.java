@@ -161,4 +161,24 @@ public class MultiallelicSummary extends VariantEvaluator implements StandardEva
         SNPNoveltyRate = Utils.formattedNoveltyRate(knownSNPsPartial + knownSNPsComplete, nMultiSNPs);
         indelNoveltyRate = Utils.formattedNoveltyRate(knownIndelsPartial + knownIndelsComplete, nMultiSNPs);
     }
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final MultiallelicSummary that = (MultiallelicSummary)other;
+        nSNPs += that.nSNPs;
+        nMultiSNPs += that.nMultiSNPs;
+        nIndels += that.nIndels;
+        nMultiIndels += that.nMultiIndels;
+        nTi += that.nTi;
+        nTv += that.nTv;
+        knownSNPsPartial += that.knownSNPsPartial;
+        knownSNPsComplete += that.knownSNPsComplete;
+        knownIndelsPartial += that.knownIndelsPartial;
+        knownIndelsComplete += that.knownIndelsComplete;
+    }
 }
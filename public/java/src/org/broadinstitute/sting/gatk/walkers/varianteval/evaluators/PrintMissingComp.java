@@ -54,4 +54,15 @@ public class PrintMissingComp extends VariantEvaluator {
             super.getWalker().getLogger().info("MissingFrom" + eval.toString() + " is missing from " + comp.getSource());
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final PrintMissingComp that = (PrintMissingComp)other;
+        nMissing += that.nMissing;
+    }
+}
@@ -118,6 +118,14 @@ public class VariantSummary extends VariantEvaluator implements StandardEval {
             get(type).put(sample, count + 1);
         }
 
+        public final void add(final TypeSampleMap other) {
+            for ( final Type type : Type.values() ) {
+                final Map<String, Integer> bySample = get(type);
+                for ( final Map.Entry<String, Integer> count : other.get(type).entrySet() )
+                    bySample.put(count.getKey(), bySample.get(count.getKey()) + count.getValue());
+            }
+        }
+
         public final int all(Type type) {
             return get(type).get(ALL);
         }
@@ -274,4 +282,20 @@ public class VariantSummary extends VariantEvaluator implements StandardEval {
         SNPDPPerSample = depthPerSample.meanValue(Type.SNP);
         IndelDPPerSample = depthPerSample.meanValue(Type.INDEL);
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final VariantSummary that = (VariantSummary)other;
+        allVariantCounts.add(that.allVariantCounts);
+        knownVariantCounts.add(that.knownVariantCounts);
+        countsPerSample.add(that.countsPerSample);
+        transitionsPerSample.add(that.transitionsPerSample);
+        transversionsPerSample.add(that.transversionsPerSample);
+        depthPerSample.add(that.depthPerSample);
+    }
+}
@@ -40,14 +40,19 @@ import java.util.*;
  * @since 3/27/12
  */
 public class StratificationManager<K extends Stratifier, V> implements Map<List<Object>, V> {
-    private final StratNode<K> root;
     private final int size;
 
     private final ArrayList<K> stratifiers;
 
+    // the distinct states of each stratifier, in order, and the map from each state back to its index
+    private final Object[][] statesByStratifier;
+    private final ArrayList<Map<Object, Integer>> stateIndicesByStratifier;
+
+    // the key of a combination of states is sum_i stateIndex_i * strides[i], so the first stratifier varies slowest
+    private final int[] strides;
+
     // values associated with each key
     private final ArrayList<V> valuesByKey;
-    private final ArrayList<List<Object>> stratifierValuesByKey;
     private final ArrayList<String> keyStrings;
 
     // -------------------------------------------------------------------------------------
@@ -57,113 +62,95 @@ public class StratificationManager<K extends Stratifier, V> implements Map<List<
     // -------------------------------------------------------------------------------------
 
     /**
-     * Create a new StratificationManager with nodes to store data for all combinations
+     * Create a new StratificationManager with keys for all combinations
      * of the ordered list of strats
      *
+     * Rather than building a tree of the combinations, each stratifier's states are numbered
+     * 0 to N - 1 once, and the key of a combination of states is computed arithmetically
+     * from these numbers, as a mixed radix number with one digit per stratifier.
+     *
      * @param strats ordered list of stratifications to representation
      */
     @Requires("!strats.isEmpty()")
     public StratificationManager(final List<K> strats) {
         this.stratifiers = new ArrayList<K>(strats);
 
-        // construct and store the full tree of strats
-        this.root = buildStratificationTree(new LinkedList<K>(strats));
-        // assign the linear key ordering to the leafs
-        assignKeys(root);
+        final int nStrats = stratifiers.size();
+        this.statesByStratifier = new Object[nStrats][];
+        this.stateIndicesByStratifier = new ArrayList<Map<Object, Integer>>(nStrats);
+        for ( int i = 0; i < nStrats; i++ ) {
+            final K strat = stratifiers.get(i);
+            final Collection<Object> states = strat.getAllStates();
 
-        // cache the size, and check for a bad state
-        this.size = root.size();
-        if ( this.size == 0 )
-            throw new ReviewedStingException("Size == 0 in StratificationManager");
+            if ( states.isEmpty() )
+                throw new ReviewedStingException("State " + strat + " is empty!");
+
+            // number the distinct states in order
+            final LinkedHashMap<Object, Integer> stateIndices = new LinkedHashMap<Object, Integer>(states.size());
+            for ( final Object state : states ) {
+                if ( ! stateIndices.containsKey(state) )
+                    stateIndices.put(state, stateIndices.size());
+            }
+
+            this.statesByStratifier[i] = stateIndices.keySet().toArray();
+            this.stateIndicesByStratifier.add(Collections.unmodifiableMap(new HashMap<Object, Integer>(stateIndices)));
+        }
+
+        // assign the strides, and check for a bad state
+        this.strides = new int[nStrats];
+        long nKeys = 1;
+        for ( int i = nStrats - 1; i >= 0; i-- ) {
+            strides[i] = (int)nKeys;
+            nKeys *= statesByStratifier[i].length;
+            if ( nKeys > Integer.MAX_VALUE )
+                throw new ReviewedStingException("Too many combinations of stratification states in StratificationManager: " + Utils.join(",", stratifiers));
+        }
+        this.size = (int)nKeys;
 
         // prepare the assocated data vectors mapping from key -> data
         this.valuesByKey = new ArrayList<V>(size());
-        this.stratifierValuesByKey = new ArrayList<List<Object>>(size());
         this.keyStrings = new ArrayList<String>(size());
         for ( int i = 0; i < size(); i++ ) {
             this.valuesByKey.add(null);
-            this.stratifierValuesByKey.add(null);
             this.keyStrings.add(null);
         }
-
-        assignStratifierValuesByKey(root);
     }
 
     /**
-     * Recursive construction helper for main constructor that fills into the
-     * complete tree of StratNodes.  This function returns the complete tree
-     * suitable for associating data with each combinatino of keys.  Note
-     * that the tree is not fully complete as the keys are not yet set for
-     * each note (see assignStratifierValuesByKey)
+     * Create a new StratificationManager with the same stratifications and keys as other, but with no values
      *
-     * @param strats
-     * @return
+     * The two managers share the (immutable) numbering of stratification states, so this is cheap, and
+     * the values of the new manager can be combined key for key with those of other.
+     *
+     * @param other the manager to copy
      */
-    private StratNode<K> buildStratificationTree(final Queue<K> strats) {
-        final K first = strats.poll();
-        if ( first == null ) {
-            // we are at a leaf
-            return new StratNode<K>();
-        } else {
-            // we are in the middle of the tree
-            final Collection<Object> states = first.getAllStates();
-            
-            if ( states.isEmpty() )
-                throw new ReviewedStingException("State " + first + " is empty!");
-            
-            final LinkedHashMap<Object, StratNode<K>> subNodes = new LinkedHashMap<Object, StratNode<K>>(states.size());
-            for ( final Object state : states ) {
-                // have to copy because poll modifies the queue
-                final Queue<K> copy = new LinkedList<K>(strats);
-                subNodes.put(state, buildStratificationTree(copy));
-            }
-            return new StratNode<K>(first, subNodes);
-        }
-    }
+    private StratificationManager(final StratificationManager<K, V> other) {
+        this.stratifiers = other.stratifiers;
+        this.statesByStratifier = other.statesByStratifier;
+        this.stateIndicesByStratifier = other.stateIndicesByStratifier;
+        this.strides = other.strides;
+        this.size = other.size;
 
-    /**
-     * Set the key for each leaf from root, in order from 0 to N - 1 for N leaves in the tree
-     * @param root
-     */
-    @Requires("root == this.root")
-    private void assignKeys(final StratNode<K> root) {
-        int key = 0;
-        for ( final StratNode<K> node : root ) {
-            if ( node.isLeaf() )
-                node.setKey(key++);
+        this.valuesByKey = new ArrayList<V>(size());
+        this.keyStrings = new ArrayList<String>(size());
+        for ( int i = 0; i < size(); i++ ) {
+            this.valuesByKey.add(null);
+            this.keyStrings.add(null);
         }
     }
 
     /**
-     * Entry point to recursive tool that fills in the list of state values corresponding
-     * to each key.  After this function is called you can map from key -> List of StateValues
-     * instead of walking the tree to find the key and reading the list of state values
+     * Create a manager with exactly the same stratifications and keys as this one, but with every value null
+     *
+     * Useful for accumulating values on another thread, to be combined with ours later
      *
-     * @param root
+     * @return a new, empty StratificationManager
      */
-    private void assignStratifierValuesByKey(final StratNode<K> root) {
-        assignStratifierValuesByKey(root, new LinkedList<Object>());
-
-        // do a last sanity check that no key has null value after assigning
-        for ( List<Object> stateValues : stratifierValuesByKey )
-            if ( stateValues == null )
-                throw new ReviewedStingException("Found a null state value set that's null");
+    @Ensures("result.size() == size()")
+    public StratificationManager<K, V> createEmptyCopy() {
+        return new StratificationManager<K, V>(this);
     }
 
-    private void assignStratifierValuesByKey(final StratNode<K> node, final LinkedList<Object> states) {
-        if ( node.isLeaf() ) { // we're here!
-            if ( states.isEmpty() )
-                throw new ReviewedStingException("Found a leaf node with an empty state values vector");
-            stratifierValuesByKey.set(node.getKey(), Collections.unmodifiableList(new ArrayList<Object>(states)));
-        } else {
-            for ( Map.Entry<Object, StratNode<K>> entry : node.getSubnodes().entrySet() ) {
-                final LinkedList<Object> newStates = new LinkedList<Object>(states);
-                newStates.addLast(entry.getKey());
-                assignStratifierValuesByKey(entry.getValue(), newStates);
-            }
-        }
-    }
-    
     // -------------------------------------------------------------------------------------
     //
     // simple accessors
@@ -179,11 +166,6 @@ public class StratificationManager<K extends Stratifier, V> implements Map<List<
         return size;
     }
 
-    @Ensures("result != null")
-    protected StratNode<K> getRoot() {
-        return root;
-    }
-
     @Ensures("result != null")
     public List<K> getStratifiers() {
         return stratifiers;
@@ -195,24 +177,121 @@ public class StratificationManager<K extends Stratifier, V> implements Map<List<
     //
     // -------------------------------------------------------------------------------------
 
+    /**
+     * A reusable buffer of keys, filled in by getKeys(allStates, buffer) so that
+     * looking up the keys of each site doesn't have to allocate anything
+     *
+     * Not thread safe, so each thread needs its own buffer
+     */
+    public static final class KeyBuffer {
+        private int[] keys = new int[16];
+        private int[] stateIndices = new int[16];
+        private int size = 0;
+
+        /**
+         * @return the number of keys in this buffer
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param i the offset of the key to get
+         * @return the ith key in this buffer
+         */
+        @Requires("i >= 0 && i < size()")
+        public int get(final int i) {
+            return keys[i];
+        }
+    }
+
     @Requires("states != null")
     @Ensures("result >= -1")
     public int getKey(final List<Object> states) {
-        return root.find(states, 0);
+        int key = 0;
+        for ( int i = 0; i < strides.length; i++ ) {
+            final Integer stateIndex = stateIndicesByStratifier.get(i).get(states.get(i));
+            if ( stateIndex == null )
+                return -1;
+            key += stateIndex * strides[i];
+        }
+        return key;
     }
 
     @Requires("allStates != null")
     @Ensures("result != null")
     public Set<Integer> getKeys(final List<List<Object>> allStates) {
-        final HashSet<Integer> keys = new HashSet<Integer>();
-        root.find(allStates, 0, keys);
+        final KeyBuffer buffer = getKeys(allStates, new KeyBuffer());
+        final HashSet<Integer> keys = new HashSet<Integer>(buffer.size());
+        for ( int i = 0; i < buffer.size(); i++ )
+            keys.add(buffer.get(i));
         return keys;
     }
 
+    /**
+     * Fill buffer with the keys of every combination of allStates
+     *
+     * Each key appears exactly once in buffer, even if a stratifier's states include duplicates
+     *
+     * @param allStates for each stratifier, the list of its states we want the keys for
+     * @param buffer the buffer to write the keys into, replacing its current contents
+     * @return buffer
+     */
+    @Requires({"allStates != null", "buffer != null"})
+    @Ensures("result == buffer")
+    public KeyBuffer getKeys(final List<List<Object>> allStates, final KeyBuffer buffer) {
+        int nKeys = 1;
+        buffer.keys[0] = 0;
+
+        for ( int i = 0; i < strides.length; i++ ) {
+            final List<Object> states = allStates.get(i);
+
+            // convert the states to their distinct indices
+            if ( buffer.stateIndices.length < states.size() )
+                buffer.stateIndices = new int[states.size()];
+            int nStates = 0;
+            for ( final Object state : states ) {
+                final Integer stateIndex = stateIndicesByStratifier.get(i).get(state);
+                if ( stateIndex == null )
+                    throw new ReviewedStingException("Couldn't find state for " + state + " in stratification " + stratifiers.get(i));
+                if ( ! contains(buffer.stateIndices, nStates, stateIndex) )
+                    buffer.stateIndices[nStates++] = stateIndex;
+            }
+
+            // expand each of the keys so far into one key per state, working backwards so we never
+            // overwrite a key we haven't expanded yet
+            final long nNewKeys = (long)nKeys * nStates;
+            if ( nNewKeys > buffer.keys.length )
+                buffer.keys = Arrays.copyOf(buffer.keys, (int)Math.max(nNewKeys, 2L * buffer.keys.length));
+            for ( int k = nKeys - 1; k >= 0; k-- ) {
+                final int prefix = buffer.keys[k];
+                for ( int j = nStates - 1; j >= 0; j-- )
+                    buffer.keys[k * nStates + j] = prefix + buffer.stateIndices[j] * strides[i];
+            }
+            nKeys = (int)nNewKeys;
+        }
+
+        buffer.size = nKeys;
+        return buffer;
+    }
+
+    private static boolean contains(final int[] values, final int n, final int value) {
+        for ( int i = 0; i < n; i++ )
+            if ( values[i] == value )
+                return true;
+        return false;
+    }
+
+    @Requires("key >= 0 && key < size()")
+    private Object getStateForKey(final int key, final int stratIndex) {
+        final Object[] states = statesByStratifier[stratIndex];
+        return states[(key / strides[stratIndex]) % states.length];
+    }
+
     public List<Object> getStatesForKey(final int key) {
         final List<Object> states = new ArrayList<Object>(stratifiers.size());
         for ( int i = 0; i < stratifiers.size(); i++ ) {
-            final Object stratValue = stratifierValuesByKey.get(key).get(i);
+            final Object stratValue = getStateForKey(key, i);
             states.add(stratValue);
         }
         return states;
@@ -222,7 +301,7 @@ public class StratificationManager<K extends Stratifier, V> implements Map<List<
         final List<Pair<K, Object>> states = new ArrayList<Pair<K, Object>>(stratifiers.size());
         for ( int i = 0; i < stratifiers.size(); i++ ) {
             final K strat = stratifiers.get(i);
-            final Object stratValue = stratifierValuesByKey.get(key).get(i);
+            final Object stratValue = getStateForKey(key, i);
             states.add(new Pair<K, Object>(strat, stratValue));
         }
         return states;
@@ -233,7 +312,7 @@ public class StratificationManager<K extends Stratifier, V> implements Map<List<
             StringBuilder b = new StringBuilder();
             for ( int i = 0; i < stratifiers.size(); i++ ) {
                 final K strat = stratifiers.get(i);
-                final Object stratValue = stratifierValuesByKey.get(key).get(i);
+                final Object stratValue = getStateForKey(key, i);
                 b.append(strat.toString()).append(":").append(stratValue.toString());
             }
             keyStrings.set(key, b.toString());
@@ -255,10 +334,10 @@ public class StratificationManager<K extends Stratifier, V> implements Map<List<
     }
     
     public Collection<V> values(List<List<Object>> states) {
-        // TODO -- SHOULD BE INLINE TO AVOID CREATING LIST OF KEYS JUST TO ITERATE OVER IT
-        Collection<V> vals = new LinkedList<V>();
-        for ( int key : getKeys(states) ) 
-            vals.add(get(key));
+        final KeyBuffer keys = getKeys(states, new KeyBuffer());
+        final List<V> vals = new ArrayList<V>(keys.size());
+        for ( int i = 0; i < keys.size(); i++ )
+            vals.add(get(keys.get(i)));
         return vals;
     }
 
@@ -39,6 +39,9 @@ import org.broadinstitute.sting.utils.classloader.PluginManager;
 import org.broadinstitute.variant.vcf.VCFConstants;
 import org.broadinstitute.sting.utils.exceptions.StingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.variant.variantcontext.Allele;
+import org.broadinstitute.variant.variantcontext.Genotype;
+import org.broadinstitute.variant.variantcontext.GenotypesContext;
 import org.broadinstitute.variant.variantcontext.VariantContext;
 import org.broadinstitute.variant.variantcontext.VariantContextBuilder;
 import org.broadinstitute.variant.variantcontext.VariantContextUtils;
@@ -203,6 +206,58 @@ public class VariantEvalUtils {
         return ensureAnnotations(vc, vc.subContextFromSamples(sampleNames, deriveAlleles));
     }
 
+    /**
+     * Subset a VariantContext to the single sample carrying genotype g
+     *
+     * Produces exactly the same VariantContext as getSubsetOfVariantContext(vc, g.getSampleName()), but builds
+     * it directly from the genotype in a single pass rather than subsetting the GenotypesContext of vc and then
+     * rebuilding the result to add the singleton and chromosome count annotations.
+     *
+     * @param vc the VariantContext object containing multiple samples
+     * @param g  a genotype of vc
+     * @return a new VariantContext with just the sample of g
+     */
+    public VariantContext getSubsetOfVariantContext(final VariantContext vc, final Genotype g) {
+        // subContextFromSamples returns vc itself when nothing would be removed, which we don't replicate here
+        if ( vc.getNSamples() == 1 )
+            return getSubsetOfVariantContext(vc, g.getSampleName());
+
+        final VariantContextBuilder builder = new VariantContextBuilder(vc).genotypes(GenotypesContext.create(g));
+        if ( variantEvalWalker.ignoreAC0Sites() )
+            builder.alleles(allelesOfGenotype(vc, g));
+
+        final int originalAlleleCount = vc.getHetCount() + 2 * vc.getHomVarCount();
+        final int newAlleleCount = g.isHet() ? 1 : (g.isHomVar() ? 2 : 0);
+        if ( originalAlleleCount == newAlleleCount && newAlleleCount == 1 )
+            builder.attribute(VariantEval.IS_SINGLETON_KEY, true);
+
+        final VariantContext vcsub = builder.make();
+        if ( vcsub.hasAttribute(VCFConstants.ALLELE_COUNT_KEY) &&
+                vcsub.hasAttribute(VCFConstants.ALLELE_FREQUENCY_KEY) &&
+                vcsub.hasAttribute(VCFConstants.ALLELE_NUMBER_KEY) )
+            return vcsub;
+
+        final Map<String, Object> attributes = VariantContextUtils.calculateChromosomeCounts(vcsub, new HashMap<String, Object>(vcsub.getAttributes()), true, Collections.<String>emptySet());
+        return builder.attributes(attributes).make();
+    }
+
+    /**
+     * The alleles subContextFromSamples would derive for a context holding only genotype g: the called
+     * alleles of g, plus the reference allele of vc if g doesn't carry it
+     */
+    private static Set<Allele> allelesOfGenotype(final VariantContext vc, final Genotype g) {
+        final Set<Allele> alleles = new HashSet<Allele>();
+        boolean sawRef = false;
+        for ( final Allele a : g.getAlleles() ) {
+            sawRef = sawRef || a.isReference();
+            if ( a.isCalled() )
+                alleles.add(a);
+        }
+        if ( ! sawRef )
+            alleles.add(vc.getReference());
+        return alleles;
+    }
+
     public VariantContext ensureAnnotations(final VariantContext vc, final VariantContext vcsub) {
         final int originalAlleleCount = vc.getHetCount() + 2 * vc.getHomVarCount();
         final int newAlleleCount = vcsub.getHetCount() + 2 * vcsub.getHomVarCount();
@@ -272,13 +327,25 @@ public class VariantEvalUtils {
                     addMapping(mapping, VariantEval.getAllSampleName(), vcsub);
                 }
 
-                // Now, if stratifying, split the subsetted vc per sample and add each as a new context
-                if (vc.hasGenotypes() && trackPerSample) {
-                    for (String sampleName : variantEvalWalker.getSampleNamesForEvaluation()) {
-                        VariantContext samplevc = getSubsetOfVariantContext(vc, sampleName);
+                // Now, if stratifying, split the subsetted vc per sample and add each as a new context.  Filtering
+                // is a property of the site, so there's no point in building per-sample contexts we'll throw away
+                if (vc.hasGenotypes() && trackPerSample && (byFilter || !vc.isFiltered())) {
+                    final Set<String> samplesForEvaluation = variantEvalWalker.getSampleNamesForEvaluation();
+
+                    // a single pass over the genotypes, building each sample's context straight from its genotype
+                    int nSamplesSeen = 0;
+                    for (final Genotype g : vc.getGenotypes()) {
+                        if (samplesForEvaluation.contains(g.getSampleName())) {
+                            addMapping(mapping, g.getSampleName(), getSubsetOfVariantContext(vc, g));
+                            nSamplesSeen++;
+                        }
+                    }
 
-                        if (byFilter || !samplevc.isFiltered()) {
-                            addMapping(mapping, sampleName, samplevc);
+                    // samples without a genotype here still get their own (genotype-free) context
+                    if (nSamplesSeen < samplesForEvaluation.size()) {
+                        for (final String sampleName : samplesForEvaluation) {
+                            if (!vc.hasGenotype(sampleName))
+                                addMapping(mapping, sampleName, getSubsetOfVariantContext(vc, sampleName));
                         }
                     }
                 }
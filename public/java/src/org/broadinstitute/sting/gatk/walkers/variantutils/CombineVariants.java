@@ -44,7 +44,6 @@ import org.broadinstitute.variant.vcf.*;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.variant.variantcontext.VariantContext;
-import org.broadinstitute.variant.variantcontext.VariantContextBuilder;
 import org.broadinstitute.variant.variantcontext.VariantContextUtils;
 import org.broadinstitute.variant.variantcontext.writer.Options;
 import org.broadinstitute.variant.variantcontext.writer.VariantContextWriter;
@@ -196,6 +195,11 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
 
     private List<String> priority = null;
 
+    /** The names of the input VCFs, which we only need to look up once */
+    private Set<String> rodNames;
+
+    private CombineVariantsEngine engine;
+
     /** Optimization to strip out genotypes before merging if we are doing a sites_only output */
     private boolean sitesOnlyVCF = false;
     private Set<String> samples;
@@ -233,35 +237,30 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
         VCFHeader vcfHeader = new VCFHeader(headerLines, samples);
         vcfHeader.setWriteCommandLine(!SUPPRESS_COMMAND_LINE_HEADER);
         vcfWriter.writeHeader(vcfHeader);
+
+        engine = new CombineVariantsEngine(priority, rodNames.size(), genotypeMergeOption, filteredRecordsMergeType,
+                multipleAllelesMergeType, SET_KEY, printComplexMerges, filteredAreUncalled, MERGE_INFO_WITH_MAX_AC,
+                COMBINE_ANNOTATIONS, minimalVCF, EXCLUDE_NON_VARIANTS, minimumN);
     }
 
     private void validateAnnotateUnionArguments() {
-        Set<String> rodNames = SampleUtils.getRodNamesWithVCFHeader(getToolkit(), null);
-
-        if ( genotypeMergeOption == GATKVariantContextUtils.GenotypeMergeType.PRIORITIZE && PRIORITY_STRING == null )
-            throw new UserException.MissingArgument("rod_priority_list", "Priority string must be provided if you want to prioritize genotypes");
-
-        if ( PRIORITY_STRING != null){
-            priority = new ArrayList<>(Arrays.asList(PRIORITY_STRING.split(",")));
-            if ( rodNames.size() != priority.size() )
-                throw new UserException.BadArgumentValue("rod_priority_list", "The priority list must contain exactly one rod binding per ROD provided to the GATK: rodNames=" + rodNames + " priority=" + priority);
-
-            if ( ! rodNames.containsAll(priority) )
-                throw new UserException.BadArgumentValue("rod_priority_list", "Not all priority elements provided as input RODs: " + PRIORITY_STRING);
-        }
-
+        rodNames = SampleUtils.getRodNamesWithVCFHeader(getToolkit(), null);
+        priority = CombineVariantsEngine.parsePriorityList(PRIORITY_STRING, genotypeMergeOption, rodNames);
     }
 
     public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if ( tracker == null ) // RodWalkers can make funky map calls
             return 0;
 
-        final Set<String> rodNames = SampleUtils.getRodNamesWithVCFHeader(getToolkit(), null);
         // get all of the vcf rods at this locus
         // Need to provide reference bases to simpleMerge starting at current locus
         Collection<VariantContext> vcs = tracker.getValues(variants, context.getLocation());
-        Collection<VariantContext> potentialRefVCs = tracker.getValues(variants);
-        potentialRefVCs.removeAll(vcs);
+        Collection<VariantContext> potentialRefVCs = new ArrayList<>();
+        for ( final VariantContext vc : tracker.getValues(variants) ) {
+            // everything here overlaps the locus, and the records starting at it are exactly vcs
+            if ( vc.getStart() != context.getLocation().getStart() )
+                potentialRefVCs.add(vc);
+        }
 
         if ( sitesOnlyVCF ) {
             vcs = VariantContextUtils.sitesOnlyVariantContexts(vcs);
@@ -276,68 +275,8 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
             return vcs.isEmpty() ? 0 : 1;
         }
 
-        int numFilteredRecords = 0;
-        for (final VariantContext vc : vcs) {
-            if (vc.filtersWereApplied() && vc.isFiltered())
-                numFilteredRecords++;
-        }
-
-        if (minimumN > 1 && (vcs.size() - numFilteredRecords < minimumN))
-            return 0;
-
-        final List<VariantContext> mergedVCs = new ArrayList<>();
-
-        if (multipleAllelesMergeType == GATKVariantContextUtils.MultipleAllelesMergeType.BY_TYPE) {
-            final Map<VariantContext.Type, List<VariantContext>> VCsByType = GATKVariantContextUtils.separateVariantContextsByType(vcs);
-
-            // TODO -- clean this up in a refactoring
-            // merge NO_VARIATION into another type of variant (based on the ordering in VariantContext.Type)
-            if ( VCsByType.containsKey(VariantContext.Type.NO_VARIATION) && VCsByType.size() > 1 ) {
-                final List<VariantContext> refs = VCsByType.remove(VariantContext.Type.NO_VARIATION);
-                for ( final VariantContext.Type type : VariantContext.Type.values() ) {
-                    if ( VCsByType.containsKey(type) ) {
-                        VCsByType.get(type).addAll(refs);
-                        break;
-                    }
-                }
-            }
-
-            // iterate over the types so that it's deterministic
-            for (final VariantContext.Type type : VariantContext.Type.values()) {
-                // make sure that it is a variant or in case it is not, that we want to include the sites with no variants
-                if (!EXCLUDE_NON_VARIANTS || !type.equals(VariantContext.Type.NO_VARIATION)) {
-                    if (VCsByType.containsKey(type)) {
-                        mergedVCs.add(GATKVariantContextUtils.simpleMerge(VCsByType.get(type), potentialRefVCs,
-                                priority, rodNames.size(), filteredRecordsMergeType, genotypeMergeOption, true, printComplexMerges,
-                                SET_KEY, filteredAreUncalled, MERGE_INFO_WITH_MAX_AC, COMBINE_ANNOTATIONS));
-                    }
-                }
-            }
-        }
-        else if (multipleAllelesMergeType == GATKVariantContextUtils.MultipleAllelesMergeType.MIX_TYPES) {
-            mergedVCs.add(GATKVariantContextUtils.simpleMerge(vcs, potentialRefVCs,
-                    priority, rodNames.size(), filteredRecordsMergeType, genotypeMergeOption, true, printComplexMerges,
-                    SET_KEY, filteredAreUncalled, MERGE_INFO_WITH_MAX_AC, COMBINE_ANNOTATIONS));
-        }
-        else {
-            logger.warn("Ignoring all records at site " + ref.getLocus());
-        }
-
-        for ( final VariantContext mergedVC : mergedVCs ) {
-            // only operate at the start of events
-            if ( mergedVC == null )
-                continue;
-
-            final VariantContextBuilder builder = new VariantContextBuilder(mergedVC);
-            // re-compute chromosome counts
-            VariantContextUtils.calculateChromosomeCounts(builder, false);
-
-            if ( minimalVCF )
-                GATKVariantContextUtils.pruneVariantContext(builder, Arrays.asList(SET_KEY));
-            final VariantContext vc = builder.make();
-            if( !EXCLUDE_NON_VARIANTS || vc.isPolymorphicInSamples() )
-                vcfWriter.add(builder.make());
-        }
+        for ( final VariantContext mergedVC : engine.merge(vcs, potentialRefVCs) )
+            vcfWriter.add(mergedVC);
 
         return vcs.isEmpty() ? 0 : 1;
     }
@@ -0,0 +1,202 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.variant.GATKVariantContextUtils;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.variantcontext.VariantContextBuilder;
+import org.broadinstitute.variant.variantcontext.VariantContextUtils;
+
+import java.util.*;
+
+/**
+ * The merging logic of CombineVariants, independent of how the records at each site are found.
+ *
+ * Given the records from all of the inputs that start at a site, and the records from earlier sites that
+ * still overlap it, produces the combined records CombineVariants writes there.  CombineVariants uses it
+ * from the GATK engine's traversal, and CombineSortedVariants from its own k-way merge of the inputs.
+ *
+ * An engine holds no per-site state, so one instance can be shared by any number of threads.
+ */
+public class CombineVariantsEngine {
+    private final List<String> priority;
+    private final int numberOfSources;
+    private final GATKVariantContextUtils.GenotypeMergeType genotypeMergeOption;
+    private final GATKVariantContextUtils.FilteredRecordMergeType filteredRecordsMergeType;
+    private final GATKVariantContextUtils.MultipleAllelesMergeType multipleAllelesMergeType;
+    private final String setKey;
+    private final boolean printComplexMerges;
+    private final boolean filteredAreUncalled;
+    private final boolean mergeInfoWithMaxAC;
+    private final boolean combineAnnotations;
+    private final boolean minimalVCF;
+    private final boolean excludeNonVariants;
+    private final int minimumN;
+
+    /**
+     * Create an engine; the arguments have the meanings of the CombineVariants arguments of the same names
+     *
+     * @param priority the rod priority list, or null if none was given
+     * @param numberOfSources the number of input VCFs being combined
+     * @param setKey the INFO key describing which sources a record came from, or null to leave it out
+     */
+    public CombineVariantsEngine(final List<String> priority,
+                                 final int numberOfSources,
+                                 final GATKVariantContextUtils.GenotypeMergeType genotypeMergeOption,
+                                 final GATKVariantContextUtils.FilteredRecordMergeType filteredRecordsMergeType,
+                                 final GATKVariantContextUtils.MultipleAllelesMergeType multipleAllelesMergeType,
+                                 final String setKey,
+                                 final boolean printComplexMerges,
+                                 final boolean filteredAreUncalled,
+                                 final boolean mergeInfoWithMaxAC,
+                                 final boolean combineAnnotations,
+                                 final boolean minimalVCF,
+                                 final boolean excludeNonVariants,
+                                 final int minimumN) {
+        if ( numberOfSources < 1 ) throw new IllegalArgumentException("numberOfSources must be at least 1 but got " + numberOfSources);
+        if ( multipleAllelesMergeType == null ) throw new IllegalArgumentException("multipleAllelesMergeType cannot be null");
+
+        this.priority = priority;
+        this.numberOfSources = numberOfSources;
+        this.genotypeMergeOption = genotypeMergeOption;
+        this.filteredRecordsMergeType = filteredRecordsMergeType;
+        this.multipleAllelesMergeType = multipleAllelesMergeType;
+        this.setKey = setKey;
+        this.printComplexMerges = printComplexMerges;
+        this.filteredAreUncalled = filteredAreUncalled;
+        this.mergeInfoWithMaxAC = mergeInfoWithMaxAC;
+        this.combineAnnotations = combineAnnotations;
+        this.minimalVCF = minimalVCF;
+        this.excludeNonVariants = excludeNonVariants;
+        this.minimumN = minimumN;
+    }
+
+    /**
+     * Parse a rod priority list, checking that it names each of the inputs exactly once
+     *
+     * @param priorityString the comma-separated priority list given on the command line, or null if there isn't one
+     * @param genotypeMergeOption the genotype merge option given on the command line, or null if there isn't one
+     * @param rodNames the names of the inputs
+     * @return the priority list, or null if there isn't one
+     */
+    public static List<String> parsePriorityList(final String priorityString,
+                                                 final GATKVariantContextUtils.GenotypeMergeType genotypeMergeOption,
+                                                 final Set<String> rodNames) {
+        if ( genotypeMergeOption == GATKVariantContextUtils.GenotypeMergeType.PRIORITIZE && priorityString == null )
+            throw new UserException.MissingArgument("rod_priority_list", "Priority string must be provided if you want to prioritize genotypes");
+
+        if ( priorityString == null )
+            return null;
+
+        final List<String> priority = new ArrayList<>(Arrays.asList(priorityString.split(",")));
+        if ( rodNames.size() != priority.size() )
+            throw new UserException.BadArgumentValue("rod_priority_list", "The priority list must contain exactly one rod binding per ROD provided to the GATK: rodNames=" + rodNames + " priority=" + priority);
+
+        if ( ! rodNames.containsAll(priority) )
+            throw new UserException.BadArgumentValue("rod_priority_list", "Not all priority elements provided as input RODs: " + priorityString);
+
+        return priority;
+    }
+
+    /**
+     * Combine the records at a single site
+     *
+     * @param vcs the records starting at this site, in the order of the inputs
+     * @param potentialRefVCs the records starting before this site that overlap it, which are only searched for reference blocks
+     * @return the combined records to write at this site, in order; may be empty
+     */
+    public List<VariantContext> merge(final Collection<VariantContext> vcs, final Collection<VariantContext> potentialRefVCs) {
+        if ( vcs.isEmpty() )
+            return Collections.emptyList();
+
+        if ( minimumN > 1 ) {
+            int numFilteredRecords = 0;
+            for ( final VariantContext vc : vcs ) {
+                if ( vc.filtersWereApplied() && vc.isFiltered() )
+                    numFilteredRecords++;
+            }
+
+            if ( vcs.size() - numFilteredRecords < minimumN )
+                return Collections.emptyList();
+        }
+
+        final List<VariantContext> mergedVCs = new ArrayList<>();
+
+        if ( multipleAllelesMergeType == GATKVariantContextUtils.MultipleAllelesMergeType.BY_TYPE ) {
+            final Map<VariantContext.Type, List<VariantContext>> VCsByType = GATKVariantContextUtils.separateVariantContextsByType(vcs);
+
+            // TODO -- clean this up in a refactoring
+            // merge NO_VARIATION into another type of variant (based on the ordering in VariantContext.Type)
+            if ( VCsByType.containsKey(VariantContext.Type.NO_VARIATION) && VCsByType.size() > 1 ) {
+                final List<VariantContext> refs = VCsByType.remove(VariantContext.Type.NO_VARIATION);
+                for ( final VariantContext.Type type : VariantContext.Type.values() ) {
+                    if ( VCsByType.containsKey(type) ) {
+                        VCsByType.get(type).addAll(refs);
+                        break;
+                    }
+                }
+            }
+
+            // iterate over the types so that it's deterministic
+            for ( final VariantContext.Type type : VariantContext.Type.values() ) {
+                // make sure that it is a variant or in case it is not, that we want to include the sites with no variants
+                if ( !excludeNonVariants || !type.equals(VariantContext.Type.NO_VARIATION) ) {
+                    if ( VCsByType.containsKey(type) )
+                        addMerged(mergedVCs, simpleMerge(VCsByType.get(type), potentialRefVCs));
+                }
+            }
+        } else {
+            addMerged(mergedVCs, simpleMerge(vcs, potentialRefVCs));
+        }
+
+        return mergedVCs;
+    }
+
+    private VariantContext simpleMerge(final Collection<VariantContext> vcs, final Collection<VariantContext> potentialRefVCs) {
+        return GATKVariantContextUtils.simpleMerge(vcs, potentialRefVCs, priority, numberOfSources, filteredRecordsMergeType,
+                genotypeMergeOption, true, printComplexMerges, setKey, filteredAreUncalled, mergeInfoWithMaxAC, combineAnnotations);
+    }
+
+    /**
+     * Finish mergedVC and add it to mergedVCs if it should be written
+     */
+    private void addMerged(final List<VariantContext> mergedVCs, final VariantContext mergedVC) {
+        // only operate at the start of events
+        if ( mergedVC == null )
+            return;
+
+        final VariantContextBuilder builder = new VariantContextBuilder(mergedVC);
+        // re-compute chromosome counts
+        VariantContextUtils.calculateChromosomeCounts(builder, false);
+
+        if ( minimalVCF )
+            GATKVariantContextUtils.pruneVariantContext(builder, Arrays.asList(setKey));
+        final VariantContext vc = builder.make();
+        if ( !excludeNonVariants || vc.isPolymorphicInSamples() )
+            mergedVCs.add(vc);
+    }
+}
@@ -36,26 +36,65 @@ import java.util.*;
 
 /**
  * A class for tabulating and evaluating a callset-by-callset genotype concordance table
+ *
+ * The overlapping samples are numbered once, up front, and all of the per-sample genotype tables live in a single
+ * flat array indexed by [sample][eval type][truth type].  The genotypes of each record are found by position, using
+ * the sample order of the record's GenotypesContext, which is worked out once and then reused for as long as the
+ * records keep the same layout (as records read from the same VCF do).
+ *
+ * Metrics are mergeable, so that different parts of the genome may be tabulated separately -- by different threads,
+ * say -- and combined afterwards.
  * */
 public class ConcordanceMetrics {
-
-    private Map<String,GenotypeConcordanceTable> perSampleGenotypeConcordance;
-    private GenotypeConcordanceTable overallGenotypeConcordance;
-    private SiteConcordanceTable overallSiteConcordance;
+    private final static int N_TYPES = GenotypeType.values().length;
+    private final static int TABLE_SIZE = N_TYPES * N_TYPES;
+    private final static byte[] NO_CALL_BASES = Allele.NO_CALL_STRING.getBytes();
+
+    /**
+     * The samples in both callsets; a sample's index into this array is its index into the tables below
+     */
+    private final String[] samples;
+    private final Map<String,Integer> sampleIndices;
+
+    /**
+     * genotypeCounts[TABLE_SIZE * sample + N_TYPES * evalType + truthType] counts the genotype pairs of sample
+     * with the given types, except for those with mismatching alternate alleles which are counted in nMismatchingAlt
+     */
+    private final int[] genotypeCounts;
+    private final int[] nMismatchingAlt;
+    private final SiteConcordanceTable overallSiteConcordance;
+
+    private final SampleLayout evalLayout = new SampleLayout();
+    private final SampleLayout truthLayout = new SampleLayout();
 
     public ConcordanceMetrics(VCFHeader evaluate, VCFHeader truth) {
         HashSet<String> overlappingSamples = new HashSet<String>(evaluate.getGenotypeSamples());
-        overlappingSamples.retainAll(truth.getGenotypeSamples());
-        perSampleGenotypeConcordance = new HashMap<String, GenotypeConcordanceTable>(overlappingSamples.size());
-        for ( String sample : overlappingSamples ) {
-            perSampleGenotypeConcordance.put(sample,new GenotypeConcordanceTable());
-        }
-        overallGenotypeConcordance = new GenotypeConcordanceTable();
+        overlappingSamples.retainAll(new HashSet<String>(truth.getGenotypeSamples()));
+        samples = overlappingSamples.toArray(new String[overlappingSamples.size()]);
+        sampleIndices = new HashMap<String, Integer>(samples.length);
+        for ( int i = 0; i < samples.length; i++ )
+            sampleIndices.put(samples[i], i);
+
+        genotypeCounts = new int[TABLE_SIZE * samples.length];
+        nMismatchingAlt = new int[samples.length];
         overallSiteConcordance = new SiteConcordanceTable();
     }
 
+    /**
+     * @return the concordance table of all of the samples together, as of now
+     */
     public GenotypeConcordanceTable getOverallGenotypeConcordance() {
-        return overallGenotypeConcordance;
+        final int[] overallCounts = new int[TABLE_SIZE];
+        for ( int i = 0; i < genotypeCounts.length; i += TABLE_SIZE ) {
+            for ( int j = 0; j < TABLE_SIZE; j++ )
+                overallCounts[j] += genotypeCounts[i + j];
+        }
+
+        int overallMismatchingAlt = 0;
+        for ( final int n : nMismatchingAlt )
+            overallMismatchingAlt += n;
+
+        return new GenotypeConcordanceTable(overallCounts, 0, new int[]{overallMismatchingAlt}, 0);
     }
 
     public SiteConcordanceTable getOverallSiteConcordance() {
@@ -63,19 +102,26 @@ public class ConcordanceMetrics {
     }
 
     public GenotypeConcordanceTable getGenotypeConcordance(String sample) {
-        GenotypeConcordanceTable table = perSampleGenotypeConcordance.get(sample);
-        if ( table == null )
+        Integer index = sampleIndices.get(sample);
+        if ( index == null )
             throw new ReviewedStingException("Attempted to request the concordance table for sample "+sample+" on which it was not calculated");
-        return table;
+        return getGenotypeConcordance(index);
+    }
+
+    private GenotypeConcordanceTable getGenotypeConcordance(int sampleIndex) {
+        return new GenotypeConcordanceTable(genotypeCounts, TABLE_SIZE * sampleIndex, nMismatchingAlt, sampleIndex);
     }
 
     public Map<String,GenotypeConcordanceTable> getPerSampleGenotypeConcordance() {
+        Map<String,GenotypeConcordanceTable> perSampleGenotypeConcordance = new HashMap<String, GenotypeConcordanceTable>(samples.length);
+        for ( int i = 0; i < samples.length; i++ )
+            perSampleGenotypeConcordance.put(samples[i], getGenotypeConcordance(i));
         return Collections.unmodifiableMap(perSampleGenotypeConcordance);
     }
 
     public Map<String,Double> getPerSampleNRD() {
-        Map<String,Double> nrd = new HashMap<String,Double>(perSampleGenotypeConcordance.size());
-        for ( Map.Entry<String,GenotypeConcordanceTable> sampleTable : perSampleGenotypeConcordance.entrySet() ) {
+        Map<String,Double> nrd = new HashMap<String,Double>(samples.length);
+        for ( Map.Entry<String,GenotypeConcordanceTable> sampleTable : getPerSampleGenotypeConcordance().entrySet() ) {
             nrd.put(sampleTable.getKey(),calculateNRD(sampleTable.getValue()));
         }
 
@@ -83,8 +129,8 @@ public class ConcordanceMetrics {
     }
 
     public Map<String,Double> getPerSampleOGC() {
-        Map<String,Double> ogc = new HashMap<String,Double>(perSampleGenotypeConcordance.size());
-        for ( Map.Entry<String,GenotypeConcordanceTable> sampleTable : perSampleGenotypeConcordance.entrySet() ) {
+        Map<String,Double> ogc = new HashMap<String,Double>(samples.length);
+        for ( Map.Entry<String,GenotypeConcordanceTable> sampleTable : getPerSampleGenotypeConcordance().entrySet() ) {
             ogc.put(sampleTable.getKey(),calculateOGC(sampleTable.getValue()));
         }
 
@@ -92,16 +138,16 @@ public class ConcordanceMetrics {
     }
 
     public Double getOverallNRD() {
-        return calculateNRD(overallGenotypeConcordance);
+        return calculateNRD(getOverallGenotypeConcordance());
     }
 
     public Double getOverallOGC() {
-        return calculateOGC(overallGenotypeConcordance);
+        return calculateOGC(getOverallGenotypeConcordance());
     }
 
     public Map<String,Double> getPerSampleNRS() {
-        Map<String,Double> nrs = new HashMap<String,Double>(perSampleGenotypeConcordance.size());
-        for ( Map.Entry<String,GenotypeConcordanceTable> sampleTable : perSampleGenotypeConcordance.entrySet() ) {
+        Map<String,Double> nrs = new HashMap<String,Double>(samples.length);
+        for ( Map.Entry<String,GenotypeConcordanceTable> sampleTable : getPerSampleGenotypeConcordance().entrySet() ) {
             nrs.put(sampleTable.getKey(),calculateNRS(sampleTable.getValue()));
         }
 
@@ -109,28 +155,144 @@ public class ConcordanceMetrics {
     }
 
     public Double getOverallNRS() {
-        return calculateNRS(overallGenotypeConcordance);
+        return calculateNRS(getOverallGenotypeConcordance());
     }
 
     @Requires({"eval != null","truth != null"})
     public void update(VariantContext eval, VariantContext truth) {
         overallSiteConcordance.update(eval,truth);
-        Set<String> alleleTruth = new HashSet<String>(8);
-        String truthRef = truth.getReference().getBaseString();
-        alleleTruth.add(truthRef);
-        for ( Allele a : truth.getAlternateAlleles() ) {
-            alleleTruth.add(a.getBaseString());
-        }
-        for ( String sample : perSampleGenotypeConcordance.keySet() ) {
-            Genotype evalGenotype = eval.getGenotype(sample);
-            Genotype truthGenotype = truth.getGenotype(sample);
+
+        final GenotypesContext evalGenotypes = eval.getGenotypes();
+        final GenotypesContext truthGenotypes = truth.getGenotypes();
+        final int[] evalOffsets = evalLayout.getOffsets(evalGenotypes, eval);
+        final int[] truthOffsets = truthLayout.getOffsets(truthGenotypes, truth);
+        final List<Allele> truthAlleles = truth.getAlleles();
+        final Allele truthRef = truth.getReference();
+
+        for ( int sample = 0; sample < samples.length; sample++ ) {
+            Genotype evalGenotype = evalGenotypes.get(evalOffsets[sample]);
+            Genotype truthGenotype = truthGenotypes.get(truthOffsets[sample]);
             // ensure genotypes are either no-call ("."), missing (empty alleles), or diploid
             if ( ( ! evalGenotype.isNoCall() && evalGenotype.getPloidy() != 2 && evalGenotype.getPloidy() > 0) ||
                  ( ! truthGenotype.isNoCall() && truthGenotype.getPloidy() != 2 && truthGenotype.getPloidy() > 0) ) {
                 throw new UserException(String.format("Concordance Metrics is currently only implemented for DIPLOID genotypes, found eval ploidy: %d, comp ploidy: %d",evalGenotype.getPloidy(),truthGenotype.getPloidy()));
             }
-            perSampleGenotypeConcordance.get(sample).update(evalGenotype,truthGenotype,alleleTruth,truthRef);
-            overallGenotypeConcordance.update(evalGenotype,truthGenotype,alleleTruth,truthRef);
+
+            if ( hasMatchingAlt(evalGenotype, truthGenotype, truthAlleles, truthRef) )
+                genotypeCounts[TABLE_SIZE * sample + N_TYPES * evalGenotype.getType().ordinal() + truthGenotype.getType().ordinal()]++;
+            else
+                nMismatchingAlt[sample]++;
+        }
+    }
+
+    /**
+     * Add the counts of other, which must have been made for the same callsets, to ours
+     *
+     * @param other the metrics to add to these
+     */
+    public void merge(ConcordanceMetrics other) {
+        if ( ! Arrays.equals(samples, other.samples) )
+            throw new ReviewedStingException("Attempted to merge concordance metrics calculated on different samples");
+
+        for ( int i = 0; i < genotypeCounts.length; i++ )
+            genotypeCounts[i] += other.genotypeCounts[i];
+        for ( int i = 0; i < nMismatchingAlt.length; i++ )
+            nMismatchingAlt[i] += other.nMismatchingAlt[i];
+        overallSiteConcordance.merge(other.overallSiteConcordance);
+    }
+
+    /**
+     * NOTE: a reference call in "truth" is a special case, the eval can match *any* of the truth alleles
+     * that is, if the reference base is C, and a sample is C/C in truth, A/C, A/A, T/C, T/T will
+     * all match, so long as A and T are alleles in the truth callset.
+     *
+     * Alleles are compared by their base strings, so symbolic alleles match one another.
+     *
+     * @return false if the eval genotype has an allele that is not ref, no-call, or present in truth
+     */
+    private static boolean hasMatchingAlt(Genotype eval, Genotype truth, List<Allele> truthAlleles, Allele truthRef) {
+        // by default, no-calls "match" between alleles, so if
+        // one or both sites are no-call or unavailable, the alt alleles match
+        if ( ! eval.isCalled() || ! truth.isCalled() )
+            return true;
+
+        if ( truth.isHomRef() ) {
+            for ( Allele evalAllele : eval.getAlleles() ) {
+                if ( ! containsBaseString(truthAlleles, evalAllele) )
+                    return false;
+            }
+        } else {
+            // otherwise, the eval genotype has to match either the alleles in the truth genotype, or the truth reference allele
+            for ( Allele evalAllele : eval.getAlleles() ) {
+                if ( ! sameBaseString(evalAllele, truthRef) && ! containsBaseString(truth.getAlleles(), evalAllele) )
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean containsBaseString(List<Allele> alleles, Allele allele) {
+        for ( int i = 0; i < alleles.size(); i++ ) {
+            if ( sameBaseString(alleles.get(i), allele) )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a.getBaseString().equals(b.getBaseString()), without making the strings
+     */
+    private static boolean sameBaseString(Allele a, Allele b) {
+        return a == b || Arrays.equals(a.isNoCall() ? NO_CALL_BASES : a.getBases(), b.isNoCall() ? NO_CALL_BASES : b.getBases());
+    }
+
+    /**
+     * Finds our samples by position in the genotypes of records, remembering the sample order of the last record
+     * seen so that records with the same order as the last are cheap to handle
+     */
+    private class SampleLayout {
+        private String[] sampleNames = new String[0];
+        private int[] offsets = null;
+
+        /**
+         * @return the positions of our samples in genotypes, which are those of vc
+         */
+        public int[] getOffsets(GenotypesContext genotypes, VariantContext vc) {
+            if ( ! hasSameLayout(genotypes) ) {
+                final String[] names = new String[genotypes.size()];
+                final Map<String,Integer> positions = new HashMap<String, Integer>(names.length);
+                for ( int i = 0; i < names.length; i++ ) {
+                    names[i] = genotypes.get(i).getSampleName();
+                    positions.put(names[i], i);
+                }
+
+                final int[] newOffsets = new int[samples.length];
+                for ( int i = 0; i < samples.length; i++ ) {
+                    final Integer position = positions.get(samples[i]);
+                    if ( position == null )
+                        throw new UserException(String.format("Sample %s is missing from the genotypes of the record at %s:%d", samples[i], vc.getChr(), vc.getStart()));
+                    newOffsets[i] = position;
+                }
+
+                sampleNames = names;
+                offsets = newOffsets;
+            }
+
+            return offsets;
+        }
+
+        private boolean hasSameLayout(GenotypesContext genotypes) {
+            if ( offsets == null || genotypes.size() != sampleNames.length )
+                return false;
+
+            for ( int i = 0; i < sampleNames.length; i++ ) {
+                final String name = genotypes.get(i).getSampleName();
+                // records from one VCF share their sample name strings, so this is almost always the == test
+                if ( name != sampleNames[i] && ! name.equals(sampleNames[i]) )
+                    return false;
+            }
+            return true;
         }
     }
 
@@ -154,7 +316,6 @@ public class ConcordanceMetrics {
         // note: if there are no observations (so the ratio is NaN), set this to 100%
         return total == 0 ? 1.0 : 1.0 - ( (double) correct)/( (double) total);
     }
-
     private static double calculateOGC(int[][] concordanceCounts) {
         int correct = 0;
         int total = 0;
@@ -201,64 +362,39 @@ public class ConcordanceMetrics {
     }
 
 
+    /**
+     * The concordance table of a sample, or of all of the samples together, which is a view onto the counts at
+     * offset in the flat table genotypeCounts
+     */
     class GenotypeConcordanceTable {
 
-        private int[][] genotypeCounts;
-        private int nMismatchingAlt;
-
-        public GenotypeConcordanceTable() {
-            genotypeCounts = new int[GenotypeType.values().length][GenotypeType.values().length];
-            nMismatchingAlt = 0;
-        }
-
-        @Requires({"eval!=null","truth != null","truthAlleles != null"})
-        public void update(Genotype eval, Genotype truth, Set<String> truthAlleles, String truthRef) {
-            // this is slow but correct.
-
-            // NOTE: a reference call in "truth" is a special case, the eval can match *any* of the truth alleles
-            // that is, if the reference base is C, and a sample is C/C in truth, A/C, A/A, T/C, T/T will
-            // all match, so long as A and T are alleles in the truth callset.
-            boolean matchingAlt = true;
-            if ( eval.isCalled() && truth.isCalled() && truth.isHomRef() ) {
-                // by default, no-calls "match" between alleles, so if
-                // one or both sites are no-call or unavailable, the alt alleles match
-                // otherwise, check explicitly: if the eval has an allele that's not ref, no-call, or present in truth
-                // the alt allele is mismatching - regardless of whether the genotype is correct.
-                for ( Allele evalAllele : eval.getAlleles() ) {
-                    matchingAlt &= truthAlleles.contains(evalAllele.getBaseString());
-                }
-            } else if ( eval.isCalled() && truth.isCalled() ) {
-                // otherwise, the eval genotype has to match either the alleles in the truth genotype, or the truth reference allele
-                // todo -- this can be sped up by caching the truth allele sets
-                Set<String> genoAlleles = new HashSet<String>(3);
-                genoAlleles.add(truthRef);
-                for ( Allele truthGenoAl : truth.getAlleles() ) {
-                    genoAlleles.add(truthGenoAl.getBaseString());
-                }
-                for ( Allele evalAllele : eval.getAlleles() ) {
-                    matchingAlt &= genoAlleles.contains(evalAllele.getBaseString());
-                }
-            }
+        private final int[] genotypeCounts;
+        private final int offset;
+        private final int[] nMismatchingAlt;
+        private final int mismatchingAltIndex;
 
-            if ( matchingAlt ) {
-                genotypeCounts[eval.getType().ordinal()][truth.getType().ordinal()]++;
-            } else {
-                nMismatchingAlt++;
-            }
+        private GenotypeConcordanceTable(int[] genotypeCounts, int offset, int[] nMismatchingAlt, int mismatchingAltIndex) {
+            this.genotypeCounts = genotypeCounts;
+            this.offset = offset;
+            this.nMismatchingAlt = nMismatchingAlt;
+            this.mismatchingAltIndex = mismatchingAltIndex;
         }
 
         public int[][] getTable() {
-            return genotypeCounts;
+            int[][] table = new int[N_TYPES][N_TYPES];
+            for ( int evalType = 0; evalType < N_TYPES; evalType++ )
+                System.arraycopy(genotypeCounts, offset + N_TYPES * evalType, table[evalType], 0, N_TYPES);
+            return table;
         }
 
         public int getnMismatchingAlt() {
-            return nMismatchingAlt;
+            return nMismatchingAlt[mismatchingAltIndex];
         }
 
         public int getnEvalGenotypes(GenotypeType type) {
             int nGeno = 0;
             for ( GenotypeType comptype : GenotypeType.values() )
-                nGeno += genotypeCounts[type.ordinal()][comptype.ordinal()];
+                nGeno += get(type, comptype);
             return nGeno;
         }
 
@@ -268,13 +404,13 @@ public class ConcordanceMetrics {
                 nGeno += getnEvalGenotypes(evalType);
             }
 
-            return nGeno + nMismatchingAlt;
+            return nGeno + getnMismatchingAlt();
         }
 
         public int getnCompGenotypes(GenotypeType type) {
             int nGeno = 0;
             for ( GenotypeType evaltype : GenotypeType.values() )
-                nGeno += genotypeCounts[evaltype.ordinal()][type.ordinal()];
+                nGeno += get(evaltype, type);
             return nGeno;
         }
 
@@ -287,7 +423,7 @@ public class ConcordanceMetrics {
         }
 
         public int get(GenotypeType evalType, GenotypeType compType) {
-            return genotypeCounts[evalType.ordinal()][compType.ordinal()];
+            return genotypeCounts[offset + N_TYPES * evalType.ordinal() + compType.ordinal()];
         }
     }
 
@@ -304,6 +440,11 @@ public class ConcordanceMetrics {
             siteConcordance[matchType.ordinal()]++;
         }
 
+        public void merge(SiteConcordanceTable other) {
+            for ( int i = 0; i < siteConcordance.length; i++ )
+                siteConcordance[i] += other.siteConcordance[i];
+        }
+
         @Requires({"evalVC != null","truthVC != null"})
         private SiteConcordanceType getMatchType(VariantContext evalVC, VariantContext truthVC) {
             return SiteConcordanceType.getConcordanceType(evalVC,truthVC);
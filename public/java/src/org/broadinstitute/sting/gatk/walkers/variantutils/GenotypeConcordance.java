@@ -36,6 +36,7 @@ import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.report.GATKReport;
 import org.broadinstitute.sting.gatk.report.GATKReportTable;
 import org.broadinstitute.sting.gatk.walkers.RodWalker;
+import org.broadinstitute.sting.gatk.walkers.TreeReducible;
 import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.sting.utils.help.HelpConstants;
@@ -131,7 +132,7 @@ import java.util.*;
  *  exclusively. SelectVariants can be used to extract filtered sites, and VariantFiltration used to un-filter them.
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARMANIP, extraDocs = {CommandLineGATK.class} )
-public class GenotypeConcordance extends RodWalker<List<Pair<VariantContext,VariantContext>>,ConcordanceMetrics> {
+public class GenotypeConcordance extends RodWalker<List<Pair<VariantContext,VariantContext>>,ConcordanceMetrics> implements TreeReducible<ConcordanceMetrics> {
 
     /**
      * The callset you want to evaluate, typically this is where you'd put 'unassessed' callsets.
@@ -183,6 +184,8 @@ public class GenotypeConcordance extends RodWalker<List<Pair<VariantContext,Vari
     @Output
     PrintStream out;
 
+    private VCFHeader evalHeader;
+    private VCFHeader compHeader;
     private List<String> evalSamples;
     private List<String> compSamples;
     private List<VariantContextUtils.JexlVCMatchExp> evalJexls = null;
@@ -194,6 +197,12 @@ public class GenotypeConcordance extends RodWalker<List<Pair<VariantContext,Vari
     public void initialize() {
         evalJexls = initializeJexl(genotypeFilterExpressionsEval);
         compJexls = initializeJexl(genotypeFilterExpressionsComp);
+
+        Map<String,VCFHeader> headerMap = GATKVCFUtils.getVCFHeadersFromRods(getToolkit(), Arrays.asList(evalBinding,compBinding));
+        evalHeader = headerMap.get(evalBinding.getName());
+        evalSamples = evalHeader.getGenotypeSamples();
+        compHeader = headerMap.get(compBinding.getName());
+        compSamples = compHeader.getGenotypeSamples();
     }
 
     private List<VariantContextUtils.JexlVCMatchExp> initializeJexl(ArrayList<String> genotypeFilterExpressions) {
@@ -206,11 +215,6 @@ public class GenotypeConcordance extends RodWalker<List<Pair<VariantContext,Vari
     }
 
     public ConcordanceMetrics reduceInit() {
-        Map<String,VCFHeader> headerMap = GATKVCFUtils.getVCFHeadersFromRods(getToolkit(), Arrays.asList(evalBinding,compBinding));
-        VCFHeader evalHeader = headerMap.get(evalBinding.getName());
-        evalSamples = evalHeader.getGenotypeSamples();
-        VCFHeader compHeader = headerMap.get(compBinding.getName());
-        compSamples = compHeader.getGenotypeSamples();
         return new ConcordanceMetrics(evalHeader,compHeader);
     }
 
@@ -319,6 +323,11 @@ public class GenotypeConcordance extends RodWalker<List<Pair<VariantContext,Vari
         return metrics;
     }
 
+    public ConcordanceMetrics treeReduce(ConcordanceMetrics lhs, ConcordanceMetrics rhs) {
+        lhs.merge(rhs);
+        return lhs;
+    }
+
     private static double repairNaN(double d) {
      if ( Double.isNaN(d) ) {
       return 0.0;
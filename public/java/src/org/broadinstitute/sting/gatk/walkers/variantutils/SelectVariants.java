@@ -32,6 +32,7 @@ import org.broadinstitute.sting.gatk.arguments.StandardVariantContextInputArgume
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.samples.PedigreeIndex;
 import org.broadinstitute.sting.gatk.walkers.RodWalker;
 import org.broadinstitute.sting.gatk.walkers.TreeReducible;
 import org.broadinstitute.sting.gatk.walkers.annotator.ChromosomeCountConstants;
@@ -39,6 +40,7 @@ import org.broadinstitute.sting.utils.MendelianViolation;
 import org.broadinstitute.sting.utils.SampleUtils;
 import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.help.HelpConstants;
+import org.broadinstitute.sting.utils.variant.CompiledJexlVCMatchExp;
 import org.broadinstitute.sting.utils.variant.GATKVCFUtils;
 import org.broadinstitute.sting.utils.variant.GATKVariantContextUtils;
 import org.broadinstitute.variant.vcf.*;
@@ -311,7 +313,7 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
 
     private ArrayList<VariantContext.Type> selectedTypes = new ArrayList<VariantContext.Type>();
     private ArrayList<String> selectNames = new ArrayList<String>();
-    private List<VariantContextUtils.JexlVCMatchExp> jexls = null;
+    private List<CompiledJexlVCMatchExp> jexls = null;
 
     private TreeSet<String> samples = new TreeSet<String>();
     private boolean NO_SAMPLES_SPECIFIED = false;
@@ -320,6 +322,7 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
     private boolean CONCORDANCE_ONLY = false;
 
     private MendelianViolation mv;
+    private PedigreeIndex pedigree;
 
 
     /* variables used by the SELECT RANDOM modules */
@@ -419,7 +422,7 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
             selectNames.add(String.format("select-%d", i));
         }
 
-        jexls = VariantContextUtils.initializeMatchExps(selectNames, SELECT_EXPRESSIONS);
+        jexls = CompiledJexlVCMatchExp.compile(VariantContextUtils.initializeMatchExps(selectNames, SELECT_EXPRESSIONS));
 
         // Look at the parameters to decide which analysis to perform
         DISCORDANCE_ONLY = discordanceTrack.isBound();
@@ -430,6 +433,7 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
 
         if (MENDELIAN_VIOLATIONS) {
             mv = new MendelianViolation(MENDELIAN_VIOLATION_QUAL_THRESHOLD,false,true);
+            pedigree = getSampleDB().getPedigreeIndex(samples);
         }
 
         SELECT_RANDOM_FRACTION = fractionRandom > 0;
@@ -484,7 +488,7 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
             if ( IDsToKeep != null && ! IDsToKeep.contains(vc.getID()) )
                 continue;
 
-            if (MENDELIAN_VIOLATIONS && mv.countViolations(this.getSampleDB().getFamilies(samples),vc) < 1)
+            if (MENDELIAN_VIOLATIONS && mv.countViolations(pedigree,vc) < 1)
                 break;
 
             if (DISCORDANCE_ONLY) {
@@ -514,8 +518,8 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
 
             if ( (!EXCLUDE_NON_VARIANTS || sub.isPolymorphicInSamples()) && (!EXCLUDE_FILTERED || !sub.isFiltered()) ) {
                 boolean failedJexlMatch = false;
-                for ( VariantContextUtils.JexlVCMatchExp jexl : jexls ) {
-                    if ( !VariantContextUtils.match(sub, jexl) ) {
+                for ( CompiledJexlVCMatchExp jexl : jexls ) {
+                    if ( !jexl.match(sub) ) {
                         failedJexlMatch = true;
                         break;
                     }
@@ -0,0 +1,433 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import org.broadinstitute.sting.utils.Utils;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.io.ColumnarTableWriter.ColumnType;
+import org.broadinstitute.sting.utils.variant.GATKVariantContextUtils;
+import org.broadinstitute.variant.variantcontext.Allele;
+import org.broadinstitute.variant.variantcontext.Genotype;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.vcf.*;
+
+import java.util.*;
+
+/**
+ * Extracts the values of site and genotype fields from VariantContexts, as the rows of a table
+ *
+ * The accessor for each field is worked out once, when the extractor is created, rather than for every record.
+ * Values are returned as they are found in the VariantContext (Strings, Integers, int arrays, lists, ...), for
+ * a TableWriter to format or encode, rather than as Strings; null values are missing.
+ *
+ * The table has a column for each site field, followed by a column for each genotype field of each sample.  Each
+ * VariantContext is usually a single row of the table, but if multi-allelic records are split there's a row for
+ * each alternate allele, in which list valued fields with a value per alternate allele take the value of that row's
+ * allele.
+ */
+public class VariantFieldExtractor {
+    private final List<String> fields;
+    private final List<String> genotypeFields;
+    private final List<String> samples;
+    private final boolean splitMultiAllelic;
+
+    private final SiteFieldGetter[] siteGetters;
+    private final GenotypeFieldGetter[] genotypeGetters;
+    private final StringBuilder[] scratchByColumn; // for the columns of genotype fields we build strings for
+
+    /**
+     * Create an extractor
+     *
+     * @param fields            a non-null list of fields to capture from each VariantContext
+     * @param genotypeFields    a non-null list of fields to capture from each genotype
+     * @param samples           a non-null list of the samples whose genotypes to capture
+     * @param allowMissingData  if false, then throws a UserException if any field isn't found in a VariantContext.  Otherwise the value is missing
+     * @param splitMultiAllelic if true, multiallelic variants are to be split into multiple records
+     */
+    public VariantFieldExtractor(final List<String> fields,
+                                 final List<String> genotypeFields,
+                                 final List<String> samples,
+                                 final boolean allowMissingData,
+                                 final boolean splitMultiAllelic) {
+        if ( fields == null ) throw new IllegalArgumentException("fields cannot be null");
+        if ( genotypeFields == null ) throw new IllegalArgumentException("genotypeFields cannot be null");
+        if ( samples == null ) throw new IllegalArgumentException("samples cannot be null");
+
+        this.fields = new ArrayList<String>(fields);
+        this.genotypeFields = new ArrayList<String>(genotypeFields);
+        this.samples = new ArrayList<String>(samples);
+        this.splitMultiAllelic = splitMultiAllelic;
+
+        siteGetters = new SiteFieldGetter[fields.size()];
+        for ( int i = 0; i < siteGetters.length; i++ ) {
+            final String field = fields.get(i);
+            if ( splitMultiAllelic && field.equals("ALT") ) // we need to special case the ALT field when splitting out multi-allelic records
+                siteGetters[i] = SPLIT_ALT_GETTER;
+            else if ( getters.containsKey(field) )
+                siteGetters[i] = getters.get(field);
+            else
+                siteGetters[i] = new AttributeGetter(field, allowMissingData);
+        }
+
+        genotypeGetters = new GenotypeFieldGetter[genotypeFields.size()];
+        for ( int i = 0; i < genotypeGetters.length; i++ ) {
+            final String field = genotypeFields.get(i);
+            if ( field.equals(VCFConstants.GENOTYPE_KEY) ) {
+                genotypeGetters[i] = GENOTYPE_STRING_GETTER;
+            } else if ( field.equals(VCFConstants.GENOTYPE_QUALITY_KEY) ) {
+                genotypeGetters[i] = GQ_GETTER;
+            } else if ( field.equals(VCFConstants.DEPTH_KEY) ) {
+                genotypeGetters[i] = DP_GETTER;
+            } else if ( field.equals(VCFConstants.GENOTYPE_ALLELE_DEPTHS) ) {
+                genotypeGetters[i] = AD_GETTER;
+            } else if ( field.equals(VCFConstants.GENOTYPE_PL_KEY) ) {
+                genotypeGetters[i] = PL_GETTER;
+            } else {
+                genotypeGetters[i] = new ExtendedAttributeGetter(field);
+            }
+        }
+
+        scratchByColumn = new StringBuilder[getNumberOfColumns()];
+        for ( int i = fields.size(); i < scratchByColumn.length; i++ ) {
+            if ( genotypeGetters[(i - fields.size()) % genotypeGetters.length] == GENOTYPE_STRING_GETTER )
+                scratchByColumn[i] = new StringBuilder();
+        }
+    }
+
+    /**
+     * @return the number of columns in each row
+     */
+    public int getNumberOfColumns() {
+        return fields.size() + genotypeFields.size() * samples.size();
+    }
+
+    /**
+     * @return the names of the columns, the site fields followed by SAMPLE.FIELD for each genotype field of each sample
+     */
+    public List<String> getColumnNames() {
+        final List<String> names = new ArrayList<String>(getNumberOfColumns());
+        names.addAll(fields);
+        for ( final String sample : samples ) {
+            for ( final String gf : genotypeFields ) {
+                // spaces in sample names are legal but wreak havoc in R data frames
+                names.add(sample.replace(" ", "_") + "." + gf);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Get the types of the columns, as far as we can tell from their definitions
+     *
+     * Standard fields have their natural types, and INFO and FORMAT fields defined in the header as single Integers
+     * or Floats are INTEGER or DOUBLE (as are INFO fields with a value per alternate allele, if multi-allelic records
+     * are split).  Everything else is a STRING.
+     *
+     * @param header the header defining the fields, or null if there isn't one
+     * @return the types of the columns, in the order of getColumnNames()
+     */
+    public List<ColumnType> getColumnTypes(final VCFHeader header) {
+        final List<ColumnType> types = new ArrayList<ColumnType>(getNumberOfColumns());
+        for ( int i = 0; i < fields.size(); i++ ) {
+            if ( siteGetters[i] instanceof AttributeGetter )
+                types.add(header == null ? ColumnType.STRING : getColumnType(header.getInfoHeaderLine(fields.get(i)), splitMultiAllelic));
+            else
+                types.add(siteGetters[i].type);
+        }
+
+        final List<ColumnType> genotypeTypes = new ArrayList<ColumnType>(genotypeFields.size());
+        for ( int i = 0; i < genotypeFields.size(); i++ ) {
+            if ( genotypeGetters[i] instanceof ExtendedAttributeGetter )
+                genotypeTypes.add(header == null ? ColumnType.STRING : getColumnType(header.getFormatHeaderLine(genotypeFields.get(i)), false));
+            else
+                genotypeTypes.add(genotypeGetters[i].type);
+        }
+        for ( int i = 0; i < samples.size(); i++ )
+            types.addAll(genotypeTypes);
+
+        return types;
+    }
+
+    private static ColumnType getColumnType(final VCFCompoundHeaderLine line, final boolean allowValuePerAltAllele) {
+        if ( line == null )
+            return ColumnType.STRING;
+
+        final boolean isSingleValue = (line.getCountType() == VCFHeaderLineCount.INTEGER && line.getCount() == 1) ||
+                (allowValuePerAltAllele && line.getCountType() == VCFHeaderLineCount.A);
+        if ( ! isSingleValue )
+            return ColumnType.STRING;
+
+        switch ( line.getType() ) {
+            case Integer: return ColumnType.INTEGER;
+            case Float: return ColumnType.DOUBLE;
+            default: return ColumnType.STRING;
+        }
+    }
+
+    /**
+     * @return the number of rows of the table for vc
+     */
+    public int getNumberOfRecords(final VariantContext vc) {
+        return splitMultiAllelic ? vc.getAlternateAlleles().size() : 1;
+    }
+
+    /**
+     * Extract the values of a row of the table
+     *
+     * Values may be mutable objects that are reused for the next row, so they must be consumed before the next call.
+     *
+     * @param vc the VariantContext whose field values we want to capture
+     * @param record which of the getNumberOfRecords(vc) rows for vc to extract
+     * @param values the array to put the getNumberOfColumns() values of the row into
+     */
+    public void extract(final VariantContext vc, final int record, final Object[] values) {
+        final int nRecords = getNumberOfRecords(vc);
+
+        int column = 0;
+        for ( final SiteFieldGetter getter : siteGetters )
+            values[column++] = selectRecordValue(getter.get(vc), record, nRecords);
+
+        if ( genotypeGetters.length > 0 ) {
+            for ( final String sample : samples ) {
+                final Genotype g = vc.getGenotype(sample);
+                for ( int i = 0; i < genotypeGetters.length; i++ ) {
+                    final Object value = g == null ? null : genotypeGetters[i].get(g, scratchByColumn[column]);
+                    values[column++] = selectRecordValue(value, record, nRecords);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the value for the given record of nRecords of a field with the given value
+     */
+    private static Object selectRecordValue(final Object value, final int record, final int nRecords) {
+        // if we're trying to create a single output record, or have nothing to split, use the value as is
+        if ( nRecords == 1 || value == null )
+            return value;
+
+        if ( value instanceof List ) {
+            // if this field is a list of the proper size, use the appropriate entry for each record, and otherwise
+            // give each record the whole list
+            final List<?> list = (List<?>)value;
+            return list.size() == nRecords ? list.get(record) : list.toString();
+        }
+
+        return value;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    //
+    // site fields
+    //
+    // ----------------------------------------------------------------------------------------------------
+
+    private static abstract class SiteFieldGetter {
+        protected final ColumnType type;
+        protected SiteFieldGetter(final ColumnType type) { this.type = type; }
+
+        /** @return the value of the field in vc, or null if it's missing */
+        public abstract Object get(final VariantContext vc);
+    }
+
+    /**
+     * Gets an attribute, or, for names ending in *, all the attributes that start with the rest of the name
+     */
+    private static final class AttributeGetter extends SiteFieldGetter {
+        private final String field;
+        private final String wildCardPrefix;
+        private final boolean allowMissingData;
+
+        private AttributeGetter(final String field, final boolean allowMissingData) {
+            super(ColumnType.STRING);
+            this.field = field;
+            this.wildCardPrefix = field.endsWith("*") ? field.substring(0, field.length() - 1) : null;
+            this.allowMissingData = allowMissingData;
+        }
+
+        @Override
+        public Object get(final VariantContext vc) {
+            if ( vc.hasAttribute(field) )
+                return vc.getAttribute(field, null);
+
+            if ( wildCardPrefix != null ) {
+                final Set<String> wildVals = new HashSet<String>();
+                for ( final Map.Entry<String,Object> elt : vc.getAttributes().entrySet() ) {
+                    if ( elt.getKey().startsWith(wildCardPrefix) )
+                        wildVals.add(elt.getValue().toString());
+                }
+
+                if ( wildVals.isEmpty() )
+                    return null;
+
+                final List<String> toVal = new ArrayList<String>(wildVals);
+                Collections.sort(toVal);
+                return Utils.join(",", toVal);
+            }
+
+            if ( ! allowMissingData )
+                throw new UserException(String.format("Missing field %s in vc %s at %s", field, vc.getSource(), vc));
+            return null;
+        }
+    }
+
+    private static final SiteFieldGetter SPLIT_ALT_GETTER = new SiteFieldGetter(ColumnType.STRING) {
+        public Object get(final VariantContext vc) {
+            final int numAltAlleles = vc.getAlternateAlleles().size();
+            if ( numAltAlleles == 1 )
+                return vc.getAlternateAllele(0);
+
+            return vc.getAlternateAlleles();
+        }
+    };
+
+    /**
+     * Getters of the standard and specially supported site fields, by name
+     */
+    private static final Map<String, SiteFieldGetter> getters = new HashMap<String, SiteFieldGetter>();
+
+    static {
+        // #CHROM  POS     ID      REF     ALT     QUAL    FILTER  INFO    FORMAT
+        getters.put("CHROM", new SiteFieldGetter(ColumnType.STRING) { public Object get(VariantContext vc) { return vc.getChr(); } });
+        getters.put("POS", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getStart(); } });
+        getters.put("REF", new SiteFieldGetter(ColumnType.STRING) { public Object get(VariantContext vc) { return vc.getReference().getDisplayString(); } });
+        getters.put("ALT", new SiteFieldGetter(ColumnType.STRING) {
+            public Object get(VariantContext vc) {
+                StringBuilder x = new StringBuilder();
+                int n = vc.getAlternateAlleles().size();
+                if ( n == 0 ) return ".";
+
+                for ( int i = 0; i < n; i++ ) {
+                    if ( i != 0 ) x.append(",");
+                    x.append(vc.getAlternateAllele(i));
+                }
+                return x.toString();
+            }
+        });
+        getters.put("EVENTLENGTH", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) {
+            int maxLength = 0;
+            for ( final Allele a : vc.getAlternateAlleles() ) {
+                final int length = a.length() - vc.getReference().length();
+                if( Math.abs(length) > Math.abs(maxLength) ) { maxLength = length; }
+            }
+            return maxLength;
+        }});
+        getters.put("QUAL", new SiteFieldGetter(ColumnType.DOUBLE) { public Object get(VariantContext vc) { return vc.getPhredScaledQual(); } });
+        getters.put("TRANSITION", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) {
+            if ( vc.isSNP() && vc.isBiallelic() )
+                return GATKVariantContextUtils.isTransition(vc) ? 1 : 0;
+            else
+                return -1;
+        }});
+        getters.put("FILTER", new SiteFieldGetter(ColumnType.STRING) { public Object get(VariantContext vc) {
+            return vc.isNotFiltered() ? "PASS" : Utils.join(",", vc.getFilters()); }
+        });
+        getters.put("ID", new SiteFieldGetter(ColumnType.STRING) { public Object get(VariantContext vc) { return vc.getID(); } });
+        getters.put("HET", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getHetCount(); } });
+        getters.put("HOM-REF", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getHomRefCount(); } });
+        getters.put("HOM-VAR", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getHomVarCount(); } });
+        getters.put("NO-CALL", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getNoCallCount(); } });
+        getters.put("TYPE", new SiteFieldGetter(ColumnType.STRING) { public Object get(VariantContext vc) { return vc.getType().toString(); } });
+        getters.put("VAR", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getHetCount() + vc.getHomVarCount(); } });
+        getters.put("NSAMPLES", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getNSamples(); } });
+        getters.put("NCALLED", new SiteFieldGetter(ColumnType.INTEGER) { public Object get(VariantContext vc) { return vc.getNSamples() - vc.getNoCallCount(); } });
+        getters.put("MULTI-ALLELIC", new SiteFieldGetter(ColumnType.STRING) { public Object get(VariantContext vc) { return Boolean.toString(vc.getAlternateAlleles().size() > 1); } });
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    //
+    // genotype fields
+    //
+    // ----------------------------------------------------------------------------------------------------
+
+    private static abstract class GenotypeFieldGetter {
+        protected final ColumnType type;
+        protected GenotypeFieldGetter(final ColumnType type) { this.type = type; }
+
+        /**
+         * @param g the genotype to get the field of
+         * @param scratch a StringBuilder this getter may build its value in, if it asked for one
+         * @return the value of the field in g, or null if it's missing
+         */
+        public abstract Object get(final Genotype g, final StringBuilder scratch);
+    }
+
+    private static final class ExtendedAttributeGetter extends GenotypeFieldGetter {
+        private final String field;
+
+        private ExtendedAttributeGetter(final String field) {
+            super(ColumnType.STRING);
+            this.field = field;
+        }
+
+        @Override
+        public Object get(final Genotype g, final StringBuilder scratch) {
+            return g.hasExtendedAttribute(field) ? g.getExtendedAttribute(field) : null;
+        }
+    }
+
+    /**
+     * Builds the same string as Genotype.getGenotypeString(true), without creating a String for each allele
+     */
+    private static final GenotypeFieldGetter GENOTYPE_STRING_GETTER = new GenotypeFieldGetter(ColumnType.STRING) {
+        public Object get(final Genotype g, final StringBuilder scratch) {
+            if ( ! g.isAvailable() )
+                return null;
+            if ( g.getPloidy() == 0 )
+                return "NA";
+
+            scratch.setLength(0);
+            final char separator = g.isPhased() ? '|' : '/';
+            final List<Allele> alleles = g.getAlleles();
+            for ( int i = 0; i < alleles.size(); i++ ) {
+                if ( i > 0 ) scratch.append(separator);
+                final Allele allele = alleles.get(i);
+                if ( allele.isNoCall() ) {
+                    scratch.append(VCFConstants.EMPTY_ALLELE);
+                } else {
+                    for ( final byte base : allele.getBases() )
+                        scratch.append((char)base);
+                }
+            }
+            return scratch;
+        }
+    };
+
+    private static final GenotypeFieldGetter GQ_GETTER = new GenotypeFieldGetter(ColumnType.INTEGER) {
+        public Object get(final Genotype g, final StringBuilder scratch) { return g.hasGQ() ? g.getGQ() : null; }
+    };
+
+    private static final GenotypeFieldGetter DP_GETTER = new GenotypeFieldGetter(ColumnType.INTEGER) {
+        public Object get(final Genotype g, final StringBuilder scratch) { return g.hasDP() ? g.getDP() : null; }
+    };
+
+    private static final GenotypeFieldGetter AD_GETTER = new GenotypeFieldGetter(ColumnType.STRING) {
+        public Object get(final Genotype g, final StringBuilder scratch) { return g.hasAD() ? g.getAD() : null; }
+    };
+
+    private static final GenotypeFieldGetter PL_GETTER = new GenotypeFieldGetter(ColumnType.STRING) {
+        public Object get(final Genotype g, final StringBuilder scratch) { return g.hasPL() ? g.getPL() : null; }
+    };
+}
@@ -29,22 +29,23 @@ import org.broadinstitute.sting.commandline.*;
 import org.broadinstitute.sting.gatk.CommandLineGATK;
 import org.broadinstitute.sting.utils.SampleUtils;
 import org.broadinstitute.sting.utils.help.HelpConstants;
+import org.broadinstitute.sting.utils.io.ColumnarTableWriter;
+import org.broadinstitute.sting.utils.io.TableWriter;
+import org.broadinstitute.sting.utils.io.TextTableWriter;
 import org.broadinstitute.sting.utils.variant.GATKVCFUtils;
 import org.broadinstitute.sting.utils.variant.GATKVariantContextUtils;
 import org.broadinstitute.variant.vcf.VCFConstants;
 import org.broadinstitute.variant.vcf.VCFHeader;
 import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
-import org.broadinstitute.variant.variantcontext.Allele;
 import org.broadinstitute.variant.variantcontext.VariantContext;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.walkers.RodWalker;
-import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.variant.vcf.VCFUtils;
 
 import java.io.PrintStream;
-import java.lang.reflect.Array;
 import java.util.*;
 
 /**
@@ -68,6 +69,11 @@ import java.util.*;
  *
  * </p>
  *
+ * <p>
+ * The table can also be written in a binary, columnar format instead (see the -format argument), with typed
+ * columns, for loading into downstream analysis tools without parsing text.
+ * </p>
+ *
  * <h3>Input</h3>
  * <p>
  * <ul>
@@ -174,8 +180,30 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
     public boolean ALLOW_MISSING_DATA = false;
     private final static String MISSING_DATA = "NA";
 
+    /**
+     * By default this tool writes a tab-delimited text table.  With -format COLUMNAR it instead writes a binary,
+     * columnar table (see ColumnarTableWriter for the format) whose columns are typed according to the definitions
+     * of their fields in the VCF header, for loading straight into downstream analysis tools.  Missing values,
+     * including . values of numeric fields, are written as such rather than as NA.
+     */
+    @Advanced
+    @Argument(fullName="outputFormat", shortName="format", doc="The format of the output table", required=false)
+    public OutputFormat outputFormat = OutputFormat.TABLE;
+
+    public enum OutputFormat {
+        /** a tab-delimited text table */
+        TABLE,
+        /** a binary, columnar table, as written by ColumnarTableWriter */
+        COLUMNAR
+    }
+
     private final List<String> samples = new ArrayList<String>();
 
+    private VariantFieldExtractor extractor;
+    private TableWriter writer;
+    private Object[] values;        // the values of the current row
+    private Object[] moltenValues;  // the values of the current row of molten output
+
     public void initialize() {
 
         if ( !genotypeFieldsToTake.isEmpty() ) {
@@ -188,14 +216,20 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
                 genotypeFieldsToTake.clear();
         }
 
-        // print out the header
-        if ( moltenizeOutput ) {
-            out.println("RecordID\tSample\tVariable\tValue");
+        // work out how to get at each field once, up front
+        extractor = new VariantFieldExtractor(fieldsToTake, genotypeFieldsToTake, samples, ALLOW_MISSING_DATA, splitMultiAllelic);
+        values = new Object[extractor.getNumberOfColumns()];
+        moltenValues = new Object[4];
+
+        // create the writer, which writes out the header
+        final List<String> columnNames = moltenizeOutput ? Arrays.asList("RecordID", "Sample", "Variable", "Value") : extractor.getColumnNames();
+        if ( outputFormat == OutputFormat.COLUMNAR ) {
+            final List<ColumnarTableWriter.ColumnType> columnTypes = moltenizeOutput ?
+                    Arrays.asList(ColumnarTableWriter.ColumnType.INTEGER, ColumnarTableWriter.ColumnType.STRING, ColumnarTableWriter.ColumnType.STRING, ColumnarTableWriter.ColumnType.STRING) :
+                    extractor.getColumnTypes(new VCFHeader(VCFUtils.smartMergeHeaders(GATKVCFUtils.getVCFHeadersFromRods(getToolkit(), variants).values(), true)));
+            writer = new ColumnarTableWriter(out, columnNames, columnTypes, VCFConstants.MISSING_VALUE_v4);
         } else {
-            final String baseHeader = Utils.join("\t", fieldsToTake);
-            final String genotypeHeader = createGenotypeHeader(genotypeFieldsToTake, samples);
-            final String separator = (!baseHeader.isEmpty() && !genotypeHeader.isEmpty()) ? "\t" : "";
-            out.println(baseHeader + separator + genotypeHeader);
+            writer = new TextTableWriter(out, columnNames, MISSING_DATA);
         }
     }
 
@@ -206,11 +240,13 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
         for ( VariantContext vc : tracker.getValues(variants, context.getLocation())) {
             if ( showFiltered || vc.isNotFiltered() ) {
                 nRecords++;
-                for ( final List<String> record : extractFields(vc, fieldsToTake, genotypeFieldsToTake, samples, ALLOW_MISSING_DATA, splitMultiAllelic) ) {
+                final int numRecordsToProduce = extractor.getNumberOfRecords(vc);
+                for ( int record = 0; record < numRecordsToProduce; record++ ) {
+                    extractor.extract(vc, record, values);
                     if ( moltenizeOutput )
-                        emitMoltenizedOutput(record);
+                        emitMoltenizedOutput(vc);
                     else
-                        out.println(Utils.join("\t", record));
+                        writeRow(vc, values);
                 }
             }
         }
@@ -223,238 +259,40 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
         return (MAX_RECORDS != -1 && nRecords >= MAX_RECORDS);
     }
 
-    private static final boolean isWildCard(String s) {
-        return s.endsWith("*");
-    }
-
-    private static String createGenotypeHeader(final List<String> genotypeFieldsToTake, final List<String> samples) {
-        boolean firstEntry = true;
-
-        final StringBuilder sb = new StringBuilder();
-        for ( final String sample : samples ) {
-            for ( final String gf : genotypeFieldsToTake ) {
-                if ( firstEntry )
-                    firstEntry = false;
-                else
-                    sb.append("\t");
-                // spaces in sample names are legal but wreak havoc in R data frames
-                sb.append(sample.replace(" ","_"));
-                sb.append(".");
-                sb.append(gf);
-            }
-        }
-        return sb.toString();
-    }
-
-    private void emitMoltenizedOutput(final List<String> record) {
+    private void emitMoltenizedOutput(final VariantContext vc) {
         int index = 0;
+        moltenValues[0] = nRecords;
+        moltenValues[1] = "site";
         for ( final String field : fieldsToTake ) {
-            out.println(String.format("%d\tsite\t%s\t%s", nRecords, field, record.get(index++)));
+            moltenValues[2] = field;
+            moltenValues[3] = values[index++];
+            writeRow(vc, moltenValues);
         }
         for ( final String sample : samples ) {
+            moltenValues[1] = sample.replace(" ","_");
             for ( final String gf : genotypeFieldsToTake ) {
-                out.println(String.format("%d\t%s\t%s\t%s", nRecords, sample.replace(" ","_"), gf, record.get(index++)));
+                moltenValues[2] = gf;
+                moltenValues[3] = values[index++];
+                writeRow(vc, moltenValues);
             }
         }
     }
 
-    /**
-     * Utility function that returns the list of values for each field in fields from vc.
-     *
-     * @param vc                the VariantContext whose field values we can to capture
-     * @param fields            a non-null list of fields to capture from VC
-     * @param genotypeFields    a (possibly null) list of fields to capture from each genotype
-     * @param samples           list of samples in vc
-     * @param allowMissingData  if false, then throws a UserException if any field isn't found in vc.  Otherwise provides a value of NA
-     * @param splitMultiAllelic if true, multiallelic variants are to be split into multiple records
-     * @return List of lists of field values
-     */
-    private static List<List<String>> extractFields(final VariantContext vc,
-                                                    final List<String> fields,
-                                                    final List<String> genotypeFields,
-                                                    final List<String> samples,
-                                                    final boolean allowMissingData,
-                                                    final boolean splitMultiAllelic) {
-        
-        final int numRecordsToProduce = splitMultiAllelic ? vc.getAlternateAlleles().size() : 1;
-        final List<List<String>> records = new ArrayList<List<String>>(numRecordsToProduce);
-
-        int numFields = fields.size();
-        final boolean addGenotypeFields = genotypeFields != null && !genotypeFields.isEmpty();
-        if ( addGenotypeFields )
-            numFields += genotypeFields.size() * samples.size();
-
-        for ( int i = 0; i < numRecordsToProduce; i++ )
-            records.add(new ArrayList<String>(numFields));
-
-        for ( String field : fields ) {
-
-            if ( splitMultiAllelic && field.equals("ALT") ) { // we need to special case the ALT field when splitting out multi-allelic records
-                addFieldValue(splitAltAlleles(vc), records);
-            } else if ( getters.containsKey(field) ) {
-                addFieldValue(getters.get(field).get(vc), records);
-            } else if ( vc.hasAttribute(field) ) {
-                addFieldValue(vc.getAttribute(field, null), records);
-            } else if ( isWildCard(field) ) {
-                Set<String> wildVals = new HashSet<String>();
-                for ( Map.Entry<String,Object> elt : vc.getAttributes().entrySet()) {
-                    if ( elt.getKey().startsWith(field.substring(0, field.length() - 1)) ) {
-                        wildVals.add(elt.getValue().toString());
-                    }
-                }
-
-                String val = MISSING_DATA;
-                if ( wildVals.size() > 0 ) {
-                    List<String> toVal = new ArrayList<String>(wildVals);
-                    Collections.sort(toVal);
-                    val = Utils.join(",", toVal);
-                }
-
-                addFieldValue(val, records);
-            } else if ( ! allowMissingData ) {
-                throw new UserException(String.format("Missing field %s in vc %s at %s", field, vc.getSource(), vc));
-            } else {
-                addFieldValue(MISSING_DATA, records);
-            }
+    private void writeRow(final VariantContext vc, final Object[] row) {
+        try {
+            writer.writeRow(row);
+        } catch ( IllegalArgumentException e ) {
+            // values that don't fit the types of their columns, which only columnar output has
+            throw new UserException(String.format("%s in vc %s at %s; use -format %s to write the table as text", e.getMessage(), vc.getSource(), vc, OutputFormat.TABLE));
         }
-
-        if ( addGenotypeFields ) {
-            for ( final String sample : samples ) {
-                for ( final String gf : genotypeFields ) {
-                    if ( vc.hasGenotype(sample) && vc.getGenotype(sample).hasAnyAttribute(gf) ) {
-                        if ( gf.equals(VCFConstants.GENOTYPE_KEY) )
-                            addFieldValue(vc.getGenotype(sample).getGenotypeString(true), records);
-                        else
-                            addFieldValue(vc.getGenotype(sample).getAnyAttribute(gf), records);
-                    }
-                    else
-                        addFieldValue(MISSING_DATA, records);
-                }
-            }
-        }
-
-        return records;
-    }
-
-    private static void addFieldValue(final Object val, final List<List<String>> result) {
-        final int numResultRecords = result.size();
-        
-        // if we're trying to create a single output record, add it
-        if ( numResultRecords == 1 ) {
-            result.get(0).add(prettyPrintObject(val));
-        }
-        // if this field is a list of the proper size, add the appropriate entry to each record
-        else if ( (val instanceof List) && ((List)val).size() == numResultRecords ) {
-            final List list = (List)val;
-            for ( int i = 0; i < numResultRecords; i++ )
-                result.get(i).add(list.get(i).toString());
-        }
-        // otherwise, add the original value to all of the records
-        else {
-            final String valStr = val.toString();
-            for ( List<String> record : result )
-                record.add(valStr);
-        }
-    }
-
-    private static String prettyPrintObject(final Object val) {
-        if ( val instanceof List )
-            return prettyPrintObject(((List)val).toArray());
-
-        if ( !val.getClass().isArray() )
-            return val.toString();
-
-        final int length = Array.getLength(val);
-        if ( length == 0 )
-            return "";
-
-        final StringBuilder sb = new StringBuilder(prettyPrintObject(Array.get(val, 0)));
-        for ( int i = 1; i < length; i++ ) {
-            sb.append(",");
-            sb.append(prettyPrintObject(Array.get(val, i)));
-        }
-        return sb.toString();
     }
 
-
-    public static List<List<String>> extractFields(VariantContext vc, List<String> fields, boolean allowMissingData) {
-        return extractFields(vc, fields, null, null, allowMissingData, false);
-    }
     //
     // default reduce -- doesn't do anything at all
     //
     public Integer reduceInit() { return 0; }
     public Integer reduce(Integer counter, Integer sum) { return counter + sum; }
-    public void onTraversalDone(Integer sum) {}
-
-    // ----------------------------------------------------------------------------------------------------
-    //
-    // static system for getting values from VC by name.
-    //
-    // ----------------------------------------------------------------------------------------------------
-
-    public static abstract class Getter { public abstract String get(VariantContext vc); }
-    public static final Map<String, Getter> getters = new HashMap<String, Getter>();
-
-    static {
-        // #CHROM  POS     ID      REF     ALT     QUAL    FILTER  INFO    FORMAT
-        getters.put("CHROM", new Getter() { public String get(VariantContext vc) { return vc.getChr(); } });
-        getters.put("POS", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getStart()); } });
-        getters.put("REF", new Getter() {
-            public String get(VariantContext vc) {
-                StringBuilder x = new StringBuilder();
-                x.append(vc.getReference().getDisplayString());
-                return x.toString();
-            }
-        });
-        getters.put("ALT", new Getter() {
-            public String get(VariantContext vc) {
-                StringBuilder x = new StringBuilder();
-                int n = vc.getAlternateAlleles().size();
-                if ( n == 0 ) return ".";
-
-                for ( int i = 0; i < n; i++ ) {
-                    if ( i != 0 ) x.append(",");
-                    x.append(vc.getAlternateAllele(i));
-                }
-                return x.toString();
-            }
-        });
-        getters.put("EVENTLENGTH", new Getter() { public String get(VariantContext vc) {
-            int maxLength = 0;
-            for ( final Allele a : vc.getAlternateAlleles() ) {
-                final int length = a.length() - vc.getReference().length();
-                if( Math.abs(length) > Math.abs(maxLength) ) { maxLength = length; }
-            }
-            return Integer.toString(maxLength);
-        }});
-        getters.put("QUAL", new Getter() { public String get(VariantContext vc) { return Double.toString(vc.getPhredScaledQual()); } });
-        getters.put("TRANSITION", new Getter() { public String get(VariantContext vc) {
-            if ( vc.isSNP() && vc.isBiallelic() )
-                return GATKVariantContextUtils.isTransition(vc) ? "1" : "0";
-            else
-                return "-1";
-        }});
-        getters.put("FILTER", new Getter() { public String get(VariantContext vc) {
-            return vc.isNotFiltered() ? "PASS" : Utils.join(",", vc.getFilters()); }
-        });
-        getters.put("ID", new Getter() { public String get(VariantContext vc) { return vc.getID(); } });
-        getters.put("HET", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHetCount()); } });
-        getters.put("HOM-REF", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHomRefCount()); } });
-        getters.put("HOM-VAR", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHomVarCount()); } });
-        getters.put("NO-CALL", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getNoCallCount()); } });
-        getters.put("TYPE", new Getter() { public String get(VariantContext vc) { return vc.getType().toString(); } });
-        getters.put("VAR", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHetCount() + vc.getHomVarCount()); } });
-        getters.put("NSAMPLES", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getNSamples()); } });
-        getters.put("NCALLED", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getNSamples() - vc.getNoCallCount()); } });
-        getters.put("MULTI-ALLELIC", new Getter() { public String get(VariantContext vc) { return Boolean.toString(vc.getAlternateAlleles().size() > 1); } });
-    }
-    
-    private static Object splitAltAlleles(VariantContext vc) {
-        final int numAltAlleles = vc.getAlternateAlleles().size();
-        if ( numAltAlleles == 1 )
-            return vc.getAlternateAllele(0);
-
-        return vc.getAlternateAlleles();
+    public void onTraversalDone(Integer sum) {
+        writer.finish();
     }
 }
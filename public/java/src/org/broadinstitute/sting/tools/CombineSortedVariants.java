@@ -0,0 +1,242 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.tools;
+
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.reference.ReferenceSequenceFileFactory;
+import net.sf.samtools.SAMSequenceDictionary;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.broadinstitute.sting.commandline.*;
+import org.broadinstitute.sting.gatk.walkers.annotator.ChromosomeCountConstants;
+import org.broadinstitute.sting.gatk.walkers.variantutils.CombineVariantsEngine;
+import org.broadinstitute.sting.utils.SampleUtils;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
+import org.broadinstitute.sting.utils.help.HelpConstants;
+import org.broadinstitute.sting.utils.variant.GATKVariantContextUtils;
+import org.broadinstitute.sting.utils.variant.VCFMergingIterator;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.variantcontext.writer.VariantContextWriter;
+import org.broadinstitute.variant.variantcontext.writer.VariantContextWriterFactory;
+import org.broadinstitute.variant.vcf.*;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Combines VCF records from many sources, merging the files itself instead of through the GATK engine
+ *
+ * <p>
+ * CombineSortedVariants writes the same records as CombineVariants, but instead of having the GATK engine open
+ * every input as a reference-ordered track and visit each locus covered by any of them, it merges the sorted
+ * inputs directly, decoding only the records it combines.  It's meant for combining hundreds or thousands of VCFs,
+ * such as one per sample, where CombineVariants spends most of its time managing the tracks.
+ * </p>
+ *
+ * <p>
+ * At most -maxOpenFiles inputs are open at once.  When there are more inputs than that, they are first merged in
+ * groups into temporary files, so the tool then needs about as much temporary disk space as the inputs take up.
+ * </p>
+ *
+ * <p>
+ * The arguments that control the merge have the same meanings as in CombineVariants.  Intervals and the other GATK
+ * engine arguments aren't supported, and neither is -assumeIdenticalSamples, for which CatVariants is the tool to use.
+ * </p>
+ *
+ * <h3>Input</h3>
+ * <p>
+ * Any number of VCF text files (optionally gzipped), each sorted in the order of the reference.
+ * </p>
+ *
+ * <h3>Output</h3>
+ * <p>
+ * A combined VCF.
+ * </p>
+ *
+ * <h3>Important note</h3>
+ * <p>This is a command-line utility that bypasses the GATK engine. As a result, the command-line you must use to
+ * invoke it is a little different from other GATK tools (see example below), and it does not accept any of the
+ * classic "CommandLineGATK" arguments.</p>
+ *
+ * <h3>Example</h3>
+ * <pre>
+ * java -cp GenomeAnalysisTK.jar org.broadinstitute.sting.tools.CombineSortedVariants \
+ *    -R ref.fasta \
+ *    -V:sample1 sample1.vcf \
+ *    -V:sample2 sample2.vcf \
+ *    -o output.vcf \
+ *    -genotypeMergeOptions UNIQUIFY
+ * </pre>
+ */
+@DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARMANIP )
+public class CombineSortedVariants extends CommandLineProgram {
+    // setup the logging system, used by some codecs
+    private static org.apache.log4j.Logger logger = org.apache.log4j.Logger.getRootLogger();
+
+    @Input(fullName = "reference", shortName = "R", doc = "genome reference file <name>.fasta", required = true)
+    private File refFile = null;
+
+    /**
+     * The VCF files to merge together, named as they are for CombineVariants
+     */
+    @Input(fullName="variant", shortName = "V", doc="Input VCF file", required=true)
+    public List<RodBinding<VariantContext>> variants;
+
+    @Output(fullName = "out", shortName = "o", doc = "File to which variants should be written", required = true)
+    private File outputFile = null;
+
+    @Argument(shortName="genotypeMergeOptions", doc="Determines how we should merge genotype records for samples shared across the ROD files", required=false)
+    public GATKVariantContextUtils.GenotypeMergeType genotypeMergeOption = null;
+
+    @Argument(shortName="filteredRecordsMergeType", doc="Determines how we should handle records seen at the same site in the VCF, but with different FILTER fields", required=false)
+    public GATKVariantContextUtils.FilteredRecordMergeType filteredRecordsMergeType = GATKVariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED;
+
+    @Hidden
+    @Argument(shortName="multipleAllelesMergeType", doc="Determines how we should handle records seen at the same site in the VCF, but with different allele types (for example, SNP vs. indel)", required=false)
+    public GATKVariantContextUtils.MultipleAllelesMergeType multipleAllelesMergeType = GATKVariantContextUtils.MultipleAllelesMergeType.BY_TYPE;
+
+    @Argument(fullName="rod_priority_list", shortName="priority", doc="A comma-separated string describing the priority ordering for the genotypes as far as which record gets emitted", required=false)
+    public String PRIORITY_STRING = null;
+
+    @Argument(fullName="printComplexMerges", shortName="printComplexMerges", doc="Print out interesting sites requiring complex compatibility merging", required=false)
+    public boolean printComplexMerges = false;
+
+    @Argument(fullName="filteredAreUncalled", shortName="filteredAreUncalled", doc="If true, then filtered VCFs are treated as uncalled, so that filtered set annotations don't appear in the combined VCF", required=false)
+    public boolean filteredAreUncalled = false;
+
+    @Argument(fullName="minimalVCF", shortName="minimalVCF", doc="If true, then the output VCF will contain no INFO or genotype FORMAT fields", required=false)
+    public boolean minimalVCF = false;
+
+    @Argument(fullName="excludeNonVariants", shortName="env", doc="Don't include loci found to be non-variant after the combining procedure", required=false)
+    public boolean EXCLUDE_NON_VARIANTS = false;
+
+    @Argument(fullName="setKey", shortName="setKey", doc="Key used in the INFO key=value tag emitted describing which set the combined VCF record came from", required=false)
+    public String SET_KEY = "set";
+
+    @Argument(fullName="minimumN", shortName="minN", doc="Combine variants and output site only if the variant is present in at least N input files.", required=false)
+    public int minimumN = 1;
+
+    @Argument(fullName="mergeInfoWithMaxAC", shortName="mergeInfoWithMaxAC", doc="If true, when VCF records overlap the info field is taken from the one with the max AC instead of only taking the fields which are identical across the overlapping records.", required=false)
+    public boolean MERGE_INFO_WITH_MAX_AC = false;
+
+    @Argument(fullName="combineAnnotations", shortName="combineAnnotations", doc="If true, combine the annotation values in some straightforward manner assuming the input callsets are i.i.d.", required=false)
+    public boolean COMBINE_ANNOTATIONS = false;
+
+    /**
+     * Keep this below the limit on open file descriptors (ulimit -n), leaving room for the files the JVM has open
+     */
+    @Argument(fullName="maxOpenFiles", shortName="maxOpenFiles", doc="The maximum number of input files to have open at once", required=false)
+    public int maxOpenFiles = 500;
+
+    @Argument(fullName="tempDir", shortName="tempDir", doc="Directory for the temporary files used when merging more than maxOpenFiles inputs", required=false)
+    public File tempDir = null;
+
+    @Override
+    protected int execute() throws Exception {
+        BasicConfigurator.configure();
+        logger.setLevel(Level.INFO);
+
+        if ( maxOpenFiles < 2 )
+            throw new UserException.BadArgumentValue("maxOpenFiles", "must be at least 2");
+
+        final SAMSequenceDictionary dictionary;
+        try {
+            final ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(refFile);
+            dictionary = ref.getSequenceDictionary();
+        } catch ( Exception e ) {
+            throw new UserException("Couldn't load provided reference sequence file " + refFile, e);
+        }
+        if ( dictionary == null )
+            throw new UserException.CommandLineException("The reference " + refFile + " has no sequence dictionary");
+
+        final List<File> files = new ArrayList<>(variants.size());
+        final List<String> names = new ArrayList<>(variants.size());
+        for ( final RodBinding<VariantContext> binding : variants ) {
+            if ( ! binding.getTribbleType().equals("VCF") )
+                throw new UserException.BadArgumentValue("variant", "Input " + binding.getSource() + " isn't a VCF text file, which is all CombineSortedVariants supports");
+            files.add(new File(binding.getSource()));
+            names.add(binding.getName());
+        }
+
+        final VCFMergingIterator sites = new VCFMergingIterator(files, names, dictionary, maxOpenFiles, tempDir);
+        try {
+            final Map<String, VCFHeader> headers = sites.getHeaders();
+
+            final List<String> priority = CombineVariantsEngine.parsePriorityList(PRIORITY_STRING, genotypeMergeOption, headers.keySet());
+            if ( PRIORITY_STRING == null && genotypeMergeOption == null )
+                genotypeMergeOption = GATKVariantContextUtils.GenotypeMergeType.UNSORTED;
+
+            if ( genotypeMergeOption == GATKVariantContextUtils.GenotypeMergeType.REQUIRE_UNIQUE && ! SampleUtils.verifyUniqueSamplesNames(headers) )
+                throw new IllegalStateException("REQUIRE_UNIQUE sample names is true but duplicate names were discovered.");
+
+            if ( SET_KEY.toLowerCase().equals("null") )
+                SET_KEY = null;
+
+            final Set<VCFHeaderLine> headerLines = VCFUtils.smartMergeHeaders(headers.values(), true);
+            if ( SET_KEY != null )
+                headerLines.add(new VCFInfoHeaderLine(SET_KEY, 1, VCFHeaderLineType.String, "Source VCF for the merged record in CombineVariants"));
+            headerLines.addAll(Arrays.asList(ChromosomeCountConstants.descriptions));
+            final VCFHeader header = new VCFHeader(headerLines, SampleUtils.getSampleList(headers, genotypeMergeOption));
+
+            final CombineVariantsEngine engine = new CombineVariantsEngine(priority, headers.size(), genotypeMergeOption,
+                    filteredRecordsMergeType, multipleAllelesMergeType, SET_KEY, printComplexMerges, filteredAreUncalled,
+                    MERGE_INFO_WITH_MAX_AC, COMBINE_ANNOTATIONS, minimalVCF, EXCLUDE_NON_VARIANTS, minimumN);
+
+            final VariantContextWriter writer = VariantContextWriterFactory.create(outputFile, dictionary);
+            writer.writeHeader(VCFUtils.withUpdatedContigs(header, refFile, dictionary));
+
+            long nSites = 0;
+            while ( sites.hasNext() ) {
+                final List<VariantContext> vcs = sites.next();
+                for ( final VariantContext merged : engine.merge(vcs, sites.getOverlappingRecords()) )
+                    writer.add(merged);
+
+                if ( ++nSites % 100000 == 0 )
+                    logger.info(String.format("Combined %d sites, currently at %s:%d", nSites, vcs.get(0).getChr(), vcs.get(0).getStart()));
+            }
+
+            writer.close();
+            logger.info(String.format("Combined %d sites from %d inputs", nSites, files.size()));
+        } finally {
+            sites.close();
+        }
+
+        return 0;
+    }
+
+    public static void main(String[] args){
+        try {
+            CombineSortedVariants instance = new CombineSortedVariants();
+            start(instance, args);
+            System.exit(CommandLineProgram.result);
+        } catch ( UserException e ) {
+            exitSystemWithUserError(e);
+        } catch ( Exception e ) {
+            exitSystemWithError(e);
+        }
+    }
+}
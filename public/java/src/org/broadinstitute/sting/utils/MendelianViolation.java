@@ -25,7 +25,9 @@
 
 package org.broadinstitute.sting.utils;
 
+import org.broadinstitute.sting.gatk.samples.PedigreeIndex;
 import org.broadinstitute.sting.gatk.samples.Sample;
+import org.broadinstitute.variant.variantcontext.Allele;
 import org.broadinstitute.variant.variantcontext.Genotype;
 import org.broadinstitute.variant.variantcontext.GenotypeType;
 import org.broadinstitute.variant.variantcontext.VariantContext;
@@ -55,8 +57,20 @@ public class MendelianViolation {
 
     private boolean allCalledOnly = true;
 
-    //Stores occurrences of inheritance
-    private EnumMap<GenotypeType, EnumMap<GenotypeType,EnumMap<GenotypeType,Integer>>> inheritance;
+    //Stores occurrences of inheritance, indexed by inheritanceOffset(mom, dad, child)
+    private static final int N_GENOTYPE_TYPES = GenotypeType.values().length;
+    private final int[] inheritance = new int[N_GENOTYPE_TYPES * N_GENOTYPE_TYPES * N_GENOTYPE_TYPES];
+
+    //Genotypes of the samples of the last pedigree passed to countViolations, found by their columns in the VCF
+    private PedigreeIndex.GenotypeColumns genotypeColumns;
+    private PedigreeIndex genotypeColumnsPedigree;
+
+    //Per-sample scratch space for countViolations(PedigreeIndex, VariantContext)
+    private int[] sampleTypes = new int[0];
+    private double[] sampleQuals = new double[0];
+    private int[] sampleAlleles = new int[0];
+    private int[] sampleFirstAlleles = new int[0];
+    private int[] sampleSecondAlleles = new int[0];
 
     private int violations_total=0;
 
@@ -84,6 +98,14 @@ public class MendelianViolation {
         return lowQual;
     }
 
+    private static int inheritanceOffset(final int momType, final int dadType, final int childType) {
+        return (momType * N_GENOTYPE_TYPES + dadType) * N_GENOTYPE_TYPES + childType;
+    }
+
+    private int inheritance(final GenotypeType momType, final GenotypeType dadType, final GenotypeType childType) {
+        return inheritance[inheritanceOffset(momType.ordinal(), dadType.ordinal(), childType.ordinal())];
+    }
+
     public int getViolationsCount(){
         return violations_total;
     }
@@ -100,119 +122,119 @@ public class MendelianViolation {
 
     //Count of HomRef/HomRef/HomRef trios
     public int getRefRefRef(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HOM_REF).get(GenotypeType.HOM_REF);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HOM_REF, GenotypeType.HOM_REF);
     }
 
     //Count of HomVar/HomVar/HomVar trios
     public int getVarVarVar(){
-        return inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_VAR);
+        return inheritance(GenotypeType.HOM_VAR, GenotypeType.HOM_VAR, GenotypeType.HOM_VAR);
     }
 
     //Count of HomRef/HomVar/Het trios
     public int getRefVarHet(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HOM_VAR).get(GenotypeType.HET) +
-                inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_REF).get(GenotypeType.HET);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HOM_VAR, GenotypeType.HET) +
+                inheritance(GenotypeType.HOM_VAR, GenotypeType.HOM_REF, GenotypeType.HET);
     }
 
     //Count of Het/Het/Het trios
     public int getHetHetHet(){
-        return inheritance.get(GenotypeType.HET).get(GenotypeType.HET).get(GenotypeType.HET);
+        return inheritance(GenotypeType.HET, GenotypeType.HET, GenotypeType.HET);
     }
 
     //Count of Het/Het/HomRef trios
     public int getHetHetHomRef(){
-        return inheritance.get(GenotypeType.HET).get(GenotypeType.HET).get(GenotypeType.HOM_REF);
+        return inheritance(GenotypeType.HET, GenotypeType.HET, GenotypeType.HOM_REF);
     }
 
     //Count of Het/Het/HomVar trios
     public int getHetHetHomVar(){
-        return inheritance.get(GenotypeType.HET).get(GenotypeType.HET).get(GenotypeType.HOM_VAR);
+        return inheritance(GenotypeType.HET, GenotypeType.HET, GenotypeType.HOM_VAR);
     }
 
     //Count of ref alleles inherited from Het/Het parents (no violation)
     public int getParentsHetHetInheritedRef(){
-        return inheritance.get(GenotypeType.HET).get(GenotypeType.HET).get(GenotypeType.HET)
-               + 2*inheritance.get(GenotypeType.HET).get(GenotypeType.HET).get(GenotypeType.HOM_REF);
+        return inheritance(GenotypeType.HET, GenotypeType.HET, GenotypeType.HET)
+               + 2*inheritance(GenotypeType.HET, GenotypeType.HET, GenotypeType.HOM_REF);
         //return parentsHetHet_childRef;
     }
 
     //Count of var alleles inherited from Het/Het parents (no violation)
     public int getParentsHetHetInheritedVar(){
-        return inheritance.get(GenotypeType.HET).get(GenotypeType.HET).get(GenotypeType.HET)
-               + 2*inheritance.get(GenotypeType.HET).get(GenotypeType.HET).get(GenotypeType.HOM_VAR);
+        return inheritance(GenotypeType.HET, GenotypeType.HET, GenotypeType.HET)
+               + 2*inheritance(GenotypeType.HET, GenotypeType.HET, GenotypeType.HOM_VAR);
         //return parentsHetHet_childVar;
     }
 
     //Count of ref alleles inherited from HomRef/Het parents (no violation)
     public int getParentsRefHetInheritedRef(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HET).get(GenotypeType.HOM_REF)
-               + inheritance.get(GenotypeType.HET).get(GenotypeType.HOM_REF).get(GenotypeType.HOM_REF);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HET, GenotypeType.HOM_REF)
+               + inheritance(GenotypeType.HET, GenotypeType.HOM_REF, GenotypeType.HOM_REF);
         //return parentsHomRefHet_childRef;
     }
 
     //Count of var alleles inherited from HomRef/Het parents (no violation)
     public int getParentsRefHetInheritedVar(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HET).get(GenotypeType.HET)
-               + inheritance.get(GenotypeType.HET).get(GenotypeType.HOM_REF).get(GenotypeType.HET);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HET, GenotypeType.HET)
+               + inheritance(GenotypeType.HET, GenotypeType.HOM_REF, GenotypeType.HET);
         //return parentsHomRefHet_childVar;
     }
 
     //Count of ref alleles inherited from HomVar/Het parents (no violation)
     public int getParentsVarHetInheritedRef(){
-        return inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HET).get(GenotypeType.HET)
-               + inheritance.get(GenotypeType.HET).get(GenotypeType.HOM_VAR).get(GenotypeType.HET);
+        return inheritance(GenotypeType.HOM_VAR, GenotypeType.HET, GenotypeType.HET)
+               + inheritance(GenotypeType.HET, GenotypeType.HOM_VAR, GenotypeType.HET);
         //return parentsHomVarHet_childRef;
     }
 
     //Count of var alleles inherited from HomVar/Het parents (no violation)
     public int getParentsVarHetInheritedVar(){
-        return inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HET).get(GenotypeType.HOM_VAR)
-               + inheritance.get(GenotypeType.HET).get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_VAR);
+        return inheritance(GenotypeType.HOM_VAR, GenotypeType.HET, GenotypeType.HOM_VAR)
+               + inheritance(GenotypeType.HET, GenotypeType.HOM_VAR, GenotypeType.HOM_VAR);
         //return parentsHomVarHet_childVar;
     }
 
     //Count of violations of the type HOM_REF/HOM_REF -> HOM_VAR
     public int getParentsRefRefChildVar(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HOM_REF).get(GenotypeType.HOM_VAR);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HOM_REF, GenotypeType.HOM_VAR);
     }
 
     //Count of violations of the type HOM_REF/HOM_REF -> HET
     public int getParentsRefRefChildHet(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HOM_REF).get(GenotypeType.HET);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HOM_REF, GenotypeType.HET);
     }
 
     //Count of violations of the type HOM_REF/HET -> HOM_VAR
     public int getParentsRefHetChildVar(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HET).get(GenotypeType.HOM_VAR)
-                + inheritance.get(GenotypeType.HET).get(GenotypeType.HOM_REF).get(GenotypeType.HOM_VAR);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HET, GenotypeType.HOM_VAR)
+                + inheritance(GenotypeType.HET, GenotypeType.HOM_REF, GenotypeType.HOM_VAR);
     }
 
     //Count of violations of the type HOM_REF/HOM_VAR -> HOM_VAR
     public int getParentsRefVarChildVar(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_VAR)
-                + inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_REF).get(GenotypeType.HOM_VAR);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HOM_VAR, GenotypeType.HOM_VAR)
+                + inheritance(GenotypeType.HOM_VAR, GenotypeType.HOM_REF, GenotypeType.HOM_VAR);
     }
 
     //Count of violations of the type HOM_REF/HOM_VAR -> HOM_REF
     public int getParentsRefVarChildRef(){
-        return inheritance.get(GenotypeType.HOM_REF).get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_REF)
-                + inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_REF).get(GenotypeType.HOM_REF);
+        return inheritance(GenotypeType.HOM_REF, GenotypeType.HOM_VAR, GenotypeType.HOM_REF)
+                + inheritance(GenotypeType.HOM_VAR, GenotypeType.HOM_REF, GenotypeType.HOM_REF);
     }
 
     //Count of violations of the type HOM_VAR/HET -> HOM_REF
     public int getParentsVarHetChildRef(){
-        return inheritance.get(GenotypeType.HET).get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_REF)
-                + inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HET).get(GenotypeType.HOM_REF);
+        return inheritance(GenotypeType.HET, GenotypeType.HOM_VAR, GenotypeType.HOM_REF)
+                + inheritance(GenotypeType.HOM_VAR, GenotypeType.HET, GenotypeType.HOM_REF);
     }
 
     //Count of violations of the type HOM_VAR/HOM_VAR -> HOM_REF
     public int getParentsVarVarChildRef(){
-        return inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_REF);
+        return inheritance(GenotypeType.HOM_VAR, GenotypeType.HOM_VAR, GenotypeType.HOM_REF);
     }
 
     //Count of violations of the type HOM_VAR/HOM_VAR -> HET
     public int getParentsVarVarChildHet(){
-        return inheritance.get(GenotypeType.HOM_VAR).get(GenotypeType.HOM_VAR).get(GenotypeType.HET);
+        return inheritance(GenotypeType.HOM_VAR, GenotypeType.HOM_VAR, GenotypeType.HET);
     }
 
 
@@ -269,7 +291,6 @@ public class MendelianViolation {
         minGenotypeQuality = minGenotypeQualityP;
         this.abortOnSampleNotFound = abortOnSampleNotFound;
         violationFamilies = new ArrayList<String>();
-        createInheritanceMap();
     }
 
     /**
@@ -282,7 +303,6 @@ public class MendelianViolation {
         minGenotypeQuality = minGenotypeQualityP;
         this.abortOnSampleNotFound = abortOnSampleNotFound;
         violationFamilies = new ArrayList<String>();
-        createInheritanceMap();
         allCalledOnly = completeTriosOnly;
     }
 
@@ -293,14 +313,7 @@ public class MendelianViolation {
      */
     public int countViolations(Map<String, Set<Sample>> families, VariantContext vc){
 
-        //Reset counts
-        nocall = 0;
-        lowQual = 0;
-        familyCalled = 0;
-        varFamilyCalled = 0;
-        violations_total=0;
-        violationFamilies.clear();
-        clearInheritanceMap();
+        resetCounts();
 
         for(Set<Sample> family : families.values()){
             Iterator<Sample> sampleIterator = family.iterator();
@@ -314,24 +327,145 @@ public class MendelianViolation {
         return violations_total;
     }
 
+    /**
+     * Counts violations exactly as countViolations(families, vc) does for the families pedigree was made from, but
+     * looks up the genotypes of all of the trios' samples in one pass and checks the trios with integer operations
+     * on per-sample arrays, which is much faster for large pedigrees.
+     *
+     * @param pedigree the trios to be checked for Mendelian violations
+     * @param vc the variant context to extract the genotypes and alleles for mom, dad and child.
+     * @return the number of trios with a mendelian violation at the site.
+     */
+    public int countViolations(PedigreeIndex pedigree, VariantContext vc){
+
+        resetCounts();
+
+        if ( genotypeColumnsPedigree != pedigree ) {
+            genotypeColumns = pedigree.newGenotypeColumns();
+            genotypeColumnsPedigree = pedigree;
+        }
+        final Genotype[] genotypes = genotypeColumns.getGenotypes(vc.getGenotypes());
+        prepareSamples(genotypes, vc.getAlleles());
+
+        final int missing = -1, noCall = GenotypeType.NO_CALL.ordinal(), unavailable = GenotypeType.UNAVAILABLE.ordinal();
+        final int homRef = GenotypeType.HOM_REF.ordinal();
+
+        for ( int trio = 0; trio < pedigree.getNumberOfTrios(); trio++ ) {
+            final int mom = pedigree.getMotherIndex(trio), dad = pedigree.getFatherIndex(trio), child = pedigree.getChildIndex(trio);
+            final int momType = mom == -1 ? missing : sampleTypes[mom];
+            final int dadType = dad == -1 ? missing : sampleTypes[dad];
+            final int childType = sampleTypes[child];
+
+            if ( momType == missing || dadType == missing || childType == missing ){
+                if(abortOnSampleNotFound)
+                    throw new IllegalArgumentException(String.format("Variant %s:%d: Missing genotypes for family %s: mom=%s dad=%s family=%s", vc.getChr(), vc.getStart(), pedigree.getFamilyID(trio),
+                            mom == -1 ? null : pedigree.getSampleName(mom), dad == -1 ? null : pedigree.getSampleName(dad), pedigree.getSampleName(child)));
+                continue;
+            }
+
+            final boolean momCalled = momType != noCall && momType != unavailable;
+            final boolean dadCalled = dadType != noCall && dadType != unavailable;
+            final boolean childCalled = childType != noCall && childType != unavailable;
+
+            //Count No calls
+            if(allCalledOnly && (!momCalled || !dadCalled || !childCalled)){
+                nocall++;
+            }
+            else if (!momCalled && !dadCalled || !childCalled){
+                nocall++;
+            }
+            //Count lowQual. Note that if min quality is set to 0, even values with no quality associated are returned
+            else if (minGenotypeQuality>0 && (sampleQuals[mom] < minGenotypeQuality ||
+                    sampleQuals[dad] < minGenotypeQuality ||
+                    sampleQuals[child] < minGenotypeQuality )) {
+                lowQual++;
+            }
+            else{
+                //Count all families per loci called
+                familyCalled++;
+                //If the family is all homref, not too interesting
+                if(!(momType == homRef && dadType == homRef && childType == homRef))
+                {
+                    varFamilyCalled++;
+                    if(isViolation(genotypes, mom, dad, child)){
+                        violationFamilies.add(pedigree.getFamilyID(trio));
+                        violations_total++;
+                    }
+                }
+                inheritance[inheritanceOffset(momType, dadType, childType)]++;
+            }
+        }
+        return violations_total;
+    }
+
+    /**
+     * Fills in the per-sample arrays for the genotypes of a site: the type of each genotype, or -1 if it's missing,
+     * its quality, and for diploid genotypes of the site's alleles, the bit set of alleles it carries and each of
+     * its alleles as a bit.  Other genotypes have no allele bits, and are checked by their Alleles instead.
+     */
+    private void prepareSamples(final Genotype[] genotypes, final List<Allele> siteAlleles) {
+        if ( sampleTypes.length < genotypes.length ) {
+            sampleTypes = new int[genotypes.length];
+            sampleQuals = new double[genotypes.length];
+            sampleAlleles = new int[genotypes.length];
+            sampleFirstAlleles = new int[genotypes.length];
+            sampleSecondAlleles = new int[genotypes.length];
+        }
+
+        for ( int i = 0; i < genotypes.length; i++ ) {
+            final Genotype g = genotypes[i];
+            if ( g == null ) {
+                sampleTypes[i] = -1;
+                continue;
+            }
+
+            sampleTypes[i] = g.getType().ordinal();
+            sampleQuals[i] = g.hasGQ() ? g.getGQ() : -1;
+            sampleAlleles[i] = 0;
+            if ( g.getPloidy() == 2 ) {
+                final int first = siteAlleles.indexOf(g.getAllele(0)), second = siteAlleles.indexOf(g.getAllele(1));
+                if ( first != -1 && second != -1 && first < 31 && second < 31 ) {
+                    sampleFirstAlleles[i] = 1 << first;
+                    sampleSecondAlleles[i] = 1 << second;
+                    sampleAlleles[i] = sampleFirstAlleles[i] | sampleSecondAlleles[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * isViolation(gMom, gDad, gChild) for samples prepared by prepareSamples
+     */
+    private boolean isViolation(final Genotype[] genotypes, final int mom, final int dad, final int child) {
+        final int mAlleles = sampleAlleles[mom], dAlleles = sampleAlleles[dad];
+        if ( mAlleles == 0 || dAlleles == 0 || sampleAlleles[child] == 0 )
+            return isViolation(genotypes[mom], genotypes[dad], genotypes[child]);
+
+        //Both parents have genotype information
+        final int c0 = sampleFirstAlleles[child], c1 = sampleSecondAlleles[child];
+        return !((mAlleles & c0) != 0 && (dAlleles & c1) != 0 || (mAlleles & c1) != 0 && (dAlleles & c0) != 0);
+    }
+
     public boolean isViolation(Sample mother, Sample father, Sample child, VariantContext vc){
 
-        //Reset counts
+        resetCounts();
+        updateViolations(mother.getFamilyID(),mother.getID(),father.getID(),child.getID(),vc);
+        return violations_total>0;
+    }
+
+    private void resetCounts(){
         nocall = 0;
         lowQual = 0;
         familyCalled = 0;
         varFamilyCalled = 0;
         violations_total=0;
         violationFamilies.clear();
-        clearInheritanceMap();
-        updateViolations(mother.getFamilyID(),mother.getID(),father.getID(),child.getID(),vc);
-        return violations_total>0;
+        Arrays.fill(inheritance, 0);
     }
 
 
     private void updateViolations(String familyId, String motherId, String fatherId, String childId, VariantContext vc){
 
-            int count;
             Genotype gMom = vc.getGenotype(motherId);
             Genotype gDad = vc.getGenotype(fatherId);
             Genotype gChild = vc.getGenotype(childId);
@@ -367,8 +501,7 @@ public class MendelianViolation {
                         violations_total++;
                     }
                 }
-                count = inheritance.get(gMom.getType()).get(gDad.getType()).get(gChild.getType());
-                inheritance.get(gMom.getType()).get(gDad.getType()).put(gChild.getType(),count+1);
+                inheritance[inheritanceOffset(gMom.getType().ordinal(), gDad.getType().ordinal(), gChild.getType().ordinal())]++;
 
             }
     }
@@ -386,36 +519,10 @@ public class MendelianViolation {
             gMom.getAlleles().contains(gChild.getAlleles().get(1)) && gDad.getAlleles().contains(gChild.getAlleles().get(0)));
     }
 
-    private void createInheritanceMap(){
-
-        inheritance = new EnumMap<GenotypeType,EnumMap<GenotypeType,EnumMap<GenotypeType,Integer>>>(GenotypeType.class);
-        for(GenotypeType mType : GenotypeType.values()){
-            inheritance.put(mType, new EnumMap<GenotypeType,EnumMap<GenotypeType,Integer>>(GenotypeType.class));
-            for(GenotypeType dType : GenotypeType.values()){
-                inheritance.get(mType).put(dType, new EnumMap<GenotypeType,Integer>(GenotypeType.class));
-                for(GenotypeType cType : GenotypeType.values()){
-                    inheritance.get(mType).get(dType).put(cType, 0);
-                }
-            }
-        }
-
-    }
-
-    private void clearInheritanceMap(){
-        for(GenotypeType mType : GenotypeType.values()){
-            for(GenotypeType dType : GenotypeType.values()){
-                for(GenotypeType cType : GenotypeType.values()){
-                    inheritance.get(mType).get(dType).put(cType, 0);
-                }
-            }
-        }
-    }
-
     /**
      * @return the likelihood ratio for a mendelian violation
      */
     public double violationLikelihoodRatio(VariantContext vc, String motherId, String fatherId, String childId) {
-        double[] logLikAssignments = new double[27];
         // the matrix to set up is
         // MOM   DAD    CHILD
         //                    |-  AA
@@ -424,26 +531,21 @@ public class MendelianViolation {
         //                    |- AA
         //  AA     AB     |   AB
         //                    |- BB
-        // etc. The leaves are counted as 0-11 for MVs and 0-14 for non-MVs
+        // etc. The leaves are counted as 0-11 for MVs and 0-14 for non-MVs, and the leaf at offset o is
+        // mom o / 9, dad (o / 3) % 3 and child o % 3, so we only compute the likelihoods of the leaves we need
         double[] momGL = vc.getGenotype(motherId).getLikelihoods().getAsVector();
         double[] dadGL = vc.getGenotype(fatherId).getLikelihoods().getAsVector();
         double[] childGL = vc.getGenotype(childId).getLikelihoods().getAsVector();
-        int offset = 0;
-        for ( int oMom = 0; oMom < 3; oMom++ ) {
-            for ( int oDad = 0; oDad < 3; oDad++ ) {
-                for ( int oChild = 0; oChild < 3; oChild ++ ) {
-                    logLikAssignments[offset++] = momGL[oMom] + dadGL[oDad] + childGL[oChild];
-                }
-            }
-        }
         double[] mvLiks = new double[12];
         double[] nonMVLiks = new double[15];
         for ( int i = 0; i < 12; i ++ ) {
-            mvLiks[i] = logLikAssignments[mvOffsets[i]];
+            final int o = mvOffsets[i];
+            mvLiks[i] = momGL[o / 9] + dadGL[(o / 3) % 3] + childGL[o % 3];
         }
 
         for ( int i = 0; i < 15; i++) {
-            nonMVLiks[i] = logLikAssignments[nonMVOffsets[i]];
+            final int o = nonMVOffsets[i];
+            nonMVLiks[i] = momGL[o / 9] + dadGL[(o / 3) % 3] + childGL[o % 3];
         }
 
         return MathUtils.log10sumLog10(mvLiks) - MathUtils.log10sumLog10(nonMVLiks);
@@ -0,0 +1,408 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.activeregion;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.GenomeLocSortedSet;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A band pass activity profile that keeps its probabilities in a circular primitive array
+ *
+ * Produces exactly the same states and active regions as BandPassActivityProfile, but instead of
+ * expanding each incoming state into a list of ActivityProfileStates (each with its own GenomeLoc)
+ * and merging them into a list of states, the Gaussian kernel is convolved directly into a
+ * circular double[] window indexed by the offset from the start of the profile.  The region
+ * boundary search runs on the raw array, and ActivityProfileStates are only materialized for
+ * the states supporting the regions we actually pop off the profile.
+ */
+public class ArrayBandPassActivityProfile extends BandPassActivityProfile {
+    private final static int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The probabilities of the states in this profile.  The state at offset i from regionStartLoc lives
+     * at probs[(head + i) & (probs.length - 1)].  The length of probs is always a power of 2
+     */
+    private double[] probs = new double[INITIAL_CAPACITY];
+    private int head = 0;
+    private int nStates = 0;
+
+    /**
+     * Create a new ArrayBandPassActivityProfile with default sigma and filter sizes
+     *
+     * @see BandPassActivityProfile#BandPassActivityProfile(org.broadinstitute.sting.utils.GenomeLocParser, org.broadinstitute.sting.utils.GenomeLocSortedSet)
+     */
+    public ArrayBandPassActivityProfile(final GenomeLocParser parser, final GenomeLocSortedSet restrictToIntervals) {
+        super(parser, restrictToIntervals);
+    }
+
+    /**
+     * @see BandPassActivityProfile#BandPassActivityProfile(org.broadinstitute.sting.utils.GenomeLocParser, org.broadinstitute.sting.utils.GenomeLocSortedSet, int, double)
+     */
+    public ArrayBandPassActivityProfile(final GenomeLocParser parser, final GenomeLocSortedSet restrictToIntervals, final int maxFilterSize, final double sigma) {
+        super(parser, restrictToIntervals, maxFilterSize, sigma);
+    }
+
+    /**
+     * @see BandPassActivityProfile#BandPassActivityProfile(org.broadinstitute.sting.utils.GenomeLocParser, org.broadinstitute.sting.utils.GenomeLocSortedSet, int, double, boolean)
+     */
+    public ArrayBandPassActivityProfile(final GenomeLocParser parser, final GenomeLocSortedSet restrictToIntervals, final int maxFilterSize, final double sigma, final boolean adaptiveFilterSize) {
+        super(parser, restrictToIntervals, maxFilterSize, sigma, adaptiveFilterSize);
+    }
+
+    @Override
+    public int size() {
+        return nStates;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return nStates == 0;
+    }
+
+    /**
+     * Materialize the states of this profile as a list of ActivityProfileStates
+     *
+     * Only intended for debugging and testing, as this creates a new state (and GenomeLoc) for each bp
+     *
+     * @return a non-null, ordered list of newly created states
+     */
+    @Override
+    protected List<ActivityProfileState> getStateList() {
+        return makeStates(0, nStates);
+    }
+
+    @Override
+    protected double[] getProbabilitiesAsArray() {
+        final double[] result = new double[nStates];
+        for ( int i = 0; i < nStates; i++ )
+            result[i] = getProb(i);
+        return result;
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // routines to add states to a profile
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * Add the next ActivityProfileState to this profile, convolving its probability into the window in place
+     *
+     * Must be contiguous with the previously added result, or an IllegalArgumentException will be thrown
+     *
+     * @param state a well-formed ActivityProfileState result to incorporate into this profile
+     */
+    @Override
+    @Requires("state != null")
+    public void add(final ActivityProfileState state) {
+        final GenomeLoc loc = state.getLoc();
+
+        if ( regionStartLoc == null ) {
+            regionStartLoc = loc;
+            regionStopLoc = loc;
+            contigLength = parser.getContigInfo(regionStartLoc.getContig()).getSequenceLength();
+        } else {
+            if ( regionStopLoc.getStart() != loc.getStart() - 1 )
+                throw new IllegalArgumentException("Bad add call to ActivityProfile: loc " + loc + " not immediately after last loc " + regionStopLoc );
+            regionStopLoc = loc;
+        }
+
+        final int center = loc.getStart();
+        final double prob = state.isActiveProb;
+
+        if ( prob > 0.0 ) {
+            // high quality soft clips spread the state over the clipped bases, but each copy is filtered
+            // around the original locus, so the net effect is nCopies convolutions centered on loc
+            final int nCopies = state.resultState.equals(ActivityProfileState.Type.HIGH_QUALITY_SOFT_CLIPS)
+                    ? countPositionsOnContig(center, Math.min(state.resultValue.intValue(), getMaxProbPropagationDistance()))
+                    : 1;
+            for ( int copy = 0; copy < nCopies; copy++ )
+                convolve(center, prob);
+        } else {
+            incorporateProb(center - regionStartLoc.getStart(), prob);
+        }
+    }
+
+    /**
+     * Count the positions in [center - distance, center + distance] that lie on the current contig
+     *
+     * @param center the center position
+     * @param distance the number of bp on either side of center to consider
+     * @return the number of valid positions
+     */
+    @Requires("distance >= 0")
+    private int countPositionsOnContig(final int center, final int distance) {
+        int n = 0;
+        for ( int pos = center - distance; pos <= center + distance; pos++ )
+            if ( isOnContig(pos) ) n++;
+        return n;
+    }
+
+    private boolean isOnContig(final int pos) {
+        return pos >= 0 && pos <= contigLength;
+    }
+
+    /**
+     * Add prob times the Gaussian kernel centered on position center into the window
+     *
+     * @param center the genomic position of the center of the kernel
+     * @param prob the probability to spread around center
+     */
+    private void convolve(final int center, final double prob) {
+        final double[] kernel = getKernel();
+        final int filterSize = getFilteredSize();
+        final int centerOffset = center - regionStartLoc.getStart();
+
+        for( int jjj = -filterSize; jjj <= filterSize; jjj++ ) {
+            if ( isOnContig(center + jjj) )
+                incorporateProb(centerOffset + jjj, prob * kernel[jjj + filterSize]);
+        }
+    }
+
+    /**
+     * Incorporate prob into the state at offset position
+     *
+     * If position occurs immediately after the last state in this profile, then a new state is appended
+     * to the window.  If it's within the existing states, prob is added to that state.  If the position
+     * would be before the start of this profile, prob is simply ignored.
+     *
+     * @param position the offset of the state w.r.t. regionStartLoc
+     * @param prob the probability to add
+     */
+    private void incorporateProb(final int position, final double prob) {
+        if ( position > nStates )
+            throw new IllegalArgumentException("Must add state contiguous to existing states: adding state at offset " + position + " to profile of size " + nStates);
+
+        if ( position >= 0 ) {
+            if ( position < nStates ) {
+                probs[index(position)] += prob;
+            } else {
+                if ( nStates == probs.length ) growWindow();
+                probs[index(nStates)] = prob;
+                nStates++;
+            }
+        }
+    }
+
+    /**
+     * Double the capacity of the window, unwrapping the states so that the first one is at index 0
+     */
+    private void growWindow() {
+        final double[] newProbs = new double[probs.length * 2];
+        for ( int i = 0; i < nStates; i++ )
+            newProbs[i] = getProb(i);
+        probs = newProbs;
+        head = 0;
+    }
+
+    private int index(final int offset) {
+        return (head + offset) & (probs.length - 1);
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // routines to get active regions from the profile
+    //
+    // --------------------------------------------------------------------------------
+
+    @Override
+    @Ensures("result != null")
+    public List<ActiveRegion> popReadyActiveRegions(final int activeRegionExtension, final int minRegionSize, final int maxRegionSize, final boolean forceConversion) {
+        if ( activeRegionExtension < 0 ) throw new IllegalArgumentException("activeRegionExtension must be >= 0 but got " + activeRegionExtension);
+        if ( minRegionSize < 1 ) throw new IllegalArgumentException("minRegionSize must be >= 1 but got " + minRegionSize);
+        if ( maxRegionSize < 1 ) throw new IllegalArgumentException("maxRegionSize must be >= 1 but got " + maxRegionSize);
+
+        final LinkedList<ActiveRegion> regions = new LinkedList<ActiveRegion>();
+
+        while ( true ) {
+            final ActiveRegion nextRegion = popNextReadyActiveRegion(activeRegionExtension, minRegionSize, maxRegionSize, forceConversion);
+            if ( nextRegion == null )
+                return regions;
+            else {
+                if ( restrictToIntervals == null )
+                    regions.add(nextRegion);
+                else
+                    regions.addAll(nextRegion.splitAndTrimToIntervals(restrictToIntervals));
+            }
+        }
+    }
+
+    /**
+     * Helper function for popReadyActiveRegions that pops the first ready region off the front of this profile
+     *
+     * @see ActivityProfile#popReadyActiveRegions(int, int, int, boolean)
+     *
+     * @return a fully formed active region, or null if none can be made
+     */
+    private ActiveRegion popNextReadyActiveRegion(final int activeRegionExtension, final int minRegionSize, final int maxRegionSize, final boolean forceConversion) {
+        if ( nStates == 0 )
+            return null;
+
+        // If we are flushing the activity profile we need to trim off the excess states so that we don't create regions outside of our current processing interval
+        if( forceConversion )
+            nStates = Math.min(nStates, getSpan().size());
+
+        final boolean isActiveRegion = getProb(0) > ACTIVE_PROB_THRESHOLD;
+        final int offsetOfNextRegionEnd = findEndOfRegion(isActiveRegion, minRegionSize, maxRegionSize, forceConversion);
+        if ( offsetOfNextRegionEnd == -1 )
+            // couldn't find a valid ending offset, so we return null
+            return null;
+
+        // we need to create the active region, and clip out the states we're extracting from this profile
+        final int nStatesInRegion = offsetOfNextRegionEnd + 1;
+        final List<ActivityProfileState> supportingStates = makeStates(0, nStatesInRegion);
+        final GenomeLoc first = regionStartLoc;
+        head = index(nStatesInRegion);
+        nStates -= nStatesInRegion;
+
+        // update the start and stop locations as necessary
+        if ( nStates == 0 ) {
+            regionStartLoc = regionStopLoc = null;
+            head = 0;
+        } else {
+            regionStartLoc = makeLoc(first, nStatesInRegion);
+        }
+        final GenomeLoc regionLoc = parser.createGenomeLoc(first.getContig(), first.getStart(), first.getStart() + offsetOfNextRegionEnd);
+        return new ActiveRegion(regionLoc, supportingStates, isActiveRegion, parser, activeRegionExtension);
+    }
+
+    /**
+     * Create ActivityProfileStates for the states in [start, end) of this profile
+     *
+     * @param start the offset of the first state to create
+     * @param end the offset just past the last state to create
+     * @return a non-null list of states
+     */
+    @Requires({"start >= 0", "end <= nStates"})
+    @Ensures("result != null")
+    private List<ActivityProfileState> makeStates(final int start, final int end) {
+        final List<ActivityProfileState> states = new ArrayList<ActivityProfileState>(end - start);
+        for ( int i = start; i < end; i++ ) {
+            // convolved probabilities can sum to > 1, which the state constructor doesn't allow, so set it directly
+            final ActivityProfileState state = new ActivityProfileState(makeLoc(regionStartLoc, i), 0.0);
+            state.isActiveProb = getProb(i);
+            states.add(state);
+        }
+        return states;
+    }
+
+    private GenomeLoc makeLoc(final GenomeLoc relativeLoc, final int offset) {
+        final int start = relativeLoc.getStart() + offset;
+        return parser.createGenomeLoc(relativeLoc.getContig(), relativeLoc.getContigIndex(), start, start);
+    }
+
+    /**
+     * Find the end of the current region, returning the index into the element isActive element, or -1 if the region isn't done
+     *
+     * @see ActivityProfile for the details of the region boundary search, which this follows exactly
+     *
+     * @return the offset of the last element of this region, or -1 if it cannot be found
+     */
+    @Ensures({
+            "result >= -1",
+            "result == -1 || result < maxRegionSize",
+            "! (result == -1 && forceConversion)"})
+    private int findEndOfRegion(final boolean isActiveRegion, final int minRegionSize, final int maxRegionSize, final boolean forceConversion) {
+        if ( ! forceConversion && nStates < maxRegionSize + getMaxProbPropagationDistance() ) {
+            // we really haven't finalized at the probability mass that might affect our decision, so keep
+            // waiting until we do before we try to make any decisions
+            return -1;
+        }
+
+        int endOfActiveRegion = findFirstActivityBoundary(isActiveRegion, maxRegionSize);
+
+        if ( isActiveRegion && endOfActiveRegion == maxRegionSize )
+            // we've run to the end of the region, let's find a good place to cut
+            endOfActiveRegion = findBestCutSite(endOfActiveRegion, minRegionSize);
+
+        // we're one past the end, so i must be decremented
+        return endOfActiveRegion - 1;
+    }
+
+    @Requires({"endOfActiveRegion >= minRegionSize", "minRegionSize >= 0"})
+    @Ensures({"result >= minRegionSize", "result <= endOfActiveRegion"})
+    private int findBestCutSite(final int endOfActiveRegion, final int minRegionSize) {
+        int minI = endOfActiveRegion - 1;
+        double minP = Double.MAX_VALUE;
+
+        for ( int i = minI; i >= minRegionSize - 1; i-- ) {
+            double cur = getProb(i);
+            if ( cur < minP && isMinimum(i) ) {
+                minP = cur;
+                minI = i;
+            }
+        }
+
+        return minI + 1;
+    }
+
+    @Requires({"maxRegionSize > 0"})
+    @Ensures({"result >= 0", "result <= nStates"})
+    private int findFirstActivityBoundary(final boolean isActiveRegion, final int maxRegionSize) {
+        final int end = Math.min(nStates, maxRegionSize);
+        int endOfActiveRegion = 0;
+
+        while ( endOfActiveRegion < end ) {
+            if ( getProb(endOfActiveRegion) > ACTIVE_PROB_THRESHOLD != isActiveRegion ) {
+                break;
+            }
+            endOfActiveRegion++;
+        }
+
+        return endOfActiveRegion;
+    }
+
+    /**
+     * Helper function to get the probability of the state at offset index
+     * @param index a valid offset into the window
+     * @return the probability of the state at index
+     */
+    @Requires({"index >= 0", "index < nStates"})
+    private double getProb(final int index) {
+        return probs[index(index)];
+    }
+
+    @Requires({"index >= 0", "index < nStates"})
+    private boolean isMinimum(final int index) {
+        if ( index == nStates - 1 )
+            // we cannot be at a minimum if the current position is the last in the state list
+            return false;
+        else if ( index < 1 )
+            // we cannot be at a minimum if the current position is the first or second
+            return false;
+        else {
+            final double indexP = getProb(index);
+            return indexP <= getProb(index+1) && indexP < getProb(index-1);
+        }
+    }
+}
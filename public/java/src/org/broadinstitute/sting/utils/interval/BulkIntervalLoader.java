@@ -0,0 +1,519 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.interval;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMTextHeaderCodec;
+import net.sf.samtools.util.StringLineReader;
+import org.apache.log4j.Logger;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.threading.NamedThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Loads interval files straight into PackedIntervals, without creating a String or GenomeLoc per line.
+ *
+ * The file is memory-mapped and cut into chunks at line boundaries, and large files have their chunks parsed in
+ * parallel.  Only the common, well-formed cases of each format are handled here: if the loader comes across
+ * anything else (an unknown contig, a malformed line, a compressed file, ...) it gives up and returns null, and the
+ * caller should fall back to the line-by-line parsers, which then produce exactly the errors they always have.
+ */
+public final class BulkIntervalLoader {
+    private static Logger logger = Logger.getLogger(BulkIntervalLoader.class);
+
+    /**
+     * Each chunk covers about this many bytes of the file
+     */
+    protected static int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Lines longer than this are left to the line-by-line parsers
+     */
+    private final static int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private final static int NOT_IN_HEADER = -1;
+    private final static int NOT_IN_REFERENCE = -2;
+
+    private enum Format { GATK, PICARD, BED }
+
+    private BulkIntervalLoader() {}
+
+    /**
+     * Loads a Picard or GATK interval file, as IntervalUtils.intervalFileToList would
+     *
+     * @param parser the parser for the reference the intervals are on
+     * @param file the interval file
+     * @return the intervals in file order, or null if this file has to be loaded by the line-by-line parser
+     */
+    public static PackedIntervals loadIntervalFile(final GenomeLocParser parser, final File file) {
+        return load(parser, file, false);
+    }
+
+    /**
+     * Loads an uncompressed BED file, as reading it through the Tribble BEDCodec would
+     *
+     * @param parser the parser for the reference the intervals are on
+     * @param file the BED file
+     * @return the intervals in file order, or null if this file has to be read through Tribble
+     */
+    public static PackedIntervals loadBEDFile(final GenomeLocParser parser, final File file) {
+        return load(parser, file, true);
+    }
+
+    private static PackedIntervals load(final GenomeLocParser parser, final File file, final boolean isBED) {
+        if ( ! file.isFile() )
+            return null;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if ( size == 0 )
+                return new PackedIntervals();
+
+            // look at the first bytes to work out the format, and read past any header
+            final MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+            Format format = isBED ? Format.BED : Format.GATK;
+            SAMSequenceDictionary headerDictionary = null;
+            long dataStart = 0;
+            if ( isBED ) {
+                if ( size >= 2 && head.get(0) == (byte)0x1f && head.get(1) == (byte)0x8b )
+                    return null; // gzipped
+            } else if ( head.get(0) == '@' ) {
+                format = Format.PICARD;
+                final StringBuilder header = new StringBuilder();
+                while ( dataStart < head.limit() && head.get((int)dataStart) == '@' ) {
+                    int end = (int)dataStart;
+                    while ( end < head.limit() && head.get(end) != '\n' ) end++;
+                    final byte[] line = new byte[end - (int)dataStart];
+                    head.position((int)dataStart);
+                    head.get(line);
+                    header.append(new String(line, Charset.defaultCharset()).replaceFirst("\r$", "")).append('\n');
+                    dataStart = end + 1;
+                }
+                headerDictionary = new SAMTextHeaderCodec().decode(new StringLineReader(header.toString()), file.toString()).getSequenceDictionary();
+                if ( dataStart >= size )
+                    return null; // Picard can't read a header without any lines after it
+            }
+
+            final List<Chunk> chunks = new ArrayList<Chunk>();
+            for ( long from = dataStart; from < size; from += CHUNK_SIZE )
+                chunks.add(new Chunk(channel, size, dataStart, from, Math.min(size, from + CHUNK_SIZE), format, parser, headerDictionary));
+
+            final List<Chunk> parsed = chunks.size() == 1 ? parseInline(chunks) : parseInParallel(chunks);
+
+            long nIntervals = 0;
+            for ( final Chunk chunk : parsed ) {
+                if ( chunk.intervals == null )
+                    return null;
+                nIntervals += chunk.intervals.size();
+            }
+
+            final PackedIntervals intervals = new PackedIntervals((int)Math.min(nIntervals, Integer.MAX_VALUE));
+            long nInvalidIntervals = 0, nNotInHeader = 0;
+            for ( final Chunk chunk : parsed ) {
+                intervals.addAll(chunk.intervals);
+                nInvalidIntervals += chunk.nInvalidIntervals;
+                nNotInHeader += chunk.nNotInHeader;
+            }
+
+            if ( nNotInHeader > 0 )
+                logger.warn("Ignoring " + nNotInHeader + " intervals on contigs not in the header of " + file);
+            if ( nInvalidIntervals > 0 )
+                logger.warn("Ignoring " + nInvalidIntervals + " invalid intervals from " + file);
+            return intervals;
+        } catch ( IOException e ) {
+            return null;
+        } catch ( RuntimeException e ) {
+            // most likely a malformed header; the line-by-line parsers will report it properly
+            return null;
+        } finally {
+            if ( raf != null ) {
+                try { raf.close(); } catch ( IOException e ) { /* we've read everything we need */ }
+            }
+        }
+    }
+
+    private static List<Chunk> parseInline(final List<Chunk> chunks) throws IOException {
+        for ( final Chunk chunk : chunks )
+            chunk.call();
+        return chunks;
+    }
+
+    private static List<Chunk> parseInParallel(final List<Chunk> chunks) throws IOException {
+        final int nThreads = Math.min(chunks.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("IntervalLoader-thread-%d"));
+        try {
+            final List<Future<Chunk>> futures = executor.invokeAll(chunks);
+            final List<Chunk> parsed = new ArrayList<Chunk>(futures.size());
+            for ( final Future<Chunk> future : futures )
+                parsed.add(future.get());
+            return parsed;
+        } catch ( InterruptedException e ) {
+            throw new ReviewedStingException("Interrupted while loading intervals", e);
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof IOException )
+                throw (IOException)e.getCause();
+            throw new ReviewedStingException("Failed to load intervals", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The lines starting in one region of the file, and the intervals parsed from them.  If the chunk couldn't be
+     * parsed its intervals are null.
+     */
+    private final static class Chunk implements Callable<Chunk> {
+        private final FileChannel channel;
+        private final long fileSize, dataStart, from, to;
+        private final Format format;
+        private final GenomeLocParser parser;
+        private final SAMSequenceDictionary headerDictionary;
+
+        private byte[] bytes;
+
+        // an open addressing hash table of the contig names we've seen, so we needn't make a String for every line
+        private byte[][] contigNames = new byte[64][];
+        private int[] contigNameIndices = new int[64];
+        private int[] contigNameSizes = new int[64];
+        private int nContigNames = 0;
+
+        // the contig of the line we're parsing
+        private int lastContigIndex = -1;
+        private int lastContigSize = -1;
+
+        PackedIntervals intervals = null;
+        long nInvalidIntervals = 0;
+        long nNotInHeader = 0;
+
+        private Chunk(final FileChannel channel, final long fileSize, final long dataStart, final long from, final long to,
+                      final Format format, final GenomeLocParser parser, final SAMSequenceDictionary headerDictionary) {
+            this.channel = channel;
+            this.fileSize = fileSize;
+            this.dataStart = dataStart;
+            this.from = from;
+            this.to = to;
+            this.format = format;
+            this.parser = parser;
+            this.headerDictionary = headerDictionary;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            // map one byte before our region, to see whether a line starts at from, and enough after it to finish
+            // the last line that starts within it
+            final long mapStart = from > dataStart ? from - 1 : from;
+            final long mapEnd = Math.min(fileSize, to + MAX_LINE_LENGTH);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+            bytes = new byte[(int)(mapEnd - mapStart)];
+            buffer.get(bytes);
+
+            int pos = 0;
+            if ( mapStart < from ) {
+                // skip the end of the line that the previous chunk finishes
+                while ( pos < bytes.length && bytes[pos] != '\n' ) pos++;
+                pos++;
+            }
+
+            final int last = (int)(to - mapStart); // lines starting at or after last are the next chunk's
+            final PackedIntervals parsed = new PackedIntervals((int)Math.min(Integer.MAX_VALUE / 2, (to - from) / 16));
+            while ( pos < last ) {
+                int end = pos;
+                while ( end < bytes.length && bytes[end] != '\n' ) end++;
+                if ( end == bytes.length && mapEnd < fileSize )
+                    return this; // the line is too long for us
+                if ( ! parseLine(pos, end, parsed) )
+                    return this;
+                pos = end + 1;
+            }
+
+            bytes = null;
+            intervals = parsed;
+            return this;
+        }
+
+        private static boolean isWhitespace(final byte b) {
+            // as String.trim() sees it
+            return (b & 0xFF) <= ' ';
+        }
+
+        /**
+         * @return false if the line [start, end) can't be handled here
+         */
+        private boolean parseLine(int start, int end, final PackedIntervals parsed) {
+            // skip lines that are blank, and trim the others as the line readers do
+            int first = start;
+            while ( first < end && isWhitespace(bytes[first]) ) first++;
+            if ( first == end )
+                return true;
+
+            switch ( format ) {
+                case GATK:
+                    while ( isWhitespace(bytes[end - 1]) ) end--;
+                    return parseGATKLine(first, end, parsed);
+                case PICARD:
+                    if ( bytes[end - 1] == '\r' ) end--;
+                    return parsePicardLine(start, end, parsed);
+                default:
+                    return parseBEDLine(start, end, parsed);
+            }
+        }
+
+        /**
+         * Parses contig, contig:start, contig:start+ or contig:start-stop, as GenomeLocParser.parseGenomeLoc does
+         */
+        private boolean parseGATKLine(final int start, final int end, final PackedIntervals parsed) {
+            int colon = -1, dash = -1;
+            for ( int i = start; i < end; i++ ) {
+                final byte b = bytes[i];
+                if ( isWhitespace(b) || b < 0 )
+                    return false;
+                if ( b == ':' ) {
+                    colon = i;
+                    dash = -1;
+                } else if ( b == '-' && dash == -1 && colon != -1 ) {
+                    dash = i;
+                }
+            }
+
+            final int contigEnd = colon == -1 ? end : colon;
+            if ( ! lookupContig(start, contigEnd) || lastContigIndex < 0 )
+                return false;
+
+            int intervalStart = 1, intervalStop = lastContigSize;
+            if ( colon != -1 ) {
+                if ( dash != -1 ) {
+                    intervalStart = parsePosition(colon + 1, dash, true);
+                    intervalStop = parsePosition(dash + 1, end, true);
+                } else if ( bytes[end - 1] == '+' ) {
+                    intervalStart = parsePosition(colon + 1, end - 1, true);
+                } else {
+                    intervalStart = parsePosition(colon + 1, end, true);
+                    intervalStop = intervalStart;
+                }
+            }
+
+            if ( intervalStart < 1 || intervalStop < intervalStart || intervalStop > lastContigSize )
+                return false;
+            parsed.add(lastContigIndex, intervalStart, intervalStop);
+            return true;
+        }
+
+        /**
+         * Parses contig, start, end, strand and name tab-separated fields, as Picard's IntervalList does
+         */
+        private boolean parsePicardLine(final int start, final int end, final PackedIntervals parsed) {
+            final int[] tabs = new int[4];
+            int nTabs = 0;
+            for ( int i = start; i < end; i++ ) {
+                if ( bytes[i] == '\t' ) {
+                    if ( nTabs == tabs.length )
+                        return false;
+                    tabs[nTabs++] = i;
+                } else if ( bytes[i] == '\r' ) {
+                    return false;
+                }
+            }
+            if ( nTabs != tabs.length || tabs[0] == start || tabs[3] == end - 1 )
+                return false;
+
+            final int intervalStart = parsePosition(tabs[0] + 1, tabs[1], false);
+            final int intervalStop = parsePosition(tabs[1] + 1, tabs[2], false);
+            final int strandLength = tabs[3] - tabs[2] - 1;
+            if ( intervalStart < 0 || intervalStop < 0 || strandLength != 1 || (bytes[tabs[2] + 1] != '+' && bytes[tabs[2] + 1] != '-') )
+                return false;
+
+            for ( int i = start; i < tabs[0]; i++ )
+                if ( bytes[i] < 0 )
+                    return false;
+            if ( ! lookupContig(start, tabs[0]) )
+                return false;
+
+            if ( lastContigIndex == NOT_IN_HEADER )
+                nNotInHeader++;
+            else if ( lastContigIndex < 0 || intervalStart < 1 || intervalStop < intervalStart || intervalStop > lastContigSize )
+                nInvalidIntervals++;
+            else
+                parsed.add(lastContigIndex, intervalStart, intervalStop);
+            return true;
+        }
+
+        /**
+         * Parses the contig, 0-based start and optional end of a BED line, as the Tribble BEDCodec does
+         */
+        private boolean parseBEDLine(final int start, final int end, final PackedIntervals parsed) {
+            if ( startsWith(start, end, "#") || startsWith(start, end, "track") || startsWith(start, end, "browser") )
+                return true;
+
+            final int[] tabs = new int[7];
+            int nTabs = 0;
+            for ( int i = start; i < end; i++ ) {
+                final byte b = bytes[i];
+                if ( b == '\t' ) {
+                    if ( nTabs == tabs.length )
+                        return false; // colors and blocks could be malformed; leave them to the codec
+                    tabs[nTabs++] = i;
+                } else if ( b == ' ' || b == '\r' || (b < 0 && nTabs == 0) ) {
+                    return false;
+                }
+            }
+            if ( nTabs == 0 )
+                return true; // the codec skips lines without a start
+
+            if ( ! lookupContig(start, tabs[0]) || lastContigIndex < 0 )
+                return false;
+
+            final int start0 = parsePosition(tabs[0] + 1, nTabs > 1 ? tabs[1] : end, false);
+            final int intervalStop = nTabs > 1 ? parsePosition(tabs[1] + 1, nTabs > 2 ? tabs[2] : end, false) : start0 + 1;
+            if ( start0 < 0 || start0 == Integer.MAX_VALUE || intervalStop < 0 || intervalStop < start0 + 1 )
+                return false;
+            parsed.add(lastContigIndex, start0 + 1, intervalStop);
+            return true;
+        }
+
+        private boolean startsWith(final int start, final int end, final String prefix) {
+            if ( end - start < prefix.length() )
+                return false;
+            for ( int i = 0; i < prefix.length(); i++ )
+                if ( bytes[start + i] != prefix.charAt(i) )
+                    return false;
+            return true;
+        }
+
+        /**
+         * @param allowCommas may the digits be grouped with commas, as in 1,000,000?
+         * @return the non-negative integer written in [start, end), or -1 if it isn't one
+         */
+        private int parsePosition(final int start, final int end, final boolean allowCommas) {
+            long value = 0;
+            int nDigits = 0;
+            for ( int i = start; i < end; i++ ) {
+                final byte b = bytes[i];
+                if ( b >= '0' && b <= '9' ) {
+                    value = 10 * value + (b - '0');
+                    if ( value > Integer.MAX_VALUE )
+                        return -1;
+                    nDigits++;
+                } else if ( b != ',' || ! allowCommas ) {
+                    return -1;
+                }
+            }
+            return nDigits == 0 ? -1 : (int)value;
+        }
+
+        /**
+         * Points lastContigIndex and lastContigSize at the contig named by [start, end).  lastContigIndex is
+         * NOT_IN_HEADER if a Picard file's header doesn't have the contig, and -2 if the reference doesn't.
+         *
+         * @return false if the contig name can't be handled here
+         */
+        private boolean lookupContig(final int start, final int end) {
+            int hash = 0;
+            for ( int i = start; i < end; i++ )
+                hash = 31 * hash + bytes[i];
+
+            final int mask = contigNames.length - 1;
+            int slot = hash & mask;
+            while ( contigNames[slot] != null ) {
+                if ( equals(contigNames[slot], start, end) ) {
+                    lastContigIndex = contigNameIndices[slot];
+                    lastContigSize = contigNameSizes[slot];
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if ( end == start )
+                return false;
+            for ( int i = start; i < end; i++ )
+                if ( bytes[i] < 0 )
+                    return false; // not ASCII, so leave the decoding to the line readers
+
+            final String contig = new String(bytes, start, end - start, Charset.forName("US-ASCII"));
+            lastContigSize = -1;
+            if ( headerDictionary != null && headerDictionary.getSequence(contig) == null )
+                lastContigIndex = NOT_IN_HEADER;
+            else if ( ! parser.contigIsInDictionary(contig) )
+                lastContigIndex = NOT_IN_REFERENCE;
+            else {
+                lastContigIndex = parser.getContigIndex(contig);
+                lastContigSize = parser.getContigs().getSequence(lastContigIndex).getSequenceLength();
+            }
+
+            contigNames[slot] = Arrays.copyOfRange(bytes, start, end);
+            contigNameIndices[slot] = lastContigIndex;
+            contigNameSizes[slot] = lastContigSize;
+            if ( ++nContigNames > contigNames.length / 2 )
+                growContigNames();
+            return true;
+        }
+
+        private boolean equals(final byte[] name, final int start, final int end) {
+            if ( name.length != end - start )
+                return false;
+            for ( int i = 0; i < name.length; i++ )
+                if ( name[i] != bytes[start + i] )
+                    return false;
+            return true;
+        }
+
+        private void growContigNames() {
+            final byte[][] oldNames = contigNames;
+            final int[] oldIndices = contigNameIndices;
+            final int[] oldSizes = contigNameSizes;
+            contigNames = new byte[2 * oldNames.length][];
+            contigNameIndices = new int[2 * oldNames.length];
+            contigNameSizes = new int[2 * oldNames.length];
+            final int mask = contigNames.length - 1;
+            for ( int i = 0; i < oldNames.length; i++ ) {
+                if ( oldNames[i] == null )
+                    continue;
+                int hash = 0;
+                for ( final byte b : oldNames[i] )
+                    hash = 31 * hash + b;
+                int slot = hash & mask;
+                while ( contigNames[slot] != null )
+                    slot = (slot + 1) & mask;
+                contigNames[slot] = oldNames[i];
+                contigNameIndices[slot] = oldIndices[i];
+                contigNameSizes[slot] = oldSizes[i];
+            }
+        }
+    }
+}
@@ -132,6 +132,11 @@ public class IntervalUtils {
             throw new ReviewedStingException("BED files must be parsed through Tribble; parsing them as intervals through the GATK engine is no longer supported");
         }
         else {
+            // the bulk loader handles the common cases of both formats much faster than the parsers below
+            final PackedIntervals intervals = BulkIntervalLoader.loadIntervalFile(glParser, inputFile);
+            if ( intervals != null )
+                return intervals.toGenomeLocs(glParser);
+
             /**
              * IF not a BED file:
              * first try to read it as a Picard interval file since that's well structured
@@ -483,6 +488,147 @@ public class IntervalUtils {
         return splits;
     }
 
+    /**
+     * Splits the genome locs into parts with about the same estimated work, cutting locs where needed, as
+     * splitLocusIntervals does by size.  If the locs have no estimated work at all they're split by size.
+     *
+     * @param locs Genome locs to split.
+     * @param numParts Number of parts to split the locs into.
+     * @param work The estimated work of each locus.
+     * @return The genome locs of each part.
+     */
+    @Requires({"locs != null", "numParts > 0", "work != null"})
+    @Ensures("result != null")
+    public static List<List<GenomeLoc>> splitLocusIntervalsByWork(final List<GenomeLoc> locs, final int numParts, final LocusWorkEstimate work) {
+        double totalWork = 0;
+        for ( final GenomeLoc loc : locs )
+            totalWork += work.getWork(loc);
+        if ( totalWork <= 0 )
+            return splitLocusIntervals(locs, numParts);
+
+        final List<List<GenomeLoc>> splits = new ArrayList<List<GenomeLoc>>(numParts);
+        List<GenomeLoc> split = new ArrayList<GenomeLoc>();
+        double splitsWork = 0; // the work of all locs in splits and split
+        for ( final GenomeLoc loc : locs ) {
+            GenomeLoc remaining = loc;
+            while ( remaining != null ) {
+                // the last split gets all of the remaining locs, to deal with rounding issues
+                final double targetWork = totalWork * (splits.size() + 1) / numParts;
+                final double remainingWork = work.getWork(remaining);
+                if ( splits.size() + 1 == numParts || splitsWork + remainingWork < targetWork ) {
+                    split.add(remaining);
+                    splitsWork += remainingWork;
+                    break;
+                }
+
+                // this split ends within remaining
+                final int cutPoint = work.getPositionReachingWork(remaining, targetWork - splitsWork);
+                if ( cutPoint == remaining.getStop() ) {
+                    split.add(remaining);
+                    splitsWork += remainingWork;
+                    remaining = null;
+                } else {
+                    final GenomeLoc[] parts = remaining.split(cutPoint + 1);
+                    split.add(parts[0]);
+                    splitsWork += work.getWork(parts[0]);
+                    remaining = parts[1];
+                }
+                splits.add(split);
+                split = new ArrayList<GenomeLoc>();
+            }
+        }
+        if ( ! split.isEmpty() )
+            splits.add(split);
+
+        return splits;
+    }
+
+    /**
+     * Splits the genome locs into runs of whole locs with about the same estimated work, as splitFixedIntervals
+     * does by size.
+     *
+     * @param locs Genome locs to split.
+     * @param numParts Number of parts to split the locs into.
+     * @param work The estimated work of each locus.
+     * @return The genome locs of each part.
+     */
+    public static List<List<GenomeLoc>> splitFixedIntervalsByWork(final List<GenomeLoc> locs, final int numParts, final LocusWorkEstimate work) {
+        if (locs.size() < numParts)
+            throw new UserException.BadArgumentValue("scatterParts", String.format("Cannot scatter %d locs into %d parts.", locs.size(), numParts));
+        final double[] locWork = new double[locs.size()];
+        for ( int i = 0; i < locs.size(); i++ )
+            locWork[i] = work.getWork(locs.get(i));
+        return splitIntervalsToSubLists(locs, getBalancedSplitPoints(locWork, numParts));
+    }
+
+    /**
+     * Splits the genome locs into runs of whole contigs with about the same estimated work, where
+     * scatterContigIntervals puts one contig in each part but the last.
+     *
+     * @param locs Genome locs to split.
+     * @param numParts Number of parts to split the locs into.
+     * @param work The estimated work of each locus.
+     * @return The genome locs of each part.
+     */
+    public static List<List<GenomeLoc>> splitContigIntervalsByWork(final List<GenomeLoc> locs, final int numParts, final LocusWorkEstimate work) {
+        final List<Integer> contigStarts = new ArrayList<Integer>();
+        final List<Double> contigWork = new ArrayList<Double>();
+        for ( int i = 0; i < locs.size(); i++ ) {
+            if ( i == 0 || ! locs.get(i).onSameContig(locs.get(i - 1)) ) {
+                contigStarts.add(i);
+                contigWork.add(0.0);
+            }
+            contigWork.set(contigWork.size() - 1, contigWork.get(contigWork.size() - 1) + work.getWork(locs.get(i)));
+        }
+        if (contigStarts.size() < numParts)
+            throw new UserException.BadArgumentValue("scatterParts", String.format("Only able to write contigs into %d of %d files.", contigStarts.size(), numParts));
+
+        final double[] weights = new double[contigWork.size()];
+        for ( int i = 0; i < weights.length; i++ )
+            weights[i] = contigWork.get(i);
+        final List<Integer> splitPoints = new ArrayList<Integer>(numParts);
+        for ( final int contigSplitPoint : getBalancedSplitPoints(weights, numParts) )
+            splitPoints.add(contigSplitPoint == contigStarts.size() ? locs.size() : contigStarts.get(contigSplitPoint));
+        return splitIntervalsToSubLists(locs, splitPoints);
+    }
+
+    /**
+     * Divides a sequence of weighted items into runs of at least one item with about the same total weight.  Each
+     * run ends at the item boundary nearest to its share of the total weight, so errors don't accumulate.
+     *
+     * @param weights the non-negative weight of each item
+     * @param numParts the number of runs, no more than the number of items
+     * @return the stop points of the runs, as splitFixedIntervals returns them
+     */
+    @Requires({"weights != null", "numParts > 0", "numParts <= weights.length"})
+    @Ensures("result.size() == numParts")
+    static List<Integer> getBalancedSplitPoints(final double[] weights, final int numParts) {
+        final int n = weights.length;
+        final double[] cumulative = new double[n + 1];
+        for ( int i = 0; i < n; i++ )
+            cumulative[i + 1] = cumulative[i] + weights[i];
+        if ( cumulative[n] <= 0 ) {
+            // without any weights, balance the number of items
+            for ( int i = 0; i < n; i++ )
+                cumulative[i + 1] = i + 1;
+        }
+
+        final List<Integer> splitPoints = new ArrayList<Integer>(numParts);
+        int stop = 0;
+        for ( int part = 1; part < numParts; part++ ) {
+            final double target = cumulative[n] * part / numParts;
+            final int maxStop = n - (numParts - part); // leave at least one item for each remaining part
+            stop++;
+            while ( stop < maxStop && cumulative[stop + 1] <= target )
+                stop++;
+            if ( stop < maxStop && cumulative[stop + 1] - target < target - cumulative[stop] )
+                stop++;
+            splitPoints.add(stop);
+        }
+        splitPoints.add(n);
+        return splitPoints;
+    }
+
     @Requires({"remaining != null", "!remaining.isEmpty()", "idealSplitSize > 0"})
     @Ensures({"result != null"})
     static SplitLocusRecursive splitLocusIntervals1(LinkedList<GenomeLoc> remaining, long idealSplitSize) {
@@ -595,10 +741,43 @@ public class IntervalUtils {
         return new Pair<GenomeLocSortedSet, GenomeLocSortedSet>(includeSortedSet, excludeSortedSet);
     }
 
+    /**
+     * Loads the intervals of each binding, padding them, and then combines them with the set rule and merges them
+     * with the merging rule.  The intervals are held as PackedIntervals throughout, unless one of the bindings is the
+     * unmapped interval.
+     */
     public static GenomeLocSortedSet loadIntervals(
             final List<IntervalBinding<Feature>> intervalBindings,
             final IntervalSetRule rule, final IntervalMergingRule intervalMergingRule, final int padding,
             final GenomeLocParser genomeLocParser) {
+        for ( IntervalBinding<? extends Feature> intervalBinding : intervalBindings ) {
+            if ( isUnmapped(intervalBinding.getSource()) )
+                return loadIntervalsAsGenomeLocs(intervalBindings, rule, intervalMergingRule, padding, genomeLocParser);
+        }
+
+        PackedIntervals allIntervals = new PackedIntervals();
+        for ( IntervalBinding<? extends Feature> intervalBinding : intervalBindings) {
+            PackedIntervals intervals = intervalBinding.getPackedIntervals(genomeLocParser);
+
+            if ( intervals.isEmpty() ) {
+                logger.warn("The interval file " + intervalBinding.getSource() + " contains no intervals that could be parsed.");
+            }
+
+            if ( padding > 0 ) {
+                intervals = intervals.pad(genomeLocParser, padding);
+            }
+
+            allIntervals = mergePackedIntervalsBySetOperator(intervals, allIntervals, rule);
+        }
+
+        allIntervals.sortAndMerge(intervalMergingRule);
+        return allIntervals.toGenomeLocSortedSet(genomeLocParser);
+    }
+
+    private static GenomeLocSortedSet loadIntervalsAsGenomeLocs(
+            final List<IntervalBinding<Feature>> intervalBindings,
+            final IntervalSetRule rule, final IntervalMergingRule intervalMergingRule, final int padding,
+            final GenomeLocParser genomeLocParser) {
         List<GenomeLoc> allIntervals = new ArrayList<GenomeLoc>();
         for ( IntervalBinding intervalBinding : intervalBindings) {
             @SuppressWarnings("unchecked")
@@ -618,6 +797,52 @@ public class IntervalUtils {
         return sortAndMergeIntervals(genomeLocParser, allIntervals, intervalMergingRule);
     }
 
+    /**
+     * merge two sets of packed intervals, using an interval set rule, as mergeListsBySetOperator does
+     * @param setOne a set of intervals, which may be modified or returned
+     * @param setTwo another set of intervals, which may be modified or returned
+     * @param rule the rule to use for merging, i.e. union, intersection, etc
+     * @return the merged intervals, which are sorted if they're the intersection
+     */
+    public static PackedIntervals mergePackedIntervalsBySetOperator(final PackedIntervals setOne, final PackedIntervals setTwo, final IntervalSetRule rule) {
+        // shortcut, if either set is empty, return the other set
+        if ( setOne.isEmpty() )
+            return setTwo;
+        if ( setTwo.isEmpty() )
+            return setOne;
+
+        if ( rule == null || rule == IntervalSetRule.UNION ) {
+            setOne.addAll(setTwo);
+            return setOne;
+        }
+
+        // merging overlaps first doesn't change which bases are in the intersection
+        setOne.sortAndMerge(IntervalMergingRule.OVERLAPPING_ONLY);
+        setTwo.sortAndMerge(IntervalMergingRule.OVERLAPPING_ONLY);
+        final PackedIntervals intersection = setOne.intersect(setTwo);
+
+        if ( intersection.isEmpty() )
+            throw new UserException.BadInput("The INTERSECTION of your -L options produced no intervals.");
+
+        return intersection;
+    }
+
+    /**
+     * Parses an interval argument, which is either a single interval or an interval file, into packed intervals
+     *
+     * @param parser Genome loc parser.
+     * @param arg the interval argument, which mustn't be the unmapped interval
+     * @return the intervals of arg
+     */
+    public static PackedIntervals parsePackedIntervalArgument(final GenomeLocParser parser, final String arg) {
+        if ( arg.indexOf(';') == -1 && ! isUnmapped(arg) && isIntervalFile(arg) && ! arg.toUpperCase().endsWith(".BED") ) {
+            final PackedIntervals intervals = BulkIntervalLoader.loadIntervalFile(parser, new File(arg));
+            if ( intervals != null )
+                return intervals;
+        }
+        return PackedIntervals.fromGenomeLocs(parseIntervalArguments(parser, arg));
+    }
+
     private final static class SplitLocusRecursive {
         final List<GenomeLoc> split;
         final LinkedList<GenomeLoc> remaining;
@@ -0,0 +1,239 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.interval;
+
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broadinstitute.sting.gatk.datasources.reads.GATKBAMIndex;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.text.XReadLines;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+
+/**
+ * An estimate of how much work the GATK does at each locus of a reference, for balancing scatter parts by
+ * predicted runtime instead of by size.
+ *
+ * The estimate is held for each 16kb window of the reference, the resolution of the BAM index.  Work within a
+ * window is assumed to be uniform.  Any units will do, as only the relative work of each locus matters.
+ */
+public class LocusWorkEstimate {
+    public final static int WINDOW_SHIFT = 14;
+    public final static int WINDOW_SIZE = 1 << WINDOW_SHIFT;
+
+    /**
+     * The fraction of the average work per base of the reads added to every base by addBAMs, to account for the
+     * cost of traversing loci without reads
+     */
+    public final static double REFERENCE_WORK_FRACTION = 0.1;
+
+    private final SAMSequenceDictionary dictionary;
+    private final double[][] workPerWindow;
+    private double workPerBase = 0;
+
+    /**
+     * Creates an estimate of no work at any locus of the reference
+     * @param dictionary the sequence dictionary of the reference
+     */
+    public LocusWorkEstimate(final SAMSequenceDictionary dictionary) {
+        if ( dictionary == null ) throw new IllegalArgumentException("dictionary cannot be null");
+        this.dictionary = dictionary;
+        workPerWindow = new double[dictionary.size()][];
+        for ( final SAMSequenceRecord contig : dictionary.getSequences() )
+            workPerWindow[contig.getSequenceIndex()] = new double[getWindow(contig.getSequenceLength()) + 1];
+    }
+
+    private static int getWindow(final int position) {
+        return (position - 1) >> WINDOW_SHIFT;
+    }
+
+    private int getWindowLength(final int contigIndex, final int window) {
+        final int contigLength = dictionary.getSequence(contigIndex).getSequenceLength();
+        return Math.min(WINDOW_SIZE, contigLength - (window << WINDOW_SHIFT));
+    }
+
+    /**
+     * Adds work to every base of the reference
+     * @param work the work per base
+     */
+    public void addWorkPerBase(final double work) {
+        if ( work < 0 ) throw new IllegalArgumentException("work cannot be negative");
+        workPerBase += work;
+    }
+
+    /**
+     * Adds work spread evenly over the bases start to stop of a contig
+     *
+     * @param contigIndex the index of the contig
+     * @param start the first base of the work, which must be on the contig
+     * @param stop the last base of the work, which must be on the contig
+     * @param work the total work to add
+     */
+    public void addWork(final int contigIndex, final int start, final int stop, final double work) {
+        if ( work < 0 ) throw new IllegalArgumentException("work cannot be negative");
+        if ( start < 1 || stop < start || stop > dictionary.getSequence(contigIndex).getSequenceLength() )
+            throw new IllegalArgumentException(String.format("Invalid interval %d-%d on contig %d", start, stop, contigIndex));
+
+        final double workPerBase = work / (stop - start + 1);
+        for ( int window = getWindow(start); window <= getWindow(stop); window++ ) {
+            final int windowStart = (window << WINDOW_SHIFT) + 1;
+            final int overlap = Math.min(stop, windowStart + WINDOW_SIZE - 1) - Math.max(start, windowStart) + 1;
+            workPerWindow[contigIndex][window] += overlap * workPerBase;
+        }
+    }
+
+    /**
+     * Adds the work of processing the reads of BAM files, estimated from the sizes of the reads in their indices,
+     * along with REFERENCE_WORK_FRACTION of the average read work to every base
+     *
+     * @param bams indexed BAM files aligned to this reference
+     */
+    public void addBAMs(final List<File> bams) {
+        double totalBytes = 0;
+        for ( final File bam : bams ) {
+            final File index = findIndexFile(bam);
+            if ( index == null )
+                throw new UserException.CouldNotReadInputFile(bam, "the BAM index is needed to estimate the work of scatter parts, but it couldn't be found");
+
+            final SAMFileReader reader = new SAMFileReader(bam);
+            final SAMSequenceDictionary bamDictionary = reader.getFileHeader().getSequenceDictionary();
+            reader.close();
+
+            final GATKBAMIndex bamIndex = new GATKBAMIndex(index);
+            for ( final SAMSequenceRecord bamContig : bamDictionary.getSequences() ) {
+                final SAMSequenceRecord contig = dictionary.getSequence(bamContig.getSequenceName());
+                if ( contig == null )
+                    continue;
+
+                final double[] bytes = bamIndex.readReferenceSequence(bamContig.getSequenceIndex()).estimateBytesPerLinearBin(contig.getSequenceLength());
+                final double[] work = workPerWindow[contig.getSequenceIndex()];
+                for ( int window = 0; window < work.length; window++ ) {
+                    work[window] += bytes[window];
+                    totalBytes += bytes[window];
+                }
+            }
+        }
+
+        addWorkPerBase(REFERENCE_WORK_FRACTION * totalBytes / Math.max(dictionary.getReferenceLength(), 1));
+    }
+
+    /**
+     * Adds the costs of intervals, such as their runtimes, from a prior run.  Each line of the file is an interval
+     * in GATK format, a tab, and the cost of the interval, which is spread evenly over its bases.
+     *
+     * @param parser the parser for this reference
+     * @param costs the file of interval costs
+     */
+    public void addPriorRunCosts(final GenomeLocParser parser, final File costs) {
+        try {
+            for ( final String line : new XReadLines(costs) ) {
+                final String[] fields = line.split("\t");
+                if ( fields.length != 2 )
+                    throw new UserException.MalformedFile(costs, "Expected an interval and its cost, separated by a tab, but found " + line);
+
+                final GenomeLoc loc = parser.parseGenomeLoc(fields[0]);
+                final double cost;
+                try {
+                    cost = Double.parseDouble(fields[1]);
+                } catch ( NumberFormatException e ) {
+                    throw new UserException.MalformedFile(costs, "Invalid cost " + fields[1] + " for interval " + fields[0]);
+                }
+                if ( cost < 0 )
+                    throw new UserException.MalformedFile(costs, "Negative cost " + fields[1] + " for interval " + fields[0]);
+                addWork(loc.getContigIndex(), loc.getStart(), loc.getStop(), cost);
+            }
+        } catch ( FileNotFoundException e ) {
+            throw new UserException.CouldNotReadInputFile(costs, e);
+        }
+    }
+
+    /**
+     * @param loc a mapped interval
+     * @return the estimated work of processing loc
+     */
+    public double getWork(final GenomeLoc loc) {
+        double work = 0;
+        final int contigIndex = loc.getContigIndex();
+        for ( int window = getWindow(loc.getStart()); window <= getWindow(loc.getStop()); window++ ) {
+            final int windowStart = (window << WINDOW_SHIFT) + 1;
+            final int overlap = Math.min(loc.getStop(), windowStart + WINDOW_SIZE - 1) - Math.max(loc.getStart(), windowStart) + 1;
+            work += overlap * getWorkPerBase(contigIndex, window);
+        }
+        return work;
+    }
+
+    /**
+     * Finds where the work of a prefix of loc first reaches an amount of work
+     *
+     * @param loc a mapped interval
+     * @param work the work we want
+     * @return the first position p of loc such that loc.getStart() to p has at least work work, or loc.getStop()
+     * if the whole of loc has less work than that
+     */
+    public int getPositionReachingWork(final GenomeLoc loc, final double work) {
+        double remaining = work;
+        final int contigIndex = loc.getContigIndex();
+        for ( int window = getWindow(loc.getStart()); window <= getWindow(loc.getStop()); window++ ) {
+            final int windowStart = (window << WINDOW_SHIFT) + 1;
+            final int start = Math.max(loc.getStart(), windowStart);
+            final int stop = Math.min(loc.getStop(), windowStart + WINDOW_SIZE - 1);
+            final double workPerBase = getWorkPerBase(contigIndex, window);
+            final double windowWork = (stop - start + 1) * workPerBase;
+            if ( windowWork >= remaining && workPerBase > 0 )
+                return Math.min(stop, Math.max(start, start + (int)Math.ceil(remaining / workPerBase) - 1));
+            remaining -= windowWork;
+        }
+        return loc.getStop();
+    }
+
+    private double getWorkPerBase(final int contigIndex, final int window) {
+        final double[] work = workPerWindow[contigIndex];
+        return workPerBase + (window < work.length ? work[window] / getWindowLength(contigIndex, window) : 0);
+    }
+
+    /**
+     * Locates the index of a BAM file as Picard does, as bam.bai or with the .bam extension replaced by .bai
+     * @param bam the BAM file
+     * @return the index, or null if there isn't one
+     */
+    private static File findIndexFile(final File bam) {
+        final File appended = new File(bam.getPath() + ".bai");
+        if ( appended.exists() )
+            return appended;
+        final String path = bam.getPath();
+        if ( path.endsWith(".bam") ) {
+            final File replaced = new File(path.substring(0, path.length() - 4) + ".bai");
+            if ( replaced.exists() )
+                return replaced;
+        }
+        return null;
+    }
+}
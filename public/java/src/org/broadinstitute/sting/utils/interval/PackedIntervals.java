@@ -0,0 +1,275 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.interval;
+
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.GenomeLocSortedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A list of intervals held as primitive (contig index, start, stop) arrays.
+ *
+ * Interval lists with millions of entries, such as per-base masks, are far cheaper to sort and merge this way than
+ * as GenomeLocs, so IntervalUtils loads intervals into this form, and only creates GenomeLocs for the merged result.
+ * The intervals held are assumed to be valid with respect to the GenomeLocParser they are eventually materialized
+ * with.  The unmapped interval cannot be held.
+ */
+public final class PackedIntervals {
+    private final static int INITIAL_CAPACITY = 16;
+
+    private int size = 0;
+    private int[] contigIndices;
+    private int[] starts;
+    private int[] stops;
+
+    public PackedIntervals() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public PackedIntervals(final int capacity) {
+        final int initialCapacity = Math.max(capacity, 1);
+        contigIndices = new int[initialCapacity];
+        starts = new int[initialCapacity];
+        stops = new int[initialCapacity];
+    }
+
+    /**
+     * Create packed intervals holding the same intervals as locs, in the same order
+     *
+     * @param locs mapped intervals
+     * @return a new PackedIntervals
+     */
+    public static PackedIntervals fromGenomeLocs(final List<GenomeLoc> locs) {
+        final PackedIntervals intervals = new PackedIntervals(locs.size());
+        for ( final GenomeLoc loc : locs ) {
+            if ( GenomeLoc.isUnmapped(loc) )
+                throw new IllegalArgumentException("The unmapped interval can't be packed");
+            intervals.add(loc.getContigIndex(), loc.getStart(), loc.getStop());
+        }
+        return intervals;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getContigIndex(final int i) {
+        return contigIndices[i];
+    }
+
+    public int getStart(final int i) {
+        return starts[i];
+    }
+
+    public int getStop(final int i) {
+        return stops[i];
+    }
+
+    public void add(final int contigIndex, final int start, final int stop) {
+        if ( size == starts.length )
+            ensureCapacity(2 * size);
+        contigIndices[size] = contigIndex;
+        starts[size] = start;
+        stops[size] = stop;
+        size++;
+    }
+
+    /**
+     * Appends all of the intervals of other to these
+     */
+    public void addAll(final PackedIntervals other) {
+        if ( size + other.size > starts.length )
+            ensureCapacity(Math.max(size + other.size, 2 * size));
+        System.arraycopy(other.contigIndices, 0, contigIndices, size, other.size);
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        System.arraycopy(other.stops, 0, stops, size, other.size);
+        size += other.size;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if ( capacity > starts.length ) {
+            contigIndices = Arrays.copyOf(contigIndices, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            stops = Arrays.copyOf(stops, capacity);
+        }
+    }
+
+    /**
+     * Sorts these intervals, and merges them as IntervalUtils.mergeIntervalLocations would
+     *
+     * @param rule the merging rule we're using
+     */
+    public void sortAndMerge(final IntervalMergingRule rule) {
+        sortByStart();
+
+        if ( size <= 1 )
+            return;
+
+        final boolean mergeAbutting = rule == null || rule == IntervalMergingRule.ALL;
+        int last = 0;
+        for ( int i = 1; i < size; i++ ) {
+            if ( contigIndices[i] == contigIndices[last] && (starts[i] <= stops[last] || (mergeAbutting && starts[i] == stops[last] + 1)) ) {
+                if ( stops[i] > stops[last] ) stops[last] = stops[i];
+            } else {
+                last++;
+                contigIndices[last] = contigIndices[i];
+                starts[last] = starts[i];
+                stops[last] = stops[i];
+            }
+        }
+        size = last + 1;
+    }
+
+    /**
+     * Sorts these intervals by contig index and start with an LSD radix sort on the packed (contig index, start),
+     * carrying the stops along.  Intervals with the same contig and start are left in no particular order, which
+     * merging doesn't care about.
+     */
+    private void sortByStart() {
+        if ( size <= 1 )
+            return;
+
+        long[] keys = new long[size];
+        long varyingBits = 0;
+        for ( int i = 0; i < size; i++ ) {
+            keys[i] = ((long) contigIndices[i] << 32) | (starts[i] & 0xFFFFFFFFL);
+            varyingBits |= keys[i] ^ keys[0];
+        }
+
+        int[] sortedStops = stops;
+        long[] keysBuffer = new long[size];
+        int[] stopsBuffer = new int[size];
+        final int[] counts = new int[257];
+        for ( int shift = 0; shift < 64; shift += 8 ) {
+            if ( ((varyingBits >>> shift) & 0xFF) == 0 )
+                continue; // every key has the same byte here, so this pass wouldn't move anything
+
+            Arrays.fill(counts, 0);
+            for ( int i = 0; i < size; i++ )
+                counts[(int) ((keys[i] >>> shift) & 0xFF) + 1]++;
+            for ( int b = 0; b < 256; b++ )
+                counts[b + 1] += counts[b];
+            for ( int i = 0; i < size; i++ ) {
+                final int to = counts[(int) ((keys[i] >>> shift) & 0xFF)]++;
+                keysBuffer[to] = keys[i];
+                stopsBuffer[to] = sortedStops[i];
+            }
+
+            final long[] swapKeys = keys; keys = keysBuffer; keysBuffer = swapKeys;
+            final int[] swapStops = sortedStops; sortedStops = stopsBuffer; stopsBuffer = swapStops;
+        }
+
+        for ( int i = 0; i < size; i++ ) {
+            contigIndices[i] = (int) (keys[i] >>> 32);
+            starts[i] = (int) keys[i];
+        }
+        if ( sortedStops != stops )
+            System.arraycopy(sortedStops, 0, stops, 0, size);
+    }
+
+    /**
+     * Intersects two sets of intervals, each sorted and merged
+     *
+     * @param other intervals to intersect with these
+     * @return the intersection, sorted and merged with IntervalMergingRule.OVERLAPPING_ONLY
+     */
+    public PackedIntervals intersect(final PackedIntervals other) {
+        final PackedIntervals intersection = new PackedIntervals();
+        int i = 0, j = 0;
+        while ( i < size && j < other.size ) {
+            final int contigOrder = compare(contigIndices[i], other.contigIndices[j]);
+            if ( contigOrder < 0 || (contigOrder == 0 && stops[i] < other.starts[j]) )
+                i++;
+            else if ( contigOrder > 0 || other.stops[j] < starts[i] )
+                j++;
+            else {
+                intersection.add(contigIndices[i], Math.max(starts[i], other.starts[j]), Math.min(stops[i], other.stops[j]));
+                if ( stops[i] < other.stops[j] ) i++;
+                else j++;
+            }
+        }
+        return intersection;
+    }
+
+    private static int compare(final int a, final int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Pads each interval by basePairs on either side, bounded by the ends of its contig, as
+     * IntervalUtils.getIntervalsWithFlanks does
+     *
+     * @param parser the parser whose contigs we're on
+     * @param basePairs the number of bases to add on each side of each interval
+     * @return the padded intervals, sorted and merged with IntervalMergingRule.ALL
+     */
+    public PackedIntervals pad(final GenomeLocParser parser, final int basePairs) {
+        final PackedIntervals padded = new PackedIntervals(size);
+        for ( int i = 0; i < size; i++ ) {
+            final int contigLength = parser.getContigs().getSequence(contigIndices[i]).getSequenceLength();
+            final int start = Math.max(1, starts[i] - basePairs);
+            final int stop = Math.min(contigLength, stops[i] + basePairs);
+            if ( start <= contigLength && stop >= 1 )
+                padded.add(contigIndices[i], start, stop);
+        }
+        padded.sortAndMerge(IntervalMergingRule.ALL);
+        return padded;
+    }
+
+    /**
+     * @param parser the parser to create GenomeLocs with
+     * @return a GenomeLoc for each of these intervals, in the same order
+     */
+    public List<GenomeLoc> toGenomeLocs(final GenomeLocParser parser) {
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>(size);
+        String contig = null;
+        int contigIndex = -1;
+        for ( int i = 0; i < size; i++ ) {
+            if ( contigIndices[i] != contigIndex ) {
+                contigIndex = contigIndices[i];
+                contig = parser.getContigs().getSequence(contigIndex).getSequenceName();
+            }
+            locs.add(parser.createGenomeLoc(contig, contigIndex, starts[i], stops[i]));
+        }
+        return locs;
+    }
+
+    /**
+     * @param parser the parser to create GenomeLocs with
+     * @return a GenomeLocSortedSet of these intervals, which must be sorted and merged
+     */
+    public GenomeLocSortedSet toGenomeLocSortedSet(final GenomeLocParser parser) {
+        return GenomeLocSortedSet.createSetFromList(parser, toGenomeLocs(parser));
+    }
+}
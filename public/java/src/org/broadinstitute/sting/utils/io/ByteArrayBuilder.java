@@ -0,0 +1,205 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.io;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable byte array that table values are formatted into directly, without building intermediate Strings
+ *
+ * Values are formatted the way VariantsToTable has always printed them: numbers in decimal, character sequences
+ * as their characters, and lists and arrays as their (recursively formatted) elements separated by commas.  Anything
+ * else is formatted as its toString().
+ */
+final class ByteArrayBuilder {
+    private byte[] bytes;
+    private int size = 0;
+
+    // scratch space for formatting longs, from the right
+    private final byte[] digits = new byte[20];
+
+    ByteArrayBuilder(final int initialCapacity) {
+        bytes = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Truncate this builder to size bytes, which must be no more than its current size
+     */
+    public void setSize(final int size) {
+        if ( size < 0 || size > this.size ) throw new IllegalArgumentException("Bad size " + size + " for builder of size " + this.size);
+        this.size = size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the backing array of this builder, of which the first size() bytes are valid
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if ( size + extra > bytes.length )
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + extra));
+    }
+
+    public void append(final byte b) {
+        ensureCapacity(1);
+        bytes[size++] = b;
+    }
+
+    public void append(final byte[] b) {
+        append(b, 0, b.length);
+    }
+
+    public void append(final byte[] b, final int offset, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(b, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * Append the decimal representation of value
+     */
+    public void append(final long value) {
+        if ( value == Long.MIN_VALUE ) {
+            appendChars(Long.toString(value), null);
+            return;
+        }
+
+        long remaining = Math.abs(value);
+        int i = digits.length;
+        do {
+            digits[--i] = (byte)('0' + (remaining % 10));
+            remaining /= 10;
+        } while ( remaining != 0 );
+        if ( value < 0 )
+            digits[--i] = '-';
+        append(digits, i, digits.length - i);
+    }
+
+    /**
+     * Append the characters of s, encoded in charset
+     *
+     * @param s the characters to append
+     * @param charset the charset to encode any non-ASCII characters in; may be null if s is known to be ASCII
+     */
+    public void appendChars(final CharSequence s, final Charset charset) {
+        final int length = s.length();
+        ensureCapacity(length);
+        for ( int i = 0; i < length; i++ ) {
+            final char c = s.charAt(i);
+            if ( c >= 0x80 ) {
+                // rare enough that we let the charset take care of the rest
+                final ByteBuffer encoded = charset.encode(CharBuffer.wrap(s, i, length));
+                final int n = encoded.remaining();
+                ensureCapacity(n);
+                encoded.get(bytes, size, n);
+                size += n;
+                return;
+            }
+            bytes[size++] = (byte)c;
+        }
+    }
+
+    /**
+     * Append value, formatted as described in the class documentation
+     *
+     * @param value the value to append; cannot be null
+     * @param charset the charset to encode any non-ASCII characters in
+     */
+    public void appendValue(final Object value, final Charset charset) {
+        if ( value instanceof CharSequence ) {
+            appendChars((CharSequence)value, charset);
+        } else if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ) {
+            append(((Number)value).longValue());
+        } else if ( value instanceof int[] ) {
+            final int[] values = (int[])value;
+            for ( int i = 0; i < values.length; i++ ) {
+                if ( i > 0 ) append((byte)',');
+                append(values[i]);
+            }
+        } else if ( value instanceof List ) {
+            final List<?> values = (List<?>)value;
+            for ( int i = 0; i < values.size(); i++ ) {
+                if ( i > 0 ) append((byte)',');
+                appendValue(values.get(i), charset);
+            }
+        } else if ( value.getClass().isArray() ) {
+            final int length = Array.getLength(value);
+            for ( int i = 0; i < length; i++ ) {
+                if ( i > 0 ) append((byte)',');
+                appendValue(Array.get(value, i), charset);
+            }
+        } else {
+            appendChars(value.toString(), charset);
+        }
+    }
+
+    /**
+     * Append value as an unsigned LEB128 varint
+     */
+    public void appendVarint(long value) {
+        ensureCapacity(10);
+        while ( (value & ~0x7FL) != 0 ) {
+            bytes[size++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte)value;
+    }
+
+    /**
+     * @return the number of bytes appendVarint(value) appends
+     */
+    public static int varintSize(long value) {
+        int n = 1;
+        while ( (value & ~0x7FL) != 0 ) {
+            n++;
+            value >>>= 7;
+        }
+        return n;
+    }
+
+    /**
+     * Append value in 8 bytes, big-endian
+     */
+    public void appendLong(final long value) {
+        ensureCapacity(8);
+        for ( int shift = 56; shift >= 0; shift -= 8 )
+            bytes[size++] = (byte)(value >>> shift);
+    }
+}
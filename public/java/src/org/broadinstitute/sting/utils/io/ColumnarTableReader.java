@@ -0,0 +1,243 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.io;
+
+import org.broadinstitute.sting.utils.exceptions.UserException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Reads tables written by ColumnarTableWriter, a chunk at a time
+ *
+ * <pre>
+ *     final ColumnarTableReader reader = new ColumnarTableReader(in);
+ *     while ( reader.nextChunk() )
+ *         for ( int row = 0; row < reader.getNumberOfRows(); row++ )
+ *             ... reader.getValue(column, row) ...
+ * </pre>
+ *
+ * Values are Longs, Doubles, or Strings, according to the type of their column, or null if they are missing.
+ */
+public class ColumnarTableReader {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DataInputStream in;
+    private final List<String> columnNames;
+    private final List<ColumnarTableWriter.ColumnType> columnTypes;
+
+    private Object[][] chunk;   // the values of the current chunk, by column
+    private int nRows = 0;
+    private boolean done = false;
+
+    /**
+     * Create a reader, and read the header of the table
+     *
+     * @param in the stream to read the table from
+     * @throws UserException.MalformedFile if in doesn't start with a table header
+     */
+    public ColumnarTableReader(final InputStream in) {
+        if ( in == null ) throw new IllegalArgumentException("in cannot be null");
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+
+        try {
+            final byte[] magic = new byte[ColumnarTableWriter.MAGIC.length];
+            this.in.readFully(magic);
+            if ( ! Arrays.equals(magic, ColumnarTableWriter.MAGIC) )
+                throw new UserException.MalformedFile("Not a columnar table");
+            final int version = this.in.readInt();
+            if ( version != ColumnarTableWriter.VERSION )
+                throw new UserException.MalformedFile("Unsupported columnar table version " + version);
+
+            final int nColumns = this.in.readInt();
+            final List<String> names = new ArrayList<String>(nColumns);
+            final List<ColumnarTableWriter.ColumnType> types = new ArrayList<ColumnarTableWriter.ColumnType>(nColumns);
+            for ( int i = 0; i < nColumns; i++ ) {
+                names.add(readString(this.in, this.in.readInt()));
+                types.add(ColumnarTableWriter.ColumnType.values()[this.in.readByte()]);
+            }
+            columnNames = Collections.unmodifiableList(names);
+            columnTypes = Collections.unmodifiableList(types);
+        } catch ( ArrayIndexOutOfBoundsException e ) {
+            throw new UserException.MalformedFile("Corrupt columnar table", e);
+        } catch ( EOFException e ) {
+            throw new UserException.MalformedFile("Truncated columnar table", e);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile("Unable to read columnar table", e);
+        }
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public List<ColumnarTableWriter.ColumnType> getColumnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * Read the next chunk of rows
+     *
+     * @return false if there are no more rows in the table
+     */
+    public boolean nextChunk() {
+        if ( done ) return false;
+
+        try {
+            nRows = in.readInt();
+            if ( nRows == 0 ) {
+                done = true;
+                chunk = null;
+                return false;
+            }
+
+            chunk = new Object[columnNames.size()][];
+            for ( int i = 0; i < chunk.length; i++ ) {
+                final ColumnarTableWriter.Encoding encoding = ColumnarTableWriter.Encoding.values()[in.readByte()];
+                final byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                chunk[i] = decode(columnTypes.get(i), encoding, new Payload(payload));
+            }
+            return true;
+        } catch ( ArrayIndexOutOfBoundsException e ) {
+            throw new UserException.MalformedFile("Corrupt columnar table", e);
+        } catch ( EOFException e ) {
+            throw new UserException.MalformedFile("Truncated columnar table", e);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile("Unable to read columnar table", e);
+        }
+    }
+
+    /**
+     * @return the number of rows in the current chunk
+     */
+    public int getNumberOfRows() {
+        return chunk == null ? 0 : nRows;
+    }
+
+    /**
+     * @return the value of column in row of the current chunk, or null if it's missing
+     */
+    public Object getValue(final int column, final int row) {
+        if ( chunk == null ) throw new IllegalStateException("No current chunk");
+        if ( row < 0 || row >= nRows ) throw new IllegalArgumentException("Row " + row + " is not in the current chunk of " + nRows + " rows");
+        return chunk[column][row];
+    }
+
+    private Object[] decode(final ColumnarTableWriter.ColumnType type, final ColumnarTableWriter.Encoding encoding, final Payload payload) {
+        final boolean[] missing = new boolean[nRows];
+        if ( payload.readByte() != 0 ) {
+            for ( int start = 0; start < nRows; start += 8 ) {
+                final int bits = payload.readByte();
+                for ( int j = 0; j < 8 && start + j < nRows; j++ )
+                    missing[start + j] = (bits & (1 << j)) != 0;
+            }
+        }
+
+        final Object[] values = new Object[nRows];
+        String[] dictionary = null;
+        if ( encoding == ColumnarTableWriter.Encoding.DICTIONARY ) {
+            dictionary = new String[(int)payload.readVarint()];
+            for ( int i = 0; i < dictionary.length; i++ )
+                dictionary[i] = payload.readString();
+        }
+
+        long previous = 0;
+        for ( int row = 0; row < nRows; row++ ) {
+            if ( missing[row] )
+                continue;
+
+            switch ( type ) {
+                case INTEGER:
+                    if ( encoding == ColumnarTableWriter.Encoding.DELTA ) {
+                        final long zigzag = payload.readVarint();
+                        previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                        values[row] = previous;
+                    } else {
+                        values[row] = payload.readLong();
+                    }
+                    break;
+                case DOUBLE:
+                    values[row] = Double.longBitsToDouble(payload.readLong());
+                    break;
+                case STRING:
+                    values[row] = dictionary != null ? dictionary[(int)payload.readVarint()] : payload.readString();
+                    break;
+            }
+        }
+        return values;
+    }
+
+    private static String readString(final DataInputStream in, final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * A cursor over the payload of a column
+     */
+    private static final class Payload {
+        private final byte[] bytes;
+        private int offset = 0;
+
+        private Payload(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int readByte() {
+            return bytes[offset++] & 0xFF;
+        }
+
+        private long readLong() {
+            long value = 0;
+            for ( int i = 0; i < 8; i++ )
+                value = (value << 8) | readByte();
+            return value;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for ( int shift = 0; ; shift += 7 ) {
+                final int b = readByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ( (b & 0x80) == 0 )
+                    return value;
+            }
+        }
+
+        private String readString() {
+            final int length = (int)readVarint();
+            final String s = new String(bytes, offset, length, UTF8);
+            offset += length;
+            return s;
+        }
+    }
+}
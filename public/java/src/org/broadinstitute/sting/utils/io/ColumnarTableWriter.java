@@ -0,0 +1,521 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.io;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A TableWriter of a binary, columnar format, for loading tables into analysis tools without parsing text
+ *
+ * Every column has a type, and rows are stored in chunks, within which each column's values are stored together
+ * in whichever encoding suits them best.  All numbers are big-endian, and all strings UTF-8:
+ *
+ * <pre>
+ *   table    := "GCTB" version:int32 nColumns:int32 column* chunk* end
+ *   column   := nameLength:int32 name:bytes type:int8                 (ColumnType ordinal)
+ *   chunk    := nRows:int32 (encoding:int8 payloadLength:int32 payload)*   (one payload per column)
+ *   end      := 0:int32
+ *   payload  := hasMissing:int8 [missing:bitmap] values
+ * </pre>
+ *
+ * The missing bitmap has a bit per row of the chunk, least significant bit first, set if the value is missing; it
+ * is only present if hasMissing is 1.  The values are those of the rows that aren't missing, in one of the
+ * Encodings:
+ *
+ * <ul>
+ *     <li>INTEGER columns are PLAIN (int64 values) or DELTA (zigzag varints of the differences between successive
+ *     values, the first taken from 0)</li>
+ *     <li>DOUBLE columns are PLAIN (IEEE 754 float64 values)</li>
+ *     <li>STRING columns are PLAIN (varint lengths, each followed by that many bytes) or DICTIONARY (a varint
+ *     count of distinct values and the distinct values as in PLAIN, followed by a varint index into them per
+ *     value)</li>
+ * </ul>
+ *
+ * where varints are unsigned LEB128.  Payload lengths let readers skip the columns they don't want.  See
+ * ColumnarTableReader for a reader.
+ *
+ * Values are converted to the type of their column: INTEGER columns take integral Numbers and character sequences
+ * of them, DOUBLE columns any Number and character sequences of them, and STRING columns any value, formatted as
+ * TextTableWriter formats it.
+ */
+public class ColumnarTableWriter implements TableWriter {
+    public final static byte[] MAGIC = {'G', 'C', 'T', 'B'};
+    public final static int VERSION = 1;
+
+    /**
+     * By default we buffer up to this many values before writing a chunk.  Small enough that transposing
+     * a chunk of a wide (many-sample) table into its columns stays in cache, large enough that the
+     * dictionaries and deltas still have plenty of rows to work with
+     */
+    public final static int DEFAULT_VALUES_PER_CHUNK = 1 << 16;
+
+    /**
+     * ...but never more than this many rows
+     */
+    public final static int MAX_ROWS_PER_CHUNK = 1 << 16;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    public enum ColumnType {
+        /** 64 bit signed integers */
+        INTEGER,
+        /** 64 bit floating point numbers */
+        DOUBLE,
+        /** strings */
+        STRING
+    }
+
+    enum Encoding {
+        PLAIN,
+        DELTA,
+        DICTIONARY
+    }
+
+    private final DataOutputStream out;
+    private final Column[] columns;
+    private final String missingValue;
+    private final int rowsPerChunk;
+    private final ByteArrayBuilder payload = new ByteArrayBuilder(1 << 16);
+
+    private int nRows = 0;
+    private boolean finished = false;
+
+    /**
+     * Create a writer, with chunks of the default size, and write the header of the table
+     *
+     * @see #ColumnarTableWriter(java.io.OutputStream, java.util.List, java.util.List, String, int)
+     */
+    public ColumnarTableWriter(final OutputStream out, final List<String> columnNames, final List<ColumnType> columnTypes, final String missingValue) {
+        this(out, columnNames, columnTypes, missingValue,
+                Math.max(1, Math.min(MAX_ROWS_PER_CHUNK, DEFAULT_VALUES_PER_CHUNK / Math.max(1, columnNames.size()))));
+    }
+
+    /**
+     * Create a writer, and write the header of the table
+     *
+     * @param out the stream to write to
+     * @param columnNames the names of the columns of the table
+     * @param columnTypes the types of the columns of the table, in the same order as columnNames
+     * @param missingValue values in INTEGER and DOUBLE columns equal to this string are missing, like nulls; may
+     *                     be null if there's no such string
+     * @param rowsPerChunk the number of rows to buffer up before writing a chunk
+     */
+    public ColumnarTableWriter(final OutputStream out, final List<String> columnNames, final List<ColumnType> columnTypes, final String missingValue, final int rowsPerChunk) {
+        if ( out == null ) throw new IllegalArgumentException("out cannot be null");
+        if ( columnNames == null ) throw new IllegalArgumentException("columnNames cannot be null");
+        if ( columnTypes == null || columnTypes.size() != columnNames.size() )
+            throw new IllegalArgumentException("columnTypes must give the type of each of the " + columnNames.size() + " columns");
+        if ( rowsPerChunk < 1 ) throw new IllegalArgumentException("rowsPerChunk must be at least 1 but was " + rowsPerChunk);
+
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.missingValue = missingValue;
+        this.rowsPerChunk = rowsPerChunk;
+
+        columns = new Column[columnNames.size()];
+        for ( int i = 0; i < columns.length; i++ ) {
+            switch ( columnTypes.get(i) ) {
+                case INTEGER: columns[i] = new IntegerColumn(columnNames.get(i)); break;
+                case DOUBLE: columns[i] = new DoubleColumn(columnNames.get(i)); break;
+                case STRING: columns[i] = new StringColumn(columnNames.get(i)); break;
+                default: throw new ReviewedStingException("Unexpected column type " + columnTypes.get(i));
+            }
+        }
+
+        try {
+            this.out.write(MAGIC);
+            this.out.writeInt(VERSION);
+            this.out.writeInt(columns.length);
+            for ( int i = 0; i < columns.length; i++ ) {
+                final byte[] name = columnNames.get(i).getBytes(UTF8);
+                this.out.writeInt(name.length);
+                this.out.write(name);
+                this.out.writeByte(columnTypes.get(i).ordinal());
+            }
+        } catch ( IOException e ) {
+            throw new ReviewedStingException("Unable to write table", e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a value can't be converted to the type of its column
+     */
+    @Override
+    public void writeRow(final Object[] values) {
+        if ( finished ) throw new IllegalStateException("Cannot write rows after the table is finished");
+        if ( values.length != columns.length )
+            throw new IllegalArgumentException("Expected " + columns.length + " values but got " + values.length);
+
+        for ( int i = 0; i < values.length; i++ ) {
+            final Object value = values[i];
+            if ( value == null )
+                columns[i].addMissing(nRows);
+            else
+                columns[i].add(nRows, value);
+        }
+
+        if ( ++nRows == rowsPerChunk )
+            writeChunk();
+    }
+
+    @Override
+    public void finish() {
+        if ( finished ) return;
+        finished = true;
+
+        if ( nRows > 0 )
+            writeChunk();
+        try {
+            out.writeInt(0);
+            out.flush();
+        } catch ( IOException e ) {
+            throw new ReviewedStingException("Unable to write table", e);
+        }
+    }
+
+    private void writeChunk() {
+        try {
+            out.writeInt(nRows);
+            for ( final Column column : columns ) {
+                payload.clear();
+                final Encoding encoding = column.encode(nRows, payload);
+                out.writeByte(encoding.ordinal());
+                out.writeInt(payload.size());
+                out.write(payload.getBytes(), 0, payload.size());
+                column.clear();
+            }
+        } catch ( IOException e ) {
+            throw new ReviewedStingException("Unable to write table", e);
+        }
+        nRows = 0;
+    }
+
+    private boolean isMissingValue(final Object value) {
+        return missingValue != null && value instanceof CharSequence && missingValue.contentEquals((CharSequence)value);
+    }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // columns, which accumulate the values of a chunk
+    //
+    // -------------------------------------------------------------------------------------
+
+    private abstract class Column {
+        protected final String name;
+        private boolean[] missing = null; // allocated when the first missing value comes along
+        private boolean hasMissing = false;
+
+        protected Column(final String name) {
+            this.name = name;
+        }
+
+        public void addMissing(final int row) {
+            if ( missing == null ) missing = new boolean[rowsPerChunk];
+            missing[row] = true;
+            hasMissing = true;
+        }
+
+        public abstract void add(final int row, final Object value);
+
+        /**
+         * Append the payload of this column for the current chunk of nRows rows to payload
+         * @return the encoding of the values in the payload
+         */
+        public Encoding encode(final int nRows, final ByteArrayBuilder payload) {
+            payload.append((byte)(hasMissing ? 1 : 0));
+            if ( hasMissing ) {
+                for ( int start = 0; start < nRows; start += 8 ) {
+                    int bits = 0;
+                    for ( int j = 0; j < 8 && start + j < nRows; j++ )
+                        if ( missing[start + j] ) bits |= 1 << j;
+                    payload.append((byte)bits);
+                }
+            }
+            return encodeValues(payload);
+        }
+
+        protected abstract Encoding encodeValues(final ByteArrayBuilder payload);
+
+        public void clear() {
+            if ( hasMissing ) {
+                Arrays.fill(missing, false);
+                hasMissing = false;
+            }
+            clearValues();
+        }
+
+        protected abstract void clearValues();
+
+        protected IllegalArgumentException badValue(final Object value) {
+            return new IllegalArgumentException(String.format("Value %s in column %s isn't %s", value, name,
+                    this instanceof IntegerColumn ? "an integer" : "a number"));
+        }
+    }
+
+    private final class IntegerColumn extends Column {
+        private final long[] values = new long[rowsPerChunk];
+        private int n = 0;
+
+        private IntegerColumn(final String name) {
+            super(name);
+        }
+
+        @Override
+        public void add(final int row, final Object value) {
+            if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ) {
+                values[n++] = ((Number)value).longValue();
+            } else if ( isMissingValue(value) ) {
+                addMissing(row);
+            } else if ( value instanceof CharSequence ) {
+                try {
+                    values[n] = Long.parseLong(value.toString());
+                    n++;
+                } catch ( NumberFormatException e ) {
+                    throw badValue(value);
+                }
+            } else {
+                throw badValue(value);
+            }
+        }
+
+        @Override
+        protected Encoding encodeValues(final ByteArrayBuilder payload) {
+            long deltaSize = 0;
+            long previous = 0;
+            for ( int i = 0; i < n; i++ ) {
+                deltaSize += ByteArrayBuilder.varintSize(zigzag(values[i] - previous));
+                previous = values[i];
+            }
+
+            if ( deltaSize < 8L * n ) {
+                previous = 0;
+                for ( int i = 0; i < n; i++ ) {
+                    payload.appendVarint(zigzag(values[i] - previous));
+                    previous = values[i];
+                }
+                return Encoding.DELTA;
+            } else {
+                for ( int i = 0; i < n; i++ )
+                    payload.appendLong(values[i]);
+                return Encoding.PLAIN;
+            }
+        }
+
+        private long zigzag(final long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        @Override
+        protected void clearValues() {
+            n = 0;
+        }
+    }
+
+    private final class DoubleColumn extends Column {
+        private final double[] values = new double[rowsPerChunk];
+        private int n = 0;
+
+        private DoubleColumn(final String name) {
+            super(name);
+        }
+
+        @Override
+        public void add(final int row, final Object value) {
+            if ( value instanceof Number ) {
+                values[n++] = ((Number)value).doubleValue();
+            } else if ( isMissingValue(value) ) {
+                addMissing(row);
+            } else if ( value instanceof CharSequence ) {
+                try {
+                    values[n] = Double.parseDouble(value.toString());
+                    n++;
+                } catch ( NumberFormatException e ) {
+                    throw badValue(value);
+                }
+            } else {
+                throw badValue(value);
+            }
+        }
+
+        @Override
+        protected Encoding encodeValues(final ByteArrayBuilder payload) {
+            for ( int i = 0; i < n; i++ )
+                payload.appendLong(Double.doubleToRawLongBits(values[i]));
+            return Encoding.PLAIN;
+        }
+
+        @Override
+        protected void clearValues() {
+            n = 0;
+        }
+    }
+
+    /**
+     * A column of strings, which we always collect into a dictionary of the distinct values of the chunk, so we
+     * can choose between writing the dictionary or the plain values once we know which is smaller
+     */
+    private final class StringColumn extends Column {
+        private final ByteArrayBuilder distinctValues = new ByteArrayBuilder(256);
+        private int[] offsets = new int[17];    // distinct value i is in distinctValues from offsets[i] to offsets[i+1]
+        private int[] hashes = new int[16];     // the hash of each distinct value
+        private int[] hashTable = new int[32];  // 1 + the index of a distinct value, or 0 for empty slots
+        private int nDistinct = 0;
+
+        private final int[] codes = new int[rowsPerChunk]; // the index of the distinct value of each value
+        private int n = 0;
+
+        private long plainSize = 0;         // the size of the values in PLAIN encoding
+        private long codesSize = 0;         // the size of the codes of the values in DICTIONARY encoding
+
+        private StringColumn(final String name) {
+            super(name);
+        }
+
+        @Override
+        public void add(final int row, final Object value) {
+            // format the value onto the end of the distinct values, and then take it back off if we've seen it before
+            final int start = distinctValues.size();
+            distinctValues.appendValue(value, UTF8);
+            final int length = distinctValues.size() - start;
+            final int hash = hash(distinctValues.getBytes(), start, length);
+
+            final int mask = hashTable.length - 1;
+            int slot = hash & mask;
+            int code = -1;
+            while ( hashTable[slot] != 0 ) {
+                final int candidate = hashTable[slot] - 1;
+                if ( hashes[candidate] == hash && equalsDistinctValue(candidate, start, length) ) {
+                    code = candidate;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if ( code == -1 ) {
+                code = addDistinctValue(start, hash, slot);
+            } else {
+                distinctValues.setSize(start);
+            }
+
+            codes[n++] = code;
+            plainSize += ByteArrayBuilder.varintSize(length) + length;
+            codesSize += ByteArrayBuilder.varintSize(code);
+        }
+
+        private int hash(final byte[] bytes, final int start, final int length) {
+            int hash = 1;
+            for ( int i = start; i < start + length; i++ )
+                hash = 31 * hash + bytes[i];
+            return hash ^ (hash >>> 16);
+        }
+
+        private boolean equalsDistinctValue(final int index, final int start, final int length) {
+            final int distinctStart = offsets[index];
+            if ( offsets[index + 1] - distinctStart != length )
+                return false;
+            final byte[] bytes = distinctValues.getBytes();
+            for ( int i = 0; i < length; i++ )
+                if ( bytes[distinctStart + i] != bytes[start + i] )
+                    return false;
+            return true;
+        }
+
+        private int addDistinctValue(final int start, final int hash, final int slot) {
+            final int index = nDistinct++;
+            if ( index == hashes.length ) {
+                hashes = Arrays.copyOf(hashes, 2 * hashes.length);
+                offsets = Arrays.copyOf(offsets, hashes.length + 1);
+            }
+            offsets[index] = start;
+            offsets[index + 1] = distinctValues.size();
+            hashes[index] = hash;
+            hashTable[slot] = index + 1;
+
+            if ( 2 * nDistinct > hashTable.length )
+                rehash(2 * hashTable.length);
+            return index;
+        }
+
+        private void rehash(final int size) {
+            hashTable = new int[size];
+            final int mask = size - 1;
+            for ( int i = 0; i < nDistinct; i++ ) {
+                int slot = hashes[i] & mask;
+                while ( hashTable[slot] != 0 )
+                    slot = (slot + 1) & mask;
+                hashTable[slot] = i + 1;
+            }
+        }
+
+        @Override
+        protected Encoding encodeValues(final ByteArrayBuilder payload) {
+            final byte[] bytes = distinctValues.getBytes();
+            final long dictionarySize = ByteArrayBuilder.varintSize(nDistinct) + distinctValues.size() + lengthsSize() + codesSize;
+
+            if ( dictionarySize < plainSize ) {
+                payload.appendVarint(nDistinct);
+                for ( int i = 0; i < nDistinct; i++ )
+                    appendDistinctValue(payload, bytes, i);
+                for ( int i = 0; i < n; i++ )
+                    payload.appendVarint(codes[i]);
+                return Encoding.DICTIONARY;
+            } else {
+                for ( int i = 0; i < n; i++ )
+                    appendDistinctValue(payload, bytes, codes[i]);
+                return Encoding.PLAIN;
+            }
+        }
+
+        private long lengthsSize() {
+            long size = 0;
+            for ( int i = 0; i < nDistinct; i++ )
+                size += ByteArrayBuilder.varintSize(offsets[i + 1] - offsets[i]);
+            return size;
+        }
+
+        private void appendDistinctValue(final ByteArrayBuilder payload, final byte[] bytes, final int index) {
+            final int length = offsets[index + 1] - offsets[index];
+            payload.appendVarint(length);
+            payload.append(bytes, offsets[index], length);
+        }
+
+        @Override
+        protected void clearValues() {
+            distinctValues.clear();
+            Arrays.fill(hashTable, 0);
+            nDistinct = 0;
+            n = 0;
+            plainSize = 0;
+            codesSize = 0;
+        }
+    }
+}
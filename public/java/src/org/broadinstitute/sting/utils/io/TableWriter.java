@@ -0,0 +1,47 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.io;
+
+/**
+ * Writes a table, row by row
+ *
+ * The columns of the table are fixed when the writer is created.  Rows are given as arrays of values, one per
+ * column, which the writer formats or encodes before writeRow() returns, so callers can reuse both the array and
+ * any mutable values (like StringBuilders) in it for the next row.  A null value is missing.
+ */
+public interface TableWriter {
+    /**
+     * Write a row of the table
+     *
+     * @param values the values of the row, one per column
+     */
+    public void writeRow(final Object[] values);
+
+    /**
+     * Write out everything still buffered, and anything that ends the table, to the underlying stream, which
+     * stays open.  No more rows can be written afterwards.
+     */
+    public void finish();
+}
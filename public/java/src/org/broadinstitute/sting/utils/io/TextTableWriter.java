@@ -0,0 +1,106 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.io;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * A TableWriter of tab-delimited text, with a header line of column names
+ *
+ * Rows are formatted straight into a reusable buffer, which is written to the underlying stream whenever it fills
+ * up, so writing a row allocates nothing for values that are numbers, arrays of ints, or character sequences.  See
+ * ByteArrayBuilder for how values are formatted.  Text is encoded in the platform's default charset, as a
+ * PrintStream would.
+ */
+public class TextTableWriter implements TableWriter {
+    private final static int BUFFER_SIZE = 1 << 16;
+    private final static byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes();
+
+    private final OutputStream out;
+    private final int nColumns;
+    private final byte[] missingValue;
+    private final Charset charset = Charset.defaultCharset();
+    private final ByteArrayBuilder buffer = new ByteArrayBuilder(2 * BUFFER_SIZE);
+
+    /**
+     * Create a writer, and write the header line
+     *
+     * @param out the stream to write to
+     * @param columnNames the names of the columns of the table
+     * @param missingValue the text written for missing values
+     */
+    public TextTableWriter(final OutputStream out, final List<String> columnNames, final String missingValue) {
+        if ( out == null ) throw new IllegalArgumentException("out cannot be null");
+        if ( columnNames == null ) throw new IllegalArgumentException("columnNames cannot be null");
+        if ( missingValue == null ) throw new IllegalArgumentException("missingValue cannot be null");
+
+        this.out = out;
+        this.nColumns = columnNames.size();
+        this.missingValue = missingValue.getBytes(charset);
+        writeRow(columnNames.toArray());
+    }
+
+    @Override
+    public void writeRow(final Object[] values) {
+        if ( values.length != nColumns )
+            throw new IllegalArgumentException("Expected " + nColumns + " values but got " + values.length);
+
+        for ( int i = 0; i < values.length; i++ ) {
+            if ( i > 0 ) buffer.append((byte)'\t');
+            if ( values[i] == null )
+                buffer.append(missingValue);
+            else
+                buffer.appendValue(values[i], charset);
+        }
+        buffer.append(LINE_SEPARATOR);
+
+        if ( buffer.size() >= BUFFER_SIZE )
+            flushBuffer();
+    }
+
+    @Override
+    public void finish() {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch ( IOException e ) {
+            throw new ReviewedStingException("Unable to write table", e);
+        }
+    }
+
+    private void flushBuffer() {
+        try {
+            out.write(buffer.getBytes(), 0, buffer.size());
+            buffer.clear();
+        } catch ( IOException e ) {
+            throw new ReviewedStingException("Unable to write table", e);
+        }
+    }
+}
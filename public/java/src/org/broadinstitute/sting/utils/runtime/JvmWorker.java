@@ -0,0 +1,287 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.runtime;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the main method of a java program over and over in the same JVM, so that each run after the first
+ * skips the JVM startup, class loading and JIT warm-up.
+ *
+ * Started as "java [options] -cp classpath JvmWorker mainClass", the worker writes READY to its stdout, then reads
+ * jobs from its stdin until stdin is closed.  Each job is written with a DataOutputStream as:
+ *
+ *   UTF the file to append the job's stdout to
+ *   UTF the file to append the job's stderr to, or an empty string to append it to the stdout file
+ *   int the number of arguments, followed by a UTF for each argument
+ *
+ * and is answered with the int exit status of the job, then a boolean that's true if the worker is exiting instead
+ * of reading another job.  A job's call to System.exit() ends the job instead of the worker.
+ *
+ * To keep one job from affecting the next, the worker exits after a job fails, or if the job leaves more than
+ * half of the heap in use.  JvmWorkerProcess starts workers and sends them jobs.
+ *
+ * Static state is not reset between jobs, so a program run on a worker must not depend on its static fields
+ * starting out fresh.  For the GATK, GenomeAnalysisEngine reseeds its static random generator and
+ * MisencodedBaseQualityReadTransformer restarts its read sampling at the start of every run.  The rest of the
+ * GATK's static state is either set again by every run (ReadShard.MAX_READS, the log4j level,
+ * CommandLineProgram.result), or is a cache or counter that doesn't change the output (the QualityUtils and
+ * MathUtils tables, the classpath scan of PluginManager, MicroScheduler.instanceNumber).
+ */
+public class JvmWorker {
+    public static final String READY = "READY";
+
+    private static final double MAX_RETAINED_HEAP_FRACTION = 0.5;
+
+    private final Method main;
+    private final SwitchableOutputStream stdout;
+    private final SwitchableOutputStream stderr;
+    private final ExitTrap exitTrap = new ExitTrap();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java -cp <classpath> " + JvmWorker.class.getName() + " <mainClass>");
+            System.exit(1);
+        }
+
+        // Take over stdin and stdout for the jobs before anything else, such as a logger, grabs them
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        final OutputStream workerErr = new FileOutputStream(FileDescriptor.err);
+        final SwitchableOutputStream stdout = new SwitchableOutputStream(workerErr);
+        final SwitchableOutputStream stderr = new SwitchableOutputStream(workerErr);
+        System.setOut(new PrintStream(stdout, true));
+        System.setErr(new PrintStream(stderr, true));
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+
+        final JvmWorker worker = new JvmWorker(Class.forName(args[0]).getMethod("main", String[].class), stdout, stderr);
+        System.setSecurityManager(worker.exitTrap);
+
+        out.writeUTF(READY);
+        out.flush();
+
+        boolean exiting = false;
+        while (!exiting) {
+            final String stdoutPath;
+            try {
+                stdoutPath = in.readUTF();
+            } catch (EOFException e) {
+                break;
+            }
+            final String stderrPath = in.readUTF();
+            final String[] jobArgs = new String[in.readInt()];
+            for (int i = 0; i < jobArgs.length; i++)
+                jobArgs[i] = in.readUTF();
+
+            final int status = worker.run(new File(stdoutPath), stderrPath.isEmpty() ? null : new File(stderrPath), jobArgs);
+            exiting = status != 0 || worker.isHeapRetained();
+
+            out.writeInt(status);
+            out.writeBoolean(exiting);
+            out.flush();
+        }
+
+        System.exit(0);
+    }
+
+    private JvmWorker(final Method main, final SwitchableOutputStream stdout, final SwitchableOutputStream stderr) {
+        this.main = main;
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    /**
+     * Runs one job, with its stdout and stderr appended to files
+     *
+     * @param stdoutFile the file for the job's stdout
+     * @param stderrFile the file for the job's stderr, or null to write it to stdoutFile
+     * @param args the arguments for the main method
+     * @return the exit status of the job
+     * @throws IOException if the output files can't be opened
+     */
+    private int run(final File stdoutFile, final File stderrFile, final String[] args) throws IOException {
+        final OutputStream jobStdout = new BufferedOutputStream(new FileOutputStream(stdoutFile, true));
+        final OutputStream jobStderr = stderrFile == null ? jobStdout : new BufferedOutputStream(new FileOutputStream(stderrFile, true));
+        final List<Appender> appenders = getAppenders();
+        final OutputStream workerStdout = stdout.switchTo(jobStdout);
+        final OutputStream workerStderr = stderr.switchTo(jobStderr);
+
+        int status;
+        exitTrap.startJob();
+        try {
+            main.invoke(null, (Object) args);
+            status = 0;
+        } catch (InvocationTargetException e) {
+            if ( ! (e.getCause() instanceof ExitException) ) {
+                e.getCause().printStackTrace(System.err);
+                status = 1;
+            } else {
+                status = 0; // use the status of the first exit, below
+            }
+        } catch (IllegalAccessException e) {
+            e.printStackTrace(System.err);
+            status = 1;
+        } finally {
+            exitTrap.endJob();
+            System.out.flush();
+            System.err.flush();
+            stdout.switchTo(workerStdout);
+            stderr.switchTo(workerStderr);
+            restoreAppenders(appenders);
+            jobStdout.close();
+            if (jobStderr != jobStdout)
+                jobStderr.close();
+        }
+
+        // A program may catch the exception thrown by its own System.exit() and call exit again; the first call counts
+        if (exitTrap.exitStatus != null)
+            status = exitTrap.exitStatus;
+        return status;
+    }
+
+    /**
+     * @return true if, after a full collection, the last job left more than MAX_RETAINED_HEAP_FRACTION of the heap in use
+     */
+    private boolean isHeapRetained() {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory() > runtime.maxMemory() * MAX_RETAINED_HEAP_FRACTION;
+    }
+
+    /**
+     * @return the appenders of the root logger, which programs such as the GATK add to for their runs
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Appender> getAppenders() {
+        return Collections.list((java.util.Enumeration<Appender>) Logger.getRootLogger().getAllAppenders());
+    }
+
+    /**
+     * Removes the appenders added to the root logger during a job, closing the files they write to
+     * @param appenders the appenders from before the job
+     */
+    private static void restoreAppenders(final List<Appender> appenders) {
+        for (final Appender appender : new ArrayList<Appender>(getAppenders())) {
+            if (!appenders.contains(appender)) {
+                Logger.getRootLogger().removeAppender(appender);
+                appender.close();
+            }
+        }
+    }
+
+    /**
+     * Thrown in place of exiting the JVM when a job calls System.exit()
+     */
+    private static class ExitException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+
+        private ExitException(final int status) {
+            super("Exit with status " + status + " trapped by " + JvmWorker.class.getSimpleName());
+        }
+    }
+
+    /**
+     * Allows everything, except exiting the JVM while a job is running
+     */
+    private static class ExitTrap extends SecurityManager {
+        private volatile boolean running = false;
+        private volatile Integer exitStatus = null;
+
+        private void startJob() {
+            exitStatus = null;
+            running = true;
+        }
+
+        private void endJob() {
+            running = false;
+        }
+
+        @Override
+        public void checkExit(final int status) {
+            if (running) {
+                synchronized (this) {
+                    if (exitStatus == null)
+                        exitStatus = status;
+                }
+                throw new ExitException(status);
+            }
+        }
+
+        @Override
+        public void checkPermission(final Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(final Permission perm, final Object context) {
+        }
+    }
+
+    /**
+     * An output stream that writes to whichever stream it was last switched to
+     */
+    private static class SwitchableOutputStream extends OutputStream {
+        private volatile OutputStream out;
+
+        private SwitchableOutputStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * @param out the stream to write to from now on
+         * @return the stream that was written to until now
+         * @throws IOException if the current stream can't be flushed
+         */
+        private OutputStream switchTo(final OutputStream out) throws IOException {
+            final OutputStream previous = this.out;
+            previous.flush();
+            this.out = out;
+            return previous;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
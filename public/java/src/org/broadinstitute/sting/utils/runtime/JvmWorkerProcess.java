@@ -0,0 +1,164 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.runtime;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A JvmWorker process, which runs jobs for the main class it was started with one after another.
+ *
+ * Instances are not thread-safe, except for destroy(), which may be called from any thread to kill the worker
+ * along with any job it's running.
+ */
+public class JvmWorkerProcess {
+    private final List<String> command;
+    private final File directory;
+    private final Process process;
+    private final DataOutputStream jobs;
+    private final DataInputStream results;
+    private volatile boolean exited = false;
+
+    /**
+     * Starts a worker, and waits for it to be ready to run jobs.
+     *
+     * @param javaCommand the java executable followed by any JVM options, such as -Xmx
+     * @param classpath the classpath, which must contain both the main class and JvmWorker
+     * @param mainClass the main class of the jobs
+     * @param directory the directory to run the worker in, or null to run in the current directory
+     * @throws IOException if the worker can't be started
+     */
+    public JvmWorkerProcess(final List<String> javaCommand, final String classpath, final String mainClass, final File directory) throws IOException {
+        if ( javaCommand == null || javaCommand.isEmpty() ) throw new IllegalArgumentException("javaCommand cannot be empty");
+        if ( classpath == null ) throw new IllegalArgumentException("classpath cannot be null");
+        if ( mainClass == null ) throw new IllegalArgumentException("mainClass cannot be null");
+
+        this.command = new ArrayList<String>(javaCommand);
+        this.command.addAll(Arrays.asList("-cp", classpath, JvmWorker.class.getName(), mainClass));
+        this.directory = directory;
+
+        final ProcessBuilder builder = new ProcessBuilder(command).directory(directory);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        this.process = builder.start();
+        this.jobs = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        this.results = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+
+        final String ready;
+        try {
+            ready = results.readUTF();
+        } catch (IOException e) {
+            destroy();
+            throw new IOException("Worker exited before it was ready: " + command, e);
+        }
+        if ( ! JvmWorker.READY.equals(ready) ) {
+            destroy();
+            throw new IOException("Unexpected response from worker: " + ready);
+        }
+    }
+
+    /**
+     * @return the full command the worker was started with
+     */
+    public List<String> getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the directory the worker was started in, or null for the current directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return true if the worker can run another job
+     */
+    public boolean isAlive() {
+        if ( exited )
+            return false;
+        try {
+            process.exitValue();
+            exited = true;
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Runs a job on the worker and waits for it to finish.
+     *
+     * @param args the arguments for the main class
+     * @param stdoutFile the file to append the job's stdout to
+     * @param stderrFile the file to append the job's stderr to, or null to append it to stdoutFile
+     * @return the exit status of the job
+     * @throws IOException if the worker died before the job finished, for example by being destroyed
+     */
+    public int run(final List<String> args, final File stdoutFile, final File stderrFile) throws IOException {
+        if ( stdoutFile == null ) throw new IllegalArgumentException("stdoutFile cannot be null");
+        if ( ! isAlive() ) throw new ReviewedStingException("Worker has already exited: " + command);
+
+        try {
+            jobs.writeUTF(stdoutFile.getAbsolutePath());
+            jobs.writeUTF(stderrFile == null ? "" : stderrFile.getAbsolutePath());
+            jobs.writeInt(args.size());
+            for (final String arg : args)
+                jobs.writeUTF(arg);
+            jobs.flush();
+
+            final int status = results.readInt();
+            if ( results.readBoolean() )
+                close();
+            return status;
+        } catch (IOException e) {
+            destroy();
+            throw e;
+        }
+    }
+
+    /**
+     * Lets the worker exit after any job it's running
+     */
+    public void close() {
+        exited = true;
+        try {
+            jobs.close();
+        } catch (IOException e) {
+            // the worker has already exited
+        }
+    }
+
+    /**
+     * Kills the worker, and any job it's running
+     */
+    public void destroy() {
+        exited = true;
+        process.destroy();
+    }
+}
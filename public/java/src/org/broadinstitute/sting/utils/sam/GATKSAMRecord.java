@@ -78,6 +78,9 @@ public class GATKSAMRecord extends BAMRecord {
 
     private Boolean isStrandlessRead = null;
 
+    // if true, the cigar must be consolidated (see deferCigarConsolidation()) the first time anyone looks at it
+    private boolean cigarConsolidationPending = false;
+
     // because some values can be null, we don't want to duplicate effort
     private boolean retrievedReadGroup = false;
     private boolean retrievedReduceReadCounts = false;
@@ -204,6 +207,60 @@ public class GATKSAMRecord extends BAMRecord {
         mReadString = s;
     }
 
+    /**
+     * Request that the cigar of this read be put into canonical form (see AlignmentUtils.consolidateCigar)
+     * the first time it is accessed, rather than now.
+     *
+     * BAMRecord decodes the cigar lazily and writes the original binary record back out untouched until a
+     * field is modified, so eagerly calling setCigar() on every read would force the whole record to be
+     * re-encoded on output even though almost all cigars are already consolidated.  Deferring the work means
+     * reads that nobody looks at are never decoded, and reads whose cigars are already canonical are never
+     * marked as modified.
+     */
+    public void deferCigarConsolidation() {
+        cigarConsolidationPending = true;
+    }
+
+    private void resolvePendingCigarConsolidation() {
+        if ( cigarConsolidationPending ) {
+            cigarConsolidationPending = false;
+            final Cigar cigar = super.getCigar();
+            final Cigar consolidated = AlignmentUtils.consolidateCigar(cigar);
+            if ( consolidated != cigar )
+                super.setCigar(consolidated);
+        }
+    }
+
+    @Override
+    public Cigar getCigar() {
+        resolvePendingCigarConsolidation();
+        return super.getCigar();
+    }
+
+    @Override
+    public String getCigarString() {
+        resolvePendingCigarConsolidation();
+        return super.getCigarString();
+    }
+
+    @Override
+    public int getCigarLength() {
+        resolvePendingCigarConsolidation();
+        return super.getCigarLength();
+    }
+
+    @Override
+    public void setCigar(final Cigar cigar) {
+        cigarConsolidationPending = false;
+        super.setCigar(cigar);
+    }
+
+    @Override
+    public void setCigarString(final String value) {
+        cigarConsolidationPending = false;
+        super.setCigarString(value);
+    }
+
     /**
      * Get the GATKSAMReadGroupRecord of this read
      * @return a non-null GATKSAMReadGroupRecord
@@ -245,6 +302,10 @@ public class GATKSAMRecord extends BAMRecord {
 
         if (!(o instanceof GATKSAMRecord)) return false;
 
+        // SAMRecord compares the cigar fields directly, so make sure both are in their final form
+        resolvePendingCigarConsolidation();
+        ((GATKSAMRecord)o).resolvePendingCigarConsolidation();
+
         // note that we do not consider the GATKSAMRecord internal state at all
         return super.equals(o);
     }
@@ -50,6 +50,7 @@ public class MisencodedBaseQualityReadTransformer extends ReadTransformer {
     public ApplicationTime initializeSub(final GenomeAnalysisEngine engine, final Walker walker) {
         fixQuals = engine.getArguments().FIX_MISENCODED_QUALS;
         disabled = !fixQuals && engine.getArguments().ALLOW_POTENTIALLY_MISENCODED_QUALS;
+        currentReadCounter = 0; // sample the same reads as a new JVM would
 
         return ReadTransformer.ApplicationTime.ON_INPUT;
     }
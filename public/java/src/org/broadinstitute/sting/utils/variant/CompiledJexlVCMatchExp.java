@@ -0,0 +1,816 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.variant;
+
+import org.apache.commons.jexl2.Expression;
+import org.broadinstitute.variant.utils.GeneralUtils;
+import org.broadinstitute.variant.variantcontext.Genotype;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.variantcontext.VariantContextUtils;
+
+import java.util.*;
+
+/**
+ * A JexlVCMatchExp that evaluates the common subset of the JEXL grammar itself, without going through JEXL
+ *
+ * VariantContextUtils.match() evaluates an expression by wrapping the site in a JexlContext (or, for genotype
+ * expressions, by copying every attribute of the site and genotype into a map) which JEXL then queries by name,
+ * converting strings to numbers on every access.  For expressions made up only of
+ *
+ *   - comparisons (==, !=, <, <=, >, >=, or eq, ne, lt, le, gt, ge) between number and string literals,
+ *     INFO and FORMAT fields, and the standard names JEXL binds (QUAL, FILTER, GQ, isHet, ...)
+ *   - boolean logic (&&, ||, !, or and, or, not) and parentheses
+ *   - predicates and counts of the site without arguments, like vc.isSNP() or vc.getNAlleles()
+ *
+ * we instead parse the expression once into a tree of evaluators, whose field references look themselves up
+ * directly in the VariantContext and Genotype, and whose literals are converted to numbers up front.
+ *
+ * The evaluators follow JEXL's semantics exactly, including its type coercions and the rule that an expression
+ * referring to an undefined variable doesn't match.  Whenever a value can't be handled that way (a list valued
+ * attribute, say, or a string that isn't a number where one is needed) that record is handed to JEXL instead,
+ * as is every record for expressions outside the subset, so the results (and errors) are always JEXL's.
+ */
+public class CompiledJexlVCMatchExp extends VariantContextUtils.JexlVCMatchExp {
+    /**
+     * The compiled expression, or null if the expression isn't in the subset we can compile
+     */
+    private final BooleanNode compiled;
+
+    public CompiledJexlVCMatchExp(final String name, final Expression exp) {
+        super(name, exp);
+        this.compiled = compile(exp.getExpression());
+    }
+
+    /**
+     * Compile each of exps
+     *
+     * @param exps the expressions to compile, typically from VariantContextUtils.initializeMatchExps()
+     * @return a list of compiled expressions, in the same order as exps
+     */
+    public static List<CompiledJexlVCMatchExp> compile(final List<VariantContextUtils.JexlVCMatchExp> exps) {
+        final List<CompiledJexlVCMatchExp> compiledExps = new ArrayList<CompiledJexlVCMatchExp>(exps.size());
+        for ( final VariantContextUtils.JexlVCMatchExp exp : exps )
+            compiledExps.add(new CompiledJexlVCMatchExp(exp.name, exp.exp));
+        return compiledExps;
+    }
+
+    /**
+     * @return true if this expression is evaluated without JEXL, false if every evaluation goes through JEXL
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * Does the site vc match this expression?
+     *
+     * @param vc the site to test
+     * @return exactly VariantContextUtils.match(vc, this)
+     */
+    public boolean match(final VariantContext vc) {
+        return match(vc, null);
+    }
+
+    /**
+     * Does the genotype g of the site vc match this expression?
+     *
+     * @param vc the site to test
+     * @param g a genotype of vc, or null to test the site itself
+     * @return exactly VariantContextUtils.match(vc, g, this), or VariantContextUtils.match(vc, this) if g is null
+     */
+    public boolean match(final VariantContext vc, final Genotype g) {
+        if ( compiled != null ) {
+            try {
+                return compiled.evaluate(vc, g);
+            } catch ( UndefinedVariable e ) {
+                // JEXL fails to evaluate expressions referring to undefined variables, which therefore don't match
+                return false;
+            } catch ( Undecidable e ) {
+                // fall back to JEXL, to get its answer (or error) for this record
+            }
+        }
+
+        return g == null ? VariantContextUtils.match(vc, this) : VariantContextUtils.match(vc, g, this);
+    }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // control flow out of the evaluators
+    //
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * Thrown when evaluation refers to a variable JEXL wouldn't find in its context
+     */
+    private static final class UndefinedVariable extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() { return this; }
+    }
+
+    /**
+     * Thrown when we can't be sure to evaluate a record exactly as JEXL would, so JEXL has to do it
+     */
+    private static final class Undecidable extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() { return this; }
+    }
+
+    /**
+     * Thrown while compiling an expression outside of the subset we support
+     */
+    private static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() { return this; }
+    }
+
+    // these carry no state, so we only need one of each
+    private static final UndefinedVariable UNDEFINED_VARIABLE = new UndefinedVariable();
+    private static final Undecidable UNDECIDABLE = new Undecidable();
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    // -------------------------------------------------------------------------------------
+    //
+    // evaluators
+    //
+    // -------------------------------------------------------------------------------------
+
+    private interface BooleanNode {
+        /** evaluate against the site vc, or its genotype g if it isn't null */
+        public boolean evaluate(final VariantContext vc, final Genotype g);
+    }
+
+    private interface ValueNode {
+        /** the value in the site vc, or its genotype g if it isn't null; never null */
+        public Object get(final VariantContext vc, final Genotype g);
+    }
+
+    private static final class And implements BooleanNode {
+        private final BooleanNode left, right;
+        private And(final BooleanNode left, final BooleanNode right) { this.left = left; this.right = right; }
+        @Override public boolean evaluate(final VariantContext vc, final Genotype g) { return left.evaluate(vc, g) && right.evaluate(vc, g); }
+    }
+
+    private static final class Or implements BooleanNode {
+        private final BooleanNode left, right;
+        private Or(final BooleanNode left, final BooleanNode right) { this.left = left; this.right = right; }
+        @Override public boolean evaluate(final VariantContext vc, final Genotype g) { return left.evaluate(vc, g) || right.evaluate(vc, g); }
+    }
+
+    private static final class Not implements BooleanNode {
+        private final BooleanNode node;
+        private Not(final BooleanNode node) { this.node = node; }
+        @Override public boolean evaluate(final VariantContext vc, final Genotype g) { return ! node.evaluate(vc, g); }
+    }
+
+    private static final class Comparison implements BooleanNode {
+        private final ValueNode left, right;
+        private final ComparisonOperator op;
+        private Comparison(final ValueNode left, final ComparisonOperator op, final ValueNode right) { this.left = left; this.op = op; this.right = right; }
+        @Override public boolean evaluate(final VariantContext vc, final Genotype g) {
+            final Object leftValue = left.get(vc, g);
+            return op.apply(leftValue, right.get(vc, g));
+        }
+    }
+
+    private static final class Literal implements ValueNode {
+        private final Object value;
+        private Literal(final Object value) { this.value = value; }
+        @Override public Object get(final VariantContext vc, final Genotype g) { return value; }
+    }
+
+    /**
+     * A call to a predicate of the site, like vc.isSNP()
+     */
+    private static final class SitePredicateCall implements BooleanNode {
+        private final SitePredicate predicate;
+        private SitePredicateCall(final SitePredicate predicate) { this.predicate = predicate; }
+        @Override public boolean evaluate(final VariantContext vc, final Genotype g) {
+            // vc isn't bound for genotypes, which JEXL reports according to its silent setting
+            if ( g != null ) throw UNDECIDABLE;
+            return predicate.test(vc);
+        }
+    }
+
+    /**
+     * A call to a count of the site, like vc.getNAlleles()
+     */
+    private static final class SiteCountCall implements ValueNode {
+        private final SiteCount count;
+        private SiteCountCall(final SiteCount count) { this.count = count; }
+        @Override public Object get(final VariantContext vc, final Genotype g) {
+            if ( g != null ) throw UNDECIDABLE;
+            return count.get(vc);
+        }
+    }
+
+    private enum SitePredicate {
+        isSNP { boolean test(final VariantContext vc) { return vc.isSNP(); } },
+        isMNP { boolean test(final VariantContext vc) { return vc.isMNP(); } },
+        isIndel { boolean test(final VariantContext vc) { return vc.isIndel(); } },
+        isSimpleIndel { boolean test(final VariantContext vc) { return vc.isSimpleIndel(); } },
+        isSimpleInsertion { boolean test(final VariantContext vc) { return vc.isSimpleInsertion(); } },
+        isSimpleDeletion { boolean test(final VariantContext vc) { return vc.isSimpleDeletion(); } },
+        isComplexIndel { boolean test(final VariantContext vc) { return vc.isComplexIndel(); } },
+        isMixed { boolean test(final VariantContext vc) { return vc.isMixed(); } },
+        isSymbolic { boolean test(final VariantContext vc) { return vc.isSymbolic(); } },
+        isPointEvent { boolean test(final VariantContext vc) { return vc.isPointEvent(); } },
+        isBiallelic { boolean test(final VariantContext vc) { return vc.isBiallelic(); } },
+        isVariant { boolean test(final VariantContext vc) { return vc.isVariant(); } },
+        isFiltered { boolean test(final VariantContext vc) { return vc.isFiltered(); } },
+        isNotFiltered { boolean test(final VariantContext vc) { return vc.isNotFiltered(); } },
+        isPolymorphicInSamples { boolean test(final VariantContext vc) { return vc.isPolymorphicInSamples(); } },
+        isMonomorphicInSamples { boolean test(final VariantContext vc) { return vc.isMonomorphicInSamples(); } },
+        hasGenotypes { boolean test(final VariantContext vc) { return vc.hasGenotypes(); } },
+        hasID { boolean test(final VariantContext vc) { return vc.hasID(); } };
+
+        abstract boolean test(final VariantContext vc);
+    }
+
+    private enum SiteCount {
+        getStart { int get(final VariantContext vc) { return vc.getStart(); } },
+        getEnd { int get(final VariantContext vc) { return vc.getEnd(); } },
+        getNAlleles { int get(final VariantContext vc) { return vc.getNAlleles(); } },
+        getNSamples { int get(final VariantContext vc) { return vc.getNSamples(); } },
+        getCalledChrCount { int get(final VariantContext vc) { return vc.getCalledChrCount(); } },
+        getNoCallCount { int get(final VariantContext vc) { return vc.getNoCallCount(); } },
+        getHomRefCount { int get(final VariantContext vc) { return vc.getHomRefCount(); } },
+        getHetCount { int get(final VariantContext vc) { return vc.getHetCount(); } },
+        getHomVarCount { int get(final VariantContext vc) { return vc.getHomVarCount(); } };
+
+        abstract int get(final VariantContext vc);
+    }
+
+    /**
+     * A reference to a variable, resolved exactly as JEXL's contexts resolve it
+     *
+     * For sites (see VariantJEXLContext) that's first the standard names, then INFO fields, then filter names.  For
+     * genotypes (see JEXLMap) it's the reverse of the order in which everything is put in the map: FORMAT fields,
+     * then the standard genotype names, then filter names, FILTER, INFO fields as strings, and then the standard
+     * site names.  Which of the standard names this is gets worked out once, up front.
+     */
+    private static final class Variable implements ValueNode {
+        private final String name;
+        private final SiteVariable siteVariable;
+        private final GenotypeVariable genotypeVariable;
+
+        private Variable(final String name) {
+            this.name = name;
+            this.siteVariable = SiteVariable.forName(name);
+            this.genotypeVariable = GenotypeVariable.forName(name);
+        }
+
+        @Override
+        public Object get(final VariantContext vc, final Genotype g) {
+            return g == null ? getFromSite(vc) : getFromGenotype(vc, g);
+        }
+
+        private Object getFromSite(final VariantContext vc) {
+            if ( siteVariable != null )
+                return siteVariable.get(vc);
+
+            if ( vc.hasAttribute(name) ) {
+                final Object value = vc.getAttribute(name);
+                if ( value == null ) throw UNDEFINED_VARIABLE;
+                return value;
+            }
+
+            if ( vc.getFilters().contains(name) )
+                return "1";
+
+            throw UNDEFINED_VARIABLE;
+        }
+
+        private Object getFromGenotype(final VariantContext vc, final Genotype g) {
+            final Object formatValue = g.getExtendedAttribute(name);
+            if ( formatValue != null && ! formatValue.equals(VCFMissingValue) )
+                return formatValue;
+
+            if ( genotypeVariable != null && genotypeVariable.isBound(g) )
+                return genotypeVariable.get(g);
+
+            if ( vc.getFilters().contains(name) )
+                return "1";
+
+            if ( genotypeVariable == GenotypeVariable.FILTER )
+                return vc.isFiltered() ? "1" : "0";
+
+            if ( vc.hasAttribute(name) )
+                return String.valueOf(vc.getAttribute(name));
+
+            if ( genotypeVariable != null && genotypeVariable.isSiteVariable() )
+                return genotypeVariable.getFromSite(vc);
+
+            throw UNDEFINED_VARIABLE;
+        }
+    }
+
+    private static final String VCFMissingValue = ".";
+
+    /**
+     * The standard names VariantJEXLContext binds for sites
+     */
+    private enum SiteVariable {
+        CHROM { Object get(final VariantContext vc) { return vc.getChr(); } },
+        POS { Object get(final VariantContext vc) { return vc.getStart(); } },
+        TYPE { Object get(final VariantContext vc) { return vc.getType().toString(); } },
+        QUAL { Object get(final VariantContext vc) { return -10.0 * vc.getLog10PError(); } },
+        ALLELES { Object get(final VariantContext vc) { return vc.getAlleles(); } },
+        N_ALLELES { Object get(final VariantContext vc) { return vc.getNAlleles(); } },
+        FILTER { Object get(final VariantContext vc) { return vc.isFiltered() ? "1" : "0"; } },
+        homRefCount { Object get(final VariantContext vc) { return vc.getHomRefCount(); } },
+        hetCount { Object get(final VariantContext vc) { return vc.getHetCount(); } },
+        homVarCount { Object get(final VariantContext vc) { return vc.getHomVarCount(); } };
+
+        abstract Object get(final VariantContext vc);
+
+        static SiteVariable forName(final String name) {
+            for ( final SiteVariable variable : values() )
+                if ( variable.name().equals(name) )
+                    return variable;
+            return null;
+        }
+    }
+
+    /**
+     * The standard names JEXLMap binds for genotypes, which are either properties of the genotype or
+     * (as strings) of the site
+     */
+    private enum GenotypeVariable {
+        GT { Object get(final Genotype g) { return g.getGenotypeString(); } },
+        isHomRef { Object get(final Genotype g) { return g.isHomRef() ? "1" : "0"; } },
+        isHet { Object get(final Genotype g) { return g.isHet() ? "1" : "0"; } },
+        isHomVar { Object get(final Genotype g) { return g.isHomVar() ? "1" : "0"; } },
+        GQ { Object get(final Genotype g) { return g.getGQ(); } },
+        DP {
+            Object get(final Genotype g) { return g.getDP(); }
+            boolean isBound(final Genotype g) { return g.hasDP(); }
+        },
+        FILTER,
+        CHROM { Object getFromSite(final VariantContext vc) { return vc.getChr(); } },
+        POS { Object getFromSite(final VariantContext vc) { return vc.getStart(); } },
+        TYPE { Object getFromSite(final VariantContext vc) { return vc.getType().toString(); } },
+        QUAL { Object getFromSite(final VariantContext vc) { return String.valueOf(vc.getPhredScaledQual()); } },
+        ALLELES { Object getFromSite(final VariantContext vc) { return GeneralUtils.join(";", vc.getAlleles()); } },
+        N_ALLELES { Object getFromSite(final VariantContext vc) { return String.valueOf(vc.getNAlleles()); } };
+
+        /** is this variable a property of the genotype g? */
+        boolean isBound(final Genotype g) { return ordinal() < FILTER.ordinal(); }
+        Object get(final Genotype g) { throw new IllegalStateException("Not a genotype variable " + this); }
+
+        boolean isSiteVariable() { return ordinal() > FILTER.ordinal(); }
+        Object getFromSite(final VariantContext vc) { throw new IllegalStateException("Not a site variable " + this); }
+
+        static GenotypeVariable forName(final String name) {
+            for ( final GenotypeVariable variable : values() )
+                if ( variable.name().equals(name) )
+                    return variable;
+            return null;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // JEXL's arithmetic
+    //
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * The comparison operators, following JexlArithmetic for the types of values we see in VariantContexts
+     */
+    private enum ComparisonOperator {
+        EQ { boolean apply(final Object l, final Object r) { return jexlEquals(l, r); } },
+        NE { boolean apply(final Object l, final Object r) { return ! jexlEquals(l, r); } },
+        LT { boolean apply(final Object l, final Object r) { return l != r && compare(l, r) < 0; } },
+        LE { boolean apply(final Object l, final Object r) { return l == r || compare(l, r) <= 0; } },
+        GT { boolean apply(final Object l, final Object r) { return l != r && compare(l, r) > 0; } },
+        GE { boolean apply(final Object l, final Object r) { return l == r || compare(l, r) >= 0; } };
+
+        abstract boolean apply(final Object l, final Object r);
+    }
+
+    private static boolean jexlEquals(final Object l, final Object r) {
+        if ( l == r )
+            return true;
+        if ( l instanceof Boolean || r instanceof Boolean )
+            throw UNDECIDABLE;
+        return compare(l, r) == 0;
+    }
+
+    private static int compare(final Object l, final Object r) {
+        if ( isFloatingPoint(l) || isFloatingPoint(r) ) {
+            final double lDouble = toDouble(l);
+            final double rDouble = toDouble(r);
+            if ( Double.isNaN(lDouble) )
+                return Double.isNaN(rDouble) ? 0 : -1;
+            if ( Double.isNaN(rDouble) )
+                return 1;
+            return lDouble < rDouble ? -1 : (lDouble > rDouble ? 1 : 0);
+        } else if ( isNumberable(l) || isNumberable(r) ) {
+            final long lLong = toLong(l);
+            final long rLong = toLong(r);
+            return lLong < rLong ? -1 : (lLong > rLong ? 1 : 0);
+        } else if ( l instanceof String && r instanceof String ) {
+            return ((String)l).compareTo((String)r);
+        } else {
+            throw UNDECIDABLE;
+        }
+    }
+
+    private static boolean isFloatingPoint(final Object o) {
+        return o instanceof Double || o instanceof Float;
+    }
+
+    private static boolean isNumberable(final Object o) {
+        return o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte || o instanceof Character;
+    }
+
+    private static double toDouble(final Object o) {
+        if ( o instanceof Double )
+            return (Double)o;
+        if ( o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte )
+            return ((Number)o).doubleValue();
+        if ( o instanceof Float )
+            return Double.parseDouble(String.valueOf(o));
+        if ( o instanceof String ) {
+            final String s = (String)o;
+            if ( s.trim().isEmpty() )
+                return Double.NaN;
+            try {
+                return Double.parseDouble(s);
+            } catch ( NumberFormatException e ) {
+                throw UNDECIDABLE;
+            }
+        }
+        if ( o instanceof Boolean )
+            return (Boolean)o ? 1.0 : 0.0;
+        throw UNDECIDABLE;
+    }
+
+    private static long toLong(final Object o) {
+        if ( o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte )
+            return ((Number)o).longValue();
+        if ( o instanceof String ) {
+            final String s = (String)o;
+            if ( s.isEmpty() )
+                return 0;
+            try {
+                return Long.parseLong(s);
+            } catch ( NumberFormatException e ) {
+                throw UNDECIDABLE;
+            }
+        }
+        if ( o instanceof Boolean )
+            return (Boolean)o ? 1 : 0;
+        throw UNDECIDABLE;
+    }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // parsing
+    //
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * @param expression the text of a JEXL expression
+     * @return the compiled form of expression, or null if expression isn't in the subset we support
+     */
+    private static BooleanNode compile(final String expression) {
+        try {
+            return new Parser(expression).parse();
+        } catch ( Unsupported e ) {
+            return null;
+        }
+    }
+
+    // JEXL's reserved words, which we mustn't take for variables
+    private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+            "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not", "null", "true", "false",
+            "new", "var", "do", "while", "for", "foreach", "if", "else", "in", "empty", "size", "function", "return"));
+
+    /**
+     * A recursive descent parser for our subset of JEXL:
+     *
+     *   or         := and (('||' | 'or') and)*
+     *   and        := unary (('&&' | 'and') unary)*
+     *   unary      := ('!' | 'not') negatable | '(' or ')' | predicate | value comparator value
+     *   negatable  := ('!' | 'not') negatable | '(' or ')' | predicate
+     *   predicate  := 'vc' '.' name '(' ')'
+     *   value      := number | '-' number | string | variable | 'vc' '.' name '(' ')'
+     *
+     * In JEXL ! binds more tightly than comparisons, so !x < y compares !x with y, which we don't support
+     */
+    private static final class Parser {
+        private final String s;
+        private int pos = 0;
+
+        private Parser(final String s) {
+            this.s = s;
+        }
+
+        BooleanNode parse() {
+            final BooleanNode node = parseOr();
+            skipWhitespace();
+            if ( pos != s.length() )
+                throw UNSUPPORTED;
+            return node;
+        }
+
+        private BooleanNode parseOr() {
+            BooleanNode node = parseAnd();
+            while ( acceptSymbol("||") || acceptWord("or") )
+                node = new Or(node, parseAnd());
+            return node;
+        }
+
+        private BooleanNode parseAnd() {
+            BooleanNode node = parseUnary();
+            while ( acceptSymbol("&&") || acceptWord("and") )
+                node = new And(node, parseUnary());
+            return node;
+        }
+
+        private BooleanNode parseUnary() {
+            skipWhitespace();
+            if ( peek('!') && ! peek("!=") && ! peek("!~") || peekWord("not") || peek('(') || peekPredicate() ) {
+                final BooleanNode node = parseNegatable();
+                if ( peekComparator() )
+                    throw UNSUPPORTED; // comparing a boolean
+                return node;
+            }
+
+            final ValueNode left = parseValue();
+            final ComparisonOperator op = parseComparator();
+            final ValueNode right = parseValue();
+            if ( peekComparator() )
+                throw UNSUPPORTED; // a chain of comparisons
+            return new Comparison(left, op, right);
+        }
+
+        private BooleanNode parseNegatable() {
+            skipWhitespace();
+            if ( peek('!') && ! peek("!=") && ! peek("!~") ) {
+                pos++;
+                return new Not(parseNegatable());
+            } else if ( acceptWord("not") ) {
+                return new Not(parseNegatable());
+            } else if ( acceptSymbol("(") ) {
+                final BooleanNode node = parseOr();
+                if ( ! acceptSymbol(")") )
+                    throw UNSUPPORTED;
+                return node;
+            } else {
+                final String method = parseSiteMethodCall();
+                try {
+                    return new SitePredicateCall(SitePredicate.valueOf(method));
+                } catch ( IllegalArgumentException e ) {
+                    throw UNSUPPORTED;
+                }
+            }
+        }
+
+        private ValueNode parseValue() {
+            skipWhitespace();
+            if ( pos == s.length() )
+                throw UNSUPPORTED;
+
+            final char c = s.charAt(pos);
+            if ( c == '\'' || c == '"' ) {
+                return new Literal(parseString(c));
+            } else if ( c == '-' ) {
+                pos++;
+                skipWhitespace();
+                return new Literal(negate(parseNumber()));
+            } else if ( Character.isDigit(c) ) {
+                return new Literal(parseNumber());
+            } else if ( peekSiteMethodCall() ) {
+                final String method = parseSiteMethodCall();
+                try {
+                    return new SiteCountCall(SiteCount.valueOf(method));
+                } catch ( IllegalArgumentException e ) {
+                    throw UNSUPPORTED;
+                }
+            } else {
+                final String name = parseIdentifier();
+                if ( RESERVED_WORDS.contains(name) || name.equals("vc") )
+                    throw UNSUPPORTED;
+                skipWhitespace();
+                if ( peek('.') || peek('(') || peek('[') )
+                    throw UNSUPPORTED; // property access, function calls and indexing
+                return new Variable(name);
+            }
+        }
+
+        /**
+         * Parse a string literal quoted by quote, supporting only literals without escapes
+         */
+        private String parseString(final char quote) {
+            final int end = s.indexOf(quote, pos + 1);
+            if ( end == -1 )
+                throw UNSUPPORTED;
+            final String value = s.substring(pos + 1, end);
+            if ( value.indexOf('\\') != -1 || value.indexOf('\n') != -1 || value.indexOf('\r') != -1 )
+                throw UNSUPPORTED;
+            pos = end + 1;
+            return value;
+        }
+
+        /**
+         * Parse an unsigned decimal number literal, returning the value JEXL's arithmetic would see
+         *
+         * JEXL reads integers as Integers or Longs, which its arithmetic treats alike, so we return Longs.  It reads
+         * real numbers as Floats unless they are suffixed with d, and converts Floats to doubles through their string
+         * representation, so we do the same conversion once, here, and return Doubles.
+         */
+        private Object parseNumber() {
+            final int start = pos;
+            while ( pos < s.length() && Character.isDigit(s.charAt(pos)) ) pos++;
+            if ( pos == start )
+                throw UNSUPPORTED;
+
+            boolean isReal = false;
+            if ( pos + 1 < s.length() && s.charAt(pos) == '.' && Character.isDigit(s.charAt(pos + 1)) ) {
+                isReal = true;
+                pos++;
+                while ( pos < s.length() && Character.isDigit(s.charAt(pos)) ) pos++;
+                if ( pos < s.length() && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E') ) {
+                    pos++;
+                    if ( pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-') ) pos++;
+                    final int exponentStart = pos;
+                    while ( pos < s.length() && Character.isDigit(s.charAt(pos)) ) pos++;
+                    if ( pos == exponentStart )
+                        throw UNSUPPORTED;
+                }
+            }
+            final String digits = s.substring(start, pos);
+
+            // only the simple suffixes; hex, octal, and big numbers are left to JEXL
+            char suffix = 0;
+            if ( pos < s.length() && "dDfFlL".indexOf(s.charAt(pos)) != -1 )
+                suffix = Character.toLowerCase(s.charAt(pos++));
+            if ( pos < s.length() && isIdentifierPart(s.charAt(pos)) )
+                throw UNSUPPORTED;
+
+            try {
+                if ( isReal ) {
+                    if ( suffix == 'd' )
+                        return Double.valueOf(digits);
+                    else if ( suffix == 0 || suffix == 'f' )
+                        return Double.parseDouble(String.valueOf(Float.valueOf(digits)));
+                    else
+                        throw UNSUPPORTED;
+                } else {
+                    if ( suffix != 0 && suffix != 'l' )
+                        throw UNSUPPORTED;
+                    if ( digits.length() > 1 && digits.charAt(0) == '0' )
+                        throw UNSUPPORTED; // octal
+                    return Long.valueOf(digits);
+                }
+            } catch ( NumberFormatException e ) {
+                throw UNSUPPORTED;
+            }
+        }
+
+        private Object negate(final Object number) {
+            if ( number instanceof Double )
+                return -(Double)number;
+            else
+                return -(Long)number;
+        }
+
+        private ComparisonOperator parseComparator() {
+            if ( acceptSymbol("==") || acceptWord("eq") ) return ComparisonOperator.EQ;
+            if ( acceptSymbol("!=") || acceptWord("ne") ) return ComparisonOperator.NE;
+            if ( acceptSymbol("<=") || acceptWord("le") ) return ComparisonOperator.LE;
+            if ( acceptSymbol(">=") || acceptWord("ge") ) return ComparisonOperator.GE;
+            if ( acceptSymbol("<") || acceptWord("lt") ) return ComparisonOperator.LT;
+            if ( acceptSymbol(">") || acceptWord("gt") ) return ComparisonOperator.GT;
+            throw UNSUPPORTED;
+        }
+
+        private boolean peekComparator() {
+            skipWhitespace();
+            return peek("==") || peek("!=") || peek("<") || peek(">") || peek("=~") || peek("!~") ||
+                    peekWord("eq") || peekWord("ne") || peekWord("lt") || peekWord("le") || peekWord("gt") || peekWord("ge");
+        }
+
+        /**
+         * Is the next token a call to a predicate of the site, as opposed to one of its counts?
+         */
+        private boolean peekPredicate() {
+            if ( ! peekSiteMethodCall() )
+                return false;
+            final int start = pos;
+            try {
+                SitePredicate.valueOf(parseSiteMethodCall());
+                return true;
+            } catch ( IllegalArgumentException e ) {
+                return false;
+            } catch ( Unsupported e ) {
+                return false;
+            } finally {
+                pos = start;
+            }
+        }
+
+        private boolean peekSiteMethodCall() {
+            skipWhitespace();
+            if ( ! peekWord("vc") )
+                return false;
+            int i = pos + 2;
+            while ( i < s.length() && Character.isWhitespace(s.charAt(i)) ) i++;
+            return i < s.length() && s.charAt(i) == '.';
+        }
+
+        /**
+         * Parse vc.name(), returning name
+         */
+        private String parseSiteMethodCall() {
+            if ( ! acceptWord("vc") || ! acceptSymbol(".") )
+                throw UNSUPPORTED;
+            skipWhitespace();
+            final String method = parseIdentifier();
+            if ( ! acceptSymbol("(") || ! acceptSymbol(")") )
+                throw UNSUPPORTED;
+            return method;
+        }
+
+        private String parseIdentifier() {
+            final int start = pos;
+            if ( pos < s.length() && isIdentifierStart(s.charAt(pos)) ) {
+                pos++;
+                while ( pos < s.length() && isIdentifierPart(s.charAt(pos)) ) pos++;
+            }
+            if ( pos == start )
+                throw UNSUPPORTED;
+            return s.substring(start, pos);
+        }
+
+        private boolean isIdentifierStart(final char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private boolean isIdentifierPart(final char c) {
+            return isIdentifierStart(c) || (c >= '0' && c <= '9');
+        }
+
+        private void skipWhitespace() {
+            while ( pos < s.length() && Character.isWhitespace(s.charAt(pos)) ) pos++;
+        }
+
+        private boolean peek(final char c) {
+            return pos < s.length() && s.charAt(pos) == c;
+        }
+
+        private boolean peek(final String symbol) {
+            return s.startsWith(symbol, pos);
+        }
+
+        private boolean peekWord(final String word) {
+            return s.startsWith(word, pos) && (pos + word.length() == s.length() || ! isIdentifierPart(s.charAt(pos + word.length())));
+        }
+
+        private boolean acceptSymbol(final String symbol) {
+            skipWhitespace();
+            if ( ! peek(symbol) )
+                return false;
+            pos += symbol.length();
+            return true;
+        }
+
+        private boolean acceptWord(final String word) {
+            skipWhitespace();
+            if ( ! peekWord(word) )
+                return false;
+            pos += word.length();
+            return true;
+        }
+    }
+}
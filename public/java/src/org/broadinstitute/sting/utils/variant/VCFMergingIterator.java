@@ -0,0 +1,573 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.variant;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broad.tribble.TribbleException;
+import org.broad.tribble.readers.LineIterator;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.io.IOUtils;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.vcf.VCFCodec;
+import org.broadinstitute.variant.vcf.VCFHeader;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Merges any number of coordinate-sorted VCF files into a single stream of sites.
+ *
+ * Each call to next() returns the records from all of the inputs that start at the next site, in the order
+ * of the inputs, and getOverlappingRecords() then returns the records from earlier sites that still overlap
+ * it -- exactly what a RodWalker sees at that site through tracker.getValues(variants, loc) and
+ * tracker.getValues(variants).  Sites are visited in (contig index, start) order, using the contig order of
+ * the given sequence dictionary.
+ *
+ * The inputs are read as text and merged by their raw lines, using a binary heap of the input streams keyed
+ * on the (contig index, start) of their next line, so only the records we return are ever decoded.  All of
+ * the headers are read once, up front.
+ *
+ * At most maxOpenFiles inputs are open at once.  If there are more inputs than that, they are first merged in
+ * groups of maxOpenFiles into temporary files, which hold each group's lines in merged order tagged with the
+ * input they came from, and those in turn are merged in groups until few enough remain.  Nothing is decoded
+ * while doing so, and the final merge gives the same results as if all the inputs were open at once.
+ *
+ * Inputs must be VCF text files, optionally gzipped, sorted in the order of the sequence dictionary.
+ */
+public class VCFMergingIterator implements Iterator<List<VariantContext>> {
+    private final static String TEMP_FILE_PREFIX = "VCFMergingIterator";
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final List<File> files;
+    private final List<String> names;
+    private final VCFCodec[] codecs;
+    private final Map<String, VCFHeader> headers = new LinkedHashMap<>();
+    private final Map<String, Integer> contigIndices = new HashMap<>();
+    private final List<File> tempFiles = new ArrayList<>();
+
+    private final LineStream[] streams;
+    private final StreamHeap heap;
+
+    /**
+     * The records starting at earlier sites that may overlap the current one, with the inputs they came from,
+     * and the records we returned for the current site, which are only added to them when we move on
+     */
+    private final List<Record> overlapping = new ArrayList<>();
+    private final List<Record> currentSite = new ArrayList<>();
+    private boolean overlappingSorted = true;
+    private int currentContig = -1;
+
+    /**
+     * Create an iterator over the sites of files.  The merge into temporary files, if one is needed,
+     * happens here.
+     *
+     * @param files the VCF files to merge
+     * @param names the names of the files, which become the sources of their records
+     * @param dictionary the sequence dictionary giving the order of the contigs
+     * @param maxOpenFiles the maximum number of inputs to have open at once; must be at least 2
+     * @param tempDir the directory for temporary files, or null to use the default temporary directory
+     */
+    public VCFMergingIterator(final List<File> files, final List<String> names, final SAMSequenceDictionary dictionary,
+                              final int maxOpenFiles, final File tempDir) {
+        if ( files == null || files.isEmpty() ) throw new IllegalArgumentException("files cannot be null or empty");
+        if ( names == null || names.size() != files.size() ) throw new IllegalArgumentException("there must be one name for each file");
+        if ( dictionary == null ) throw new IllegalArgumentException("dictionary cannot be null");
+        if ( maxOpenFiles < 2 ) throw new IllegalArgumentException("maxOpenFiles must be at least 2 but got " + maxOpenFiles);
+
+        this.files = files;
+        this.names = names;
+        for ( final SAMSequenceRecord contig : dictionary.getSequences() )
+            contigIndices.put(contig.getSequenceName(), contig.getSequenceIndex());
+
+        codecs = new VCFCodec[files.size()];
+        for ( int i = 0; i < files.size(); i++ ) {
+            codecs[i] = new VCFCodec();
+            codecs[i].setName(names.get(i));
+            if ( headers.put(names.get(i), readHeader(i, codecs[i])) != null )
+                throw new IllegalArgumentException("Duplicate name " + names.get(i));
+        }
+
+        // the inputs still to be merged; an input is either one of our files, or a temporary file of merged lines
+        List<File> inputs = new ArrayList<>(files);
+        List<Integer> inputSources = new ArrayList<>();
+        for ( int i = 0; i < files.size(); i++ )
+            inputSources.add(i);
+
+        while ( inputs.size() > maxOpenFiles ) {
+            final List<File> merged = new ArrayList<>();
+            final List<Integer> mergedSources = new ArrayList<>();
+            for ( int start = 0; start < inputs.size(); start += maxOpenFiles ) {
+                final int stop = Math.min(start + maxOpenFiles, inputs.size());
+                if ( stop - start == 1 ) {
+                    merged.add(inputs.get(start));
+                    mergedSources.add(inputSources.get(start));
+                } else {
+                    merged.add(mergeToTempFile(inputs.subList(start, stop), inputSources.subList(start, stop), tempDir));
+                    mergedSources.add(-1);
+                }
+            }
+
+            // temporary files we've now merged onwards are no longer needed
+            for ( int i = 0; i < inputs.size(); i++ )
+                if ( inputSources.get(i) == -1 && ! merged.contains(inputs.get(i)) )
+                    deleteTempFile(inputs.get(i));
+
+            inputs = merged;
+            inputSources = mergedSources;
+        }
+
+        streams = openStreams(inputs, inputSources);
+        heap = new StreamHeap(streams);
+    }
+
+    /**
+     * @return the headers of the inputs, by name, in the order of the inputs
+     */
+    public Map<String, VCFHeader> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return ! heap.isEmpty();
+    }
+
+    /**
+     * @return the records from all of the inputs starting at the next site, in the order of the inputs
+     */
+    @Override
+    public List<VariantContext> next() {
+        if ( ! hasNext() ) throw new NoSuchElementException("No more sites");
+
+        final long key = heap.peekKey();
+        final int contig = (int)(key >>> 32);
+        final int start = (int)key;
+
+        // the records of the previous site join those that might overlap this one, and we can forget any that don't
+        if ( contig != currentContig ) {
+            overlapping.clear();
+            overlappingSorted = true;
+            currentSite.clear();
+            currentContig = contig;
+        } else {
+            if ( ! currentSite.isEmpty() ) {
+                overlapping.addAll(currentSite);
+                overlappingSorted = false;
+                currentSite.clear();
+            }
+            int kept = 0;
+            for ( final Record record : overlapping ) {
+                if ( record.vc.getEnd() >= start )
+                    overlapping.set(kept++, record);
+            }
+            overlapping.subList(kept, overlapping.size()).clear();
+        }
+
+        final List<VariantContext> vcs = new ArrayList<>();
+        while ( ! heap.isEmpty() && heap.peekKey() == key ) {
+            final LineStream stream = heap.peek();
+            final VariantContext vc = codecs[stream.source].decode(stream.line);
+            vcs.add(vc);
+            if ( vc.getEnd() > start )
+                currentSite.add(new Record(stream.source, vc));
+
+            if ( stream.advance() )
+                heap.updatePeek();
+            else
+                heap.poll();
+        }
+
+        return vcs;
+    }
+
+    /**
+     * @return the records starting at earlier sites that overlap the site last returned by next(), in the order
+     *         of the inputs and, within an input, of the file
+     */
+    public List<VariantContext> getOverlappingRecords() {
+        if ( ! overlappingSorted ) {
+            // records arrive in the order of their sites, so a stable sort by input keeps the file order within each
+            Collections.sort(overlapping, BY_SOURCE);
+            overlappingSorted = true;
+        }
+
+        final List<VariantContext> vcs = new ArrayList<>(overlapping.size());
+        for ( final Record record : overlapping )
+            vcs.add(record.vc);
+        return vcs;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("VCFMergingIterator does not support remove()");
+    }
+
+    /**
+     * Close all of the inputs, and delete any temporary files
+     */
+    public void close() {
+        for ( final LineStream stream : streams )
+            stream.close();
+        for ( final File file : new ArrayList<>(tempFiles) )
+            deleteTempFile(file);
+    }
+
+    private VCFHeader readHeader(final int source, final VCFCodec codec) {
+        final File file = files.get(source);
+        final BufferedReader reader = openReader(file);
+        try {
+            return (VCFHeader)codec.readActualHeader(new HeaderLineIterator(file, reader));
+        } catch ( TribbleException e ) {
+            throw new UserException.MalformedFile(file, "Couldn't read the VCF header", e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static BufferedReader openReader(final File file) {
+        try {
+            InputStream in = new FileInputStream(file);
+            if ( file.getName().endsWith(".gz") )
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            return new BufferedReader(new InputStreamReader(in), BUFFER_SIZE);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, e);
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch ( IOException e ) {
+            // we're done with it anyway
+        }
+    }
+
+    /**
+     * @return a stream over each of inputs that isn't empty, positioned at its first line
+     */
+    private LineStream[] openStreams(final List<File> inputs, final List<Integer> sources) {
+        final List<LineStream> opened = new ArrayList<>(inputs.size());
+        for ( int i = 0; i < inputs.size(); i++ ) {
+            final LineStream stream = new LineStream(inputs.get(i), sources.get(i));
+            if ( stream.advance() )
+                opened.add(stream);
+        }
+        return opened.toArray(new LineStream[opened.size()]);
+    }
+
+    /**
+     * Merge the lines of inputs into a new temporary file, each tagged with the input it came from
+     */
+    private File mergeToTempFile(final List<File> inputs, final List<Integer> sources, final File tempDir) {
+        final File temp;
+        try {
+            temp = File.createTempFile(TEMP_FILE_PREFIX, ".txt", tempDir);
+        } catch ( IOException e ) {
+            throw new UserException.BadTmpDir(e.getMessage());
+        }
+        temp.deleteOnExit();
+        tempFiles.add(temp);
+
+        final StreamHeap group = new StreamHeap(openStreams(inputs, sources));
+        try ( final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp)), BUFFER_SIZE) ) {
+            while ( ! group.isEmpty() ) {
+                final LineStream stream = group.peek();
+                out.write(Integer.toString(stream.source));
+                out.write('\t');
+                out.write(stream.line);
+                out.write('\n');
+
+                if ( stream.advance() )
+                    group.updatePeek();
+                else
+                    group.poll();
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(temp, "Couldn't write merged records", e);
+        }
+
+        return temp;
+    }
+
+    private void deleteTempFile(final File file) {
+        IOUtils.tryDelete(file);
+        tempFiles.remove(file);
+    }
+
+    /**
+     * A record, and the input it came from
+     */
+    private static final class Record {
+        private final int source;
+        private final VariantContext vc;
+
+        private Record(final int source, final VariantContext vc) {
+            this.source = source;
+            this.vc = vc;
+        }
+    }
+
+    private static final Comparator<Record> BY_SOURCE = new Comparator<Record>() {
+        @Override
+        public int compare(final Record r1, final Record r2) {
+            return r1.source < r2.source ? -1 : (r1.source == r2.source ? 0 : 1);
+        }
+    };
+
+    /**
+     * The lines of one of our inputs, either a VCF file or a temporary file of tagged lines from several of them
+     */
+    private final class LineStream {
+        private final File file;
+        private final BufferedReader reader;
+        private final boolean tagged;
+
+        /**
+         * The current line, the input it came from, and its (contig index, start) packed into a long
+         */
+        private String line;
+        private int source;
+        private long key = -1;
+
+        // the contig of the last line, as most lines are on the same contig as the one before them
+        private String contig = null;
+        private int contigIndex;
+
+        /**
+         * @param file the file to read
+         * @param source the index of the input file, or -1 if it's a temporary file of tagged lines
+         */
+        private LineStream(final File file, final int source) {
+            this.file = file;
+            this.reader = openReader(file);
+            this.tagged = source == -1;
+            this.source = source;
+        }
+
+        /**
+         * Move on to the next line, closing the stream if there are no more
+         *
+         * @return true if there is a next line
+         */
+        private boolean advance() {
+            String next;
+            try {
+                do {
+                    next = reader.readLine();
+                } while ( next != null && ! tagged && (next.isEmpty() || next.charAt(0) == '#') );
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+
+            if ( next == null ) {
+                close();
+                return false;
+            }
+
+            if ( tagged ) {
+                final int tab = next.indexOf('\t');
+                source = Integer.parseInt(next.substring(0, tab));
+                line = next.substring(tab + 1);
+            } else {
+                line = next;
+            }
+
+            final long previousKey = key;
+            key = parseKey();
+            if ( key < previousKey )
+                throw new UserException.MalformedFile(files.get(source), "Records aren't sorted in the order of the reference: " +
+                        "the record at " + line.substring(0, line.indexOf('\t', line.indexOf('\t') + 1)) + " follows a record at a later position");
+            return true;
+        }
+
+        private long parseKey() {
+            final int tab1 = line.indexOf('\t');
+            final int tab2 = tab1 == -1 ? -1 : line.indexOf('\t', tab1 + 1);
+            if ( tab2 == -1 )
+                throw new UserException.MalformedFile(files.get(source), "Line has too few fields: " + line);
+
+            if ( contig == null || contig.length() != tab1 || ! line.startsWith(contig) ) {
+                contig = line.substring(0, tab1);
+                final Integer index = contigIndices.get(contig);
+                if ( index == null )
+                    throw new UserException.MalformedFile(files.get(source), "Contig " + contig + " isn't in the reference");
+                contigIndex = index;
+            }
+
+            int start = 0;
+            for ( int i = tab1 + 1; i < tab2; i++ ) {
+                final char c = line.charAt(i);
+                if ( c < '0' || c > '9' || start > (Integer.MAX_VALUE - 9) / 10 )
+                    throw new UserException.MalformedFile(files.get(source), "Bad position " + line.substring(tab1 + 1, tab2) + " in line: " + line);
+                start = start * 10 + (c - '0');
+            }
+
+            return ((long)contigIndex << 32) | start;
+        }
+
+        private void close() {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * A LineIterator over the header lines of a VCF, for the codec to read the header from
+     */
+    private static final class HeaderLineIterator implements LineIterator {
+        private final File file;
+        private final BufferedReader reader;
+        private String next;
+
+        private HeaderLineIterator(final File file, final BufferedReader reader) {
+            this.file = file;
+            this.reader = reader;
+            readNext();
+        }
+
+        private void readNext() {
+            try {
+                next = reader.readLine();
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+        }
+
+        @Override
+        public String peek() {
+            return next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if ( next == null ) throw new NoSuchElementException();
+            final String line = next;
+            readNext();
+            return line;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A binary heap of streams, ordered by the (contig index, start) of their current lines and then by
+     * the inputs those lines came from.  The keys are kept alongside the streams so comparisons don't
+     * have to chase pointers.
+     */
+    private static final class StreamHeap {
+        private final LineStream[] streams;
+        private final long[] keys;
+        private final int[] sources;
+        private int size;
+
+        private StreamHeap(final LineStream[] streams) {
+            this.streams = streams.clone();
+            this.size = streams.length;
+            this.keys = new long[size];
+            this.sources = new int[size];
+            for ( int i = 0; i < size; i++ ) {
+                keys[i] = streams[i].key;
+                sources[i] = streams[i].source;
+            }
+            for ( int i = size / 2 - 1; i >= 0; i-- )
+                siftDown(i);
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private LineStream peek() {
+            return streams[0];
+        }
+
+        private long peekKey() {
+            return keys[0];
+        }
+
+        /**
+         * Restore the heap after the stream at the top has moved on to its next line
+         */
+        private void updatePeek() {
+            keys[0] = streams[0].key;
+            sources[0] = streams[0].source;
+            siftDown(0);
+        }
+
+        /**
+         * Remove the stream at the top, which has run out of lines
+         */
+        private void poll() {
+            size--;
+            move(size, 0);
+            streams[size] = null;
+            if ( size > 0 )
+                siftDown(0);
+        }
+
+        private void siftDown(int i) {
+            final LineStream stream = streams[i];
+            final long key = keys[i];
+            final int source = sources[i];
+
+            while ( true ) {
+                int child = 2 * i + 1;
+                if ( child >= size )
+                    break;
+                if ( child + 1 < size && less(keys[child + 1], sources[child + 1], keys[child], sources[child]) )
+                    child++;
+                if ( ! less(keys[child], sources[child], key, source) )
+                    break;
+                move(child, i);
+                i = child;
+            }
+
+            streams[i] = stream;
+            keys[i] = key;
+            sources[i] = source;
+        }
+
+        private void move(final int from, final int to) {
+            streams[to] = streams[from];
+            keys[to] = keys[from];
+            sources[to] = sources[from];
+        }
+
+        private static boolean less(final long key1, final int source1, final long key2, final int source2) {
+            return key1 < key2 || (key1 == key2 && source1 < source2);
+        }
+    }
+}
@@ -26,70 +26,80 @@
 package org.broadinstitute.sting.gatk.datasources.reads;
 
 import com.google.caliper.Param;
-import org.broadinstitute.sting.gatk.WalkerManager;
-import org.broadinstitute.sting.gatk.downsampling.DownsamplingMethod;
-import org.broadinstitute.sting.gatk.walkers.LocusWalker;
-import org.broadinstitute.sting.gatk.walkers.qc.CountLoci;
+import com.google.caliper.SimpleBenchmark;
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.downsampling.LevelingDownsampler;
+import org.broadinstitute.sting.gatk.downsampling.ReservoirDownsampler;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
- * Created by IntelliJ IDEA.
- * User: mhanna
- * Date: Apr 22, 2011
- * Time: 4:02:56 PM
- * To change this template use File | Settings | File Templates.
+ * Caliper microbenchmark of the reservoir and leveling downsamplers over artificial reads, at
+ * coverages from shallow to very deep and across many samples, the way the per-sample reads
+ * iterators and LIBS drive them.
  */
-public class DownsamplerBenchmark extends ReadProcessingBenchmark {
-    @Param
-    private String bamFile;
+public class DownsamplerBenchmark extends SimpleBenchmark {
+    @Param({"10", "250", "1000", "10000"})
+    private int coverage; // reads per sample in the region, set automatically by framework
+
+    @Param({"1", "100"})
+    private int nSamples; // set automatically by framework
+
+    @Param({"101", "2000"})
+    private int nAlignmentStarts; // one read length, or an active region's worth, set automatically by framework
 
-    @Param
-    private Integer maxReads;
+    private final int downsampleTo = 250;
+    private final int readLength = 101;
 
-    @Override
-    public String getBAMFile() { return bamFile; }
+    private List<GATKSAMRecord> reads;
 
-    @Override
-    public Integer getMaxReads() { return maxReads; }
+    @Override protected void setUp() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000);
 
-    @Param
-    private Downsampling downsampling;
+        // spread the reads over the alignment starts, with a quarter of them piled up on one start
+        reads = new ArrayList<GATKSAMRecord>(coverage);
+        for ( int i = 0; i < coverage; i++ ) {
+            final int alignmentStart = i % 4 == 0 ? nAlignmentStarts / 2 : 1 + i % nAlignmentStarts;
+            reads.add(ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, alignmentStart, readLength));
+        }
+    }
+
+    public void timeReservoirDownsampler(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            GenomeAnalysisEngine.resetRandomGenerator();
+            for ( int sample = 0; sample < nSamples; sample++ ) {
+                // a fresh downsampler per sample, like SamplePartitioner, expecting few overflows
+                final ReservoirDownsampler<GATKSAMRecord> downsampler = new ReservoirDownsampler<GATKSAMRecord>(downsampleTo, true);
+                for ( final GATKSAMRecord read : reads )
+                    downsampler.submit(read);
+                downsampler.signalEndOfInput();
+                downsampler.consumeFinalizedItems();
+            }
+        }
+    }
 
-//    public void timeDownsampling(int reps) {
-//        for(int i = 0; i < reps; i++) {
-//            SAMFileReader reader = new SAMFileReader(inputFile);
-//            ReadProperties readProperties = new ReadProperties(Collections.<SAMReaderID>singletonList(new SAMReaderID(inputFile,new Tags())),
-//                    reader.getFileHeader(),
-//                    SAMFileHeader.SortOrder.coordinate,
-//                    false,
-//                    SAMFileReader.ValidationStringency.SILENT,
-//                    downsampling.create(),
-//                    new ValidationExclusion(Collections.singletonList(ValidationExclusion.TYPE.ALL)),
-//                    Collections.<ReadFilter>emptyList(),
-//                    Collections.<ReadTransformer>emptyList(),
-//                    false,
-//                    (byte)0,
-//                    false);
-//
-//            GenomeLocParser genomeLocParser = new GenomeLocParser(reader.getFileHeader().getSequenceDictionary());
-//            // Filter unmapped reads.  TODO: is this always strictly necessary?  Who in the GATK normally filters these out?
-//            Iterator<SAMRecord> readIterator = new FilteringIterator(reader.iterator(),new UnmappedReadFilter());
-//            LegacyLocusIteratorByState locusIteratorByState = new LegacyLocusIteratorByState(readIterator,readProperties,genomeLocParser, LegacyLocusIteratorByState.sampleListForSAMWithoutReadGroups());
-//            while(locusIteratorByState.hasNext()) {
-//                locusIteratorByState.next().getLocation();
-//            }
-//            reader.close();
-//        }
-//    }
+    public void timeLevelingDownsampler(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            GenomeAnalysisEngine.resetRandomGenerator();
+            for ( int sample = 0; sample < nSamples; sample++ ) {
+                // one stack per alignment start, as PerSampleReadStateManager and DownsamplingUtils keep them
+                final List<LinkedList<GATKSAMRecord>> stacks = new ArrayList<LinkedList<GATKSAMRecord>>(nAlignmentStarts);
+                for ( int start = 0; start < nAlignmentStarts; start++ )
+                    stacks.add(new LinkedList<GATKSAMRecord>());
+                for ( final GATKSAMRecord read : reads )
+                    stacks.get(read.getAlignmentStart() - 1).add(read);
 
-    private enum Downsampling {
-        NONE {
-            @Override
-            DownsamplingMethod create() { return DownsamplingMethod.NONE; }
-        },
-        PER_SAMPLE {
-            @Override
-            DownsamplingMethod create() { return WalkerManager.getDownsamplingMethod(LocusWalker.class); }
-        };
-        abstract DownsamplingMethod create();
+                final LevelingDownsampler<LinkedList<GATKSAMRecord>, GATKSAMRecord> downsampler =
+                        new LevelingDownsampler<LinkedList<GATKSAMRecord>, GATKSAMRecord>(downsampleTo);
+                downsampler.submit(stacks);
+                downsampler.signalEndOfInput();
+                downsampler.consumeFinalizedItems();
+            }
+        }
     }
 }
@@ -0,0 +1,121 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import com.google.caliper.Param;
+import net.sf.samtools.*;
+import net.sf.samtools.util.CloseableIterator;
+import org.broadinstitute.sting.gatk.iterators.ReadFormattingIterator;
+import org.broadinstitute.sting.gatk.iterators.StingSAMIterator;
+import org.broadinstitute.sting.gatk.iterators.StingSAMIteratorAdapter;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.sam.GATKSamRecordFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures the cost of reading GATKSAMRecords through the engine's read formatting, to be compared against
+ * PicardBaselineBenchmark.timeDecompressBamFile and the TheoreticalMinimaBenchmark on the same file.
+ *
+ * timeIterateAndWrite is the PrintReads case: reads that aren't modified should be written straight back out
+ * from their original binary representation.
+ */
+public class GATKSAMRecordBenchmark extends ReadProcessingBenchmark {
+    @Param
+    private String bamFile;
+
+    @Param
+    private Integer maxReads;
+
+    @Override
+    public String getBAMFile() { return bamFile; }
+
+    @Override
+    public Integer getMaxReads() { return maxReads; }
+
+    private SAMFileReader openReader() {
+        final SAMFileReader reader = new SAMFileReader(inputFile);
+        reader.setSAMRecordFactory(new GATKSamRecordFactory());
+        reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+        return reader;
+    }
+
+    private StingSAMIterator formatReads(final CloseableIterator<SAMRecord> iterator) {
+        return new ReadFormattingIterator(StingSAMIteratorAdapter.adapt(iterator), false, (byte)-1);
+    }
+
+    public void timeIterate(int reps) {
+        for(int i = 0; i < reps; i++) {
+            final SAMFileReader reader = openReader();
+            final StingSAMIterator iterator = formatReads(reader.iterator());
+            while(iterator.hasNext())
+                iterator.next();
+            iterator.close();
+            reader.close();
+        }
+    }
+
+    public void timeIterateOverAlignmentEnds(int reps) {
+        for(int i = 0; i < reps; i++) {
+            final SAMFileReader reader = openReader();
+            final StingSAMIterator iterator = formatReads(reader.iterator());
+            long totalEnd = 0;
+            while(iterator.hasNext())
+                totalEnd += iterator.next().getAlignmentEnd();
+            iterator.close();
+            reader.close();
+            // Use the value of totalEnd to avoid optimization.
+            if(totalEnd == 0) System.out.printf("No aligned reads%n");
+        }
+    }
+
+    public void timeIterateAndWrite(int reps) {
+        for(int i = 0; i < reps; i++) {
+            final File outputFile;
+            try {
+                outputFile = File.createTempFile("gatksamrecordbenchmark",".bam");
+            }
+            catch(IOException ex) {
+                throw new ReviewedStingException("Unable to create temporary BAM",ex);
+            }
+
+            final SAMFileReader reader = openReader();
+            final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(reader.getFileHeader(),true,outputFile);
+            final StingSAMIterator iterator = formatReads(reader.iterator());
+            while(iterator.hasNext())
+                writer.addAlignment(iterator.next());
+            iterator.close();
+            writer.close();
+            reader.close();
+            outputFile.delete();
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(GATKSAMRecordBenchmark.class, args);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.rmd;
+
+import net.sf.picard.reference.IndexedFastaSequenceFile;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.commandline.Tags;
+import org.broadinstitute.sting.gatk.refdata.tracks.ColumnarFeatureCache;
+import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrackBuilder;
+import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODIterator;
+import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Test the sharing of the cache and the usage metrics of the cached ROD pool.
+ */
+public class ReferenceOrderedCachedDataPoolUnitTest extends BaseTest {
+    private IndexedFastaSequenceFile seq;
+    private GenomeLocParser genomeLocParser;
+    private RMDTrackBuilder builder;
+    private RMDTriplet triplet;
+
+    @BeforeClass
+    public void init() throws FileNotFoundException {
+        seq = new CachingIndexedFastaSequenceFile(new File(publicTestDir + "exampleFASTA.fasta"));
+        genomeLocParser = new GenomeLocParser(seq);
+        // disable auto-index creation/locking in the RMDTrackBuilder for tests; this also keeps the sidecar out of the test data
+        builder = new RMDTrackBuilder(seq.getSequenceDictionary(), genomeLocParser, null, true);
+        triplet = new RMDTriplet("dbsnp", "VCF", publicTestDir + "exampleDBSNP.vcf", RMDTriplet.RMDStorageType.CACHE, new Tags());
+    }
+
+    @Test
+    public void testConcurrentIteratorsShareTheCache() {
+        final int[] nClosed = new int[1];
+        final ReferenceOrderedCachedDataPool pool = new ReferenceOrderedCachedDataPool(triplet, builder, seq.getSequenceDictionary(), genomeLocParser) {
+            @Override
+            protected void closeResource(ColumnarFeatureCache resource) {
+                nClosed[0]++;
+                super.closeResource(resource);
+            }
+        };
+        Assert.assertFalse(ColumnarFeatureCache.getSidecarFile(new File(triplet.getFile())).exists());
+        Assert.assertNotNull(pool.getHeader());
+
+        final LocationAwareSeekableRODIterator first = pool.iterator(new MappedStreamSegment(genomeLocParser.createGenomeLoc("chr1", 10000, 20000)));
+        final LocationAwareSeekableRODIterator second = pool.iterator(new MappedStreamSegment(genomeLocParser.createGenomeLoc("chr1", 10200, 20000)));
+
+        final VariantContext firstVC = (VariantContext)first.next().get(0).getUnderlyingObject();
+        final VariantContext secondVC = (VariantContext)second.next().get(0).getUnderlyingObject();
+        Assert.assertEquals(firstVC.getID(), "rs144773400");
+        Assert.assertEquals(secondVC.getID(), "rs143255646");
+
+        pool.release(first);
+        pool.release(second);
+        Assert.assertEquals(pool.numIterators(), 1, "The shared cache should be in the pool only once");
+        Assert.assertEquals(pool.numAvailableIterators(), 1, "The shared cache should be available only once");
+
+        // every request, concurrent or not, reuses the cache loaded when the pool was created
+        final LocationAwareSeekableRODIterator third = pool.iterator(new EntireStream());
+        Assert.assertTrue(third.hasNext());
+        pool.release(third);
+
+        final ResourcePoolMetrics metrics = pool.getMetrics();
+        Assert.assertEquals(metrics.getNumResourcesCreated(), 1);
+        Assert.assertEquals(metrics.getNumResourcesReused(), 3);
+        Assert.assertEquals(metrics.getNumIteratorsCreated(), 3);
+
+        pool.close();
+        Assert.assertEquals(nClosed[0], 1, "The shared cache should be closed exactly once");
+    }
+}
@@ -165,6 +165,89 @@ public class LevelingDownsamplerUnitTest extends BaseTest {
         Assert.assertTrue(totalRemainingItems <= Math.max(test.targetSize, test.numStacks));
     }
 
+    @DataProvider(name = "UnevenStacksDataProvider")
+    public Object[][] createUnevenStacksTestData() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+        final Random random = new Random(42);
+
+        for ( int targetSize : Arrays.asList(0, 1, 10, 100, 1000) ) {
+            for ( int minElementsPerStack : Arrays.asList(0, 1, 3) ) {
+                for ( int numStacks : Arrays.asList(1, 2, 10, 100) ) {
+                    final int[] stackSizes = new int[numStacks];
+                    for ( int i = 0; i < numStacks; i++ ) {
+                        // mostly shallow stacks with the occasional very deep one
+                        stackSizes[i] = random.nextInt(10) == 0 ? random.nextInt(2000) : random.nextInt(20);
+                    }
+                    tests.add(new Object[]{targetSize, minElementsPerStack, stackSizes});
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test( dataProvider = "UnevenStacksDataProvider" )
+    public void testLevelingDownsamplerWithUnevenStacks( final int targetSize, final int minElementsPerStack, final int[] stackSizes ) {
+        final int[] expectedSizes = levelByRoundRobin(stackSizes, targetSize, minElementsPerStack);
+
+        // the LinkedList and ArrayList paths must make the same choices of which items to keep
+        List<List<Object>> previousStacks = null;
+        for ( LevelingDownsamplerUniformStacksTest.DataStructure dataStructure : LevelingDownsamplerUniformStacksTest.DataStructure.values() ) {
+            GenomeAnalysisEngine.resetRandomGenerator();
+
+            final List<List<Object>> stacks = new ArrayList<List<Object>>();
+            for ( int i = 0; i < stackSizes.length; i++ ) {
+                final List<Object> stack = dataStructure == LevelingDownsamplerUniformStacksTest.DataStructure.LINKED_LIST ? new LinkedList<Object>() : new ArrayList<Object>();
+                for ( int j = 0; j < stackSizes[i]; j++ ) {
+                    stack.add(i * 10000 + j);
+                }
+                stacks.add(stack);
+            }
+
+            final Downsampler<List<Object>> downsampler = new LevelingDownsampler<List<Object>, Object>(targetSize, minElementsPerStack);
+            downsampler.submit(stacks);
+            downsampler.signalEndOfInput();
+            final List<List<Object>> downsampledStacks = downsampler.consumeFinalizedItems();
+
+            int numItemsDiscarded = 0;
+            for ( int i = 0; i < stackSizes.length; i++ ) {
+                Assert.assertEquals(downsampledStacks.get(i).size(), expectedSizes[i], "wrong size for stack " + i + " with " + dataStructure);
+                numItemsDiscarded += stackSizes[i] - expectedSizes[i];
+            }
+            Assert.assertEquals(downsampler.getNumberOfDiscardedItems(), numItemsDiscarded);
+
+            if ( previousStacks != null ) {
+                Assert.assertEquals(downsampledStacks, previousStacks);
+            }
+            previousStacks = downsampledStacks;
+        }
+    }
+
+    /**
+     * The obvious leveling algorithm: remove one item at a time from each stack in turn, skipping stacks already
+     * down to minElementsPerStack, until we're at the target size or can't remove any more
+     */
+    private int[] levelByRoundRobin( final int[] stackSizes, final int targetSize, final int minElementsPerStack ) {
+        final int[] sizes = stackSizes.clone();
+        int numItemsToRemove = -targetSize;
+        for ( final int size : sizes ) numItemsToRemove += size;
+
+        int index = 0;
+        int numConsecutiveUnmodifiableStacks = 0;
+        while ( numItemsToRemove > 0 && numConsecutiveUnmodifiableStacks < sizes.length ) {
+            if ( sizes[index] > minElementsPerStack ) {
+                sizes[index]--;
+                numItemsToRemove--;
+                numConsecutiveUnmodifiableStacks = 0;
+            } else {
+                numConsecutiveUnmodifiableStacks++;
+            }
+            index = (index + 1) % sizes.length;
+        }
+
+        return sizes;
+    }
+
     @Test
     public void testDoNotDiscardReducedReads() {
         GenomeAnalysisEngine.resetRandomGenerator();
@@ -0,0 +1,145 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.filters;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.ReadMetrics;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Tests that the compiled filter pipeline filters and counts reads exactly as applying the filters one by one
+ */
+public class CountingFilteringIteratorUnitTest extends BaseTest {
+    private final static SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+    private final static int[] FLAGS = { 0x1, 0x2, 0x4, 0x10, 0x100, 0x200, 0x400 };
+
+    @DataProvider(name = "FilterLists")
+    public Object[][] makeFilterLists() {
+        final MappingQualityFilter mq20 = new MappingQualityFilter();
+        mq20.MIN_MAPPING_QUALTY_SCORE = 20;
+
+        return new Object[][]{
+                { Collections.<ReadFilter>emptyList() },
+                { Arrays.<ReadFilter>asList(new DuplicateReadFilter()) },
+                { Arrays.<ReadFilter>asList(new UnmappedReadFilter(), new NotPrimaryAlignmentFilter(), new DuplicateReadFilter(), new FailsVendorQualityCheckFilter()) },
+                { Arrays.<ReadFilter>asList(new MappingQualityZeroFilter(), new DuplicateReadFilter(), new MappingQualityUnavailableFilter(), new MappingQualityFilter()) },
+                { Arrays.<ReadFilter>asList(new DuplicateReadFilter(), new ReadStrandFilter(), mq20, new MappingQualityZeroFilter()) },
+                // the reassigned mapping quality must be seen by the mapping quality filters that follow it, and only by them
+                { Arrays.<ReadFilter>asList(new MappingQualityZeroFilter(), new ReassignMappingQualityFilter(), new MappingQualityFilter(), new NotPrimaryAlignmentFilter()) },
+                // subclasses overriding filterOut() must be run as they are, not fused as their superclass
+                { Arrays.<ReadFilter>asList(new MappedDuplicateReadFilter(), new NotPrimaryAlignmentFilter(), new OddMappingQualityFilter(), new DuplicateReadFilter()) },
+        };
+    }
+
+    /**
+     * Filters out duplicate reads only when they're mapped
+     */
+    private static class MappedDuplicateReadFilter extends DuplicateReadFilter {
+        @Override
+        public boolean filterOut(final SAMRecord read) {
+            return super.filterOut(read) && ! read.getReadUnmappedFlag();
+        }
+    }
+
+    /**
+     * Filters out the reads below the minimum mapping quality and the reads with an odd mapping quality
+     */
+    private static class OddMappingQualityFilter extends MappingQualityFilter {
+        @Override
+        public boolean filterOut(final SAMRecord read) {
+            return super.filterOut(read) || read.getMappingQuality() % 2 == 1;
+        }
+    }
+
+    @Test(dataProvider = "FilterLists")
+    public void testCompiledFiltersMatchSequentialFilters(final List<ReadFilter> filters) {
+        final List<GATKSAMRecord> reads = makeReads(5000);
+
+        // apply the filters one by one, to copies of the reads, as the reads may be modified by the filters
+        final List<String> expectedPassing = new ArrayList<>();
+        final Map<String, Long> expectedCounts = new HashMap<>();
+        for ( final GATKSAMRecord read : reads ) {
+            final SAMRecord copy = copyOf(read);
+            boolean filtered = false;
+            for ( final ReadFilter filter : filters ) {
+                if ( filter.filterOut(copy) ) {
+                    final String name = filter.getClass().getSimpleName();
+                    expectedCounts.put(name, (expectedCounts.containsKey(name) ? expectedCounts.get(name) : 0L) + 1);
+                    filtered = true;
+                    break;
+                }
+            }
+            if ( ! filtered ) expectedPassing.add(copy.getReadName() + ":" + copy.getMappingQuality());
+        }
+
+        final ReadMetrics metrics = new ReadMetrics();
+        final List<String> actualPassing = new ArrayList<>();
+        final CountingFilteringIterator it = new CountingFilteringIterator(metrics, new ArrayList<SAMRecord>(reads).iterator(), filters);
+        while ( it.hasNext() ) {
+            final SAMRecord read = it.next();
+            actualPassing.add(read.getReadName() + ":" + read.getMappingQuality());
+        }
+        it.close();
+
+        Assert.assertEquals(actualPassing, expectedPassing);
+        Assert.assertEquals(metrics.getNumReadsSeen(), reads.size());
+        for ( final ReadFilter filter : filters ) {
+            final String name = filter.getClass().getSimpleName();
+            Assert.assertEquals(metrics.getCountsByFilter().get(name), expectedCounts.containsKey(name) ? expectedCounts.get(name) : Long.valueOf(0L), name);
+        }
+    }
+
+    private List<GATKSAMRecord> makeReads(final int nReads) {
+        final Random random = new Random(42);
+        final List<GATKSAMRecord> reads = new ArrayList<>(nReads);
+        for ( int i = 0; i < nReads; i++ ) {
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, random.nextInt(900) + 1, 10);
+            int flags = 0;
+            for ( final int flag : FLAGS )
+                if ( random.nextDouble() < 0.1 ) flags |= flag;
+            read.setFlags(flags);
+            read.setMappingQuality(random.nextDouble() < 0.1 ? 255 : random.nextInt(61));
+            reads.add(read);
+        }
+        return reads;
+    }
+
+    private SAMRecord copyOf(final GATKSAMRecord read) {
+        try {
+            return (SAMRecord)read.clone();
+        } catch ( CloneNotSupportedException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -28,10 +28,16 @@ package org.broadinstitute.sting.gatk.iterators;
 import net.sf.samtools.*;
 import org.broadinstitute.sting.BaseTest;
 import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.broadinstitute.sting.utils.sam.GATKSamRecordFactory;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 
 
 public class ReadFormattingIteratorUnitTest extends BaseTest {
@@ -47,4 +53,50 @@ public class ReadFormattingIteratorUnitTest extends BaseTest {
 
         Assert.assertEquals(postIterationRead.getCigarString(), "8M", "Cigar 3M0M5M0M not consolidated correctly by ReadFormattingIterator");
     }
+
+    @DataProvider(name = "LazyCigarConsolidationTest")
+    public Object[][] makeLazyCigarConsolidationTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        tests.add(new Object[]{"8M", "8M"});
+        tests.add(new Object[]{"2M1I5M", "2M1I5M"});
+        tests.add(new Object[]{"3M0M5M0M", "8M"});
+        tests.add(new Object[]{"3M2M3M", "8M"});
+        tests.add(new Object[]{"2S0I6M", "2S6M"});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Reads coming from a BAM must have their cigars consolidated when they're looked at, but reads whose
+     * cigars are already canonical must not be marked as modified, so they can be written out without re-encoding
+     */
+    @Test(dataProvider = "LazyCigarConsolidationTest")
+    public void testLazyCigarConsolidation(final String cigar, final String expectedCigar) {
+        final File bam = createTempFile("lazyCigarConsolidation", ".bam");
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read", 0, 10, 8);
+        read.setCigarString(cigar);
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, bam);
+        writer.addAlignment(read);
+        writer.close();
+
+        for ( final boolean cigarLengthFirst : Arrays.asList(true, false) ) {
+            final SAMFileReader reader = new SAMFileReader(bam);
+            reader.setSAMRecordFactory(new GATKSamRecordFactory());
+            reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+            final ReadFormattingIterator formattingIterator = new ReadFormattingIterator(StingSAMIteratorAdapter.adapt(reader.iterator()), false, (byte)-1);
+            final GATKSAMRecord postIterationRead = (GATKSAMRecord)formattingIterator.next();
+
+            Assert.assertNotNull(postIterationRead.getVariableBinaryRepresentation(), "Read was modified before it was examined");
+            if ( cigarLengthFirst )
+                Assert.assertEquals(postIterationRead.getCigarLength(), TextCigarCodec.getSingleton().decode(expectedCigar).numCigarElements());
+            Assert.assertEquals(postIterationRead.getCigarString(), expectedCigar);
+            Assert.assertEquals(postIterationRead.getVariableBinaryRepresentation() != null, cigar.equals(expectedCigar),
+                    "Read should be marked as modified if and only if its cigar was consolidated");
+
+            formattingIterator.close();
+            reader.close();
+        }
+    }
 }
@@ -0,0 +1,254 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.refdata.tracks;
+
+import net.sf.picard.reference.IndexedFastaSequenceFile;
+import org.broad.tribble.Feature;
+import org.broad.tribble.bed.BEDCodec;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.commandline.Tags;
+import org.broadinstitute.sting.gatk.refdata.CachedRODIterator;
+import org.broadinstitute.sting.gatk.refdata.SeekableRODIterator;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
+import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODIterator;
+import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
+import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests the columnar feature cache and its iterator against the streaming SeekableRODIterator
+ */
+public class ColumnarFeatureCacheUnitTest extends BaseTest {
+    private final static int CONTIG_LENGTH = 100000;
+
+    private IndexedFastaSequenceFile seq;
+    private GenomeLocParser genomeLocParser;
+    private RMDTrackBuilder builder;
+    private File vcfFile;
+    private File bedFile;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        seq = new CachingIndexedFastaSequenceFile(new File(publicTestDir + "exampleFASTA.fasta"));
+        genomeLocParser = new GenomeLocParser(seq);
+        builder = new RMDTrackBuilder(seq.getSequenceDictionary(), genomeLocParser, null, true);
+
+        // work on copies, so that the sidecar files don't end up in the test data directory
+        vcfFile = createTempFile("ColumnarFeatureCacheUnitTest", ".vcf");
+        copyFile(new File(publicTestDir + "exampleDBSNP.vcf"), vcfFile);
+        bedFile = makeBEDFile();
+    }
+
+    /**
+     * A BED file of short and long overlapping intervals, with a header and some comments in the middle
+     */
+    private File makeBEDFile() throws IOException {
+        final File file = createTempFile("ColumnarFeatureCacheUnitTest", ".bed");
+        final PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.println("track name=test");
+        final Random random = new Random(42);
+        int start = 0;
+        for ( int i = 0; i < 2000; i++ ) {
+            start += random.nextInt(100);
+            final int length = random.nextDouble() < 0.05 ? random.nextInt(2000) + 1 : random.nextInt(10) + 1;
+            final int end = Math.min(start + length, CONTIG_LENGTH);
+            if ( start >= end ) break;
+            out.printf("chr1\t%d\t%d\tfeature%d%n", start, end, i);
+            if ( i % 500 == 0 ) out.println("# a comment");
+        }
+        out.close();
+        return file;
+    }
+
+    private static void copyFile(final File from, final File to) throws IOException {
+        final InputStream in = new FileInputStream(from);
+        final OutputStream out = new FileOutputStream(to);
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ( (n = in.read(buffer)) > 0 ) out.write(buffer, 0, n);
+        in.close();
+        out.close();
+    }
+
+    private RMDTriplet makeTriplet(final File file, final RMDTriplet.RMDStorageType storageType) {
+        final String type = file.getName().endsWith(".vcf") ? "VCF" : "BED";
+        return new RMDTriplet("test", type, file.getAbsolutePath(), storageType, new Tags());
+    }
+
+    private LocationAwareSeekableRODIterator makeStreamingIterator(final File file, final GenomeLoc bounds) throws IOException {
+        final RMDTrack track = builder.createInstanceOfTrack(makeTriplet(file, RMDTriplet.RMDStorageType.FILE));
+        return new SeekableRODIterator(track.getHeader(), null, seq.getSequenceDictionary(), genomeLocParser,
+                bounds == null ? track.getIterator() : track.query(bounds));
+    }
+
+    private LocationAwareSeekableRODIterator makeCachedIterator(final File file, final GenomeLoc bounds) {
+        return new CachedRODIterator(builder.createFeatureCache(makeTriplet(file, RMDTriplet.RMDStorageType.CACHE)), bounds);
+    }
+
+    @DataProvider(name = "Files")
+    public Object[][] makeFiles() {
+        return new Object[][]{ {vcfFile}, {bedFile} };
+    }
+
+    @Test(dataProvider = "Files")
+    public void testNext(final File file) throws IOException {
+        assertNextIsEqual(makeCachedIterator(file, null), makeStreamingIterator(file, null));
+    }
+
+    @Test(dataProvider = "Files")
+    public void testBoundedNext(final File file) throws IOException {
+        for ( final int start : Arrays.asList(1, 10000, 50000, 99000) ) {
+            final GenomeLoc bounds = genomeLocParser.createGenomeLoc("chr1", start, Math.min(start + 20000, CONTIG_LENGTH));
+            assertNextIsEqual(makeCachedIterator(file, bounds), makeStreamingIterator(file, bounds));
+        }
+    }
+
+    @Test(dataProvider = "Files")
+    public void testSeekForward(final File file) throws IOException {
+        for ( final int maxQueryLength : Arrays.asList(1, 10, 1000) ) {
+            final LocationAwareSeekableRODIterator actual = makeCachedIterator(file, null);
+            final LocationAwareSeekableRODIterator expected = makeStreamingIterator(file, null);
+
+            final Random random = new Random(maxQueryLength);
+            int start = 1, stop = 1;
+            while ( true ) {
+                start += random.nextInt(200);
+                stop = Math.max(stop, start + random.nextInt(maxQueryLength));
+                if ( stop > CONTIG_LENGTH ) break;
+
+                final GenomeLoc query = genomeLocParser.createGenomeLoc("chr1", start, stop);
+                assertRecordListsAreEqual(actual.seekForward(query), expected.seekForward(query));
+                Assert.assertEquals(actual.position(), expected.position());
+
+                // next() is only allowed after point queries
+                if ( start == stop && random.nextBoolean() && expected.hasNext() ) {
+                    Assert.assertTrue(actual.hasNext());
+                    Assert.assertEquals(actual.peekNextLocation(), expected.peekNextLocation());
+                    final RODRecordList list = expected.next();
+                    assertRecordListsAreEqual(actual.next(), list);
+                    start = stop = list.getLocation().getStart();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnderlyingObjects() throws IOException {
+        final LocationAwareSeekableRODIterator actual = makeCachedIterator(vcfFile, null);
+        final LocationAwareSeekableRODIterator expected = makeStreamingIterator(vcfFile, null);
+        while ( expected.hasNext() ) {
+            final RODRecordList expectedList = expected.next();
+            final RODRecordList actualList = actual.next();
+            for ( int i = 0; i < expectedList.size(); i++ ) {
+                final VariantContext expectedVC = (VariantContext)expectedList.get(i).getUnderlyingObject();
+                final VariantContext actualVC = (VariantContext)actualList.get(i).getUnderlyingObject();
+                Assert.assertEquals(actualVC.getID(), expectedVC.getID());
+                Assert.assertEquals(actualVC.getAlleles(), expectedVC.getAlleles());
+            }
+        }
+        Assert.assertFalse(actual.hasNext());
+    }
+
+    @Test
+    public void testSidecar() throws IOException {
+        final File sidecar = ColumnarFeatureCache.getSidecarFile(bedFile);
+        sidecar.deleteOnExit();
+        sidecar.delete();
+
+        final ColumnarFeatureCache parsed = new ColumnarFeatureCache("test", bedFile, new BEDCodec(), genomeLocParser, true);
+        Assert.assertTrue(sidecar.exists());
+        final long sidecarModified = sidecar.lastModified();
+
+        final ColumnarFeatureCache mapped = new ColumnarFeatureCache("test", bedFile, new BEDCodec(), genomeLocParser, true);
+        Assert.assertEquals(sidecar.lastModified(), sidecarModified);
+        assertCachesAreEqual(mapped, parsed);
+
+        // a stale sidecar is rebuilt
+        Assert.assertTrue(bedFile.setLastModified(bedFile.lastModified() + 10000));
+        final ColumnarFeatureCache rebuilt = new ColumnarFeatureCache("test", bedFile, new BEDCodec(), genomeLocParser, true);
+        assertCachesAreEqual(rebuilt, parsed);
+        final ColumnarFeatureCache remapped = new ColumnarFeatureCache("test", bedFile, new BEDCodec(), genomeLocParser, false);
+        assertCachesAreEqual(remapped, parsed);
+
+        for ( final ColumnarFeatureCache cache : Arrays.asList(parsed, mapped, rebuilt, remapped) )
+            cache.close();
+    }
+
+    private void assertCachesAreEqual(final ColumnarFeatureCache actual, final ColumnarFeatureCache expected) {
+        Assert.assertEquals(actual.getNumberOfRecords(), expected.getNumberOfRecords());
+        for ( int contig = 0; contig < expected.getNumberOfContigs(); contig++ ) {
+            Assert.assertEquals(actual.getFirstRecordOfContig(contig), expected.getFirstRecordOfContig(contig));
+            Assert.assertEquals(actual.getEndRecordOfContig(contig), expected.getEndRecordOfContig(contig));
+            Assert.assertEquals(actual.getMaxRecordLength(contig), expected.getMaxRecordLength(contig));
+        }
+        for ( int record = 0; record < expected.getNumberOfRecords(); record++ ) {
+            Assert.assertEquals(actual.getStart(record), expected.getStart(record));
+            Assert.assertEquals(actual.getStop(record), expected.getStop(record));
+            final Feature actualFeature = actual.decode(record);
+            final Feature expectedFeature = expected.decode(record);
+            Assert.assertEquals(actualFeature.getStart(), expectedFeature.getStart());
+            Assert.assertEquals(actualFeature.getEnd(), expectedFeature.getEnd());
+        }
+    }
+
+    private void assertNextIsEqual(final LocationAwareSeekableRODIterator actual, final LocationAwareSeekableRODIterator expected) {
+        while ( expected.hasNext() ) {
+            Assert.assertTrue(actual.hasNext());
+            Assert.assertEquals(actual.peekNextLocation(), expected.peekNextLocation());
+            assertRecordListsAreEqual(actual.next(), expected.next());
+            Assert.assertEquals(actual.position(), expected.position());
+        }
+        Assert.assertFalse(actual.hasNext());
+        Assert.assertNull(actual.peekNextLocation());
+    }
+
+    private void assertRecordListsAreEqual(final RODRecordList actual, final RODRecordList expected) {
+        if ( expected == null ) {
+            Assert.assertNull(actual);
+            return;
+        }
+
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(actual.getLocation(), expected.getLocation());
+        Assert.assertEquals(actual.size(), expected.size());
+        for ( int i = 0; i < expected.size(); i++ ) {
+            final GATKFeature actualFeature = actual.get(i);
+            final GATKFeature expectedFeature = expected.get(i);
+            Assert.assertEquals(actualFeature.getName(), expectedFeature.getName());
+            Assert.assertEquals(actualFeature.getLocation(), expectedFeature.getLocation());
+        }
+    }
+}
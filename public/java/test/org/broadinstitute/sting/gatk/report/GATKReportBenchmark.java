@@ -0,0 +1,85 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.report;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.PrintStream;
+
+/**
+ * Caliper microbenchmark of filling in and writing out a large GATKReportTable, holding all of its rows in memory
+ * and streaming them
+ */
+public class GATKReportBenchmark extends SimpleBenchmark {
+    @Param({"10000", "1000000"})
+    int nRows; // set automatically by framework
+
+    private final String[] samples = new String[100];
+
+    @Override protected void setUp() {
+        for ( int i = 0; i < samples.length; i++ )
+            samples[i] = "SAMPLE_" + i;
+    }
+
+    public void timeInMemory(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            fillAndWrite(false);
+    }
+
+    public void timeStreaming(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            fillAndWrite(true);
+    }
+
+    private void fillAndWrite(final boolean stream) {
+        final GATKReport report = new GATKReport();
+        report.addTable("Benchmark", "a large table", 5, GATKReportTable.TableSortingWay.DO_NOT_SORT);
+        final GATKReportTable table = report.getTable("Benchmark");
+        table.addColumn("position", "%d");
+        table.addColumn("sample", "%s");
+        table.addColumn("depth", "%d");
+        table.addColumn("fraction", "%.4f");
+        table.addColumn("filter", "%s");
+        if ( stream )
+            table.enableStreaming();
+
+        for ( int row = 0; row < nRows; row++ ) {
+            table.set(row, 0, 7L * row);
+            table.set(row, 1, samples[row % samples.length]);
+            table.set(row, 2, row % 1000);
+            table.set(row, 3, (row % 9973) / 9973.0);
+            table.set(row, 4, row % 17 == 0 ? "LowQual" : "PASS");
+        }
+
+        report.print(new PrintStream(new NullOutputStream()));
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(GATKReportBenchmark.class, args);
+    }
+}
@@ -26,10 +26,12 @@
 package org.broadinstitute.sting.gatk.report;
 
 import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -39,6 +41,8 @@ import java.io.DataInputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 
 
 public class GATKReportUnitTest extends BaseTest {
@@ -106,7 +110,7 @@ public class GATKReportUnitTest extends BaseTest {
 
     private boolean isSorted(GATKReportTable table) {
         boolean result = true;
-        File testingSortingTableFile = new File("testSortingFile.txt");
+        File testingSortingTableFile = createTempFile("testSortingFile", ".txt");
 
         try {
             // Connect print stream to the output stream
@@ -282,4 +286,141 @@ public class GATKReportUnitTest extends BaseTest {
             System.err.format("IOException: %s%n", x);
         }
     }
+
+    @Test
+    public void testTypedValues() {
+        final GATKReportTable table = new GATKReportTable("Typed", "values of many types", 3, GATKReportTable.TableSortingWay.DO_NOT_SORT);
+        table.addColumn("integer", "%d");
+        table.addColumn("decimal", "%.2f");
+        table.addColumn("anything", "");
+
+        final Object[][] rows = {
+                { 1L, 0.5, "a" },
+                { 2, 0.25f, 'b' },
+                { (short)3, 1.5, true },
+                { (byte)4, -2.0, 7L },
+                { Long.MAX_VALUE, Double.NaN, "a" } };
+        for ( int i = 0; i < rows.length; i++ )
+            for ( int j = 0; j < rows[i].length; j++ )
+                table.set(i, j, rows[i][j]);
+
+        // values keep their classes, even when the classes in a column differ
+        for ( int i = 0; i < rows.length; i++ ) {
+            for ( int j = 0; j < rows[i].length; j++ ) {
+                Assert.assertEquals(table.get(i, j), rows[i][j]);
+                Assert.assertEquals(table.get(i, j).getClass(), rows[i][j].getClass());
+            }
+        }
+
+        // unset cells are null
+        table.set(rows.length + 1, 0, 9L);
+        Assert.assertNull(table.get(rows.length, 0));
+        Assert.assertNull(table.get(rows.length + 1, 2));
+        Assert.assertEquals(table.getNumRows(), rows.length + 2);
+    }
+
+    @Test
+    public void testRowIDsOfRowsSetByIndex() {
+        final GATKReportTable table = new GATKReportTable("RowIDs", "rows set by index", 1, GATKReportTable.TableSortingWay.SORT_BY_ROW);
+        table.addColumn("value", "%d");
+        for ( int i = 0; i < 5; i++ )
+            table.set(i, 0, i * 10);
+
+        Assert.assertTrue(table.containsRowID(4));
+        Assert.assertFalse(table.containsRowID(5));
+        Assert.assertFalse(table.containsRowID(4L));
+        Assert.assertEquals(table.get(3, "value"), 30);
+        Assert.assertEquals(new ArrayList<Object>(table.getRowIDs()), Arrays.<Object>asList(0, 1, 2, 3, 4));
+        Assert.assertTrue(table.getRowIDs().contains(3));
+
+        table.removeRowIDMapping(2);
+        table.addRowIDMapping("two", 2, false);
+        Assert.assertFalse(table.containsRowID(2));
+        Assert.assertEquals(table.get("two", "value"), 20);
+        Assert.assertEquals(new HashSet<Object>(table.getRowIDs()), new HashSet<Object>(Arrays.<Object>asList(0, 1, "two", 3, 4)));
+
+        table.set(5, 0, 50);
+        Assert.assertTrue(table.containsRowID(5));
+        Assert.assertEquals(table.get((Object)5, "value"), 50);
+    }
+
+    private GATKReport makeStreamableReport(final GATKReportTable.TableSortingWay sortingWay, final boolean stream) {
+        final GATKReport report = new GATKReport();
+        report.addTable("Streamed", "rows streamed as they are added", 4, sortingWay);
+        final GATKReportTable table = report.getTable("Streamed");
+        table.addColumn("position", "%d");
+        table.addColumn("sample", "%s");
+        table.addColumn("fraction", "%.4f");
+        table.addColumn("anything");
+        if ( stream )
+            table.enableStreaming();
+
+        final Random random = new Random(13);
+        for ( int i = 0; i < 1000; i++ ) {
+            if ( i % 100 == 99 )
+                continue; // leave a few rows empty
+            table.set(i, 0, random.nextInt(1000000));
+            table.set(i, 1, "SAMPLE_" + random.nextInt(20));
+            table.set(i, 2, random.nextDouble());
+            table.set(i, 3, random.nextBoolean() ? "text" : random.nextInt(10));
+            Assert.assertEquals(table.get(i, 1).toString().substring(0, 7), "SAMPLE_");
+        }
+        return report;
+    }
+
+    private String print(final GATKReport report) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        report.print(new PrintStream(bytes));
+        return bytes.toString();
+    }
+
+    @Test
+    public void testStreamingMatchesInMemory() {
+        for ( final GATKReportTable.TableSortingWay sortingWay : Arrays.asList(GATKReportTable.TableSortingWay.DO_NOT_SORT, GATKReportTable.TableSortingWay.SORT_BY_ROW) ) {
+            final GATKReport streamed = makeStreamableReport(sortingWay, true);
+            Assert.assertTrue(streamed.getTable("Streamed").isStreaming());
+            final String expected = print(makeStreamableReport(sortingWay, false));
+            Assert.assertEquals(print(streamed), expected);
+        }
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testStreamingWritesOnce() {
+        final GATKReport streamed = makeStreamableReport(GATKReportTable.TableSortingWay.DO_NOT_SORT, true);
+        print(streamed);
+        print(streamed);
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testStreamingClosed() {
+        final GATKReportTable table = makeStreamableReport(GATKReportTable.TableSortingWay.DO_NOT_SORT, true).getTable("Streamed");
+        table.close();
+        table.close();
+        table.set(1000, 0, 1);
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testStreamingRejectsEarlierRows() {
+        final GATKReportTable table = makeStreamableReport(GATKReportTable.TableSortingWay.DO_NOT_SORT, true).getTable("Streamed");
+        try {
+            table.set(5, 0, 1);
+        } finally {
+            table.close(); // delete the spool file
+        }
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testStreamingRejectsRowIDs() {
+        final GATKReportTable table = makeStreamableReport(GATKReportTable.TableSortingWay.DO_NOT_SORT, true).getTable("Streamed");
+        try {
+            table.set("row", "position", 1);
+        } finally {
+            table.close(); // delete the spool file
+        }
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testStreamingRejectsSortingByColumn() {
+        new GATKReportTable("Sorted", "sorted by column", 1, GATKReportTable.TableSortingWay.SORT_BY_COLUMN).enableStreaming();
+    }
 }
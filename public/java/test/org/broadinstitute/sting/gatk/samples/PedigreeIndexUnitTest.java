@@ -0,0 +1,184 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.samples;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.MendelianViolation;
+import org.broadinstitute.variant.variantcontext.*;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class PedigreeIndexUnitTest extends BaseTest {
+    private static final String PEDIGREE =
+            String.format("%s%n%s%n%s%n%s%n%s%n%s%n%s%n%s%n%s",
+                    "fam1 kid dad mom 1 2",
+                    "fam1 dad 0   0   1 1",
+                    "fam1 mom 0   0   2 2",
+                    "fam4 kid4 dad4 0 1 2",
+                    "fam4 dad4 0   0   1 1",
+                    "fam5 kid2 dad2 mom2 1 2",
+                    "fam5 kid3 dad2 mom2 1 2",
+                    "fam5 dad2 0   0   1 1",
+                    "fam5 mom2 0   0   2 2");
+
+    private static SampleDB makeSampleDB(final String pedigree) {
+        final SampleDBBuilder builder = new SampleDBBuilder(PedigreeValidationType.STRICT);
+        builder.addSamplesFromPedigreeStrings(Arrays.asList(pedigree));
+        return builder.getFinalSampleDB();
+    }
+
+    @Test
+    public void testTrios() {
+        final PedigreeIndex pedigree = makeSampleDB(PEDIGREE).getPedigreeIndex();
+
+        // in family order, then by child ID
+        final List<String> trios = new ArrayList<String>();
+        for ( int trio = 0; trio < pedigree.getNumberOfTrios(); trio++ ) {
+            final int mom = pedigree.getMotherIndex(trio), dad = pedigree.getFatherIndex(trio);
+            trios.add(String.format("%s:%s+%s=%s", pedigree.getFamilyID(trio),
+                    mom == -1 ? null : pedigree.getSampleName(mom),
+                    dad == -1 ? null : pedigree.getSampleName(dad),
+                    pedigree.getSampleName(pedigree.getChildIndex(trio))));
+        }
+        Assert.assertEquals(trios, Arrays.asList("fam1:mom+dad=kid", "fam4:null+dad4=kid4", "fam5:mom2+dad2=kid2", "fam5:mom2+dad2=kid3"));
+
+        Assert.assertEquals(pedigree.getNumberOfSamples(), 9);
+        for ( int i = 0; i < pedigree.getNumberOfSamples(); i++ )
+            Assert.assertEquals(pedigree.getSampleIndex(pedigree.getSampleName(i)), i);
+        Assert.assertEquals(pedigree.getSampleIndex("nobody"), -1);
+    }
+
+    @Test
+    public void testPartialPedigree() {
+        final PedigreeIndex pedigree = makeSampleDB(PEDIGREE).getPedigreeIndex(Arrays.asList("kid", "dad2"));
+        Assert.assertEquals(pedigree.getNumberOfTrios(), 1);
+        Assert.assertEquals(pedigree.getSampleName(pedigree.getChildIndex(0)), "kid");
+    }
+
+    @Test
+    public void testGenotypeColumns() {
+        final PedigreeIndex pedigree = makeSampleDB(PEDIGREE).getPedigreeIndex();
+        final PedigreeIndex.GenotypeColumns columns = pedigree.newGenotypeColumns();
+        final List<Allele> alleles = Arrays.asList(Allele.create("A", true), Allele.create("C"));
+
+        for ( final List<String> samples : Arrays.asList(
+                Arrays.asList("kid", "dad", "mom", "other"),
+                Arrays.asList("kid", "dad", "mom", "other"),
+                Arrays.asList("other", "mom", "kid", "dad2", "dad"),
+                Arrays.asList("mom")) ) {
+            final List<Genotype> genotypes = new ArrayList<Genotype>();
+            for ( final String sample : samples )
+                genotypes.add(new GenotypeBuilder(sample, alleles).make());
+
+            final Genotype[] found = columns.getGenotypes(GenotypesContext.create(new ArrayList<Genotype>(genotypes)));
+            for ( int i = 0; i < pedigree.getNumberOfSamples(); i++ ) {
+                final String name = pedigree.getSampleName(i);
+                if ( samples.contains(name) )
+                    Assert.assertEquals(found[i].getSampleName(), name);
+                else
+                    Assert.assertNull(found[i]);
+            }
+        }
+    }
+
+    @DataProvider(name = "CountViolations")
+    public Object[][] makeCountViolationsData() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int minGQ : Arrays.asList(0, 20) )
+            for ( final boolean completeTriosOnly : Arrays.asList(true, false) )
+                for ( final boolean multiallelic : Arrays.asList(true, false) )
+                    tests.add(new Object[]{minGQ, completeTriosOnly, multiallelic});
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Counting violations with a PedigreeIndex should give exactly the counts of the families it's made from
+     */
+    @Test(dataProvider = "CountViolations")
+    public void testCountViolations(final int minGQ, final boolean completeTriosOnly, final boolean multiallelic) {
+        final Random random = new Random(minGQ + (completeTriosOnly ? 1 : 0) + (multiallelic ? 2 : 0));
+
+        // families of two parents, some of whom have no genotypes, and one to three children
+        final StringBuilder ped = new StringBuilder();
+        final List<String> sampleNames = new ArrayList<String>();
+        for ( int fam = 0; fam < 20; fam++ ) {
+            ped.append(String.format("f%d d%d 0 0 1 1%nf%d m%d 0 0 2 1%n", fam, fam, fam, fam));
+            if ( fam % 5 != 0 ) sampleNames.add("d" + fam);
+            if ( fam % 7 != 0 ) sampleNames.add("m" + fam);
+            for ( int kid = 0; kid < 1 + fam % 3; kid++ ) {
+                ped.append(String.format("f%d k%d_%d d%d m%d 1 1%n", fam, fam, kid, fam, fam));
+                sampleNames.add(String.format("k%d_%d", fam, kid));
+            }
+        }
+        final SampleDB db = makeSampleDB(ped.toString());
+        final Map<String, Set<Sample>> families = db.getFamilies();
+        final PedigreeIndex pedigree = db.getPedigreeIndex();
+
+        final MendelianViolation byFamilies = new MendelianViolation(minGQ, false, completeTriosOnly);
+        final MendelianViolation byIndex = new MendelianViolation(minGQ, false, completeTriosOnly);
+
+        final List<Allele> alleles = multiallelic
+                ? Arrays.asList(Allele.create("A", true), Allele.create("C"), Allele.create("G"))
+                : Arrays.asList(Allele.create("A", true), Allele.create("C"));
+        final List<Allele> genotypeAlleles = new ArrayList<Allele>(alleles);
+        genotypeAlleles.add(Allele.NO_CALL);
+
+        for ( int site = 0; site < 200; site++ ) {
+            // the samples are occasionally reordered, as in a different VCF
+            if ( site % 50 == 0 )
+                Collections.shuffle(sampleNames, random);
+
+            final List<Genotype> genotypes = new ArrayList<Genotype>();
+            for ( final String sample : sampleNames ) {
+                final List<Allele> gAlleles = new ArrayList<Allele>();
+                final int ploidy = sample.startsWith("k") || random.nextInt(10) > 0 ? 2 : 1;
+                final boolean noCall = random.nextInt(10) == 0;
+                for ( int i = 0; i < ploidy; i++ )
+                    gAlleles.add(noCall ? Allele.NO_CALL : genotypeAlleles.get(random.nextInt(alleles.size())));
+                genotypes.add(new GenotypeBuilder(sample, gAlleles).GQ(random.nextInt(40)).make());
+            }
+            final VariantContext vc = new VariantContextBuilder("test", "1", site + 1, site + 1, alleles).genotypes(genotypes).make();
+
+            Assert.assertEquals(byIndex.countViolations(pedigree, vc), byFamilies.countViolations(families, vc));
+            Assert.assertEquals(byIndex.getViolationFamilies(), byFamilies.getViolationFamilies());
+            Assert.assertEquals(byIndex.getFamilyCalledCount(), byFamilies.getFamilyCalledCount());
+            Assert.assertEquals(byIndex.getVarFamilyCalledCount(), byFamilies.getVarFamilyCalledCount());
+            Assert.assertEquals(byIndex.getFamilyNoCallCount(), byFamilies.getFamilyNoCallCount());
+            Assert.assertEquals(byIndex.getFamilyLowQualsCount(), byFamilies.getFamilyLowQualsCount());
+            Assert.assertEquals(byIndex.getParentHetInheritedRef(), byFamilies.getParentHetInheritedRef());
+            Assert.assertEquals(byIndex.getParentHetInheritedVar(), byFamilies.getParentHetInheritedVar());
+            Assert.assertEquals(byIndex.getParentRefChildVar(), byFamilies.getParentRefChildVar());
+            Assert.assertEquals(byIndex.getParentVarChildRef(), byFamilies.getParentVarChildRef());
+            Assert.assertEquals(byIndex.getHetHetHet(), byFamilies.getHetHetHet());
+            Assert.assertEquals(byIndex.getRefVarHet(), byFamilies.getRefVarHet());
+            Assert.assertEquals(byIndex.getParentsVarVarChildHet(), byFamilies.getParentsVarVarChildHet());
+            Assert.assertEquals(byIndex.getParentsRefRefChildHet(), byFamilies.getParentsRefRefChildHet());
+        }
+    }
+}
@@ -225,6 +225,21 @@ public class SampleDBUnitTest extends BaseTest {
         Assert.assertEquals(db.getChildrenWithParents(true), new HashSet<Sample>(Arrays.asList(new Sample("kid", "fam1", "dad", "mom", Gender.MALE,   Affection.AFFECTED))));
     }
 
+    @Test()
+    public void testGetTrios()
+    {
+        builder.addSamplesFromPedigreeStrings(Arrays.asList(testPEDMultipleFamilies2));
+        SampleDB db = builder.getFinalSampleDB();
+        final Set<String> children = new HashSet<String>();
+        for ( final Trio trio : db.getTrios() )
+            children.add(trio.getChildID());
+        Assert.assertEquals(children, new HashSet<String>(Arrays.asList("kid", "kid2", "kid3")));
+
+        final Set<Trio> strictTrios = db.getTrios(true);
+        Assert.assertEquals(strictTrios.size(), 1);
+        Assert.assertEquals(strictTrios.iterator().next().getChildID(), "kid");
+    }
+
     @Test()
     public void testGetFounderIds(){
         builder.addSamplesFromPedigreeStrings(Arrays.asList(testPEDMultipleFamilies2));
@@ -0,0 +1,196 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.TextCigarCodec;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.locusiterator.LocusIteratorByState;
+import org.broadinstitute.sting.utils.locusiterator.LocusIteratorByStateBaseTest;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class CallableLociDepthWindowUnitTest extends BaseTest {
+    private final static int CONTIG_LENGTH = 5000;
+    private final static byte MAX_LOW_MAPQ = 1;
+    private final static byte MIN_MAPQ = 10;
+    private final static byte MIN_BASE_QUALITY = 20;
+
+    private final static String[] CIGARS = {"50M", "10S40M", "40M10S", "5H45M", "20M5D30M", "20M3I27M", "15M100N35M",
+            "25M2D10M3I12M", "10M1D10M1D30M", "10S2I38M", "30M2I8M10S"};
+    private final static int[] MAPQS = {0, 1, 5, 10, 20, 60};
+
+    private SAMFileHeader header;
+    private GenomeLocParser genomeLocParser;
+
+    @BeforeClass
+    public void init() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, CONTIG_LENGTH);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+    }
+
+    @DataProvider(name = "DepthWindowTest")
+    public Object[][] makeDepthWindowTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int nReads : Arrays.asList(1, 10, 100, 1000) )
+            for ( final boolean reduced : Arrays.asList(false, true) )
+                for ( final boolean paired : Arrays.asList(false, true) )
+                    for ( final int maxPopSize : Arrays.asList(1, 17, 10000) )
+                        tests.add(new Object[]{nReads, reduced, paired, maxPopSize});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Tests that the window's depths are exactly those CallableLoci counts over the pileups LocusIteratorByState
+     * makes from the same reads
+     */
+    @Test(dataProvider = "DepthWindowTest")
+    public void testDepthWindow(final int nReads, final boolean reduced, final boolean paired, final int maxPopSize) {
+        final Random random = new Random(nReads);
+        final List<GATKSAMRecord> reads = makeReads(random, nReads, reduced, paired);
+
+        final int[] expectedRawDepths = new int[CONTIG_LENGTH + 1];
+        final int[] expectedQCDepths = new int[CONTIG_LENGTH + 1];
+        final int[] expectedLowMAPQDepths = new int[CONTIG_LENGTH + 1];
+        final LocusIteratorByState libs = new LocusIteratorByState(
+                new LocusIteratorByStateBaseTest.FakeCloseableIterator<GATKSAMRecord>(reads.iterator()),
+                LocusIteratorByStateBaseTest.createTestReadProperties(),
+                genomeLocParser,
+                LocusIteratorByState.sampleListForSAMWithoutReadGroups());
+        while ( libs.hasNext() ) {
+            final AlignmentContext context = libs.next();
+            final int locus = context.getLocation().getStart();
+            for ( final PileupElement e : context.getBasePileup() ) {
+                final int depth = e.getRepresentativeCount();
+                expectedRawDepths[locus] += depth;
+                if ( e.getMappingQual() <= MAX_LOW_MAPQ )
+                    expectedLowMAPQDepths[locus] += depth;
+                if ( e.getMappingQual() >= MIN_MAPQ && (e.getQual() >= MIN_BASE_QUALITY || e.isDeletion()) )
+                    expectedQCDepths[locus] += depth;
+            }
+        }
+
+        // pop the loci before each read as it's added, as FastCallableLoci does, in pieces of random size
+        final CallableLociDepthWindow window = new CallableLociDepthWindow(MAX_LOW_MAPQ, MIN_MAPQ, MIN_BASE_QUALITY);
+        final int[] rawDepths = new int[CONTIG_LENGTH + 1];
+        final int[] QCDepths = new int[CONTIG_LENGTH + 1];
+        final int[] lowMAPQDepths = new int[CONTIG_LENGTH + 1];
+        int nextLocus = 1;
+        for ( final GATKSAMRecord read : reads ) {
+            nextLocus = popDepths(window, random, maxPopSize, nextLocus, read.getAlignmentStart(), rawDepths, QCDepths, lowMAPQDepths);
+            window.addRead(read);
+        }
+        popDepths(window, random, maxPopSize, nextLocus, CONTIG_LENGTH + 1, rawDepths, QCDepths, lowMAPQDepths);
+
+        Assert.assertEquals(rawDepths, expectedRawDepths, "raw depths");
+        Assert.assertEquals(QCDepths, expectedQCDepths, "QC depths");
+        Assert.assertEquals(lowMAPQDepths, expectedLowMAPQDepths, "low MAPQ depths");
+    }
+
+    private int popDepths(final CallableLociDepthWindow window, final Random random, final int maxPopSize, int nextLocus, final int end,
+                          final int[] rawDepths, final int[] QCDepths, final int[] lowMAPQDepths) {
+        while ( nextLocus < end ) {
+            final int nLoci = Math.min(end - nextLocus, random.nextInt(maxPopSize) + 1);
+            final int[] raw = new int[nLoci], QC = new int[nLoci], lowMAPQ = new int[nLoci];
+            window.popDepths(0, nextLocus, nLoci, raw, QC, lowMAPQ);
+            System.arraycopy(raw, 0, rawDepths, nextLocus, nLoci);
+            System.arraycopy(QC, 0, QCDepths, nextLocus, nLoci);
+            System.arraycopy(lowMAPQ, 0, lowMAPQDepths, nextLocus, nLoci);
+            nextLocus += nLoci;
+        }
+        return nextLocus;
+    }
+
+    private List<GATKSAMRecord> makeReads(final Random random, final int nReads, final boolean reduced, final boolean paired) {
+        final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>(nReads);
+        for ( int i = 0; i < nReads; i++ ) {
+            final String cigar = CIGARS[random.nextInt(CIGARS.length)];
+            final int readLength = TextCigarCodec.getSingleton().decode(cigar).getReadLength();
+            final byte[] bases = new byte[readLength];
+            final byte[] quals = new byte[readLength];
+            Arrays.fill(bases, (byte) 'A');
+            for ( int j = 0; j < readLength; j++ ) quals[j] = (byte) random.nextInt(40);
+
+            final int start = random.nextInt(CONTIG_LENGTH - 300) + 1;
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, start, bases, quals, cigar);
+            read.setMappingQuality(MAPQS[random.nextInt(MAPQS.length)]);
+            read.setReadNegativeStrandFlag(random.nextBoolean());
+
+            if ( reduced ) {
+                final int[] counts = new int[readLength];
+                for ( int j = 0; j < readLength; j++ ) counts[j] = random.nextInt(20) + 1;
+                read.setReducedReadCountsTag(counts);
+            }
+
+            if ( paired ) {
+                // mates close enough to put adaptor boundaries inside many reads
+                read.setReadPairedFlag(true);
+                read.setMateUnmappedFlag(false);
+                read.setMateNegativeStrandFlag(! read.getReadNegativeStrandFlag());
+                read.setMateReferenceIndex(0);
+                read.setMateAlignmentStart(Math.max(1, start + random.nextInt(80) - 20));
+                read.setInferredInsertSize((random.nextBoolean() ? 1 : -1) * (random.nextInt(80) + 1));
+            }
+
+            reads.add(read);
+        }
+
+        Collections.sort(reads, new Comparator<GATKSAMRecord>() {
+            @Override
+            public int compare(GATKSAMRecord o1, GATKSAMRecord o2) {
+                return o1.getAlignmentStart() - o2.getAlignmentStart();
+            }
+        });
+        return reads;
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testReadsOutOfOrder() {
+        final CallableLociDepthWindow window = new CallableLociDepthWindow(MAX_LOW_MAPQ, MIN_MAPQ, MIN_BASE_QUALITY);
+        window.addRead(ArtificialSAMUtils.createArtificialRead(header, "read1", 0, 100, 50));
+        window.addRead(ArtificialSAMUtils.createArtificialRead(header, "read2", 0, 50, 50));
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testReadBeforePoppedLoci() {
+        final CallableLociDepthWindow window = new CallableLociDepthWindow(MAX_LOW_MAPQ, MIN_MAPQ, MIN_BASE_QUALITY);
+        window.addRead(ArtificialSAMUtils.createArtificialRead(header, "read1", 0, 100, 50));
+        window.popDepths(0, 100, 10, new int[10], new int[10], new int[10]);
+        window.addRead(ArtificialSAMUtils.createArtificialRead(header, "read2", 0, 105, 50));
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Arrays;
 
 public class CallableLociIntegrationTest extends WalkerTest {
     final static String commonArgs     = "-R " + b36KGReference + " -T CallableLoci -I " + validationDataLocation + "/NA12878.1kg.p2.chr1_10mb_11_mb.SLX.bam -o %s";
+    final static String fastArgs       = "-R " + b36KGReference + " -T FastCallableLoci -I " + validationDataLocation + "/NA12878.1kg.p2.chr1_10mb_11_mb.SLX.bam -o %s";
     final static String reduceReadArgs = "-R " + b37KGReference + " -T CallableLoci -I " + " private/testdata/NA12878.HiSeq.b37.chr20.10_11mb.reduced.bam -o %s";
 
     final static String SUMMARY_MD5 = "a6f5963669f19d9d137ced87d65834b0";
@@ -76,4 +77,37 @@ public class CallableLociIntegrationTest extends WalkerTest {
         executeTest("CallableLoci with ReducedRead", spec);
     }
 
+    // FastCallableLoci must produce exactly the same output as CallableLoci, so these use the md5s above
+
+    @Test
+    public void testFastCallableLociWalkerBed() {
+        String gatk_args = fastArgs + " -format BED -L 1:10,000,000-11,000,000 -summary %s";
+        WalkerTestSpec spec = new WalkerTestSpec(gatk_args, 2,
+                Arrays.asList("9b4ffea1dbcfefadeb1c9fa74b0e0e59", SUMMARY_MD5));
+        executeTest("fast formatBed", spec);
+    }
+
+    @Test
+    public void testFastCallableLociWalkerPerBase() {
+        String gatk_args = fastArgs + " -format STATE_PER_BASE -L 1:10,000,000-11,000,000 -summary %s";
+        WalkerTestSpec spec = new WalkerTestSpec(gatk_args, 2,
+                Arrays.asList("d6505e489899e80c08a7168777f6e07b", SUMMARY_MD5));
+        executeTest("fast format_state_per_base", spec);
+    }
+
+    @Test
+    public void testFastCallableLociWalker2() {
+        String gatk_args = fastArgs + " -format BED -L 1:10,000,000-10,000,100 -L 1:10,000,110-10,000,120 -summary %s";
+        WalkerTestSpec spec = new WalkerTestSpec(gatk_args, 2,
+                Arrays.asList("330f476085533db92a9dbdb3a127c041", "d287510eac04acf5a56f5cde2cba0e4a"));
+        executeTest("fast formatBed by interval", spec);
+    }
+
+    @Test
+    public void testFastCallableLociWalker3() {
+        String gatk_args = fastArgs + " -format BED -L 1:10,000,000-11,000,000 -minDepth 10 -maxDepth 100 --minBaseQuality 10 --minMappingQuality 20 -summary %s";
+        WalkerTestSpec spec = new WalkerTestSpec(gatk_args, 2,
+                Arrays.asList("7f79ad8195c4161060463eeb21d2bb11", "7ee269e5f4581a924529a356cc806e55"));
+        executeTest("fast formatBed lots of arguments", spec);
+    }
 }
@@ -0,0 +1,191 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMReadGroupRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMReadGroupRecord;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Tests that the array-based accumulation of coverage in CoveragePartitioner produces exactly the statistics
+ * of the original map-based path through CoverageUtils.getBaseCountsByPartition
+ */
+public class CoveragePartitionerUnitTest extends BaseTest {
+    private static final int START = 1, STOP = 50, N_BINS = 20;
+    private static final List<DoCOutputType.Partition> TYPES = Arrays.asList(DoCOutputType.Partition.sample, DoCOutputType.Partition.readgroup, DoCOutputType.Partition.library);
+
+    @DataProvider(name = "CoveragePartitionerTest")
+    public Object[][] makeCoveragePartitionerTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int nSamples : Arrays.asList(1, 5, 40) )
+            for ( final int maxDepth : Arrays.asList(0, 3, 60) )
+                for ( final CoverageUtils.CountPileupType countType : CoverageUtils.CountPileupType.values() )
+                    tests.add(new Object[]{nSamples, maxDepth, countType});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "CoveragePartitionerTest")
+    public void testCoveragePartitioner(final int nSamples, final int maxDepth, final CoverageUtils.CountPileupType countType) {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        for ( int s = 0; s < nSamples; s++ ) {
+            // two read groups per sample, one of which shares a library with the next sample
+            for ( int r = 0; r < 2; r++ ) {
+                final SAMReadGroupRecord rg = new SAMReadGroupRecord("rg" + s + "_" + r);
+                rg.setSample("sample" + s);
+                rg.setLibrary("library" + (s + r));
+                header.addReadGroup(rg);
+            }
+        }
+        final GenomeLocParser parser = new GenomeLocParser(header.getSequenceDictionary());
+
+        final ReadGroupCoverageCounter counter = new ReadGroupCoverageCounter(header.getReadGroups(), 10, 60, (byte)15, Byte.MAX_VALUE, countType);
+        final CoveragePartitioner expected = makePartitioner(header);
+        final CoveragePartitioner actual = makePartitioner(header);
+        final CoveragePartitioner actualFirstHalf = makePartitioner(header);
+        final CoveragePartitioner actualSecondHalf = makePartitioner(header);
+
+        final Random random = new Random(nSamples + maxDepth);
+        final int nLoci = 200;
+        for ( int locus = 1; locus <= nLoci; locus++ ) {
+            final AlignmentContext context = makeContext(header, parser, locus, random.nextInt(maxDepth + 1), random);
+
+            final Map<DoCOutputType.Partition,Map<String,int[]>> expectedCounts = CoverageUtils.getBaseCountsByPartition(context, 10, 60, (byte)15, Byte.MAX_VALUE, countType, TYPES);
+            for ( final DoCOutputType.Partition t : TYPES )
+                expected.getCoverageByAggregationType(t).update(expectedCounts.get(t));
+
+            final ReadGroupBaseCounts counts = counter.countBases(context);
+            actual.update(counts);
+            (locus <= nLoci / 2 ? actualFirstHalf : actualSecondHalf).update(counts);
+
+            for ( final DoCOutputType.Partition t : TYPES ) {
+                final List<String> ids = actual.getIdentifiersByType().get(t);
+                final int[] indices = actual.getSortedIdentifierIndices(t);
+                for ( int i = 0; i < ids.size(); i++ ) {
+                    final int[] expectedIdCounts = expectedCounts.containsKey(t) && expectedCounts.get(t).containsKey(ids.get(i)) ? expectedCounts.get(t).get(ids.get(i)) : new int[6];
+                    Assert.assertEquals(actual.getLocusCountsByType(t)[indices[i]], expectedIdCounts, "Counts differ for " + ids.get(i) + " at " + locus);
+                }
+            }
+        }
+
+        actualFirstHalf.merge(actualSecondHalf);
+        for ( final DoCOutputType.Partition t : TYPES ) {
+            assertStatsAreEqual(actual.getCoverageByAggregationType(t), expected.getCoverageByAggregationType(t));
+            assertStatsAreEqual(actualFirstHalf.getCoverageByAggregationType(t), expected.getCoverageByAggregationType(t));
+        }
+    }
+
+    @Test
+    public void testLocusCounts() {
+        final DepthOfCoverageStats stats = new DepthOfCoverageStats(DepthOfCoverageStats.calculateBinEndpoints(START, STOP, N_BINS));
+        final int nSamples = 7;
+        for ( int s = 0; s < nSamples; s++ )
+            stats.addSample("sample" + s);
+        stats.initializeLocusCounts();
+
+        // locusCoverageCounts[i][b] is the number of loci with more than i samples at or above bin b
+        final long[][] expected = new long[nSamples][stats.getEndpoints().length + 1];
+        final Random random = new Random(1);
+        for ( int locus = 0; locus < 1000; locus++ ) {
+            final int[] depths = new int[nSamples];
+            for ( int s = 0; s < nSamples; s++ )
+                depths[s] = random.nextInt(2 * STOP);
+            stats.updateDepths(depths);
+
+            for ( int b = 0; b < expected[0].length; b++ ) {
+                int samplesAtOrAbove = 0;
+                for ( final int depth : depths )
+                    if ( binOf(stats.getEndpoints(), depth) >= b )
+                        samplesAtOrAbove++;
+                for ( int i = 0; i < samplesAtOrAbove; i++ )
+                    expected[i][b]++;
+            }
+        }
+
+        Assert.assertEquals(stats.getLocusCounts(), expected);
+    }
+
+    private static int binOf(final int[] endpoints, final int depth) {
+        for ( int b = 0; b < endpoints.length; b++ )
+            if ( depth < endpoints[b] )
+                return b;
+        return endpoints.length;
+    }
+
+    private CoveragePartitioner makePartitioner(final SAMFileHeader header) {
+        final CoveragePartitioner partitioner = new CoveragePartitioner(TYPES, START, STOP, N_BINS);
+        for ( final DoCOutputType.Partition t : TYPES ) {
+            final Set<String> ids = new HashSet<String>();
+            for ( final SAMReadGroupRecord rg : header.getReadGroups() )
+                ids.add(CoverageUtils.getTypeID(rg, t));
+            partitioner.addIdentifiers(t, ids);
+        }
+        partitioner.initialize(false, false);
+        partitioner.initializeReadGroups(header.getReadGroups());
+        return partitioner;
+    }
+
+    private AlignmentContext makeContext(final SAMFileHeader header, final GenomeLocParser parser, final int locus, final int depth, final Random random) {
+        final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>(depth);
+        final List<SAMReadGroupRecord> readGroups = header.getReadGroups();
+        for ( int i = 0; i < depth; i++ ) {
+            final byte[] bases = new byte[]{(byte)"ACGTN".charAt(random.nextInt(5))};
+            final byte[] quals = new byte[]{(byte)random.nextInt(40)};
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + locus + "_" + i, 0, locus, bases, quals);
+            read.setReadGroup(new GATKSAMReadGroupRecord(readGroups.get(random.nextInt(readGroups.size()))));
+            read.setMappingQuality(random.nextInt(70));
+            // make some of the reads into overlapping pairs, to exercise the fragment-based count types
+            if ( i % 2 == 1 ) {
+                read.setReadName(reads.get(i - 1).getReadName());
+                read.setReadGroup(reads.get(i - 1).getReadGroup());
+            }
+            reads.add(read);
+        }
+        return new AlignmentContext(parser.createGenomeLoc("chr1", locus), new ReadBackedPileupImpl(parser.createGenomeLoc("chr1", locus), reads, 0));
+    }
+
+    private void assertStatsAreEqual(final DepthOfCoverageStats actual, final DepthOfCoverageStats expected) {
+        Assert.assertEquals(actual.getTotalLoci(), expected.getTotalLoci());
+        Assert.assertEquals(actual.getTotalCoverage(), expected.getTotalCoverage());
+        Assert.assertEquals(actual.getAllSamples(), expected.getAllSamples());
+        Assert.assertEquals(actual.getTotals(), expected.getTotals());
+        for ( final String sample : expected.getAllSamples() )
+            Assert.assertEquals(actual.getHistograms().get(sample), expected.getHistograms().get(sample), "Histograms differ for " + sample);
+        Assert.assertEquals(actual.getLocusCounts(), expected.getLocusCounts());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMReadGroupRecord;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMReadGroupRecord;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+
+import java.util.*;
+
+/**
+ * Caliper microbenchmark of the per-locus work of DepthOfCoverage (counting the pileup and updating the statistics
+ * of every partition), reported per N_LOCI loci.  MAPS is the original path through CoverageUtils.getBaseCountsByPartition.
+ */
+public class DepthOfCoverageBenchmark extends SimpleBenchmark {
+    private final static int N_LOCI = 1000;
+    private final static int N_DISTINCT_LOCI = 10;
+    private final static int DEPTH_PER_SAMPLE = 2;
+    private final static List<DoCOutputType.Partition> TYPES = Arrays.asList(DoCOutputType.Partition.sample, DoCOutputType.Partition.readgroup, DoCOutputType.Partition.library);
+
+    @Param({"10", "100", "1000"})
+    int nSamples; // set automatically by framework
+
+    @Param({"MAPS", "ARRAYS"})
+    Implementation implementation; // set automatically by framework
+
+    public enum Implementation { MAPS, ARRAYS }
+
+    private SAMFileHeader header;
+    private final List<AlignmentContext> contexts = new ArrayList<AlignmentContext>(N_DISTINCT_LOCI);
+
+    @Override protected void setUp() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, N_DISTINCT_LOCI + 1);
+        for ( int s = 0; s < nSamples; s++ ) {
+            final SAMReadGroupRecord rg = new SAMReadGroupRecord("rg" + s);
+            rg.setSample("sample" + s);
+            rg.setLibrary("library" + s);
+            header.addReadGroup(rg);
+        }
+
+        final GenomeLocParser parser = new GenomeLocParser(header.getSequenceDictionary());
+        final Random random = new Random(42);
+        for ( int locus = 1; locus <= N_DISTINCT_LOCI; locus++ ) {
+            final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>();
+            for ( int i = 0; i < nSamples * DEPTH_PER_SAMPLE; i++ ) {
+                final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, locus, new byte[]{(byte)"ACGT".charAt(random.nextInt(4))}, new byte[]{30});
+                read.setReadGroup(new GATKSAMReadGroupRecord(header.getReadGroups().get(random.nextInt(nSamples))));
+                reads.add(read);
+            }
+            final GenomeLoc loc = parser.createGenomeLoc("chr1", locus);
+            contexts.add(new AlignmentContext(loc, new ReadBackedPileupImpl(loc, reads, 0)));
+        }
+    }
+
+    private CoveragePartitioner makePartitioner() {
+        final CoveragePartitioner partitioner = new CoveragePartitioner(TYPES, 1, 500, 499);
+        for ( final DoCOutputType.Partition t : TYPES ) {
+            final Set<String> ids = new HashSet<String>();
+            for ( final SAMReadGroupRecord rg : header.getReadGroups() )
+                ids.add(CoverageUtils.getTypeID(rg, t));
+            partitioner.addIdentifiers(t, ids);
+        }
+        partitioner.initialize(false, false);
+        partitioner.initializeReadGroups(header.getReadGroups());
+        return partitioner;
+    }
+
+    public void timeCountAndUpdate(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final CoveragePartitioner partitioner = makePartitioner();
+            final ReadGroupCoverageCounter counter = new ReadGroupCoverageCounter(header.getReadGroups(), -1, Integer.MAX_VALUE, (byte)-1, Byte.MAX_VALUE, CoverageUtils.CountPileupType.COUNT_READS);
+
+            for ( int j = 0; j < N_LOCI; j++ ) {
+                final AlignmentContext context = contexts.get(j % N_DISTINCT_LOCI);
+                switch ( implementation ) {
+                    case MAPS:
+                        final Map<DoCOutputType.Partition,Map<String,int[]>> counts = CoverageUtils.getBaseCountsByPartition(context, -1, Integer.MAX_VALUE, (byte)-1, Byte.MAX_VALUE, CoverageUtils.CountPileupType.COUNT_READS, TYPES);
+                        for ( final DoCOutputType.Partition t : TYPES )
+                            partitioner.getCoverageByAggregationType(t).update(counts.get(t));
+                        break;
+                    case ARRAYS:
+                        partitioner.update(counter.countBases(context));
+                        break;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(DepthOfCoverageBenchmark.class, args);
+    }
+}
@@ -69,10 +69,20 @@ public class DepthOfCoverageIntegrationTest extends WalkerTest {
 
     @Test
     public void testBaseOutputNoFiltering() {
+        testBaseOutputNoFiltering("testBaseOutputNoFiltering", "");
+    }
+
+    @Test
+    public void testBaseOutputNoFilteringStreamingIntervals() {
+        // streaming the interval statistics must not change any of the outputs
+        testBaseOutputNoFiltering("testBaseOutputNoFilteringStreamingIntervals", " --streamIntervalSummaries");
+    }
+
+    private void testBaseOutputNoFiltering(final String name, final String extraArgs) {
         String[] intervals = {"/humgen/gsa-hpprojects/GATK/data/Validation_Data/fhs_jhs_30_targts.interval_list"};
         String[] bams = {"/humgen/gsa-hpprojects/GATK/data/Validation_Data/FHS_indexed_subset.bam"};
 
-        String cmd = buildRootCmd(hg18Reference,new ArrayList<String>(Arrays.asList(bams)),new ArrayList<String>(Arrays.asList(intervals))) + " -mmq 0 -mbq 0 -dels -baseCounts -pt readgroup -pt sample -pt library --outputFormat csv -ct 10 -ct 15 -ct 20 -ct 25";
+        String cmd = buildRootCmd(hg18Reference,new ArrayList<String>(Arrays.asList(bams)),new ArrayList<String>(Arrays.asList(intervals))) + " -mmq 0 -mbq 0 -dels -baseCounts -pt readgroup -pt sample -pt library --outputFormat csv -ct 10 -ct 15 -ct 20 -ct 25" + extraArgs;
         WalkerTestSpec spec = new WalkerTestSpec(cmd,0, new ArrayList<String>());
 
         // our base file
@@ -100,7 +110,7 @@ public class DepthOfCoverageIntegrationTest extends WalkerTest {
         spec.addAuxFile("c7c5bad6c6818995c634f350aa66fde9", createTempFileFromBase(baseOutputFile.getAbsolutePath()+".sample_statistics"));
         spec.addAuxFile("949c9ce745753cd98f337600d3931d09", createTempFileFromBase(baseOutputFile.getAbsolutePath()+".sample_summary"));
 
-        execute("testBaseOutputNoFiltering",spec);
+        execute(name,spec);
     }
 
     @Test
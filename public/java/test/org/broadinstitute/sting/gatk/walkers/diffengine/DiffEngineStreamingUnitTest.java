@@ -0,0 +1,132 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.diffengine;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Checks that comparing files record by record, on any number of threads, finds the same differences as comparing their trees
+ */
+public class DiffEngineStreamingUnitTest extends BaseTest {
+    // enough records for several chunks of comparisons
+    private final static int N_RECORDS = 3000;
+
+    private DiffEngine engine;
+    private File master, test;
+
+    @BeforeClass
+    public void init() throws FileNotFoundException {
+        engine = new DiffEngine();
+        master = createTempFile("streamingDiffMaster", ".vcf");
+        test = createTempFile("streamingDiffTest", ".vcf");
+
+        final List<String> masterRecords = new ArrayList<String>(N_RECORDS);
+        final List<String> testRecords = new ArrayList<String>(N_RECORDS);
+        for ( int i = 0; i < N_RECORDS; i++ ) {
+            final int pos = 1000 + 10 * i;
+            masterRecords.add(makeRecord(pos, 50 + i % 7, 20 + i % 11, "0/1"));
+            if ( i % 90 != 0 ) // missing from the test file
+                testRecords.add(makeRecord(pos, i % 50 == 0 ? 51 + i % 7 : 50 + i % 7, i % 70 == 0 ? 21 + i % 11 : 20 + i % 11, i % 130 == 0 ? "1/1" : "0/1"));
+            if ( i % 110 == 0 ) // only in the test file
+                testRecords.add(makeRecord(pos + 5, 10, 5, "0/0"));
+            if ( i % 97 == 0 && testRecords.size() > 1 ) // out of order in the test file
+                Collections.swap(testRecords, testRecords.size() - 1, testRecords.size() - 2);
+        }
+
+        writeVCF(master, masterRecords);
+        writeVCF(test, testRecords);
+    }
+
+    private static String makeRecord(final int pos, final int qual, final int dp, final String gt) {
+        return String.format("20\t%d\trs%d\tA\tC\t%d\tPASS\tDP=%d\tGT:GQ\t%s:30\t1/1:20\t0/0:40", pos, pos, qual, dp, gt);
+    }
+
+    private static void writeVCF(final File file, final List<String> records) throws FileNotFoundException {
+        final PrintStream out = new PrintStream(file);
+        out.println("##fileformat=VCFv4.1");
+        out.println("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">");
+        out.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        out.println("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">");
+        out.println("##contig=<ID=20,length=63025520>");
+        out.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tNA1\tNA2\tNA3");
+        for ( final String record : records )
+            out.println(record);
+        out.close();
+    }
+
+    /**
+     * @return the path and count of each summary, in their sorted order
+     */
+    private static List<String> countsOf(final List<Difference> summaries) {
+        final List<String> counts = new ArrayList<String>(summaries.size());
+        for ( final Difference summary : summaries )
+            counts.add(summary.getPath() + ":" + summary.getCount());
+        return counts;
+    }
+
+    private static List<String> summariesOf(final LeafDifferenceSummary summary) {
+        final List<String> strings = new ArrayList<String>();
+        for ( final Difference diff : summary.getSortedSummaries() )
+            strings.add(diff.toString());
+        return strings;
+    }
+
+    @DataProvider(name = "Threads")
+    public Object[][] makeThreads() {
+        return new Object[][]{{1}, {4}};
+    }
+
+    @Test(dataProvider = "Threads")
+    public void testStreamingMatchesTree(final int nThreads) {
+        final List<Difference> diffs = engine.diff(engine.createDiffableFromFile(master), engine.createDiffableFromFile(test));
+        final List<Difference> tree = engine.summarizedDifferencesOfPaths(diffs, false, -1);
+        Assert.assertFalse(tree.isEmpty());
+
+        // the examples of the summaries may differ, as the trees' records aren't in file order
+        final LeafDifferenceSummary streamed = engine.streamingDiffFiles(master, test, nThreads, -1, null);
+        Assert.assertEquals(countsOf(streamed.getSortedSummaries()), countsOf(tree));
+        Assert.assertEquals(streamed.getNumberOfDifferences(), diffs.size());
+    }
+
+    @Test
+    public void testStreamingIsIndependentOfThreads() {
+        for ( final int maxRawDiffsToSummarize : Arrays.asList(-1, 0, 2) ) {
+            final List<String> expected = summariesOf(engine.streamingDiffFiles(master, test, 1, maxRawDiffsToSummarize, null));
+            for ( final int nThreads : Arrays.asList(2, 4) )
+                Assert.assertEquals(summariesOf(engine.streamingDiffFiles(master, test, nThreads, maxRawDiffsToSummarize, null)), expected,
+                        "Summaries differ with " + nThreads + " threads and maxRawDiffsToSummarize " + maxRawDiffsToSummarize);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.diffengine;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class LeafDifferenceSummaryUnitTest extends BaseTest {
+    /**
+     * @return a difference at path, whose master value is the index of the difference, so we can tell which is the example
+     */
+    private static Difference makeDifference(final String path, final int index) {
+        return new Difference(path, new DiffValue("master", (DiffElement)null, index).getBinding(), null);
+    }
+
+    private static List<Difference> makeDifferences(final String ... paths) {
+        final List<Difference> diffs = new ArrayList<Difference>(paths.length);
+        for ( int i = 0; i < paths.length; i++ )
+            diffs.add(makeDifference(paths[i], i));
+        return diffs;
+    }
+
+    /**
+     * @return the summaries as path:count:example strings, in their sorted order
+     */
+    private static List<String> summaryStrings(final LeafDifferenceSummary summary) {
+        final List<String> strings = new ArrayList<String>();
+        for ( final Difference diff : summary.getSortedSummaries() )
+            strings.add(diff.toString());
+        return strings;
+    }
+
+    @DataProvider(name = "Cutoffs")
+    public Object[][] makeCutoffs() {
+        return new Object[][]{
+                {-1, Arrays.asList("*.X:3:0!=MISSING", "*.*.Z:2:2!=MISSING", "*.Y:1:1!=MISSING")},
+                {0, Arrays.asList("*.X:3:0!=MISSING")},
+                {1, Arrays.asList("*.X:3:0!=MISSING", "*.Y:1:1!=MISSING")},
+                {2, Arrays.asList("*.X:3:0!=MISSING", "*.*.Z:2:2!=MISSING", "*.Y:1:1!=MISSING")},
+                {10, Arrays.asList("*.X:3:0!=MISSING", "*.*.Z:2:2!=MISSING", "*.Y:1:1!=MISSING")},
+        };
+    }
+
+    @Test(dataProvider = "Cutoffs")
+    public void testCutoff(final int maxRawDiffsToSummarize, final List<String> expected) {
+        final LeafDifferenceSummary summary = new LeafDifferenceSummary(maxRawDiffsToSummarize);
+        for ( final Difference diff : makeDifferences("A.X", "B.Y", "A.B.Z", "B.X", "A.X", "C.D.Z") )
+            summary.add(diff);
+
+        // the leaves of later differences aren't summarized once there are too many, but all of them are counted
+        Assert.assertEquals(summaryStrings(summary), expected);
+        Assert.assertEquals(summary.getNumberOfDifferences(), 6);
+    }
+
+    @DataProvider(name = "Merges")
+    public Object[][] makeMerges() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int maxRawDiffsToSummarize : Arrays.asList(-1, 0, 1, 3, 5) )
+            for ( final int nChunks : Arrays.asList(1, 2, 5, 20) )
+                tests.add(new Object[]{maxRawDiffsToSummarize, nChunks});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "Merges")
+    public void testMergingInOrderMatchesAdding(final int maxRawDiffsToSummarize, final int nChunks) {
+        final Random random = new Random(maxRawDiffsToSummarize + 31 * nChunks);
+        final String[] paths = new String[200];
+        for ( int i = 0; i < paths.length; i++ )
+            paths[i] = "record" + random.nextInt(10) + ".field" + random.nextInt(8);
+        final List<Difference> diffs = makeDifferences(paths);
+
+        final LeafDifferenceSummary added = new LeafDifferenceSummary(maxRawDiffsToSummarize);
+        for ( final Difference diff : diffs )
+            added.add(diff);
+
+        final LeafDifferenceSummary merged = new LeafDifferenceSummary(maxRawDiffsToSummarize);
+        final int chunkSize = (diffs.size() + nChunks - 1) / nChunks;
+        for ( int start = 0; start < diffs.size(); start += chunkSize ) {
+            final LeafDifferenceSummary chunk = new LeafDifferenceSummary(-1);
+            for ( final Difference diff : diffs.subList(start, Math.min(start + chunkSize, diffs.size())) )
+                chunk.add(diff);
+            merged.merge(chunk);
+        }
+
+        Assert.assertEquals(summaryStrings(merged), summaryStrings(added));
+        Assert.assertEquals(merged.getNumberOfDifferences(), added.getNumberOfDifferences());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCannotMergeCutOffSummary() {
+        new LeafDifferenceSummary(-1).merge(new LeafDifferenceSummary(3));
+    }
+}
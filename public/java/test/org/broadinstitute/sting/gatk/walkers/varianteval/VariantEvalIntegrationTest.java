@@ -0,0 +1,49 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.varianteval;
+
+import org.broadinstitute.sting.WalkerTest;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class VariantEvalIntegrationTest extends WalkerTest {
+
+    /**
+     * With -nt 2 each thread evaluates into its own copy of the stratification manager and the
+     * copies are combined at the end, which must give the same report as a single thread
+     */
+    @Test
+    public void testMultithreadedMatchesSingleThreaded() {
+        WalkerTestSpec spec = new WalkerTestSpec(
+                "-T VariantEval -R " + exampleFASTA + " -eval " + publicTestDir + "exampleDBSNP.vcf" +
+                        " -D " + publicTestDir + "exampleDBSNP.vcf -o %s",
+                1,
+                Arrays.asList("4578a9815a0236de355a1c518bbbe77c"));
+        executeTest("testMultithreadedMatchesSingleThreaded", spec, Arrays.asList(1, 2), Collections.<Integer>emptyList());
+    }
+}
@@ -0,0 +1,247 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.varianteval.evaluators;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.samples.PedigreeValidationType;
+import org.broadinstitute.sting.gatk.samples.SampleDB;
+import org.broadinstitute.sting.gatk.samples.SampleDBBuilder;
+import org.broadinstitute.sting.gatk.walkers.varianteval.VariantEval;
+import org.broadinstitute.sting.gatk.walkers.varianteval.stratifications.manager.StratificationManager;
+import org.broadinstitute.sting.gatk.walkers.varianteval.stratifications.manager.Stratifier;
+import org.broadinstitute.sting.gatk.walkers.varianteval.util.AnalysisModuleScanner;
+import org.broadinstitute.sting.gatk.walkers.varianteval.util.EvaluationContext;
+import org.broadinstitute.variant.variantcontext.*;
+import org.broadinstitute.variant.vcf.VCFConstants;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Tests that evaluating sites split across empty copies of a StratificationManager and then combining
+ * the copies, as VariantEval does with -nt, gives the same results as evaluating every site in one context
+ */
+public class VariantEvaluatorCombineUnitTest extends BaseTest {
+    private final static List<String> SAMPLES = Arrays.asList("mom", "dad", "kid", "other");
+    private final static String PEDIGREE = String.format("%s%n%s%n%s",
+            "fam1 kid dad mom 1 2",
+            "fam1 dad 0   0   1 1",
+            "fam1 mom 0   0   2 2");
+
+    /**
+     * VariantEval with the state the evaluators ask for filled in, so that it doesn't need an engine
+     */
+    private static class TestVariantEval extends VariantEval {
+        private final SampleDB sampleDB;
+
+        private TestVariantEval() {
+            final SampleDBBuilder builder = new SampleDBBuilder(null, PedigreeValidationType.STRICT);
+            builder.addSamplesFromPedigreeStrings(Arrays.asList(PEDIGREE));
+            sampleDB = builder.getFinalSampleDB();
+        }
+
+        @Override public long getnProcessedLoci() { return 1000; }
+        @Override public Set<String> getSampleNamesForEvaluation() { return new LinkedHashSet<String>(SAMPLES); }
+        @Override public SampleDB getSampleDB() { return sampleDB; }
+    }
+
+    private static class TwoStateStratifier implements Stratifier<Object> {
+        @Override
+        public List<Object> getAllStates() {
+            return Arrays.<Object>asList("first", "second");
+        }
+    }
+
+    private static class Site {
+        final VariantContext eval, comp;
+
+        private Site(final VariantContext eval, final VariantContext comp) {
+            this.eval = eval;
+            this.comp = comp;
+        }
+    }
+
+    /**
+     * Makes a VariantContextBuilder from comma-separated alleles, the first being the reference, and
+     * space-separated genotypes like 0/1 for mom, dad, kid and other, or none for a sites-only record
+     */
+    private static VariantContextBuilder makeBuilder(final String source, final int start, final String alleleString, final String genotypeString) {
+        final List<Allele> alleles = new ArrayList<Allele>();
+        for ( final String allele : alleleString.split(",") )
+            alleles.add(Allele.create(allele, alleles.isEmpty()));
+        final VariantContextBuilder builder = new VariantContextBuilder(source, "1", start, start + alleles.get(0).length() - 1, alleles);
+
+        if ( genotypeString != null ) {
+            final String[] calls = genotypeString.split(" ");
+            final List<Genotype> genotypes = new ArrayList<Genotype>();
+            for ( int i = 0; i < SAMPLES.size(); i++ ) {
+                final List<Allele> gtAlleles = new ArrayList<Allele>();
+                for ( final String index : calls[i].split("/") )
+                    gtAlleles.add(index.equals(".") ? Allele.NO_CALL : alleles.get(Integer.parseInt(index)));
+                genotypes.add(new GenotypeBuilder(SAMPLES.get(i), gtAlleles).GQ(99).DP(10).make());
+            }
+            builder.genotypes(genotypes);
+        }
+        return builder;
+    }
+
+    private static VariantContextBuilder eval(final int start, final String alleles, final String genotypes) {
+        return makeBuilder("eval", start, alleles, genotypes);
+    }
+
+    private static VariantContextBuilder comp(final int start, final String alleles, final String genotypes) {
+        return makeBuilder("comp", start, alleles, genotypes);
+    }
+
+    private static String repeat(final char c, final int n) {
+        final char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static List<Site> makeSites() {
+        final List<Site> sites = new ArrayList<Site>();
+        // known transition, with a Mendelian violation and a no-call
+        sites.add(new Site(eval(10, "A,G", "0/1 0/0 1/1 ./.").attribute(VCFConstants.DEPTH_KEY, 40).make(),
+                comp(10, "A,G", "0/1 0/1 0/1 0/0").make()));
+        // novel singleton transversion with an ancestral allele
+        sites.add(new Site(eval(20, "A,C", "0/0 0/0 0/1 0/0").attribute(VariantEval.IS_SINGLETON_KEY, true).attribute("ANCESTRALALLELE", "C").make(), null));
+        // multiallelic SNP of which only one alt allele is known
+        sites.add(new Site(eval(30, "A,C,G", "0/1 0/2 1/2 0/0").make(), comp(30, "A,C", null).make()));
+        // known insertion
+        sites.add(new Site(eval(40, "A,ATT", "0/1 0/1 1/1 0/0").make(), comp(40, "A,ATT", null).make()));
+        // frameshifting deletion
+        sites.add(new Site(eval(50, "ATTT,A", "0/1 0/0 0/1 ./.").attribute("SNPEFF_GENE_BIOTYPE", "protein_coding").attribute("SNPEFF_EFFECT", "FRAME_SHIFT").make(), null));
+        // large in-frame insertion
+        sites.add(new Site(eval(60, "A,A" + repeat('C', 12), "0/0 0/1 0/1 0/0").attribute("SNPEFF_GENE_BIOTYPE", "protein_coding").attribute("SNPEFF_EFFECT", "CODON_INSERTION").make(), null));
+        // deletion long enough to count as a CNV
+        sites.add(new Site(eval(100, "A" + repeat('T', 60) + ",A", "0/1 0/0 0/0 0/1").make(), null));
+        // symbolic allele
+        sites.add(new Site(eval(200, "A,<DEL>", "0/1 0/0 0/1 0/0").make(), null));
+        // MNP with a filtered comp
+        sites.add(new Site(eval(210, "AC,GT", "0/1 0/1 0/1 0/0").make(), comp(210, "AC,GT", null).filter("LowQual").make()));
+        // mixed SNP and insertion
+        sites.add(new Site(eval(220, "A,G,ATT", "0/1 0/2 1/2 0/0").make(), null));
+        // monomorphic in eval but polymorphic in comp
+        sites.add(new Site(eval(230, "A,G", "0/0 0/0 0/0 0/0").make(), comp(230, "A,G", "0/1 0/0 0/1 0/0").make()));
+        // filtered eval with a monomorphic comp
+        sites.add(new Site(eval(240, "A,T", "0/1 0/1 1/1 0/0").filter("LowQual").make(),
+                comp(240, "A,T", null).attribute(VCFConstants.ALLELE_COUNT_KEY, 0).make()));
+        // multiallelic SNP with every alt allele known
+        sites.add(new Site(eval(250, "A,C,T", "1/2 0/1 0/2 0/0").make(), comp(250, "A,C,T", "0/1 0/1 0/2 0/0").make()));
+        // multiallelic insertion
+        sites.add(new Site(eval(260, "A,AT,ATT", "0/1 0/2 1/2 ./.").make(), null));
+        // transition with hom-var parents, matching the ancestral allele
+        sites.add(new Site(eval(270, "G,A", "1/1 1/1 1/1 0/1").attribute("ANCESTRALALLELE", "A").make(), null));
+        // insertion where the comp has a SNP
+        sites.add(new Site(eval(275, "A,AT", "0/1 0/0 0/1 0/0").make(), comp(275, "A,G", null).make()));
+        // comp with no eval
+        sites.add(new Site(null, comp(280, "A,G", "0/1 0/0 0/1 0/0").make()));
+        return sites;
+    }
+
+    @DataProvider(name = "CombineTest")
+    public Object[][] makeCombineTest() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final Class<? extends VariantEvaluator> evaluator : Arrays.asList(CountVariants.class, CompOverlap.class,
+                TiTvVariantEvaluator.class, IndelSummary.class, VariantSummary.class, MultiallelicSummary.class,
+                IndelLengthHistogram.class, ValidationReport.class, PrintMissingComp.class, MendelianViolationEvaluator.class) )
+            tests.add(new Object[]{evaluator});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "CombineTest")
+    public void testCombine(final Class<? extends VariantEvaluator> evaluatorClass) throws Exception {
+        final VariantEval walker = new TestVariantEval();
+        final Set<Class<? extends VariantEvaluator>> evaluationClasses = Collections.<Class<? extends VariantEvaluator>>singleton(evaluatorClass);
+        final RefMetaDataTracker tracker = new RefMetaDataTracker();
+
+        final List<Site> sites = new ArrayList<Site>();
+        for ( final Site site : makeSites() ) {
+            // PrintMissingComp logs the eval of every comp it sees, so it can't be given a comp without one
+            if ( site.eval != null || evaluatorClass != PrintMissingComp.class )
+                sites.add(site);
+        }
+
+        final StratificationManager<TwoStateStratifier, EvaluationContext> whole =
+                new StratificationManager<TwoStateStratifier, EvaluationContext>(Arrays.asList(new TwoStateStratifier()));
+        final StratificationManager<TwoStateStratifier, EvaluationContext> combined = whole.createEmptyCopy();
+        for ( int key = 0; key < whole.size(); key++ ) {
+            whole.set(key, new EvaluationContext(walker, evaluationClasses));
+            combined.set(key, new EvaluationContext(walker, evaluationClasses));
+        }
+
+        // split the sites across two copies, filling in their contexts lazily as VariantEval does for each thread
+        final List<StratificationManager<TwoStateStratifier, EvaluationContext>> copies =
+                Arrays.asList(combined.createEmptyCopy(), combined.createEmptyCopy());
+        for ( int i = 0; i < sites.size(); i++ ) {
+            final Site site = sites.get(i);
+            final int key = i % 3 == 0 ? 0 : 1;
+            whole.get(key).apply(tracker, null, null, site.comp, site.eval);
+
+            final StratificationManager<TwoStateStratifier, EvaluationContext> copy = copies.get(i % 2);
+            if ( copy.get(key) == null )
+                copy.set(key, new EvaluationContext(walker, evaluationClasses));
+            copy.get(key).apply(tracker, null, null, site.comp, site.eval);
+        }
+
+        for ( final StratificationManager<TwoStateStratifier, EvaluationContext> copy : copies ) {
+            for ( int key = 0; key < copy.size(); key++ ) {
+                if ( copy.get(key) != null )
+                    combined.get(key).combine(copy.get(key));
+            }
+        }
+
+        // so that we notice if none of the sites reach the evaluator
+        final VariantEvaluator empty = new EvaluationContext(walker, evaluationClasses).getVariantEvaluators().first();
+        empty.finalizeEvaluation();
+        boolean sawData = false;
+
+        for ( int key = 0; key < whole.size(); key++ ) {
+            final VariantEvaluator expected = whole.get(key).getVariantEvaluators().first();
+            final VariantEvaluator actual = combined.get(key).getVariantEvaluators().first();
+            expected.finalizeEvaluation();
+            actual.finalizeEvaluation();
+
+            final AnalysisModuleScanner scanner = new AnalysisModuleScanner(expected);
+            final List<Field> fields = new ArrayList<Field>(scanner.getData().keySet());
+            if ( scanner.hasMoltenField() )
+                fields.add(scanner.getMoltenField());
+            Assert.assertFalse(fields.isEmpty(), "No data points in " + evaluatorClass.getSimpleName());
+            for ( final Field field : fields ) {
+                field.setAccessible(true);
+                Assert.assertEquals(field.get(actual), field.get(expected),
+                        "Combined " + evaluatorClass.getSimpleName() + "." + field.getName() + " differs for key " + key);
+                sawData |= ! String.valueOf(field.get(expected)).equals(String.valueOf(field.get(empty)));
+            }
+        }
+        Assert.assertTrue(sawData, "None of the sites changed " + evaluatorClass.getSimpleName());
+    }
+}
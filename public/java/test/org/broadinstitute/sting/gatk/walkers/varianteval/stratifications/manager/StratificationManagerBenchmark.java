@@ -0,0 +1,110 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.gatk.walkers.varianteval.stratifications.manager;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import java.util.*;
+
+/**
+ * Caliper microbenchmark of looking up the keys of a site in a StratificationManager with many stratifications
+ * enabled, shaped like VariantEval's Sample x AlleleCount x Novelty x FunctionalClass
+ */
+public class StratificationManagerBenchmark extends SimpleBenchmark {
+    @Param({"10", "100"})
+    private int nSamples; // set automatically by framework
+
+    private final int nSites = 1000;
+
+    private StratificationManager<BenchmarkStratifier, Object> manager;
+    private List<List<List<Object>>> statesBySite;
+
+    @Override protected void setUp() {
+        final List<Object> samples = new ArrayList<Object>(nSamples);
+        for ( int i = 0; i < nSamples; i++ )
+            samples.add("sample" + i);
+        final List<Object> alleleCounts = new ArrayList<Object>(2 * nSamples + 1);
+        for ( int i = 0; i <= 2 * nSamples; i++ )
+            alleleCounts.add(i);
+        final List<Object> novelty = Arrays.<Object>asList("all", "known", "novel");
+        final List<Object> functionalClass = Arrays.<Object>asList("all", "silent", "missense", "nonsense");
+
+        manager = new StratificationManager<BenchmarkStratifier, Object>(Arrays.asList(
+                new BenchmarkStratifier(samples), new BenchmarkStratifier(alleleCounts),
+                new BenchmarkStratifier(novelty), new BenchmarkStratifier(functionalClass)));
+
+        // each site is a single sample and allele count, either known or novel, and any functional class
+        final Random random = new Random(42);
+        statesBySite = new ArrayList<List<List<Object>>>(nSites);
+        for ( int i = 0; i < nSites; i++ ) {
+            statesBySite.add(Arrays.asList(
+                    Collections.singletonList(samples.get(random.nextInt(nSamples))),
+                    Collections.singletonList(alleleCounts.get(random.nextInt(alleleCounts.size()))),
+                    Arrays.asList(novelty.get(0), novelty.get(1 + random.nextInt(2))),
+                    Arrays.asList(functionalClass.get(0), functionalClass.get(1 + random.nextInt(3)))));
+        }
+    }
+
+    public void timeGetKeys(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            int sum = 0;
+            for ( final List<List<Object>> states : statesBySite )
+                for ( final int key : manager.getKeys(states) )
+                    sum += key;
+            if ( sum < 0 ) throw new IllegalStateException();
+        }
+    }
+
+    public void timeGetKeysIntoBuffer(int rep) {
+        final StratificationManager.KeyBuffer keys = new StratificationManager.KeyBuffer();
+        for ( int i = 0; i < rep; i++ ) {
+            int sum = 0;
+            for ( final List<List<Object>> states : statesBySite ) {
+                manager.getKeys(states, keys);
+                for ( int j = 0; j < keys.size(); j++ )
+                    sum += keys.get(j);
+            }
+            if ( sum < 0 ) throw new IllegalStateException();
+        }
+    }
+
+    private static class BenchmarkStratifier implements Stratifier<Object> {
+        private final List<Object> states;
+
+        private BenchmarkStratifier(final List<Object> states) {
+            this.states = states;
+        }
+
+        @Override
+        public List<Object> getAllStates() {
+            return states;
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(StratificationManagerBenchmark.class, args);
+    }
+}
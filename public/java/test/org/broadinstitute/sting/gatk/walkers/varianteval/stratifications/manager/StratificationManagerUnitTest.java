@@ -0,0 +1,198 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.gatk.walkers.varianteval.stratifications.manager;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class StratificationManagerUnitTest extends BaseTest {
+
+    private static class IntegerStratifier implements Stratifier<Object> {
+        final List<Object> states;
+
+        private IntegerStratifier(final Object ... states) {
+            this.states = Arrays.asList(states);
+        }
+
+        @Override
+        public List<Object> getAllStates() {
+            return states;
+        }
+
+        @Override
+        public String toString() {
+            return "IntegerStratifier" + states;
+        }
+    }
+
+    @DataProvider(name = "StratificationManagerTest")
+    public Object[][] makeStratificationManagerTest() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+
+        tests.add(new Object[]{Arrays.asList(new IntegerStratifier(1))});
+        tests.add(new Object[]{Arrays.asList(new IntegerStratifier(1, 2, 3))});
+        tests.add(new Object[]{Arrays.asList(new IntegerStratifier(1, 2), new IntegerStratifier(3, 4))});
+        tests.add(new Object[]{Arrays.asList(new IntegerStratifier(1, 2, 3), new IntegerStratifier(4), new IntegerStratifier(5, 6))});
+        tests.add(new Object[]{Arrays.asList(new IntegerStratifier(1, 2), new IntegerStratifier(1, 2), new IntegerStratifier(1, 2, 3, 4))});
+        tests.add(new Object[]{Arrays.asList(new IntegerStratifier(5, 1, 4, 2), new IntegerStratifier("a", "b", "c"), new IntegerStratifier(7, 8), new IntegerStratifier(9, 10, 11))});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    private static List<List<Object>> allCombinations(final List<IntegerStratifier> strats) {
+        List<List<Object>> combinations = Collections.singletonList(Collections.<Object>emptyList());
+        for ( final IntegerStratifier strat : strats ) {
+            final List<List<Object>> extended = new ArrayList<List<Object>>();
+            for ( final List<Object> combination : combinations ) {
+                for ( final Object state : strat.getAllStates() ) {
+                    final List<Object> newCombination = new ArrayList<Object>(combination);
+                    newCombination.add(state);
+                    extended.add(newCombination);
+                }
+            }
+            combinations = extended;
+        }
+        return combinations;
+    }
+
+    @Test(dataProvider = "StratificationManagerTest")
+    public void testKeys(final List<IntegerStratifier> strats) {
+        final StratificationManager<IntegerStratifier, Object> manager = new StratificationManager<IntegerStratifier, Object>(strats);
+        final List<List<Object>> combinations = allCombinations(strats);
+        Assert.assertEquals(manager.size(), combinations.size());
+
+        // every combination of states has a unique key, which maps back to the same states
+        final Set<Integer> seen = new HashSet<Integer>();
+        for ( final List<Object> states : combinations ) {
+            final int key = manager.getKey(states);
+            Assert.assertTrue(key >= 0 && key < manager.size(), "Bad key " + key + " for " + states);
+            Assert.assertTrue(seen.add(key), "Duplicate key " + key + " for " + states);
+            Assert.assertEquals(manager.getStatesForKey(key), states);
+            Assert.assertTrue(manager.containsKey(states));
+
+            final List<List<Object>> singletons = new ArrayList<List<Object>>();
+            for ( final Object state : states )
+                singletons.add(Collections.singletonList(state));
+            Assert.assertEquals(manager.getKeys(singletons), Collections.singleton(key));
+        }
+
+        // unknown states don't have a key
+        final List<Object> unknown = new ArrayList<Object>(combinations.get(0));
+        unknown.set(unknown.size() - 1, "unknown");
+        Assert.assertEquals(manager.getKey(unknown), -1);
+        Assert.assertFalse(manager.containsKey(unknown));
+    }
+
+    @Test(dataProvider = "StratificationManagerTest")
+    public void testKeysOfMultipleStates(final List<IntegerStratifier> strats) {
+        final StratificationManager<IntegerStratifier, Object> manager = new StratificationManager<IntegerStratifier, Object>(strats);
+
+        // asking for all of the states of every strat, with duplicates, gives every key exactly once
+        final List<List<Object>> allStates = new ArrayList<List<Object>>();
+        for ( final IntegerStratifier strat : strats ) {
+            final List<Object> states = new ArrayList<Object>(strat.getAllStates());
+            states.addAll(strat.getAllStates());
+            allStates.add(states);
+        }
+
+        final StratificationManager.KeyBuffer buffer = manager.getKeys(allStates, new StratificationManager.KeyBuffer());
+        Assert.assertEquals(buffer.size(), manager.size());
+        final Set<Integer> keys = new HashSet<Integer>();
+        for ( int i = 0; i < buffer.size(); i++ )
+            keys.add(buffer.get(i));
+        Assert.assertEquals(keys.size(), manager.size());
+        Assert.assertEquals(manager.getKeys(allStates), keys);
+
+        // reusing the buffer for a single combination replaces its contents
+        final List<Object> first = allCombinations(strats).get(0);
+        final List<List<Object>> singletons = new ArrayList<List<Object>>();
+        for ( final Object state : first )
+            singletons.add(Collections.singletonList(state));
+        manager.getKeys(singletons, buffer);
+        Assert.assertEquals(buffer.size(), 1);
+        Assert.assertEquals(buffer.get(0), manager.getKey(first));
+    }
+
+    @Test(dataProvider = "StratificationManagerTest")
+    public void testCreateEmptyCopy(final List<IntegerStratifier> strats) {
+        final StratificationManager<IntegerStratifier, Object> manager = new StratificationManager<IntegerStratifier, Object>(strats);
+        for ( int key = 0; key < manager.size(); key++ )
+            manager.set(key, key);
+
+        // the copy has the same keys as the original but none of its values, and doesn't share storage with it
+        final StratificationManager<IntegerStratifier, Object> copy = manager.createEmptyCopy();
+        Assert.assertEquals(copy.size(), manager.size());
+        Assert.assertEquals(copy.getStratifiers(), manager.getStratifiers());
+        for ( final List<Object> states : allCombinations(strats) ) {
+            final int key = manager.getKey(states);
+            Assert.assertEquals(copy.getKey(states), key);
+            Assert.assertEquals(copy.getStatesForKey(key), states);
+            Assert.assertNull(copy.get(key));
+            copy.set(key, "copy");
+            Assert.assertEquals(manager.get(key), key);
+        }
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testKeysOfUnknownState() {
+        final StratificationManager<IntegerStratifier, Object> manager =
+                new StratificationManager<IntegerStratifier, Object>(Arrays.asList(new IntegerStratifier(1, 2), new IntegerStratifier(3, 4)));
+        manager.getKeys(Arrays.asList(Arrays.<Object>asList(1, 2), Arrays.<Object>asList(5)));
+    }
+
+    @Test
+    public void testCombineStrats() {
+        final IntegerStratifier toReplace = new IntegerStratifier(1, 2, 3, 4);
+        final IntegerStratifier replacement = new IntegerStratifier("odd", "even");
+        final IntegerStratifier other = new IntegerStratifier(5, 6);
+        final StratificationManager<IntegerStratifier, Integer> manager =
+                new StratificationManager<IntegerStratifier, Integer>(Arrays.asList(other, toReplace));
+        for ( int key = 0; key < manager.size(); key++ ) {
+            final List<Object> states = manager.getStatesForKey(key);
+            manager.set(key, (Integer)states.get(0) * 10 + (Integer)states.get(1));
+        }
+
+        final Map<Object, Object> remap = new HashMap<Object, Object>();
+        remap.put(1, "odd"); remap.put(2, "even"); remap.put(3, "odd"); remap.put(4, "even");
+        final StratificationManager<IntegerStratifier, Integer> combined = manager.combineStrats(toReplace, replacement,
+                new StratificationManager.Combiner<Integer>() {
+                    @Override
+                    public Integer combine(final Integer lhs, final Integer rhs) {
+                        return lhs == null ? rhs : lhs + rhs;
+                    }
+                }, remap);
+
+        Assert.assertEquals(combined.size(), 4);
+        Assert.assertEquals(combined.get(Arrays.<Object>asList(5, "odd")), Integer.valueOf(51 + 53));
+        Assert.assertEquals(combined.get(Arrays.<Object>asList(5, "even")), Integer.valueOf(52 + 54));
+        Assert.assertEquals(combined.get(Arrays.<Object>asList(6, "odd")), Integer.valueOf(61 + 63));
+        Assert.assertEquals(combined.get(Arrays.<Object>asList(6, "even")), Integer.valueOf(62 + 64));
+    }
+}
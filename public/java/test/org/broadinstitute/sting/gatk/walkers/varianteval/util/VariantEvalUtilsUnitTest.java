@@ -0,0 +1,116 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.varianteval.util;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.walkers.varianteval.VariantEval;
+import org.broadinstitute.variant.variantcontext.*;
+import org.broadinstitute.variant.vcf.VCFConstants;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Tests that subsetting a VariantContext to the sample of one of its genotypes gives the same result as
+ * subsetting it to that sample by name
+ */
+public class VariantEvalUtilsUnitTest extends BaseTest {
+    private final static Allele A = Allele.create("A", true);
+    private final static Allele C = Allele.create("C");
+    private final static Allele G = Allele.create("G");
+    private final static Allele DEL = Allele.create("<DEL>");
+    private final static Allele NO_CALL = Allele.NO_CALL;
+
+    private static Genotype makeGenotype(final String sample, final Allele ... alleles) {
+        return new GenotypeBuilder(sample, Arrays.asList(alleles)).make();
+    }
+
+    private static VariantContextBuilder makeBuilder(final List<Allele> alleles, final Genotype ... genotypes) {
+        return new VariantContextBuilder("test", "1", 10, 10, alleles).genotypes(genotypes);
+    }
+
+    @DataProvider(name = "SubsetTest")
+    public Object[][] makeSubsetTest() {
+        final List<VariantContext> vcs = new ArrayList<VariantContext>();
+
+        // biallelic, with a no-call, a partial no-call, a hom-ref and a singleton het
+        vcs.add(makeBuilder(Arrays.asList(A, C),
+                makeGenotype("het", A, C), makeGenotype("homref", A, A), makeGenotype("nocall", NO_CALL, NO_CALL),
+                makeGenotype("halfcall", NO_CALL, A)).make());
+
+        // multiallelic, including a genotype carrying no reference allele and an unseen alternate allele
+        vcs.add(makeBuilder(Arrays.asList(A, C, G, Allele.create("T")),
+                makeGenotype("CG", C, G), makeGenotype("AG", A, G), makeGenotype("GG", G, G),
+                makeGenotype("AA", A, A)).make());
+
+        // all hom-ref, i.e. an AC0 site
+        vcs.add(makeBuilder(Arrays.asList(A, C), makeGenotype("homref1", A, A), makeGenotype("homref2", A, A)).make());
+
+        // symbolic alternate allele
+        vcs.add(makeBuilder(Arrays.asList(A, DEL),
+                makeGenotype("het", A, DEL), makeGenotype("homvar", DEL, DEL), makeGenotype("nocall", NO_CALL, NO_CALL)).make());
+
+        // filtered, with chromosome counts already present
+        vcs.add(makeBuilder(Arrays.asList(A, C), makeGenotype("het", A, C), makeGenotype("homref", A, A))
+                .filter("LowQual")
+                .attribute(VCFConstants.ALLELE_COUNT_KEY, 1)
+                .attribute(VCFConstants.ALLELE_FREQUENCY_KEY, 0.25)
+                .attribute(VCFConstants.ALLELE_NUMBER_KEY, 4).make());
+
+        // a single sample
+        vcs.add(makeBuilder(Arrays.asList(A, C, G), makeGenotype("CG", C, G)).make());
+
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final VariantContext vc : vcs )
+            for ( final boolean ignoreAC0Sites : Arrays.asList(true, false) )
+                tests.add(new Object[]{vc, ignoreAC0Sites});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "SubsetTest")
+    public void testSubsetToGenotypeMatchesSubsetToSample(final VariantContext vc, final boolean ignoreAC0Sites) {
+        final VariantEvalUtils utils = new VariantEvalUtils(new VariantEval() {
+            @Override
+            public boolean ignoreAC0Sites() {
+                return ignoreAC0Sites;
+            }
+        });
+
+        for ( final Genotype g : vc.getGenotypes() ) {
+            final VariantContext bySample = utils.getSubsetOfVariantContext(vc, g.getSampleName());
+            final VariantContext byGenotype = utils.getSubsetOfVariantContext(vc, g);
+
+            final String context = g.getSampleName() + " of " + vc;
+            Assert.assertEquals(byGenotype.getAlleles(), bySample.getAlleles(), context);
+            Assert.assertEquals(byGenotype.getFilters(), bySample.getFilters(), context);
+            Assert.assertEquals(byGenotype.getAttributes(), bySample.getAttributes(), context);
+            Assert.assertEquals(byGenotype.getSampleNames(), bySample.getSampleNames(), context);
+            Assert.assertEquals(byGenotype.getGenotype(g.getSampleName()).toString(), bySample.getGenotype(g.getSampleName()).toString(), context);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.variant.variantcontext.*;
+import org.broadinstitute.variant.vcf.VCFHeader;
+import org.broadinstitute.variant.vcf.VCFHeaderLine;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class ConcordanceMetricsUnitTest extends BaseTest {
+    private final static List<String> SAMPLES = Arrays.asList("s1", "s2", "s3");
+
+    private static VCFHeader makeHeader(final List<String> samples) {
+        return new VCFHeader(new HashSet<VCFHeaderLine>(), samples);
+    }
+
+    /**
+     * Make a record at position with the given alleles (the first being the reference), and genotypes
+     * given as "sample=A/C", "sample=./." for a no-call or "sample=" for a missing genotype, in that order.
+     * The genotypes get their own copies of the alleles, so that alleles are never matched by identity alone.
+     */
+    private static VariantContext makeVC(final int position, final String alleleString, final String ... genotypeStrings) {
+        final List<Allele> alleles = new ArrayList<Allele>();
+        for ( final String allele : alleleString.split(",") )
+            alleles.add(Allele.create(allele, alleles.isEmpty()));
+
+        final List<Genotype> genotypes = new ArrayList<Genotype>();
+        for ( final String genotypeString : genotypeStrings ) {
+            final String[] parts = genotypeString.split("=", -1);
+            final List<Allele> genotypeAlleles = new ArrayList<Allele>();
+            if ( ! parts[1].isEmpty() ) {
+                for ( final String allele : parts[1].split("/") )
+                    genotypeAlleles.add(allele.equals(".") ? Allele.NO_CALL : Allele.create(allele, allele.equals(alleles.get(0).getBaseString())));
+            }
+            genotypes.add(GenotypeBuilder.create(parts[0], genotypeAlleles));
+        }
+
+        return new VariantContextBuilder("test", "1", position, position + alleles.get(0).length() - 1, alleles).genotypes(genotypes).make();
+    }
+
+    private static void assertCounts(final ConcordanceMetrics.GenotypeConcordanceTable table, final GenotypeType evalType, final GenotypeType truthType, final int nMismatchingAlt) {
+        for ( final GenotypeType e : GenotypeType.values() ) {
+            for ( final GenotypeType t : GenotypeType.values() )
+                Assert.assertEquals(table.get(e, t), e == evalType && t == truthType ? 1 : 0, "Wrong count for " + e + "/" + t);
+        }
+        Assert.assertEquals(table.getnMismatchingAlt(), nMismatchingAlt);
+    }
+
+    @Test
+    public void testHomRefTruthMatchesAnyTruthAllele() {
+        final ConcordanceMetrics metrics = new ConcordanceMetrics(makeHeader(SAMPLES), makeHeader(SAMPLES));
+        metrics.update(makeVC(10, "C,A,G", "s1=A/C", "s2=A/A", "s3=G/C"),
+                       makeVC(10, "C,A,T", "s1=C/C", "s2=C/C", "s3=C/C"));
+
+        assertCounts(metrics.getGenotypeConcordance("s1"), GenotypeType.HET, GenotypeType.HOM_REF, 0);
+        assertCounts(metrics.getGenotypeConcordance("s2"), GenotypeType.HOM_VAR, GenotypeType.HOM_REF, 0);
+        assertCounts(metrics.getGenotypeConcordance("s3"), null, null, 1);
+    }
+
+    @Test
+    public void testVariantTruthMatchesItsOwnAllelesAndReference() {
+        final ConcordanceMetrics metrics = new ConcordanceMetrics(makeHeader(SAMPLES), makeHeader(SAMPLES));
+        metrics.update(makeVC(10, "C,A,T", "s1=C/T", "s2=A/A", "s3=./."),
+                       makeVC(10, "C,A,T", "s1=C/A", "s2=C/A", "s3=C/A"));
+
+        assertCounts(metrics.getGenotypeConcordance("s1"), null, null, 1);
+        assertCounts(metrics.getGenotypeConcordance("s2"), GenotypeType.HOM_VAR, GenotypeType.HET, 0);
+        assertCounts(metrics.getGenotypeConcordance("s3"), GenotypeType.NO_CALL, GenotypeType.HET, 0);
+    }
+
+    @Test
+    public void testSampleOrders() {
+        // the callsets have samples the other doesn't, and the records list their samples in different orders
+        final ConcordanceMetrics metrics = new ConcordanceMetrics(makeHeader(Arrays.asList("s1", "s2", "s3", "evalOnly")),
+                                                                  makeHeader(Arrays.asList("compOnly", "s3", "s2", "s1")));
+        Assert.assertEquals(new TreeSet<String>(metrics.getPerSampleGenotypeConcordance().keySet()), new TreeSet<String>(SAMPLES));
+
+        metrics.update(makeVC(10, "C,A", "s1=C/C", "s2=C/A", "s3=A/A", "evalOnly=C/C"),
+                       makeVC(10, "C,A", "compOnly=C/C", "s3=A/A", "s2=C/A", "s1=C/C"));
+        metrics.update(makeVC(20, "G,T", "evalOnly=./.", "s3=G/G", "s2=", "s1=G/T"),
+                       makeVC(20, "G,T", "s1=G/T", "s2=T/T", "s3=G/G", "compOnly=G/G"));
+
+        final ConcordanceMetrics.GenotypeConcordanceTable s1 = metrics.getGenotypeConcordance("s1");
+        Assert.assertEquals(s1.get(GenotypeType.HOM_REF, GenotypeType.HOM_REF), 1);
+        Assert.assertEquals(s1.get(GenotypeType.HET, GenotypeType.HET), 1);
+        final ConcordanceMetrics.GenotypeConcordanceTable s2 = metrics.getGenotypeConcordance("s2");
+        Assert.assertEquals(s2.get(GenotypeType.HET, GenotypeType.HET), 1);
+        Assert.assertEquals(s2.get(GenotypeType.UNAVAILABLE, GenotypeType.HOM_VAR), 1);
+        final ConcordanceMetrics.GenotypeConcordanceTable s3 = metrics.getGenotypeConcordance("s3");
+        Assert.assertEquals(s3.get(GenotypeType.HOM_VAR, GenotypeType.HOM_VAR), 1);
+        Assert.assertEquals(s3.get(GenotypeType.HOM_REF, GenotypeType.HOM_REF), 1);
+
+        final ConcordanceMetrics.GenotypeConcordanceTable overall = metrics.getOverallGenotypeConcordance();
+        Assert.assertEquals(overall.get(GenotypeType.HOM_REF, GenotypeType.HOM_REF), 2);
+        Assert.assertEquals(overall.get(GenotypeType.HET, GenotypeType.HET), 2);
+        Assert.assertEquals(overall.getnCalledEvalGenotypes(), 5);
+        Assert.assertEquals(overall.getnCalledCompGenotypes(), 6);
+    }
+
+    @Test
+    public void testMerge() {
+        // truth records without the T allele make eval genotypes with it mismatching
+        final String[] genotypes = {"C/C", "C/A", "A/A", "./.", "", "C/T", "A/T"};
+        final Random random = new Random(42);
+
+        final ConcordanceMetrics all = new ConcordanceMetrics(makeHeader(SAMPLES), makeHeader(SAMPLES));
+        final ConcordanceMetrics first = new ConcordanceMetrics(makeHeader(SAMPLES), makeHeader(SAMPLES));
+        final ConcordanceMetrics second = new ConcordanceMetrics(makeHeader(SAMPLES), makeHeader(SAMPLES));
+        for ( int site = 0; site < 100; site++ ) {
+            final String[] evalGenotypes = new String[SAMPLES.size()];
+            final String[] truthGenotypes = new String[SAMPLES.size()];
+            final boolean truthHasT = random.nextBoolean();
+            for ( int i = 0; i < SAMPLES.size(); i++ ) {
+                evalGenotypes[i] = SAMPLES.get(i) + "=" + genotypes[random.nextInt(genotypes.length)];
+                truthGenotypes[i] = SAMPLES.get(i) + "=" + genotypes[random.nextInt(truthHasT ? genotypes.length : genotypes.length - 2)];
+            }
+            final VariantContext eval = makeVC(10 * site + 1, "C,A,T", evalGenotypes);
+            final VariantContext truth = makeVC(10 * site + 1, truthHasT ? "C,A,T" : "C,A", truthGenotypes);
+
+            all.update(eval, truth);
+            (site < 40 ? first : second).update(eval, truth);
+        }
+        first.merge(second);
+
+        for ( final String sample : SAMPLES ) {
+            Assert.assertEquals(first.getGenotypeConcordance(sample).getTable(), all.getGenotypeConcordance(sample).getTable());
+            Assert.assertEquals(first.getGenotypeConcordance(sample).getnMismatchingAlt(), all.getGenotypeConcordance(sample).getnMismatchingAlt());
+        }
+        Assert.assertEquals(first.getOverallGenotypeConcordance().getTable(), all.getOverallGenotypeConcordance().getTable());
+        Assert.assertEquals(first.getOverallSiteConcordance().getSiteConcordance(), all.getOverallSiteConcordance().getSiteConcordance());
+        Assert.assertEquals(first.getOverallNRD(), all.getOverallNRD());
+        Assert.assertEquals(first.getPerSampleNRS(), all.getPerSampleNRS());
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testHaploidGenotypes() {
+        final ConcordanceMetrics metrics = new ConcordanceMetrics(makeHeader(SAMPLES), makeHeader(SAMPLES));
+        metrics.update(makeVC(10, "C,A", "s1=C/C", "s2=A", "s3=C/C"),
+                       makeVC(10, "C,A", "s1=C/C", "s2=C/C", "s3=C/C"));
+    }
+}
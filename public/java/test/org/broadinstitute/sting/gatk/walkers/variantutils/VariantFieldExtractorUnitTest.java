@@ -0,0 +1,183 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import org.broad.tribble.readers.LineIterator;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.io.ColumnarTableReader;
+import org.broadinstitute.sting.utils.io.ColumnarTableWriter;
+import org.broadinstitute.sting.utils.io.ColumnarTableWriter.ColumnType;
+import org.broadinstitute.sting.utils.io.TableWriter;
+import org.broadinstitute.sting.utils.io.TextTableWriter;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.vcf.VCFCodec;
+import org.broadinstitute.variant.vcf.VCFHeader;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * Checks the rows extracted from VariantContexts and formatted by the TableWriters, the way VariantsToTable writes them
+ */
+public class VariantFieldExtractorUnitTest extends BaseTest {
+    private final static String EOL = System.getProperty("line.separator");
+
+    private final static List<String> FIELDS = Arrays.asList("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "DP", "AC", "AF", "SET");
+    private final static List<String> GENOTYPE_FIELDS = Arrays.asList("GT", "AD", "DP", "GQ", "PL", "XF");
+    private final static List<String> SAMPLES = Arrays.asList("NA1", "NA 2");
+
+    private VCFHeader header;
+    private List<VariantContext> vcs;
+
+    @BeforeClass
+    public void init() {
+        final String vcf =
+                "##fileformat=VCFv4.1\n" +
+                "##FILTER=<ID=LowQual,Description=\"Low quality\">\n" +
+                "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n" +
+                "##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count\">\n" +
+                "##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">\n" +
+                "##INFO=<ID=SET,Number=1,Type=String,Description=\"Source set\">\n" +
+                "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+                "##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allele depths\">\n" +
+                "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n" +
+                "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">\n" +
+                "##FORMAT=<ID=PL,Number=G,Type=Integer,Description=\"Likelihoods\">\n" +
+                "##FORMAT=<ID=XF,Number=1,Type=Integer,Description=\"An extra field\">\n" +
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tNA1\tNA 2\n" +
+                "20\t100\trs1\tA\tC,T\t50\tPASS\tDP=20;AC=1,2;AF=0.25,0.50;SET=a\tGT:AD:DP:GQ:PL:XF\t0/1:5,3,2:10:30:10,0,100,20,200,300:7\t./.\n" +
+                "20\t200\t.\tG\tA\t.\tLowQual\tDP=5;AC=1;AF=0.5\tGT:AD:DP:GQ:PL\t1|1:0,5:5:15:100,15,0\t0/0:4,0:4:12:0,12,120\n";
+
+        final VCFCodec codec = new VCFCodec();
+        final LineIterator lines = codec.makeSourceFromStream(new ByteArrayInputStream(vcf.getBytes()));
+        header = (VCFHeader)codec.readActualHeader(lines);
+        vcs = new ArrayList<VariantContext>();
+        while ( lines.hasNext() )
+            vcs.add(codec.decode(lines.next()));
+    }
+
+    private final static String HEADER_LINE = "CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tDP\tAC\tAF\tSET\t" +
+            "NA1.GT\tNA1.AD\tNA1.DP\tNA1.GQ\tNA1.PL\tNA1.XF\t" +
+            "NA_2.GT\tNA_2.AD\tNA_2.DP\tNA_2.GQ\tNA_2.PL\tNA_2.XF";
+
+    @Test
+    public void testTable() {
+        Assert.assertEquals(writeText(new VariantFieldExtractor(FIELDS, GENOTYPE_FIELDS, SAMPLES, true, false)), Arrays.asList(
+                HEADER_LINE,
+                "20\t100\trs1\tA\tC,T\t50.0\tPASS\t20\t1,2\t0.25,0.50\ta\tA/C\t5,3,2\t10\t30\t10,0,100,20,200,300\t7\t./.\tNA\tNA\tNA\tNA\tNA",
+                "20\t200\t.\tG\tA\t-10.0\tLowQual\t5\t1\t0.5\tNA\tA|A\t0,5\t5\t15\t100,15,0\tNA\tG/G\t4,0\t4\t12\t0,12,120\tNA"));
+    }
+
+    @Test
+    public void testSplitMultiAllelic() {
+        // INFO lists with a value per alternate allele are split between the rows, but AD and PL are written whole
+        Assert.assertEquals(writeText(new VariantFieldExtractor(FIELDS, GENOTYPE_FIELDS, SAMPLES, true, true)), Arrays.asList(
+                HEADER_LINE,
+                "20\t100\trs1\tA\tC\t50.0\tPASS\t20\t1\t0.25\ta\tA/C\t5,3,2\t10\t30\t10,0,100,20,200,300\t7\t./.\tNA\tNA\tNA\tNA\tNA",
+                "20\t100\trs1\tA\tT\t50.0\tPASS\t20\t2\t0.50\ta\tA/C\t5,3,2\t10\t30\t10,0,100,20,200,300\t7\t./.\tNA\tNA\tNA\tNA\tNA",
+                "20\t200\t.\tG\tA\t-10.0\tLowQual\t5\t1\t0.5\tNA\tA|A\t0,5\t5\t15\t100,15,0\tNA\tG/G\t4,0\t4\t12\t0,12,120\tNA"));
+    }
+
+    @Test
+    public void testSitesOnly() {
+        Assert.assertEquals(writeText(new VariantFieldExtractor(Arrays.asList("POS", "AC", "FOO", "S*"), Collections.<String>emptyList(), SAMPLES, true, false)), Arrays.asList(
+                "POS\tAC\tFOO\tS*",
+                "100\t1,2\tNA\ta",
+                "200\t1\tNA\tNA"));
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testMissingFieldNotAllowed() {
+        writeText(new VariantFieldExtractor(FIELDS, GENOTYPE_FIELDS, SAMPLES, false, false));
+    }
+
+    @Test
+    public void testMissingSample() {
+        Assert.assertEquals(writeText(new VariantFieldExtractor(Arrays.asList("POS"), Arrays.asList("GT", "GQ"), Arrays.asList("NA3"), false, false)), Arrays.asList(
+                "POS\tNA3.GT\tNA3.GQ",
+                "100\tNA\tNA",
+                "200\tNA\tNA"));
+    }
+
+    @Test
+    public void testColumnarRoundTrip() {
+        final VariantFieldExtractor extractor = new VariantFieldExtractor(FIELDS, GENOTYPE_FIELDS, SAMPLES, true, true);
+        final List<ColumnType> types = extractor.getColumnTypes(header);
+        Assert.assertEquals(types, Arrays.asList(
+                ColumnType.STRING, ColumnType.INTEGER, ColumnType.STRING, ColumnType.STRING, ColumnType.STRING, ColumnType.DOUBLE,
+                ColumnType.STRING, ColumnType.INTEGER, ColumnType.INTEGER, ColumnType.DOUBLE, ColumnType.STRING,
+                ColumnType.STRING, ColumnType.STRING, ColumnType.INTEGER, ColumnType.INTEGER, ColumnType.STRING, ColumnType.INTEGER,
+                ColumnType.STRING, ColumnType.STRING, ColumnType.INTEGER, ColumnType.INTEGER, ColumnType.STRING, ColumnType.INTEGER));
+
+        // one row per chunk, so the rows of a record are read back from different chunks
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTable(extractor, new ColumnarTableWriter(out, extractor.getColumnNames(), types, ".", 1));
+
+        final ColumnarTableReader reader = new ColumnarTableReader(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(reader.getColumnNames(), extractor.getColumnNames());
+        Assert.assertEquals(reader.getColumnTypes(), types);
+
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        while ( reader.nextChunk() ) {
+            for ( int row = 0; row < reader.getNumberOfRows(); row++ ) {
+                final List<Object> values = new ArrayList<Object>();
+                for ( int column = 0; column < types.size(); column++ )
+                    values.add(reader.getValue(column, row));
+                rows.add(values);
+            }
+        }
+
+        Assert.assertEquals(rows, Arrays.asList(
+                Arrays.<Object>asList("20", 100L, "rs1", "A", "C", 50.0, "PASS", 20L, 1L, 0.25, "a",
+                        "A/C", "5,3,2", 10L, 30L, "10,0,100,20,200,300", 7L, "./.", null, null, null, null, null),
+                Arrays.<Object>asList("20", 100L, "rs1", "A", "T", 50.0, "PASS", 20L, 2L, 0.5, "a",
+                        "A/C", "5,3,2", 10L, 30L, "10,0,100,20,200,300", 7L, "./.", null, null, null, null, null),
+                Arrays.<Object>asList("20", 200L, ".", "G", "A", -10.0, "LowQual", 5L, 1L, 0.5, null,
+                        "A|A", "0,5", 5L, 15L, "100,15,0", null, "G/G", "4,0", 4L, 12L, "0,12,120", null)));
+    }
+
+    private List<String> writeText(final VariantFieldExtractor extractor) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTable(extractor, new TextTableWriter(out, extractor.getColumnNames(), "NA"));
+        return Arrays.asList(out.toString().split(EOL));
+    }
+
+    private void writeTable(final VariantFieldExtractor extractor, final TableWriter writer) {
+        final Object[] values = new Object[extractor.getNumberOfColumns()];
+        for ( final VariantContext vc : vcs ) {
+            for ( int record = 0; record < extractor.getNumberOfRecords(vc); record++ ) {
+                extractor.extract(vc, record, values);
+                writer.writeRow(values);
+            }
+        }
+        writer.finish();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import org.apache.commons.io.output.NullOutputStream;
+import org.broad.tribble.readers.LineIterator;
+import org.broadinstitute.sting.utils.Utils;
+import org.broadinstitute.sting.utils.io.ColumnarTableWriter;
+import org.broadinstitute.sting.utils.io.TableWriter;
+import org.broadinstitute.sting.utils.io.TextTableWriter;
+import org.broadinstitute.variant.variantcontext.Genotype;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.broadinstitute.variant.vcf.VCFCodec;
+import org.broadinstitute.variant.vcf.VCFHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * Caliper microbenchmark of writing the site and genotype fields of a many-sample VCF as a table, the way
+ * VariantsToTable used to (as lists of Strings, joined into lines) and with the text and columnar TableWriters
+ */
+public class VariantsToTableBenchmark extends SimpleBenchmark {
+    @Param({"100", "2000"})
+    int nSamples; // set automatically by framework
+
+    private final int nSites = 100;
+
+    private final List<String> fields = Arrays.asList("CHROM", "POS", "REF", "ALT", "QUAL", "DP", "AC", "AF", "QD");
+    private final List<String> genotypeFields = Arrays.asList("GT", "AD", "DP", "GQ", "PL");
+
+    private List<String> samples;
+    private VCFHeader header;
+    private List<VariantContext> vcs;
+
+    @Override protected void setUp() {
+        final Random random = new Random(42);
+        final StringBuilder vcf = new StringBuilder();
+        vcf.append("##fileformat=VCFv4.1\n");
+        vcf.append("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n");
+        vcf.append("##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count\">\n");
+        vcf.append("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">\n");
+        vcf.append("##INFO=<ID=QD,Number=1,Type=Float,Description=\"Quality by depth\">\n");
+        vcf.append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+        vcf.append("##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allele depths\">\n");
+        vcf.append("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n");
+        vcf.append("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">\n");
+        vcf.append("##FORMAT=<ID=PL,Number=G,Type=Integer,Description=\"Likelihoods\">\n");
+        vcf.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        samples = new ArrayList<String>(nSamples);
+        for ( int i = 0; i < nSamples; i++ ) {
+            samples.add("sample" + i);
+            vcf.append("\tsample").append(i);
+        }
+        vcf.append("\n");
+
+        for ( int site = 0; site < nSites; site++ ) {
+            vcf.append(String.format("20\t%d\t.\tA\tC\t%.2f\tPASS\tDP=%d;AC=%d;AF=%.3f;QD=%.2f\tGT:AD:DP:GQ:PL",
+                    1000 + 10 * site, 1000 * random.nextDouble(), random.nextInt(10000), random.nextInt(100), random.nextDouble(), 30 * random.nextDouble()));
+            for ( int i = 0; i < nSamples; i++ ) {
+                final int ref = random.nextInt(30), alt = random.nextInt(30);
+                vcf.append(String.format("\t%s:%d,%d:%d:%d:%d,%d,%d", random.nextBoolean() ? "0/0" : "0/1",
+                        ref, alt, ref + alt, random.nextInt(99), random.nextInt(500), random.nextInt(500), random.nextInt(500)));
+            }
+            vcf.append("\n");
+        }
+
+        final VCFCodec codec = new VCFCodec();
+        final LineIterator lines = codec.makeSourceFromStream(new ByteArrayInputStream(vcf.toString().getBytes()));
+        header = (VCFHeader)codec.readActualHeader(lines);
+        vcs = new ArrayList<VariantContext>(nSites);
+        while ( lines.hasNext() ) {
+            final VariantContext vc = codec.decode(lines.next());
+            vc.getGenotypes().size(); // decode the genotypes up front, so we only time writing them out
+            vcs.add(vc);
+        }
+    }
+
+    public void timeListsOfStrings(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final PrintStream out = new PrintStream(new NullOutputStream());
+            for ( final VariantContext vc : vcs ) {
+                final List<String> record = new ArrayList<String>();
+                for ( final String field : fields )
+                    record.add(vc.hasAttribute(field) ? prettyPrintObject(vc.getAttribute(field)) : getStandardField(vc, field));
+                for ( final String sample : samples ) {
+                    for ( final String gf : genotypeFields ) {
+                        if ( vc.hasGenotype(sample) && vc.getGenotype(sample).hasAnyAttribute(gf) ) {
+                            if ( gf.equals("GT") )
+                                record.add(vc.getGenotype(sample).getGenotypeString(true));
+                            else
+                                record.add(prettyPrintObject(vc.getGenotype(sample).getAnyAttribute(gf)));
+                        } else {
+                            record.add("NA");
+                        }
+                    }
+                }
+                out.println(Utils.join("\t", record));
+            }
+            out.flush();
+        }
+    }
+
+    public void timeTextTableWriter(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final VariantFieldExtractor extractor = new VariantFieldExtractor(fields, genotypeFields, samples, true, false);
+            writeTable(extractor, new TextTableWriter(new NullOutputStream(), extractor.getColumnNames(), "NA"));
+        }
+    }
+
+    public void timeColumnarTableWriter(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final VariantFieldExtractor extractor = new VariantFieldExtractor(fields, genotypeFields, samples, true, false);
+            writeTable(extractor, new ColumnarTableWriter(new NullOutputStream(), extractor.getColumnNames(), extractor.getColumnTypes(header), "."));
+        }
+    }
+
+    private void writeTable(final VariantFieldExtractor extractor, final TableWriter writer) {
+        final Object[] values = new Object[extractor.getNumberOfColumns()];
+        for ( final VariantContext vc : vcs ) {
+            extractor.extract(vc, 0, values);
+            writer.writeRow(values);
+        }
+        writer.finish();
+    }
+
+    private static String getStandardField(final VariantContext vc, final String field) {
+        if ( field.equals("CHROM") ) return vc.getChr();
+        if ( field.equals("POS") ) return Integer.toString(vc.getStart());
+        if ( field.equals("REF") ) return vc.getReference().getDisplayString();
+        if ( field.equals("ALT") ) return vc.getAlternateAllele(0).getDisplayString();
+        if ( field.equals("QUAL") ) return Double.toString(vc.getPhredScaledQual());
+        return "NA";
+    }
+
+    private static String prettyPrintObject(final Object val) {
+        if ( val instanceof List )
+            return prettyPrintObject(((List)val).toArray());
+
+        if ( !val.getClass().isArray() )
+            return val.toString();
+
+        final int length = Array.getLength(val);
+        if ( length == 0 )
+            return "";
+
+        final StringBuilder sb = new StringBuilder(prettyPrintObject(Array.get(val, 0)));
+        for ( int i = 1; i < length; i++ ) {
+            sb.append(",");
+            sb.append(prettyPrintObject(Array.get(val, i)));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(VariantsToTableBenchmark.class, args);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.activeregion;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Caliper microbenchmark of the activity profiles, reported per locus added to the profile
+ */
+public class ActivityProfileBenchmark extends SimpleBenchmark {
+    private final static int N_LOCI = 100000;
+
+    @Param({"BAND_PASS", "ARRAY_BAND_PASS"})
+    ProfileType profileType; // set automatically by framework
+
+    @Param({"0.0", "0.1", "0.5"})
+    double fractionActive; // set automatically by framework
+
+    private GenomeLocParser genomeLocParser;
+    private final List<GenomeLoc> locs = new ArrayList<GenomeLoc>(N_LOCI);
+    private final double[] probs = new double[N_LOCI];
+
+    public enum ProfileType {
+        BAND_PASS {
+            @Override ActivityProfile makeProfile(final GenomeLocParser parser) { return new BandPassActivityProfile(parser, null); }
+        },
+        ARRAY_BAND_PASS {
+            @Override ActivityProfile makeProfile(final GenomeLocParser parser) { return new ArrayBandPassActivityProfile(parser, null); }
+        };
+
+        abstract ActivityProfile makeProfile(final GenomeLocParser parser);
+    }
+
+    @Override protected void setUp() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, N_LOCI + 1000);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+
+        final Random random = new Random(42);
+        final String contig = header.getSequence(0).getSequenceName();
+        for ( int i = 0; i < N_LOCI; i++ ) {
+            locs.add(genomeLocParser.createGenomeLoc(contig, i + 1));
+            probs[i] = random.nextDouble() < fractionActive ? 1.0 : 0.0;
+        }
+    }
+
+    public void timeAddAndPopLoci(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final ActivityProfile profile = profileType.makeProfile(genomeLocParser);
+            // profiles may modify the states they are given, so make new ones for each rep as the traversal would
+            for ( int j = 0; j < N_LOCI; j++ ) {
+                profile.add(new ActivityProfileState(locs.get(j), probs[j]));
+                profile.popReadyActiveRegions(100, 50, 300, false);
+            }
+            profile.popReadyActiveRegions(100, 50, 300, true);
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(ActivityProfileBenchmark.class, args);
+    }
+}
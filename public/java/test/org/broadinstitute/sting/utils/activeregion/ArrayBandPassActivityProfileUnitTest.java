@@ -0,0 +1,145 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+*
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.activeregion;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Differential tests of ArrayBandPassActivityProfile against BandPassActivityProfile
+ */
+public class ArrayBandPassActivityProfileUnitTest extends BaseTest {
+    private final static int CONTIG_LENGTH = 10000;
+    private GenomeLocParser genomeLocParser;
+    private String contig;
+
+    @BeforeClass
+    public void init() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, CONTIG_LENGTH);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        contig = header.getSequence(0).getSequenceName();
+    }
+
+    @DataProvider(name = "ProfileComparisonTest")
+    public Object[][] makeProfileComparisonTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int start : Arrays.asList(1, 100, CONTIG_LENGTH - 2000, CONTIG_LENGTH - 10) ) {
+            for ( final int nSites : Arrays.asList(1, 10, 100, 1000) ) {
+                for ( final int filterSize : Arrays.asList(0, 1, 10, BandPassActivityProfile.MAX_FILTER_SIZE) ) {
+                    for ( final double sigma : Arrays.asList(1.0, BandPassActivityProfile.DEFAULT_SIGMA) ) {
+                        for ( final int maxRegionSize : Arrays.asList(10, 50, 300) ) {
+                            for ( final int popEvery : Arrays.asList(1, 37, -1) ) {
+                                tests.add(new Object[]{start, Math.min(nSites, CONTIG_LENGTH - start + 1), filterSize, sigma, maxRegionSize, popEvery});
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "ProfileComparisonTest")
+    public void testProfileComparison(final int start, final int nSites, final int filterSize, final double sigma, final int maxRegionSize, final int popEvery) {
+        final BandPassActivityProfile expected = new BandPassActivityProfile(genomeLocParser, null, filterSize, sigma);
+        final ArrayBandPassActivityProfile actual = new ArrayBandPassActivityProfile(genomeLocParser, null, filterSize, sigma);
+        Assert.assertEquals(actual.getMaxProbPropagationDistance(), expected.getMaxProbPropagationDistance());
+
+        final Random random = new Random(start + nSites + filterSize);
+        for ( int i = 0; i < nSites; i++ ) {
+            final GenomeLoc loc = genomeLocParser.createGenomeLoc(contig, start + i);
+            final double prob = random.nextDouble() < 0.7 ? 0.0 : random.nextDouble();
+            final boolean softClips = random.nextDouble() < 0.05;
+            final int nClips = random.nextInt(100) + 1;
+            expected.add(makeState(loc, prob, softClips, nClips));
+            actual.add(makeState(loc, prob, softClips, nClips));
+            assertProfilesAreEqual(actual, expected);
+
+            if ( popEvery != -1 && i % popEvery == 0 )
+                assertRegionsAreEqual(actual.popReadyActiveRegions(0, 1, maxRegionSize, false), expected.popReadyActiveRegions(0, 1, maxRegionSize, false));
+        }
+
+        assertRegionsAreEqual(actual.popReadyActiveRegions(10, 1, maxRegionSize, true), expected.popReadyActiveRegions(10, 1, maxRegionSize, true));
+        Assert.assertTrue(actual.isEmpty());
+        Assert.assertNull(actual.getSpan());
+    }
+
+    @Test
+    public void testProfileContinuesAfterFlush() {
+        final BandPassActivityProfile expected = new BandPassActivityProfile(genomeLocParser, null);
+        final ArrayBandPassActivityProfile actual = new ArrayBandPassActivityProfile(genomeLocParser, null);
+
+        for ( final int start : Arrays.asList(10, 5000) ) {
+            for ( int i = 0; i < 3000; i++ ) {
+                final GenomeLoc loc = genomeLocParser.createGenomeLoc(contig, start + i);
+                final double prob = (i / 100) % 2 == 0 ? 0.0 : 1.0;
+                expected.add(new ActivityProfileState(loc, prob));
+                actual.add(new ActivityProfileState(loc, prob));
+                assertRegionsAreEqual(actual.popReadyActiveRegions(0, 25, 100, false), expected.popReadyActiveRegions(0, 25, 100, false));
+            }
+            assertRegionsAreEqual(actual.popReadyActiveRegions(0, 25, 100, true), expected.popReadyActiveRegions(0, 25, 100, true));
+        }
+    }
+
+    private ActivityProfileState makeState(final GenomeLoc loc, final double prob, final boolean softClips, final int nClips) {
+        return softClips
+                ? new ActivityProfileState(loc, prob, ActivityProfileState.Type.HIGH_QUALITY_SOFT_CLIPS, nClips)
+                : new ActivityProfileState(loc, prob);
+    }
+
+    private void assertProfilesAreEqual(final ActivityProfile actual, final ActivityProfile expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        Assert.assertEquals(actual.getSpan(), expected.getSpan());
+        Assert.assertEquals(actual.regionStartLoc, expected.regionStartLoc);
+        Assert.assertEquals(actual.getProbabilitiesAsArray(), expected.getProbabilitiesAsArray());
+    }
+
+    private void assertRegionsAreEqual(final List<ActiveRegion> actual, final List<ActiveRegion> expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        for ( int i = 0; i < actual.size(); i++ ) {
+            Assert.assertTrue(actual.get(i).equalExceptReads(expected.get(i)), "Regions differ: " + actual.get(i) + " vs. " + expected.get(i));
+
+            final List<ActivityProfileState> actualStates = actual.get(i).getSupportingStates();
+            final List<ActivityProfileState> expectedStates = expected.get(i).getSupportingStates();
+            Assert.assertEquals(actualStates.size(), expectedStates.size());
+            for ( int j = 0; j < actualStates.size(); j++ ) {
+                Assert.assertEquals(actualStates.get(j).getLoc(), expectedStates.get(j).getLoc());
+                Assert.assertEquals(actualStates.get(j).isActiveProb, expectedStates.get(j).isActiveProb);
+            }
+        }
+    }
+}
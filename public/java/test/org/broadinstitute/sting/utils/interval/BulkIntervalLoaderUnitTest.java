@@ -0,0 +1,222 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.interval;
+
+import net.sf.picard.util.Interval;
+import net.sf.picard.util.IntervalList;
+import net.sf.samtools.SAMFileHeader;
+import org.apache.commons.io.FileUtils;
+import org.broad.tribble.AbstractFeatureReader;
+import org.broad.tribble.FeatureReader;
+import org.broad.tribble.bed.BEDCodec;
+import org.broad.tribble.bed.BEDFeature;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that BulkIntervalLoader loads what the line-by-line parsers do, and leaves anything unusual to them
+ */
+public class BulkIntervalLoaderUnitTest extends BaseTest {
+    private final static String PICARD_HEADER = "@HD\tVN:1.0\tSO:coordinate\n@SQ\tSN:chr1\tLN:10000\n@SQ\tSN:chr2\tLN:10000\n@SQ\tSN:chr3\tLN:10000\n@SQ\tSN:chr4\tLN:10000\n";
+
+    private GenomeLocParser parser;
+
+    @BeforeClass
+    public void init() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(3, 1, 10000);
+        parser = new GenomeLocParser(header.getSequenceDictionary());
+    }
+
+    private File writeFile(final String contents, final String extension) throws IOException {
+        final File file = createTempFile("BulkIntervalLoaderUnitTest", extension);
+        FileUtils.writeStringToFile(file, contents);
+        return file;
+    }
+
+    private List<GenomeLoc> parseGATKLineByLine(final String contents) {
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        for ( final String line : contents.split("\r?\n") )
+            if ( line.trim().length() > 0 )
+                locs.add(parser.parseGenomeLoc(line.trim()));
+        return locs;
+    }
+
+    private List<GenomeLoc> parsePicardLineByLine(final File file) {
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        for ( final Interval interval : IntervalList.fromFile(file).getIntervals() )
+            if ( parser.isValidGenomeLoc(interval.getSequence(), interval.getStart(), interval.getEnd(), true) )
+                locs.add(parser.createGenomeLoc(interval.getSequence(), interval.getStart(), interval.getEnd(), true));
+        return locs;
+    }
+
+    private List<GenomeLoc> parseBEDLineByLine(final File file) throws IOException {
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        final FeatureReader<BEDFeature> reader = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), new BEDCodec(), false);
+        for ( final BEDFeature feature : reader.iterator() )
+            locs.add(parser.createGenomeLoc(feature));
+        reader.close();
+        return locs;
+    }
+
+    @DataProvider(name = "GATKFiles")
+    public Object[][] makeGATKFiles() {
+        return new Object[][]{
+                {""},
+                {"chr1\n"},
+                {"chr1:5\nchr2:1-100\nchr3:9,000+\n"},
+                {"chr2:1,000-2,000\n\n   \nchr1:1-1"},
+                {"  chr1:10-20  \r\nchr1:15-30\r\n"},
+                {"chr1:1-10000\nchr1:10000\n"}
+        };
+    }
+
+    @Test(dataProvider = "GATKFiles")
+    public void testGATKFile(final String contents) throws IOException {
+        final PackedIntervals intervals = BulkIntervalLoader.loadIntervalFile(parser, writeFile(contents, ".intervals"));
+        Assert.assertNotNull(intervals);
+        Assert.assertEquals(intervals.toGenomeLocs(parser), parseGATKLineByLine(contents));
+    }
+
+    @DataProvider(name = "PicardFiles")
+    public Object[][] makePicardFiles() {
+        return new Object[][]{
+                {PICARD_HEADER + "\n"},
+                {PICARD_HEADER + "chr1\t1\t100\t+\ttarget_1\n"},
+                {PICARD_HEADER + "chr2\t5\t10\t-\ta\nchr1\t1\t100\t+\tb\r\n\nchr3\t9000\t10000\t+\tc"},
+                // chr5 isn't in the header, chr4 isn't in the reference, chr3 is past its end, and the last is backwards
+                {PICARD_HEADER + "chr5\t1\t100\t+\ta\nchr4\t1\t100\t+\ta\nchr3\t9000\t10001\t+\tb\nchr1\t100\t99\t+\tc\nchr1\t1\t1\t+\td\n"}
+        };
+    }
+
+    @Test(dataProvider = "PicardFiles")
+    public void testPicardFile(final String contents) throws IOException {
+        final File file = writeFile(contents, ".interval_list");
+        final PackedIntervals intervals = BulkIntervalLoader.loadIntervalFile(parser, file);
+        Assert.assertNotNull(intervals);
+        Assert.assertEquals(intervals.toGenomeLocs(parser), parsePicardLineByLine(file));
+    }
+
+    @DataProvider(name = "BEDFiles")
+    public Object[][] makeBEDFiles() {
+        return new Object[][]{
+                {""},
+                {"chr1\t0\t100\n"},
+                {"track name=test\n#comment\nchr2\t4\t10\tname\t0\t-\nchr1\t0\n\nchr1\t99\t100\tname\n"},
+                {"browser position chr1\nchr3\t9000\t10100\n"} // BED intervals needn't be on the reference
+        };
+    }
+
+    @Test(dataProvider = "BEDFiles")
+    public void testBEDFile(final String contents) throws IOException {
+        final File file = writeFile(contents, ".bed");
+        final PackedIntervals intervals = BulkIntervalLoader.loadBEDFile(parser, file);
+        Assert.assertNotNull(intervals);
+        Assert.assertEquals(intervals.toGenomeLocs(parser), parseBEDLineByLine(file));
+    }
+
+    @DataProvider(name = "UnsupportedFiles")
+    public Object[][] makeUnsupportedFiles() {
+        return new Object[][]{
+                {"chr4:1-10\n", false},
+                {"chr1:0-10\n", false},
+                {"chr1:10-9\n", false},
+                {"chr1:1-10001\n", false},
+                {"chr1:1-\n", false},
+                {"chr1:-1\n", false},
+                {"chr1:1-99999999999\n", false},
+                {"chr1 :1-10\n", false},
+                {"chr1:1-10\tfoo\n", false},
+                {PICARD_HEADER, false},
+                {PICARD_HEADER + "chr1\t1\t100\t+\n", false},
+                {PICARD_HEADER + "chr1\t1\t100\t.\ta\n", false},
+                {PICARD_HEADER + "chr1\t1,000\t2,000\t+\ta\n", false},
+                {"chr4\t0\t10\n", true},
+                {"chr1 0 10\n", true},
+                {"chr1\t10\t9\n", true},
+                {"chr1\t-1\t9\n", true},
+                {"chr1\tabc\t9\n", true}
+        };
+    }
+
+    @Test(dataProvider = "UnsupportedFiles")
+    public void testUnsupportedFile(final String contents, final boolean isBED) throws IOException {
+        final File file = writeFile(contents, isBED ? ".bed" : ".intervals");
+        Assert.assertNull(isBED ? BulkIntervalLoader.loadBEDFile(parser, file) : BulkIntervalLoader.loadIntervalFile(parser, file));
+    }
+
+    @DataProvider(name = "ChunkSizes")
+    public Object[][] makeChunkSizes() {
+        return new Object[][]{{1}, {7}, {64}, {1024}};
+    }
+
+    @Test(dataProvider = "ChunkSizes")
+    public void testParallelChunks(final int chunkSize) throws IOException {
+        final Random random = new Random(chunkSize);
+        final StringBuilder gatk = new StringBuilder();
+        final StringBuilder picard = new StringBuilder(PICARD_HEADER);
+        final StringBuilder bed = new StringBuilder();
+        final String[] contigs = {"chr1", "chr2", "chr3"};
+        for ( int i = 0; i < 2000; i++ ) {
+            final String contig = contigs[random.nextInt(contigs.length)];
+            final int start = random.nextInt(9000) + 1;
+            final int stop = start + random.nextInt(1000);
+            gatk.append(String.format("%s:%d-%d%n", contig, start, stop));
+            picard.append(String.format("%s\t%d\t%d\t+\tinterval_%d%n", contig, start, stop, i));
+            bed.append(String.format("%s\t%d\t%d%n", contig, start - 1, stop));
+        }
+
+        final int originalChunkSize = BulkIntervalLoader.CHUNK_SIZE;
+        BulkIntervalLoader.CHUNK_SIZE = chunkSize;
+        try {
+            final File picardFile = writeFile(picard.toString(), ".interval_list");
+            final File bedFile = writeFile(bed.toString(), ".bed");
+            Assert.assertEquals(BulkIntervalLoader.loadIntervalFile(parser, writeFile(gatk.toString(), ".intervals")).toGenomeLocs(parser), parseGATKLineByLine(gatk.toString()));
+            Assert.assertEquals(BulkIntervalLoader.loadIntervalFile(parser, picardFile).toGenomeLocs(parser), parsePicardLineByLine(picardFile));
+            Assert.assertEquals(BulkIntervalLoader.loadBEDFile(parser, bedFile).toGenomeLocs(parser), parseBEDLineByLine(bedFile));
+        } finally {
+            BulkIntervalLoader.CHUNK_SIZE = originalChunkSize;
+        }
+    }
+
+    @Test
+    public void testIntervalFileToListMatchesLineByLine() throws IOException {
+        final String contents = "chr2:1-100\nchr1:5\nchr1:3-7\n";
+        Assert.assertEquals(IntervalUtils.intervalFileToList(parser, writeFile(contents, ".intervals").getAbsolutePath()), parseGATKLineByLine(contents));
+    }
+}
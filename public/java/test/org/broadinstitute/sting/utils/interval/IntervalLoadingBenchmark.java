@@ -0,0 +1,101 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.interval;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.GenomeLocSortedSet;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.text.XReadLines;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Caliper microbenchmark of loading, sorting and merging a GATK format interval file, line by line into GenomeLocs
+ * as the engine used to, and with BulkIntervalLoader into PackedIntervals
+ */
+public class IntervalLoadingBenchmark extends SimpleBenchmark {
+    private final static int N_CONTIGS = 24;
+    private final static int CONTIG_SIZE = 200000000;
+
+    @Param({"10000", "1000000", "10000000"})
+    int nIntervals; // set automatically by framework
+
+    private GenomeLocParser genomeLocParser;
+    private File intervalFile;
+
+    @Override protected void setUp() throws IOException {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(N_CONTIGS, 1, CONTIG_SIZE);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+
+        // short intervals over random contigs, like a mask of individual sites
+        intervalFile = File.createTempFile("IntervalLoadingBenchmark", ".intervals");
+        intervalFile.deleteOnExit();
+        final PrintStream out = new PrintStream(intervalFile);
+        final Random random = new Random(42);
+        for ( int i = 0; i < nIntervals; i++ ) {
+            final int start = random.nextInt(CONTIG_SIZE - 100) + 1;
+            out.printf("chr%d:%d-%d%n", random.nextInt(N_CONTIGS) + 1, start, start + random.nextInt(100));
+        }
+        out.close();
+    }
+
+    @Override protected void tearDown() {
+        intervalFile.delete();
+    }
+
+    public void timeLineByLine(int rep) throws FileNotFoundException {
+        for ( int i = 0; i < rep; i++ ) {
+            final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+            for ( final String line : new XReadLines(intervalFile) )
+                locs.add(genomeLocParser.parseGenomeLoc(line));
+            final GenomeLocSortedSet set = IntervalUtils.sortAndMergeIntervals(genomeLocParser, locs, IntervalMergingRule.ALL);
+            if ( set.isEmpty() ) throw new IllegalStateException("No intervals loaded");
+        }
+    }
+
+    public void timeBulkLoader(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final PackedIntervals intervals = BulkIntervalLoader.loadIntervalFile(genomeLocParser, intervalFile);
+            intervals.sortAndMerge(IntervalMergingRule.ALL);
+            final GenomeLocSortedSet set = intervals.toGenomeLocSortedSet(genomeLocParser);
+            if ( set.isEmpty() ) throw new IllegalStateException("No intervals loaded");
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(IntervalLoadingBenchmark.class, args);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.interval;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.sam.ArtificialBAMBuilder;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests of LocusWorkEstimate and of splitting intervals into scatter parts by estimated work
+ */
+public class LocusWorkEstimateUnitTest extends BaseTest {
+    private final static int CONTIG_SIZE = 10 * LocusWorkEstimate.WINDOW_SIZE;
+    private SAMFileHeader header;
+    private GenomeLocParser parser;
+
+    @BeforeClass
+    public void init() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(3, 1, CONTIG_SIZE);
+        parser = new GenomeLocParser(header.getSequenceDictionary());
+    }
+
+    private GenomeLoc loc(final int contig, final int start, final int stop) {
+        return parser.createGenomeLoc("chr" + (contig + 1), contig, start, stop);
+    }
+
+    private List<GenomeLoc> wholeContigs() {
+        return Arrays.asList(loc(0, 1, CONTIG_SIZE), loc(1, 1, CONTIG_SIZE), loc(2, 1, CONTIG_SIZE));
+    }
+
+    /**
+     * @return an estimate with one unit of work per base, and all of the reads in the first window of chr2
+     */
+    private LocusWorkEstimate skewedWork() {
+        final LocusWorkEstimate work = new LocusWorkEstimate(header.getSequenceDictionary());
+        work.addWorkPerBase(1);
+        work.addWork(1, 1, LocusWorkEstimate.WINDOW_SIZE, 3.0 * CONTIG_SIZE);
+        return work;
+    }
+
+    private double totalWork(final LocusWorkEstimate work, final List<GenomeLoc> locs) {
+        double total = 0;
+        for ( final GenomeLoc loc : locs )
+            total += work.getWork(loc);
+        return total;
+    }
+
+    @Test
+    public void testGetWork() {
+        final LocusWorkEstimate work = new LocusWorkEstimate(header.getSequenceDictionary());
+        Assert.assertEquals(work.getWork(loc(0, 1, CONTIG_SIZE)), 0.0);
+
+        work.addWorkPerBase(0.5);
+        work.addWork(0, 101, 300, 1000);
+        Assert.assertEquals(work.getWork(loc(0, 1, LocusWorkEstimate.WINDOW_SIZE)), 0.5 * LocusWorkEstimate.WINDOW_SIZE + 1000, 1e-9);
+        Assert.assertEquals(work.getWork(loc(0, 1, CONTIG_SIZE)), 0.5 * CONTIG_SIZE + 1000, 1e-6);
+        Assert.assertEquals(work.getWork(loc(1, 1, CONTIG_SIZE)), 0.5 * CONTIG_SIZE, 1e-9);
+
+        // within a window work is uniform
+        Assert.assertEquals(work.getWork(loc(0, 1, LocusWorkEstimate.WINDOW_SIZE / 2)), 0.25 * LocusWorkEstimate.WINDOW_SIZE + 500, 1e-9);
+    }
+
+    @Test
+    public void testAddWorkAcrossWindows() {
+        final LocusWorkEstimate work = new LocusWorkEstimate(header.getSequenceDictionary());
+        work.addWork(2, LocusWorkEstimate.WINDOW_SIZE / 2 + 1, 2 * LocusWorkEstimate.WINDOW_SIZE + LocusWorkEstimate.WINDOW_SIZE / 2, 2 * LocusWorkEstimate.WINDOW_SIZE);
+        Assert.assertEquals(work.getWork(loc(2, 1, LocusWorkEstimate.WINDOW_SIZE)), LocusWorkEstimate.WINDOW_SIZE / 2.0, 1e-9);
+        Assert.assertEquals(work.getWork(loc(2, LocusWorkEstimate.WINDOW_SIZE + 1, 2 * LocusWorkEstimate.WINDOW_SIZE)), LocusWorkEstimate.WINDOW_SIZE, 1e-9);
+        Assert.assertEquals(work.getWork(loc(2, 1, CONTIG_SIZE)), 2.0 * LocusWorkEstimate.WINDOW_SIZE, 1e-9);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAddWorkOffContig() {
+        new LocusWorkEstimate(header.getSequenceDictionary()).addWork(0, 1, CONTIG_SIZE + 1, 1);
+    }
+
+    @Test
+    public void testGetPositionReachingWork() {
+        final LocusWorkEstimate work = new LocusWorkEstimate(header.getSequenceDictionary());
+        work.addWorkPerBase(2);
+        final GenomeLoc loc = loc(0, 101, 1100);
+        Assert.assertEquals(work.getPositionReachingWork(loc, 0), 101);
+        Assert.assertEquals(work.getPositionReachingWork(loc, 2), 101);
+        Assert.assertEquals(work.getPositionReachingWork(loc, 3), 102);
+        Assert.assertEquals(work.getPositionReachingWork(loc, 1000), 600);
+        Assert.assertEquals(work.getPositionReachingWork(loc, 1e9), 1100);
+
+        // the work is spread over the first window, and there's none beyond it
+        final LocusWorkEstimate skewed = new LocusWorkEstimate(header.getSequenceDictionary());
+        skewed.addWork(0, 1, 10, 10);
+        Assert.assertEquals(skewed.getPositionReachingWork(loc(0, 1, CONTIG_SIZE), 5), LocusWorkEstimate.WINDOW_SIZE / 2);
+        Assert.assertEquals(skewed.getPositionReachingWork(loc(0, 1, CONTIG_SIZE), 20), CONTIG_SIZE);
+    }
+
+    @DataProvider(name = "BalancedSplitPoints")
+    public Object[][] makeBalancedSplitPoints() {
+        return new Object[][]{
+                {new double[]{1, 1, 1, 1}, 2, Arrays.asList(2, 4)},
+                {new double[]{1, 1, 1, 1}, 4, Arrays.asList(1, 2, 3, 4)},
+                {new double[]{10, 1, 1, 1}, 2, Arrays.asList(1, 4)},
+                {new double[]{1, 1, 1, 10}, 2, Arrays.asList(3, 4)},
+                {new double[]{1, 1, 1, 10}, 3, Arrays.asList(2, 3, 4)},
+                {new double[]{100, 0, 0, 0}, 4, Arrays.asList(1, 2, 3, 4)},
+                {new double[]{0, 0, 0, 0, 0, 0}, 3, Arrays.asList(2, 4, 6)},
+                {new double[]{5}, 1, Arrays.asList(1)},
+        };
+    }
+
+    @Test(dataProvider = "BalancedSplitPoints")
+    public void testGetBalancedSplitPoints(final double[] weights, final int numParts, final List<Integer> expected) {
+        Assert.assertEquals(IntervalUtils.getBalancedSplitPoints(weights, numParts), expected);
+    }
+
+    @DataProvider(name = "NumParts")
+    public Object[][] makeNumParts() {
+        return new Object[][]{{1}, {2}, {3}, {4}, {7}, {20}};
+    }
+
+    @Test(dataProvider = "NumParts")
+    public void testSplitLocusIntervalsByWork(final int numParts) {
+        final LocusWorkEstimate work = skewedWork();
+        final List<GenomeLoc> locs = wholeContigs();
+        final List<List<GenomeLoc>> splits = IntervalUtils.splitLocusIntervalsByWork(locs, numParts, work);
+        Assert.assertEquals(splits.size(), numParts);
+
+        // the parts tile the original intervals
+        final List<GenomeLoc> flattened = new ArrayList<GenomeLoc>();
+        for ( final List<GenomeLoc> split : splits )
+            flattened.addAll(split);
+        Assert.assertEquals(IntervalUtils.intervalSize(flattened), IntervalUtils.intervalSize(locs));
+        Assert.assertEquals(IntervalUtils.mergeIntervalLocations(flattened, IntervalMergingRule.ALL), locs);
+
+        // and each has about its share of the work
+        final double target = totalWork(work, locs) / numParts;
+        for ( final List<GenomeLoc> split : splits )
+            Assert.assertEquals(totalWork(work, split), target, target * 0.001 + 100, "Unbalanced split " + split);
+    }
+
+    @Test
+    public void testSplitLocusIntervalsByWorkConcentratesParts() {
+        // half of the work is in the first window of chr2, so half of the parts should be there
+        final LocusWorkEstimate work = skewedWork();
+        final List<List<GenomeLoc>> splits = IntervalUtils.splitLocusIntervalsByWork(wholeContigs(), 4, work);
+        Assert.assertEquals(splits.size(), 4);
+        final List<GenomeLoc> second = splits.get(1);
+        Assert.assertEquals(second.size(), 1);
+        Assert.assertEquals(second.get(0).getContig(), "chr2");
+        Assert.assertTrue(second.get(0).getStart() > 1 && second.get(0).getStop() < LocusWorkEstimate.WINDOW_SIZE, "The part isn't within the dense window: " + second);
+    }
+
+    @Test
+    public void testSplitLocusIntervalsByWorkWithoutWork() {
+        final LocusWorkEstimate work = new LocusWorkEstimate(header.getSequenceDictionary());
+        Assert.assertEquals(IntervalUtils.splitLocusIntervalsByWork(wholeContigs(), 3, work), IntervalUtils.splitLocusIntervals(wholeContigs(), 3));
+    }
+
+    @Test
+    public void testSplitFixedIntervalsByWork() {
+        final LocusWorkEstimate work = skewedWork();
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        for ( int contig = 0; contig < 3; contig++ )
+            for ( int start = 1; start < CONTIG_SIZE; start += LocusWorkEstimate.WINDOW_SIZE )
+                locs.add(loc(contig, start, start + 99));
+
+        // the by-size split puts 10 locs in each part, but the dense loc on chr2 has as much work as all the others
+        final List<List<GenomeLoc>> splits = IntervalUtils.splitFixedIntervalsByWork(locs, 2, work);
+        Assert.assertEquals(splits.size(), 2);
+        Assert.assertEquals(splits.get(0).size(), 11);
+        Assert.assertEquals(splits.get(0).get(10), loc(1, 1, 100));
+        Assert.assertEquals(splits.get(1).size(), 19);
+    }
+
+    @Test(expectedExceptions = UserException.BadArgumentValue.class)
+    public void testSplitFixedIntervalsByWorkTooManyParts() {
+        IntervalUtils.splitFixedIntervalsByWork(wholeContigs(), 4, skewedWork());
+    }
+
+    @Test
+    public void testSplitContigIntervalsByWork() {
+        final LocusWorkEstimate work = skewedWork();
+        work.addWork(0, 1, 100, 1000);
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        for ( int contig = 0; contig < 3; contig++ ) {
+            locs.add(loc(contig, 1, 100));
+            locs.add(loc(contig, 1001, 1100));
+        }
+
+        // chr2 has most of the work, so the first part ends before it
+        final List<List<GenomeLoc>> splits = IntervalUtils.splitContigIntervalsByWork(locs, 2, work);
+        Assert.assertEquals(splits.size(), 2);
+        Assert.assertEquals(splits.get(0), locs.subList(0, 2));
+        Assert.assertEquals(splits.get(1), locs.subList(2, 6));
+
+        final List<List<GenomeLoc>> perContig = IntervalUtils.splitContigIntervalsByWork(locs, 3, work);
+        Assert.assertEquals(perContig, Arrays.asList(locs.subList(0, 2), locs.subList(2, 4), locs.subList(4, 6)));
+    }
+
+    @Test(expectedExceptions = UserException.BadArgumentValue.class)
+    public void testSplitContigIntervalsByWorkTooManyParts() {
+        IntervalUtils.splitContigIntervalsByWork(Collections.singletonList(loc(0, 1, 100)), 2, skewedWork());
+    }
+
+    @Test
+    public void testAddPriorRunCosts() throws FileNotFoundException {
+        final File costs = createTempFile("priorRunCosts", ".txt");
+        final PrintWriter writer = new PrintWriter(costs);
+        writer.println("chr1:1-100\t50");
+        writer.println("chr3:1001-1100\t10.5");
+        writer.close();
+
+        final LocusWorkEstimate work = new LocusWorkEstimate(header.getSequenceDictionary());
+        work.addPriorRunCosts(parser, costs);
+        Assert.assertEquals(work.getWork(loc(0, 1, CONTIG_SIZE)), 50.0, 1e-9);
+        Assert.assertEquals(work.getWork(loc(1, 1, CONTIG_SIZE)), 0.0, 1e-9);
+        Assert.assertEquals(work.getWork(loc(2, 1, CONTIG_SIZE)), 10.5, 1e-9);
+    }
+
+    @Test(expectedExceptions = UserException.MalformedFile.class)
+    public void testAddMalformedPriorRunCosts() throws FileNotFoundException {
+        final File costs = createTempFile("priorRunCosts", ".txt");
+        final PrintWriter writer = new PrintWriter(costs);
+        writer.println("chr1:1-100\tfast");
+        writer.close();
+
+        new LocusWorkEstimate(header.getSequenceDictionary()).addPriorRunCosts(parser, costs);
+    }
+
+    @Test
+    public void testAddBAMs() {
+        final ArtificialBAMBuilder builder = new ArtificialBAMBuilder(header.getSequenceDictionary(), 10, 1000);
+        builder.setAlignmentStart(2 * LocusWorkEstimate.WINDOW_SIZE + 1);
+        final File bam = builder.makeTemporarilyBAMFile();
+
+        final LocusWorkEstimate work = new LocusWorkEstimate(header.getSequenceDictionary());
+        work.addBAMs(Collections.singletonList(bam));
+
+        // the reads are all in the third window of chr1, which has far more work than any other
+        final double readWindowWork = work.getWork(loc(0, 2 * LocusWorkEstimate.WINDOW_SIZE + 1, 3 * LocusWorkEstimate.WINDOW_SIZE));
+        final double emptyWindowWork = work.getWork(loc(0, 1, LocusWorkEstimate.WINDOW_SIZE));
+        Assert.assertTrue(readWindowWork > 0);
+        Assert.assertTrue(emptyWindowWork > 0, "Loci without reads should still have some work");
+        Assert.assertTrue(readWindowWork > 10 * emptyWindowWork, "Reads don't dominate the work: " + readWindowWork + " vs " + emptyWindowWork);
+        Assert.assertEquals(work.getWork(loc(1, 1, LocusWorkEstimate.WINDOW_SIZE)), emptyWindowWork, 1e-9);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.interval;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that PackedIntervals sort, merge, intersect and pad as the GenomeLoc based IntervalUtils methods do
+ */
+public class PackedIntervalsUnitTest extends BaseTest {
+    private final static int CONTIG_SIZE = 10000;
+    private GenomeLocParser parser;
+
+    @BeforeClass
+    public void init() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(3, 1, CONTIG_SIZE);
+        parser = new GenomeLocParser(header.getSequenceDictionary());
+    }
+
+    private List<GenomeLoc> randomLocs(final Random random, final int n, final int maxLength) {
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>(n);
+        for ( int i = 0; i < n; i++ ) {
+            final int contig = random.nextInt(3);
+            final int start = random.nextInt(CONTIG_SIZE) + 1;
+            final int stop = Math.min(CONTIG_SIZE, start + random.nextInt(maxLength));
+            locs.add(parser.createGenomeLoc("chr" + (contig + 1), contig, start, stop));
+        }
+        return locs;
+    }
+
+    @DataProvider(name = "RandomIntervals")
+    public Object[][] makeRandomIntervals() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int n : Arrays.asList(0, 1, 10, 100, 1000) )
+            for ( final int maxLength : Arrays.asList(1, 10, 100) )
+                for ( final IntervalMergingRule rule : IntervalMergingRule.values() )
+                    tests.add(new Object[]{n, maxLength, rule});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "RandomIntervals")
+    public void testSortAndMerge(final int n, final int maxLength, final IntervalMergingRule rule) {
+        final List<GenomeLoc> locs = randomLocs(new Random(n + maxLength), n, maxLength);
+        final PackedIntervals intervals = PackedIntervals.fromGenomeLocs(locs);
+        intervals.sortAndMerge(rule);
+        Assert.assertEquals(intervals.toGenomeLocs(parser), IntervalUtils.sortAndMergeIntervals(parser, locs, rule).toList());
+    }
+
+    @Test(dataProvider = "RandomIntervals")
+    public void testIntersect(final int n, final int maxLength, final IntervalMergingRule rule) {
+        if ( n == 0 ) return; // the shortcut for empty sets is the same for both
+
+        final Random random = new Random(n + maxLength);
+        final List<GenomeLoc> setOne = randomLocs(random, n, maxLength * 10);
+        final List<GenomeLoc> setTwo = randomLocs(random, n, maxLength * 10);
+        final List<GenomeLoc> sortedOne = new ArrayList<GenomeLoc>(setOne);
+        final List<GenomeLoc> sortedTwo = new ArrayList<GenomeLoc>(setTwo);
+        Collections.sort(sortedOne);
+        Collections.sort(sortedTwo);
+
+        List<GenomeLoc> expected = null;
+        try {
+            expected = IntervalUtils.sortAndMergeIntervals(parser, IntervalUtils.mergeListsBySetOperator(sortedOne, sortedTwo, IntervalSetRule.INTERSECTION), rule).toList();
+        } catch ( UserException.BadInput e ) {
+            // expected is null, so we must throw too
+        }
+
+        try {
+            final PackedIntervals intersection = IntervalUtils.mergePackedIntervalsBySetOperator(
+                    PackedIntervals.fromGenomeLocs(setOne), PackedIntervals.fromGenomeLocs(setTwo), IntervalSetRule.INTERSECTION);
+            intersection.sortAndMerge(rule);
+            Assert.assertEquals(intersection.toGenomeLocs(parser), expected);
+        } catch ( UserException.BadInput e ) {
+            Assert.assertNull(expected, "Packed intersection was empty but the GenomeLoc one wasn't");
+        }
+    }
+
+    @Test(expectedExceptions = UserException.BadInput.class)
+    public void testEmptyIntersection() {
+        final List<GenomeLoc> setOne = Arrays.asList(parser.createGenomeLoc("chr1", 0, 1, 10));
+        final List<GenomeLoc> setTwo = Arrays.asList(parser.createGenomeLoc("chr1", 0, 11, 20));
+        IntervalUtils.mergePackedIntervalsBySetOperator(PackedIntervals.fromGenomeLocs(setOne), PackedIntervals.fromGenomeLocs(setTwo), IntervalSetRule.INTERSECTION);
+    }
+
+    @Test(dataProvider = "RandomIntervals")
+    public void testPad(final int n, final int maxLength, final IntervalMergingRule rule) {
+        final List<GenomeLoc> locs = IntervalUtils.sortAndMergeIntervals(parser, randomLocs(new Random(n + maxLength), n, maxLength), rule).toList();
+        for ( final int padding : Arrays.asList(1, 50, 2 * CONTIG_SIZE) ) {
+            final PackedIntervals padded = PackedIntervals.fromGenomeLocs(locs).pad(parser, padding);
+            Assert.assertEquals(padded.toGenomeLocs(parser), IntervalUtils.getIntervalsWithFlanks(parser, locs, padding));
+        }
+    }
+
+    @Test
+    public void testSortLargeCoordinates() {
+        // exercise every byte of the radix sort's keys
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(300, 1, Integer.MAX_VALUE - 1);
+        final GenomeLocParser bigParser = new GenomeLocParser(header.getSequenceDictionary());
+        final Random random = new Random(42);
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        for ( int i = 0; i < 10000; i++ ) {
+            final int contig = random.nextInt(300);
+            final int start = random.nextInt(Integer.MAX_VALUE - 100) + 1;
+            locs.add(bigParser.createGenomeLoc("chr" + (contig + 1), contig, start, start + random.nextInt(10)));
+        }
+
+        final PackedIntervals intervals = PackedIntervals.fromGenomeLocs(locs);
+        intervals.sortAndMerge(IntervalMergingRule.ALL);
+        Assert.assertEquals(intervals.toGenomeLocs(bigParser), IntervalUtils.sortAndMergeIntervals(bigParser, locs, IntervalMergingRule.ALL).toList());
+    }
+}
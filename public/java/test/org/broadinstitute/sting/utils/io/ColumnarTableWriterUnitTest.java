@@ -0,0 +1,193 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.io;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.io.ColumnarTableWriter.ColumnType;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+public class ColumnarTableWriterUnitTest extends BaseTest {
+    private final static List<String> NAMES = Arrays.asList("int", "double", "string");
+    private final static List<ColumnType> TYPES = Arrays.asList(ColumnType.INTEGER, ColumnType.DOUBLE, ColumnType.STRING);
+
+    @DataProvider(name = "RoundTrip")
+    public Object[][] makeRoundTrip() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int nRows : Arrays.asList(0, 1, 7, 8, 9, 100, 1000) )
+            for ( final int rowsPerChunk : Arrays.asList(1, 8, 100, 10000) )
+                for ( final int nDistinctStrings : Arrays.asList(1, 5, 100000) )
+                    tests.add(new Object[]{nRows, rowsPerChunk, nDistinctStrings});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "RoundTrip")
+    public void testRoundTrip(final int nRows, final int rowsPerChunk, final int nDistinctStrings) {
+        final Random random = new Random(nRows + rowsPerChunk + nDistinctStrings);
+        final List<Object[]> expected = new ArrayList<Object[]>(nRows);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ColumnarTableWriter writer = new ColumnarTableWriter(out, NAMES, TYPES, ".", rowsPerChunk);
+
+        long position = random.nextInt(1000);
+        for ( int i = 0; i < nRows; i++ ) {
+            position += random.nextInt(i % 2 == 0 ? 100 : Integer.MAX_VALUE);
+            final double d = random.nextGaussian();
+            final String s = "value" + random.nextInt(nDistinctStrings);
+
+            switch ( random.nextInt(6) ) {
+                case 0: // values in their natural types
+                    writer.writeRow(new Object[]{position, d, s});
+                    expected.add(new Object[]{position, d, s});
+                    break;
+                case 1: // numbers as strings
+                    writer.writeRow(new Object[]{Long.toString(position), Double.toString(d), new StringBuilder(s)});
+                    expected.add(new Object[]{position, d, s});
+                    break;
+                case 2: // missing values
+                    writer.writeRow(new Object[]{null, null, null});
+                    expected.add(new Object[]{null, null, null});
+                    break;
+                case 3: // the missing value string, which is only missing for numbers
+                    writer.writeRow(new Object[]{".", ".", "."});
+                    expected.add(new Object[]{null, null, "."});
+                    break;
+                case 4: // other types
+                    writer.writeRow(new Object[]{(int)(position % 100000), (float)0.5, new int[]{1, 2}});
+                    expected.add(new Object[]{position % 100000, 0.5, "1,2"});
+                    break;
+                default: // extremes
+                    writer.writeRow(new Object[]{Long.MIN_VALUE, Double.NaN, ""});
+                    expected.add(new Object[]{Long.MIN_VALUE, Double.NaN, ""});
+            }
+        }
+        writer.finish();
+
+        Assert.assertEquals(readAll(out.toByteArray(), NAMES, TYPES), expected);
+    }
+
+    @Test
+    public void testStringFormatting() {
+        final List<String> names = Arrays.asList("s");
+        final List<ColumnType> types = Arrays.asList(ColumnType.STRING);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ColumnarTableWriter writer = new ColumnarTableWriter(out, names, types, null);
+        writer.writeRow(new Object[]{Arrays.asList("a", 1, new int[]{2, 3})});
+        writer.writeRow(new Object[]{new String[]{"x", "y"}});
+        writer.writeRow(new Object[]{1.5});
+        writer.writeRow(new Object[]{"caf\u00e9 \u00fcber"});
+        writer.writeRow(new Object[]{true});
+        writer.finish();
+
+        final List<Object[]> expected = Arrays.asList(new Object[]{"a,1,2,3"}, new Object[]{"x,y"}, new Object[]{"1.5"},
+                new Object[]{"caf\u00e9 \u00fcber"}, new Object[]{"true"});
+        Assert.assertEquals(readAll(out.toByteArray(), names, types), expected);
+    }
+
+    @Test
+    public void testNoColumns() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ColumnarTableWriter writer = new ColumnarTableWriter(out, Collections.<String>emptyList(), Collections.<ColumnType>emptyList(), null);
+        writer.writeRow(new Object[0]);
+        writer.writeRow(new Object[0]);
+        writer.finish();
+
+        final List<Object[]> expected = Arrays.asList(new Object[0], new Object[0]);
+        Assert.assertEquals(readAll(out.toByteArray(), Collections.<String>emptyList(), Collections.<ColumnType>emptyList()), expected);
+    }
+
+    @Test
+    public void testEncodings() {
+        final ByteArrayOutputStream repetitive = new ByteArrayOutputStream();
+        final ByteArrayOutputStream distinct = new ByteArrayOutputStream();
+        final ColumnarTableWriter repetitiveWriter = new ColumnarTableWriter(repetitive, NAMES, TYPES, null);
+        final ColumnarTableWriter distinctWriter = new ColumnarTableWriter(distinct, NAMES, TYPES, null);
+        for ( int i = 0; i < 1000; i++ ) {
+            repetitiveWriter.writeRow(new Object[]{i, 0.0, i % 2 == 0 ? "0/1" : "1/1"});
+            distinctWriter.writeRow(new Object[]{(long)i << 40, 0.0, "0/1" + i});
+        }
+        repetitiveWriter.finish();
+        distinctWriter.finish();
+
+        // small deltas and a dictionary of two strings should take about a byte each for the ints and strings
+        Assert.assertTrue(repetitive.size() < 1000 * (1 + 8 + 1) + 100, "Repetitive table is " + repetitive.size() + " bytes");
+        // whereas large deltas need 6 bytes, and distinct strings 5 or more
+        Assert.assertTrue(distinct.size() > 1000 * (6 + 8 + 5), "Distinct table is " + distinct.size() + " bytes");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadInteger() {
+        new ColumnarTableWriter(new ByteArrayOutputStream(), NAMES, TYPES, null).writeRow(new Object[]{"1.5", 1.5, "x"});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadDouble() {
+        new ColumnarTableWriter(new ByteArrayOutputStream(), NAMES, TYPES, null).writeRow(new Object[]{1, Arrays.asList(1.5, 2.5), "x"});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongNumberOfValues() {
+        new ColumnarTableWriter(new ByteArrayOutputStream(), NAMES, TYPES, null).writeRow(new Object[]{1, 1.5});
+    }
+
+    @Test(expectedExceptions = UserException.MalformedFile.class)
+    public void testNotATable() {
+        new ColumnarTableReader(new ByteArrayInputStream("CHROM\tPOS\n".getBytes()));
+    }
+
+    @Test(expectedExceptions = UserException.MalformedFile.class)
+    public void testTruncatedTable() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ColumnarTableWriter writer = new ColumnarTableWriter(out, NAMES, TYPES, null);
+        writer.writeRow(new Object[]{1, 1.5, "x"});
+        writer.finish();
+
+        final byte[] bytes = out.toByteArray();
+        readAll(Arrays.copyOf(bytes, bytes.length - 10), NAMES, TYPES);
+    }
+
+    private static List<Object[]> readAll(final byte[] table, final List<String> expectedNames, final List<ColumnType> expectedTypes) {
+        final ColumnarTableReader reader = new ColumnarTableReader(new ByteArrayInputStream(table));
+        Assert.assertEquals(reader.getColumnNames(), expectedNames);
+        Assert.assertEquals(reader.getColumnTypes(), expectedTypes);
+
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        while ( reader.nextChunk() ) {
+            for ( int row = 0; row < reader.getNumberOfRows(); row++ ) {
+                final Object[] values = new Object[expectedNames.size()];
+                for ( int column = 0; column < values.length; column++ )
+                    values[column] = reader.getValue(column, row);
+                rows.add(values);
+            }
+        }
+        Assert.assertFalse(reader.nextChunk());
+        return rows;
+    }
+}
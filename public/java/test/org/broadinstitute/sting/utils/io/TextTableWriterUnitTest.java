@@ -0,0 +1,105 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.io;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+public class TextTableWriterUnitTest extends BaseTest {
+    private final static String EOL = System.getProperty("line.separator");
+
+    @DataProvider(name = "Values")
+    public Object[][] makeValues() {
+        return new Object[][]{
+                {"abc", "abc"},
+                {new StringBuilder("0/1"), "0/1"},
+                {"", ""},
+                {null, "NA"},
+                {0, "0"},
+                {-12, "-12"},
+                {Long.MAX_VALUE, Long.toString(Long.MAX_VALUE)},
+                {Long.MIN_VALUE, Long.toString(Long.MIN_VALUE)},
+                {(short)7, "7"},
+                {1.5, "1.5"},
+                {1e-10, "1.0E-10"},
+                {true, "true"},
+                {new int[]{}, ""},
+                {new int[]{10, 5}, "10,5"},
+                {new double[]{0.5, 1}, "0.5,1.0"},
+                {new String[]{"A", "C"}, "A,C"},
+                {Arrays.asList("1", "2"), "1,2"},
+                {Arrays.asList(new int[]{10, 5}), "10,5"},
+                {Arrays.asList(Arrays.asList(1, 2), 3), "1,2,3"},
+        };
+    }
+
+    @Test(dataProvider = "Values")
+    public void testValueFormatting(final Object value, final String expected) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final TextTableWriter writer = new TextTableWriter(out, Arrays.asList("a", "b"), "NA");
+        writer.writeRow(new Object[]{value, "x"});
+        writer.finish();
+        Assert.assertEquals(out.toString(), "a\tb" + EOL + expected + "\tx" + EOL);
+    }
+
+    @Test
+    public void testManyRows() {
+        // enough rows to flush the buffer several times
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StringBuilder expected = new StringBuilder("POS\tGT" + EOL);
+        final TextTableWriter writer = new TextTableWriter(out, Arrays.asList("POS", "GT"), "NA");
+        final Object[] values = new Object[2];
+        final StringBuilder gt = new StringBuilder();
+        for ( int i = 0; i < 100000; i++ ) {
+            gt.setLength(0);
+            gt.append(i % 3).append('/').append(1);
+            values[0] = i;
+            values[1] = gt;
+            writer.writeRow(values);
+            expected.append(i).append('\t').append(gt).append(EOL);
+        }
+        writer.finish();
+        Assert.assertEquals(out.toString(), expected.toString());
+    }
+
+    @Test
+    public void testNoColumns() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final TextTableWriter writer = new TextTableWriter(out, Collections.<String>emptyList(), "NA");
+        writer.writeRow(new Object[0]);
+        writer.finish();
+        Assert.assertEquals(out.toString(), EOL + EOL);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongNumberOfValues() {
+        new TextTableWriter(new ByteArrayOutputStream(), Arrays.asList("a", "b"), "NA").writeRow(new Object[]{1});
+    }
+}
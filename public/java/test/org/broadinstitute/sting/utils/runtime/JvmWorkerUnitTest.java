@@ -0,0 +1,112 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.runtime;
+
+import org.apache.commons.io.FileUtils;
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class JvmWorkerUnitTest extends BaseTest {
+    /**
+     * Prints its first argument and how many times it has run in this JVM, then exits with the status of its
+     * second argument if there is one
+     */
+    public static class CountingMain {
+        private static int runs = 0;
+
+        public static void main(String[] args) {
+            runs++;
+            System.out.println(args[0] + " run " + runs);
+            System.err.println("err " + runs);
+            if (args.length > 1) {
+                try {
+                    System.exit(Integer.parseInt(args[1]));
+                } catch (Throwable t) {
+                    // like CommandLineGATK, exit again if the first exit throws
+                    System.exit(99);
+                }
+            }
+        }
+    }
+
+    private static JvmWorkerProcess startWorker(final String mainClass) throws IOException {
+        final List<String> java = Collections.singletonList(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        return new JvmWorkerProcess(java, System.getProperty("java.class.path"), mainClass, null);
+    }
+
+    @Test(timeOut = 60 * 1000)
+    public void testWorkerIsReused() throws IOException {
+        final JvmWorkerProcess worker = startWorker(CountingMain.class.getName());
+        try {
+            final File out = createTempFile("JvmWorkerUnitTest", ".out");
+            Assert.assertEquals(worker.run(Arrays.asList("first"), out, null), 0);
+            Assert.assertEquals(worker.run(Arrays.asList("second", "0"), out, null), 0);
+            Assert.assertEquals(worker.run(Arrays.asList("third"), out, null), 0);
+            Assert.assertTrue(worker.isAlive());
+            Assert.assertEquals(FileUtils.readFileToString(out),
+                    String.format("first run 1%nerr 1%nsecond run 2%nerr 2%nthird run 3%nerr 3%n"));
+        } finally {
+            worker.destroy();
+        }
+    }
+
+    @Test(timeOut = 60 * 1000)
+    public void testSeparateErrorFile() throws IOException {
+        final JvmWorkerProcess worker = startWorker(CountingMain.class.getName());
+        try {
+            final File out = createTempFile("JvmWorkerUnitTest", ".out");
+            final File err = createTempFile("JvmWorkerUnitTest", ".err");
+            Assert.assertEquals(worker.run(Arrays.asList("first"), out, err), 0);
+            Assert.assertEquals(FileUtils.readFileToString(out), String.format("first run 1%n"));
+            Assert.assertEquals(FileUtils.readFileToString(err), String.format("err 1%n"));
+        } finally {
+            worker.destroy();
+        }
+    }
+
+    @Test(timeOut = 60 * 1000)
+    public void testWorkerExitsAfterFailure() throws IOException {
+        final JvmWorkerProcess worker = startWorker(CountingMain.class.getName());
+        try {
+            final File out = createTempFile("JvmWorkerUnitTest", ".out");
+            Assert.assertEquals(worker.run(Arrays.asList("first", "3"), out, null), 3);
+            Assert.assertFalse(worker.isAlive());
+        } finally {
+            worker.destroy();
+        }
+    }
+
+    @Test(timeOut = 60 * 1000, expectedExceptions = IOException.class)
+    public void testMissingMainClass() throws IOException {
+        startWorker("org.broadinstitute.sting.NoSuchMain");
+    }
+}
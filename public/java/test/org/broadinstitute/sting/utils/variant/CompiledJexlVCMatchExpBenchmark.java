@@ -0,0 +1,89 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.variant;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import org.broadinstitute.variant.variantcontext.*;
+
+import java.util.*;
+
+/**
+ * Caliper microbenchmark of evaluating filter expressions with JEXL and with CompiledJexlVCMatchExp
+ */
+public class CompiledJexlVCMatchExpBenchmark extends SimpleBenchmark {
+    @Param({"QD < 2.0 || FS > 60.0 || MQ < 40.0", "GQ < 20 || DP < 10"})
+    String expression; // set automatically by framework
+
+    @Param({"100"})
+    int nSamples; // set automatically by framework
+
+    private VariantContext vc;
+    private CompiledJexlVCMatchExp exp;
+
+    @Override protected void setUp() {
+        final Allele ref = Allele.create("A", true);
+        final Allele alt = Allele.create("C");
+        final Random random = new Random(42);
+
+        final List<Genotype> genotypes = new ArrayList<Genotype>(nSamples);
+        for ( int i = 0; i < nSamples; i++ )
+            genotypes.add(new GenotypeBuilder("s" + i, Arrays.asList(ref, random.nextBoolean() ? alt : ref))
+                    .GQ(random.nextInt(99)).DP(random.nextInt(50)).AD(new int[]{10, 5}).make());
+
+        // attributes as they come out of the VCF codec, as strings
+        vc = new VariantContextBuilder("bench", "1", 100, 100, Arrays.asList(ref, alt)).genotypes(genotypes)
+                .attribute("QD", "12.5").attribute("FS", "3.1").attribute("MQ", "59.8").attribute("DP", "1000")
+                .log10PError(-5).make();
+
+        exp = CompiledJexlVCMatchExp.compile(VariantContextUtils.initializeMatchExps(new String[]{"bench"}, new String[]{expression})).get(0);
+    }
+
+    public void timeJexlSite(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            VariantContextUtils.match(vc, exp);
+    }
+
+    public void timeCompiledSite(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            exp.match(vc);
+    }
+
+    public void timeJexlGenotypes(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            for ( final Genotype g : vc.getGenotypes() )
+                VariantContextUtils.match(vc, g, exp);
+    }
+
+    public void timeCompiledGenotypes(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            for ( final Genotype g : vc.getGenotypes() )
+                exp.match(vc, g);
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(CompiledJexlVCMatchExpBenchmark.class, args);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.variant;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.variant.variantcontext.*;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class CompiledJexlVCMatchExpUnitTest extends BaseTest {
+    private final static Allele Aref = Allele.create("A", true);
+    private final static Allele C = Allele.create("C");
+    private final static Allele ATC = Allele.create("ATC");
+
+    private final static String[] SITE_EXPRESSIONS = {
+            "DP > 5", "DP > 5.5", "DP < 10", "DP <= 10", "DP >= 10.0", "DP == '10'", "DP eq 10", "DP != 10", "DP ne 10",
+            "DP lt 11", "DP le 10", "DP gt 9", "DP ge 10", "DP >= -1", "-1 < DP", "10 == DP",
+            "QD < 2", "QD < 2.0", "QD < 2.0f", "QD < 2.0d", "QD > 1.50000001", "QD > 1.5e0", "QD < 1.5E1",
+            "I == 7", "I == 7.0", "I < 8l", "D > 2", "D == 2.5", "F > 0.1", "N < 0", "N == 'NaN'", "FLAG == 1", "FLAG > 0",
+            "L > 1", "L == '1'", "E < 1", "E < 1.0", "E == ''", "S == 'abc'", "S < 'abd'", "S > 2", "S == 2",
+            "QUAL > 29.9", "QUAL == 30", "QUAL < 0", "FILTER == 1", "FILTER == '0'", "LowQ == 1", "TYPE == 'SNP'", "TYPE == 'INDEL'",
+            "CHROM == 1", "CHROM == '1'", "POS < 11", "POS == 10", "N_ALLELES == 2", "ALLELES == 2", "homRefCount == 1",
+            "hetCount > 0", "homVarCount == 0",
+            "FOO < 2.0", "FOO != 5", "FOO < 2.0 || DP > 5", "DP > 5 || FOO < 2.0", "DP > 5 && FOO < 2.0", "!(FOO < 2.0)",
+            "DP > 5 && QD > 1", "DP > 5 and not (QD > 2)", "DP > 5 or QD > 2", "!(DP > 5)", "! (DP > 5) || (QD < 2.0 && !(I > 8))",
+            "(DP > 5 || QD < 1.0) && I == 7", "DP > 5 && QD > 1 || I > 100",
+            "vc.isSNP()", "vc.isIndel()", "!vc.isSNP() || DP > 5", "vc.isBiallelic() && vc.isFiltered()", "vc.isNotFiltered()",
+            "vc.hasID()", "vc.isPolymorphicInSamples()", "vc.getNAlleles() == 2", "vc.getNSamples() > 1", "vc.getHetCount() == 1",
+            "vc.getStart() == POS", "DP > vc.getCalledChrCount()",
+            // outside of the compiled subset
+            "DP", "FLAG", "!DP", "DP > 5 == true", "(DP > 5) == true", "DP + 1 > 10", "DP > 0x5", "S =~ 'a.*'", "S == \"a\\bc\"",
+            "vc.getAttribute('DP') > 5", "vc.getGenotype('s1').isHet()", "vc.isSNP() == true", "DP > 5 ? true : false",
+            "size(L) == 2", "vc.isSNP", "null == DP", "DP > 5 || empty(S)"
+    };
+
+    private final static String[] GENOTYPE_EXPRESSIONS = {
+            "GQ > 20", "GQ < 0", "DP > 10", "DP > 5", "AB < 0.5", "AB == ''", "isHet == 1", "isHomRef == 1", "isHomVar == 0",
+            "GT == 'A/C'", "GT == 'A*/C'", "QD < 2.0", "QD < 2", "I == 7", "L > 1", "QUAL > 29", "QUAL == '30.0'",
+            "FOO > 1", "LowQ == 1", "FILTER == 1", "N_ALLELES == 2", "ALLELES == 'A*;C'", "TYPE == 'SNP'", "POS > 5", "CHROM == 1",
+            "GQ > 20 && isHet == 1", "!(GQ > 20) || DP < 5", "FOO > 1 || GQ > 20",
+            "vc.isSNP()", "vc.getNAlleles() == 2", "GQ > 20 && vc.isSNP()"
+    };
+
+    private static List<Genotype> makeGenotypes() {
+        return Arrays.asList(
+                new GenotypeBuilder("s1", Arrays.asList(Aref, C)).GQ(30).DP(12).attribute("AB", "0.4").make(),
+                new GenotypeBuilder("s2", Arrays.asList(Aref, Aref)).GQ(10).attribute("AB", ".").make(),
+                new GenotypeBuilder("s3", Arrays.asList(C, C)).DP(3).attribute("QD", "5.0").attribute("AB", "").make(),
+                new GenotypeBuilder("s4", Arrays.asList(Allele.NO_CALL, Allele.NO_CALL)).make());
+    }
+
+    private static List<VariantContext> makeSites() {
+        final List<Genotype> genotypes = makeGenotypes();
+        final List<VariantContext> sites = new ArrayList<VariantContext>();
+
+        sites.add(new VariantContextBuilder("test", "1", 10, 10, Arrays.asList(Aref, C)).genotypes(genotypes)
+                .attribute("DP", "10").attribute("QD", "1.5").attribute("L", Arrays.asList("1", "2")).attribute("E", "")
+                .attribute("I", 7).attribute("D", 2.5).attribute("F", 0.1f).attribute("N", Double.NaN).attribute("FLAG", true)
+                .attribute("S", "abc").filter("LowQ").log10PError(-3).make());
+        sites.add(new VariantContextBuilder("test", "1", 10, 10, Arrays.asList(Aref, C)).genotypes(genotypes)
+                .attribute("DP", 3).attribute("QD", 5.0).attribute("I", "8").attribute("S", "1").id("rs1").passFilters().make());
+        sites.add(new VariantContextBuilder("test", "20", 1000, 1000, Arrays.asList(Aref, ATC))
+                .attribute("DP", "xyz").attribute("QD", "").attribute("I", "1.5").make());
+        sites.add(new VariantContextBuilder("test", "X", 5, 5, Arrays.asList(Aref)).log10PError(-4.567).make());
+
+        return sites;
+    }
+
+    @AfterMethod
+    public void resetEngine() {
+        VariantContextUtils.engine.get().setSilent(false);
+    }
+
+    @DataProvider(name = "SiteExpressions")
+    public Object[][] makeSiteExpressions() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final String exp : SITE_EXPRESSIONS )
+            for ( final boolean silent : Arrays.asList(true, false) )
+                tests.add(new Object[]{exp, silent});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "SiteExpressions")
+    public void testSiteMatchesJexl(final String exp, final boolean silent) {
+        VariantContextUtils.engine.get().setSilent(silent);
+        final CompiledJexlVCMatchExp compiled = compile(exp);
+        for ( final VariantContext vc : makeSites() )
+            Assert.assertEquals(evaluate(compiled, vc, null, true), evaluate(compiled, vc, null, false), "Results differ for " + exp + " at " + vc);
+    }
+
+    @DataProvider(name = "GenotypeExpressions")
+    public Object[][] makeGenotypeExpressions() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final String exp : GENOTYPE_EXPRESSIONS )
+            for ( final boolean silent : Arrays.asList(true, false) )
+                tests.add(new Object[]{exp, silent});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "GenotypeExpressions")
+    public void testGenotypeMatchesJexl(final String exp, final boolean silent) {
+        VariantContextUtils.engine.get().setSilent(silent);
+        final CompiledJexlVCMatchExp compiled = compile(exp);
+        for ( final VariantContext vc : makeSites() )
+            for ( final Genotype g : vc.getGenotypes() )
+                Assert.assertEquals(evaluate(compiled, vc, g, true), evaluate(compiled, vc, g, false), "Results differ for " + exp + " at " + g + " of " + vc);
+    }
+
+    @DataProvider(name = "Compilable")
+    public Object[][] makeCompilable() {
+        return new Object[][]{
+                {"DP > 5", true},
+                {"QD < 2.0 || FS > 60.0 || MQ < 40.0 || HaplotypeScore > 13.0", true},
+                {"!(vc.isSNP()) && DP ge -1", true},
+                {"GT == 'A/C' and not (GQ < 20)", true},
+                {"vc.getNAlleles() > 2", true},
+                {"DP", false},
+                {"(DP > 5) == true", false},
+                {"S =~ 'a.*'", false},
+                {"vc.getAttribute('DP') > 5", false},
+                {"vc.isSNP() == true", false},
+                {"null == DP", false},
+        };
+    }
+
+    @Test(dataProvider = "Compilable")
+    public void testIsCompiled(final String exp, final boolean expected) {
+        Assert.assertEquals(compile(exp).isCompiled(), expected, exp);
+    }
+
+    private static CompiledJexlVCMatchExp compile(final String exp) {
+        final List<VariantContextUtils.JexlVCMatchExp> exps = VariantContextUtils.initializeMatchExps(new String[]{"test"}, new String[]{exp});
+        return CompiledJexlVCMatchExp.compile(exps).get(0);
+    }
+
+    /**
+     * @return the result of matching exp, or the class of the exception it throws
+     */
+    private static Object evaluate(final CompiledJexlVCMatchExp exp, final VariantContext vc, final Genotype g, final boolean useCompiled) {
+        try {
+            if ( useCompiled )
+                return g == null ? exp.match(vc) : exp.match(vc, g);
+            else
+                return g == null ? VariantContextUtils.match(vc, exp) : VariantContextUtils.match(vc, g, exp);
+        } catch ( Exception e ) {
+            return e.getClass();
+        }
+    }
+}
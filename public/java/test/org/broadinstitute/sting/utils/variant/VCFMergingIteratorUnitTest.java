@@ -0,0 +1,209 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.variant;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.*;
+
+public class VCFMergingIteratorUnitTest extends BaseTest {
+    private final static String[] CONTIGS = {"1", "2", "3"};
+    private final static int CONTIG_LENGTH = 10000;
+    private final static int N_FILES = 9;
+
+    private SAMSequenceDictionary dictionary;
+    private final List<File> files = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * The records of all of the files, as the iterator should return them: by site, and within a site by file
+     */
+    private final List<List<TestRecord>> expectedSites = new ArrayList<>();
+
+    private static class TestRecord {
+        final int source, contig, start, end;
+
+        private TestRecord(final int source, final int contig, final int start, final int end) {
+            this.source = source;
+            this.contig = contig;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return "file" + source + ":" + CONTIGS[contig] + ":" + start + "-" + end;
+        }
+    }
+
+    private static String toString(final List<VariantContext> vcs) {
+        final List<String> strings = new ArrayList<>();
+        for ( final VariantContext vc : vcs )
+            strings.add(vc.getSource() + ":" + vc.getChr() + ":" + vc.getStart() + "-" + vc.getEnd());
+        return strings.toString();
+    }
+
+    @BeforeClass
+    public void makeFiles() throws FileNotFoundException {
+        final List<SAMSequenceRecord> contigs = new ArrayList<>();
+        for ( final String contig : CONTIGS )
+            contigs.add(new SAMSequenceRecord(contig, CONTIG_LENGTH));
+        dictionary = new SAMSequenceDictionary(contigs);
+
+        // records are sparse at the start of each contig and dense at the end, with plenty of deletions
+        // spanning later sites.  Contig 2 is left out of every other file
+        final Random random = new Random(42);
+        final TreeMap<Long, List<TestRecord>> sites = new TreeMap<>();
+        for ( int source = 0; source < N_FILES; source++ ) {
+            final File file = createTempFile("VCFMergingIteratorUnitTest", ".vcf");
+            final PrintStream out = new PrintStream(file);
+            out.println("##fileformat=VCFv4.1");
+            for ( final String contig : CONTIGS )
+                out.println("##contig=<ID=" + contig + ",length=" + CONTIG_LENGTH + ">");
+            out.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample" + source);
+
+            for ( int contig = 0; contig < CONTIGS.length; contig++ ) {
+                if ( contig == 1 && source % 2 == 1 )
+                    continue;
+                for ( int start = 1; start < 200; start += 1 + random.nextInt(start < 100 ? 20 : 3) ) {
+                    final int length = random.nextInt(4) == 0 ? 1 + random.nextInt(10) : 0;
+                    String ref = "A";
+                    for ( int i = 0; i < length; i++ )
+                        ref += "C";
+                    final String alt = length > 0 ? "A" : "G";
+                    out.println(CONTIGS[contig] + "\t" + start + "\t.\t" + ref + "\t" + alt + "\t50\tPASS\t.\tGT\t0/1");
+
+                    final TestRecord record = new TestRecord(source, contig, start, start + length);
+                    final long key = ((long)contig << 32) | start;
+                    if ( ! sites.containsKey(key) ) sites.put(key, new ArrayList<TestRecord>());
+                    sites.get(key).add(record);
+                }
+            }
+            out.close();
+
+            files.add(file);
+            names.add("file" + source);
+        }
+
+        expectedSites.addAll(sites.values());
+    }
+
+    @DataProvider(name = "maxOpenFiles")
+    public Object[][] makeMaxOpenFiles() {
+        return new Object[][]{ {2}, {3}, {4}, {N_FILES}, {1000} };
+    }
+
+    @Test(dataProvider = "maxOpenFiles")
+    public void testMerge(final int maxOpenFiles) {
+        final File tempDir = createTempDir();
+        final VCFMergingIterator iterator = new VCFMergingIterator(files, names, dictionary, maxOpenFiles, tempDir);
+        Assert.assertEquals(new ArrayList<>(iterator.getHeaders().keySet()), names);
+
+        int site = 0;
+        while ( iterator.hasNext() ) {
+            Assert.assertTrue(site < expectedSites.size(), "Too many sites");
+            final List<TestRecord> expected = expectedSites.get(site);
+            final List<VariantContext> vcs = iterator.next();
+            Assert.assertEquals(toString(vcs), expected.toString(), "Wrong records at site " + site);
+
+            // brute force the earlier records overlapping this site, in the order of the files
+            final TestRecord first = expected.get(0);
+            final List<TestRecord> expectedOverlapping = new ArrayList<>();
+            for ( int source = 0; source < N_FILES; source++ ) {
+                for ( int earlier = 0; earlier < site; earlier++ ) {
+                    for ( final TestRecord record : expectedSites.get(earlier) ) {
+                        if ( record.source == source && record.contig == first.contig && record.end >= first.start )
+                            expectedOverlapping.add(record);
+                    }
+                }
+            }
+            Assert.assertEquals(toString(iterator.getOverlappingRecords()), expectedOverlapping.toString(), "Wrong overlapping records at site " + site);
+            site++;
+        }
+        Assert.assertEquals(site, expectedSites.size(), "Too few sites");
+
+        iterator.close();
+        Assert.assertEquals(tempDir.list().length, 0, "Temporary files weren't deleted");
+        tempDir.delete();
+    }
+
+    @Test(expectedExceptions = UserException.MalformedFile.class)
+    public void testUnsorted() throws FileNotFoundException {
+        readAll(makeFile("1\t20\t.\tA\tG\t50\tPASS\t.", "1\t10\t.\tA\tG\t50\tPASS\t."));
+    }
+
+    @Test(expectedExceptions = UserException.MalformedFile.class)
+    public void testContigsOutOfOrder() throws FileNotFoundException {
+        readAll(makeFile("2\t10\t.\tA\tG\t50\tPASS\t.", "1\t10\t.\tA\tG\t50\tPASS\t."));
+    }
+
+    @Test(expectedExceptions = UserException.MalformedFile.class)
+    public void testUnknownContig() throws FileNotFoundException {
+        readAll(makeFile("1\t10\t.\tA\tG\t50\tPASS\t.", "X\t10\t.\tA\tG\t50\tPASS\t."));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateNames() {
+        new VCFMergingIterator(files.subList(0, 2), Arrays.asList("file", "file"), dictionary, 2, null);
+    }
+
+    private File makeFile(final String ... lines) throws FileNotFoundException {
+        final File file = createTempFile("VCFMergingIteratorUnitTest", ".vcf");
+        final PrintStream out = new PrintStream(file);
+        out.println("##fileformat=VCFv4.1");
+        out.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        for ( final String line : lines )
+            out.println(line);
+        out.close();
+        return file;
+    }
+
+    private void readAll(final File file) {
+        // merge through a temporary file as well, so that the error surfaces before we've even started iterating
+        final VCFMergingIterator iterator = new VCFMergingIterator(Arrays.asList(file, files.get(0), files.get(1)),
+                Arrays.asList("bad", "file0", "file1"), dictionary, 2, null);
+        while ( iterator.hasNext() )
+            iterator.next();
+    }
+
+    private static File createTempDir() {
+        final File dir = createTempFile("VCFMergingIteratorUnitTest", ".dir");
+        if ( ! dir.delete() || ! dir.mkdir() )
+            throw new IllegalStateException("Couldn't create temporary directory " + dir);
+        return dir;
+    }
+}
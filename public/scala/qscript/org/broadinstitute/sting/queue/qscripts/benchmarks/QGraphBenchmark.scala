@@ -0,0 +1,76 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.queue.qscripts.benchmarks
+
+import org.broadinstitute.sting.queue.QScript
+
+/**
+ * Generates a synthetic pipeline shaped like a large cohort analysis, for timing the construction of the QGraph.
+ * Each sample is processed in scatterCount parts that are gathered into one file per sample, and then all of
+ * the samples are merged.  There are samples * (scatterCount + 1) + 1 functions, so for example:
+ *
+ *   -samples 100 -scatterCount 99      10k functions
+ *   -samples 1000 -scatterCount 99     100k functions
+ *   -samples 10000 -scatterCount 99    1M functions
+ *
+ * Run without -run the graph is built and dry run, which is all there is to time.  Use -l WARN to avoid logging
+ * every function.
+ */
+class QGraphBenchmark extends QScript {
+  @Argument(doc="Number of samples", shortName="samples", required=false)
+  var samples: Int = 100
+
+  @Argument(doc="Number of parts to process each sample in", shortName="scatterCount", required=false)
+  var scatterCount: Int = 99
+
+  @Argument(doc="Directory for the (never created) outputs", shortName="outputDir", required=false)
+  var outputDir: File = new File("QGraphBenchmark")
+
+  class Touch(sourceFiles: Seq[File], targetFile: File) extends CommandLineFunction {
+    @Input(doc="inputs")
+    var sources: Seq[File] = sourceFiles
+
+    @Output(doc="output")
+    var target: File = targetFile
+
+    def commandLine = "touch" + required(target)
+  }
+
+  def script() {
+    var sampleFiles = Seq.empty[File]
+    for (sample <- 0 until samples) {
+      val sampleDir = new File(outputDir, "sample" + sample)
+      val input = new File(sampleDir, "input.txt")
+      val parts = for (part <- 0 until scatterCount)
+        yield new Touch(Seq(input), new File(sampleDir, "part" + part + ".txt"))
+      val gather = new Touch(parts.map(_.target), new File(sampleDir, "sample" + sample + ".txt"))
+      add(parts: _*)
+      add(gather)
+      sampleFiles :+= gather.target
+    }
+    add(new Touch(sampleFiles, new File(outputDir, "cohort.txt")))
+  }
+}
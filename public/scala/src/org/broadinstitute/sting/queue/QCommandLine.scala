@@ -174,7 +174,8 @@ class QCommandLine extends CommandLineProgram with Logging {
 
       // walk over each script, calling onExecutionDone
       for (script <- allQScripts) {
-        val scriptFunctions = functionsAndStatus.filterKeys(f => script.functions.contains(f))
+        val functions = script.functions.toSet
+        val scriptFunctions = functionsAndStatus.filterKeys(functions)
         script.onExecutionDone(scriptFunctions, success)
       }
       functionsAndStatusSize = functionsAndStatus.size
@@ -73,7 +73,7 @@ trait QScript extends Logging with PrimitiveOptionConversions with StringFileCon
   /**
    * The command line functions that will be executed for this QScript.
    */
-  var functions = Seq.empty[QFunction]
+  var functions: Seq[QFunction] = Vector.empty
 
   /**
    * Exchanges the extension on a file.
@@ -102,7 +102,11 @@ trait QScript extends Logging with PrimitiveOptionConversions with StringFileCon
    */
   def add(functions: QFunction*) {
     functions.foreach(function => function.addOrder = QScript.nextAddOrder)
-    this.functions ++= functions
+    this.functions = this.functions match {
+      // Appending to a vector one function at a time is constant time, while ++ copies the whole vector
+      case vector: Vector[QFunction] => (vector /: functions)(_ :+ _)
+      case other => other ++ functions
+    }
   }
 
   def addAll(functions: Traversable[QFunction]) {
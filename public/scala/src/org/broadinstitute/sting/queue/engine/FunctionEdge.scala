@@ -26,7 +26,7 @@
 package org.broadinstitute.sting.queue.engine
 
 import org.broadinstitute.sting.queue.function.QFunction
-import java.io.{StringWriter, PrintWriter}
+import java.io.{File, StringWriter, PrintWriter}
 import org.broadinstitute.sting.queue.util.Logging
 import org.broadinstitute.sting.utils.io.IOUtils
 import org.apache.commons.io.FileUtils
@@ -46,6 +46,11 @@ class FunctionEdge(val function: QFunction, val inputs: QNode, val outputs: QNod
    */
   var depth = -1
 
+  /**
+   * The index of this edge in the FunctionGraph of the QGraph.
+   */
+  var index = -1
+
   val myRunInfo: JobRunInfo = JobRunInfo.default // purely for dryRun testing
 
   /**
@@ -54,15 +59,31 @@ class FunctionEdge(val function: QFunction, val inputs: QNode, val outputs: QNod
   var resetFromStatus: RunnerStatus.Value = null
 
   /**
-   * Initializes with the current status of the function.
+   * The number of function edges providing inputs to this edge that aren't done, tracked by the QGraph
+   * while running so that it can find the ready jobs without rescanning the graph.
+   */
+  var numUnfinishedPrevious = 0
+
+  /**
+   * The status of the function, read from its done and fail files when first needed and afterwards only kept in memory.
    */
-  private var currentStatus = {
-    if (function.isFail)
-      RunnerStatus.FAILED
-    else if (function.isDone)
-      RunnerStatus.DONE
-    else
-      RunnerStatus.PENDING
+  private var currentStatus: RunnerStatus.Value = _
+
+  /**
+   * Initializes with the current status of the function, if not already initialized.
+   * @param exists Checks if a status file exists, so that the caller may look up many status files at once.
+   */
+  def initStatus(exists: File => Boolean = _.exists) {
+    if (currentStatus == null) {
+      currentStatus = {
+        if (function.isFail(exists))
+          RunnerStatus.FAILED
+        else if (function.isDone(exists))
+          RunnerStatus.DONE
+        else
+          RunnerStatus.PENDING
+      }
+    }
   }
 
   def start() {
@@ -100,6 +121,7 @@ class FunctionEdge(val function: QFunction, val inputs: QNode, val outputs: QNod
    * Returns the current status of the edge.
    */
   def status = {
+    initStatus()
     if (currentStatus == RunnerStatus.PENDING || currentStatus == RunnerStatus.RUNNING) {
       if (runner != null) {
         try {
@@ -159,6 +181,7 @@ class FunctionEdge(val function: QFunction, val inputs: QNode, val outputs: QNod
    * Resets the edge to pending status.
    */
   def resetToPending(cleanOutputs: Boolean) {
+    initStatus()
     if (resetFromStatus == null)
       resetFromStatus = currentStatus
     currentStatus = RunnerStatus.PENDING
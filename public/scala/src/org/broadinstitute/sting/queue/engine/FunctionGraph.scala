@@ -0,0 +1,247 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.queue.engine
+
+import java.io.File
+
+/**
+ * The dependencies between the functions of a QGraph: a function depends on every function that outputs one of its
+ * input files.
+ *
+ * The graph is built in time linear in the number of functions and files.  Files are interned to integer ids, and
+ * the previous and next functions of each function are held in primitive arrays indexed by FunctionEdge.index.
+ *
+ * @param edges The function edges of the graph.
+ */
+class FunctionGraph(val edges: IndexedSeq[FunctionEdge]) {
+  private val numEdges = edges.size
+
+  // The previous functions of edge i are previousEdges(previousOffsets(i) until previousOffsets(i + 1)),
+  // and similarly for the next functions.
+  private val previousOffsets = new Array[Int](numEdges + 1)
+  private var previousEdges: Array[Int] = _
+  private val nextOffsets = new Array[Int](numEdges + 1)
+  private val nextEdges: Array[Int] = {
+    for (i <- 0 until numEdges)
+      edges(i).index = i
+    buildPrevious()
+    buildNext()
+  }
+
+  /**
+   * The edges in an order where each function comes after all the functions it depends on.
+   * Functions in or after cycles are left out.
+   */
+  val topologicalOrder: IndexedSeq[FunctionEdge] = sortTopologically()
+
+  /**
+   * Returns the functions whose outputs are inputs of the function.
+   * @param edge Function edge in this graph.
+   * @return the previous functions.
+   */
+  def previousFunctions(edge: FunctionEdge): Seq[FunctionEdge] =
+    functions(previousOffsets, previousEdges, edge)
+
+  /**
+   * Returns the functions that use outputs of the function as inputs.
+   * @param edge Function edge in this graph.
+   * @return the next functions.
+   */
+  def nextFunctions(edge: FunctionEdge): Seq[FunctionEdge] =
+    functions(nextOffsets, nextEdges, edge)
+
+  /**
+   * Returns true if there are cycles in the graph.
+   */
+  def hasCycles = topologicalOrder.size < numEdges
+
+  /**
+   * Returns the functions that are part of, or lie between, cycles in the graph.
+   */
+  def cycleFunctions: Seq[FunctionEdge] = {
+    // Functions after the cycles were already left out of the topological order.  Also peel off the
+    // functions leading up to the cycles, which have no next functions left.
+    val remaining = new Array[Boolean](numEdges)
+    for (i <- 0 until numEdges)
+      remaining(i) = true
+    topologicalOrder.foreach(edge => remaining(edge.index) = false)
+
+    val outDegree = new Array[Int](numEdges)
+    val stack = new IntStack
+    for (i <- 0 until numEdges if remaining(i)) {
+      for (j <- nextOffsets(i) until nextOffsets(i + 1) if remaining(nextEdges(j)))
+        outDegree(i) += 1
+      if (outDegree(i) == 0)
+        stack.push(i)
+    }
+    while (!stack.isEmpty) {
+      val i = stack.pop()
+      remaining(i) = false
+      for (j <- previousOffsets(i) until previousOffsets(i + 1)) {
+        val previous = previousEdges(j)
+        if (remaining(previous)) {
+          outDegree(previous) -= 1
+          if (outDegree(previous) == 0)
+            stack.push(previous)
+        }
+      }
+    }
+    (0 until numEdges).filter(remaining(_)).map(edges(_))
+  }
+
+  private def functions(offsets: Array[Int], indexes: Array[Int], edge: FunctionEdge): Seq[FunctionEdge] = {
+    val index = edge.index
+    if (index < 0 || index >= numEdges || !(edges(index) eq edge))
+      throw new IllegalArgumentException("Function is not part of this graph: " + edge.function.description)
+    (offsets(index) until offsets(index + 1)).map(i => edges(indexes(i)))
+  }
+
+  /**
+   * Interns the output files, then finds the distinct previous functions of each function through its input files.
+   */
+  private def buildPrevious() {
+    val fileIds = new java.util.HashMap[File, Integer]
+    val producerFiles = new IntStack
+    val producerEdges = new IntStack
+    for (i <- 0 until numEdges; file <- edges(i).outputs.files) {
+      var id = fileIds.get(file)
+      if (id == null) {
+        id = fileIds.size
+        fileIds.put(file, id)
+      }
+      producerFiles.push(id)
+      producerEdges.push(i)
+    }
+
+    // Group the producers of each file
+    val producerOffsets = new Array[Int](fileIds.size + 1)
+    for (k <- 0 until producerFiles.size)
+      producerOffsets(producerFiles(k) + 1) += 1
+    for (id <- 0 until fileIds.size)
+      producerOffsets(id + 1) += producerOffsets(id)
+    val producers = new Array[Int](producerFiles.size)
+    val fill = producerOffsets.clone()
+    for (k <- 0 until producerFiles.size) {
+      producers(fill(producerFiles(k))) = producerEdges(k)
+      fill(producerFiles(k)) += 1
+    }
+
+    val previous = new IntStack
+    val lastAdded = Array.fill(numEdges)(-1)
+    for (i <- 0 until numEdges) {
+      for (file <- edges(i).inputs.files) {
+        val id = fileIds.get(file)
+        if (id != null) {
+          for (k <- producerOffsets(id) until producerOffsets(id + 1)) {
+            val producer = producers(k)
+            if (lastAdded(producer) != i) {
+              lastAdded(producer) = i
+              previous.push(producer)
+            }
+          }
+        }
+      }
+      previousOffsets(i + 1) = previous.size
+    }
+    previousEdges = previous.toArray
+  }
+
+  /**
+   * Transposes the previous functions into the next functions.
+   */
+  private def buildNext() = {
+    for (previous <- previousEdges)
+      nextOffsets(previous + 1) += 1
+    for (i <- 0 until numEdges)
+      nextOffsets(i + 1) += nextOffsets(i)
+    val next = new Array[Int](previousEdges.size)
+    val fill = nextOffsets.clone()
+    for (i <- 0 until numEdges; k <- previousOffsets(i) until previousOffsets(i + 1)) {
+      val previous = previousEdges(k)
+      next(fill(previous)) = i
+      fill(previous) += 1
+    }
+    next
+  }
+
+  /**
+   * Sorts the edges topologically, setting the depth of each edge along the way.
+   */
+  private def sortTopologically() = {
+    val inDegree = new Array[Int](numEdges)
+    val order = new Array[Int](numEdges)
+    var size = 0
+    for (i <- 0 until numEdges) {
+      inDegree(i) = previousOffsets(i + 1) - previousOffsets(i)
+      edges(i).depth = 0
+      if (inDegree(i) == 0) {
+        order(size) = i
+        size += 1
+      }
+    }
+    var head = 0
+    while (head < size) {
+      val i = order(head)
+      head += 1
+      for (k <- nextOffsets(i) until nextOffsets(i + 1)) {
+        val next = nextEdges(k)
+        edges(next).depth = edges(next).depth max (edges(i).depth + 1)
+        inDegree(next) -= 1
+        if (inDegree(next) == 0) {
+          order(size) = next
+          size += 1
+        }
+      }
+    }
+    order.take(size).map(edges(_)).toIndexedSeq
+  }
+
+  /**
+   * A growable array of ints.
+   */
+  private class IntStack {
+    private var values = new Array[Int](16)
+    var size = 0
+
+    def push(value: Int) {
+      if (size == values.length)
+        values = java.util.Arrays.copyOf(values, size * 2)
+      values(size) = value
+      size += 1
+    }
+
+    def pop() = {
+      size -= 1
+      values(size)
+    }
+
+    def apply(index: Int) = values(index)
+
+    def isEmpty = size == 0
+
+    def toArray = java.util.Arrays.copyOf(values, size)
+  }
+}
@@ -26,9 +26,49 @@
 package org.broadinstitute.sting.queue.engine
 
 import org.broadinstitute.sting.queue.function.InProcessFunction
+import java.util.concurrent.{ThreadFactory, Executors, ExecutorService}
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs in process functions, such as list writers, scatters and gathers.
+ *
+ * These functions usually take milliseconds, so with a single thread they're run one after another on the
+ * thread starting them.  With more threads they're run concurrently on a pool shared by all the functions,
+ * each still reporting its own status and writing its own logs.
+ *
+ * @param numThreads The number of threads to run functions on.
+ */
+class InProcessJobManager(numThreads: Int = 1) extends JobManager[InProcessFunction, InProcessRunner] {
+  if (numThreads < 1)
+    throw new IllegalArgumentException("The number of in process threads must be at least 1: " + numThreads)
+
+  private var executor: ExecutorService = _
 
-class InProcessJobManager extends JobManager[InProcessFunction, InProcessRunner] {
   def runnerType = classOf[InProcessRunner]
   def functionType = classOf[InProcessFunction]
-  def create(function: InProcessFunction) = new InProcessRunner(function)
+
+  override def init() {
+    if (numThreads > 1 && executor == null)
+      executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory {
+        private val threadNumber = new AtomicInteger
+        def newThread(runnable: Runnable) = {
+          val thread = new Thread(runnable, "InProcessJobManager-" + threadNumber.incrementAndGet)
+          thread.setDaemon(true)
+          thread
+        }
+      })
+  }
+
+  override def exit() {
+    if (executor != null) {
+      executor.shutdownNow()
+      executor = null
+    }
+  }
+
+  def create(function: InProcessFunction) = new InProcessRunner(function, executor)
+
+  override def tryStop(runners: Set[InProcessRunner]) {
+    runners.foreach(_.tryStop())
+  }
 }
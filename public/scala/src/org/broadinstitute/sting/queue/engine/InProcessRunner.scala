@@ -30,18 +30,44 @@ import java.util.Date
 import org.broadinstitute.sting.utils.Utils
 import org.apache.commons.io.{IOUtils, FileUtils}
 import java.io.PrintStream
+import java.util.concurrent.{Future, ExecutorService}
 
 /**
- * Runs a function that executes in process and does not fork out an external process.
+ * Runs an in process function.
+ * @param function Function to run.
+ * @param executor Executor to run the function on, or null to run the function on the thread calling start().
  */
-class InProcessRunner(val function: InProcessFunction) extends JobRunner[InProcessFunction] {
-  private var runStatus: RunnerStatus.Value = _
+class InProcessRunner(val function: InProcessFunction, executor: ExecutorService = null) extends JobRunner[InProcessFunction] {
+  @volatile private var runStatus: RunnerStatus.Value = _
+  private var future: Future[_] = _
 
   def start() {
     getRunInfo.startTime = new Date()
     getRunInfo.exechosts = Utils.resolveHostname()
     runStatus = RunnerStatus.RUNNING
 
+    if (executor == null) {
+      run()
+    } else {
+      future = executor.submit(new Runnable {
+        def run() {
+          try {
+            InProcessRunner.this.run()
+          } catch {
+            case e: Throwable =>
+              getRunInfo.doneTime = new Date()
+              runStatus = RunnerStatus.FAILED
+              notifyFinished()
+          }
+        }
+      })
+    }
+  }
+
+  /**
+   * Runs the function, writing its output and any error to its logs.
+   */
+  private def run() {
     function.jobOutputStream = new PrintStream(FileUtils.openOutputStream(function.jobOutputFile))
     function.jobErrorStream = {
       if (function.jobErrorFile != null)
@@ -52,6 +78,14 @@ class InProcessRunner(val function: InProcessFunction) extends JobRunner[InProce
     try {
       function.run()
       function.jobOutputStream.println("%s%nDone.".format(function.description))
+    } catch {
+      case e: Throwable =>
+        // On the calling thread the FunctionEdge writes the stack trace
+        if (executor != null) {
+          function.jobErrorStream.println(function.description)
+          e.printStackTrace(function.jobErrorStream)
+        }
+        throw e
     } finally {
       IOUtils.closeQuietly(function.jobOutputStream)
       if (function.jobErrorFile != null)
@@ -60,6 +94,15 @@ class InProcessRunner(val function: InProcessFunction) extends JobRunner[InProce
 
     runStatus = RunnerStatus.DONE
     getRunInfo.doneTime = new Date()
+    notifyFinished()
+  }
+
+  /**
+   * Interrupts the function if it's running on the executor.
+   */
+  def tryStop() {
+    if (future != null)
+      future.cancel(true)
   }
 
   def status = runStatus
@@ -53,6 +53,21 @@ trait JobRunner[TFunction <: QFunction] {
    */
   def status: RunnerStatus.Value
 
+  /**
+   * Called when the runner finishes, with a status of DONE or FAILED, so that the QGraph doesn't have to
+   * wait for its next status check to find out.  May be called from any thread.
+   */
+  var statusListener: () => Unit = _
+
+  /**
+   * Notifies the statusListener, if any, that the runner has finished.
+   */
+  protected def notifyFinished() {
+    val listener = statusListener
+    if (listener != null)
+      listener()
+  }
+
   /**
    * Checks if the status has been unknown for an extended period of time.
    */
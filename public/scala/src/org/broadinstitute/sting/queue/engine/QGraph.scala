@@ -25,23 +25,23 @@
 
 package org.broadinstitute.sting.queue.engine
 
-import org.jgrapht.traverse.TopologicalOrderIterator
 import org.jgrapht.graph.SimpleDirectedGraph
 import scala.collection.JavaConversions._
-import org.jgrapht.alg.CycleDetector
 import org.jgrapht.EdgeFactory
 import org.jgrapht.ext.DOTExporter
-import org.jgrapht.event.{TraversalListenerAdapter, EdgeTraversalEvent}
 import org.broadinstitute.sting.queue.QException
 import org.broadinstitute.sting.queue.function.{InProcessFunction, CommandLineFunction, QFunction}
 import org.apache.commons.lang.StringUtils
 import org.broadinstitute.sting.queue.util._
-import collection.immutable.{TreeSet, TreeMap}
+import collection.immutable.TreeSet
 import org.broadinstitute.sting.queue.function.scattergather.{ScatterFunction, CloneFunction, GatherFunction, ScatterGatherableFunction}
 import java.util.Date
 import org.broadinstitute.sting.utils.Utils
 import org.apache.commons.io.{FilenameUtils, FileUtils, IOUtils}
 import java.io.{OutputStreamWriter, File}
+import java.util.concurrent.ConcurrentLinkedQueue
+import org.broadinstitute.sting.queue.engine.warmjvm.WarmJvmJobManager
+import collection.mutable
 
 /**
  * The internal dependency tracker between sets of function input and output files.
@@ -53,11 +53,14 @@ class QGraph extends Logging {
   private def dryRun = !settings.run
   private var numMissingValues = 0
 
-  private val jobGraph = newGraph
+  // The function edges in the order they were added.
+  private val functionEdges = new mutable.LinkedHashSet[FunctionEdge]
+  // The dependencies between the function edges, built once all the functions have been added.
+  private var functionGraph: FunctionGraph = _
   private val functionOrdering = Ordering.by[FunctionEdge, Iterable[Int]](edge => -graphDepth(edge) +: edge.function.addOrder)
   private val fileOrdering = Ordering.by[File,String](_.getAbsolutePath)
   // A map of nodes by list of files.
-  private var nodeMap = TreeMap.empty[Iterable[File], QNode](Ordering.Iterable(fileOrdering))
+  private val nodeMap = new mutable.HashMap[Seq[File], QNode]
   // The next unique id for a node if not found in the nodeMap.
   private var nextNodeId = 0
 
@@ -66,11 +69,16 @@ class QGraph extends Logging {
   private var runningJobs = Set.empty[FunctionEdge]
   private var cleanupJobs = Set.empty[FunctionEdge]
 
+  // Jobs whose runners have reported that they finished, possibly from other threads.
+  private val finishedJobs = new ConcurrentLinkedQueue[FunctionEdge]
+  // True while the main thread waits on the runningLock for jobs to finish.
+  @volatile private var waitingForJobs = false
+
   private val nl = "%n".format()
 
   private val commandLinePluginManager = new CommandLinePluginManager
   private var commandLineManager: CommandLineJobManager[CommandLineJobRunner] = _
-  private val inProcessManager = new InProcessJobManager
+  private var inProcessManager: InProcessJobManager = _
   private def managers = Seq[Any](inProcessManager, commandLineManager)
 
   /**
@@ -121,7 +129,10 @@ class QGraph extends Logging {
             outputFiles :+= command.jobErrorFile
           val inputs = getQNode(inputFiles.sorted(fileOrdering))
           val outputs = getQNode(outputFiles.sorted(fileOrdering))
-          addEdge(new FunctionEdge(command, inputs, outputs))
+          // Replaces any function with the same inputs and outputs
+          val edge = new FunctionEdge(command, inputs, outputs)
+          functionEdges -= edge
+          functionEdges += edge
         }
       }
     } catch {
@@ -140,7 +151,7 @@ class QGraph extends Logging {
         fillGraph()
         val isReady = numMissingValues == 0
 
-        if (this.jobGraph.edgeSet.isEmpty) {
+        if (functionEdges.isEmpty) {
           logger.warn("Nothing to run! Were any Functions added?")
         } else if (settings.getStatus) {
           logger.info("Checking pipeline status.")
@@ -165,13 +176,12 @@ class QGraph extends Logging {
 
   private def fillGraph() {
     logger.info("Generating graph.")
-    fill()
     if (settings.graphvizFile != null)
       renderGraph(settings.graphvizFile)
     validate()
 
     if (running && numMissingValues == 0) {
-      val scatterGathers = jobGraph.edgeSet.filter(edge => scatterGatherable(edge))
+      val scatterGathers = functionEdges.filter(edge => scatterGatherable(edge)).toSeq
       if (!scatterGathers.isEmpty) {
         logger.info("Generating scatter gather jobs.")
 
@@ -184,14 +194,12 @@ class QGraph extends Logging {
         }
 
         logger.info("Removing original jobs.")
-        this.jobGraph.removeAllEdges(scatterGathers)
-        prune()
+        functionEdges --= scatterGathers
 
         logger.info("Adding scatter gather jobs.")
         addedFunctions.foreach(function => if (running) this.add(function))
 
         logger.info("Regenerating graph.")
-        fill()
         val scatterGatherDotFile = if (settings.graphvizScatterGatherFile != null) settings.graphvizScatterGatherFile else settings.graphvizFile
         if (scatterGatherDotFile != null)
           renderGraph(scatterGatherDotFile)
@@ -213,127 +221,68 @@ class QGraph extends Logging {
   }
 
   /**
-   * Walks up the graph looking for the previous function edges.
-   * @param edge Graph edge to examine for the previous functions.
+   * Returns the function edges whose outputs are inputs of the edge.
+   * @param edge Function edge to examine for the previous functions.
    * @return A list of prior function edges.
    */
-  private def previousFunctions(edge: QEdge): Seq[FunctionEdge] = {
-    var previous = Seq.empty[FunctionEdge]
-    val source = this.jobGraph.getEdgeSource(edge)
-    for (incomingEdge <- this.jobGraph.incomingEdgesOf(source)) {
-      incomingEdge match {
-
-        // Stop recursing when we find a function edge and return it
-        case functionEdge: FunctionEdge => previous :+= functionEdge
-
-        // For any other type of edge find the jobs preceding the edge
-        case edge: QEdge => previous ++= previousFunctions(edge)
-      }
-    }
-    previous
-  }
+  private def previousFunctions(edge: FunctionEdge): Seq[FunctionEdge] = functionGraph.previousFunctions(edge)
 
   /**
-   * Walks up the graph looking for the next function edges.
-   * @param edge Graph edge to examine for the next functions.
-   * @return A list of prior function edges.
+   * Returns the function edges that use outputs of the edge as inputs.
+   * @param edge Function edge to examine for the next functions.
+   * @return A list of following function edges.
    */
-  private def nextFunctions(edge: QEdge): Seq[FunctionEdge] = {
-    var next = Seq.empty[FunctionEdge]
-    val target = this.jobGraph.getEdgeTarget(edge)
-    for (outgoingEdge <- this.jobGraph.outgoingEdgesOf(target)) {
-      outgoingEdge match {
-
-        // Stop recursing when we find a function edge and return it
-        case functionEdge: FunctionEdge => next :+= functionEdge
-
-        // For any other type of edge find the jobs following the edge
-        case edge: QEdge => next ++= nextFunctions(edge)
-      }
-    }
-    next
-  }
+  private def nextFunctions(edge: FunctionEdge): Seq[FunctionEdge] = functionGraph.nextFunctions(edge)
 
   /**
-   * Fills in the graph using mapping functions, then removes out of date
-   * jobs, then cleans up mapping functions and nodes that aren't need.
+   * Counts the previous function edges of each function edge that aren't done yet.
+   * Must be called once the graph status has been updated.
+   * @return the jobs that are ready to run.
    */
-  private def fill() {
-    fillIn()
-    prune()
+  private def initReadyJobs(): Seq[FunctionEdge] = {
+    val edges = getFunctionEdges
+    for (edge <- edges)
+      edge.numUnfinishedPrevious = this.previousFunctions(edge).count(_.status != RunnerStatus.DONE)
+    edges.filter(isReady(_))
   }
 
   /**
-   * Looks through functions with multiple inputs and outputs and adds mapping functions for single inputs and outputs.
+   * Updates the counts of the jobs following a job that's just done.
+   * @param edge Job that's done.
+   * @return the jobs following the job that are now ready to run.
    */
-  private def fillIn() {
-    // clone since edgeSet is backed by the graph
-    asScalaSet(jobGraph.edgeSet).clone().foreach(edge => {
-      if (running) edge match {
-        case cmd: FunctionEdge => {
-          addCollectionOutputs(cmd.outputs)
-          addCollectionInputs(cmd.inputs)
-        }
-        case map: MappingEdge => /* do nothing for mapping edges */
-      }
+  private def releaseNextFunctions(edge: FunctionEdge): Seq[FunctionEdge] = {
+    this.nextFunctions(edge).filter(next => {
+      next.numUnfinishedPrevious -= 1
+      isReady(next)
     })
   }
 
-  private def getReadyJobs: Set[FunctionEdge] = {
-    jobGraph.edgeSet.filter{
-      case f: FunctionEdge =>
-        this.previousFunctions(f).forall(_.status == RunnerStatus.DONE) && f.status == RunnerStatus.PENDING
-      case _ => false
-    }.toSet.asInstanceOf[Set[FunctionEdge]]
-  }
-
-  /**
-   *  Removes mapping edges that aren't being used, and nodes that don't belong to anything.
-   */
-  private def prune() {
-    var pruning = true
-    while (pruning) {
-      pruning = false
-      val filler = jobGraph.edgeSet.filter(isFiller(_))
-      if (filler.size > 0) {
-        jobGraph.removeAllEdges(filler)
-        pruning = running
-      }
-    }
-
-    if (running) {
-      for (orphan <- jobGraph.vertexSet.filter(isOrphan(_))) {
-        jobGraph.removeVertex(orphan)
-        nodeMap -= orphan.files
-      }
-    }
-  }
+  private def isReady(edge: FunctionEdge) =
+    edge.numUnfinishedPrevious == 0 && edge.status == RunnerStatus.PENDING
 
   /**
-   * Validates that the functions in the graph have no missing values and that there are no cycles.
+   * Validates that the functions in the graph have no missing values, then builds the dependencies
+   * between the functions and checks that there are no cycles.
    */
   private def validate() {
-    asScalaSet(jobGraph.edgeSet).foreach(
-      edge =>
-        if (running) edge match
-        {
-          case cmd: FunctionEdge =>
-            val missingFieldValues = cmd.function.missingFields
-            if (missingFieldValues.size > 0) {
-              numMissingValues += missingFieldValues.size
-              logger.error("Missing %s values for function: %s".format(missingFieldValues.size, cmd.function.description))
-              for (missing <- missingFieldValues)
-                logger.error("  " + missing)
-            }
-          case map: MappingEdge => /* do nothing for mapping edges */
+    for (edge <- functionEdges) {
+      if (running) {
+        val missingFieldValues = edge.function.missingFields
+        if (missingFieldValues.size > 0) {
+          numMissingValues += missingFieldValues.size
+          logger.error("Missing %s values for function: %s".format(missingFieldValues.size, edge.function.description))
+          for (missing <- missingFieldValues)
+            logger.error("  " + missing)
         }
-    )
+      }
+    }
 
-    val detector = new CycleDetector(jobGraph)
-    if (detector.detectCycles) {
-      logger.error("Cycles were detected in the graph:")
-      for (cycle <- detector.findCycles)
-        logger.error("  " + cycle)
+    functionGraph = new FunctionGraph(functionEdges.toIndexedSeq)
+    if (functionGraph.hasCycles) {
+      logger.error("Cycles were detected in the graph between the functions:")
+      for (edge <- functionGraph.cycleFunctions)
+        logger.error("  " + edge.function.description)
       throw new QException("Cycles were detected in the graph.")
     }
   }
@@ -347,19 +296,21 @@ class QGraph extends Logging {
 
     updateGraphStatus(cleanOutputs = false)
 
-    var readyJobs = getReadyJobs
+    var readyJobs = initReadyJobs()
     while (running && readyJobs.size > 0) {
       logger.debug("+++++++")
-      foreachFunction(readyJobs.toSeq, edge => {
+      var nextReadyJobs = Seq.empty[FunctionEdge]
+      foreachFunction(readyJobs, edge => {
         if (running) {
           edge.myRunInfo.startTime = new Date()
           edge.getRunInfo.exechosts = Utils.resolveHostname()
           logEdge(edge)
           edge.myRunInfo.doneTime = new Date()
           edge.markAsDone()
+          nextReadyJobs ++= releaseNextFunctions(edge)
         }
       })
-      readyJobs = getReadyJobs
+      readyJobs = nextReadyJobs
     }
   }
 
@@ -402,6 +353,11 @@ class QGraph extends Logging {
       else if (settings.jobRunner == null)
         settings.jobRunner = "Shell"
       commandLineManager = commandLinePluginManager.createByName(settings.jobRunner)
+      (commandLineManager: Any) match {
+        case warmJvm: WarmJvmJobManager => settings.warmJvmWorkers.foreach(warmJvm.numWorkers = _)
+        case _ => /* other job runners are configured through the functions */
+      }
+      inProcessManager = new InProcessJobManager(settings.inProcessThreads)
 
       for (mgr <- managers) {
         if (mgr != null) {
@@ -416,7 +372,7 @@ class QGraph extends Logging {
       updateGraphStatus(cleanOutputs = true)
 
       var readyJobs = TreeSet.empty[FunctionEdge](functionOrdering)
-      readyJobs ++= getReadyJobs
+      readyJobs ++= initReadyJobs()
       runningJobs = Set.empty[FunctionEdge]
       var lastRunningCheck = System.currentTimeMillis
       var logNextStatusCounts = true
@@ -431,6 +387,7 @@ class QGraph extends Logging {
         while (running && readyJobs.size > 0 && !readyRunningCheck(lastRunningCheck)) {
           val edge = readyJobs.head
           edge.runner = newRunner(edge.function)
+          edge.runner.statusListener = () => jobFinished(edge)
           edge.start()
           messengers.foreach(_.started(jobShortName(edge.function)))
           startedJobs += edge
@@ -454,20 +411,21 @@ class QGraph extends Logging {
           startedJobsToEmail = Set.empty[FunctionEdge]
         }
 
-        if (readyJobs.size == 0 && runningJobs.size > 0) {
-          runningLock.synchronized {
-            if (running) {
-              val timeout = nextRunningCheck(lastRunningCheck)
-              if (timeout > 0)
-                runningLock.wait(timeout)
-            }
-          }
+        if (readyJobs.size == 0 && runningJobs.size > 0)
+          waitForFinishedJobs(lastRunningCheck)
+
+        // Check the jobs that reported finishing, and the jobs just started in case they finished or failed
+        // to start without reporting it.  Only when it's time to check the running status are the job
+        // managers polled and all running jobs checked, for runners that don't report when they finish.
+        var checkJobs = startedJobs ++ pollFinishedJobs()
+        if (readyRunningCheck(lastRunningCheck)) {
+          lastRunningCheck = System.currentTimeMillis
+          updateStatus()
+          checkJobs ++= runningJobs
         }
+        checkJobs ++= pollFinishedJobs()
 
-        lastRunningCheck = System.currentTimeMillis
-        updateStatus()
-
-        runningJobs.foreach(edge => edge.status match {
+        (checkJobs & runningJobs).foreach(edge => edge.status match {
           case RunnerStatus.DONE => {
             doneJobs += edge
             messengers.foreach(_.done(jobShortName(edge.function)))
@@ -497,6 +455,7 @@ class QGraph extends Logging {
         if (running && failedJobs.size > 0) {
           emailFailedJobs(failedJobs)
           checkRetryJobs(failedJobs)
+          readyJobs ++= failedJobs.filter(isReady(_))
         }
 
         // incremental
@@ -505,7 +464,7 @@ class QGraph extends Logging {
           writeJobsReport(plot = false)
         }
 
-        readyJobs ++= getReadyJobs
+        doneJobs.foreach(edge => readyJobs ++= releaseNextFunctions(edge))
       }
 
       logStatusCounts()
@@ -519,6 +478,52 @@ class QGraph extends Logging {
     }
   }
 
+  /**
+   * Queues a job whose runner has reported that it finished, and wakes the main thread if it's waiting.
+   * May be called from any thread.
+   * @param edge Job that finished.
+   */
+  private def jobFinished(edge: FunctionEdge) {
+    finishedJobs.add(edge)
+    if (waitingForJobs)
+      runningLock.synchronized {
+        runningLock.notify()
+      }
+  }
+
+  /**
+   * Waits until a job reports that it finished, the graph is shutdown, or it's time to check the running status.
+   * @param lastRunningCheck The last time the status was checked.
+   */
+  private def waitForFinishedJobs(lastRunningCheck: Long) {
+    runningLock.synchronized {
+      waitingForJobs = true
+      try {
+        if (running && finishedJobs.isEmpty) {
+          val timeout = nextRunningCheck(lastRunningCheck)
+          if (timeout > 0)
+            runningLock.wait(timeout)
+        }
+      } finally {
+        waitingForJobs = false
+      }
+    }
+  }
+
+  /**
+   * Removes the jobs that reported finishing from the queue.
+   * @return the jobs that reported finishing.
+   */
+  private def pollFinishedJobs() = {
+    var jobs = Set.empty[FunctionEdge]
+    var edge = finishedJobs.poll()
+    while (edge != null) {
+      jobs += edge
+      edge = finishedJobs.poll()
+    }
+    jobs
+  }
+
   private def readyRunningCheck(lastRunningCheck: Long) =
     lastRunningCheck > 0 && nextRunningCheck(lastRunningCheck) <= 0
 
@@ -539,6 +544,11 @@ class QGraph extends Logging {
    * @param cleanOutputs If true will delete outputs when setting edges to pending.
    */
   private def updateGraphStatus(cleanOutputs: Boolean) {
+    // Reconcile the statuses with the done and fail files once, listing each directory instead of checking
+    // every file.  From here on the statuses are only tracked in memory.
+    val statusFiles = new DirectoryListingCache
+    getFunctionEdges.foreach(_.initStatus(statusFiles.exists))
+
     if (settings.startFromScratch)
       foreachFunction(edge => edge.resetToPending(cleanOutputs))
     else
@@ -646,20 +656,11 @@ class QGraph extends Logging {
   }
 
   /**
-   * Returns the graph depth for the function.
+   * Returns the graph depth for the function, as set when the function graph was built.
    * @param edge Function edge to get the edge for.
    * @return the graph depth for the function.
    */
-  private def graphDepth(edge: FunctionEdge): Int = {
-    if (edge.depth < 0) {
-      val previous = previousFunctions(edge)
-      if (previous.size == 0)
-        edge.depth = 0
-      else
-        edge.depth = previous.map(f => graphDepth(f)).max + 1
-    }
-    edge.depth
-  }
+  private def graphDepth(edge: FunctionEdge): Int = edge.depth max 0
 
   /**
    * From the previous edges, resets any that are marked as skipped to pending.
@@ -920,13 +921,6 @@ class QGraph extends Logging {
       prefix, stats.total, stats.done, stats.failed)
   }
 
-  /**
-   *   Creates a new graph where if new edges are needed (for cyclic dependency checking) they can be automatically created using a generic MappingFunction.
-   * @return A new graph
-   */
-  private def newGraph = new SimpleDirectedGraph[QNode, QEdge](new EdgeFactory[QNode, QEdge] {
-    def createEdge(input: QNode, output: QNode) = new MappingEdge(input, output)})
-
   private def getQNode(files: Seq[File]) = {
     nodeMap.get(files) match {
       case Some(node) =>
@@ -936,78 +930,17 @@ class QGraph extends Logging {
           logger.debug("adding QNode: " + nextNodeId)
         val node = new QNode(nextNodeId, files)
         nextNodeId += 1
-        jobGraph.addVertex(node)
         nodeMap += files -> node
         node
     }
   }
 
-  private def addEdge(edge: QEdge) {
-    jobGraph.removeAllEdges(edge.inputs, edge.outputs)
-    jobGraph.addEdge(edge.inputs, edge.outputs, edge)
-  }
-
-  /**
-   * Adds input mappings between the node's files and the individual files.
-   * @param inputs Input node.
-   */
-  private def addCollectionInputs(inputs: QNode) {
-    if (inputs.files.size > 1)
-      for (file <- inputs.files) {
-        if (running) {
-          val input = getQNode(Seq(file))
-          if (!jobGraph.containsEdge(input, inputs))
-            addEdge(new MappingEdge(input, inputs))
-        }
-      }
-  }
-
-  /**
-   * Adds output mappings between the node's files and the individual files.
-   * @param outputs Output node.
-   */
-  private def addCollectionOutputs(outputs: QNode) {
-    if (outputs.files.size > 1)
-      for (file <- outputs.files) {
-        if (running) {
-          val output = getQNode(Seq(file))
-          if (!jobGraph.containsEdge(outputs, output))
-            addEdge(new MappingEdge(outputs, output))
-        }
-      }
-  }
-
-  /**
-   * Returns true if the edge is mapping edge that is not needed because it does
-   * not direct input or output from a user generated CommandLineFunction.
-   * @param edge Edge to check.
-   * @return true if the edge is not needed in the graph.
-   */
-  private def isFiller(edge: QEdge) = {
-    edge match {
-      case mapping: MappingEdge =>
-        jobGraph.outgoingEdgesOf(jobGraph.getEdgeTarget(edge)).size == 0 &&
-          jobGraph.incomingEdgesOf(jobGraph.getEdgeSource(edge)).size == 0
-      case _ => false
-    }
-  }
-
-  /**
-   * Returns true if the node is not connected to any edges.
-   * @param node Node (set of files) to check.
-   * @return true if this set of files is not needed in the graph.
-   */
-  private def isOrphan(node: QNode) = {
-    jobGraph.incomingEdgesOf(node).size == 0 &&
-      jobGraph.outgoingEdgesOf(node).size == 0
-  }
-
   /**
    * Utility function for running a method over all function edges.
    * @param f Function to run for each FunctionEdge.
    */
   private def foreachFunction(f: (FunctionEdge) => Unit) {
-    foreachFunction(jobGraph.edgeSet.toSeq.filter(_.isInstanceOf[FunctionEdge]).asInstanceOf[Seq[FunctionEdge]], f)
+    foreachFunction(getFunctionEdges, f)
   }
 
   /**
@@ -1022,27 +955,14 @@ class QGraph extends Logging {
   /**
    * Utility function returning all function edges.
    */
-  private def getFunctionEdges: Seq[FunctionEdge] = {
-    jobGraph.edgeSet.toSeq.filter(_.isInstanceOf[FunctionEdge]).asInstanceOf[Seq[FunctionEdge]]
-  }
+  private def getFunctionEdges: Seq[FunctionEdge] = functionEdges.toIndexedSeq
 
   /**
    * Utility function for running a method over all functions, but traversing the nodes in order of dependency.
    * @param f Function to run for each FunctionEdge.
    */
   private def traverseFunctions(f: (FunctionEdge) => Unit) {
-    val iterator = new TopologicalOrderIterator(this.jobGraph)
-    iterator.addTraversalListener(new TraversalListenerAdapter[QNode, QEdge] {
-      override def edgeTraversed(event: EdgeTraversalEvent[QNode, QEdge]) {
-        if (running) {
-          event.getEdge match {
-            case functionEdge: FunctionEdge => f(functionEdge)
-            case map: MappingEdge => /* do nothing for mapping functions */
-          }
-        }
-      }
-    })
-    iterator.foreach(_ => {})
+    functionGraph.topologicalOrder.foreach(edge => if (running) f(edge))
   }
 
   /**
@@ -1052,6 +972,8 @@ class QGraph extends Logging {
    * @param file Path to output the .gv file.
    */
   private def renderGraph(file: java.io.File) {
+    val jobGraph = newRenderGraph
+
     val vertexIDProvider = new org.jgrapht.ext.VertexNameProvider[QNode] {
       def getVertexName(node: QNode) = node.id.toString
     }
@@ -1086,6 +1008,60 @@ class QGraph extends Logging {
     }
   }
 
+  /**
+   * Creates a graph of the functions for rendering, between nodes of their input and output files.
+   * Nodes of multiple files are connected by mapping edges to nodes of their individual files,
+   * where those connect to other functions.
+   * @return A new graph
+   */
+  private def newRenderGraph = {
+    val jobGraph = new SimpleDirectedGraph[QNode, QEdge](new EdgeFactory[QNode, QEdge] {
+      def createEdge(input: QNode, output: QNode) = new MappingEdge(input, output)})
+
+    def addEdge(edge: QEdge) {
+      jobGraph.addVertex(edge.inputs)
+      jobGraph.addVertex(edge.outputs)
+      jobGraph.removeAllEdges(edge.inputs, edge.outputs)
+      jobGraph.addEdge(edge.inputs, edge.outputs, edge)
+    }
+
+    for (edge <- functionEdges)
+      addEdge(edge)
+
+    // Add mappings between the nodes of multiple files and their individual files
+    for (edge <- functionEdges) {
+      if (edge.outputs.files.size > 1)
+        for (file <- edge.outputs.files) {
+          val output = getQNode(Seq(file))
+          if (!jobGraph.containsEdge(edge.outputs, output))
+            addEdge(new MappingEdge(edge.outputs, output))
+        }
+      if (edge.inputs.files.size > 1)
+        for (file <- edge.inputs.files) {
+          val input = getQNode(Seq(file))
+          if (!jobGraph.containsEdge(input, edge.inputs))
+            addEdge(new MappingEdge(input, edge.inputs))
+        }
+    }
+
+    // Remove the mapping edges that don't lead from one function to another, and then the unused nodes
+    var pruning = true
+    while (pruning) {
+      val filler = jobGraph.edgeSet.filter {
+        case mapping: MappingEdge =>
+          jobGraph.outgoingEdgesOf(jobGraph.getEdgeTarget(mapping)).size == 0 &&
+            jobGraph.incomingEdgesOf(jobGraph.getEdgeSource(mapping)).size == 0
+        case _ => false
+      }.toSeq
+      jobGraph.removeAllEdges(filler)
+      pruning = filler.size > 0
+    }
+    for (orphan <- jobGraph.vertexSet.toSeq if jobGraph.edgesOf(orphan).isEmpty)
+      jobGraph.removeVertex(orphan)
+
+    jobGraph
+  }
+
   /**
    * Returns true if no functions have missing values nor a status of failed.
    * @return true if no functions have missing values nor a status of failed.
@@ -1096,13 +1072,9 @@ class QGraph extends Logging {
     } else if (this.dryRun) {
       true
     } else {
-      !this.jobGraph.edgeSet.exists(edge => {
-        if (edge.isInstanceOf[FunctionEdge]) {
-          val status = edge.asInstanceOf[FunctionEdge].status
-          (status == RunnerStatus.PENDING || status == RunnerStatus.RUNNING || status == RunnerStatus.FAILED)
-        } else {
-          false
-        }
+      !functionEdges.exists(edge => {
+        val status = edge.status
+        (status == RunnerStatus.PENDING || status == RunnerStatus.RUNNING || status == RunnerStatus.FAILED)
       })
     }
   }
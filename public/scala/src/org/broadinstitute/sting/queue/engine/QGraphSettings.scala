@@ -28,7 +28,7 @@ package org.broadinstitute.sting.queue.engine
 import java.io.File
 import org.broadinstitute.sting.queue.QSettings
 import org.broadinstitute.sting.queue.util.{EmailSettings, SystemUtils}
-import org.broadinstitute.sting.commandline.{Advanced, ArgumentCollection, Argument}
+import org.broadinstitute.sting.commandline.{ClassType, Advanced, ArgumentCollection, Argument}
 
 /**
  * Command line options for a QGraph.
@@ -49,6 +49,13 @@ class QGraphSettings {
   @Argument(fullName="status",shortName="status",doc="Get status of jobs for the qscript",required=false)
   var getStatus = false
 
+  @Argument(fullName="warm_jvm_workers", shortName="warmJvmWorkers", doc="Number of jobs to run at once with -jobRunner WarmJvm, each java job on a reused worker JVM.  Defaults to the number of processors.", required=false)
+  @ClassType(classOf[Int])
+  var warmJvmWorkers: Option[Int] = None
+
+  @Argument(fullName="in_process_threads", shortName="inProcessThreads", doc="Number of threads to run in process functions, such as scatters and gathers, on concurrently.  Defaults to running them one at a time.", required=false)
+  var inProcessThreads = 1
+
   @Argument(fullName="retry_failed", shortName="retry", doc="Retry the specified number of times after a command fails.  Defaults to no retries.", required=false)
   var retries = 0
 
@@ -0,0 +1,117 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.queue.engine.warmjvm
+
+import org.broadinstitute.sting.queue.function.CommandLineFunction
+import org.broadinstitute.sting.queue.engine.CommandLineJobManager
+import org.broadinstitute.sting.queue.util.Logging
+import org.broadinstitute.sting.utils.runtime.JvmWorkerProcess
+import java.io.{IOException, File}
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+import scala.collection.JavaConversions._
+
+/**
+ * Runs jobs locally, several at a time.  Java jobs run on warm worker JVMs that are reused from one job to the next,
+ * instead of each job paying for JVM startup and warm-up.  Other jobs run with sh, as with the Shell job runner.
+ */
+class WarmJvmJobManager extends CommandLineJobManager[WarmJvmJobRunner] with Logging {
+  /** The number of jobs to run at once, each java job on its own worker JVM. */
+  var numWorkers = Runtime.getRuntime.availableProcessors
+
+  private var executor: ExecutorService = _
+
+  // The worker of each thread of the executor, and the worker commands that failed to start
+  private val threadWorkers = new ThreadLocal[(WarmJvmJobRunner.WorkerKey, JvmWorkerProcess)]
+  private val workers = new ConcurrentLinkedQueue[JvmWorkerProcess]
+  private val failedWorkerKeys = java.util.Collections.newSetFromMap(new ConcurrentHashMap[WarmJvmJobRunner.WorkerKey, java.lang.Boolean])
+
+  def runnerType = classOf[WarmJvmJobRunner]
+  def create(function: CommandLineFunction) = new WarmJvmJobRunner(function, this)
+
+  override def init() {
+    if (numWorkers < 1)
+      throw new IllegalArgumentException("The number of warm JVM workers must be at least 1: " + numWorkers)
+    executor = Executors.newFixedThreadPool(numWorkers, new ThreadFactory {
+      private val threadNumber = new AtomicInteger
+      def newThread(runnable: Runnable) = {
+        val thread = new Thread(runnable, "WarmJvmJobManager-" + threadNumber.incrementAndGet)
+        thread.setDaemon(true)
+        thread
+      }
+    })
+  }
+
+  override def exit() {
+    if (executor != null)
+      executor.shutdownNow()
+    workers.foreach(_.destroy())
+    workers.clear()
+  }
+
+  override def tryStop(runners: Set[WarmJvmJobRunner]) { runners.foreach(_.tryStop()) }
+
+  /**
+   * Runs a job on one of the threads of the manager.
+   * @param job Job to run.
+   */
+  private[warmjvm] def submit(job: Runnable) {
+    executor.submit(job)
+  }
+
+  /**
+   * Returns the worker of the current thread for the key, starting a new worker if the thread
+   * doesn't have a live one for the key yet.
+   * @param key The command and directory of the worker.
+   * @return the worker, or None if workers can't be started for the key.
+   */
+  private[warmjvm] def worker(key: WarmJvmJobRunner.WorkerKey): Option[JvmWorkerProcess] = {
+    val current = threadWorkers.get
+    if (current != null) {
+      val (currentKey, currentWorker) = current
+      if (currentKey == key && currentWorker.isAlive)
+        return Some(currentWorker)
+      currentWorker.close()
+      workers.remove(currentWorker)
+      threadWorkers.remove()
+    }
+
+    if (failedWorkerKeys.contains(key))
+      return None
+
+    try {
+      val started = new JvmWorkerProcess(key.javaCommand, key.classpath, key.mainClass, key.directory)
+      workers.add(started)
+      threadWorkers.set((key, started))
+      Some(started)
+    } catch {
+      case e: IOException =>
+        logger.warn("Unable to start a worker JVM, running java jobs with sh instead: " + e.getMessage)
+        failedWorkerKeys.add(key)
+        None
+    }
+  }
+}
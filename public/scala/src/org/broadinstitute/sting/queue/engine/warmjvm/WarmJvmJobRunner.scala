@@ -0,0 +1,170 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.queue.engine.warmjvm
+
+import org.broadinstitute.sting.queue.function.{JavaCommandLineFunction, CommandLineFunction}
+import org.broadinstitute.sting.queue.engine.RunnerStatus
+import org.broadinstitute.sting.queue.engine.shell.ShellJobRunner
+import org.broadinstitute.sting.queue.util.ShellUtils
+import org.broadinstitute.sting.utils.Utils
+import org.broadinstitute.sting.utils.io.IOUtils
+import org.broadinstitute.sting.utils.runtime.JvmWorkerProcess
+import java.io.File
+import java.util.Date
+import java.util.jar.JarFile
+import scala.collection.JavaConversions._
+
+/**
+ * Runs a job on a thread of the WarmJvmJobManager, on a warm worker JVM if the job is a plain java command,
+ * otherwise with sh.
+ * @param runFunction Command to run.
+ * @param manager Manager of the threads and workers.
+ */
+class WarmJvmJobRunner(runFunction: CommandLineFunction, manager: WarmJvmJobManager) extends ShellJobRunner(runFunction) {
+  // The worker running the job, if any
+  @volatile private var worker: JvmWorkerProcess = _
+  @volatile private var stopped = false
+
+  override def start() {
+    updateStatus(RunnerStatus.RUNNING)
+    manager.submit(new Runnable {
+      def run() {
+        try {
+          if (!stopped) {
+            val job = WarmJvmJobRunner.javaJob(function)
+            val jobWorker = job.flatMap(javaJob => manager.worker(javaJob.key))
+            if (jobWorker.isDefined)
+              runOnWorker(jobWorker.get, job.get.args)
+            else
+              runOnShell()
+          }
+        } catch {
+          case e: Throwable =>
+            logger.error("Error: " + function.description, e)
+            getRunInfo.doneTime = new Date()
+            updateStatus(RunnerStatus.FAILED)
+        }
+        if (status == RunnerStatus.RUNNING)
+          updateStatus(RunnerStatus.FAILED)
+      }
+    })
+  }
+
+  private def runOnWorker(jobWorker: JvmWorkerProcess, args: Seq[String]) {
+    getRunInfo.startTime = new Date()
+    getRunInfo.exechosts = Utils.resolveHostname()
+    worker = jobWorker
+    if (stopped)
+      jobWorker.destroy()
+    val exitStatus = jobWorker.run(args, function.jobOutputFile, function.jobErrorFile)
+    worker = null
+    getRunInfo.doneTime = new Date()
+    updateStatus(if (exitStatus == 0) RunnerStatus.DONE else RunnerStatus.FAILED)
+  }
+
+  private def runOnShell() {
+    super.start()
+  }
+
+  override def tryStop() {
+    stopped = true
+    val jobWorker = worker
+    if (jobWorker != null)
+      jobWorker.destroy()
+    super.tryStop()
+  }
+}
+
+object WarmJvmJobRunner {
+  /**
+   * The command and directory of a worker JVM.
+   * @param javaCommand The java executable followed by the JVM options.
+   * @param classpath The classpath of the main class.
+   * @param mainClass The main class of the jobs.
+   * @param directory The directory to run the worker in.
+   */
+  case class WorkerKey(javaCommand: Seq[String], classpath: String, mainClass: String, directory: File)
+
+  /**
+   * A java job to run on a worker.
+   * @param key The worker the job can run on.
+   * @param args The arguments for the main class.
+   */
+  case class JavaJob(key: WorkerKey, args: Seq[String])
+
+  /**
+   * Returns the java job for the function, if the command line of the function is a single java command run with
+   * either -jar or -cp, and nothing that needs the shell.
+   * @param function Function to run.
+   * @return the java job, or None if the function needs to run with sh.
+   */
+  def javaJob(function: CommandLineFunction): Option[JavaJob] = {
+    function match {
+      case java: JavaCommandLineFunction =>
+        ShellUtils.splitShellArguments(java.commandLine).flatMap(parse(_, java.commandDirectory))
+      case _ => None
+    }
+  }
+
+  private def parse(args: Seq[String], directory: File): Option[JavaJob] = {
+    if (args.isEmpty || args.head != "java")
+      return None
+    val (options, rest) = args.tail.span(arg => arg.startsWith("-") && arg != "-jar" && arg != "-cp" && arg != "-classpath")
+    val javaCommand = args.head +: options
+    rest match {
+      case "-jar" +: jar +: jarArgs =>
+        mainClass(IOUtils.absolute(directory, new File(jar))).map(main => JavaJob(WorkerKey(javaCommand, jar, main, directory), jarArgs))
+      case ("-cp" | "-classpath") +: classpath +: main +: mainArgs =>
+        Some(JavaJob(WorkerKey(javaCommand, classpath, main, directory), mainArgs))
+      case _ => None
+    }
+  }
+
+  private val mainClasses = new java.util.concurrent.ConcurrentHashMap[File, Option[String]]
+
+  /**
+   * Returns the Main-Class from the manifest of the jar.
+   * @param jar Jar to read.
+   * @return the Main-Class, or None if the jar doesn't have one.
+   */
+  private def mainClass(jar: File): Option[String] = {
+    var main = mainClasses.get(jar)
+    if (main == null) {
+      main = try {
+        val jarFile = new JarFile(jar)
+        try {
+          Option(jarFile.getManifest).flatMap(manifest => Option(manifest.getMainAttributes.getValue("Main-Class")))
+        } finally {
+          jarFile.close()
+        }
+      } catch {
+        case e: java.io.IOException => None
+      }
+      mainClasses.put(jar, main)
+    }
+    main
+  }
+}
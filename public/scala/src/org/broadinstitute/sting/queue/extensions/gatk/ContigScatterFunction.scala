@@ -44,7 +44,12 @@ class ContigScatterFunction extends GATKScatterFunction with InProcessFunction {
 
   def run() {
     val gi = GATKScatterFunction.getGATKIntervals(this.originalGATK)
-    IntervalUtils.scatterContigIntervals(gi.samFileHeader, gi.locs, this.scatterOutputFiles)
+    if (this.balanceByWork) {
+      val splits = IntervalUtils.splitContigIntervalsByWork(gi.locs, this.scatterOutputFiles.size, this.workEstimate)
+      IntervalUtils.scatterFixedIntervals(gi.samFileHeader, splits, this.scatterOutputFiles)
+    } else {
+      IntervalUtils.scatterContigIntervals(gi.samFileHeader, gi.locs, this.scatterOutputFiles)
+    }
   }
 }
 
@@ -25,8 +25,10 @@
 
 package org.broadinstitute.sting.queue.extensions.gatk
 
-import org.broadinstitute.sting.utils.interval.IntervalUtils
+import org.broadinstitute.sting.utils.interval.{LocusWorkEstimate, IntervalUtils}
+import org.broadinstitute.sting.utils.GenomeLocParser
 import java.io.File
+import collection.JavaConversions._
 import org.broadinstitute.sting.utils.io.IOUtils
 import org.broadinstitute.sting.queue.function.scattergather.{CloneFunction, ScatterFunction}
 import org.broadinstitute.sting.commandline._
@@ -50,6 +52,20 @@ trait GATKScatterFunction extends ScatterFunction {
   /** Whether the last scatter job should also include any unmapped reads. */
   protected var includeUnmapped: Boolean = _
 
+  /**
+   * Whether to balance the scatter parts by the work estimated from the sizes of the reads in the BAM indices and
+   * any priorRunCosts, instead of by the size of the intervals.  Scatter-gather finishes with its slowest part, so
+   * this helps most when read depth varies a lot across the intervals.
+   */
+  var balanceByWork = false
+
+  /**
+   * An optional file of intervals and their costs, such as their runtimes, from a prior run, to add to the work
+   * estimated when balanceByWork is set.  Each line is an interval, a tab, and its cost.
+   */
+  @Input(doc="Interval costs from a prior run", required=false)
+  var priorRunCosts: File = _
+
   override def init() {
     this.originalGATK = this.originalFunction.asInstanceOf[CommandLineGATK]
     // If intervals have been specified check if unmapped is included
@@ -90,6 +106,20 @@ trait GATKScatterFunction extends ScatterFunction {
     !(this.originalGATK.intervals ++ this.originalGATK.excludeIntervals).exists(interval => !interval.exists())
   }
 
+  /**
+   * @return the estimated work at each locus of the reference, from the input BAMs and any priorRunCosts.
+   */
+  protected def workEstimate = {
+    val gi = GATKScatterFunction.getGATKIntervals(this.originalGATK)
+    val work = new LocusWorkEstimate(gi.samFileHeader.getSequenceDictionary)
+    val bams = this.originalGATK.input_file.filter(_.getName.toLowerCase.endsWith(".bam"))
+    if (!bams.isEmpty)
+      work.addBAMs(bams)
+    if (this.priorRunCosts != null)
+      work.addPriorRunCosts(new GenomeLocParser(gi.samFileHeader.getSequenceDictionary), this.priorRunCosts)
+    work
+  }
+
   /**
    * @return the maximum number of intervals or this.scatterCount if the maximum can't be determined ahead of time.
    */
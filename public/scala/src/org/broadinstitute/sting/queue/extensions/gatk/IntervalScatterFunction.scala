@@ -40,7 +40,11 @@ class IntervalScatterFunction extends GATKScatterFunction with InProcessFunction
 
   def run() {
     val gi = GATKScatterFunction.getGATKIntervals(this.originalGATK)
-    val splits = IntervalUtils.splitFixedIntervals(gi.locs, this.scatterOutputFiles.size)
+    val splits =
+      if (this.balanceByWork)
+        IntervalUtils.splitFixedIntervalsByWork(gi.locs, this.scatterOutputFiles.size, this.workEstimate)
+      else
+        IntervalUtils.splitFixedIntervals(gi.locs, this.scatterOutputFiles.size)
     IntervalUtils.scatterFixedIntervals(gi.samFileHeader, splits, this.scatterOutputFiles)
   }
 }
@@ -37,7 +37,11 @@ class LocusScatterFunction extends GATKScatterFunction with InProcessFunction {
 
   def run() {
     val gi = GATKScatterFunction.getGATKIntervals(this.originalGATK)
-    val splits = IntervalUtils.splitLocusIntervals(gi.locs, this.scatterOutputFiles.size)
+    val splits =
+      if (this.balanceByWork)
+        IntervalUtils.splitLocusIntervalsByWork(gi.locs, this.scatterOutputFiles.size, this.workEstimate)
+      else
+        IntervalUtils.splitLocusIntervals(gi.locs, this.scatterOutputFiles.size)
     IntervalUtils.scatterFixedIntervals(gi.samFileHeader, splits, this.scatterOutputFiles)
   }
 }
\ No newline at end of file
@@ -159,21 +159,33 @@ trait QFunction extends Logging with QJobReport {
   /**
    * Returns true if the function is done.
    */
-  def isDone: Boolean = {
+  def isDone: Boolean = isDone((file: File) => file.exists)
+
+  /**
+   * Returns true if the function is done.
+   * @param exists Checks if a status file exists.
+   */
+  def isDone(exists: File => Boolean): Boolean = {
     val files = doneOutputs
     if (files.size == 0)
       throw new IllegalStateException("Function should have at least one output: " + analysisName)
-    files.forall(_.exists)
+    files.forall(exists)
   }
 
   /**
    * Returns true if the function has failed.
    */
-  def isFail: Boolean = {
+  def isFail: Boolean = isFail((file: File) => file.exists)
+
+  /**
+   * Returns true if the function has failed.
+   * @param exists Checks if a status file exists.
+   */
+  def isFail(exists: File => Boolean): Boolean = {
     val files = failOutputs
     if (files.size == 0)
       throw new IllegalStateException("Function should have at least one output: " + analysisName)
-    files.exists(_.exists)
+    files.exists(exists)
   }
 
   /**
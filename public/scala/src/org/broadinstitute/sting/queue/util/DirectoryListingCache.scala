@@ -0,0 +1,57 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.queue.util
+
+import java.io.File
+import collection.mutable
+
+/**
+ * Checks if files exist by listing each of their directories once, instead of looking up every file.
+ * Much faster when checking many files in a few directories, especially on network file systems.
+ * The listings are never refreshed, so only use the cache while the files aren't changing.
+ */
+class DirectoryListingCache {
+  private val listings = mutable.Map.empty[File, Set[String]]
+
+  /**
+   * Returns true if the file existed when its directory was first listed.
+   * @param file File to check.
+   * @return true if the file exists.
+   */
+  def exists(file: File): Boolean = {
+    val absolute = file.getAbsoluteFile
+    val dir = absolute.getParentFile
+    if (dir == null)
+      absolute.exists
+    else
+      listings.getOrElseUpdate(dir, listNames(dir)).contains(absolute.getName)
+  }
+
+  private def listNames(dir: File) = {
+    val names = dir.list()
+    if (names == null) Set.empty[String] else names.toSet
+  }
+}
@@ -58,4 +58,63 @@ object ShellUtils {
 
     "'" + str.replaceAll("'", "'\\\\''") + "'"
   }
-}
\ No newline at end of file
+
+  /**
+   * Splits a command line into its arguments as sh would, if the command line is a single simple command
+   * of unquoted words and arguments escaped with escapeShellArgument.
+   *
+   * Examples:
+   * java -jar 'a b.jar'  ->  Some(Seq("java", "-jar", "a b.jar"))
+   * echo 'a'\''b'        ->  Some(Seq("echo", "a'b"))
+   * echo $HOME           ->  None
+   *
+   * @param commandLine the command line to split
+   * @return the arguments, or None if the command line uses any other shell syntax, such as double quotes,
+   *         variables, globs, redirection, pipes or multiple commands
+   */
+  def splitShellArguments ( commandLine : String ) : Option[Seq[String]] = {
+    if ( commandLine == null ) {
+      throw new IllegalArgumentException("splitShellArguments() was passed a null String")
+    }
+
+    val args = Seq.newBuilder[String]
+    val arg = new StringBuilder
+    var inArg = false
+    var i = 0
+    while ( i < commandLine.length ) {
+      commandLine.charAt(i) match {
+        case ' ' | '\t' =>
+          if ( inArg ) {
+            args += arg.toString()
+            arg.clear()
+            inArg = false
+          }
+        case '\'' =>
+          val end = commandLine.indexOf('\'', i + 1)
+          if ( end < 0 )
+            return None
+          arg.append(commandLine.substring(i + 1, end))
+          inArg = true
+          i = end
+        case '\\' =>
+          if ( i + 1 == commandLine.length || commandLine.charAt(i + 1) == '\n' )
+            return None
+          arg.append(commandLine.charAt(i + 1))
+          inArg = true
+          i += 1
+        case c if ( shellSyntax.indexOf(c) >= 0 ) =>
+          return None
+        case c =>
+          arg.append(c)
+          inArg = true
+      }
+      i += 1
+    }
+    if ( inArg )
+      args += arg.toString()
+    Some(args.result())
+  }
+
+  /** Characters that are left to sh when unquoted */
+  private val shellSyntax = "\"$`|&;<>()[]{}*?~#!\n\r"
+}
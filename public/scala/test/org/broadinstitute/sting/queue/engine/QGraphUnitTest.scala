@@ -0,0 +1,242 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.queue.engine
+
+import org.testng.Assert
+import org.testng.annotations.{BeforeClass, Test}
+import java.io.File
+import org.apache.commons.io.FileUtils
+import org.broadinstitute.sting.BaseTest
+import org.broadinstitute.sting.commandline.{ParsingEngine, Output, Input}
+import org.broadinstitute.sting.queue.function.InProcessFunction
+import org.broadinstitute.sting.queue.{QCommandLine, QException}
+import org.broadinstitute.sting.queue.util.ClassFieldCache
+
+class QGraphUnitTest {
+  @BeforeClass
+  def initParsingEngine() {
+    // Normally set by the QCommandLine
+    if (ClassFieldCache.parsingEngine == null)
+      ClassFieldCache.parsingEngine = new ParsingEngine(new QCommandLine)
+  }
+
+  /**
+   * Appends its name to a log of the functions run, then touches its output.
+   */
+  class LoggingFunction(name: String, inputFiles: Seq[File], outputFile: File, log: StringBuffer) extends InProcessFunction {
+    @Input(doc="inputs", required=false)
+    var in: Seq[File] = inputFiles
+
+    @Output(doc="output")
+    var out: File = outputFile
+
+    var failures = 0
+
+    def run() {
+      if (failures > 0) {
+        failures -= 1
+        throw new QException("Failing " + name)
+      }
+      log.append(name)
+      FileUtils.touch(out)
+    }
+  }
+
+  private def newGraph(dir: File, retries: Int = 0, inProcessThreads: Int = 1) = {
+    val settings = new QGraphSettings
+    settings.run = true
+    settings.retries = retries
+    settings.inProcessThreads = inProcessThreads
+    settings.disableJobReport = true
+    settings.qSettings.runName = "QGraphUnitTest"
+    settings.qSettings.runDirectory = dir
+    settings.qSettings.tempDirectory = dir
+    val graph = new QGraph
+    graph.initializeWithSettings(settings)
+    graph
+  }
+
+  /**
+   * Adds a diamond of functions: a, then b and c which both use a's output, then d which uses both of theirs.
+   */
+  private def addDiamond(graph: QGraph, dir: File, log: StringBuffer) = {
+    def file(name: String) = new File(dir, name + ".txt")
+    val functions = Seq(
+      new LoggingFunction("a", Nil, file("a"), log),
+      new LoggingFunction("b", Seq(file("a")), file("b"), log),
+      new LoggingFunction("c", Seq(file("a")), file("c"), log),
+      new LoggingFunction("d", Seq(file("b"), file("c")), file("d"), log))
+    for ((function, i) <- functions.zipWithIndex) {
+      function.addOrder = Seq(i)
+      graph.add(function)
+    }
+    functions
+  }
+
+  private def newTempDir() = {
+    val dir = BaseTest.createTempFile("QGraphUnitTest", ".dir")
+    dir.delete()
+    dir.mkdirs()
+    dir
+  }
+
+  @Test
+  def testRunInDependencyOrder() {
+    val dir = newTempDir()
+    val log = new StringBuffer
+    val graph = newGraph(dir)
+    addDiamond(graph, dir, log)
+    graph.run()
+
+    Assert.assertTrue(graph.success)
+    Assert.assertEquals(log.toString, "abcd")
+    Assert.assertEquals(graph.formattedStatusCounts, "0 Pend, 0 Run, 0 Fail, 4 Done")
+  }
+
+  @Test
+  def testSkipDoneJobs() {
+    val dir = newTempDir()
+    val firstLog = new StringBuffer
+    val firstGraph = newGraph(dir)
+    addDiamond(firstGraph, dir, firstLog)
+    firstGraph.run()
+    Assert.assertEquals(firstLog.toString, "abcd")
+
+    // The done files of the first run are read at startup, so a new run has nothing to do...
+    val secondLog = new StringBuffer
+    val secondGraph = newGraph(dir)
+    addDiamond(secondGraph, dir, secondLog)
+    secondGraph.run()
+    Assert.assertTrue(secondGraph.success)
+    Assert.assertEquals(secondLog.toString, "")
+
+    // ...until a job loses its done file, which reruns it and the jobs after it.
+    new File(dir, ".c.txt.done").delete()
+    val thirdLog = new StringBuffer
+    val thirdGraph = newGraph(dir)
+    addDiamond(thirdGraph, dir, thirdLog)
+    thirdGraph.run()
+    Assert.assertTrue(thirdGraph.success)
+    Assert.assertEquals(thirdLog.toString, "cd")
+  }
+
+  @Test
+  def testFailedJobBlocksNextJobs() {
+    val dir = newTempDir()
+    val log = new StringBuffer
+    val graph = newGraph(dir)
+    addDiamond(graph, dir, log)(1).failures = 1
+    graph.run()
+
+    Assert.assertFalse(graph.success)
+    Assert.assertEquals(log.toString, "ac")
+    Assert.assertEquals(graph.formattedStatusCounts, "1 Pend, 0 Run, 1 Fail, 2 Done")
+  }
+
+  @Test
+  def testRetryFailedJob() {
+    val dir = newTempDir()
+    val log = new StringBuffer
+    val graph = newGraph(dir, retries = 2)
+    addDiamond(graph, dir, log)(1).failures = 2
+    graph.run()
+
+    Assert.assertTrue(graph.success)
+    Assert.assertEquals(log.toString, "acbd")
+  }
+
+  @Test
+  def testRunOnThreads() {
+    val dir = newTempDir()
+    val log = new StringBuffer
+    val graph = newGraph(dir, inProcessThreads = 2)
+    addDiamond(graph, dir, log)
+    graph.run()
+
+    Assert.assertTrue(graph.success)
+    Assert.assertTrue(log.toString == "abcd" || log.toString == "acbd", log.toString)
+    Assert.assertEquals(graph.formattedStatusCounts, "0 Pend, 0 Run, 0 Fail, 4 Done")
+  }
+
+  @Test
+  def testFailedJobOnThreads() {
+    val dir = newTempDir()
+    val log = new StringBuffer
+    val graph = newGraph(dir, inProcessThreads = 2)
+    val b = addDiamond(graph, dir, log)(1)
+    b.failures = 1
+    graph.run()
+
+    Assert.assertFalse(graph.success)
+    Assert.assertEquals(log.toString, "ac")
+    Assert.assertEquals(graph.formattedStatusCounts, "1 Pend, 0 Run, 1 Fail, 2 Done")
+    // The stack trace is written to the failed function's own log
+    Assert.assertTrue(FileUtils.readFileToString(b.jobOutputFile).contains("Failing b"))
+  }
+
+  @Test
+  def testDependOnOneOfManyOutputs() {
+    val dir = newTempDir()
+    val log = new StringBuffer
+    val graph = newGraph(dir)
+    def file(name: String) = new File(dir, name + ".txt")
+    // b and c each use one of the outputs of a; d uses a's input and c's output
+    val a = new LoggingFunction("a", Seq(file("in")), file("a"), log) {
+      @Output(doc="index")
+      var index: File = file("a.idx")
+      override def run() {
+        super.run()
+        FileUtils.touch(index)
+      }
+    }
+    FileUtils.touch(file("in"))
+    val functions = Seq(
+      new LoggingFunction("d", Seq(file("in"), file("c")), file("d"), log),
+      new LoggingFunction("c", Seq(file("a.idx")), file("c"), log),
+      new LoggingFunction("b", Seq(file("a")), file("b"), log),
+      a)
+    for ((function, i) <- functions.zipWithIndex) {
+      function.addOrder = Seq(i)
+      graph.add(function)
+    }
+    graph.run()
+
+    Assert.assertTrue(graph.success)
+    Assert.assertEquals(log.toString, "acbd")
+    Assert.assertEquals(graph.formattedStatusCounts, "0 Pend, 0 Run, 0 Fail, 4 Done")
+  }
+
+  @Test(expectedExceptions = Array(classOf[QException]))
+  def testCycleDetected() {
+    val dir = newTempDir()
+    val log = new StringBuffer
+    val graph = newGraph(dir)
+    def file(name: String) = new File(dir, name + ".txt")
+    graph.add(new LoggingFunction("x", Seq(file("y")), file("x"), log))
+    graph.add(new LoggingFunction("y", Seq(file("x")), file("y"), log))
+    graph.run()
+  }
+}
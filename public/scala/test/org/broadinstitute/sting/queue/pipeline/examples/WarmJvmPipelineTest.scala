@@ -0,0 +1,78 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.queue.pipeline.examples
+
+import org.testng.annotations.Test
+import org.broadinstitute.sting.queue.pipeline.{PipelineTest, PipelineTestSpec}
+import org.broadinstitute.sting.BaseTest
+
+/**
+ * Runs the example pipelines with -jobRunner WarmJvm.  With a single worker thread every java job of a test
+ * runs on the same worker JVM, so each job after the first checks that a GATK run isn't affected by the runs
+ * before it in that JVM.
+ */
+class WarmJvmPipelineTest {
+  @Test(timeOut=36000000)
+  def testWarmJvmHelloWorld() {
+    // not a java job, so run with sh
+    val spec = new PipelineTestSpec
+    spec.name = "HelloWorld"
+    spec.args = "-S public/scala/qscript/org/broadinstitute/sting/queue/qscripts/examples/HelloWorld.scala"
+    spec.jobRunners = Seq("WarmJvm")
+    PipelineTest.executeTest(spec)
+  }
+
+  @Test(timeOut=36000000)
+  def testWarmJvmCountReads() {
+    val spec = new PipelineTestSpec
+    spec.name = "countreads"
+    spec.args = Array(
+      " -S public/scala/qscript/org/broadinstitute/sting/queue/qscripts/examples/ExampleCountReads.scala",
+      " -R " + BaseTest.publicTestDir + "exampleFASTA.fasta",
+      " -I " + BaseTest.publicTestDir + "exampleBAM.bam",
+      " -I " + BaseTest.publicTestDir + "exampleBAM.simple.bam",
+      " -warmJvmWorkers 1").mkString
+    spec.jobRunners = Seq("WarmJvm")
+    PipelineTest.executeTest(spec)
+  }
+
+  @Test(timeOut=36000000)
+  def testWarmJvmCountLoci() {
+    // the same output as ExampleCountLociPipelineTest
+    val testOut = "count.out"
+    val spec = new PipelineTestSpec
+    spec.name = "countloci"
+    spec.args = Array(
+      " -S public/scala/qscript/org/broadinstitute/sting/queue/qscripts/examples/ExampleCountLoci.scala",
+      " -R " + BaseTest.publicTestDir + "exampleFASTA.fasta",
+      " -I " + BaseTest.publicTestDir + "exampleBAM.bam",
+      " -o " + testOut,
+      " -warmJvmWorkers 1").mkString
+    spec.fileMD5s += testOut -> "ade93df31a6150321c1067e749cae9be"
+    spec.jobRunners = Seq("WarmJvm")
+    PipelineTest.executeTest(spec)
+  }
+}
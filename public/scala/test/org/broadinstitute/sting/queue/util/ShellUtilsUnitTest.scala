@@ -79,4 +79,27 @@ class ShellUtilsUnitTest {
   def testEscapeShellArgumentEmptyString() {
     Assert.assertEquals(ShellUtils.escapeShellArgument(""), "''")
   }
-}
\ No newline at end of file
+
+  @Test
+  def testSplitShellArguments() {
+    Assert.assertEquals(ShellUtils.splitShellArguments("java  -Xmx2g -jar 'a b.jar'"), Some(Seq("java", "-Xmx2g", "-jar", "a b.jar")))
+    Assert.assertEquals(ShellUtils.splitShellArguments(" 'a'\\''b' c\\ d '' "), Some(Seq("a'b", "c d", "")))
+    Assert.assertEquals(ShellUtils.splitShellArguments(""), Some(Seq.empty[String]))
+  }
+
+  @Test
+  def testSplitShellArgumentsEscaped() {
+    // Arguments escaped by escapeShellArgument come back unchanged
+    for ( asciiCode <- 1 to 127 if asciiCode != 10 && asciiCode != 13  ) {
+      val originalString = "a%cb".format(asciiCode.toChar)
+      val commandLine = "echo " + ShellUtils.escapeShellArgument(originalString)
+      Assert.assertEquals(ShellUtils.splitShellArguments(commandLine), Some(Seq("echo", originalString)))
+    }
+  }
+
+  @Test
+  def testSplitShellArgumentsShellSyntax() {
+    for ( commandLine <- Seq("echo $HOME", "echo \"a\"", "a | b", "a > b", "a; b", "a && b", "ls *.txt", "echo 'a", "echo a\\", "a\nb") )
+      Assert.assertEquals(ShellUtils.splitShellArguments(commandLine), None, commandLine)
+  }
+}